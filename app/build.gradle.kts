@@ -34,6 +34,24 @@ android {
     buildFeatures {
         viewBinding = true
     }
+    // Load-test workloads and runner, shared by unit tests and emulator tests
+    sourceSets {
+        getByName("test").java.srcDir("src/sharedTest/java")
+        getByName("androidTest").java.srcDir("src/sharedTest/java")
+    }
+    testOptions {
+        // Rows of pinned folders parse their color with android.graphics.Color, a stub on the JVM
+        unitTests.isReturnDefaultValues = true
+        unitTests.all { test ->
+            // Timing runs are opt-in: ./gradlew testDebugUnitTest -Pbenchmarks
+            val benchmarks = project.hasProperty("benchmarks")
+            test.useJUnit {
+                if (benchmarks) includeCategories("com.example.notevault.Benchmark")
+                else excludeCategories("com.example.notevault.Benchmark")
+            }
+            test.testLogging.showStandardStreams = benchmarks
+        }
+    }
 }
 
 dependencies {
@@ -54,6 +72,8 @@ dependencies {
     // Lifecycle components for ViewModel and LiveData
     implementation("androidx.lifecycle:lifecycle-viewmodel:2.6.2")
     implementation("androidx.lifecycle:lifecycle-livedata:2.6.2")
+    // ProcessLifecycleOwner, to pause listeners while the app is in the background
+    implementation("androidx.lifecycle:lifecycle-process:2.6.2")
     
     // RecyclerView and CardView
     implementation("androidx.recyclerview:recyclerview:1.3.2")
@@ -63,8 +83,12 @@ dependencies {
     implementation("androidx.coordinatorlayout:coordinatorlayout:1.2.0")
     // Glide for loading profile images
     implementation("com.github.bumptech.glide:glide:4.16.0")
+    // Trace sections for Firestore calls (visible in Perfetto / the Studio profiler)
+    implementation("androidx.tracing:tracing:1.2.0")
 
     testImplementation(libs.junit)
+    // InstantTaskExecutorRule, so ViewModel tests can set LiveData off the main thread
+    testImplementation("androidx.arch.core:core-testing:2.2.0")
     androidTestImplementation(libs.ext.junit)
     androidTestImplementation(libs.espresso.core)
 }
\ No newline at end of file
@@ -0,0 +1,95 @@
+package com.example.notevault.adapter;
+
+import android.content.Context;
+import android.view.ContextThemeWrapper;
+import android.view.View;
+import android.widget.FrameLayout;
+import android.widget.TextView;
+
+import androidx.core.widget.TextViewCompat;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.example.notevault.R;
+import com.example.notevault.model.Note;
+import com.example.notevault.presentation.NoteRow;
+import com.example.notevault.presentation.RowFactory;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Prints the cost of building note rows and of binding and measuring a note card, with and
+ * without a precomputed preview layout.
+ */
+@RunWith(AndroidJUnit4.class)
+public class NoteRowBindBenchmarkTest {
+
+    private static final int ROWS = 300;
+    private static final int ROUNDS = 5;
+
+    @Test
+    public void bindAndMeasureBenchmark() {
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(() -> {
+            Context context = new ContextThemeWrapper(
+                    InstrumentationRegistry.getInstrumentation().getTargetContext(), R.style.Theme_NoteVault);
+            NoteAdapter adapter = new NoteAdapter(null);
+            NoteAdapter.NoteViewHolder holder = adapter.onCreateViewHolder(new FrameLayout(context), 0);
+            TextView preview = holder.itemView.findViewById(R.id.tvContent);
+
+            List<Note> notes = sampleNotes();
+            long now = System.currentTimeMillis();
+            long start = System.nanoTime();
+            List<NoteRow> plain = new RowFactory(null, "Locked").noteRows(notes, now);
+            double plainBuild = (System.nanoTime() - start) / 1000.0 / ROWS;
+            start = System.nanoTime();
+            List<NoteRow> precomputed = new RowFactory(TextViewCompat.getTextMetricsParams(preview), "Locked")
+                    .noteRows(notes, now);
+            double precomputedBuild = (System.nanoTime() - start) / 1000.0 / ROWS;
+            assertEquals(ROWS, precomputed.size());
+
+            double plainBind = bindAndMeasure(adapter, holder, plain);
+            double precomputedBind = bindAndMeasure(adapter, holder, precomputed);
+            System.out.printf("NoteRow: build %.1f us/row plain, %.1f us/row precomputed (off main thread); "
+                            + "bind+measure %.1f us/row plain, %.1f us/row precomputed%n",
+                    plainBuild, precomputedBuild, plainBind, precomputedBind);
+        });
+    }
+
+    /** Average microseconds to bind a row and measure the card at phone width. */
+    private static double bindAndMeasure(NoteAdapter adapter, NoteAdapter.NoteViewHolder holder, List<NoteRow> rows) {
+        adapter.setRows(rows);
+        int width = View.MeasureSpec.makeMeasureSpec(1080, View.MeasureSpec.EXACTLY);
+        int height = View.MeasureSpec.makeMeasureSpec(0, View.MeasureSpec.UNSPECIFIED);
+        for (int i = 0; i < ROWS; i++) { // warm up
+            adapter.onBindViewHolder(holder, i);
+            holder.itemView.measure(width, height);
+        }
+        long start = System.nanoTime();
+        for (int round = 0; round < ROUNDS; round++) {
+            for (int i = 0; i < ROWS; i++) {
+                adapter.onBindViewHolder(holder, i);
+                holder.itemView.measure(width, height);
+            }
+        }
+        return (System.nanoTime() - start) / 1000.0 / (ROWS * ROUNDS);
+    }
+
+    private static List<Note> sampleNotes() {
+        List<Note> notes = new ArrayList<>();
+        StringBuilder body = new StringBuilder();
+        for (int i = 0; i < 40; i++) body.append("Paragraph ").append(i).append(" of a fairly ordinary note body. ");
+        for (int i = 0; i < ROWS; i++) {
+            Note note = new Note("n" + i, "Note " + i, body.substring(i % 200), "#4ECDC4",
+                    new Date(System.currentTimeMillis() - i * 3_600_000L));
+            notes.add(note);
+        }
+        return notes;
+    }
+}
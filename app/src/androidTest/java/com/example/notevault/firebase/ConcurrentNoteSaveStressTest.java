@@ -0,0 +1,151 @@
+package com.example.notevault.firebase;
+
+import android.os.Bundle;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.example.notevault.diff.ThreeWayMerge;
+import com.example.notevault.model.Note;
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.auth.FirebaseAuth;
+import com.google.firebase.firestore.DocumentReference;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FirebaseFirestore;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Concurrent writers saving one note through {@link FirebaseManager#saveNoteIfUnchanged}.
+ * Each writer owns one line, so every save must land (merged where needed) and the final note
+ * must hold each writer's last edit. Prints the transaction retry rate.
+ *
+ * Needs the Firestore and Auth emulators; run with
+ * {@code -Pandroid.testInstrumentationRunnerArguments.emulatorHost=10.0.2.2}.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ConcurrentNoteSaveStressTest {
+
+    private static final int WRITERS = 8;
+    private static final int SAVES_PER_WRITER = 15;
+
+    private static String userId;
+
+    @BeforeClass
+    public static void connectToEmulator() throws Exception {
+        Bundle args = InstrumentationRegistry.getArguments();
+        String host = args.getString("emulatorHost");
+        assumeTrue("Firestore emulator not configured", host != null);
+        FirebaseFirestore.getInstance().useEmulator(host, 8080);
+        FirebaseAuth.getInstance().useEmulator(host, 9099);
+        userId = Tasks.await(FirebaseAuth.getInstance().signInAnonymously()).getUser().getUid();
+    }
+
+    @Test
+    public void concurrentWritersConvergeWithoutLostUpdates() throws Exception {
+        FirebaseManager manager = FirebaseManager.getInstance();
+        String folderId = "stress-folder";
+        Note note = new Note();
+        note.setTitle("Stress");
+        note.setContent(initialContent());
+        note.setUpdatedAt(new Date());
+        CountDownLatch created = new CountDownLatch(1);
+        manager.addOrUpdateNote(userId, folderId, note, (ok, msg) -> created.countDown());
+        assertTrue(created.await(30, TimeUnit.SECONDS));
+        DocumentReference doc = FirebaseFirestore.getInstance().collection("users").document(userId)
+                .collection("folders").document(folderId).collection("notes").document(note.getId());
+
+        AtomicInteger attempts = new AtomicInteger();
+        AtomicInteger saves = new AtomicInteger();
+        AtomicInteger failures = new AtomicInteger();
+        List<Thread> threads = new ArrayList<>();
+        for (int w = 0; w < WRITERS; w++) {
+            int writer = w;
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < SAVES_PER_WRITER; i++) {
+                    try {
+                        DocumentSnapshot snap = Tasks.await(doc.get());
+                        String base = snap.getString("content");
+                        String local = withLine(base, writer, "writer " + writer + " edit " + i);
+                        Note edit = new Note();
+                        edit.setId(note.getId());
+                        edit.setTitle("Stress");
+                        edit.setContent(local);
+                        edit.setUpdatedAt(new Date());
+                        CountDownLatch done = new CountDownLatch(1);
+                        manager.saveNoteIfUnchanged(userId, folderId, edit, snap.getDate("updatedAt"), remote -> {
+                            ThreeWayMerge.Result merged = ThreeWayMerge.merge(base, local, remote.getContent());
+                            if (merged.hasConflicts()) return null;
+                            Note result = new Note();
+                            result.setId(note.getId());
+                            result.setTitle("Stress");
+                            result.setContent(merged.text);
+                            result.setUpdatedAt(new Date());
+                            return result;
+                        }, new FirebaseManager.NoteSaveCallback() {
+                            @Override
+                            public void onSaved(String message, int tries) {
+                                attempts.addAndGet(tries);
+                                saves.incrementAndGet();
+                                done.countDown();
+                            }
+
+                            @Override
+                            public void onConflict(Note remote) {
+                                failures.incrementAndGet();
+                                done.countDown();
+                            }
+
+                            @Override
+                            public void onError(String message) {
+                                failures.incrementAndGet();
+                                done.countDown();
+                            }
+                        });
+                        assertTrue(done.await(60, TimeUnit.SECONDS));
+                    } catch (Exception e) {
+                        failures.incrementAndGet();
+                    }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) thread.join();
+
+        String finalContent = Tasks.await(doc.get()).getString("content");
+        for (int w = 0; w < WRITERS; w++) {
+            assertTrue(finalContent.contains("writer " + w + " edit " + (SAVES_PER_WRITER - 1) + "\n"));
+        }
+        assertEquals(0, failures.get());
+        assertEquals(WRITERS * SAVES_PER_WRITER, saves.get());
+        System.out.printf("ConcurrentNoteSave: %d saves, %d transaction attempts, retry rate %.2f%n",
+                saves.get(), attempts.get(), (attempts.get() - saves.get()) / (double) saves.get());
+    }
+
+    /** One line per writer with untouched separator lines between, so edits never overlap. */
+    private static String initialContent() {
+        StringBuilder sb = new StringBuilder();
+        for (int w = 0; w < WRITERS; w++) sb.append("writer ").append(w).append(" start\n").append("--\n");
+        return sb.toString();
+    }
+
+    private static String withLine(String content, int writer, String line) {
+        String[] lines = content.split("\n", -1);
+        lines[writer * 2] = line;
+        return String.join("\n", lines);
+    }
+}
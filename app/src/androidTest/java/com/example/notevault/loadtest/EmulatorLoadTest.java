@@ -0,0 +1,69 @@
+package com.example.notevault.loadtest;
+
+import android.os.Bundle;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.example.notevault.firebase.FirestoreStore;
+import com.example.notevault.metrics.FirestoreMetrics;
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.auth.FirebaseAuth;
+import com.google.firebase.firestore.FirebaseFirestore;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Seeds the Firestore emulator with a generated account and replays journeys through
+ * {@link FirestoreStore}. Logs the scenario report and {@link FirestoreMetrics} for each
+ * FirebaseManager call under the tag {@value #TAG}.
+ *
+ * Needs the Firestore and Auth emulators; run with
+ * {@code -Pandroid.testInstrumentationRunnerArguments.emulatorHost=10.0.2.2}. The account size
+ * can be raised with {@code loadFolders} and {@code loadHugeFolderNotes}.
+ */
+@RunWith(AndroidJUnit4.class)
+public class EmulatorLoadTest {
+
+    private static final String TAG = "EmulatorLoadTest";
+
+    private static String userId;
+    private static Bundle args;
+
+    @BeforeClass
+    public static void connectToEmulator() throws Exception {
+        args = InstrumentationRegistry.getArguments();
+        String host = args.getString("emulatorHost");
+        assumeTrue("Firestore emulator not configured", host != null);
+        FirebaseFirestore.getInstance().useEmulator(host, 8080);
+        FirebaseAuth.getInstance().useEmulator(host, 9099);
+        userId = Tasks.await(FirebaseAuth.getInstance().signInAnonymously()).getUser().getUid();
+    }
+
+    @Test
+    public void journeysAgainstSeededAccount() throws Exception {
+        int folders = Integer.parseInt(args.getString("loadFolders", "100"));
+        int hugeFolderNotes = Integer.parseInt(args.getString("loadHugeFolderNotes", "2000"));
+        Workload workload = Workload.generate(userId, new WorkloadSpec()
+                .folders(folders, Distribution.logNormal(10, 1.2, 500))
+                .hugeFolders(1, Distribution.constant(hugeFolderNotes)));
+        FirestoreStore store = FirestoreStore.getInstance();
+        long seedStart = System.nanoTime();
+        assertEquals(0, workload.write(store, store, 200));
+        Log.i(TAG, "Seeded " + workload.describe() + " in " + (System.nanoTime() - seedStart) / 1_000_000 + " ms");
+
+        FirestoreMetrics.getInstance().reset();
+        LoadReport report = new ScenarioRunner(store, store, workload).run(20, 2);
+        Log.i(TAG, "Journeys:\n" + report.format());
+        Log.i(TAG, "FirebaseManager calls:\n" + FirestoreMetrics.getInstance().report());
+        for (String operation : report.operations()) {
+            assertEquals(operation, 0, report.failures(operation));
+        }
+    }
+}
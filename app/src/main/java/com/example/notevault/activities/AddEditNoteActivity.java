@@ -1,13 +1,18 @@
 package com.example.notevault.activities;
 
+import android.content.Context;
+import android.content.Intent;
 import android.os.Bundle;
 import android.text.TextUtils;
 import android.view.LayoutInflater;
+import android.view.Menu;
+import android.view.MenuItem;
 import android.view.View;
 import android.widget.EditText;
 import android.widget.ProgressBar;
 import android.widget.Toast;
 
+import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.lifecycle.ViewModelProvider;
@@ -15,11 +20,20 @@ import androidx.recyclerview.widget.GridLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.example.notevault.R;
+import com.example.notevault.diff.ThreeWayMerge;
+import com.example.notevault.model.Note;
+import com.example.notevault.tags.Tags;
+import com.example.notevault.utils.CollaborativeTextWatcher;
 import com.example.notevault.utils.ColorUtils;
+import com.example.notevault.viewmodel.CollaborativeNoteViewModel;
 import com.example.notevault.viewmodel.NoteViewModel;
 import com.google.android.material.appbar.MaterialToolbar;
 import com.google.android.material.button.MaterialButton;
+import com.google.android.material.dialog.MaterialAlertDialogBuilder;
 
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Date;
 import java.util.List;
 
 /**
@@ -32,16 +46,59 @@ public class AddEditNoteActivity extends AppCompatActivity {
     public static final String EXTRA_NOTE_TITLE = "extra_note_title";
     public static final String EXTRA_NOTE_CONTENT = "extra_note_content";
     public static final String EXTRA_NOTE_COLOR = "extra_note_color";
+    public static final String EXTRA_NOTE_TAGS = "extra_note_tags";
+    public static final String EXTRA_NOTE_LOCKED = "extra_note_locked";
+    /** updatedAt of the note as loaded, in millis; saves are checked against it */
+    public static final String EXTRA_NOTE_UPDATED_AT = "extra_note_updated_at";
+    /** Salt and key check of the lock whose session key encrypts this note, if any. */
+    public static final String EXTRA_KEY_SALT = "extra_key_salt";
+    public static final String EXTRA_KEY_CHECK = "extra_key_check";
+
+    private static final int REQUEST_HISTORY = 200;
 
     private EditText etTitle;
     private EditText etContent;
+    private EditText etTags;
     private ProgressBar progressBar;
     private View colorPreview;
     private String currentNoteId;
     private String folderId;
     private String selectedColor;
+    private boolean locked;
+    private byte[] keySalt;
+    private byte[] keyCheck;
+    /** The note as last loaded from Firestore; null for a new note */
+    private Note base;
 
     private NoteViewModel noteViewModel;
+    /** Live shared editing of the content; only for existing notes that are not encrypted */
+    private CollaborativeNoteViewModel collabViewModel;
+    private CollaborativeTextWatcher collabWatcher;
+    private boolean collabAttached;
+
+    /**
+     * Open {@code note} in its folder, with what the editor needs to save it. Throws if the
+     * content is encrypted with a key this session does not have.
+     */
+    public static Intent newIntent(Context context, Note note) throws GeneralSecurityException {
+        String content = NoteViewModel.readContent(note);
+        Intent intent = new Intent(context, AddEditNoteActivity.class);
+        intent.putExtra("FOLDER_ID", note.getFolderId());
+        intent.putExtra(EXTRA_NOTE_ID, note.getId());
+        intent.putExtra(EXTRA_NOTE_TITLE, note.getTitle());
+        intent.putExtra(EXTRA_NOTE_CONTENT, content);
+        intent.putExtra(EXTRA_NOTE_COLOR, note.getColor());
+        intent.putStringArrayListExtra(EXTRA_NOTE_TAGS, new ArrayList<>(note.getTags()));
+        if (note.getUpdatedAt() != null) {
+            intent.putExtra(EXTRA_NOTE_UPDATED_AT, note.getUpdatedAt().getTime());
+        }
+        if (note.getEncryptedContent() != null && note.getKeySalt() != null && note.getKeyCheck() != null) {
+            intent.putExtra(EXTRA_NOTE_LOCKED, note.isLocked());
+            intent.putExtra(EXTRA_KEY_SALT, note.getKeySalt().toBytes());
+            intent.putExtra(EXTRA_KEY_CHECK, note.getKeyCheck().toBytes());
+        }
+        return intent;
+    }
 
     @Override
     protected void onCreate(@Nullable Bundle savedInstanceState) {
@@ -72,6 +129,7 @@ public class AddEditNoteActivity extends AppCompatActivity {
 
         etTitle = findViewById(R.id.etTitle);
         etContent = findViewById(R.id.etContent);
+        etTags = findViewById(R.id.etTags);
         progressBar = findViewById(R.id.progressBarAddEdit);
         colorPreview = findViewById(R.id.colorPreview);
         MaterialButton btnSave = findViewById(R.id.btnSave);
@@ -83,6 +141,19 @@ public class AddEditNoteActivity extends AppCompatActivity {
         String title = getIntent().getStringExtra(EXTRA_NOTE_TITLE);
         String content = getIntent().getStringExtra(EXTRA_NOTE_CONTENT);
         selectedColor = getIntent().getStringExtra(EXTRA_NOTE_COLOR);
+        ArrayList<String> tags = getIntent().getStringArrayListExtra(EXTRA_NOTE_TAGS);
+        locked = getIntent().getBooleanExtra(EXTRA_NOTE_LOCKED, false);
+        keySalt = getIntent().getByteArrayExtra(EXTRA_KEY_SALT);
+        keyCheck = getIntent().getByteArrayExtra(EXTRA_KEY_CHECK);
+        long updatedAt = getIntent().getLongExtra(EXTRA_NOTE_UPDATED_AT, -1);
+        if (currentNoteId != null) {
+            base = new Note();
+            base.setTitle(title);
+            base.setContent(content != null ? content : "");
+            base.setColor(selectedColor);
+            base.setTags(tags != null ? tags : new ArrayList<>());
+            base.setUpdatedAt(updatedAt >= 0 ? new Date(updatedAt) : null);
+        }
 
         if (selectedColor == null) {
             selectedColor = ColorUtils.getDefaultColor();
@@ -94,13 +165,78 @@ public class AddEditNoteActivity extends AppCompatActivity {
         if (content != null) {
             etContent.setText(content);
         }
+        if (tags != null) {
+            etTags.setText(Tags.format(tags));
+        }
         
         updateColorPreview();
 
+        if (base != null && !locked && keySalt == null) {
+            startCollaboration();
+        }
+
         btnSave.setOnClickListener(v -> saveNote());
         btnPickColor.setOnClickListener(v -> showColorPicker());
     }
 
+    private void startCollaboration() {
+        collabViewModel = new ViewModelProvider(this).get(CollaborativeNoteViewModel.class);
+        collabWatcher = new CollaborativeTextWatcher(collabViewModel::onLocalEdit);
+        collabViewModel.getText().observe(this, text -> {
+            if (text == null) return;
+            if (!collabAttached) {
+                // Keep whatever was typed before the shared state loaded
+                String typed = etContent.getText().toString();
+                collabAttached = true;
+                etContent.addTextChangedListener(collabWatcher);
+                collabWatcher.applyRemote(etContent.getText(), text);
+                if (!typed.equals(base.getContent())) {
+                    collabWatcher.applyLocal(etContent.getText(), ThreeWayMerge.merge(base.getContent(), typed, text).text);
+                }
+            } else {
+                collabWatcher.applyRemote(etContent.getText(), text);
+            }
+        });
+        collabViewModel.open(currentNoteId, base.getContent(), base.getUpdatedAt());
+    }
+
+    @Override
+    protected void onStop() {
+        super.onStop();
+        if (collabViewModel != null) collabViewModel.flush();
+    }
+
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        // Encrypted notes keep no history
+        if (currentNoteId != null && keySalt == null) {
+            getMenuInflater().inflate(R.menu.menu_add_edit_note, menu);
+        }
+        return true;
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(@NonNull MenuItem item) {
+        if (item.getItemId() == R.id.action_history) {
+            Intent intent = new Intent(this, NoteHistoryActivity.class);
+            intent.putExtra(NoteHistoryActivity.EXTRA_NOTE_ID, currentNoteId);
+            startActivityForResult(intent, REQUEST_HISTORY);
+            return true;
+        }
+        return super.onOptionsItemSelected(item);
+    }
+
+    @Override
+    protected void onActivityResult(int requestCode, int resultCode, @Nullable Intent data) {
+        super.onActivityResult(requestCode, resultCode, data);
+        if (requestCode == REQUEST_HISTORY && resultCode == RESULT_OK && data != null) {
+            // Restoring only fills the editor; it becomes a new revision once saved
+            String title = data.getStringExtra(NoteHistoryActivity.EXTRA_RESTORED_TITLE);
+            if (title != null) etTitle.setText(title);
+            etContent.setText(data.getStringExtra(NoteHistoryActivity.EXTRA_RESTORED_CONTENT));
+        }
+    }
+
     private void showColorPicker() {
         View dialogView = LayoutInflater.from(this).inflate(R.layout.dialog_color_picker, null);
         RecyclerView recyclerColors = dialogView.findViewById(R.id.recyclerColors);
@@ -137,16 +273,44 @@ public class AddEditNoteActivity extends AppCompatActivity {
             etContent.setError("Content is required");
             return;
         }
+        if (ThreeWayMerge.hasConflictMarkers(content)) {
+            etContent.setError(getString(R.string.merge_unresolved));
+            return;
+        }
 
         setLoading(true);
-
-        noteViewModel.saveNote(folderId, currentNoteId, title, content, selectedColor, (success, message) -> {
-            setLoading(false);
-            Toast.makeText(AddEditNoteActivity.this, message, Toast.LENGTH_SHORT).show();
-            if (success) {
-                finish();
-            }
-        });
+        if (collabViewModel != null) collabViewModel.flush();
+
+        noteViewModel.saveNote(folderId, currentNoteId, title, content, selectedColor,
+                Tags.parse(etTags.getText().toString()), locked, keySalt, keyCheck, base,
+                new NoteViewModel.SaveCallback() {
+                    @Override
+                    public void onSaved(String message) {
+                        setLoading(false);
+                        if (collabViewModel != null) collabViewModel.markSynced();
+                        Toast.makeText(AddEditNoteActivity.this, message, Toast.LENGTH_SHORT).show();
+                        finish();
+                    }
+
+                    @Override
+                    public void onConflict(String merged, Note remote) {
+                        setLoading(false);
+                        // The next save is checked against the version just read
+                        base = remote;
+                        etContent.setText(merged);
+                        new MaterialAlertDialogBuilder(AddEditNoteActivity.this)
+                                .setTitle(R.string.merge_conflict_title)
+                                .setMessage(R.string.merge_conflict_message)
+                                .setPositiveButton("OK", null)
+                                .show();
+                    }
+
+                    @Override
+                    public void onError(String message) {
+                        setLoading(false);
+                        Toast.makeText(AddEditNoteActivity.this, message, Toast.LENGTH_SHORT).show();
+                    }
+                });
     }
 
     private void setLoading(boolean loading) {
@@ -1,8 +1,14 @@
 package com.example.notevault.activities;
 
 import android.content.Intent;
+import android.content.pm.ApplicationInfo;
+import android.net.Uri;
 import android.os.Bundle;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.view.LayoutInflater;
+import android.view.Menu;
+import android.view.MenuItem;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.EditText;
@@ -12,10 +18,13 @@ import android.widget.TextView;
 import android.widget.Toast;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import androidx.appcompat.app.AlertDialog;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.lifecycle.ViewModelProvider;
+import androidx.recyclerview.widget.ConcatAdapter;
 import androidx.recyclerview.widget.GridLayoutManager;
+import androidx.recyclerview.widget.ItemTouchHelper;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.bumptech.glide.Glide;
@@ -23,10 +32,23 @@ import com.bumptech.glide.load.resource.bitmap.CircleCrop;
 import com.bumptech.glide.request.RequestOptions;
 import com.example.notevault.R;
 import com.example.notevault.adapter.FolderAdapter;
+import com.example.notevault.adapter.ReorderCallback;
+import com.example.notevault.adapter.SectionHeaderAdapter;
+import com.example.notevault.firebase.FirebaseFutures;
 import com.example.notevault.firebase.FirebaseManager;
+import com.example.notevault.firebase.FirestoreStore;
+import com.example.notevault.metrics.MainThreadTimer;
 import com.example.notevault.model.Folder;
+import com.example.notevault.prefetch.FolderPrefetcher;
+import com.example.notevault.presentation.FolderRow;
+import com.example.notevault.sort.SortMode;
+import com.example.notevault.store.ListCache;
+import com.example.notevault.store.UndoWindow;
 import com.example.notevault.utils.ColorUtils;
+import com.example.notevault.utils.Futures;
+import com.example.notevault.utils.MainThreadExecutor;
 import com.example.notevault.utils.PasswordHashUtil;
+import com.example.notevault.utils.SessionKeyCache;
 import com.example.notevault.viewmodel.FolderViewModel;
 import com.google.android.material.dialog.MaterialAlertDialogBuilder;
 import com.google.android.material.floatingactionbutton.FloatingActionButton;
@@ -34,8 +56,16 @@ import com.google.android.material.navigation.NavigationView;
 import com.google.android.material.snackbar.Snackbar;
 import com.google.firebase.auth.FirebaseUser;
 
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
 import androidx.drawerlayout.widget.DrawerLayout;
 
@@ -46,10 +76,23 @@ public class FolderActivity extends AppCompatActivity implements FolderAdapter.O
 
     private FolderViewModel folderViewModel;
     private FolderAdapter folderAdapter;
+    private FolderAdapter pinnedAdapter;
+    private SectionHeaderAdapter pinnedHeader;
+    private SectionHeaderAdapter othersHeader;
+    private List<FolderRow> pinnedRows = new ArrayList<>();
+    private List<FolderRow> folderRows = new ArrayList<>();
+    private ItemTouchHelper dragHelper;
     private ProgressBar progressBar;
     private TextView tvEmpty;
     private DrawerLayout drawerLayout;
     private NavigationView navView;
+    private List<String> visibleFolderIds = new ArrayList<>();
+    private boolean prefetchScheduled;
+    private CompletableFuture<String> photoUpload;
+
+    private static final long PHOTO_UPLOAD_TIMEOUT_SECONDS = 60;
+    private static final int REQUEST_IMPORT = 101;
+    private static final long LOCAL_SNAPSHOT_MAX_AGE_MS = 24L * 60 * 60 * 1000;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -61,9 +104,23 @@ public class FolderActivity extends AppCompatActivity implements FolderAdapter.O
         progressBar = findViewById(R.id.progressBarFolder);
         tvEmpty = findViewById(R.id.tvEmptyState);
 
+        FirebaseUser user = FirebaseManager.getInstance().getCurrentUser();
+        // Before the lists subscribe, so a cold start shows the vault saved on this device at once
+        if (user != null && savedInstanceState == null) {
+            FirestoreStore.getInstance().restoreLocalSnapshot(localSnapshot(user.getUid()));
+        }
+
         setupToolbar();
         setupDrawer();
         setupRecyclerView();
+
+        if (user != null) {
+            FirebaseManager.getInstance().loadNotesLayout(user.getUid(), (ok, msg) -> {
+                navView.getMenu().findItem(R.id.nav_storage_layout)
+                        .setVisible(ok && !FirebaseManager.getInstance().isFlatNotesLayout());
+                if (ok) FirebaseManager.getInstance().runSchemaMigrations(user.getUid(), null);
+            });
+        }
     }
 
     private void setupToolbar() {
@@ -77,6 +134,9 @@ public class FolderActivity extends AppCompatActivity implements FolderAdapter.O
     }
 
     private void setupDrawer() {
+        // Only debug builds show the Firestore metrics screen
+        navView.getMenu().findItem(R.id.nav_metrics)
+                .setVisible((getApplicationInfo().flags & ApplicationInfo.FLAG_DEBUGGABLE) != 0);
         View header = navView.getHeaderView(0);
         ImageView profileImage = header.findViewById(R.id.navHeaderProfileImage);
         TextView emailView = header.findViewById(R.id.navHeaderEmail);
@@ -93,6 +153,10 @@ public class FolderActivity extends AppCompatActivity implements FolderAdapter.O
         navView.setNavigationItemSelectedListener(item -> {
             drawerLayout.closeDrawers();
             int id = item.getItemId();
+            if (id == R.id.nav_recent) {
+                startActivity(new Intent(this, RecentActivity.class));
+                return true;
+            }
             if (id == R.id.nav_recycle_bin) {
                 startActivity(new Intent(this, RecycleBinActivity.class));
                 return true;
@@ -101,6 +165,29 @@ public class FolderActivity extends AppCompatActivity implements FolderAdapter.O
                 startActivity(new Intent(this, HiddenActivity.class));
                 return true;
             }
+            if (id == R.id.nav_tags) {
+                startActivity(new Intent(this, TagsActivity.class));
+                return true;
+            }
+            if (id == R.id.nav_export) {
+                exportVault();
+                return true;
+            }
+            if (id == R.id.nav_import) {
+                Intent pick = new Intent(Intent.ACTION_OPEN_DOCUMENT);
+                pick.addCategory(Intent.CATEGORY_OPENABLE);
+                pick.setType("application/zip");
+                startActivityForResult(pick, REQUEST_IMPORT);
+                return true;
+            }
+            if (id == R.id.nav_storage_layout) {
+                confirmStorageLayoutMigration();
+                return true;
+            }
+            if (id == R.id.nav_metrics) {
+                startActivity(new Intent(this, MetricsActivity.class));
+                return true;
+            }
             if (id == R.id.nav_logout) {
                 doLogout();
                 return true;
@@ -109,6 +196,71 @@ public class FolderActivity extends AppCompatActivity implements FolderAdapter.O
         });
     }
 
+    private void confirmStorageLayoutMigration() {
+        FirebaseUser user = FirebaseManager.getInstance().getCurrentUser();
+        if (user == null) return;
+        new MaterialAlertDialogBuilder(this)
+                .setTitle(R.string.nav_storage_layout)
+                .setMessage(R.string.storage_layout_message)
+                .setPositiveButton("Upgrade", (d, w) -> {
+                    progressBar.setVisibility(View.VISIBLE);
+                    FirebaseManager.getInstance().migrateToFlatNotesLayout(user.getUid(), null, (ok, msg) -> {
+                        progressBar.setVisibility(View.GONE);
+                        if (ok) navView.getMenu().findItem(R.id.nav_storage_layout).setVisible(false);
+                        Toast.makeText(this, msg, Toast.LENGTH_SHORT).show();
+                    });
+                })
+                .setNegativeButton("Cancel", null)
+                .show();
+    }
+
+    /** Export to app storage; an interrupted export of the same file picks up where it stopped. */
+    private void exportVault() {
+        FirebaseUser user = FirebaseManager.getInstance().getCurrentUser();
+        if (user == null) return;
+        File dir = getExternalFilesDir("exports");
+        File target = new File(dir != null ? dir : getFilesDir(), "notevault-export.zip");
+        progressBar.setVisibility(View.VISIBLE);
+        FirebaseManager.getInstance().exportVault(user.getUid(), target,
+                (folders, notes, bytes) -> {
+                    if (getSupportActionBar() != null) {
+                        getSupportActionBar().setSubtitle(getString(R.string.export_progress, notes));
+                    }
+                },
+                (ok, msg) -> {
+                    progressBar.setVisibility(View.GONE);
+                    if (getSupportActionBar() != null) getSupportActionBar().setSubtitle(null);
+                    Toast.makeText(this, ok ? msg + "\n" + target.getPath() : msg, Toast.LENGTH_LONG).show();
+                });
+    }
+
+    private void importVault(Uri archive) {
+        FirebaseUser user = FirebaseManager.getInstance().getCurrentUser();
+        if (user == null) return;
+        InputStream in;
+        try {
+            in = getContentResolver().openInputStream(archive);
+        } catch (FileNotFoundException e) {
+            in = null;
+        }
+        if (in == null) {
+            Toast.makeText(this, "Cannot open " + archive, Toast.LENGTH_SHORT).show();
+            return;
+        }
+        progressBar.setVisibility(View.VISIBLE);
+        FirebaseManager.getInstance().importVault(user.getUid(), in,
+                (notes, duplicates) -> {
+                    if (getSupportActionBar() != null) {
+                        getSupportActionBar().setSubtitle(getString(R.string.import_progress, notes));
+                    }
+                },
+                (ok, msg) -> {
+                    progressBar.setVisibility(View.GONE);
+                    if (getSupportActionBar() != null) getSupportActionBar().setSubtitle(null);
+                    Toast.makeText(this, msg, Toast.LENGTH_LONG).show();
+                });
+    }
+
     private void loadProfilePhoto(ImageView imageView, String userId) {
         FirebaseManager.getInstance().getUserPhotoUrl(userId, url -> {
             if (url != null && !url.isEmpty()) {
@@ -132,6 +284,10 @@ public class FolderActivity extends AppCompatActivity implements FolderAdapter.O
     @Override
     protected void onActivityResult(int requestCode, int resultCode, Intent data) {
         super.onActivityResult(requestCode, resultCode, data);
+        if (requestCode == REQUEST_IMPORT && resultCode == RESULT_OK && data != null && data.getData() != null) {
+            importVault(data.getData());
+            return;
+        }
         if (requestCode == 100 && resultCode == RESULT_OK && data != null && data.getData() != null) {
             try {
                 java.io.InputStream is = getContentResolver().openInputStream(data.getData());
@@ -144,24 +300,7 @@ public class FolderActivity extends AppCompatActivity implements FolderAdapter.O
                 byte[] bytes = baos.toByteArray();
                 if (bytes.length > 0) {
                     FirebaseUser user = FirebaseManager.getInstance().getCurrentUser();
-                    if (user != null) {
-                        FirebaseManager.getInstance().uploadProfilePhoto(user.getUid(), bytes, new FirebaseManager.ProfilePhotoCallback() {
-                            @Override
-                            public void onSuccess(String downloadUrl) {
-                                FirebaseManager.getInstance().updateUserPhotoUrl(user.getUid(), downloadUrl, (ok, msg) -> {
-                                    if (ok) {
-                                        ImageView iv = navView.getHeaderView(0).findViewById(R.id.navHeaderProfileImage);
-                                        Glide.with(FolderActivity.this).load(downloadUrl).apply(RequestOptions.bitmapTransform(new CircleCrop())).into(iv);
-                                        Toast.makeText(FolderActivity.this, "Profile photo updated", Toast.LENGTH_SHORT).show();
-                                    }
-                                });
-                            }
-                            @Override
-                            public void onError(String message) {
-                                Toast.makeText(FolderActivity.this, "Upload failed: " + message, Toast.LENGTH_SHORT).show();
-                            }
-                        });
-                    }
+                    if (user != null) uploadProfilePhoto(user.getUid(), bytes);
                 }
             } catch (Exception e) {
                 Toast.makeText(this, "Error: " + e.getMessage(), Toast.LENGTH_SHORT).show();
@@ -169,16 +308,87 @@ public class FolderActivity extends AppCompatActivity implements FolderAdapter.O
         }
     }
 
+    /** Upload, then point the user document at the new photo; each step retried, the upload bounded in time. */
+    private void uploadProfilePhoto(String userId, byte[] bytes) {
+        if (photoUpload != null) photoUpload.cancel(true);
+        FirebaseFutures firebase = FirebaseFutures.getInstance();
+        photoUpload = Futures.retry(() -> Futures.withTimeout(firebase.uploadProfilePhoto(userId, bytes),
+                        PHOTO_UPLOAD_TIMEOUT_SECONDS, TimeUnit.SECONDS), Futures.RetryPolicy.DEFAULT)
+                .thenCompose(url -> Futures.retry(() -> firebase.updateUserPhotoUrl(userId, url), Futures.RetryPolicy.DEFAULT)
+                        .thenApply(saved -> url));
+        Futures.on(photoUpload, MainThreadExecutor.getInstance()).whenComplete((url, error) -> {
+            if (isDestroyed() || Futures.unwrap(error) instanceof CancellationException) return;
+            if (error != null) {
+                Toast.makeText(this, "Upload failed: " + Futures.unwrap(error).getMessage(), Toast.LENGTH_SHORT).show();
+                return;
+            }
+            ImageView iv = navView.getHeaderView(0).findViewById(R.id.navHeaderProfileImage);
+            Glide.with(this).load(url).apply(RequestOptions.bitmapTransform(new CircleCrop())).into(iv);
+            Toast.makeText(this, "Profile photo updated", Toast.LENGTH_SHORT).show();
+        });
+    }
+
+    @Override
+    protected void onStop() {
+        super.onStop();
+        // Refresh the local snapshot now and then; it is written from the cache, so it costs no reads
+        FirebaseUser user = FirebaseManager.getInstance().getCurrentUser();
+        if (user == null) return;
+        File snapshot = localSnapshot(user.getUid());
+        if (System.currentTimeMillis() - snapshot.lastModified() > LOCAL_SNAPSHOT_MAX_AGE_MS) {
+            FirebaseManager.getInstance().saveLocalSnapshot(user.getUid(), snapshot, null);
+        }
+    }
+
+    @Override
+    protected void onDestroy() {
+        if (photoUpload != null) photoUpload.cancel(true);
+        super.onDestroy();
+    }
+
+    /** Kept in app storage per account; res/xml leaves it out of backups, as it is not encrypted. */
+    private File localSnapshot(String userId) {
+        return new File(new File(getFilesDir(), "snapshots"), userId + ".nvs");
+    }
+
     private void setupRecyclerView() {
         RecyclerView recyclerView = findViewById(R.id.recyclerViewFolders);
         FloatingActionButton fabAdd = findViewById(R.id.fabAddFolder);
 
-        recyclerView.setLayoutManager(new GridLayoutManager(this, 2));
+        GridLayoutManager grid = new GridLayoutManager(this, 2);
+        recyclerView.setLayoutManager(grid);
         folderAdapter = new FolderAdapter(this);
-        recyclerView.setAdapter(folderAdapter);
+        // Pinned folders have their own section above the rest, filled from a query of their own
+        pinnedAdapter = new FolderAdapter(this);
+        pinnedHeader = new SectionHeaderAdapter(getString(R.string.section_pinned));
+        othersHeader = new SectionHeaderAdapter(getString(R.string.section_others));
+        ConcatAdapter sections = new ConcatAdapter(pinnedHeader, pinnedAdapter, othersHeader, folderAdapter);
+        recyclerView.setAdapter(sections);
+        grid.setSpanSizeLookup(new GridLayoutManager.SpanSizeLookup() {
+            @Override
+            public int getSpanSize(int position) {
+                // Section titles take the full width
+                return sections.getWrappedAdapterAndPosition(position).first instanceof SectionHeaderAdapter
+                        ? grid.getSpanCount() : 1;
+            }
+        });
 
         folderViewModel = new ViewModelProvider(this).get(FolderViewModel.class);
-        folderViewModel.getFoldersLiveData().observe(this, this::updateFolders);
+        folderViewModel.setSortMode(SortMode.fromName(
+                getSharedPreferences(SortMode.PREFS, MODE_PRIVATE).getString(SortMode.KEY_FOLDERS, null)));
+        dragHelper = new ItemTouchHelper(new ReorderCallback(folderAdapter,
+                ItemTouchHelper.UP | ItemTouchHelper.DOWN | ItemTouchHelper.START | ItemTouchHelper.END,
+                (from, to) -> folderViewModel.moveFolder(from, to, (success, message) -> {
+                    if (!success) Toast.makeText(this, message, Toast.LENGTH_SHORT).show();
+                })));
+        dragHelper.attachToRecyclerView(recyclerView);
+        updateDragHandles();
+        folderViewModel.getPinnedRows().observe(this, this::updatePinned);
+        folderViewModel.getFolderRows().observe(this, rows -> MainThreadTimer.time("listenToFolders", () -> updateFolders(rows)));
+        folderViewModel.getPendingFolderIds().observe(this, ids -> {
+            pinnedAdapter.setPendingIds(ids);
+            folderAdapter.setPendingIds(ids);
+        });
         folderViewModel.getLoading().observe(this, isLoading -> {
             if (isLoading != null) progressBar.setVisibility(isLoading ? View.VISIBLE : View.GONE);
         });
@@ -189,9 +399,96 @@ public class FolderActivity extends AppCompatActivity implements FolderAdapter.O
         fabAdd.setOnClickListener(v -> showAddFolderDialog());
     }
 
-    private void updateFolders(List<Folder> folders) {
-        folderAdapter.setFolders(folders);
-        tvEmpty.setVisibility((folders == null || folders.isEmpty()) ? View.VISIBLE : View.GONE);
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        getMenuInflater().inflate(R.menu.menu_sort, menu);
+        return true;
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(@NonNull MenuItem item) {
+        if (item.getItemId() == R.id.action_sort) {
+            showSortDialog();
+            return true;
+        }
+        return super.onOptionsItemSelected(item);
+    }
+
+    /** Folders are dragged into place only in manual order. */
+    private void updateDragHandles() {
+        folderAdapter.setDragHelper(folderViewModel.getSortMode() == SortMode.MANUAL ? dragHelper : null);
+    }
+
+    /** Pick how the grid is ordered; the choice is kept for the next start. */
+    private void showSortDialog() {
+        SortMode[] modes = SortMode.FOLDER_MODES;
+        String[] labels = {getString(R.string.sort_newest), getString(R.string.sort_name), getString(R.string.sort_color),
+                getString(R.string.sort_manual)};
+        int checked = Arrays.asList(modes).indexOf(folderViewModel.getSortMode());
+        new MaterialAlertDialogBuilder(this)
+                .setTitle(R.string.sort_by)
+                .setSingleChoiceItems(labels, checked, (dialog, which) -> {
+                    folderViewModel.setSortMode(modes[which]);
+                    updateDragHandles();
+                    getSharedPreferences(SortMode.PREFS, MODE_PRIVATE).edit()
+                            .putString(SortMode.KEY_FOLDERS, modes[which].name()).apply();
+                    dialog.dismiss();
+                })
+                .show();
+    }
+
+    /** Offer to undo a held recycle or hide for as long as it is held. */
+    private void showUndo(int message, @Nullable UndoWindow.Handle held) {
+        if (held == null) return;
+        Snackbar.make(findViewById(android.R.id.content), message, (int) UndoWindow.WINDOW_MS)
+                .setAction(R.string.undo, v -> held.undo())
+                .show();
+    }
+
+    private void updateFolders(List<FolderRow> rows) {
+        folderRows = rows != null ? rows : new ArrayList<>();
+        folderAdapter.setRows(rows);
+        updateSections();
+    }
+
+    private void updatePinned(List<FolderRow> rows) {
+        pinnedRows = rows != null ? rows : new ArrayList<>();
+        pinnedAdapter.setRows(rows);
+        updateSections();
+    }
+
+    /** Section titles show only while there are pinned folders; the grid is empty only when both sections are. */
+    private void updateSections() {
+        boolean hasPinned = !pinnedRows.isEmpty();
+        boolean hasOthers = !folderRows.isEmpty();
+        pinnedHeader.setVisible(hasPinned);
+        othersHeader.setVisible(hasPinned && hasOthers);
+        tvEmpty.setVisibility(!hasPinned && !hasOthers ? View.VISIBLE : View.GONE);
+        List<String> ids = new ArrayList<>();
+        for (FolderRow row : pinnedRows) ids.add(row.folder.getId());
+        for (FolderRow row : folderRows) ids.add(row.folder.getId());
+        visibleFolderIds = ids;
+        schedulePrefetch();
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        schedulePrefetch();
+    }
+
+    /** Warm the likely next folders once the main thread has nothing else to do. */
+    private void schedulePrefetch() {
+        if (prefetchScheduled || visibleFolderIds.isEmpty()) return;
+        prefetchScheduled = true;
+        Looper.myQueue().addIdleHandler(() -> {
+            prefetchScheduled = false;
+            FirebaseUser user = FirebaseManager.getInstance().getCurrentUser();
+            if (user != null && !isFinishing()) {
+                FolderPrefetcher.getInstance(this).prefetch(user.getUid(), visibleFolderIds);
+            }
+            return false;
+        });
     }
 
     private void showAddFolderDialog() {
@@ -226,13 +523,22 @@ public class FolderActivity extends AppCompatActivity implements FolderAdapter.O
     @Override
     public void onFolderClick(Folder folder) {
         if (folder.isLocked()) {
-            showUnlockFolderDialog(folder);
+            showUnlockFolderDialog(folder, () -> openFolder(folder));
             return;
         }
         openFolder(folder);
     }
 
-    private void showUnlockFolderDialog(Folder folder) {
+    /**
+     * Run {@code onUnlocked} once the folder's password is confirmed. Encrypted folders whose key
+     * was already unlocked this session open straight away.
+     */
+    private void showUnlockFolderDialog(Folder folder, Runnable onUnlocked) {
+        byte[] salt = folder.getKeySalt() != null ? folder.getKeySalt().toBytes() : null;
+        if (salt != null && SessionKeyCache.getInstance().get(salt) != null) {
+            onUnlocked.run();
+            return;
+        }
         View v = LayoutInflater.from(this).inflate(R.layout.dialog_edittext, null);
         EditText et = v.findViewById(R.id.dialogEditText);
         et.setHint(getString(R.string.lock_enter_password));
@@ -242,8 +548,17 @@ public class FolderActivity extends AppCompatActivity implements FolderAdapter.O
                 .setView(v)
                 .setPositiveButton("Unlock", (d, w) -> {
                     String pass = et.getText().toString();
-                    if (folder.getPasswordHash() != null && PasswordHashUtil.verify(pass, folder.getPasswordHash())) {
-                        openFolder(folder);
+                    if (salt != null && folder.getKeyCheck() != null) {
+                        SessionKeyCache.getInstance().unlock(pass, salt, folder.getKeyCheck().toBytes(),
+                                MainThreadExecutor.getInstance(), key -> {
+                                    if (key != null) {
+                                        onUnlocked.run();
+                                    } else {
+                                        Toast.makeText(this, R.string.lock_incorrect, Toast.LENGTH_SHORT).show();
+                                    }
+                                });
+                    } else if (folder.getPasswordHash() != null && PasswordHashUtil.verify(pass, folder.getPasswordHash())) {
+                        onUnlocked.run();
                     } else {
                         Toast.makeText(this, R.string.lock_incorrect, Toast.LENGTH_SHORT).show();
                     }
@@ -253,10 +568,17 @@ public class FolderActivity extends AppCompatActivity implements FolderAdapter.O
     }
 
     private void openFolder(Folder folder) {
+        boolean prefetched = FolderPrefetcher.getInstance(this).onFolderOpened(folder.getId());
         Intent intent = new Intent(this, MainActivity.class);
+        intent.putExtra(MainActivity.EXTRA_OPENED_AT_NANOS, SystemClock.elapsedRealtimeNanos());
+        intent.putExtra(MainActivity.EXTRA_PREFETCHED, prefetched);
         intent.putExtra("FOLDER_ID", folder.getId());
         intent.putExtra("FOLDER_NAME", folder.getName());
         intent.putExtra("FOLDER_COLOR", folder.getColor());
+        if (folder.getKeySalt() != null && folder.getKeyCheck() != null) {
+            intent.putExtra(MainActivity.EXTRA_FOLDER_KEY_SALT, folder.getKeySalt().toBytes());
+            intent.putExtra(MainActivity.EXTRA_FOLDER_KEY_CHECK, folder.getKeyCheck().toBytes());
+        }
         startActivity(intent);
     }
 
@@ -275,8 +597,17 @@ public class FolderActivity extends AppCompatActivity implements FolderAdapter.O
         TextView optionDelete = sheet.findViewById(R.id.optionDelete);
         TextView optionHide = sheet.findViewById(R.id.optionHide);
         TextView optionLock = sheet.findViewById(R.id.optionLock);
+        TextView optionPin = sheet.findViewById(R.id.optionPin);
 
         optionLock.setText(folder.isLocked() ? R.string.folder_unlock : R.string.folder_lock);
+        optionPin.setText(folder.isPinned() ? R.string.folder_unpin : R.string.folder_pin);
+
+        optionPin.setOnClickListener(v -> {
+            dialog.dismiss();
+            folderViewModel.pinFolder(folder.getId(), !folder.isPinned(), (ok, msg) -> {
+                if (!ok) Toast.makeText(this, msg, Toast.LENGTH_SHORT).show();
+            });
+        });
 
         optionRename.setOnClickListener(v -> {
             dialog.dismiss();
@@ -291,7 +622,9 @@ public class FolderActivity extends AppCompatActivity implements FolderAdapter.O
             new MaterialAlertDialogBuilder(this)
                     .setTitle(R.string.folder_delete)
                     .setMessage("Move '" + folder.getName() + "' to Recycle Bin?")
-                    .setPositiveButton("Move to Bin", (d, w) -> folderViewModel.deleteFolder(folder.getId(), (ok, msg) -> Toast.makeText(this, msg, Toast.LENGTH_SHORT).show()))
+                    .setPositiveButton("Move to Bin", (d, w) -> showUndo(R.string.undo_recycled, folderViewModel.deleteFolder(folder.getId(), (ok, msg) -> {
+                        if (!ok) Toast.makeText(this, msg, Toast.LENGTH_SHORT).show();
+                    })))
                     .setNegativeButton("Cancel", null)
                     .show();
         });
@@ -302,7 +635,8 @@ public class FolderActivity extends AppCompatActivity implements FolderAdapter.O
         optionLock.setOnClickListener(v -> {
             dialog.dismiss();
             if (folder.isLocked()) {
-                folderViewModel.unlockFolder(folder.getId(), (ok, msg) -> Toast.makeText(this, msg, Toast.LENGTH_SHORT).show());
+                showUnlockFolderDialog(folder, () -> folderViewModel.unlockFolder(folder,
+                        (ok, msg) -> Toast.makeText(this, msg, Toast.LENGTH_SHORT).show()));
             } else {
                 showSetLockPasswordDialog(folder);
             }
@@ -362,10 +696,7 @@ public class FolderActivity extends AppCompatActivity implements FolderAdapter.O
                 .setPositiveButton("Lock", (d, w) -> {
                     String pass = et.getText().toString();
                     if (pass.length() >= 4) {
-                        String hash = PasswordHashUtil.hash(pass);
-                        folder.setLocked(true);
-                        folder.setPasswordHash(hash);
-                        folderViewModel.lockFolder(folder.getId(), hash, (ok, msg) -> Toast.makeText(this, msg, Toast.LENGTH_SHORT).show());
+                        folderViewModel.lockFolder(folder.getId(), pass, (ok, msg) -> Toast.makeText(this, msg, Toast.LENGTH_SHORT).show());
                     } else {
                         Toast.makeText(this, "Password must be at least 4 characters", Toast.LENGTH_SHORT).show();
                     }
@@ -375,7 +706,20 @@ public class FolderActivity extends AppCompatActivity implements FolderAdapter.O
     }
 
     private void doLogout() {
+        FirebaseUser user = FirebaseManager.getInstance().getCurrentUser();
+        FirestoreStore.getInstance().clearLocalSnapshot();
+        if (user == null) {
+            finishLogout();
+            return;
+        }
+        // Keep what this device has for the next sign-in of this account
+        progressBar.setVisibility(View.VISIBLE);
+        FirebaseManager.getInstance().saveLocalSnapshot(user.getUid(), localSnapshot(user.getUid()), (ok, msg) -> finishLogout());
+    }
+
+    private void finishLogout() {
         FirebaseManager.getInstance().signOut();
+        ListCache.clearAll();
         Toast.makeText(this, "Signed out", Toast.LENGTH_SHORT).show();
         startActivity(new Intent(this, LoginActivity.class).addFlags(Intent.FLAG_ACTIVITY_CLEAR_TOP | Intent.FLAG_ACTIVITY_NEW_TASK));
         finish();
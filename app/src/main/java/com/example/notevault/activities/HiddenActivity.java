@@ -14,6 +14,7 @@ import androidx.recyclerview.widget.RecyclerView;
 
 import com.example.notevault.R;
 import com.example.notevault.adapter.HiddenAdapter;
+import com.example.notevault.metrics.MainThreadTimer;
 import com.example.notevault.model.Folder;
 import com.example.notevault.model.Note;
 import com.example.notevault.viewmodel.HiddenViewModel;
@@ -52,16 +53,16 @@ public class HiddenActivity extends AppCompatActivity implements HiddenAdapter.H
 
         final List<Folder>[] lastFolders = new List[]{new ArrayList<>()};
         final List<Note>[] lastNotes = new List[]{new ArrayList<>()};
-        viewModel.getHiddenFolders().observe(this, folders -> {
+        viewModel.getHiddenFolders().observe(this, folders -> MainThreadTimer.time("listenToHiddenFolders", () -> {
             lastFolders[0] = folders != null ? folders : new ArrayList<>();
             adapter.setItems(lastFolders[0], lastNotes[0]);
             tvEmpty.setVisibility((lastFolders[0].isEmpty() && lastNotes[0].isEmpty()) ? View.VISIBLE : View.GONE);
-        });
-        viewModel.getHiddenNotes().observe(this, notes -> {
+        }));
+        viewModel.getHiddenNotes().observe(this, notes -> MainThreadTimer.time("listenToAllHiddenNotes", () -> {
             lastNotes[0] = notes != null ? notes : new ArrayList<>();
             adapter.setItems(lastFolders[0], lastNotes[0]);
             tvEmpty.setVisibility((lastFolders[0].isEmpty() && lastNotes[0].isEmpty()) ? View.VISIBLE : View.GONE);
-        });
+        }));
         viewModel.getLoading().observe(this, loading -> {
             if (loading != null) progressBar.setVisibility(loading ? View.VISIBLE : View.GONE);
         });
@@ -2,6 +2,7 @@ package com.example.notevault.activities;
 
 import android.content.Intent;
 import android.os.Bundle;
+import android.os.SystemClock;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
@@ -10,24 +11,43 @@ import android.widget.TextView;
 import android.widget.Toast;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.appcompat.widget.Toolbar;
+import androidx.core.widget.TextViewCompat;
 import androidx.lifecycle.ViewModelProvider;
+import androidx.recyclerview.widget.ConcatAdapter;
+import androidx.recyclerview.widget.ItemTouchHelper;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.example.notevault.R;
 import com.example.notevault.adapter.NoteAdapter;
+import com.example.notevault.adapter.ReorderCallback;
+import com.example.notevault.adapter.SectionHeaderAdapter;
+import com.example.notevault.metrics.MainThreadTimer;
+import com.example.notevault.model.Folder;
 import com.example.notevault.model.Note;
+import com.example.notevault.prefetch.FolderPrefetcher;
+import com.example.notevault.presentation.NoteRow;
+import com.example.notevault.presentation.RowFactory;
+import com.example.notevault.sort.SortMode;
+import com.example.notevault.store.UndoWindow;
 import com.example.notevault.utils.ColorUtils;
+import com.example.notevault.utils.MainThreadExecutor;
 import com.example.notevault.utils.PasswordHashUtil;
+import com.example.notevault.utils.SessionKeyCache;
+import com.example.notevault.viewmodel.FolderViewModel;
 import com.example.notevault.viewmodel.NoteViewModel;
 import com.google.android.material.dialog.MaterialAlertDialogBuilder;
 import com.google.android.material.floatingactionbutton.FloatingActionButton;
+import com.google.android.material.snackbar.Snackbar;
 
 import android.view.LayoutInflater;
 import android.widget.EditText;
 
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -36,14 +56,28 @@ import java.util.List;
  */
 public class MainActivity extends AppCompatActivity implements NoteAdapter.OnNoteClickListener {
 
+    public static final String EXTRA_FOLDER_KEY_SALT = "FOLDER_KEY_SALT";
+    public static final String EXTRA_FOLDER_KEY_CHECK = "FOLDER_KEY_CHECK";
+    /** {@link SystemClock#elapsedRealtimeNanos()} when the folder was tapped, to time the open. */
+    public static final String EXTRA_OPENED_AT_NANOS = "OPENED_AT_NANOS";
+    public static final String EXTRA_PREFETCHED = "PREFETCHED";
+
     private NoteViewModel noteViewModel;
+    private FolderViewModel folderViewModel;
     private NoteAdapter noteAdapter;
+    private NoteAdapter pinnedAdapter;
+    private SectionHeaderAdapter pinnedHeader;
+    private SectionHeaderAdapter othersHeader;
+    private ItemTouchHelper dragHelper;
     private ProgressBar progressBar;
     private TextView tvEmpty;
     
     private String folderId;
     private String folderName;
     private String folderColor;
+    private byte[] folderKeySalt;
+    private byte[] folderKeyCheck;
+    private long openedAtNanos;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -54,6 +88,10 @@ public class MainActivity extends AppCompatActivity implements NoteAdapter.OnNot
         folderId = getIntent().getStringExtra("FOLDER_ID");
         folderName = getIntent().getStringExtra("FOLDER_NAME");
         folderColor = getIntent().getStringExtra("FOLDER_COLOR");
+        folderKeySalt = getIntent().getByteArrayExtra(EXTRA_FOLDER_KEY_SALT);
+        folderKeyCheck = getIntent().getByteArrayExtra(EXTRA_FOLDER_KEY_CHECK);
+        // Only the first open counts, not a recreation after rotation
+        if (savedInstanceState == null) openedAtNanos = getIntent().getLongExtra(EXTRA_OPENED_AT_NANOS, 0);
         
         if (folderId == null) {
             Toast.makeText(this, "Error: No folder selected", Toast.LENGTH_SHORT).show();
@@ -81,12 +119,32 @@ public class MainActivity extends AppCompatActivity implements NoteAdapter.OnNot
 
         recyclerView.setLayoutManager(new LinearLayoutManager(this));
         noteAdapter = new NoteAdapter(this);
-        recyclerView.setAdapter(noteAdapter);
+        // Pinned notes have their own section above the rest, filled from a query of their own
+        pinnedAdapter = new NoteAdapter(this);
+        pinnedHeader = new SectionHeaderAdapter(getString(R.string.section_pinned));
+        othersHeader = new SectionHeaderAdapter(getString(R.string.section_others));
+        recyclerView.setAdapter(new ConcatAdapter(pinnedHeader, pinnedAdapter, othersHeader, noteAdapter));
 
         noteViewModel = new ViewModelProvider(this).get(NoteViewModel.class);
+        noteViewModel.setSortMode(SortMode.fromName(
+                getSharedPreferences(SortMode.PREFS, MODE_PRIVATE).getString(SortMode.KEY_NOTES, null)));
         noteViewModel.setFolderId(folderId); // Set the folder context
+        dragHelper = new ItemTouchHelper(new ReorderCallback(noteAdapter, ItemTouchHelper.UP | ItemTouchHelper.DOWN,
+                (from, to) -> noteViewModel.moveNote(from, to, this::toastFailure)));
+        dragHelper.attachToRecyclerView(recyclerView);
+        updateDragHandles();
 
-        noteViewModel.getNotesLiveData().observe(this, this::updateNotes);
+        // Rows are built off the main thread with the text metrics of the card's preview
+        TextView previewTemplate = getLayoutInflater().inflate(R.layout.item_note, recyclerView, false)
+                .findViewById(R.id.tvContent);
+        noteViewModel.setRowFactory(new RowFactory(TextViewCompat.getTextMetricsParams(previewTemplate),
+                getString(R.string.note_encrypted_preview)));
+        noteViewModel.getPinnedRows().observe(this, this::updatePinned);
+        noteViewModel.getNoteRows().observe(this, rows -> MainThreadTimer.time("listenToNotes", () -> updateNotes(rows)));
+        noteViewModel.getPendingNoteIds().observe(this, ids -> {
+            pinnedAdapter.setPendingIds(ids);
+            noteAdapter.setPendingIds(ids);
+        });
         noteViewModel.getLoading().observe(this, isLoading -> {
             if (isLoading != null) {
                 progressBar.setVisibility(isLoading ? View.VISIBLE : View.GONE);
@@ -101,35 +159,76 @@ public class MainActivity extends AppCompatActivity implements NoteAdapter.OnNot
         fabAdd.setOnClickListener(v -> openAddEditNote(null));
     }
 
-    private void updateNotes(List<Note> notes) {
-        noteAdapter.setNotes(notes);
-        boolean isEmpty = notes == null || notes.isEmpty();
-        tvEmpty.setVisibility(isEmpty ? View.VISIBLE : View.GONE);
+    /** Offer to undo a held recycle or hide for as long as it is held. */
+    private void showUndo(int message, @Nullable UndoWindow.Handle held) {
+        if (held == null) return;
+        Snackbar.make(findViewById(android.R.id.content), message, (int) UndoWindow.WINDOW_MS)
+                .setAction(R.string.undo, v -> held.undo())
+                .show();
+    }
+
+    /** Held actions land after their snackbar is gone; only a failure is worth a message then. */
+    private void toastFailure(boolean success, String message) {
+        if (!success) Toast.makeText(this, message, Toast.LENGTH_SHORT).show();
+    }
+
+    private void updateNotes(List<NoteRow> rows) {
+        if (openedAtNanos != 0 && rows != null) {
+            FolderPrefetcher.getInstance(this).recordOpenLatency(
+                    getIntent().getBooleanExtra(EXTRA_PREFETCHED, false), SystemClock.elapsedRealtimeNanos() - openedAtNanos);
+            openedAtNanos = 0;
+        }
+        noteAdapter.setRows(rows);
+        updateSections();
+    }
+
+    private void updatePinned(List<NoteRow> rows) {
+        pinnedAdapter.setRows(rows);
+        updateSections();
+    }
+
+    /** Section titles show only while there are pinned notes; the list is empty only when both sections are. */
+    private void updateSections() {
+        boolean hasPinned = pinnedAdapter.getItemCount() > 0;
+        boolean hasOthers = noteAdapter.getItemCount() > 0;
+        pinnedHeader.setVisible(hasPinned);
+        othersHeader.setVisible(hasPinned && hasOthers);
+        tvEmpty.setVisibility(!hasPinned && !hasOthers ? View.VISIBLE : View.GONE);
     }
 
     private void openAddEditNote(Note note) {
-        Intent intent = new Intent(this, AddEditNoteActivity.class);
-        intent.putExtra("FOLDER_ID", folderId);
-        intent.putExtra("FOLDER_COLOR", folderColor);
+        Intent intent;
         if (note != null) {
-            intent.putExtra(AddEditNoteActivity.EXTRA_NOTE_ID, note.getId());
-            intent.putExtra(AddEditNoteActivity.EXTRA_NOTE_TITLE, note.getTitle());
-            intent.putExtra(AddEditNoteActivity.EXTRA_NOTE_CONTENT, note.getContent());
-            intent.putExtra(AddEditNoteActivity.EXTRA_NOTE_COLOR, note.getColor());
+            try {
+                intent = AddEditNoteActivity.newIntent(this, note);
+            } catch (GeneralSecurityException e) {
+                Toast.makeText(this, R.string.lock_incorrect, Toast.LENGTH_SHORT).show();
+                return;
+            }
+        } else {
+            intent = new Intent(this, AddEditNoteActivity.class);
+            intent.putExtra("FOLDER_ID", folderId);
+        }
+        intent.putExtra("FOLDER_COLOR", folderColor);
+        if (note == null && folderKeySalt != null) {
+            // New notes in an encrypted folder are encrypted with the folder key
+            intent.putExtra(AddEditNoteActivity.EXTRA_KEY_SALT, folderKeySalt);
+            intent.putExtra(AddEditNoteActivity.EXTRA_KEY_CHECK, folderKeyCheck);
         }
         startActivity(intent);
     }
 
     @Override
     public void onNoteClick(Note note) {
-        if (note.isLocked()) {
-            showUnlockNoteDialog(note);
+        if (note.isLocked() && note.getPasswordHash() != null) {
+            showUnlockNoteDialog(note, () -> withNoteKey(note, () -> openAddEditNote(note)));
             return;
         }
-        openAddEditNote(note);
+        withNoteKey(note, () -> openAddEditNote(note));
     }
 
-    private void showUnlockNoteDialog(Note note) {
+    /** Notes locked before content encryption only carry a password hash. */
+    private void showUnlockNoteDialog(Note note, Runnable onUnlocked) {
         View v = LayoutInflater.from(this).inflate(R.layout.dialog_edittext, null);
         EditText et = v.findViewById(R.id.dialogEditText);
         et.setHint(getString(R.string.lock_enter_password));
@@ -139,8 +238,8 @@ public class MainActivity extends AppCompatActivity implements NoteAdapter.OnNot
                 .setView(v)
                 .setPositiveButton("Unlock", (d, w) -> {
                     String pass = et.getText().toString();
-                    if (note.getPasswordHash() != null && PasswordHashUtil.verify(pass, note.getPasswordHash())) {
-                        openAddEditNote(note);
+                    if (PasswordHashUtil.verify(pass, note.getPasswordHash())) {
+                        onUnlocked.run();
                     } else {
                         Toast.makeText(this, R.string.lock_incorrect, Toast.LENGTH_SHORT).show();
                     }
@@ -149,6 +248,35 @@ public class MainActivity extends AppCompatActivity implements NoteAdapter.OnNot
                 .show();
     }
 
+    /**
+     * Run {@code onUnlocked} once the key for an encrypted note is in the session cache,
+     * asking for the password only if it is not there yet.
+     */
+    private void withNoteKey(Note note, Runnable onUnlocked) {
+        byte[] salt = note.getEncryptedContent() != null && note.getKeySalt() != null ? note.getKeySalt().toBytes() : null;
+        if (salt == null || note.getKeyCheck() == null || SessionKeyCache.getInstance().get(salt) != null) {
+            onUnlocked.run();
+            return;
+        }
+        View v = LayoutInflater.from(this).inflate(R.layout.dialog_edittext, null);
+        EditText et = v.findViewById(R.id.dialogEditText);
+        et.setHint(getString(R.string.lock_enter_password));
+        et.setInputType(android.text.InputType.TYPE_CLASS_TEXT | android.text.InputType.TYPE_TEXT_VARIATION_PASSWORD);
+        new MaterialAlertDialogBuilder(this)
+                .setTitle(R.string.lock_unlock)
+                .setView(v)
+                .setPositiveButton("Unlock", (d, w) -> SessionKeyCache.getInstance().unlock(et.getText().toString(), salt,
+                        note.getKeyCheck().toBytes(), MainThreadExecutor.getInstance(), key -> {
+                            if (key != null) {
+                                onUnlocked.run();
+                            } else {
+                                Toast.makeText(this, R.string.lock_incorrect, Toast.LENGTH_SHORT).show();
+                            }
+                        }))
+                .setNegativeButton("Cancel", null)
+                .show();
+    }
+
     @Override
     public void onNoteLongClick(Note note) {
         // Long press: show options (Delete to bin, Hide, Lock)
@@ -156,17 +284,27 @@ public class MainActivity extends AppCompatActivity implements NoteAdapter.OnNot
     }
 
     private void showNoteOptionsDialog(Note note) {
-        String[] options = new String[]{getString(R.string.folder_delete), getString(R.string.folder_hide), note.isLocked() ? getString(R.string.folder_unlock) : getString(R.string.folder_lock)};
+        String[] options = new String[]{getString(R.string.folder_delete), getString(R.string.folder_hide), note.isLocked() ? getString(R.string.folder_unlock) : getString(R.string.folder_lock), getString(R.string.note_move), note.isPinned() ? getString(R.string.note_unpin) : getString(R.string.note_pin)};
         new MaterialAlertDialogBuilder(this)
                 .setTitle(note.getTitle())
                 .setItems(options, (d, which) -> {
                     if (which == 0) {
-                        noteViewModel.deleteNote(note.getId(), (ok, msg) -> Toast.makeText(this, msg, Toast.LENGTH_SHORT).show());
+                        showUndo(R.string.undo_recycled, noteViewModel.deleteNote(note.getId(), this::toastFailure));
                     } else if (which == 1) {
-                        noteViewModel.hideNote(note.getId(), (ok, msg) -> Toast.makeText(this, msg, Toast.LENGTH_SHORT).show());
+                        showUndo(R.string.undo_hidden, noteViewModel.hideNote(note.getId(), this::toastFailure));
+                    } else if (which == 3) {
+                        showMoveNoteDialog(note);
+                    } else if (which == 4) {
+                        noteViewModel.pinNote(note.getId(), !note.isPinned(), this::toastFailure);
                     } else {
                         if (note.isLocked()) {
-                            noteViewModel.unlockNote(note.getId(), (ok, msg) -> Toast.makeText(this, msg, Toast.LENGTH_SHORT).show());
+                            Runnable unlock = () -> withNoteKey(note, () -> noteViewModel.unlockNote(note,
+                                    (ok, msg) -> Toast.makeText(this, msg, Toast.LENGTH_SHORT).show()));
+                            if (note.getPasswordHash() != null) {
+                                showUnlockNoteDialog(note, unlock);
+                            } else {
+                                unlock.run();
+                            }
                         } else {
                             showSetLockPasswordNoteDialog(note);
                         }
@@ -176,6 +314,35 @@ public class MainActivity extends AppCompatActivity implements NoteAdapter.OnNot
                 .show();
     }
 
+    private void showMoveNoteDialog(Note note) {
+        if (folderViewModel == null) {
+            folderViewModel = new ViewModelProvider(this).get(FolderViewModel.class);
+        }
+        folderViewModel.getFoldersLiveData().observe(this, new androidx.lifecycle.Observer<List<Folder>>() {
+            @Override
+            public void onChanged(List<Folder> folders) {
+                if (folders == null) return;
+                folderViewModel.getFoldersLiveData().removeObserver(this);
+                List<Folder> targets = new ArrayList<>();
+                for (Folder f : folders) {
+                    if (!f.getId().equals(folderId)) targets.add(f);
+                }
+                if (targets.isEmpty()) {
+                    Toast.makeText(MainActivity.this, R.string.note_move_no_folders, Toast.LENGTH_SHORT).show();
+                    return;
+                }
+                String[] names = new String[targets.size()];
+                for (int i = 0; i < targets.size(); i++) names[i] = targets.get(i).getName();
+                new MaterialAlertDialogBuilder(MainActivity.this)
+                        .setTitle(R.string.note_move)
+                        .setItems(names, (d, which) -> noteViewModel.moveNote(note.getId(), targets.get(which).getId(),
+                                (ok, msg) -> Toast.makeText(MainActivity.this, msg, Toast.LENGTH_SHORT).show()))
+                        .setNegativeButton("Cancel", null)
+                        .show();
+            }
+        });
+    }
+
     private void showSetLockPasswordNoteDialog(Note note) {
         View v = LayoutInflater.from(this).inflate(R.layout.dialog_edittext, null);
         EditText et = v.findViewById(R.id.dialogEditText);
@@ -187,8 +354,8 @@ public class MainActivity extends AppCompatActivity implements NoteAdapter.OnNot
                 .setPositiveButton("Lock", (d, w) -> {
                     String pass = et.getText().toString();
                     if (pass.length() >= 4) {
-                        String hash = PasswordHashUtil.hash(pass);
-                        noteViewModel.lockNote(note.getId(), hash, (ok, msg) -> Toast.makeText(this, msg, Toast.LENGTH_SHORT).show());
+                        withNoteKey(note, () -> noteViewModel.lockNote(note, pass,
+                                (ok, msg) -> Toast.makeText(this, msg, Toast.LENGTH_SHORT).show()));
                     } else {
                         Toast.makeText(this, "Password must be at least 4 characters", Toast.LENGTH_SHORT).show();
                     }
@@ -199,6 +366,38 @@ public class MainActivity extends AppCompatActivity implements NoteAdapter.OnNot
 
     @Override
     public boolean onCreateOptionsMenu(Menu menu) {
-        return true; // No menu needed here
+        getMenuInflater().inflate(R.menu.menu_sort, menu);
+        return true;
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(@NonNull MenuItem item) {
+        if (item.getItemId() == R.id.action_sort) {
+            showSortDialog();
+            return true;
+        }
+        return super.onOptionsItemSelected(item);
+    }
+
+    /** Notes are dragged into place only in manual order. */
+    private void updateDragHandles() {
+        noteAdapter.setDragHelper(noteViewModel.getSortMode() == SortMode.MANUAL ? dragHelper : null);
+    }
+
+    /** Pick how notes are ordered, in every folder; the choice is kept for the next start. */
+    private void showSortDialog() {
+        SortMode[] modes = SortMode.values();
+        String[] labels = {getString(R.string.sort_newest), getString(R.string.sort_last_edited),
+                getString(R.string.sort_title), getString(R.string.sort_color), getString(R.string.sort_manual)};
+        new MaterialAlertDialogBuilder(this)
+                .setTitle(R.string.sort_by)
+                .setSingleChoiceItems(labels, noteViewModel.getSortMode().ordinal(), (dialog, which) -> {
+                    noteViewModel.setSortMode(modes[which]);
+                    updateDragHandles();
+                    getSharedPreferences(SortMode.PREFS, MODE_PRIVATE).edit()
+                            .putString(SortMode.KEY_NOTES, modes[which].name()).apply();
+                    dialog.dismiss();
+                })
+                .show();
     }
 }
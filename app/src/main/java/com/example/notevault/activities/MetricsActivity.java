@@ -0,0 +1,100 @@
+package com.example.notevault.activities;
+
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.view.Menu;
+import android.view.MenuItem;
+import android.widget.TextView;
+
+import androidx.annotation.NonNull;
+import androidx.appcompat.app.AppCompatActivity;
+import androidx.appcompat.widget.Toolbar;
+
+import com.example.notevault.R;
+import com.example.notevault.metrics.FirestoreMetrics;
+import com.example.notevault.prefetch.FolderPrefetcher;
+import com.example.notevault.store.ListenerPauser;
+
+/**
+ * Debug screen listing what {@link FirestoreMetrics} has recorded since launch (or the last reset).
+ * Refreshes every second while visible.
+ */
+public class MetricsActivity extends AppCompatActivity {
+
+    private static final long REFRESH_MS = 1000;
+
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private TextView tvMetrics;
+
+    private final Runnable refresh = new Runnable() {
+        @Override
+        public void run() {
+            tvMetrics.setText(report());
+            handler.postDelayed(this, REFRESH_MS);
+        }
+    };
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_metrics);
+
+        Toolbar toolbar = findViewById(R.id.toolbar);
+        setSupportActionBar(toolbar);
+        if (getSupportActionBar() != null) {
+            getSupportActionBar().setDisplayHomeAsUpEnabled(true);
+        }
+        toolbar.setNavigationOnClickListener(v -> finish());
+        tvMetrics = findViewById(R.id.tvMetrics);
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        refresh.run();
+    }
+
+    @Override
+    protected void onPause() {
+        super.onPause();
+        handler.removeCallbacks(refresh);
+    }
+
+    private String report() {
+        return FirestoreMetrics.getInstance().report() + "\n" + FolderPrefetcher.getInstance(this).report();
+    }
+
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        getMenuInflater().inflate(R.menu.menu_metrics, menu);
+        menu.findItem(R.id.action_toggle_prefetch).setChecked(FolderPrefetcher.getInstance(this).isEnabled());
+        menu.findItem(R.id.action_toggle_pause_listeners).setChecked(ListenerPauser.getInstance().isEnabled());
+        return true;
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(@NonNull MenuItem item) {
+        if (item.getItemId() == R.id.action_reset_metrics) {
+            FirestoreMetrics.getInstance().reset();
+            tvMetrics.setText(report());
+            return true;
+        }
+        if (item.getItemId() == R.id.action_toggle_prefetch) {
+            // Off, folder opens are all cold, for comparing open latency with and without prefetch
+            boolean enabled = !item.isChecked();
+            item.setChecked(enabled);
+            FolderPrefetcher.getInstance(this).setEnabled(enabled);
+            tvMetrics.setText(report());
+            return true;
+        }
+        if (item.getItemId() == R.id.action_toggle_pause_listeners) {
+            // Off, listeners stay attached in the background; compare the BACKGROUND line both ways
+            boolean enabled = !item.isChecked();
+            item.setChecked(enabled);
+            ListenerPauser.getInstance().setEnabled(enabled);
+            return true;
+        }
+        return super.onOptionsItemSelected(item);
+    }
+}
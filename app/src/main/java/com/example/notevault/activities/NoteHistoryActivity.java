@@ -0,0 +1,97 @@
+package com.example.notevault.activities;
+
+import android.content.Intent;
+import android.os.Bundle;
+import android.view.View;
+import android.widget.ProgressBar;
+import android.widget.TextView;
+import android.widget.Toast;
+
+import androidx.appcompat.app.AppCompatActivity;
+import androidx.appcompat.widget.Toolbar;
+import androidx.lifecycle.ViewModelProvider;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
+
+import com.example.notevault.R;
+import com.example.notevault.adapter.RevisionAdapter;
+import com.example.notevault.model.NoteRevision;
+import com.example.notevault.viewmodel.NoteHistoryViewModel;
+import com.google.android.material.dialog.MaterialAlertDialogBuilder;
+
+/**
+ * Lists the saved versions of a note. Picking one shows its content and can hand it back to
+ * the editor as {@link #EXTRA_RESTORED_CONTENT}.
+ */
+public class NoteHistoryActivity extends AppCompatActivity implements RevisionAdapter.OnRevisionClickListener {
+
+    public static final String EXTRA_NOTE_ID = "extra_note_id";
+    public static final String EXTRA_RESTORED_TITLE = "extra_restored_title";
+    public static final String EXTRA_RESTORED_CONTENT = "extra_restored_content";
+
+    private NoteHistoryViewModel viewModel;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_note_history);
+
+        Toolbar toolbar = findViewById(R.id.toolbar);
+        setSupportActionBar(toolbar);
+        if (getSupportActionBar() != null) {
+            getSupportActionBar().setDisplayHomeAsUpEnabled(true);
+        }
+        toolbar.setNavigationOnClickListener(v -> finish());
+
+        String noteId = getIntent().getStringExtra(EXTRA_NOTE_ID);
+        if (noteId == null) {
+            finish();
+            return;
+        }
+
+        ProgressBar progressBar = findViewById(R.id.progressBarHistory);
+        TextView tvEmpty = findViewById(R.id.tvEmptyHistory);
+        RecyclerView recyclerView = findViewById(R.id.recyclerHistory);
+        recyclerView.setLayoutManager(new LinearLayoutManager(this));
+        RevisionAdapter adapter = new RevisionAdapter(this);
+        recyclerView.setAdapter(adapter);
+
+        viewModel = new ViewModelProvider(this).get(NoteHistoryViewModel.class);
+        viewModel.getRevisions().observe(this, revisions -> {
+            adapter.setRevisions(revisions);
+            tvEmpty.setVisibility(revisions == null || revisions.isEmpty() ? View.VISIBLE : View.GONE);
+        });
+        viewModel.getLoading().observe(this, loading -> {
+            if (loading != null) progressBar.setVisibility(loading ? View.VISIBLE : View.GONE);
+        });
+        viewModel.getErrorMessage().observe(this, msg -> {
+            if (msg != null && !msg.isEmpty()) Toast.makeText(this, msg, Toast.LENGTH_SHORT).show();
+        });
+        if (savedInstanceState == null || viewModel.getRevisions().getValue() == null) {
+            viewModel.load(noteId);
+        }
+    }
+
+    @Override
+    public void onRevisionClick(NoteRevision revision) {
+        String content;
+        try {
+            content = viewModel.contentAt(revision);
+        } catch (RuntimeException e) {
+            Toast.makeText(this, e.getMessage(), Toast.LENGTH_SHORT).show();
+            return;
+        }
+        new MaterialAlertDialogBuilder(this)
+                .setTitle(revision.getTitle())
+                .setMessage(content)
+                .setPositiveButton(R.string.history_restore, (d, w) -> {
+                    Intent data = new Intent();
+                    data.putExtra(EXTRA_RESTORED_TITLE, revision.getTitle());
+                    data.putExtra(EXTRA_RESTORED_CONTENT, content);
+                    setResult(RESULT_OK, data);
+                    finish();
+                })
+                .setNegativeButton("Cancel", null)
+                .show();
+    }
+}
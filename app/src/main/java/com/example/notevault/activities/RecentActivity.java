@@ -0,0 +1,86 @@
+package com.example.notevault.activities;
+
+import android.os.Bundle;
+import android.view.View;
+import android.widget.ProgressBar;
+import android.widget.TextView;
+import android.widget.Toast;
+
+import androidx.appcompat.app.AppCompatActivity;
+import androidx.appcompat.widget.Toolbar;
+import androidx.core.widget.TextViewCompat;
+import androidx.lifecycle.ViewModelProvider;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
+
+import com.example.notevault.R;
+import com.example.notevault.adapter.NoteAdapter;
+import com.example.notevault.metrics.MainThreadTimer;
+import com.example.notevault.model.Note;
+import com.example.notevault.presentation.RowFactory;
+import com.example.notevault.viewmodel.RecentViewModel;
+
+import java.security.GeneralSecurityException;
+
+/** The last edited notes across folders, so a note can be found again without knowing its folder. */
+public class RecentActivity extends AppCompatActivity implements NoteAdapter.OnNoteClickListener {
+
+    private TextView tvEmpty;
+    private boolean loading;
+    private boolean noRows = true;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_recent);
+
+        Toolbar toolbar = findViewById(R.id.toolbar);
+        setSupportActionBar(toolbar);
+        if (getSupportActionBar() != null) getSupportActionBar().setDisplayHomeAsUpEnabled(true);
+        toolbar.setNavigationOnClickListener(v -> finish());
+
+        tvEmpty = findViewById(R.id.tvEmptyRecent);
+        ProgressBar progressBar = findViewById(R.id.progressBarRecent);
+        RecyclerView recyclerView = findViewById(R.id.recyclerRecent);
+        recyclerView.setLayoutManager(new LinearLayoutManager(this));
+        NoteAdapter adapter = new NoteAdapter(this);
+        recyclerView.setAdapter(adapter);
+
+        RecentViewModel viewModel = new ViewModelProvider(this).get(RecentViewModel.class);
+        TextView previewTemplate = getLayoutInflater().inflate(R.layout.item_note, recyclerView, false)
+                .findViewById(R.id.tvContent);
+        viewModel.setRowFactory(new RowFactory(TextViewCompat.getTextMetricsParams(previewTemplate),
+                getString(R.string.note_encrypted_preview)));
+
+        viewModel.getNoteRows().observe(this, rows -> MainThreadTimer.time("listenToRecentNotes", () -> {
+            adapter.setRows(rows);
+            noRows = rows == null || rows.isEmpty();
+            updateEmptyState();
+        }));
+        viewModel.getLoading().observe(this, isLoading -> {
+            loading = isLoading != null && isLoading;
+            progressBar.setVisibility(loading ? View.VISIBLE : View.GONE);
+            updateEmptyState();
+        });
+        viewModel.getErrorMessage().observe(this, msg -> {
+            if (msg != null && !msg.isEmpty()) Toast.makeText(this, msg, Toast.LENGTH_SHORT).show();
+        });
+    }
+
+    private void updateEmptyState() {
+        tvEmpty.setVisibility(noRows && !loading ? View.VISIBLE : View.GONE);
+    }
+
+    @Override
+    public void onNoteClick(Note note) {
+        try {
+            startActivity(AddEditNoteActivity.newIntent(this, note));
+        } catch (GeneralSecurityException e) {
+            Toast.makeText(this, R.string.tags_note_locked, Toast.LENGTH_SHORT).show();
+        }
+    }
+
+    @Override
+    public void onNoteLongClick(Note note) {
+    }
+}
@@ -15,7 +15,7 @@ import androidx.recyclerview.widget.RecyclerView;
 
 import com.example.notevault.R;
 import com.example.notevault.adapter.RecycleBinAdapter;
-import com.example.notevault.firebase.FirebaseManager;
+import com.example.notevault.metrics.MainThreadTimer;
 import com.example.notevault.model.Folder;
 import com.example.notevault.model.Note;
 import com.example.notevault.viewmodel.RecycleBinViewModel;
@@ -56,23 +56,20 @@ public class RecycleBinActivity extends AppCompatActivity implements RecycleBinA
         viewModel = new ViewModelProvider(this).get(RecycleBinViewModel.class);
 
         // Cleanup items older than 30 days when opening recycle bin
-        if (FirebaseManager.getInstance().getCurrentUser() != null) {
-            FirebaseManager.getInstance().cleanupOldRecycleBinItems(
-                    FirebaseManager.getInstance().getCurrentUser().getUid(), (ok, msg) -> {});
-        }
+        viewModel.cleanupOldItems((ok, msg) -> {});
 
         final List<Folder>[] lastFolders = new List[]{new ArrayList<>()};
         final List<Note>[] lastNotes = new List[]{new ArrayList<>()};
-        viewModel.getDeletedFolders().observe(this, folders -> {
+        viewModel.getDeletedFolders().observe(this, folders -> MainThreadTimer.time("listenToDeletedFolders", () -> {
             lastFolders[0] = folders != null ? folders : new ArrayList<>();
             adapter.setItems(lastFolders[0], lastNotes[0]);
             tvEmpty.setVisibility((lastFolders[0].isEmpty() && lastNotes[0].isEmpty()) ? View.VISIBLE : View.GONE);
-        });
-        viewModel.getDeletedNotes().observe(this, notes -> {
+        }));
+        viewModel.getDeletedNotes().observe(this, notes -> MainThreadTimer.time("listenToAllDeletedNotes", () -> {
             lastNotes[0] = notes != null ? notes : new ArrayList<>();
             adapter.setItems(lastFolders[0], lastNotes[0]);
             tvEmpty.setVisibility((lastFolders[0].isEmpty() && lastNotes[0].isEmpty()) ? View.VISIBLE : View.GONE);
-        });
+        }));
         viewModel.getLoading().observe(this, loading -> {
             if (loading != null) progressBar.setVisibility(loading ? View.VISIBLE : View.GONE);
         });
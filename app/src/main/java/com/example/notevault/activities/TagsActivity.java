@@ -0,0 +1,136 @@
+package com.example.notevault.activities;
+
+import android.os.Bundle;
+import android.view.View;
+import android.widget.ProgressBar;
+import android.widget.TextView;
+import android.widget.Toast;
+
+import androidx.appcompat.app.AppCompatActivity;
+import androidx.appcompat.widget.Toolbar;
+import androidx.core.widget.TextViewCompat;
+import androidx.lifecycle.ViewModelProvider;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
+
+import com.example.notevault.R;
+import com.example.notevault.adapter.NoteAdapter;
+import com.example.notevault.metrics.MainThreadTimer;
+import com.example.notevault.model.Note;
+import com.example.notevault.presentation.RowFactory;
+import com.example.notevault.tags.TagIndex;
+import com.example.notevault.viewmodel.TagViewModel;
+import com.google.android.material.chip.Chip;
+import com.google.android.material.chip.ChipGroup;
+
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The most used tags as chips, and the notes carrying every selected tag across folders.
+ * Opens with {@link #EXTRA_TAG} selected when given.
+ */
+public class TagsActivity extends AppCompatActivity implements NoteAdapter.OnNoteClickListener {
+
+    public static final String EXTRA_TAG = "extra_tag";
+
+    private TagViewModel viewModel;
+    private ChipGroup chipGroup;
+    private TextView tvEmpty;
+    private List<TagIndex.TagCount> cloud = new ArrayList<>();
+    private Set<String> selected = Collections.emptySet();
+    private boolean noRows = true;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_tags);
+
+        Toolbar toolbar = findViewById(R.id.toolbar);
+        setSupportActionBar(toolbar);
+        if (getSupportActionBar() != null) getSupportActionBar().setDisplayHomeAsUpEnabled(true);
+        toolbar.setNavigationOnClickListener(v -> finish());
+
+        chipGroup = findViewById(R.id.chipGroupTags);
+        tvEmpty = findViewById(R.id.tvEmptyTags);
+        ProgressBar progressBar = findViewById(R.id.progressBarTags);
+        RecyclerView recyclerView = findViewById(R.id.recyclerTagged);
+        recyclerView.setLayoutManager(new LinearLayoutManager(this));
+        NoteAdapter adapter = new NoteAdapter(this);
+        recyclerView.setAdapter(adapter);
+
+        viewModel = new ViewModelProvider(this).get(TagViewModel.class);
+        TextView previewTemplate = getLayoutInflater().inflate(R.layout.item_note, recyclerView, false)
+                .findViewById(R.id.tvContent);
+        viewModel.setRowFactory(new RowFactory(TextViewCompat.getTextMetricsParams(previewTemplate),
+                getString(R.string.note_encrypted_preview)));
+        String tag = getIntent().getStringExtra(EXTRA_TAG);
+        if (savedInstanceState == null && tag != null) viewModel.toggleTag(tag);
+
+        viewModel.getCloud().observe(this, tags -> {
+            cloud = tags != null ? tags : new ArrayList<>();
+            bindChips();
+        });
+        viewModel.getSelectedTags().observe(this, tags -> {
+            selected = tags != null ? tags : Collections.emptySet();
+            bindChips();
+        });
+        viewModel.getNoteRows().observe(this, rows -> MainThreadTimer.time("listenToTaggedNotes", () -> {
+            adapter.setRows(rows);
+            noRows = rows == null || rows.isEmpty();
+            updateEmptyState();
+        }));
+        viewModel.getLoading().observe(this, loading -> {
+            if (loading != null) progressBar.setVisibility(loading ? View.VISIBLE : View.GONE);
+        });
+    }
+
+    /** One chip per tag of the cloud, plus selected tags that fell out of it. */
+    private void bindChips() {
+        chipGroup.removeAllViews();
+        List<String> shown = new ArrayList<>();
+        for (TagIndex.TagCount count : cloud) {
+            addChip(count.tag, getString(R.string.tags_chip, count.tag, count.count));
+            shown.add(count.tag);
+        }
+        for (String tag : selected) {
+            if (!shown.contains(tag)) addChip(tag, tag);
+        }
+        updateEmptyState();
+    }
+
+    private void addChip(String tag, String text) {
+        Chip chip = new Chip(this);
+        chip.setText(text);
+        chip.setCheckable(true);
+        chip.setChecked(selected.contains(tag));
+        chip.setOnClickListener(v -> viewModel.toggleTag(tag));
+        chipGroup.addView(chip);
+    }
+
+    private void updateEmptyState() {
+        if (!selected.isEmpty() && !noRows) {
+            tvEmpty.setVisibility(View.GONE);
+            return;
+        }
+        tvEmpty.setText(!selected.isEmpty() ? R.string.tags_no_match
+                : cloud.isEmpty() ? R.string.tags_none : R.string.tags_pick);
+        tvEmpty.setVisibility(View.VISIBLE);
+    }
+
+    @Override
+    public void onNoteClick(Note note) {
+        try {
+            startActivity(AddEditNoteActivity.newIntent(this, note));
+        } catch (GeneralSecurityException e) {
+            Toast.makeText(this, R.string.tags_note_locked, Toast.LENGTH_SHORT).show();
+        }
+    }
+
+    @Override
+    public void onNoteLongClick(Note note) {
+    }
+}
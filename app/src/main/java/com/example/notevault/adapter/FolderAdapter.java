@@ -2,27 +2,32 @@ package com.example.notevault.adapter;
 
 import android.graphics.drawable.GradientDrawable;
 import android.view.LayoutInflater;
+import android.view.MotionEvent;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.ImageView;
 import android.widget.TextView;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.recyclerview.widget.ItemTouchHelper;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.example.notevault.R;
 import com.example.notevault.model.Folder;
-import com.example.notevault.utils.ColorUtils;
+import com.example.notevault.presentation.FolderRow;
 import com.google.android.material.card.MaterialCardView;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Set;
 
 /**
  * RecyclerView adapter for folders in a grid.
  * Supports overflow menu: Rename, Color, Delete, Hide, Lock.
  */
-public class FolderAdapter extends RecyclerView.Adapter<FolderAdapter.FolderViewHolder> {
+public class FolderAdapter extends RecyclerView.Adapter<FolderAdapter.FolderViewHolder> implements ReorderCallback.Rows {
 
     public interface OnFolderClickListener {
         void onFolderClick(Folder folder);
@@ -30,21 +35,51 @@ public class FolderAdapter extends RecyclerView.Adapter<FolderAdapter.FolderView
         void onFolderOverflowClick(Folder folder, View anchor);
     }
 
-    private final List<Folder> folders = new ArrayList<>();
+    /** Payload for a change of sync state only, so the row is not rebound. */
+    private static final Object PAYLOAD_SYNC = new Object();
+
+    private final List<FolderRow> rows = new ArrayList<>();
+    private Set<String> pendingIds = Collections.emptySet();
     private final OnFolderClickListener listener;
+    /** Starts drags from the row handles, which show only while set. */
+    @Nullable
+    private ItemTouchHelper dragHelper;
 
     public FolderAdapter(OnFolderClickListener listener) {
         this.listener = listener;
     }
 
-    public void setFolders(List<Folder> newFolders) {
-        folders.clear();
-        if (newFolders != null) {
-            folders.addAll(newFolders);
+    public void setRows(List<FolderRow> newRows) {
+        rows.clear();
+        if (newRows != null) {
+            rows.addAll(newRows);
         }
         notifyDataSetChanged();
     }
 
+    /** Show the drag handles and start drags with {@code helper}, or hide them for null. */
+    public void setDragHelper(@Nullable ItemTouchHelper helper) {
+        if (helper == dragHelper) return;
+        dragHelper = helper;
+        notifyDataSetChanged();
+    }
+
+    @Override
+    public void moveRow(int from, int to) {
+        rows.add(to, rows.remove(from));
+        notifyItemMoved(from, to);
+    }
+
+    /** Mark the folders with writes not yet confirmed by the server; only rows whose state changed are updated. */
+    public void setPendingIds(Set<String> ids) {
+        Set<String> previous = pendingIds;
+        pendingIds = ids != null ? ids : Collections.emptySet();
+        for (int i = 0; i < rows.size(); i++) {
+            String id = rows.get(i).folder.getId();
+            if (previous.contains(id) != pendingIds.contains(id)) notifyItemChanged(i, PAYLOAD_SYNC);
+        }
+    }
+
     @NonNull
     @Override
     public FolderViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
@@ -55,52 +90,74 @@ public class FolderAdapter extends RecyclerView.Adapter<FolderAdapter.FolderView
 
     @Override
     public void onBindViewHolder(@NonNull FolderViewHolder holder, int position) {
-        holder.bind(folders.get(position));
+        holder.bind(rows.get(position));
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull FolderViewHolder holder, int position, @NonNull List<Object> payloads) {
+        if (!payloads.isEmpty() && payloads.stream().allMatch(p -> p == PAYLOAD_SYNC)) {
+            holder.bindSync(rows.get(position));
+        } else {
+            onBindViewHolder(holder, position);
+        }
     }
 
     @Override
     public int getItemCount() {
-        return folders.size();
+        return rows.size();
     }
 
     class FolderViewHolder extends RecyclerView.ViewHolder {
 
         private final TextView tvFolderName;
         private final MaterialCardView cardFolder;
-        private final View colorBar;
-        private final ImageView btnFolderOverflow;
+        private final ImageView ivSyncPending;
+        private final ImageView ivDragHandle;
+        /** One per holder, recolored on bind */
+        private final GradientDrawable colorBarDrawable = new GradientDrawable();
+        private Folder folder;
 
         FolderViewHolder(@NonNull View itemView) {
             super(itemView);
             tvFolderName = itemView.findViewById(R.id.tvFolderName);
             cardFolder = itemView.findViewById(R.id.cardFolder);
-            colorBar = itemView.findViewById(R.id.colorBar);
-            btnFolderOverflow = itemView.findViewById(R.id.btnFolderOverflow);
-        }
-
-        void bind(final Folder folder) {
-            tvFolderName.setText(folder.getName());
-
-            int color = ColorUtils.parseColor(folder.getColor());
-            GradientDrawable drawable = new GradientDrawable();
-            drawable.setColor(color);
-            drawable.setCornerRadius(8f);
-            colorBar.setBackground(drawable);
-
-            cardFolder.setCardBackgroundColor(ColorUtils.getLighterColor(folder.getColor()));
+            ivSyncPending = itemView.findViewById(R.id.ivSyncPending);
+            ivDragHandle = itemView.findViewById(R.id.ivDragHandle);
+            View colorBar = itemView.findViewById(R.id.colorBar);
+            ImageView btnFolderOverflow = itemView.findViewById(R.id.btnFolderOverflow);
+            colorBarDrawable.setCornerRadius(8f);
+            colorBar.setBackground(colorBarDrawable);
 
             cardFolder.setOnClickListener(v -> {
-                if (listener != null) listener.onFolderClick(folder);
+                if (listener != null && folder != null) listener.onFolderClick(folder);
             });
 
             cardFolder.setOnLongClickListener(v -> {
-                if (listener != null) listener.onFolderLongClick(folder);
+                if (listener != null && folder != null) listener.onFolderLongClick(folder);
                 return true;
             });
 
             btnFolderOverflow.setOnClickListener(v -> {
-                if (listener != null) listener.onFolderOverflowClick(folder, v);
+                if (listener != null && folder != null) listener.onFolderOverflowClick(folder, v);
             });
+
+            ivDragHandle.setOnTouchListener((v, event) -> {
+                if (event.getActionMasked() == MotionEvent.ACTION_DOWN && dragHelper != null) dragHelper.startDrag(this);
+                return false;
+            });
+        }
+
+        void bind(final FolderRow row) {
+            folder = row.folder;
+            tvFolderName.setText(row.name);
+            colorBarDrawable.setColor(row.color);
+            cardFolder.setCardBackgroundColor(row.lightColor);
+            ivDragHandle.setVisibility(dragHelper != null ? View.VISIBLE : View.GONE);
+            bindSync(row);
+        }
+
+        void bindSync(FolderRow row) {
+            ivSyncPending.setVisibility(pendingIds.contains(row.folder.getId()) ? View.VISIBLE : View.GONE);
         }
     }
 }
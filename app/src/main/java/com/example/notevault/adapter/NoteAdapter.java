@@ -1,25 +1,34 @@
 package com.example.notevault.adapter;
 
 import android.view.LayoutInflater;
+import android.view.MotionEvent;
 import android.view.View;
 import android.view.ViewGroup;
+import android.widget.ImageView;
 import android.widget.TextView;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import androidx.cardview.widget.CardView;
+import androidx.core.text.PrecomputedTextCompat;
+import androidx.core.widget.TextViewCompat;
+import androidx.recyclerview.widget.ItemTouchHelper;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.example.notevault.R;
 import com.example.notevault.model.Note;
+import com.example.notevault.presentation.NoteRow;
 
-import java.text.DateFormat;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Set;
 
 /**
  * RecyclerView adapter that shows each note inside a Material-style card.
+ * Rows come fully prepared from {@link com.example.notevault.presentation.RowFactory}.
  */
-public class NoteAdapter extends RecyclerView.Adapter<NoteAdapter.NoteViewHolder> {
+public class NoteAdapter extends RecyclerView.Adapter<NoteAdapter.NoteViewHolder> implements ReorderCallback.Rows {
 
     public interface OnNoteClickListener {
         void onNoteClick(Note note);
@@ -27,23 +36,51 @@ public class NoteAdapter extends RecyclerView.Adapter<NoteAdapter.NoteViewHolder
         void onNoteLongClick(Note note);
     }
 
-    private final List<Note> notes = new ArrayList<>();
+    /** Payload for a change of sync state only, so the row is not rebound. */
+    private static final Object PAYLOAD_SYNC = new Object();
+
+    private final List<NoteRow> rows = new ArrayList<>();
+    private Set<String> pendingIds = Collections.emptySet();
     private final OnNoteClickListener listener;
-    private final DateFormat dateFormat;
+    /** Starts drags from the row handles, which show only while set. */
+    @Nullable
+    private ItemTouchHelper dragHelper;
 
     public NoteAdapter(OnNoteClickListener listener) {
         this.listener = listener;
-        this.dateFormat = DateFormat.getDateTimeInstance();
     }
 
-    public void setNotes(List<Note> newNotes) {
-        notes.clear();
-        if (newNotes != null) {
-            notes.addAll(newNotes);
+    public void setRows(List<NoteRow> newRows) {
+        rows.clear();
+        if (newRows != null) {
+            rows.addAll(newRows);
         }
         notifyDataSetChanged();
     }
 
+    /** Show the drag handles and start drags with {@code helper}, or hide them for null. */
+    public void setDragHelper(@Nullable ItemTouchHelper helper) {
+        if (helper == dragHelper) return;
+        dragHelper = helper;
+        notifyDataSetChanged();
+    }
+
+    @Override
+    public void moveRow(int from, int to) {
+        rows.add(to, rows.remove(from));
+        notifyItemMoved(from, to);
+    }
+
+    /** Mark the notes with writes not yet confirmed by the server; only rows whose state changed are updated. */
+    public void setPendingIds(Set<String> ids) {
+        Set<String> previous = pendingIds;
+        pendingIds = ids != null ? ids : Collections.emptySet();
+        for (int i = 0; i < rows.size(); i++) {
+            String id = rows.get(i).note.getId();
+            if (previous.contains(id) != pendingIds.contains(id)) notifyItemChanged(i, PAYLOAD_SYNC);
+        }
+    }
+
     @NonNull
     @Override
     public NoteViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
@@ -54,12 +91,21 @@ public class NoteAdapter extends RecyclerView.Adapter<NoteAdapter.NoteViewHolder
 
     @Override
     public void onBindViewHolder(@NonNull NoteViewHolder holder, int position) {
-        holder.bind(notes.get(position));
+        holder.bind(rows.get(position));
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull NoteViewHolder holder, int position, @NonNull List<Object> payloads) {
+        if (!payloads.isEmpty() && payloads.stream().allMatch(p -> p == PAYLOAD_SYNC)) {
+            holder.bindSync(rows.get(position));
+        } else {
+            onBindViewHolder(holder, position);
+        }
     }
 
     @Override
     public int getItemCount() {
-        return notes.size();
+        return rows.size();
     }
 
     class NoteViewHolder extends RecyclerView.ViewHolder {
@@ -67,46 +113,58 @@ public class NoteAdapter extends RecyclerView.Adapter<NoteAdapter.NoteViewHolder
         private final TextView tvTitle;
         private final TextView tvContent;
         private final TextView tvTimestamp;
-        private final CardView cardNote;
+        private final TextView tvTags;
         private final View colorStrip;
+        private final ImageView ivSyncPending;
+        private final ImageView ivDragHandle;
+        private Note note;
 
         NoteViewHolder(@NonNull View itemView) {
             super(itemView);
             tvTitle = itemView.findViewById(R.id.tvTitle);
             tvContent = itemView.findViewById(R.id.tvContent);
             tvTimestamp = itemView.findViewById(R.id.tvTimestamp);
-            cardNote = itemView.findViewById(R.id.cardNote);
+            tvTags = itemView.findViewById(R.id.tvTags);
             colorStrip = itemView.findViewById(R.id.colorStrip);
-        }
-
-        void bind(final Note note) {
-            tvTitle.setText(note.getTitle());
-            tvContent.setText(note.getContent());
-            if (note.getTimestamp() != null) {
-                tvTimestamp.setText(dateFormat.format(note.getTimestamp()));
-            } else {
-                tvTimestamp.setText("");
-            }
-            
-            // Set color accent if available
-            if (note.getColor() != null && colorStrip != null) {
-                try {
-                    int color = android.graphics.Color.parseColor(note.getColor());
-                    colorStrip.setBackgroundColor(color);
-                } catch (Exception e) {
-                    // Use default color if parsing fails
-                }
-            }
+            ivSyncPending = itemView.findViewById(R.id.ivSyncPending);
+            ivDragHandle = itemView.findViewById(R.id.ivDragHandle);
+            CardView cardNote = itemView.findViewById(R.id.cardNote);
 
             cardNote.setOnClickListener(v -> {
-                if (listener != null) listener.onNoteClick(note);
+                if (listener != null && note != null) listener.onNoteClick(note);
             });
 
             cardNote.setOnLongClickListener(v -> {
-                if (listener != null) listener.onNoteLongClick(note);
+                if (listener != null && note != null) listener.onNoteLongClick(note);
                 return true;
             });
+
+            ivDragHandle.setOnTouchListener((v, event) -> {
+                if (event.getActionMasked() == MotionEvent.ACTION_DOWN && dragHelper != null) dragHelper.startDrag(this);
+                return false;
+            });
+        }
+
+        void bind(final NoteRow row) {
+            note = row.note;
+            tvTitle.setText(row.title);
+            // Rows built before a configuration change carry the old metrics, which setPrecomputedText rejects
+            if (row.preview instanceof PrecomputedTextCompat && ((PrecomputedTextCompat) row.preview).getParams()
+                    .equals(TextViewCompat.getTextMetricsParams(tvContent))) {
+                TextViewCompat.setPrecomputedText(tvContent, (PrecomputedTextCompat) row.preview);
+            } else {
+                tvContent.setText(row.preview.toString());
+            }
+            tvTimestamp.setText(row.timestamp);
+            tvTags.setText(row.tags);
+            tvTags.setVisibility(row.tags.isEmpty() ? View.GONE : View.VISIBLE);
+            colorStrip.setBackgroundColor(row.color);
+            ivDragHandle.setVisibility(dragHelper != null ? View.VISIBLE : View.GONE);
+            bindSync(row);
+        }
+
+        void bindSync(NoteRow row) {
+            ivSyncPending.setVisibility(pendingIds.contains(row.note.getId()) ? View.VISIBLE : View.GONE);
         }
     }
 }
-
@@ -0,0 +1,83 @@
+package com.example.notevault.adapter;
+
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.ItemTouchHelper;
+import androidx.recyclerview.widget.RecyclerView;
+
+/**
+ * Drag-to-reorder for the note list and folder grid. Drags start from a row's handle, not a
+ * long press, which keeps opening the row's menu. Rows move in the adapter while dragging;
+ * only the drop, from the first position to the last, is reported to be saved.
+ */
+public class ReorderCallback extends ItemTouchHelper.Callback {
+
+    /** An adapter whose rows can be moved by hand. */
+    public interface Rows {
+        void moveRow(int from, int to);
+    }
+
+    public interface OnDropListener {
+        void onDrop(int from, int to);
+    }
+
+    private final Rows rows;
+    private final int dragDirections;
+    private final OnDropListener listener;
+    private int dragFrom = RecyclerView.NO_POSITION;
+    private int dragTo = RecyclerView.NO_POSITION;
+
+    /** {@code dragDirections} as {@link ItemTouchHelper#UP} and the like: up and down for a list, all four for a grid. */
+    public ReorderCallback(Rows rows, int dragDirections, OnDropListener listener) {
+        this.rows = rows;
+        this.dragDirections = dragDirections;
+        this.listener = listener;
+    }
+
+    @Override
+    public int getMovementFlags(@NonNull RecyclerView recyclerView, @NonNull RecyclerView.ViewHolder viewHolder) {
+        // In a ConcatAdapter only this adapter's rows move, and only among themselves
+        return viewHolder.getBindingAdapter() == rows ? makeMovementFlags(dragDirections, 0) : 0;
+    }
+
+    @Override
+    public boolean isLongPressDragEnabled() {
+        return false;
+    }
+
+    @Override
+    public boolean isItemViewSwipeEnabled() {
+        return false;
+    }
+
+    @Override
+    public boolean canDropOver(@NonNull RecyclerView recyclerView, @NonNull RecyclerView.ViewHolder current,
+                               @NonNull RecyclerView.ViewHolder target) {
+        return target.getBindingAdapter() == rows;
+    }
+
+    @Override
+    public boolean onMove(@NonNull RecyclerView recyclerView, @NonNull RecyclerView.ViewHolder source,
+                          @NonNull RecyclerView.ViewHolder target) {
+        int from = source.getBindingAdapterPosition();
+        int to = target.getBindingAdapterPosition();
+        if (from == RecyclerView.NO_POSITION || to == RecyclerView.NO_POSITION) return false;
+        if (dragFrom == RecyclerView.NO_POSITION) dragFrom = from;
+        dragTo = to;
+        rows.moveRow(from, to);
+        return true;
+    }
+
+    @Override
+    public void onSwiped(@NonNull RecyclerView.ViewHolder viewHolder, int direction) {
+    }
+
+    @Override
+    public void clearView(@NonNull RecyclerView recyclerView, @NonNull RecyclerView.ViewHolder viewHolder) {
+        super.clearView(recyclerView, viewHolder);
+        int from = dragFrom;
+        int to = dragTo;
+        dragFrom = RecyclerView.NO_POSITION;
+        dragTo = RecyclerView.NO_POSITION;
+        if (from != RecyclerView.NO_POSITION && from != to) listener.onDrop(from, to);
+    }
+}
@@ -0,0 +1,76 @@
+package com.example.notevault.adapter;
+
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.TextView;
+
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.RecyclerView;
+
+import com.example.notevault.R;
+import com.example.notevault.model.NoteRevision;
+
+import java.text.DateFormat;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Adapter for a note's revision history, newest first.
+ */
+public class RevisionAdapter extends RecyclerView.Adapter<RevisionAdapter.RevisionHolder> {
+
+    public interface OnRevisionClickListener {
+        void onRevisionClick(NoteRevision revision);
+    }
+
+    private final List<NoteRevision> revisions = new ArrayList<>();
+    private final OnRevisionClickListener listener;
+    private final DateFormat dateFormat = DateFormat.getDateTimeInstance();
+
+    public RevisionAdapter(OnRevisionClickListener listener) {
+        this.listener = listener;
+    }
+
+    public void setRevisions(List<NoteRevision> list) {
+        revisions.clear();
+        if (list != null) revisions.addAll(list);
+        notifyDataSetChanged();
+    }
+
+    @NonNull
+    @Override
+    public RevisionHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+        View v = LayoutInflater.from(parent.getContext()).inflate(R.layout.item_revision, parent, false);
+        return new RevisionHolder(v);
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull RevisionHolder holder, int position) {
+        holder.bind(revisions.get(position));
+    }
+
+    @Override
+    public int getItemCount() {
+        return revisions.size();
+    }
+
+    class RevisionHolder extends RecyclerView.ViewHolder {
+        TextView tvRevisionTitle, tvRevisionMeta;
+
+        RevisionHolder(@NonNull View itemView) {
+            super(itemView);
+            tvRevisionTitle = itemView.findViewById(R.id.tvRevisionTitle);
+            tvRevisionMeta = itemView.findViewById(R.id.tvRevisionMeta);
+        }
+
+        void bind(NoteRevision revision) {
+            tvRevisionTitle.setText(itemView.getContext().getString(R.string.history_revision,
+                    revision.getRevision(), revision.getTitle() != null ? revision.getTitle() : ""));
+            String date = revision.getCreatedAt() != null ? dateFormat.format(revision.getCreatedAt()) : "";
+            tvRevisionMeta.setText(itemView.getContext().getString(R.string.history_revision_meta,
+                    date, revision.getLength()));
+            itemView.setOnClickListener(v -> listener.onRevisionClick(revision));
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package com.example.notevault.adapter;
+
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.TextView;
+
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.RecyclerView;
+
+import com.example.notevault.R;
+
+/**
+ * A one-row adapter with a section title, such as "Pinned", to put in front of a section's
+ * adapter in a {@link androidx.recyclerview.widget.ConcatAdapter}. Has no rows while hidden.
+ */
+public class SectionHeaderAdapter extends RecyclerView.Adapter<SectionHeaderAdapter.HeaderViewHolder> {
+
+    private final CharSequence title;
+    private boolean visible;
+
+    public SectionHeaderAdapter(CharSequence title) {
+        this.title = title;
+    }
+
+    public void setVisible(boolean visible) {
+        if (visible == this.visible) return;
+        this.visible = visible;
+        if (visible) notifyItemInserted(0);
+        else notifyItemRemoved(0);
+    }
+
+    @NonNull
+    @Override
+    public HeaderViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+        View view = LayoutInflater.from(parent.getContext()).inflate(R.layout.item_section_header, parent, false);
+        return new HeaderViewHolder(view);
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull HeaderViewHolder holder, int position) {
+        holder.tvTitle.setText(title);
+    }
+
+    @Override
+    public int getItemCount() {
+        return visible ? 1 : 0;
+    }
+
+    static class HeaderViewHolder extends RecyclerView.ViewHolder {
+        final TextView tvTitle;
+
+        HeaderViewHolder(@NonNull View itemView) {
+            super(itemView);
+            tvTitle = itemView.findViewById(R.id.tvSectionTitle);
+        }
+    }
+}
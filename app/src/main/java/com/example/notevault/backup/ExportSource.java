@@ -0,0 +1,31 @@
+package com.example.notevault.backup;
+
+import com.example.notevault.model.Folder;
+import com.example.notevault.model.Note;
+
+import java.util.List;
+
+/**
+ * Reads a vault page by page, in id order, for {@link VaultExporter}. Calls are blocking and
+ * are only made from the exporter's background thread. Every item is included, deleted and
+ * hidden ones too, so an export is a full backup.
+ */
+public interface ExportSource {
+
+    /** Items in id order, plus the id to continue after (null at the end). */
+    final class Page<T> {
+        public final List<T> items;
+        public final String nextCursor;
+
+        public Page(List<T> items, String nextCursor) {
+            this.items = items;
+            this.nextCursor = nextCursor;
+        }
+    }
+
+    /** Up to {@code pageSize} folders with ids after {@code afterId} (null = from the start). */
+    Page<Folder> folders(String userId, String afterId, int pageSize) throws Exception;
+
+    /** Up to {@code pageSize} notes of one folder with ids after {@code afterId}. */
+    Page<Note> notes(String userId, String folderId, String afterId, int pageSize) throws Exception;
+}
@@ -0,0 +1,23 @@
+package com.example.notevault.backup;
+
+import com.example.notevault.model.Folder;
+import com.example.notevault.model.Note;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Where {@link VaultImporter} writes. Called only from the importer's background thread;
+ * note batches are committed asynchronously so several can be in flight at once.
+ */
+public interface ImportSink {
+
+    /** Create {@code folder} and return its id once it exists. Blocking. */
+    String createFolder(String userId, Folder folder) throws Exception;
+
+    /**
+     * Add {@code notes}, new notes of folders already created, as one batch. Ids are assigned
+     * here. The future completes when the batch is committed.
+     */
+    CompletableFuture<Void> addNotes(String userId, List<Note> notes);
+}
@@ -0,0 +1,271 @@
+package com.example.notevault.backup;
+
+import androidx.annotation.Nullable;
+
+import com.example.notevault.model.Folder;
+import com.example.notevault.model.Note;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Streams a whole vault into a zip archive laid out as described in {@link VaultFormat}.
+ * Folders and notes are read a page at a time and written straight into the zip, so memory
+ * use does not grow with the vault. Blocking; run it on a background thread.
+ *
+ * The archive is built in {@code <target>.part} and renamed to the target once complete. If an
+ * export is interrupted, by an error or by interrupting its thread, the next export of the same
+ * target keeps everything the part file holds intact and carries on after the last note in it.
+ */
+public final class VaultExporter {
+
+    /** Called after every page with running totals; bytes are compressed bytes written so far. */
+    public interface Listener {
+        void onProgress(int folders, long notes, long bytes);
+    }
+
+    public static final class Result {
+        public final int folders;
+        public final long notes;
+        public final long bytes;
+        /** Whether the export continued an interrupted one. */
+        public final boolean resumed;
+
+        Result(int folders, long notes, long bytes, boolean resumed) {
+            this.folders = folders;
+            this.notes = notes;
+            this.bytes = bytes;
+            this.resumed = resumed;
+        }
+    }
+
+    static final int PAGE_SIZE = 200;
+    static final int NOTES_PER_ENTRY = 500;
+    /** Notes files are also closed at about this many characters, however few notes they hold. */
+    private static final int MAX_ENTRY_CHARS = 1 << 20;
+
+    private final ExportSource source;
+    private final int pageSize;
+    private final int notesPerEntry;
+
+    public VaultExporter(ExportSource source) {
+        this(source, PAGE_SIZE, NOTES_PER_ENTRY);
+    }
+
+    VaultExporter(ExportSource source, int pageSize, int notesPerEntry) {
+        this.source = source;
+        this.pageSize = pageSize;
+        this.notesPerEntry = notesPerEntry;
+    }
+
+    /** Where the export has got to: the last folder started and the last note written in it. */
+    private static final class Cursor {
+        String folderId;
+        String noteId;
+        int sequence;
+        int folders;
+        long notes;
+    }
+
+    /** An open archive: the zip, a writer over it and the current notes file. */
+    private static final class Archive {
+        final CountingOutputStream counter;
+        final ZipOutputStream zip;
+        final Writer writer;
+        int notesInEntry = -1;
+        int charsInEntry;
+
+        Archive(File file) throws IOException {
+            counter = new CountingOutputStream(new FileOutputStream(file));
+            zip = new ZipOutputStream(new BufferedOutputStream(counter, 64 * 1024));
+            writer = new OutputStreamWriter(zip, StandardCharsets.UTF_8);
+        }
+
+        void putEntry(String name) throws IOException {
+            closeEntry();
+            zip.putNextEntry(new ZipEntry(name));
+        }
+
+        void closeEntry() throws IOException {
+            writer.flush();
+            zip.closeEntry();
+            notesInEntry = -1;
+        }
+
+        void close() throws IOException {
+            writer.flush();
+            zip.close();
+        }
+    }
+
+    public Result export(String userId, File target, @Nullable Listener listener) throws IOException {
+        File part = new File(target.getPath() + ".part");
+        File work = new File(target.getPath() + ".part.tmp");
+        boolean resumed = part.exists();
+        if (!resumed) work = part;
+        if (work.exists() && !work.delete()) throw new IOException("Cannot replace " + work);
+
+        Cursor cursor = new Cursor();
+        Archive archive = new Archive(work);
+        boolean salvaged = !resumed;
+        try {
+            if (resumed) {
+                salvage(part, archive, cursor);
+                salvaged = true;
+            }
+            if (cursor.folderId != null) {
+                exportNotes(userId, cursor.folderId, cursor.noteId, archive, cursor, listener);
+            }
+            String after = cursor.folderId;
+            do {
+                checkInterrupted();
+                ExportSource.Page<Folder> page = source.folders(userId, after, pageSize);
+                for (Folder folder : page.items) {
+                    archive.putEntry(VaultFormat.folderEntry(folder.getId()));
+                    archive.writer.write(VaultFormat.folderJson(folder));
+                    archive.closeEntry();
+                    cursor.folderId = folder.getId();
+                    cursor.noteId = null;
+                    cursor.sequence = 0;
+                    cursor.folders++;
+                    exportNotes(userId, folder.getId(), null, archive, cursor, listener);
+                }
+                after = page.nextCursor;
+            } while (after != null);
+
+            archive.putEntry(VaultFormat.MANIFEST);
+            archive.writer.write(VaultFormat.manifest(userId, cursor.folders, cursor.notes, System.currentTimeMillis()));
+            archive.close();
+        } catch (Exception e) {
+            // Finish the zip so the next attempt can read back everything written so far
+            try {
+                archive.close();
+                if (salvaged && work != part) replace(work, part);
+            } catch (IOException closing) {
+                e.addSuppressed(closing);
+            }
+            if (e instanceof IOException) throw (IOException) e;
+            throw new IOException("Export failed: " + e.getMessage(), e);
+        }
+        replace(work, target);
+        if (work != part && part.exists() && !part.delete()) throw new IOException("Cannot delete " + part);
+        long bytes = archive.counter.count;
+        if (listener != null) listener.onProgress(cursor.folders, cursor.notes, bytes);
+        return new Result(cursor.folders, cursor.notes, bytes, resumed);
+    }
+
+    private void exportNotes(String userId, String folderId, @Nullable String afterId, Archive archive,
+                             Cursor cursor, @Nullable Listener listener) throws Exception {
+        String after = afterId;
+        do {
+            checkInterrupted();
+            ExportSource.Page<Note> page = source.notes(userId, folderId, after, pageSize);
+            for (Note note : page.items) {
+                if (archive.notesInEntry < 0) {
+                    archive.putEntry(VaultFormat.notesEntry(folderId, cursor.sequence++));
+                    archive.notesInEntry = 0;
+                    archive.charsInEntry = 0;
+                }
+                archive.charsInEntry += VaultFormat.writeNote(archive.writer, note);
+                archive.notesInEntry++;
+                cursor.noteId = note.getId();
+                cursor.notes++;
+                if (archive.notesInEntry >= notesPerEntry || archive.charsInEntry >= MAX_ENTRY_CHARS) {
+                    archive.closeEntry();
+                }
+            }
+            after = page.nextCursor;
+            if (listener != null) {
+                archive.writer.flush();
+                listener.onProgress(cursor.folders, cursor.notes, archive.counter.count);
+            }
+        } while (after != null);
+        if (archive.notesInEntry >= 0) archive.closeEntry();
+    }
+
+    /**
+     * Copy the intact part of an interrupted export into {@code archive} and set {@code cursor}
+     * after it. Stops at the first entry or note cut short or unreadable; notes files are copied
+     * note by note, so a file cut short keeps the notes before the cut.
+     */
+    private static void salvage(File part, Archive archive, Cursor cursor) throws IOException {
+        try (ZipInputStream in = new ZipInputStream(new FileInputStream(part))) {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+            ZipEntry entry;
+            while ((entry = in.getNextEntry()) != null) {
+                VaultFormat.EntryName name = VaultFormat.parse(entry.getName());
+                if (name == null) continue;
+                if (name.isFolder()) {
+                    StringBuilder json = new StringBuilder();
+                    for (String line; (line = reader.readLine()) != null; ) json.append(line);
+                    Folder folder = VaultFormat.readFolder(json.toString());
+                    archive.putEntry(VaultFormat.folderEntry(folder.getId()));
+                    archive.writer.write(VaultFormat.folderJson(folder));
+                    archive.closeEntry();
+                    cursor.folderId = folder.getId();
+                    cursor.noteId = null;
+                    cursor.sequence = 0;
+                    cursor.folders++;
+                } else {
+                    if (!name.folderId.equals(cursor.folderId)) break;
+                    archive.putEntry(VaultFormat.notesEntry(name.folderId, cursor.sequence++));
+                    Note note;
+                    while ((note = VaultFormat.readNote(reader)) != null) {
+                        VaultFormat.writeNote(archive.writer, note);
+                        cursor.noteId = note.getId();
+                        cursor.notes++;
+                    }
+                    archive.closeEntry();
+                }
+                // The reader has seen this entry's end; start afresh for the next one
+                reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+            }
+        } catch (IOException | RuntimeException e) {
+            // Cut short here: keep what was read
+        }
+        archive.closeEntry();
+    }
+
+    private static void checkInterrupted() throws InterruptedIOException {
+        if (Thread.interrupted()) throw new InterruptedIOException("Export interrupted");
+    }
+
+    private static void replace(File from, File to) throws IOException {
+        if (to.exists() && !to.delete()) throw new IOException("Cannot replace " + to);
+        if (!from.renameTo(to)) throw new IOException("Cannot rename " + from + " to " + to);
+    }
+
+    private static final class CountingOutputStream extends FilterOutputStream {
+        long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package com.example.notevault.backup;
+
+import androidx.annotation.Nullable;
+
+import com.example.notevault.model.Folder;
+import com.example.notevault.model.Note;
+import com.example.notevault.tags.Tags;
+import com.google.firebase.firestore.Blob;
+
+import java.io.BufferedReader;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Layout of a vault archive. Each folder is a directory with a {@code folder.json} and its notes
+ * in numbered Markdown files of up to a few hundred notes each; {@code manifest.json} comes last
+ * and marks the archive complete. Grouping notes keeps the zip's central directory, which the
+ * writer holds in memory until the end, small for any number of notes.
+ *
+ * A note in a Markdown file is a JSON header between {@code ---} lines, a {@code #} heading with
+ * its title and then its content. The header records the content's length, so content may hold
+ * anything, including lines of {@code ---}.
+ */
+final class VaultFormat {
+
+    static final int VERSION = 1;
+    static final String MANIFEST = "manifest.json";
+    private static final String FOLDERS = "folders/";
+    private static final String FOLDER_FILE = "folder.json";
+    private static final String NOTES_FILE = "notes-";
+    private static final String SEPARATOR = "---";
+
+    private VaultFormat() {
+    }
+
+    /** Where an entry belongs: its folder, and for a notes file its sequence number (-1 for folder.json). */
+    static final class EntryName {
+        final String folderId;
+        final int notesFile;
+
+        EntryName(String folderId, int notesFile) {
+            this.folderId = folderId;
+            this.notesFile = notesFile;
+        }
+
+        boolean isFolder() {
+            return notesFile < 0;
+        }
+    }
+
+    static String folderEntry(String folderId) {
+        return FOLDERS + folderId + "/" + FOLDER_FILE;
+    }
+
+    static String notesEntry(String folderId, int sequence) {
+        return FOLDERS + folderId + "/" + NOTES_FILE + String.format("%05d", sequence) + ".md";
+    }
+
+    /** The folder and file an entry name stands for, or null for the manifest and anything unknown. */
+    @Nullable
+    static EntryName parse(String entryName) {
+        if (!entryName.startsWith(FOLDERS)) return null;
+        int slash = entryName.indexOf('/', FOLDERS.length());
+        if (slash < 0) return null;
+        String folderId = entryName.substring(FOLDERS.length(), slash);
+        String file = entryName.substring(slash + 1);
+        if (file.equals(FOLDER_FILE)) return new EntryName(folderId, -1);
+        if (file.startsWith(NOTES_FILE) && file.endsWith(".md")) {
+            try {
+                return new EntryName(folderId, Integer.parseInt(file.substring(NOTES_FILE.length(), file.length() - 3)));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    static String manifest(String userId, int folders, long notes, long exportedAt) {
+        Map<String, Object> fields = new LinkedHashMap<>();
+        fields.put("format", VERSION);
+        fields.put("userId", userId);
+        fields.put("folders", folders);
+        fields.put("notes", notes);
+        fields.put("exportedAt", exportedAt);
+        return VaultJson.write(fields);
+    }
+
+    static String folderJson(Folder folder) {
+        Map<String, Object> fields = new LinkedHashMap<>();
+        fields.put("id", folder.getId());
+        fields.put("name", folder.getName());
+        fields.put("color", folder.getColor());
+        fields.put("createdAt", millis(folder.getCreatedAt()));
+        fields.put("isDeleted", folder.isDeleted());
+        fields.put("deletedAt", millis(folder.getDeletedAt()));
+        fields.put("isHidden", folder.isHidden());
+        fields.put("isLocked", folder.isLocked());
+        fields.put("passwordHash", folder.getPasswordHash());
+        fields.put("keySalt", bytes(folder.getKeySalt()));
+        fields.put("keyCheck", bytes(folder.getKeyCheck()));
+        return VaultJson.write(fields);
+    }
+
+    static Folder readFolder(String json) {
+        Map<String, Object> fields = VaultJson.read(json);
+        Folder folder = new Folder((String) fields.get("id"), (String) fields.get("name"),
+                (String) fields.get("color"), date(fields.get("createdAt")));
+        folder.setDeleted(Boolean.TRUE.equals(fields.get("isDeleted")));
+        folder.setDeletedAt(date(fields.get("deletedAt")));
+        folder.setHidden(Boolean.TRUE.equals(fields.get("isHidden")));
+        folder.setLocked(Boolean.TRUE.equals(fields.get("isLocked")));
+        folder.setPasswordHash((String) fields.get("passwordHash"));
+        folder.setKeySalt(blob(fields.get("keySalt")));
+        folder.setKeyCheck(blob(fields.get("keyCheck")));
+        return folder;
+    }
+
+    /** Append one note; returns the number of characters written. */
+    static int writeNote(Writer out, Note note) throws IOException {
+        String content = note.getContent() != null ? note.getContent() : "";
+        Map<String, Object> fields = new LinkedHashMap<>();
+        fields.put("id", note.getId());
+        fields.put("folderId", note.getFolderId());
+        fields.put("title", note.getTitle());
+        fields.put("color", note.getColor());
+        fields.put("timestamp", millis(note.getTimestamp()));
+        fields.put("updatedAt", millis(note.getUpdatedAt()));
+        fields.put("isDeleted", note.isDeleted());
+        fields.put("deletedAt", millis(note.getDeletedAt()));
+        fields.put("isHidden", note.isHidden());
+        fields.put("isLocked", note.isLocked());
+        fields.put("passwordHash", note.getPasswordHash());
+        fields.put("encryptedContent", bytes(note.getEncryptedContent()));
+        fields.put("keySalt", bytes(note.getKeySalt()));
+        fields.put("keyCheck", bytes(note.getKeyCheck()));
+        fields.put("revisionCount", note.getRevisionCount());
+        // Tags hold no spaces, so one string keeps the header a flat object
+        if (!note.getTags().isEmpty()) fields.put("tags", String.join(" ", note.getTags()));
+        fields.put("contentLength", content.length());
+        String title = note.getTitle() != null ? note.getTitle().replace('\n', ' ') : "";
+        String head = SEPARATOR + "\n" + VaultJson.write(fields) + "\n" + SEPARATOR + "\n# " + title + "\n\n";
+        out.write(head);
+        out.write(content);
+        out.write("\n\n");
+        return head.length() + content.length() + 2;
+    }
+
+    /**
+     * The next note of a Markdown file, or null at its end. Throws {@link EOFException} when the
+     * file ends inside a note, as the last file of an interrupted export may.
+     */
+    @Nullable
+    static Note readNote(BufferedReader in) throws IOException {
+        String line = in.readLine();
+        while (line != null && line.isEmpty()) line = in.readLine();
+        if (line == null) return null;
+        if (!line.equals(SEPARATOR)) throw new IOException("Expected a note header, found: " + line);
+        String header = in.readLine();
+        if (header == null || !SEPARATOR.equals(in.readLine()) || in.readLine() == null || in.readLine() == null) {
+            throw new EOFException("Note header cut short");
+        }
+        Map<String, Object> fields;
+        int length;
+        try {
+            fields = VaultJson.read(header);
+            length = ((Number) fields.get("contentLength")).intValue();
+        } catch (RuntimeException e) {
+            throw new IOException("Bad note header: " + e.getMessage(), e);
+        }
+        char[] content = new char[length];
+        for (int read = 0; read < length; ) {
+            int n = in.read(content, read, length - read);
+            if (n < 0) throw new EOFException("Note content cut short");
+            read += n;
+        }
+        Note note = new Note((String) fields.get("id"), (String) fields.get("title"), new String(content),
+                (String) fields.get("color"), date(fields.get("timestamp")));
+        note.setFolderId((String) fields.get("folderId"));
+        note.setUpdatedAt(date(fields.get("updatedAt")));
+        note.setDeleted(Boolean.TRUE.equals(fields.get("isDeleted")));
+        note.setDeletedAt(date(fields.get("deletedAt")));
+        note.setHidden(Boolean.TRUE.equals(fields.get("isHidden")));
+        note.setLocked(Boolean.TRUE.equals(fields.get("isLocked")));
+        note.setPasswordHash((String) fields.get("passwordHash"));
+        note.setEncryptedContent(blob(fields.get("encryptedContent")));
+        note.setKeySalt(blob(fields.get("keySalt")));
+        note.setKeyCheck(blob(fields.get("keyCheck")));
+        Object revisions = fields.get("revisionCount");
+        if (revisions != null) note.setRevisionCount(((Number) revisions).intValue());
+        Object tags = fields.get("tags");
+        if (tags instanceof String) note.setTags(Tags.parse((String) tags));
+        return note;
+    }
+
+    @Nullable
+    private static Long millis(@Nullable Date date) {
+        return date != null ? date.getTime() : null;
+    }
+
+    @Nullable
+    private static Date date(@Nullable Object millis) {
+        return millis != null ? new Date(((Number) millis).longValue()) : null;
+    }
+
+    @Nullable
+    private static byte[] bytes(@Nullable Blob blob) {
+        return blob != null ? blob.toBytes() : null;
+    }
+
+    @Nullable
+    private static Blob blob(@Nullable Object hex) {
+        return hex != null ? Blob.fromBytes(VaultJson.unhex((String) hex)) : null;
+    }
+}
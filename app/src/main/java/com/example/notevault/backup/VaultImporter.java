@@ -0,0 +1,362 @@
+package com.example.notevault.backup;
+
+import androidx.annotation.Nullable;
+
+import com.example.notevault.model.Folder;
+import com.example.notevault.model.Note;
+import com.example.notevault.tags.Tags;
+import com.example.notevault.utils.Futures;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Streams a zip archive into the vault: a {@link VaultExporter} archive, or any zip of Markdown
+ * and JSON files. Entries are read one at a time and notes written in batches, with only a few
+ * batches in flight, so memory stays flat however large the archive. Blocking; run it on a
+ * background thread.
+ *
+ * In a plain zip each directory becomes a folder, reusing an existing one of the same name, and
+ * files at the top level go to {@link #DEFAULT_FOLDER}. A Markdown file's {@code #} heading is the
+ * title, otherwise its file name; a JSON file holds one flat object with a title and content.
+ * Notes whose content is already in the vault, or earlier in the archive, are skipped, so an
+ * interrupted import can simply be run again.
+ */
+public final class VaultImporter {
+
+    /** Called as batches are committed, from whichever thread committed them. */
+    public interface Listener {
+        void onProgress(long imported, long duplicates);
+    }
+
+    public static final class Result {
+        public final int foldersCreated;
+        public final long notes;
+        public final long duplicates;
+        /** Files that were not notes, or too large for one. */
+        public final long skipped;
+
+        Result(int foldersCreated, long notes, long duplicates, long skipped) {
+            this.foldersCreated = foldersCreated;
+            this.notes = notes;
+            this.duplicates = duplicates;
+            this.skipped = skipped;
+        }
+    }
+
+    /** A new note is two writes with its first revision, and a batch holds at most 500. */
+    static final int NOTES_PER_BATCH = 200;
+    static final int MAX_IN_FLIGHT = 4;
+    static final String DEFAULT_FOLDER = "Imported";
+    /** Firestore documents are limited to 1 MiB; leave room for the other fields. */
+    private static final int MAX_NOTE_CHARS = 400 * 1024;
+
+    private final ExportSource existing;
+    private final ImportSink sink;
+    private final int notesPerBatch;
+    private final int maxInFlight;
+
+    /** {@code existing} reads the vault being imported into, to find folders and notes it already has. */
+    public VaultImporter(ExportSource existing, ImportSink sink) {
+        this(existing, sink, NOTES_PER_BATCH, MAX_IN_FLIGHT);
+    }
+
+    VaultImporter(ExportSource existing, ImportSink sink, int notesPerBatch, int maxInFlight) {
+        this.existing = existing;
+        this.sink = sink;
+        this.notesPerBatch = notesPerBatch;
+        this.maxInFlight = maxInFlight;
+    }
+
+    public Result importArchive(String userId, InputStream archive, @Nullable Listener listener) throws IOException {
+        Run run = new Run(userId, listener);
+        try {
+            run.indexVault();
+            try (ZipInputStream zip = new ZipInputStream(archive)) {
+                ZipEntry entry;
+                while ((entry = zip.getNextEntry()) != null) {
+                    if (Thread.interrupted()) throw new InterruptedIOException("Import interrupted");
+                    if (!entry.isDirectory()) run.read(entry, zip);
+                }
+            }
+            run.flush();
+            run.awaitCommits();
+        } catch (IOException e) {
+            run.abandon();
+            throw e;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Import interrupted");
+        } catch (Exception e) {
+            run.abandon();
+            throw new IOException("Import failed after " + run.imported.get() + " notes: " + e.getMessage(), e);
+        }
+        return new Result(run.foldersCreated, run.imported.get(), run.duplicates.get(), run.skipped);
+    }
+
+    /** The state of one import. */
+    private final class Run {
+        final String userId;
+        @Nullable final Listener listener;
+        final Semaphore inFlight = new Semaphore(maxInFlight);
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        final AtomicLong imported = new AtomicLong();
+        final AtomicLong duplicates = new AtomicLong();
+        /** First 64 bits of the SHA-256 of every note's content, in the vault or imported so far. */
+        final LongSet hashes = new LongSet();
+        /** Plain folders of the vault by name, which plain folders in the archive merge into. */
+        final Map<String, String> foldersByName = new HashMap<>();
+        /** Folder ids of a {@link VaultExporter} archive, mapped to the folders created for them. */
+        final Map<String, String> archiveFolders = new HashMap<>();
+        final MessageDigest sha256;
+        List<Note> batch = new ArrayList<>();
+        int foldersCreated;
+        long skipped;
+
+        Run(String userId, @Nullable Listener listener) {
+            this.userId = userId;
+            this.listener = listener;
+            try {
+                sha256 = MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        void indexVault() throws Exception {
+            String afterFolder = null;
+            do {
+                ExportSource.Page<Folder> folders = existing.folders(userId, afterFolder, notesPerBatch);
+                for (Folder folder : folders.items) {
+                    if (isPlain(folder) && folder.getName() != null) foldersByName.putIfAbsent(folder.getName(), folder.getId());
+                    String afterNote = null;
+                    do {
+                        ExportSource.Page<Note> notes = existing.notes(userId, folder.getId(), afterNote, notesPerBatch);
+                        for (Note note : notes.items) hashes.add(hash(note));
+                        afterNote = notes.nextCursor;
+                    } while (afterNote != null);
+                }
+                afterFolder = folders.nextCursor;
+            } while (afterFolder != null);
+        }
+
+        void read(ZipEntry entry, InputStream in) throws Exception {
+            String name = entry.getName();
+            BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+            VaultFormat.EntryName vaultEntry = VaultFormat.parse(name);
+            if (vaultEntry != null && vaultEntry.isFolder()) {
+                Folder folder = VaultFormat.readFolder(readAll(reader, MAX_NOTE_CHARS));
+                archiveFolders.put(vaultEntry.folderId, importFolder(folder));
+                return;
+            }
+            if (vaultEntry != null) {
+                String folderId = archiveFolders.get(vaultEntry.folderId);
+                if (folderId == null) folderId = folderNamed(vaultEntry.folderId);
+                Note note;
+                while ((note = VaultFormat.readNote(reader)) != null) add(note, folderId);
+                return;
+            }
+            String file = name.substring(name.lastIndexOf('/') + 1);
+            if (name.startsWith("__MACOSX/") || file.startsWith(".") || name.equals(VaultFormat.MANIFEST)) return;
+            String lower = file.toLowerCase();
+            Note note = null;
+            if (lower.endsWith(".md") || lower.endsWith(".markdown") || lower.endsWith(".txt")) {
+                String text = readAll(reader, MAX_NOTE_CHARS);
+                if (text != null) note = markdownNote(file, text);
+            } else if (lower.endsWith(".json")) {
+                String text = readAll(reader, MAX_NOTE_CHARS);
+                if (text != null) note = jsonNote(text);
+            }
+            if (note == null) {
+                skipped++;
+                return;
+            }
+            if (entry.getTime() > 0) note.setTimestamp(new Date(entry.getTime()));
+            int slash = name.lastIndexOf('/');
+            add(note, folderNamed(slash > 0 ? name.substring(0, slash) : DEFAULT_FOLDER));
+        }
+
+        /** Merge a plain folder into one of the same name; create anything else as it was. */
+        String importFolder(Folder folder) throws Exception {
+            if (isPlain(folder)) return folderNamed(folder.getName() != null ? folder.getName() : DEFAULT_FOLDER);
+            folder.setId(null);
+            foldersCreated++;
+            return sink.createFolder(userId, folder);
+        }
+
+        String folderNamed(String name) throws Exception {
+            String id = foldersByName.get(name);
+            if (id != null) return id;
+            id = sink.createFolder(userId, new Folder(null, name, null, new Date()));
+            foldersCreated++;
+            foldersByName.put(name, id);
+            return id;
+        }
+
+        void add(Note note, String folderId) throws Exception {
+            if (!hashes.add(hash(note))) {
+                duplicates.incrementAndGet();
+                return;
+            }
+            note.setId(null);
+            note.setUserId(userId);
+            note.setFolderId(folderId);
+            batch.add(note);
+            if (batch.size() >= notesPerBatch) flush();
+        }
+
+        void flush() throws Exception {
+            if (batch.isEmpty()) return;
+            List<Note> notes = batch;
+            batch = new ArrayList<>();
+            inFlight.acquire();
+            Throwable failed = failure.get();
+            if (failed != null) {
+                inFlight.release();
+                throw failed instanceof Exception ? (Exception) failed : new IOException(failed);
+            }
+            sink.addNotes(userId, notes).whenComplete((ignored, error) -> {
+                if (error != null) {
+                    failure.compareAndSet(null, Futures.unwrap(error));
+                } else {
+                    imported.addAndGet(notes.size());
+                    if (listener != null) listener.onProgress(imported.get(), duplicates.get());
+                }
+                inFlight.release();
+            });
+        }
+
+        void awaitCommits() throws Exception {
+            inFlight.acquire(maxInFlight);
+            inFlight.release(maxInFlight);
+            Throwable failed = failure.get();
+            if (failed != null) throw failed instanceof Exception ? (Exception) failed : new IOException(failed);
+        }
+
+        /** On failure, still wait for the batches already sent, so the counts are final. */
+        void abandon() {
+            try {
+                inFlight.acquire(maxInFlight);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        long hash(Note note) {
+            sha256.reset();
+            if (note.getEncryptedContent() != null) {
+                sha256.update(note.getEncryptedContent().toBytes());
+            } else {
+                sha256.update(nonNull(note.getTitle()).getBytes(StandardCharsets.UTF_8));
+                sha256.update((byte) 0);
+                sha256.update(nonNull(note.getContent()).getBytes(StandardCharsets.UTF_8));
+            }
+            byte[] digest = sha256.digest();
+            long hash = 0;
+            for (int i = 0; i < 8; i++) hash = (hash << 8) | (digest[i] & 0xff);
+            return hash;
+        }
+    }
+
+    /**
+     * A set of hashes in one open-addressed array, a quarter of the memory of a set of Longs;
+     * a vault's worth of hashes is the only thing an import keeps for its whole run.
+     */
+    private static final class LongSet {
+        private long[] slots = new long[1024];
+        private int size;
+
+        /** Whether {@code hash} was not in the set yet. */
+        boolean add(long hash) {
+            // Zero marks an empty slot; a hash of zero is as good as one of one
+            if (hash == 0) hash = 1;
+            if (size * 2 >= slots.length) grow();
+            int mask = slots.length - 1;
+            for (int i = (int) (hash ^ (hash >>> 32)) & mask; ; i = (i + 1) & mask) {
+                if (slots[i] == hash) return false;
+                if (slots[i] == 0) {
+                    slots[i] = hash;
+                    size++;
+                    return true;
+                }
+            }
+        }
+
+        private void grow() {
+            long[] old = slots;
+            slots = new long[old.length * 2];
+            size = 0;
+            for (long hash : old) if (hash != 0) add(hash);
+        }
+    }
+
+    private static String nonNull(@Nullable String text) {
+        return text != null ? text : "";
+    }
+
+    private static boolean isPlain(Folder folder) {
+        return !folder.isDeleted() && !folder.isHidden() && !folder.isLocked();
+    }
+
+    /** The whole entry, or null if it is longer than {@code limit} characters. */
+    @Nullable
+    private static String readAll(BufferedReader reader, int limit) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        char[] buffer = new char[8192];
+        for (int n; (n = reader.read(buffer)) > 0; ) {
+            sb.append(buffer, 0, n);
+            if (sb.length() > limit) return null;
+        }
+        return sb.toString();
+    }
+
+    static Note markdownNote(String fileName, String text) {
+        String title = fileName.contains(".") ? fileName.substring(0, fileName.lastIndexOf('.')) : fileName;
+        String content = text.startsWith("\uFEFF") ? text.substring(1) : text;
+        if (content.startsWith("# ")) {
+            int end = content.indexOf('\n');
+            title = (end < 0 ? content.substring(2) : content.substring(2, end)).trim();
+            content = end < 0 ? "" : content.substring(end + 1);
+            if (content.startsWith("\n")) content = content.substring(1);
+            else if (content.startsWith("\r\n")) content = content.substring(2);
+        }
+        return new Note(null, title, content, null, null);
+    }
+
+    @Nullable
+    static Note jsonNote(String text) {
+        Map<String, Object> fields;
+        try {
+            fields = VaultJson.read(text.trim());
+        } catch (RuntimeException e) {
+            return null;
+        }
+        Object title = fields.get("title");
+        Object content = fields.containsKey("content") ? fields.get("content") : fields.get("textContent");
+        if (!(title instanceof String) && !(content instanceof String)) return null;
+        Object color = fields.get("color");
+        Note note = new Note(null, title instanceof String ? (String) title : "",
+                content instanceof String ? (String) content : "",
+                color instanceof String && ((String) color).startsWith("#") ? (String) color : null, null);
+        note.setHidden(Boolean.TRUE.equals(fields.get("isHidden")));
+        Object tags = fields.get("tags");
+        if (tags instanceof String) note.setTags(Tags.parse((String) tags));
+        return note;
+    }
+}
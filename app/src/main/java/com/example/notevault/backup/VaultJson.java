@@ -0,0 +1,149 @@
+package com.example.notevault.backup;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Flat JSON objects of strings, numbers, booleans and nulls, for the metadata in vault archives.
+ * org.json is part of the Android platform and so missing from JVM unit tests; these objects
+ * are simple enough not to need it. Byte arrays are written as hex strings.
+ */
+final class VaultJson {
+
+    private VaultJson() {
+    }
+
+    static String write(Map<String, ?> fields) {
+        StringBuilder sb = new StringBuilder("{");
+        for (Map.Entry<String, ?> field : fields.entrySet()) {
+            if (sb.length() > 1) sb.append(',');
+            quote(sb, field.getKey());
+            sb.append(':');
+            Object value = field.getValue();
+            if (value == null || value instanceof Boolean || value instanceof Number) {
+                sb.append(value);
+            } else if (value instanceof byte[]) {
+                quote(sb, hex((byte[]) value));
+            } else {
+                quote(sb, value.toString());
+            }
+        }
+        return sb.append('}').toString();
+    }
+
+    /** Parse an object written by {@link #write}: numbers come back as Long or Double. */
+    static Map<String, Object> read(String json) {
+        Map<String, Object> fields = new LinkedHashMap<>();
+        int[] pos = {skipSpace(json, 0)};
+        expect(json, pos, '{');
+        if (peek(json, pos) == '}') return fields;
+        while (true) {
+            String name = string(json, pos);
+            expect(json, pos, ':');
+            fields.put(name, value(json, pos));
+            char next = peek(json, pos);
+            pos[0] = skipSpace(json, pos[0] + 1);
+            if (next == '}') return fields;
+            if (next != ',') throw new IllegalArgumentException("Expected , or } at " + (pos[0] - 1));
+        }
+    }
+
+    static String hex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return sb.toString();
+    }
+
+    static byte[] unhex(String hex) {
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) ((Character.digit(hex.charAt(2 * i), 16) << 4) | Character.digit(hex.charAt(2 * i + 1), 16));
+        }
+        return bytes;
+    }
+
+    private static void quote(StringBuilder sb, String text) {
+        sb.append('"');
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            switch (c) {
+                case '"': sb.append("\\\""); break;
+                case '\\': sb.append("\\\\"); break;
+                case '\n': sb.append("\\n"); break;
+                case '\r': sb.append("\\r"); break;
+                case '\t': sb.append("\\t"); break;
+                default:
+                    if (c < 0x20) sb.append(String.format("\\u%04x", (int) c));
+                    else sb.append(c);
+            }
+        }
+        sb.append('"');
+    }
+
+    private static Object value(String json, int[] pos) {
+        char c = peek(json, pos);
+        if (c == '"') return string(json, pos);
+        int start = pos[0];
+        while (pos[0] < json.length() && ",} \n\r\t".indexOf(json.charAt(pos[0])) < 0) pos[0]++;
+        String literal = json.substring(start, pos[0]);
+        pos[0] = skipSpace(json, pos[0]);
+        switch (literal) {
+            case "null": return null;
+            case "true": return true;
+            case "false": return false;
+            default:
+                try {
+                    return literal.contains(".") || literal.contains("e") || literal.contains("E")
+                            ? (Object) Double.parseDouble(literal) : (Object) Long.parseLong(literal);
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Bad value at " + start + ": " + literal);
+                }
+        }
+    }
+
+    private static String string(String json, int[] pos) {
+        expect(json, pos, '"');
+        StringBuilder sb = new StringBuilder();
+        while (true) {
+            if (pos[0] >= json.length()) throw new IllegalArgumentException("Unterminated string");
+            char c = json.charAt(pos[0]++);
+            if (c == '"') break;
+            if (c != '\\') {
+                sb.append(c);
+                continue;
+            }
+            char escaped = json.charAt(pos[0]++);
+            switch (escaped) {
+                case 'n': sb.append('\n'); break;
+                case 'r': sb.append('\r'); break;
+                case 't': sb.append('\t'); break;
+                case 'b': sb.append('\b'); break;
+                case 'f': sb.append('\f'); break;
+                case 'u':
+                    sb.append((char) Integer.parseInt(json.substring(pos[0], pos[0] + 4), 16));
+                    pos[0] += 4;
+                    break;
+                default: sb.append(escaped);
+            }
+        }
+        pos[0] = skipSpace(json, pos[0]);
+        return sb.toString();
+    }
+
+    private static void expect(String json, int[] pos, char c) {
+        if (peek(json, pos) != c) throw new IllegalArgumentException("Expected " + c + " at " + pos[0]);
+        pos[0] = skipSpace(json, pos[0] + 1);
+    }
+
+    private static char peek(String json, int[] pos) {
+        if (pos[0] >= json.length()) throw new IllegalArgumentException("Unexpected end of JSON");
+        return json.charAt(pos[0]);
+    }
+
+    private static int skipSpace(String json, int pos) {
+        while (pos < json.length() && Character.isWhitespace(json.charAt(pos))) pos++;
+        return pos;
+    }
+}
@@ -0,0 +1,567 @@
+package com.example.notevault.backup;
+
+import androidx.annotation.Nullable;
+
+import com.example.notevault.model.Folder;
+import com.example.notevault.model.Note;
+import com.example.notevault.utils.NoteCipher;
+import com.google.firebase.firestore.Blob;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.crypto.SecretKey;
+
+/**
+ * A local copy of a whole vault in one binary file, for showing the vault at once after a
+ * reinstall or an account switch while Firestore catches up. Written once through a
+ * {@link FileChannel}; read by memory-mapping the file, so opening it costs a header and an
+ * index, and each folder's notes are decoded only when asked for.
+ * <pre>
+ * header:  "NVS1" | version | flags | folders | notes | saved at (long) | index offset (long)
+ * meta:    length | user id | key salt | key check
+ * records: length | folder or note fields, each folder followed by its notes
+ * index:   per folder: offset, length, first note, note count; per note: offset, length
+ * </pre>
+ * With a key, every record is encrypted on its own with {@link NoteCipher}, so reading one
+ * folder decrypts only that folder. The key salt and check are stored in the clear so the
+ * key can be derived from a password and checked before anything is decrypted.
+ */
+public final class VaultSnapshot {
+
+    private static final byte[] MAGIC = {'N', 'V', 'S', '1'};
+    private static final int VERSION = 1;
+    private static final int FLAG_ENCRYPTED = 1;
+    private static final int HEADER_LENGTH = 36;
+    private static final int FOLDER_INDEX_LENGTH = 20;
+    private static final int NOTE_INDEX_LENGTH = 12;
+    private static final int PAGE_SIZE = 500;
+    private static final long NO_DATE = Long.MIN_VALUE;
+
+    private VaultSnapshot() {
+    }
+
+    /** What {@link #write} wrote. */
+    public static final class Info {
+        public final int folders;
+        public final int notes;
+        public final long bytes;
+
+        Info(int folders, int notes, long bytes) {
+            this.folders = folders;
+            this.notes = notes;
+            this.bytes = bytes;
+        }
+    }
+
+    /**
+     * Write the vault {@code source} reads to {@code target}, replacing it only once complete.
+     * With a {@code key}, records are encrypted and {@code keySalt}, which it was derived with,
+     * is kept in the file. Blocking; run it on a background thread.
+     */
+    public static Info write(ExportSource source, String userId, File target,
+                             @Nullable SecretKey key, @Nullable byte[] keySalt) throws Exception {
+        File parent = target.getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) throw new IOException("Cannot create " + parent);
+        File work = new File(target.getPath() + ".tmp");
+        Writer writer = new Writer(work, key);
+        try {
+            writer.writeMeta(userId, keySalt);
+            String afterFolder = null;
+            do {
+                ExportSource.Page<Folder> folders = source.folders(userId, afterFolder, PAGE_SIZE);
+                for (Folder folder : folders.items) {
+                    writer.startFolder(folder);
+                    String afterNote = null;
+                    do {
+                        ExportSource.Page<Note> notes = source.notes(userId, folder.getId(), afterNote, PAGE_SIZE);
+                        for (Note note : notes.items) writer.addNote(note);
+                        afterNote = notes.nextCursor;
+                    } while (afterNote != null);
+                }
+                afterFolder = folders.nextCursor;
+            } while (afterFolder != null);
+            writer.finish();
+        } catch (Exception e) {
+            writer.abandon();
+            work.delete();
+            throw e;
+        }
+        if (target.exists() && !target.delete()) throw new IOException("Cannot replace " + target);
+        if (!work.renameTo(target)) throw new IOException("Cannot rename " + work + " to " + target);
+        return new Info(writer.folderCount, writer.noteCount, target.length());
+    }
+
+    /** Map {@code file} and read its index. Encrypted snapshots need {@link Reader#unlock} before reading. */
+    public static Reader open(File file) throws IOException {
+        return new Reader(file);
+    }
+
+    // ==================== WRITING ====================
+
+    private static final class Writer {
+        final RandomAccessFile file;
+        final FileChannel channel;
+        @Nullable final SecretKey key;
+        final ByteBuffer out = ByteBuffer.allocateDirect(64 * 1024);
+        final Record record = new Record();
+        long position = HEADER_LENGTH;
+        /** The index, kept as primitive arrays: sixteen bytes a note. */
+        long[] folderOffsets = new long[16];
+        int[] folderLengths = new int[16];
+        int[] folderFirstNotes = new int[16];
+        long[] noteOffsets = new long[256];
+        int[] noteLengths = new int[256];
+        int folderCount;
+        int noteCount;
+
+        Writer(File work, @Nullable SecretKey key) throws IOException {
+            file = new RandomAccessFile(work, "rw");
+            file.setLength(0);
+            channel = file.getChannel();
+            this.key = key;
+        }
+
+        void writeMeta(String userId, @Nullable byte[] keySalt) throws Exception {
+            record.clear();
+            record.putString(userId);
+            record.putBytes(key != null ? keySalt : null);
+            record.putBytes(key != null ? NoteCipher.createKeyCheck(key) : null);
+            // The meta record stays in the clear: it is needed to check the key
+            append(record.toBytes());
+        }
+
+        void startFolder(Folder folder) throws Exception {
+            if (folderCount == folderOffsets.length) {
+                folderOffsets = Arrays.copyOf(folderOffsets, folderCount * 2);
+                folderLengths = Arrays.copyOf(folderLengths, folderCount * 2);
+                folderFirstNotes = Arrays.copyOf(folderFirstNotes, folderCount * 2);
+            }
+            record.clear();
+            writeFolder(record, folder);
+            folderOffsets[folderCount] = position;
+            folderLengths[folderCount] = append(seal(record.toBytes()));
+            folderFirstNotes[folderCount] = noteCount;
+            folderCount++;
+        }
+
+        void addNote(Note note) throws Exception {
+            if (noteCount == noteOffsets.length) {
+                noteOffsets = Arrays.copyOf(noteOffsets, noteCount * 2);
+                noteLengths = Arrays.copyOf(noteLengths, noteCount * 2);
+            }
+            record.clear();
+            writeNote(record, note);
+            noteOffsets[noteCount] = position;
+            noteLengths[noteCount] = append(seal(record.toBytes()));
+            noteCount++;
+        }
+
+        void finish() throws IOException {
+            long indexOffset = position;
+            ByteBuffer entry = ByteBuffer.allocate(FOLDER_INDEX_LENGTH);
+            for (int i = 0; i < folderCount; i++) {
+                int notes = (i + 1 < folderCount ? folderFirstNotes[i + 1] : noteCount) - folderFirstNotes[i];
+                entry.clear();
+                entry.putLong(folderOffsets[i]).putInt(folderLengths[i]).putInt(folderFirstNotes[i]).putInt(notes);
+                write(entry.array(), FOLDER_INDEX_LENGTH);
+            }
+            for (int i = 0; i < noteCount; i++) {
+                entry.clear();
+                entry.putLong(noteOffsets[i]).putInt(noteLengths[i]);
+                write(entry.array(), NOTE_INDEX_LENGTH);
+            }
+            flush();
+            ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+            header.put(MAGIC).putInt(VERSION).putInt(key != null ? FLAG_ENCRYPTED : 0)
+                    .putInt(folderCount).putInt(noteCount).putLong(System.currentTimeMillis()).putLong(indexOffset);
+            header.flip();
+            // The header goes in last, so a file cut short is never mistaken for a whole one
+            while (header.hasRemaining()) channel.write(header, header.position());
+            channel.force(true);
+            file.close();
+        }
+
+        void abandon() {
+            try {
+                file.close();
+            } catch (IOException ignored) {
+            }
+        }
+
+        byte[] seal(byte[] plain) throws GeneralSecurityException {
+            return key != null ? NoteCipher.encrypt(key, plain) : plain;
+        }
+
+        /** Append a length-prefixed record; returns the record's length. */
+        int append(byte[] bytes) throws IOException {
+            ByteBuffer length = ByteBuffer.allocate(4).putInt(bytes.length);
+            write(length.array(), 4);
+            write(bytes, bytes.length);
+            return bytes.length;
+        }
+
+        void write(byte[] bytes, int length) throws IOException {
+            for (int offset = 0; offset < length; ) {
+                if (!out.hasRemaining()) flush();
+                int n = Math.min(out.remaining(), length - offset);
+                out.put(bytes, offset, n);
+                offset += n;
+                // Advanced per chunk: flush works out where the buffer goes from it
+                position += n;
+            }
+        }
+
+        void flush() throws IOException {
+            out.flip();
+            long at = position - out.remaining();
+            while (out.hasRemaining()) at += channel.write(out, at);
+            out.clear();
+        }
+    }
+
+    /** A growable buffer for one record's fields. */
+    private static final class Record {
+        ByteBuffer buffer = ByteBuffer.allocate(4096);
+
+        void clear() {
+            buffer.clear();
+        }
+
+        byte[] toBytes() {
+            byte[] bytes = new byte[buffer.position()];
+            System.arraycopy(buffer.array(), 0, bytes, 0, bytes.length);
+            return bytes;
+        }
+
+        void ensure(int bytes) {
+            if (buffer.remaining() >= bytes) return;
+            ByteBuffer bigger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + bytes));
+            buffer.flip();
+            bigger.put(buffer);
+            buffer = bigger;
+        }
+
+        void putString(@Nullable String value) {
+            putBytes(value != null ? value.getBytes(StandardCharsets.UTF_8) : null);
+        }
+
+        void putBytes(@Nullable byte[] value) {
+            ensure(4 + (value != null ? value.length : 0));
+            if (value == null) {
+                buffer.putInt(-1);
+                return;
+            }
+            buffer.putInt(value.length).put(value);
+        }
+
+        void putBlob(@Nullable Blob value) {
+            putBytes(value != null ? value.toBytes() : null);
+        }
+
+        void putDate(@Nullable Date value) {
+            ensure(8);
+            buffer.putLong(value != null ? value.getTime() : NO_DATE);
+        }
+
+        void putInt(int value) {
+            ensure(4);
+            buffer.putInt(value);
+        }
+
+        void putBoolean(boolean value) {
+            ensure(1);
+            buffer.put((byte) (value ? 1 : 0));
+        }
+    }
+
+    private static void writeFolder(Record record, Folder folder) {
+        record.putString(folder.getId());
+        record.putString(folder.getName());
+        record.putString(folder.getColor());
+        record.putDate(folder.getCreatedAt());
+        record.putBoolean(folder.isDeleted());
+        record.putDate(folder.getDeletedAt());
+        record.putBoolean(folder.isHidden());
+        record.putBoolean(folder.isLocked());
+        record.putString(folder.getPasswordHash());
+        record.putBlob(folder.getKeySalt());
+        record.putBlob(folder.getKeyCheck());
+        // Like a note's tags, the rank was added later; a record ending before it is unranked
+        record.putString(folder.getRank());
+        record.putBoolean(folder.isPinned());
+    }
+
+    private static void writeNote(Record record, Note note) {
+        record.putString(note.getId());
+        record.putString(note.getFolderId());
+        record.putString(note.getUserId());
+        record.putString(note.getTitle());
+        record.putString(note.getContent());
+        record.putString(note.getColor());
+        record.putDate(note.getTimestamp());
+        record.putDate(note.getUpdatedAt());
+        record.putBoolean(note.isDeleted());
+        record.putDate(note.getDeletedAt());
+        record.putBoolean(note.isHidden());
+        record.putBoolean(note.isLocked());
+        record.putString(note.getPasswordHash());
+        record.putBlob(note.getEncryptedContent());
+        record.putBlob(note.getKeySalt());
+        record.putBlob(note.getKeyCheck());
+        record.putInt(note.getRevisionCount());
+        // Tags came after the first snapshots were written; readers treat a record ending here as untagged
+        record.putInt(note.getTags().size());
+        for (String tag : note.getTags()) record.putString(tag);
+        record.putString(note.getRank());
+        record.putBoolean(note.isPinned());
+    }
+
+    // ==================== READING ====================
+
+    /**
+     * An open snapshot. Every read decodes fresh models, so callers may change them. Safe to use
+     * from several threads: reads never move the shared mapping's position.
+     */
+    public static final class Reader implements Closeable {
+        private final RandomAccessFile file;
+        private final MappedByteBuffer map;
+        private final boolean encrypted;
+        private final int folderCount;
+        private final int noteCount;
+        private final long savedAt;
+        private final int indexOffset;
+        private final String userId;
+        @Nullable private final byte[] keySalt;
+        @Nullable private final byte[] keyCheck;
+        @Nullable private volatile SecretKey key;
+        /** Folder positions by id, filled in the first time a folder is looked up. */
+        @Nullable private volatile Map<String, Integer> folderPositions;
+
+        Reader(File snapshot) throws IOException {
+            file = new RandomAccessFile(snapshot, "r");
+            try {
+                long length = file.length();
+                if (length < HEADER_LENGTH || length > Integer.MAX_VALUE) throw new IOException("Not a vault snapshot: " + snapshot);
+                map = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, length);
+                for (int i = 0; i < MAGIC.length; i++) {
+                    if (map.get(i) != MAGIC[i]) throw new IOException("Not a vault snapshot: " + snapshot);
+                }
+                if (map.getInt(4) != VERSION) throw new IOException("Unsupported snapshot version " + map.getInt(4));
+                encrypted = (map.getInt(8) & FLAG_ENCRYPTED) != 0;
+                folderCount = map.getInt(12);
+                noteCount = map.getInt(16);
+                savedAt = map.getLong(20);
+                long index = map.getLong(28);
+                if (index < HEADER_LENGTH || index + (long) folderCount * FOLDER_INDEX_LENGTH
+                        + (long) noteCount * NOTE_INDEX_LENGTH != length) {
+                    throw new IOException("Snapshot index does not match its size");
+                }
+                indexOffset = (int) index;
+                ByteBuffer meta = record(HEADER_LENGTH + 4, map.getInt(HEADER_LENGTH));
+                userId = getString(meta);
+                keySalt = getBytes(meta);
+                keyCheck = getBytes(meta);
+            } catch (IOException | RuntimeException e) {
+                file.close();
+                throw e instanceof IOException ? (IOException) e : new IOException("Corrupt snapshot: " + e, e);
+            }
+        }
+
+        public String userId() {
+            return userId;
+        }
+
+        public Date savedAt() {
+            return new Date(savedAt);
+        }
+
+        public int folderCount() {
+            return folderCount;
+        }
+
+        public int noteCount() {
+            return noteCount;
+        }
+
+        public boolean isEncrypted() {
+            return encrypted;
+        }
+
+        /** The salt the key of an encrypted snapshot was derived with. */
+        @Nullable
+        public byte[] keySalt() {
+            return keySalt != null ? keySalt.clone() : null;
+        }
+
+        /** Use {@code key} for reading; false, and nothing changes, for a plain snapshot or the wrong key. */
+        public boolean unlock(SecretKey key) {
+            if (!encrypted || keyCheck == null || !NoteCipher.verifyKeyCheck(key, keyCheck)) return false;
+            this.key = key;
+            return true;
+        }
+
+        public List<Folder> folders() throws IOException {
+            List<Folder> folders = new ArrayList<>(folderCount);
+            for (int i = 0; i < folderCount; i++) folders.add(folder(i));
+            return folders;
+        }
+
+        /** The notes of one folder, empty if the snapshot has no such folder. */
+        public List<Note> notes(String folderId) throws IOException {
+            Integer position = folderPositions().get(folderId);
+            if (position == null) return new ArrayList<>();
+            int entry = indexOffset + position * FOLDER_INDEX_LENGTH;
+            int first = map.getInt(entry + 12);
+            int count = map.getInt(entry + 16);
+            List<Note> notes = new ArrayList<>(count);
+            for (int i = first; i < first + count; i++) notes.add(note(i));
+            return notes;
+        }
+
+        /** Every note, folder by folder. */
+        public List<Note> notes() throws IOException {
+            List<Note> notes = new ArrayList<>(noteCount);
+            for (int i = 0; i < noteCount; i++) notes.add(note(i));
+            return notes;
+        }
+
+        @Override
+        public void close() throws IOException {
+            // The mapping itself lasts until it is garbage collected; Android offers no way to unmap
+            file.close();
+        }
+
+        private Map<String, Integer> folderPositions() throws IOException {
+            Map<String, Integer> positions = folderPositions;
+            if (positions == null) {
+                positions = new HashMap<>();
+                for (int i = 0; i < folderCount; i++) positions.put(folder(i).getId(), i);
+                folderPositions = positions;
+            }
+            return positions;
+        }
+
+        private Folder folder(int i) throws IOException {
+            int entry = indexOffset + i * FOLDER_INDEX_LENGTH;
+            ByteBuffer in = open((int) map.getLong(entry), map.getInt(entry + 8));
+            try {
+                Folder folder = new Folder(getString(in), getString(in), getString(in), getDate(in));
+                folder.setDeleted(in.get() != 0);
+                folder.setDeletedAt(getDate(in));
+                folder.setHidden(in.get() != 0);
+                folder.setLocked(in.get() != 0);
+                folder.setPasswordHash(getString(in));
+                folder.setKeySalt(getBlob(in));
+                folder.setKeyCheck(getBlob(in));
+                if (in.hasRemaining()) folder.setRank(getString(in));
+                if (in.hasRemaining()) folder.setPinned(in.get() != 0);
+                return folder;
+            } catch (BufferUnderflowException | IllegalArgumentException e) {
+                throw new IOException("Corrupt folder record " + i, e);
+            }
+        }
+
+        private Note note(int i) throws IOException {
+            int entry = indexOffset + folderCount * FOLDER_INDEX_LENGTH + i * NOTE_INDEX_LENGTH;
+            ByteBuffer in = open((int) map.getLong(entry), map.getInt(entry + 8));
+            try {
+                String id = getString(in);
+                String folderId = getString(in);
+                String noteUserId = getString(in);
+                Note note = new Note(id, getString(in), getString(in), getString(in), getDate(in));
+                note.setFolderId(folderId);
+                note.setUserId(noteUserId);
+                note.setUpdatedAt(getDate(in));
+                note.setDeleted(in.get() != 0);
+                note.setDeletedAt(getDate(in));
+                note.setHidden(in.get() != 0);
+                note.setLocked(in.get() != 0);
+                note.setPasswordHash(getString(in));
+                note.setEncryptedContent(getBlob(in));
+                note.setKeySalt(getBlob(in));
+                note.setKeyCheck(getBlob(in));
+                note.setRevisionCount(in.getInt());
+                if (in.hasRemaining()) {
+                    int count = in.getInt();
+                    if (count < 0) throw new IllegalArgumentException("Negative tag count");
+                    List<String> tags = new ArrayList<>(count);
+                    for (int t = 0; t < count; t++) tags.add(getString(in));
+                    note.setTags(tags);
+                }
+                if (in.hasRemaining()) note.setRank(getString(in));
+                if (in.hasRemaining()) note.setPinned(in.get() != 0);
+                return note;
+            } catch (BufferUnderflowException | IllegalArgumentException e) {
+                throw new IOException("Corrupt note record " + i, e);
+            }
+        }
+
+        /** The fields of the record at {@code offset}, decrypted if need be. */
+        private ByteBuffer open(int offset, int length) throws IOException {
+            ByteBuffer sealed = record(offset + 4, length);
+            if (!encrypted) return sealed;
+            SecretKey current = key;
+            if (current == null) throw new IOException("Snapshot is encrypted; unlock it first");
+            byte[] bytes = new byte[length];
+            sealed.get(bytes);
+            try {
+                return ByteBuffer.wrap(NoteCipher.decrypt(current, bytes));
+            } catch (GeneralSecurityException e) {
+                throw new IOException("Snapshot record does not decrypt", e);
+            }
+        }
+
+        private ByteBuffer record(int offset, int length) throws IOException {
+            if (offset < 0 || length < 0 || (long) offset + length > indexOffset) {
+                throw new IOException("Snapshot record out of bounds");
+            }
+            ByteBuffer view = map.duplicate();
+            view.position(offset);
+            view.limit(offset + length);
+            return view.slice();
+        }
+    }
+
+    @Nullable
+    private static String getString(ByteBuffer in) {
+        byte[] bytes = getBytes(in);
+        return bytes != null ? new String(bytes, StandardCharsets.UTF_8) : null;
+    }
+
+    @Nullable
+    private static byte[] getBytes(ByteBuffer in) {
+        int length = in.getInt();
+        if (length < 0) return null;
+        if (length > in.remaining()) throw new BufferUnderflowException();
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return bytes;
+    }
+
+    @Nullable
+    private static Blob getBlob(ByteBuffer in) {
+        byte[] bytes = getBytes(in);
+        return bytes != null ? Blob.fromBytes(bytes) : null;
+    }
+
+    @Nullable
+    private static Date getDate(ByteBuffer in) {
+        long millis = in.getLong();
+        return millis != NO_DATE ? new Date(millis) : null;
+    }
+}
@@ -0,0 +1,52 @@
+package com.example.notevault.crdt;
+
+/**
+ * Lamport timestamp identifying an operation or a character: a counter plus the id of the
+ * replica (site) that made it. Ordered by counter, ties broken by site.
+ */
+public final class OpId implements Comparable<OpId> {
+
+    public final long counter;
+    public final String site;
+
+    public OpId(long counter, String site) {
+        this.counter = counter;
+        this.site = site;
+    }
+
+    /** Id of the {@code offset}-th character of an insert starting at this id. */
+    public OpId plus(int offset) {
+        return offset == 0 ? this : new OpId(counter + offset, site);
+    }
+
+    /** Inverse of {@link #toString()}. */
+    public static OpId parse(String value) {
+        int at = value.indexOf('@');
+        if (at <= 0) throw new IllegalArgumentException("Bad op id: " + value);
+        return new OpId(Long.parseLong(value.substring(0, at)), value.substring(at + 1));
+    }
+
+    @Override
+    public int compareTo(OpId other) {
+        int c = Long.compare(counter, other.counter);
+        return c != 0 ? c : site.compareTo(other.site);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof OpId)) return false;
+        OpId other = (OpId) o;
+        return counter == other.counter && site.equals(other.site);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Long.hashCode(counter) + site.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return counter + "@" + site;
+    }
+}
@@ -0,0 +1,298 @@
+package com.example.notevault.crdt;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Replicated growable array: a sequence CRDT holding one replica of a note's text.
+ *
+ * Every character has a unique {@link OpId} and stays in the sequence as a tombstone once
+ * deleted, so operations from other replicas can always find the character they refer to.
+ * An insert goes right after its {@code after} character, past any characters with a greater
+ * id; since children always have greater ids than their parents, every replica that has seen
+ * the same operations holds the same sequence, whatever order they arrived in.
+ * Operations whose dependencies have not arrived yet are held back until they do.
+ */
+public final class Rga {
+
+    /** Site of the characters a note's existing content is seeded with, identical on every device. */
+    public static final String SEED_SITE = "seed";
+
+    private static final class Node {
+        final OpId id;
+        final char value;
+        boolean deleted;
+
+        Node(OpId id, char value, boolean deleted) {
+            this.id = id;
+            this.value = value;
+            this.deleted = deleted;
+        }
+    }
+
+    private enum Outcome { APPLIED, DUPLICATE, MISSING }
+
+    private final String site;
+    private final List<Node> nodes = new ArrayList<>();
+    private final Map<OpId, Node> byId = new HashMap<>();
+    private final List<SequenceOp> pending = new ArrayList<>();
+    private long clock;
+    private int visible;
+    /** Index in {@link #nodes} where the last lookup or insert happened; edits cluster around it. */
+    private int hint;
+    private String text;
+
+    public Rga(String site) {
+        if (site.isEmpty() || site.indexOf('@') >= 0 || site.indexOf(' ') >= 0) {
+            throw new IllegalArgumentException("Bad site id: " + site);
+        }
+        this.site = site;
+    }
+
+    /** A replica for {@code site} starting from {@link #snapshot()} output. */
+    public static Rga fromSnapshot(String site, String snapshot) {
+        Rga rga = new Rga(site);
+        rga.load(snapshot);
+        return rga;
+    }
+
+    /** Snapshot of a fresh sequence holding {@code text}, the same on every device that seeds it. */
+    public static String seedSnapshot(String text) {
+        Rga rga = new Rga(SEED_SITE);
+        if (!text.isEmpty()) rga.insert(0, text);
+        return rga.snapshot();
+    }
+
+    public String getSite() {
+        return site;
+    }
+
+    public String text() {
+        if (text == null) {
+            StringBuilder sb = new StringBuilder(visible);
+            for (Node node : nodes) if (!node.deleted) sb.append(node.value);
+            text = sb.toString();
+        }
+        return text;
+    }
+
+    public int length() {
+        return visible;
+    }
+
+    /** Operations received before the operations they depend on. */
+    public int pendingCount() {
+        return pending.size();
+    }
+
+    // ==================== LOCAL EDITS ====================
+
+    /** Insert {@code value} at visible position {@code index}; returns the op to send to other replicas. */
+    public SequenceOp insert(int index, String value) {
+        if (index < 0 || index > visible) throw new IndexOutOfBoundsException("index " + index + ", length " + visible);
+        Node previous = index == 0 ? null : nodes.get(nodeIndex(index - 1));
+        SequenceOp op = SequenceOp.insert(new OpId(clock + 1, site), previous != null ? previous.id : null, value);
+        apply(op);
+        return op;
+    }
+
+    /**
+     * Delete {@code count} visible characters from {@code index}; returns the ops to send to
+     * other replicas, none when nothing was deleted. Characters typed together have consecutive
+     * ids and are stored as one run, and an op holds at most {@link SequenceOp#MAX_DELETE_RUNS}
+     * runs, so deleting text pieced together from many edits may take several ops.
+     */
+    public List<SequenceOp> delete(int index, int count) {
+        if (index < 0 || count < 0 || index + count > visible) {
+            throw new IndexOutOfBoundsException("range " + index + "+" + count + ", length " + visible);
+        }
+        List<SequenceOp> ops = new ArrayList<>();
+        if (count == 0) return ops;
+        List<List<OpId>> chunks = new ArrayList<>();
+        List<OpId> targets = new ArrayList<>();
+        int runs = 0;
+        OpId last = null;
+        for (int i = nodeIndex(index), found = 0; found < count; i++) {
+            Node node = nodes.get(i);
+            if (node.deleted) continue;
+            boolean newRun = last == null || !node.id.site.equals(last.site) || node.id.counter != last.counter + 1;
+            if (newRun && runs == SequenceOp.MAX_DELETE_RUNS) {
+                chunks.add(targets);
+                targets = new ArrayList<>();
+                runs = 0;
+            }
+            if (newRun) runs++;
+            targets.add(node.id);
+            last = node.id;
+            found++;
+        }
+        chunks.add(targets);
+        // Collected first, since applying an op turns its characters into tombstones
+        for (List<OpId> chunk : chunks) {
+            SequenceOp op = SequenceOp.delete(new OpId(clock + 1, site), chunk);
+            apply(op);
+            ops.add(op);
+        }
+        return ops;
+    }
+
+    // ==================== REMOTE OPS ====================
+
+    /**
+     * Apply an operation from any replica. Duplicates are ignored and operations with missing
+     * dependencies are held until those arrive. Returns true if the text changed.
+     */
+    public boolean apply(SequenceOp op) {
+        Outcome outcome = integrate(op);
+        if (outcome == Outcome.MISSING) {
+            pending.add(op);
+            return false;
+        }
+        if (outcome == Outcome.DUPLICATE) return false;
+        boolean progress = true;
+        while (progress && !pending.isEmpty()) {
+            progress = false;
+            for (int i = 0; i < pending.size(); i++) {
+                if (integrate(pending.get(i)) != Outcome.MISSING) {
+                    pending.remove(i--);
+                    progress = true;
+                }
+            }
+        }
+        return true;
+    }
+
+    private Outcome integrate(SequenceOp op) {
+        return op.isInsert() ? integrateInsert(op) : integrateDelete(op);
+    }
+
+    private Outcome integrateInsert(SequenceOp op) {
+        if (byId.containsKey(op.id)) return Outcome.DUPLICATE;
+        int pos = 0;
+        if (op.after != null) {
+            Node parent = byId.get(op.after);
+            if (parent == null) return Outcome.MISSING;
+            pos = indexOf(parent) + 1;
+        }
+        // Concurrent inserts at the same place with greater ids, and everything after them, come first
+        while (pos < nodes.size() && nodes.get(pos).id.compareTo(op.id) > 0) pos++;
+        List<Node> run = new ArrayList<>(op.text.length());
+        for (int i = 0; i < op.text.length(); i++) {
+            Node node = new Node(op.id.plus(i), op.text.charAt(i), false);
+            run.add(node);
+            byId.put(node.id, node);
+        }
+        nodes.addAll(pos, run);
+        hint = pos + run.size() - 1;
+        visible += run.size();
+        clock = Math.max(clock, op.lastCounter());
+        text = null;
+        return Outcome.APPLIED;
+    }
+
+    private Outcome integrateDelete(SequenceOp op) {
+        for (OpId target : op.targets) {
+            if (!byId.containsKey(target)) return Outcome.MISSING;
+        }
+        boolean changed = false;
+        for (OpId target : op.targets) {
+            Node node = byId.get(target);
+            if (!node.deleted) {
+                node.deleted = true;
+                visible--;
+                changed = true;
+            }
+        }
+        clock = Math.max(clock, op.lastCounter());
+        if (!changed) return Outcome.DUPLICATE;
+        text = null;
+        return Outcome.APPLIED;
+    }
+
+    /** Index in {@link #nodes} of the {@code index}-th visible character. */
+    private int nodeIndex(int index) {
+        int seen = -1;
+        for (int i = 0; i < nodes.size(); i++) {
+            if (!nodes.get(i).deleted && ++seen == index) return i;
+        }
+        throw new IndexOutOfBoundsException("index " + index);
+    }
+
+    /** Position of {@code node}, searching outwards from the last edit. */
+    private int indexOf(Node node) {
+        int size = nodes.size();
+        for (int d = 0; d < size; d++) {
+            int ahead = hint + d;
+            if (ahead < size && nodes.get(ahead) == node) return hint = ahead;
+            int behind = hint - d;
+            if (behind >= 0 && nodes.get(behind) == node) return hint = behind;
+            if (ahead >= size && behind < 0) break;
+        }
+        throw new IllegalStateException("Node not in sequence: " + node.id);
+    }
+
+    // ==================== SNAPSHOTS ====================
+
+    /**
+     * The whole sequence, tombstones included, as runs of consecutive ids:
+     * {@code <counter>@<site> <deleted 0|1> <length>:<characters>} repeated, where deleted runs
+     * leave out their characters.
+     * Other replicas' operations apply to a replica loaded from it exactly as to this one.
+     */
+    public String snapshot() {
+        StringBuilder sb = new StringBuilder(nodes.size() + 16);
+        int i = 0;
+        while (i < nodes.size()) {
+            Node first = nodes.get(i);
+            int end = i + 1;
+            while (end < nodes.size()) {
+                Node next = nodes.get(end);
+                if (next.deleted != first.deleted || !next.id.site.equals(first.id.site)
+                        || next.id.counter != first.id.counter + (end - i)) break;
+                end++;
+            }
+            sb.append(first.id).append(' ').append(first.deleted ? '1' : '0').append(' ').append(end - i).append(':');
+            if (!first.deleted) {
+                for (int j = i; j < end; j++) sb.append(nodes.get(j).value);
+            }
+            i = end;
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Replace the sequence with a snapshot, typically a compaction of the shared op log.
+     * The clock never goes back, so ops made afterwards keep fresh ids; held-back ops are retried.
+     */
+    public void load(String snapshot) {
+        nodes.clear();
+        byId.clear();
+        visible = 0;
+        hint = 0;
+        text = null;
+        long max = clock;
+        int pos = 0;
+        while (pos < snapshot.length()) {
+            int space = snapshot.indexOf(' ', pos);
+            int colon = snapshot.indexOf(':', space + 3);
+            if (space < 0 || colon < 0) throw new IllegalArgumentException("Corrupt snapshot at " + pos);
+            OpId start = OpId.parse(snapshot.substring(pos, space));
+            boolean deleted = snapshot.charAt(space + 1) == '1';
+            int length = Integer.parseInt(snapshot.substring(space + 3, colon));
+            for (int i = 0; i < length; i++) {
+                Node node = new Node(start.plus(i), deleted ? ' ' : snapshot.charAt(colon + 1 + i), deleted);
+                nodes.add(node);
+                byId.put(node.id, node);
+                if (!deleted) visible++;
+            }
+            max = Math.max(max, start.counter + length - 1);
+            pos = colon + 1 + (deleted ? 0 : length);
+        }
+        clock = max;
+        List<SequenceOp> held = new ArrayList<>(pending);
+        pending.clear();
+        for (SequenceOp op : held) apply(op);
+    }
+}
@@ -0,0 +1,96 @@
+package com.example.notevault.crdt;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * One edit of an {@link Rga}: either a run of characters inserted after {@link #after}
+ * (null for the start of the text), or a set of characters deleted by id.
+ * The i-th inserted character gets id {@code id.plus(i)}.
+ */
+public final class SequenceOp {
+
+    /**
+     * Most runs of consecutive ids one delete holds. Each run is one entry of the stored op's
+     * list, which keeps the op document far below Firestore's size and index entry limits.
+     */
+    public static final int MAX_DELETE_RUNS = 1000;
+
+    public final OpId id;
+    /** Insert only: the character the text goes after. */
+    public final OpId after;
+    /** Insert only. */
+    public final String text;
+    /** Delete only. */
+    public final List<OpId> targets;
+
+    private SequenceOp(OpId id, OpId after, String text, List<OpId> targets) {
+        this.id = id;
+        this.after = after;
+        this.text = text;
+        this.targets = targets;
+    }
+
+    public static SequenceOp insert(OpId id, OpId after, String text) {
+        if (text.isEmpty()) throw new IllegalArgumentException("Empty insert");
+        return new SequenceOp(id, after, text, null);
+    }
+
+    public static SequenceOp delete(OpId id, List<OpId> targets) {
+        return new SequenceOp(id, null, null, Collections.unmodifiableList(targets));
+    }
+
+    public boolean isInsert() {
+        return text != null;
+    }
+
+    /**
+     * This insert and {@code next}, typed straight after it, as a single insert; null if
+     * {@code next} does not continue it. Applying the result is the same as applying both.
+     */
+    public SequenceOp coalesce(SequenceOp next) {
+        if (!isInsert() || !next.isInsert() || !next.id.site.equals(id.site)) return null;
+        if (next.id.counter != lastCounter() + 1 || !id.plus(text.length() - 1).equals(next.after)) return null;
+        return insert(id, after, text + next.text);
+    }
+
+    /**
+     * Delete only: the targets as runs of consecutive ids of one site, each written
+     * {@code <counter>@<site> <length>} like the runs of {@link Rga#snapshot()}.
+     */
+    public List<String> targetRuns() {
+        List<String> runs = new ArrayList<>();
+        int i = 0;
+        while (i < targets.size()) {
+            OpId first = targets.get(i);
+            int end = i + 1;
+            while (end < targets.size() && targets.get(end).site.equals(first.site)
+                    && targets.get(end).counter == first.counter + (end - i)) end++;
+            runs.add(first + " " + (end - i));
+            i = end;
+        }
+        return runs;
+    }
+
+    /** Inverse of {@link #targetRuns()}; a bare {@code <counter>@<site>} is a run of one. */
+    public static List<OpId> parseTargetRuns(List<String> runs) {
+        List<OpId> targets = new ArrayList<>();
+        for (String run : runs) {
+            int space = run.indexOf(' ');
+            if (space < 0) {
+                targets.add(OpId.parse(run));
+                continue;
+            }
+            OpId first = OpId.parse(run.substring(0, space));
+            int length = Integer.parseInt(run.substring(space + 1));
+            for (int i = 0; i < length; i++) targets.add(first.plus(i));
+        }
+        return targets;
+    }
+
+    /** Highest counter this op uses, for advancing a replica's clock. */
+    public long lastCounter() {
+        return isInsert() ? id.counter + text.length() - 1 : id.counter;
+    }
+}
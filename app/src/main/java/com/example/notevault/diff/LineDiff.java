@@ -0,0 +1,99 @@
+package com.example.notevault.diff;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Line-level diff (Myers' O(ND) algorithm) shared by revision deltas and merges.
+ * Common leading and trailing lines are stripped first, so the usual small edit to a long
+ * note only runs the search over the lines that actually changed.
+ */
+public final class LineDiff {
+
+    private LineDiff() {
+    }
+
+    /** Split text into lines, each keeping its trailing '\n' so joining them gives the text back. */
+    public static List<String> splitLines(String text) {
+        List<String> lines = new ArrayList<>();
+        if (text == null || text.isEmpty()) return lines;
+        int start = 0;
+        while (start < text.length()) {
+            int end = text.indexOf('\n', start);
+            end = end < 0 ? text.length() : end + 1;
+            lines.add(text.substring(start, end));
+            start = end;
+        }
+        return lines;
+    }
+
+    /**
+     * Pairs {aIndex, bIndex} of lines shared by a and b, in increasing order on both sides,
+     * forming a longest common subsequence.
+     */
+    public static List<int[]> matches(List<String> a, List<String> b) {
+        int prefix = 0;
+        while (prefix < a.size() && prefix < b.size() && a.get(prefix).equals(b.get(prefix))) prefix++;
+        int suffix = 0;
+        while (suffix < a.size() - prefix && suffix < b.size() - prefix
+                && a.get(a.size() - 1 - suffix).equals(b.get(b.size() - 1 - suffix))) suffix++;
+
+        List<int[]> result = new ArrayList<>();
+        for (int i = 0; i < prefix; i++) result.add(new int[]{i, i});
+        List<int[]> middle = myers(a.subList(prefix, a.size() - suffix), b.subList(prefix, b.size() - suffix));
+        for (int[] m : middle) result.add(new int[]{m[0] + prefix, m[1] + prefix});
+        for (int i = suffix; i > 0; i--) result.add(new int[]{a.size() - i, b.size() - i});
+        return result;
+    }
+
+    private static List<int[]> myers(List<String> a, List<String> b) {
+        int n = a.size();
+        int m = b.size();
+        if (n == 0 || m == 0) return new ArrayList<>();
+        int max = n + m;
+        int offset = max + 1;
+        int[] v = new int[2 * max + 3];
+        // trace.get(d) holds v for k in [-d-1, d+1] as it was before step d
+        List<int[]> trace = new ArrayList<>();
+        int steps = -1;
+        for (int d = 0; d <= max && steps < 0; d++) {
+            trace.add(Arrays.copyOfRange(v, offset - d - 1, offset + d + 2));
+            for (int k = -d; k <= d; k += 2) {
+                int x = k == -d || (k != d && v[offset + k - 1] < v[offset + k + 1])
+                        ? v[offset + k + 1] : v[offset + k - 1] + 1;
+                int y = x - k;
+                while (x < n && y < m && a.get(x).equals(b.get(y))) {
+                    x++;
+                    y++;
+                }
+                v[offset + k] = x;
+                if (x >= n && y >= m) {
+                    steps = d;
+                    break;
+                }
+            }
+        }
+
+        List<int[]> matches = new ArrayList<>();
+        int x = n;
+        int y = m;
+        for (int d = steps; d >= 0; d--) {
+            int[] prev = trace.get(d);
+            int k = x - y;
+            int prevK = k == -d || (k != d && prev[k - 1 + d + 1] < prev[k + 1 + d + 1]) ? k + 1 : k - 1;
+            int prevX = prev[prevK + d + 1];
+            int prevY = prevX - prevK;
+            while (x > prevX && y > prevY) {
+                matches.add(new int[]{x - 1, y - 1});
+                x--;
+                y--;
+            }
+            x = prevX;
+            y = prevY;
+        }
+        Collections.reverse(matches);
+        return matches;
+    }
+}
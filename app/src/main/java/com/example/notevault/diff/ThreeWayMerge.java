@@ -0,0 +1,115 @@
+package com.example.notevault.diff;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Line-based three-way merge (diff3) of two edits of a common base.
+ *
+ * Base lines kept unchanged by both sides split the texts into stable and unstable chunks.
+ * An unstable chunk changed by one side takes that side's version, one changed identically by
+ * both is taken once, and one changed differently by both is a conflict, written out between
+ * {@link #MARKER_LOCAL}, {@link #MARKER_SEPARATOR} and {@link #MARKER_REMOTE} lines.
+ */
+public final class ThreeWayMerge {
+
+    public static final String MARKER_LOCAL = "<<<<<<< this device";
+    public static final String MARKER_SEPARATOR = "=======";
+    public static final String MARKER_REMOTE = ">>>>>>> other device";
+
+    public static final class Result {
+        public final String text;
+        public final int conflicts;
+
+        Result(String text, int conflicts) {
+            this.text = text;
+            this.conflicts = conflicts;
+        }
+
+        public boolean hasConflicts() {
+            return conflicts > 0;
+        }
+    }
+
+    private ThreeWayMerge() {
+    }
+
+    public static Result merge(String base, String local, String remote) {
+        if (local.equals(remote) || remote.equals(base)) return new Result(local, 0);
+        if (local.equals(base)) return new Result(remote, 0);
+
+        // Terminate every last line so appending after it does not look like editing it
+        List<String> b = LineDiff.splitLines(terminated(base));
+        List<String> l = LineDiff.splitLines(terminated(local));
+        List<String> r = LineDiff.splitLines(terminated(remote));
+        int[] toLocal = matchIndex(b.size(), LineDiff.matches(b, l));
+        int[] toRemote = matchIndex(b.size(), LineDiff.matches(b, r));
+
+        StringBuilder out = new StringBuilder();
+        int conflicts = 0;
+        int bi = 0;
+        int li = 0;
+        int ri = 0;
+        while (true) {
+            // Next base line that survives on both sides, or the end of all three texts
+            int stable = bi;
+            while (stable < b.size() && (toLocal[stable] < 0 || toRemote[stable] < 0)) stable++;
+            int lEnd = stable < b.size() ? toLocal[stable] : l.size();
+            int rEnd = stable < b.size() ? toRemote[stable] : r.size();
+            conflicts += mergeChunk(out, b.subList(bi, stable), l.subList(li, lEnd), r.subList(ri, rEnd));
+            if (stable == b.size()) break;
+            out.append(b.get(stable));
+            bi = stable + 1;
+            li = lEnd + 1;
+            ri = rEnd + 1;
+        }
+        if (!local.endsWith("\n") && !remote.endsWith("\n") && out.length() > 0 && out.charAt(out.length() - 1) == '\n') {
+            out.setLength(out.length() - 1);
+        }
+        return new Result(out.toString(), conflicts);
+    }
+
+    /** True while text still contains conflict markers from an unresolved merge. */
+    public static boolean hasConflictMarkers(String text) {
+        for (String line : LineDiff.splitLines(text)) {
+            String trimmed = line.endsWith("\n") ? line.substring(0, line.length() - 1) : line;
+            if (trimmed.equals(MARKER_LOCAL) || trimmed.equals(MARKER_REMOTE)) return true;
+        }
+        return false;
+    }
+
+    private static int mergeChunk(StringBuilder out, List<String> base, List<String> local, List<String> remote) {
+        if (local.equals(base)) {
+            appendAll(out, remote);
+        } else if (remote.equals(base) || local.equals(remote)) {
+            appendAll(out, local);
+        } else {
+            appendLine(out, MARKER_LOCAL);
+            appendAll(out, local);
+            appendLine(out, MARKER_SEPARATOR);
+            appendAll(out, remote);
+            appendLine(out, MARKER_REMOTE);
+            return 1;
+        }
+        return 0;
+    }
+
+    private static void appendAll(StringBuilder out, List<String> lines) {
+        for (String line : lines) out.append(line);
+    }
+
+    private static void appendLine(StringBuilder out, String line) {
+        out.append(line).append('\n');
+    }
+
+    private static String terminated(String text) {
+        return text.isEmpty() || text.endsWith("\n") ? text : text + "\n";
+    }
+
+    private static int[] matchIndex(int size, List<int[]> matches) {
+        int[] index = new int[size];
+        Arrays.fill(index, -1);
+        for (int[] m : matches) index[m[0]] = m[1];
+        return index;
+    }
+}
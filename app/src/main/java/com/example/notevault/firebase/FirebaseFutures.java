@@ -0,0 +1,362 @@
+package com.example.notevault.firebase;
+
+import com.example.notevault.crdt.SequenceOp;
+import com.example.notevault.model.Folder;
+import com.example.notevault.model.Note;
+import com.example.notevault.model.NoteRevision;
+import com.example.notevault.migration.MigrationRunner;
+import com.example.notevault.utils.Futures;
+import com.google.android.gms.tasks.Task;
+import com.google.firebase.auth.FirebaseUser;
+import com.google.firebase.storage.UploadTask;
+
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+import javax.crypto.SecretKey;
+
+/**
+ * Every one-shot {@link FirebaseManager} operation as a {@link CompletableFuture}, so that steps
+ * can be chained without nesting callbacks and independent ones fanned out with
+ * {@link Futures#allOf}, bounded with {@link Futures#withTimeout} and retried with
+ * {@link Futures#retry}. A failed operation fails its future with an {@link OperationException}
+ * carrying the message the callback would have shown.
+ *
+ * Futures complete where the underlying callback runs, usually the main thread; use
+ * {@link Futures#on} to be sure. Listeners are not covered: they deliver many results, not one.
+ */
+public class FirebaseFutures {
+
+    private static FirebaseFutures instance;
+    private final FirebaseManager firebase;
+
+    /** An operation reported failure. */
+    public static class OperationException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        public OperationException(String message) {
+            super(message != null ? message : "Operation failed");
+        }
+    }
+
+    /** {@link #saveNoteIfUnchanged} found overlapping edits it could not merge. */
+    public static class NoteConflictException extends OperationException {
+        private static final long serialVersionUID = 1L;
+
+        /** Not serialized: {@link Note} is not serializable. */
+        public final transient Note remote;
+
+        public NoteConflictException(Note remote) {
+            super("The note was changed on another device");
+            this.remote = remote;
+        }
+    }
+
+    public static class Prefetched {
+        public final int documents;
+        /** Rough size of what was downloaded */
+        public final long bytes;
+
+        Prefetched(int documents, long bytes) {
+            this.documents = documents;
+            this.bytes = bytes;
+        }
+    }
+
+    /** The arguments of {@link FirebaseManager.CollabCallback#onOpened}. */
+    public static class CollabState {
+        public final String snapshot;
+        public final long generation;
+        public final Date syncedAt;
+
+        CollabState(String snapshot, long generation, Date syncedAt) {
+            this.snapshot = snapshot;
+            this.generation = generation;
+            this.syncedAt = syncedAt;
+        }
+    }
+
+    FirebaseFutures(FirebaseManager firebase) {
+        this.firebase = firebase;
+    }
+
+    public static FirebaseFutures getInstance() {
+        if (instance == null) {
+            instance = new FirebaseFutures(FirebaseManager.getInstance());
+        }
+        return instance;
+    }
+
+    /**
+     * A future for {@code task}, completed on the thread that completes the task. Cancelling the
+     * future does not stop the task; Firestore calls cannot be taken back once issued.
+     */
+    static <T> CompletableFuture<T> of(Task<T> task) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        task.addOnCompleteListener(Runnable::run, t -> {
+            if (t.isSuccessful()) future.complete(t.getResult());
+            else if (t.isCanceled()) future.cancel(false);
+            else future.completeExceptionally(t.getException() != null ? t.getException() : new OperationException(null));
+        });
+        return future;
+    }
+
+    // ==================== AUTHENTICATION ====================
+
+    public CompletableFuture<FirebaseUser> registerWithEmail(String email, String password) {
+        CompletableFuture<FirebaseUser> future = new CompletableFuture<>();
+        firebase.registerWithEmail(email, password, auth(future));
+        return future;
+    }
+
+    public CompletableFuture<FirebaseUser> signInWithEmail(String email, String password) {
+        CompletableFuture<FirebaseUser> future = new CompletableFuture<>();
+        firebase.signInWithEmail(email, password, auth(future));
+        return future;
+    }
+
+    // ==================== NOTES LAYOUT AND MIGRATIONS ====================
+
+    public CompletableFuture<String> loadNotesLayout(String userId) {
+        return operation(callback -> firebase.loadNotesLayout(userId, callback));
+    }
+
+    public CompletableFuture<String> migrateToFlatNotesLayout(String userId, NotesLayoutMigrator.ProgressListener progress) {
+        return operation(callback -> firebase.migrateToFlatNotesLayout(userId, progress, callback));
+    }
+
+    /** Completes on the migration thread. */
+    public CompletableFuture<String> runSchemaMigrations(String userId) {
+        return operation(callback -> firebase.runSchemaMigrations(userId, new MigrationRunner.Listener() {
+            @Override
+            public void onProgress(int version, int scanned, int updated) {
+            }
+
+            @Override
+            public void onComplete(boolean success, String message) {
+                callback.onComplete(success, message);
+            }
+        }));
+    }
+
+    // ==================== USER PROFILE ====================
+
+    /** The download URL of the uploaded photo. Cancelling the future cancels the upload. */
+    public CompletableFuture<String> uploadProfilePhoto(String userId, byte[] imageBytes) {
+        CompletableFuture<String> future = new CompletableFuture<>();
+        UploadTask upload = firebase.uploadProfilePhoto(userId, imageBytes,
+                new FirebaseManager.ProfilePhotoCallback() {
+                    @Override
+                    public void onSuccess(String downloadUrl) {
+                        future.complete(downloadUrl);
+                    }
+
+                    @Override
+                    public void onError(String message) {
+                        future.completeExceptionally(new OperationException(message));
+                    }
+                });
+        future.whenComplete((url, error) -> {
+            if (future.isCancelled()) upload.cancel();
+        });
+        return future;
+    }
+
+    public CompletableFuture<String> updateUserPhotoUrl(String userId, String photoUrl) {
+        return operation(callback -> firebase.updateUserPhotoUrl(userId, photoUrl, callback));
+    }
+
+    /** Null when the user has no photo or it could not be read. */
+    public CompletableFuture<String> getUserPhotoUrl(String userId) {
+        CompletableFuture<String> future = new CompletableFuture<>();
+        firebase.getUserPhotoUrl(userId, future::complete);
+        return future;
+    }
+
+    // ==================== FOLDERS ====================
+
+    public CompletableFuture<String> addOrUpdateFolder(String userId, Folder folder) {
+        return operation(callback -> firebase.addOrUpdateFolder(userId, folder, callback));
+    }
+
+    public CompletableFuture<String> moveFolderToRecycleBin(String userId, String folderId) {
+        return operation(callback -> firebase.moveFolderToRecycleBin(userId, folderId, callback));
+    }
+
+    public CompletableFuture<String> restoreFolder(String userId, String folderId) {
+        return operation(callback -> firebase.restoreFolder(userId, folderId, callback));
+    }
+
+    public CompletableFuture<String> permanentDeleteFolder(String userId, String folderId) {
+        return operation(callback -> firebase.permanentDeleteFolder(userId, folderId, callback));
+    }
+
+    public CompletableFuture<String> hideFolder(String userId, String folderId) {
+        return operation(callback -> firebase.hideFolder(userId, folderId, callback));
+    }
+
+    public CompletableFuture<String> unhideFolder(String userId, String folderId) {
+        return operation(callback -> firebase.unhideFolder(userId, folderId, callback));
+    }
+
+    public CompletableFuture<String> lockFolder(String userId, String folderId, SecretKey key, byte[] keySalt, byte[] keyCheck) {
+        return operation(callback -> firebase.lockFolder(userId, folderId, key, keySalt, keyCheck, callback));
+    }
+
+    public CompletableFuture<String> unlockFolder(String userId, String folderId, SecretKey key, byte[] keySalt) {
+        return operation(callback -> firebase.unlockFolder(userId, folderId, key, keySalt, callback));
+    }
+
+    // ==================== NOTES ====================
+
+    /** Completes on a background thread; an unsuccessful prefetch fails the future. */
+    public CompletableFuture<Prefetched> prefetchNotes(String userId, String folderId, int limit) {
+        CompletableFuture<Prefetched> future = new CompletableFuture<>();
+        firebase.prefetchNotes(userId, folderId, limit, (success, documents, bytes) -> {
+            if (success) future.complete(new Prefetched(documents, bytes));
+            else future.completeExceptionally(new OperationException("Prefetch failed"));
+        });
+        return future;
+    }
+
+    public CompletableFuture<String> addOrUpdateNote(String userId, String folderId, Note note) {
+        return operation(callback -> firebase.addOrUpdateNote(userId, folderId, note, callback));
+    }
+
+    /** Fails with a {@link NoteConflictException} when {@code merger} gives up. */
+    public CompletableFuture<String> saveNoteIfUnchanged(String userId, String folderId, Note note, Date baseUpdatedAt,
+                                                         FirebaseManager.NoteMerger merger) {
+        CompletableFuture<String> future = new CompletableFuture<>();
+        firebase.saveNoteIfUnchanged(userId, folderId, note, baseUpdatedAt, merger, new FirebaseManager.NoteSaveCallback() {
+            @Override
+            public void onSaved(String message, int attempts) {
+                future.complete(message);
+            }
+
+            @Override
+            public void onConflict(Note remote) {
+                future.completeExceptionally(new NoteConflictException(remote));
+            }
+
+            @Override
+            public void onError(String message) {
+                future.completeExceptionally(new OperationException(message));
+            }
+        });
+        return future;
+    }
+
+    public CompletableFuture<String> moveNoteToRecycleBin(String userId, String folderId, String noteId) {
+        return operation(callback -> firebase.moveNoteToRecycleBin(userId, folderId, noteId, callback));
+    }
+
+    public CompletableFuture<String> moveNoteToFolder(String userId, String fromFolderId, String noteId, String toFolderId) {
+        return operation(callback -> firebase.moveNoteToFolder(userId, fromFolderId, noteId, toFolderId, callback));
+    }
+
+    public CompletableFuture<String> restoreNote(String userId, String folderId, String noteId) {
+        return operation(callback -> firebase.restoreNote(userId, folderId, noteId, callback));
+    }
+
+    public CompletableFuture<String> permanentDeleteNote(String userId, String folderId, String noteId) {
+        return operation(callback -> firebase.permanentDeleteNote(userId, folderId, noteId, callback));
+    }
+
+    public CompletableFuture<String> hideNote(String userId, String folderId, String noteId) {
+        return operation(callback -> firebase.hideNote(userId, folderId, noteId, callback));
+    }
+
+    public CompletableFuture<String> unhideNote(String userId, String folderId, String noteId) {
+        return operation(callback -> firebase.unhideNote(userId, folderId, noteId, callback));
+    }
+
+    public CompletableFuture<String> lockNote(String userId, String folderId, String noteId, byte[] keySalt, byte[] keyCheck,
+                                              byte[] encryptedContent) {
+        return operation(callback -> firebase.lockNote(userId, folderId, noteId, keySalt, keyCheck, encryptedContent, callback));
+    }
+
+    public CompletableFuture<String> unlockNote(String userId, String folderId, String noteId, String content) {
+        return operation(callback -> firebase.unlockNote(userId, folderId, noteId, content, callback));
+    }
+
+    public CompletableFuture<String> cleanupOldRecycleBinItems(String userId) {
+        return operation(callback -> firebase.cleanupOldRecycleBinItems(userId, callback));
+    }
+
+    // ==================== HISTORY ====================
+
+    public CompletableFuture<List<NoteRevision>> loadNoteRevisions(String userId, String noteId) {
+        CompletableFuture<List<NoteRevision>> future = new CompletableFuture<>();
+        firebase.loadNoteRevisions(userId, noteId, new FirebaseManager.RevisionsCallback() {
+            @Override
+            public void onLoaded(List<NoteRevision> revisions) {
+                future.complete(revisions);
+            }
+
+            @Override
+            public void onError(String message) {
+                future.completeExceptionally(new OperationException(message));
+            }
+        });
+        return future;
+    }
+
+    public CompletableFuture<String> compactNoteHistory(String userId, String noteId) {
+        return operation(callback -> firebase.compactNoteHistory(userId, noteId, callback));
+    }
+
+    // ==================== COLLABORATIVE EDITING ====================
+
+    public CompletableFuture<CollabState> openNoteCollab(String userId, String noteId, String content, Date updatedAt) {
+        CompletableFuture<CollabState> future = new CompletableFuture<>();
+        firebase.openNoteCollab(userId, noteId, content, updatedAt, new FirebaseManager.CollabCallback() {
+            @Override
+            public void onOpened(String snapshot, long generation, Date syncedAt) {
+                future.complete(new CollabState(snapshot, generation, syncedAt));
+            }
+
+            @Override
+            public void onError(String message) {
+                future.completeExceptionally(new OperationException(message));
+            }
+        });
+        return future;
+    }
+
+    public CompletableFuture<String> appendNoteOps(String userId, String noteId, List<SequenceOp> ops) {
+        return operation(callback -> firebase.appendNoteOps(userId, noteId, ops, callback));
+    }
+
+    public CompletableFuture<String> compactNoteOps(String userId, String noteId, long generation, String snapshot,
+                                                    List<String> opIds) {
+        return operation(callback -> firebase.compactNoteOps(userId, noteId, generation, snapshot, opIds, callback));
+    }
+
+    // ==================== HELPERS ====================
+
+    /** Adapt an {@link FirebaseManager.OperationCallback} operation; the future holds its success message. */
+    static CompletableFuture<String> operation(Consumer<FirebaseManager.OperationCallback> start) {
+        CompletableFuture<String> future = new CompletableFuture<>();
+        start.accept((success, message) -> {
+            if (success) future.complete(message);
+            else future.completeExceptionally(new OperationException(message));
+        });
+        return future;
+    }
+
+    private static FirebaseManager.AuthCallback auth(CompletableFuture<FirebaseUser> future) {
+        return new FirebaseManager.AuthCallback() {
+            @Override
+            public void onSuccess(FirebaseUser user) {
+                future.complete(user);
+            }
+
+            @Override
+            public void onError(String message) {
+                future.completeExceptionally(new OperationException(message));
+            }
+        };
+    }
+}
@@ -1,43 +1,131 @@
 package com.example.notevault.firebase;
 
+import com.example.notevault.backup.ExportSource;
+import com.example.notevault.backup.VaultExporter;
+import com.example.notevault.backup.VaultImporter;
+import com.example.notevault.backup.VaultSnapshot;
+import com.example.notevault.crdt.OpId;
+import com.example.notevault.crdt.Rga;
+import com.example.notevault.crdt.SequenceOp;
+import com.example.notevault.history.RetentionPolicy;
+import com.example.notevault.history.RevisionHistory;
+import com.example.notevault.metrics.FirestoreMetrics;
+import com.example.notevault.metrics.TracingSink;
+import com.example.notevault.migration.MigrationRunner;
+import com.example.notevault.migration.Migrations;
 import com.example.notevault.model.Folder;
 import com.example.notevault.model.Note;
+import com.example.notevault.model.NoteRevision;
+import com.example.notevault.sort.RankKeys;
+import com.example.notevault.sort.SortMode;
+import com.example.notevault.store.DeferredAction;
+import com.example.notevault.store.ListenerPauser;
+import com.example.notevault.store.NoteStore;
+import com.example.notevault.store.UndoWindow;
+import com.example.notevault.utils.BackgroundExecutor;
+import com.example.notevault.utils.Futures;
+import com.example.notevault.utils.MainThreadExecutor;
+import com.example.notevault.utils.NoteCipher;
+import com.example.notevault.utils.SessionKeyCache;
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.Timestamp;
 import com.google.firebase.auth.FirebaseAuth;
 import com.google.firebase.auth.FirebaseUser;
+import com.google.firebase.firestore.Blob;
 import com.google.firebase.firestore.CollectionReference;
 import com.google.firebase.firestore.DocumentReference;
+import com.google.firebase.firestore.DocumentSnapshot;
 import com.google.firebase.firestore.EventListener;
 import com.google.firebase.firestore.FieldValue;
 import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.FirebaseFirestoreException;
 import com.google.firebase.firestore.FirebaseFirestoreSettings;
+import com.google.firebase.firestore.ListenerRegistration;
+import com.google.firebase.firestore.MetadataChanges;
 import com.google.firebase.firestore.Query;
 import com.google.firebase.firestore.QuerySnapshot;
+import com.google.firebase.firestore.Source;
+import com.google.firebase.firestore.Transaction;
+import com.google.firebase.firestore.WriteBatch;
 import com.google.firebase.storage.FirebaseStorage;
 import com.google.firebase.storage.StorageReference;
 import com.google.firebase.storage.UploadTask;
 
+import java.io.File;
+import java.io.InputStream;
+import java.security.GeneralSecurityException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+import javax.crypto.SecretKey;
 
 /**
  * Centralized Firebase Authentication, Firestore and Storage manager.
  * Handles folders/notes with recycle bin, hide, and lock.
- * Firestore: users/{userId}/folders/{folderId}/notes/{noteId}
+ * Firestore: users/{userId}/folders/{folderId}/notes/{noteId} (nested layout)
+ * or users/{userId}/vaultNotes/{noteId} keyed by the note's folderId (flat layout).
  */
 public class FirebaseManager {
 
-    private static final String COLLECTION_USERS = "users";
-    private static final String COLLECTION_FOLDERS = "folders";
-    private static final String COLLECTION_NOTES = "notes";
-    private static final int RECYCLE_BIN_DAYS = 30;
+    static final String COLLECTION_USERS = "users";
+    static final String COLLECTION_FOLDERS = "folders";
+    static final String COLLECTION_NOTES = "notes";
+    /**
+     * The flat layout's notes. Not "notes": the nested layout's collection group queries would
+     * also match the flat copies while a migration is copying them.
+     */
+    static final String COLLECTION_FLAT_NOTES = "vaultNotes";
+    private static final String COLLECTION_HISTORY = "history";
+    private static final String COLLECTION_REVISIONS = "revisions";
+    private static final String COLLECTION_COLLAB = "collab";
+    private static final String COLLECTION_OPS = "ops";
+    /** Set on a note whose content was saved offline without a history revision. */
+    private static final String HISTORY_BEHIND = "historyBehind";
+    /** User document field recording which notes layout the account uses. */
+    static final String FIELD_NOTES_LAYOUT = "notesLayout";
+    static final String NOTES_LAYOUT_FLAT = "flat";
+    /** Notes are fully copied to the flat layout; nested originals are still being deleted. */
+    static final String NOTES_LAYOUT_CLEANUP = "cleanup";
+    private static final int MAX_BATCH_WRITES = 450;
 
     private static FirebaseManager instance;
     private final FirebaseAuth auth;
     private final FirebaseFirestore firestore;
     private final FirebaseStorage storage;
+    /** When true, notes live in users/{userId}/vaultNotes and are filtered by folderId. */
+    private volatile boolean flatNotesLayout;
+    /** The user whose document {@link #notesLayoutRegistration} follows, or null. */
+    private String notesLayoutUserId;
+    private ListenerRegistration notesLayoutRegistration;
+    private boolean notesLayoutKnown;
+    /**
+     * A migration is copying this user's notes to the flat layout, so a note deleted in the
+     * nested layout must lose its flat copy too.
+     */
+    private volatile boolean notesMigrating;
+    /** {@link #loadNotesLayout} callers waiting for the first read of the user document. */
+    private final List<OperationCallback> notesLayoutWaiters = new ArrayList<>();
+    /** Runs the continuations of multi-step operations, such as the per-note writes of a folder operation. */
+    private volatile Executor background = BackgroundExecutor.getInstance();
+    /** Where operations that continue in the background report their result. */
+    private volatile Executor mainThread = MainThreadExecutor.getInstance();
+    /** Runs schema backfills one at a time, off the main thread. */
+    private final Executor migrationExecutor = BackgroundExecutor.getInstance().serial();
+    /** Runs vault exports and imports one at a time; each holds its thread while it pages through the vault. */
+    private final Executor exportExecutor = BackgroundExecutor.getInstance().serial();
+    /** Paces single-document updates and caps concurrent commits. */
+    private final WriteScheduler writes;
 
     public interface AuthCallback {
         void onSuccess(FirebaseUser user);
@@ -57,6 +145,38 @@ public class FirebaseManager {
         void onLoaded(String photoUrl);
     }
 
+    /** Combines a local edit with the note as another device saved it, or returns null when they conflict. */
+    public interface NoteMerger {
+        Note merge(Note remote);
+    }
+
+    /** Called on a background thread. */
+    public interface PrefetchCallback {
+        /** @param bytes rough size of what was downloaded, for bandwidth budgets */
+        void onComplete(boolean success, int documents, long bytes);
+    }
+
+    public interface NoteSaveCallback {
+        void onSaved(String message, int attempts);
+        /** Overlapping edits; {@code remote} is the note as currently stored. */
+        void onConflict(Note remote);
+        void onError(String message);
+    }
+
+    public interface RevisionsCallback {
+        void onLoaded(List<NoteRevision> revisions);
+        void onError(String message);
+    }
+
+    public interface CollabCallback {
+        /**
+         * {@code syncedAt} is when a collaborative editor last saved the note; a later note
+         * updatedAt means it was changed some other way since.
+         */
+        void onOpened(String snapshot, long generation, Date syncedAt);
+        void onError(String message);
+    }
+
     private FirebaseManager() {
         auth = FirebaseAuth.getInstance();
         firestore = FirebaseFirestore.getInstance();
@@ -65,6 +185,14 @@ public class FirebaseManager {
                 .setPersistenceEnabled(true)
                 .build();
         firestore.setFirestoreSettings(settings);
+        FirestoreMetrics.getInstance().addSink(new TracingSink());
+        writes = new WriteScheduler((operation, path, fields, done) ->
+                FirestoreTracking.write(operation, 1, firestore.document(path).update(fields)).addOnCompleteListener(t ->
+                        done.onComplete(t.isSuccessful(), t.getException() != null ? t.getException().getMessage() : null)),
+                FirestoreMetrics.getInstance().writeQueue());
+        // Follow the layout from sign-in on, so no screen reads or writes notes where they no longer are
+        auth.addAuthStateListener(signedIn -> followNotesLayout(
+                signedIn.getCurrentUser() != null ? signedIn.getCurrentUser().getUid() : null));
     }
 
     public static FirebaseManager getInstance() {
@@ -74,6 +202,17 @@ public class FirebaseManager {
         return instance;
     }
 
+    /**
+     * Choose where the continuations of multi-step operations run and where those operations
+     * call back. Defaults to the shared background pool and the main thread; benchmarks can
+     * pass {@code Runnable::run} as {@code background} to compare with the old inline model.
+     * Snapshot listeners take their executor per call.
+     */
+    public void setExecutors(Executor background, Executor mainThread) {
+        this.background = background;
+        this.mainThread = mainThread;
+    }
+
     public FirebaseUser getCurrentUser() {
         return auth.getCurrentUser();
     }
@@ -112,11 +251,102 @@ public class FirebaseManager {
 
     public void signOut() {
         auth.signOut();
+        followNotesLayout(null);
+        SessionKeyCache.getInstance().clear();
+    }
+
+    // ==================== NOTES LAYOUT ====================
+
+    public boolean isFlatNotesLayout() {
+        return flatNotesLayout;
+    }
+
+    public void setFlatNotesLayout(boolean flat) {
+        flatNotesLayout = flat;
+    }
+
+    /**
+     * Report which notes layout this user is on once it is known. The user document is followed
+     * from sign-in, so when another device migrates the notes, this one switches with it: the
+     * paused and attached list queries listen again on the new collection.
+     */
+    public void loadNotesLayout(String userId, OperationCallback callback) {
+        synchronized (this) {
+            followNotesLayout(userId);
+            if (!notesLayoutKnown) {
+                if (callback != null) notesLayoutWaiters.add(callback);
+                return;
+            }
+        }
+        if (callback != null) callback.onComplete(true, flatNotesLayout ? "Flat layout" : "Nested layout");
+    }
+
+    /** Listen to {@code userId}'s document for its notes layout, stopping to follow any other user. */
+    private synchronized void followNotesLayout(String userId) {
+        if (userId != null && userId.equals(notesLayoutUserId)) return;
+        if (notesLayoutRegistration != null) notesLayoutRegistration.remove();
+        notesLayoutRegistration = null;
+        notesLayoutUserId = userId;
+        notesLayoutKnown = false;
+        flatNotesLayout = false;
+        notesMigrating = false;
+        if (userId == null) return;
+        notesLayoutRegistration = FirestoreTracking.listen("followNotesLayout",
+                firestore.collection(COLLECTION_USERS).document(userId), (doc, e) -> onNotesLayout(userId, doc, e));
+    }
+
+    private void onNotesLayout(String userId, DocumentSnapshot doc, FirebaseFirestoreException e) {
+        List<OperationCallback> waiting;
+        boolean switched;
+        synchronized (this) {
+            if (!userId.equals(notesLayoutUserId)) return;
+            waiting = new ArrayList<>(notesLayoutWaiters);
+            notesLayoutWaiters.clear();
+            if (e != null) {
+                // The listener is gone after an error; the next load follows again
+                notesLayoutRegistration = null;
+                notesLayoutUserId = null;
+                switched = false;
+            } else {
+                String layout = doc != null ? doc.getString(FIELD_NOTES_LAYOUT) : null;
+                boolean flat = NOTES_LAYOUT_FLAT.equals(layout) || NOTES_LAYOUT_CLEANUP.equals(layout);
+                switched = notesLayoutKnown && flat != flatNotesLayout;
+                flatNotesLayout = flat;
+                notesMigrating = !flat && doc != null && doc.getString(FirestoreNotesLayoutStore.FIELD_CURSOR_FOLDER) != null;
+                notesLayoutKnown = true;
+            }
+        }
+        for (OperationCallback callback : waiting) {
+            if (e != null) callback.onComplete(false, e.getMessage());
+            else callback.onComplete(true, flatNotesLayout ? "Flat layout" : "Nested layout");
+        }
+        if (switched) ListenerPauser.getInstance().restartAll();
+    }
+
+    /**
+     * Copy every note of this user into the flat layout and switch to it.
+     * Safe to call again after an interruption: it resumes from the saved cursor.
+     */
+    public void migrateToFlatNotesLayout(String userId, NotesLayoutMigrator.ProgressListener progress,
+                                         OperationCallback callback) {
+        new NotesLayoutMigrator(new FirestoreNotesLayoutStore(firestore), userId, migrationExecutor).run(progress, (success, message) -> {
+            boolean switched;
+            synchronized (this) {
+                switched = success && !flatNotesLayout;
+                if (success) {
+                    flatNotesLayout = true;
+                    notesMigrating = false;
+                }
+            }
+            if (switched) ListenerPauser.getInstance().restartAll();
+            report(callback, success, message);
+        });
     }
 
     // ==================== USER PROFILE ====================
 
-    public void uploadProfilePhoto(String userId, byte[] imageBytes, ProfilePhotoCallback callback) {
+    /** Returns the upload, which can be cancelled while it runs. */
+    public UploadTask uploadProfilePhoto(String userId, byte[] imageBytes, ProfilePhotoCallback callback) {
         StorageReference ref = storage.getReference().child("profile_photos").child(userId + ".jpg");
         UploadTask task = ref.putBytes(imageBytes);
         task.addOnSuccessListener(t -> ref.getDownloadUrl().addOnSuccessListener(uri -> {
@@ -126,21 +356,16 @@ public class FirebaseManager {
         })).addOnFailureListener(e -> {
             if (callback != null) callback.onError(e.getMessage());
         });
+        return task;
     }
 
     public void updateUserPhotoUrl(String userId, String photoUrl, OperationCallback callback) {
-        firestore.collection(COLLECTION_USERS).document(userId)
-                .update("photoUrl", photoUrl)
-                .addOnCompleteListener(t -> {
-                    if (callback != null) {
-                        callback.onComplete(t.isSuccessful(), t.getException() != null ? t.getException().getMessage() : "Updated");
-                    }
-                });
+        writes.update("updateUserPhotoUrl", firestore.collection(COLLECTION_USERS).document(userId).getPath(), fields("photoUrl", photoUrl), "Updated", callback);
     }
 
     /** Load user profile photo URL from Firestore for drawer header. */
     public void getUserPhotoUrl(String userId, UserPhotoUrlCallback callback) {
-        firestore.collection(COLLECTION_USERS).document(userId).get()
+        FirestoreTracking.read("getUserPhotoUrl", firestore.collection(COLLECTION_USERS).document(userId).get())
                 .addOnSuccessListener(doc -> {
                     if (callback != null && doc != null && doc.contains("photoUrl")) {
                         Object url = doc.get("photoUrl");
@@ -156,36 +381,123 @@ public class FirebaseManager {
         Map<String, Object> data = new HashMap<>();
         data.put("uid", user.getUid());
         data.put("email", user.getEmail());
-        firestore.collection(COLLECTION_USERS).document(user.getUid()).set(data);
+        // New accounts are written in the current schema and need no backfill
+        data.put(FirestoreMigrationStore.FIELD_SCHEMA_VERSION, Migrations.LATEST_VERSION);
+        FirestoreTracking.write("createUserDocument", 1, firestore.collection(COLLECTION_USERS).document(user.getUid()).set(data));
+    }
+
+    /**
+     * Backfill documents written by older app versions up to {@link Migrations#LATEST_VERSION}.
+     * Runs in the background; the listener is called on the migration thread.
+     * Load the notes layout first so the backfill walks the right collections.
+     */
+    public void runSchemaMigrations(String userId, MigrationRunner.Listener listener) {
+        new MigrationRunner(new FirestoreMigrationStore(firestore, flatNotesLayout), Migrations.all(), migrationExecutor)
+                .runPending(userId, listener);
+    }
+
+    /**
+     * Export the whole vault, deleted and hidden items included, to a zip at {@code target},
+     * continuing an earlier interrupted export of the same target. Progress and the result are
+     * reported on the main thread. Load the notes layout first so the export reads the right collections.
+     */
+    public void exportVault(String userId, File target, VaultExporter.Listener listener, OperationCallback callback) {
+        VaultExporter exporter = new VaultExporter(new FirestoreExportSource(firestore, flatNotesLayout, "exportVault", Source.DEFAULT));
+        exportExecutor.execute(() -> {
+            try {
+                VaultExporter.Result result = exporter.export(userId, target, (folders, notes, bytes) -> {
+                    if (listener != null) mainThread.execute(() -> listener.onProgress(folders, notes, bytes));
+                });
+                report(callback, true, "Exported " + result.notes + " notes in " + result.folders + " folders");
+            } catch (Exception e) {
+                report(callback, false, "Export failed: " + e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Save what this device has cached of the vault to {@code target}, for
+     * {@link FirestoreStore#restoreLocalSnapshot} to show at the next cold start or sign-in.
+     * Reads only the local cache, so it costs no reads and works offline; an empty cache leaves
+     * an earlier snapshot in place. The file is not encrypted, so {@code target} must be in
+     * storage that is left out of backups and device transfer. Reports on the main thread.
+     */
+    public void saveLocalSnapshot(String userId, File target, OperationCallback callback) {
+        ExportSource cache = new FirestoreExportSource(firestore, flatNotesLayout, "saveLocalSnapshot", Source.CACHE);
+        exportExecutor.execute(() -> {
+            try {
+                if (cache.folders(userId, null, 1).items.isEmpty()) {
+                    report(callback, true, "Nothing cached to save");
+                    return;
+                }
+                VaultSnapshot.Info info = VaultSnapshot.write(cache, userId, target, null, null);
+                report(callback, true, "Saved " + info.notes + " notes locally");
+            } catch (Exception e) {
+                report(callback, false, "Local snapshot failed: " + e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Import a zip of a vault export or of Markdown and JSON files, skipping notes already in the
+     * vault; see {@link VaultImporter}. Closes {@code archive}. Progress and the result are
+     * reported on the main thread.
+     */
+    public void importVault(String userId, InputStream archive, VaultImporter.Listener listener, OperationCallback callback) {
+        VaultImporter importer = new VaultImporter(new FirestoreExportSource(firestore, flatNotesLayout, "importVault", Source.DEFAULT),
+                new FirestoreImportSink(this));
+        exportExecutor.execute(() -> {
+            try (InputStream in = archive) {
+                VaultImporter.Result result = importer.importArchive(userId, in, (notes, duplicates) -> {
+                    if (listener != null) mainThread.execute(() -> listener.onProgress(notes, duplicates));
+                });
+                report(callback, true, "Imported " + result.notes + " notes, skipped " + result.duplicates + " duplicates");
+            } catch (Exception e) {
+                report(callback, false, "Import failed: " + e.getMessage());
+            }
+        });
     }
 
     // ==================== FOLDERS (main list: not deleted, not hidden) ====================
 
-    public void listenToFolders(String userId, EventListener<QuerySnapshot> listener) {
-        getFoldersCollection(userId)
-                .orderBy("createdAt", Query.Direction.DESCENDING)
-                .addSnapshotListener(listener);
+    /**
+     * Snapshots are delivered on {@code executor}, so they can be decoded off the main thread.
+     * Like every listener taking an executor, it also hears metadata-only snapshots, so pending
+     * writes can be tracked; {@link FirestoreStore} does not re-decode those.
+     */
+    public ListenerRegistration listenToFolders(String userId, SortMode sort, Executor executor, EventListener<QuerySnapshot> listener) {
+        return FirestoreTracking.listen("listenToFolders", ordered(getFoldersCollection(userId), sort.forFolders(), "createdAt"),
+                executor, MetadataChanges.INCLUDE, listener);
     }
 
-    public void listenToDeletedFolders(String userId, EventListener<QuerySnapshot> listener) {
-        getFoldersCollection(userId)
+    /**
+     * Pinned folders, newest first. A few documents from an index of their own, so the grid can
+     * show them before the full folder list arrives.
+     */
+    public ListenerRegistration listenToPinnedFolders(String userId, Executor executor, EventListener<QuerySnapshot> listener) {
+        return FirestoreTracking.listen("listenToPinnedFolders", getFoldersCollection(userId)
+                .whereEqualTo("isPinned", true)
+                .orderBy("createdAt", Query.Direction.DESCENDING), executor, MetadataChanges.INCLUDE, listener);
+    }
+
+    public ListenerRegistration listenToDeletedFolders(String userId, Executor executor, EventListener<QuerySnapshot> listener) {
+        return FirestoreTracking.listen("listenToDeletedFolders", getFoldersCollection(userId)
                 .whereEqualTo("isDeleted", true)
-                .orderBy("deletedAt", Query.Direction.DESCENDING)
-                .addSnapshotListener(listener);
+                .orderBy("deletedAt", Query.Direction.DESCENDING), executor, MetadataChanges.INCLUDE, listener);
     }
 
-    public void listenToHiddenFolders(String userId, EventListener<QuerySnapshot> listener) {
-        getFoldersCollection(userId)
+    public ListenerRegistration listenToHiddenFolders(String userId, Executor executor, EventListener<QuerySnapshot> listener) {
+        return FirestoreTracking.listen("listenToHiddenFolders", getFoldersCollection(userId)
                 .whereEqualTo("isHidden", true)
-                .orderBy("createdAt", Query.Direction.DESCENDING)
-                .addSnapshotListener(listener);
+                .orderBy("createdAt", Query.Direction.DESCENDING), executor, MetadataChanges.INCLUDE, listener);
     }
 
     public void addOrUpdateFolder(String userId, Folder folder, final OperationCallback callback) {
         CollectionReference ref = getFoldersCollection(userId);
-        DocumentReference docRef = (folder.getId() == null || folder.getId().isEmpty())
-                ? ref.document() : ref.document(folder.getId());
-        if (folder.getId() == null || folder.getId().isEmpty()) folder.setId(docRef.getId());
+        boolean isNew = folder.getId() == null || folder.getId().isEmpty();
+        DocumentReference docRef = isNew ? ref.document() : ref.document(folder.getId());
+        if (isNew) folder.setId(docRef.getId());
+        if (isNew && folder.getRank() == null) folder.setRank(RankKeys.forCreation(createdAt(folder.getCreatedAt())));
 
         Map<String, Object> data = new HashMap<>();
         data.put("name", folder.getName());
@@ -193,11 +505,15 @@ public class FirebaseManager {
         data.put("createdAt", folder.getCreatedAt() != null ? folder.getCreatedAt() : FieldValue.serverTimestamp());
         data.put("isDeleted", folder.isDeleted());
         data.put("isHidden", folder.isHidden());
+        data.put("isPinned", folder.isPinned());
         data.put("isLocked", folder.isLocked());
         if (folder.getDeletedAt() != null) data.put("deletedAt", folder.getDeletedAt());
         if (folder.getPasswordHash() != null) data.put("passwordHash", folder.getPasswordHash());
+        if (folder.getKeySalt() != null) data.put("keySalt", folder.getKeySalt());
+        if (folder.getKeyCheck() != null) data.put("keyCheck", folder.getKeyCheck());
+        if (folder.getRank() != null) data.put("rank", folder.getRank());
 
-        docRef.set(data).addOnCompleteListener(task -> {
+        FirestoreTracking.write("addOrUpdateFolder", 1, docRef.set(data)).addOnCompleteListener(task -> {
             if (callback != null) callback.onComplete(task.isSuccessful(),
                     task.getException() != null ? task.getException().getMessage() : "Folder saved");
         });
@@ -206,155 +522,464 @@ public class FirebaseManager {
     /** Move folder to recycle bin (soft delete). Also marks all notes in folder as deleted. */
     public void moveFolderToRecycleBin(String userId, String folderId, OperationCallback callback) {
         Date now = new Date();
-        DocumentReference folderRef = getFoldersCollection(userId).document(folderId);
-        folderRef.update("isDeleted", true, "deletedAt", now).addOnSuccessListener(aVoid -> {
-            getNotesCollection(userId, folderId).get().addOnSuccessListener(snap -> {
-                for (int i = 0; i < snap.size(); i++) {
-                    snap.getDocuments().get(i).getReference().update("isDeleted", true, "deletedAt", now);
-                }
-                if (callback != null) callback.onComplete(true, "Moved to Recycle Bin");
-            }).addOnFailureListener(e -> {
-                if (callback != null) callback.onComplete(false, e.getMessage());
-            });
-        }).addOnFailureListener(e -> {
-            if (callback != null) callback.onComplete(false, e.getMessage());
-        });
+        Map<String, Object> folderUpdates = new HashMap<>();
+        folderUpdates.put("isDeleted", true);
+        folderUpdates.put("deletedAt", now);
+        updateFolderAndNotes("moveFolderToRecycleBin", userId, folderId, folderUpdates, () -> {
+            Map<String, Object> noteUpdates = new HashMap<>(folderUpdates);
+            noteUpdates.put("changedAt", now);
+            return noteUpdates;
+        }, "Moved to Recycle Bin", callback);
     }
 
     /** Restore folder from recycle bin; restores all notes in folder. */
     public void restoreFolder(String userId, String folderId, OperationCallback callback) {
-        DocumentReference folderRef = getFoldersCollection(userId).document(folderId);
-        Map<String, Object> updates = new HashMap<>();
-        updates.put("isDeleted", false);
-        updates.put("deletedAt", FieldValue.delete());
-        folderRef.update(updates).addOnSuccessListener(aVoid -> {
-            getNotesCollection(userId, folderId).get().addOnSuccessListener(snap -> {
-                for (int i = 0; i < snap.size(); i++) {
+        Map<String, Object> folderUpdates = new HashMap<>();
+        folderUpdates.put("isDeleted", false);
+        folderUpdates.put("deletedAt", FieldValue.delete());
+        updateFolderAndNotes("restoreFolder", userId, folderId, folderUpdates, () -> {
+            Map<String, Object> noteUpdates = new HashMap<>(folderUpdates);
+            noteUpdates.put("changedAt", new Date());
+            return noteUpdates;
+        }, "Restored", callback);
+    }
+
+    /** Permanent delete folder and all its notes. The folder goes only once all of its notes have. */
+    public void permanentDeleteFolder(String userId, String folderId, OperationCallback callback) {
+        CompletableFuture<Void> delete = FirebaseFutures.of(FirestoreTracking.read("permanentDeleteFolder/notes", getNotesQuery(userId, folderId).get()))
+                .thenComposeAsync(snap -> deleteNotes("permanentDeleteFolder/notes", userId, snap.getDocuments()), background)
+                .thenCompose(deleted -> FirebaseFutures.of(FirestoreTracking.write("permanentDeleteFolder/folder", 1,
+                        getFoldersCollection(userId).document(folderId).delete())));
+        report(callback, delete, "Deleted permanently");
+    }
+
+    public void hideFolder(String userId, String folderId, OperationCallback callback) {
+        Map<String, Object> folderUpdates = new HashMap<>();
+        folderUpdates.put("isHidden", true);
+        updateFolderAndNotes("hideFolder", userId, folderId, folderUpdates, () -> {
+            Map<String, Object> noteUpdates = new HashMap<>(folderUpdates);
+            noteUpdates.put("changedAt", new Date());
+            return noteUpdates;
+        }, "Hidden", callback);
+    }
+
+    /** Pin or unpin just the folder; its notes are pinned one by one. */
+    public void pinFolder(String userId, String folderId, boolean pinned, OperationCallback callback) {
+        writes.update("pinFolder", getFoldersCollection(userId).document(folderId).getPath(), fields("isPinned", pinned),
+                pinned ? "Pinned" : "Unpinned", callback);
+    }
+
+    public void unhideFolder(String userId, String folderId, OperationCallback callback) {
+        Map<String, Object> folderUpdates = new HashMap<>();
+        folderUpdates.put("isHidden", false);
+        updateFolderAndNotes("unhideFolder", userId, folderId, folderUpdates, () -> {
+            Map<String, Object> noteUpdates = new HashMap<>(folderUpdates);
+            noteUpdates.put("changedAt", new Date());
+            return noteUpdates;
+        }, "Unhidden", callback);
+    }
+
+    /**
+     * Apply {@code folderUpdates} to a folder and {@code noteUpdates} to each of its notes. The
+     * writes go out in concurrent batches with the folder in the last one, so with fewer than
+     * {@link #MAX_BATCH_WRITES} notes the folder and its notes change together.
+     */
+    private void updateFolderAndNotes(String operation, String userId, String folderId, Map<String, Object> folderUpdates,
+                                      Supplier<Map<String, Object>> noteUpdates, String message, OperationCallback callback) {
+        CompletableFuture<List<Void>> update = FirebaseFutures.of(FirestoreTracking.read(operation + "/notes", getNotesQuery(userId, folderId).get()))
+                .thenComposeAsync(snap -> {
+                    List<DocumentReference> refs = new ArrayList<>();
+                    List<Map<String, Object>> updates = new ArrayList<>();
+                    for (DocumentSnapshot doc : snap.getDocuments()) {
+                        refs.add(doc.getReference());
+                        updates.add(noteUpdates.get());
+                    }
+                    refs.add(getFoldersCollection(userId).document(folderId));
+                    updates.add(folderUpdates);
+                    return commitAll(operation + "/commit", refs, updates);
+                }, background);
+        report(callback, update, message);
+    }
+
+    /**
+     * Commit recycle and hide actions an {@link UndoWindow} held back. Folders' notes are read
+     * concurrently, then every write goes into one {@link #commitAll}, so up to
+     * {@link #MAX_BATCH_WRITES} writes land as a single batch.
+     */
+    public void commitActions(String userId, List<DeferredAction> actions, OperationCallback callback) {
+        Date now = new Date();
+        List<DocumentReference> refs = new ArrayList<>();
+        List<Map<String, Object>> updates = new ArrayList<>();
+        List<DocumentReference> folders = new ArrayList<>();
+        List<CompletableFuture<QuerySnapshot>> folderNotes = new ArrayList<>();
+        for (DeferredAction action : actions) {
+            switch (action.kind) {
+                case RECYCLE_NOTE:
+                    refs.add(getNoteDocument(userId, action.folderId, action.itemId));
+                    updates.add(fields("isDeleted", true, "deletedAt", now, "changedAt", now));
+                    break;
+                case HIDE_NOTE:
+                    refs.add(getNoteDocument(userId, action.folderId, action.itemId));
+                    updates.add(fields("isHidden", true, "changedAt", now));
+                    break;
+                case RECYCLE_FOLDER:
+                    folders.add(getFoldersCollection(userId).document(action.itemId));
+                    folderNotes.add(FirebaseFutures.of(FirestoreTracking.read("commitActions/notes",
+                            getNotesQuery(userId, action.itemId).get())));
+                    break;
+            }
+        }
+        CompletableFuture<List<Void>> commit = Futures.allOf(folderNotes).thenComposeAsync(snaps -> {
+            for (QuerySnapshot snap : snaps) {
+                for (DocumentSnapshot doc : snap.getDocuments()) {
+                    refs.add(doc.getReference());
+                    updates.add(fields("isDeleted", true, "deletedAt", now, "changedAt", now));
+                }
+            }
+            // Folders last, as in updateFolderAndNotes
+            for (DocumentReference folder : folders) {
+                refs.add(folder);
+                updates.add(fields("isDeleted", true, "deletedAt", now));
+            }
+            return commitAll("commitActions/commit", refs, updates);
+        }, background);
+        report(callback, commit, "Done");
+    }
+
+    /**
+     * Lock a folder and encrypt the content of every note in it with the folder key.
+     * Notes that already carry their own lock keep it. Encryption runs off the main thread.
+     */
+    public void lockFolder(String userId, String folderId, SecretKey key, byte[] keySalt, byte[] keyCheck,
+                           OperationCallback callback) {
+        FirestoreTracking.read("lockFolder/notes", getNotesQuery(userId, folderId).get()).addOnSuccessListener(background, snap -> {
+            List<DocumentReference> refs = new ArrayList<>();
+            List<Map<String, Object>> updates = new ArrayList<>();
+            try {
+                for (DocumentSnapshot doc : snap.getDocuments()) {
+                    if (doc.get("encryptedContent") != null) continue;
                     Map<String, Object> noteUpdates = new HashMap<>();
-                    noteUpdates.put("isDeleted", false);
-                    noteUpdates.put("deletedAt", FieldValue.delete());
-                    snap.getDocuments().get(i).getReference().update(noteUpdates);
+                    noteUpdates.put("encryptedContent", Blob.fromBytes(NoteCipher.encryptString(key, doc.getString("content"))));
+                    noteUpdates.put("keySalt", Blob.fromBytes(keySalt));
+                    noteUpdates.put("keyCheck", Blob.fromBytes(keyCheck));
+                    noteUpdates.put("content", "");
+                    noteUpdates.put("revisionCount", 0);
+                    noteUpdates.put("changedAt", new Date());
+                    refs.add(doc.getReference());
+                    // The history and op log hold plain text, so they go once the note is encrypted
+                    deleteNoteHistory(userId, doc.getId());
+                    deleteNoteCollab(userId, doc.getId());
+                    updates.add(noteUpdates);
                 }
-                if (callback != null) callback.onComplete(true, "Restored");
-            }).addOnFailureListener(e -> {
-                if (callback != null) callback.onComplete(false, e.getMessage());
-            });
+            } catch (GeneralSecurityException e) {
+                report(callback, false, e.getMessage());
+                return;
+            }
+            Map<String, Object> folderUpdates = new HashMap<>();
+            folderUpdates.put("isLocked", true);
+            folderUpdates.put("keySalt", Blob.fromBytes(keySalt));
+            folderUpdates.put("keyCheck", Blob.fromBytes(keyCheck));
+            folderUpdates.put("passwordHash", FieldValue.delete());
+            refs.add(getFoldersCollection(userId).document(folderId));
+            updates.add(folderUpdates);
+            commitUpdates("lockFolder/commit", refs, updates, "Locked", callback);
         }).addOnFailureListener(e -> {
             if (callback != null) callback.onComplete(false, e.getMessage());
         });
     }
 
-    /** Permanent delete folder and all its notes. */
-    public void permanentDeleteFolder(String userId, String folderId, OperationCallback callback) {
-        getNotesCollection(userId, folderId).get().addOnSuccessListener(snap -> {
-            for (int i = 0; i < snap.size(); i++) {
-                snap.getDocuments().get(i).getReference().delete();
+    /**
+     * Unlock a folder, decrypting the notes encrypted with its key. {@code key} and {@code keySalt}
+     * are null for folders locked before encryption, which only carry a password hash.
+     */
+    public void unlockFolder(String userId, String folderId, SecretKey key, byte[] keySalt, OperationCallback callback) {
+        FirestoreTracking.read("unlockFolder/notes", getNotesQuery(userId, folderId).get()).addOnSuccessListener(background, snap -> {
+            List<DocumentReference> refs = new ArrayList<>();
+            List<Map<String, Object>> updates = new ArrayList<>();
+            try {
+                for (DocumentSnapshot doc : snap.getDocuments()) {
+                    Blob encrypted = doc.getBlob("encryptedContent");
+                    Blob salt = doc.getBlob("keySalt");
+                    // Only notes sharing the folder key; notes with their own lock stay encrypted
+                    if (key == null || encrypted == null || salt == null || !Arrays.equals(salt.toBytes(), keySalt)) continue;
+                    Map<String, Object> noteUpdates = new HashMap<>();
+                    noteUpdates.put("content", NoteCipher.decryptString(key, encrypted.toBytes()));
+                    noteUpdates.put("encryptedContent", FieldValue.delete());
+                    noteUpdates.put("keySalt", FieldValue.delete());
+                    noteUpdates.put("keyCheck", FieldValue.delete());
+                    noteUpdates.put("changedAt", new Date());
+                    refs.add(doc.getReference());
+                    updates.add(noteUpdates);
+                }
+            } catch (GeneralSecurityException e) {
+                report(callback, false, e.getMessage());
+                return;
             }
-            getFoldersCollection(userId).document(folderId).delete()
-                    .addOnCompleteListener(t -> {
-                        if (callback != null) callback.onComplete(t.isSuccessful(),
-                                t.getException() != null ? t.getException().getMessage() : "Deleted permanently");
-                    });
+            Map<String, Object> folderUpdates = new HashMap<>();
+            folderUpdates.put("isLocked", false);
+            folderUpdates.put("passwordHash", FieldValue.delete());
+            folderUpdates.put("keySalt", FieldValue.delete());
+            folderUpdates.put("keyCheck", FieldValue.delete());
+            refs.add(getFoldersCollection(userId).document(folderId));
+            updates.add(folderUpdates);
+            commitUpdates("unlockFolder/commit", refs, updates, "Unlocked", callback);
         }).addOnFailureListener(e -> {
             if (callback != null) callback.onComplete(false, e.getMessage());
         });
     }
 
-    public void hideFolder(String userId, String folderId, OperationCallback callback) {
-        getFoldersCollection(userId).document(folderId).update("isHidden", true)
-                .addOnCompleteListener(t -> {
-                    if (callback != null) callback.onComplete(t.isSuccessful(), t.getException() != null ? t.getException().getMessage() : "Hidden");
-                });
-        getNotesCollection(userId, folderId).get().addOnSuccessListener(snap -> {
-            for (int i = 0; i < snap.size(); i++) {
-                snap.getDocuments().get(i).getReference().update("isHidden", true);
+    // ==================== NOTES ====================
+
+    /**
+     * Snapshots are delivered on {@code executor}, so they can be decoded off the main thread.
+     * Ordered as {@link SortMode#noteOrder} says for {@code sort}.
+     */
+    public ListenerRegistration listenToNotes(String userId, String folderId, SortMode sort, Executor executor,
+                                              EventListener<QuerySnapshot> listener) {
+        return FirestoreTracking.listen("listenToNotes", ordered(getNotesQuery(userId, folderId), sort, "timestamp"),
+                executor, MetadataChanges.INCLUDE, listener);
+    }
+
+    /** Pinned notes of a folder, newest first; the notes-list counterpart of {@link #listenToPinnedFolders}. */
+    public ListenerRegistration listenToPinnedNotes(String userId, String folderId, Executor executor,
+                                                    EventListener<QuerySnapshot> listener) {
+        return FirestoreTracking.listen("listenToPinnedNotes", getNotesQuery(userId, folderId)
+                .whereEqualTo("isPinned", true)
+                .orderBy("timestamp", Query.Direction.DESCENDING), executor, MetadataChanges.INCLUDE, listener);
+    }
+
+    /**
+     * Fetch the first {@code limit} notes of a folder, as {@link #listenToNotes} orders them, from
+     * the server into the local cache, so opening the folder shows them before the server answers.
+     * Fails when offline rather than reading the cache.
+     */
+    public void prefetchNotes(String userId, String folderId, int limit, PrefetchCallback callback) {
+        FirestoreTracking.read("prefetchNotes", getNotesQuery(userId, folderId)
+                .orderBy("timestamp", Query.Direction.DESCENDING)
+                .limit(limit)
+                .get(Source.SERVER)).addOnCompleteListener(background, task -> {
+            if (!task.isSuccessful() || task.getResult() == null) {
+                callback.onComplete(false, 0, 0);
+                return;
             }
+            long bytes = 0;
+            for (DocumentSnapshot doc : task.getResult().getDocuments()) bytes += FirestoreTracking.approximateSize(doc);
+            callback.onComplete(true, task.getResult().size(), bytes);
         });
     }
 
-    public void unhideFolder(String userId, String folderId, OperationCallback callback) {
-        getFoldersCollection(userId).document(folderId).update("isHidden", false)
-                .addOnSuccessListener(aVoid -> {
-                    getNotesCollection(userId, folderId).get().addOnSuccessListener(snap -> {
-                        for (int i = 0; i < snap.size(); i++) {
-                            snap.getDocuments().get(i).getReference().update("isHidden", false);
-                        }
-                        if (callback != null) callback.onComplete(true, "Unhidden");
-                    });
-                })
-                .addOnFailureListener(e -> {
-                    if (callback != null) callback.onComplete(false, e.getMessage());
-                });
+    /**
+     * All of the user's notes, in any folder, whose changedAt is after {@code since}; every note
+     * write sets it, while updatedAt only moves on edits. Used to catch up after a {@link #listenToNotes} listener was paused.
+     * Permanent deletes do not show up here.
+     */
+    public ListenerRegistration listenToNotesChangedSince(String userId, Date since, Executor executor,
+                                                         EventListener<QuerySnapshot> listener) {
+        return FirestoreTracking.listen("listenToNotesChangedSince", getAllNotesQuery(userId)
+                .whereGreaterThan("changedAt", since), executor, MetadataChanges.INCLUDE, listener);
     }
 
-    public void lockFolder(String userId, String folderId, String passwordHash, OperationCallback callback) {
-        Map<String, Object> updates = new HashMap<>();
-        updates.put("isLocked", true);
-        updates.put("passwordHash", passwordHash);
-        getFoldersCollection(userId).document(folderId).update(updates)
-                .addOnCompleteListener(t -> {
-                    if (callback != null) callback.onComplete(t.isSuccessful(), t.getException() != null ? t.getException().getMessage() : "Locked");
-                });
+    /**
+     * Every note with at least one tag, across folders. Notes without tags have no tags field
+     * (see {@link #toNoteData}), and a not-equal-to-null filter matches only documents that
+     * have the field, so untagged notes are neither read nor billed.
+     */
+    public ListenerRegistration listenToTaggedNotes(String userId, Executor executor, EventListener<QuerySnapshot> listener) {
+        return FirestoreTracking.listen("listenToTaggedNotes", getAllNotesQuery(userId)
+                .whereNotEqualTo("tags", null), executor, MetadataChanges.INCLUDE, listener);
     }
 
-    public void unlockFolder(String userId, String folderId, OperationCallback callback) {
-        Map<String, Object> updates = new HashMap<>();
-        updates.put("isLocked", false);
-        updates.put("passwordHash", FieldValue.delete());
-        getFoldersCollection(userId).document(folderId).update(updates)
-                .addOnCompleteListener(t -> {
-                    if (callback != null) callback.onComplete(t.isSuccessful(), t.getException() != null ? t.getException().getMessage() : "Unlocked");
-                });
+    /**
+     * Notes across folders carrying any of {@code tags}, newest first: array-contains for one
+     * tag, array-contains-any for several. Both are served by the same composite index.
+     */
+    public ListenerRegistration listenToNotesWithTags(String userId, List<String> tags, Executor executor,
+                                                      EventListener<QuerySnapshot> listener) {
+        Query query = tags.size() == 1
+                ? getAllNotesQuery(userId).whereArrayContains("tags", tags.get(0))
+                : getAllNotesQuery(userId).whereArrayContainsAny("tags", tags);
+        return FirestoreTracking.listen("listenToNotesWithTags", query
+                .orderBy("timestamp", Query.Direction.DESCENDING), executor, MetadataChanges.INCLUDE, listener);
     }
 
-    // ==================== NOTES ====================
-
-    public void listenToNotes(String userId, String folderId, EventListener<QuerySnapshot> listener) {
-        getNotesCollection(userId, folderId)
-                .orderBy("timestamp", Query.Direction.DESCENDING)
-                .addSnapshotListener(listener);
+    /**
+     * The {@code limit} most recently edited notes across folders, leaving out recycled and
+     * hidden ones. The limit keeps the listener's reads the same however large the vault grows.
+     */
+    public ListenerRegistration listenToRecentNotes(String userId, int limit, Executor executor,
+                                                    EventListener<QuerySnapshot> listener) {
+        return FirestoreTracking.listen("listenToRecentNotes", getAllNotesQuery(userId)
+                .whereEqualTo("isDeleted", false)
+                .whereEqualTo("isHidden", false)
+                .orderBy("updatedAt", Query.Direction.DESCENDING)
+                .limit(limit), executor, MetadataChanges.INCLUDE, listener);
     }
 
-    public void listenToDeletedNotesInFolder(String userId, String folderId, EventListener<QuerySnapshot> listener) {
-        getNotesCollection(userId, folderId)
+    public ListenerRegistration listenToDeletedNotesInFolder(String userId, String folderId, EventListener<QuerySnapshot> listener) {
+        return FirestoreTracking.listen("listenToDeletedNotesInFolder", getNotesQuery(userId, folderId)
                 .whereEqualTo("isDeleted", true)
-                .orderBy("deletedAt", Query.Direction.DESCENDING)
-                .addSnapshotListener(listener);
+                .orderBy("deletedAt", Query.Direction.DESCENDING), listener);
     }
 
-    /** Listen to all deleted notes for this user (for Recycle Bin). Uses collection group. */
-    public void listenToAllDeletedNotes(String userId, EventListener<QuerySnapshot> listener) {
-        firestore.collectionGroup(COLLECTION_NOTES)
-                .whereEqualTo("userId", userId)
+    /** Listen to all deleted notes for this user (for Recycle Bin). Uses collection group in the nested layout. */
+    public ListenerRegistration listenToAllDeletedNotes(String userId, Executor executor, EventListener<QuerySnapshot> listener) {
+        return FirestoreTracking.listen("listenToAllDeletedNotes", getAllNotesQuery(userId)
                 .whereEqualTo("isDeleted", true)
-                .orderBy("deletedAt", Query.Direction.DESCENDING)
-                .addSnapshotListener(listener);
+                .orderBy("deletedAt", Query.Direction.DESCENDING), executor, MetadataChanges.INCLUDE, listener);
     }
 
-    public void listenToHiddenNotes(String userId, String folderId, EventListener<QuerySnapshot> listener) {
-        getNotesCollection(userId, folderId)
+    public ListenerRegistration listenToHiddenNotes(String userId, String folderId, EventListener<QuerySnapshot> listener) {
+        return FirestoreTracking.listen("listenToHiddenNotes", getNotesQuery(userId, folderId)
                 .whereEqualTo("isHidden", true)
-                .orderBy("timestamp", Query.Direction.DESCENDING)
-                .addSnapshotListener(listener);
+                .orderBy("timestamp", Query.Direction.DESCENDING), listener);
     }
 
     /** Listen to all hidden notes for this user (for Hidden screen). */
-    public void listenToAllHiddenNotes(String userId, EventListener<QuerySnapshot> listener) {
-        firestore.collectionGroup(COLLECTION_NOTES)
-                .whereEqualTo("userId", userId)
+    public ListenerRegistration listenToAllHiddenNotes(String userId, Executor executor, EventListener<QuerySnapshot> listener) {
+        return FirestoreTracking.listen("listenToAllHiddenNotes", getAllNotesQuery(userId)
                 .whereEqualTo("isHidden", true)
-                .orderBy("timestamp", Query.Direction.DESCENDING)
-                .addSnapshotListener(listener);
+                .orderBy("timestamp", Query.Direction.DESCENDING), executor, MetadataChanges.INCLUDE, listener);
     }
 
+    /**
+     * Add a note, or save an edit of one. A new note is written with its first history revision;
+     * an edit goes through {@link #saveNoteIfUnchanged} without a base, so its revision number is
+     * allocated in a transaction.
+     */
     public void addOrUpdateNote(String userId, String folderId, Note note, final OperationCallback callback) {
-        CollectionReference notesRef = getNotesCollection(userId, folderId);
-        DocumentReference docRef = (note.getId() == null || note.getId().isEmpty())
-                ? notesRef.document() : notesRef.document(note.getId());
-        if (note.getId() == null || note.getId().isEmpty()) note.setId(docRef.getId());
+        if (note.getId() != null && !note.getId().isEmpty()) {
+            saveNoteIfUnchanged(userId, folderId, note, null, null, new NoteSaveCallback() {
+                @Override
+                public void onSaved(String message, int attempts) {
+                    if (callback != null) callback.onComplete(true, message);
+                }
+
+                @Override
+                public void onConflict(Note remote) {
+                    // Without a merger there is never a conflict
+                }
+
+                @Override
+                public void onError(String message) {
+                    if (callback != null) callback.onComplete(false, message);
+                }
+            });
+            return;
+        }
+        CollectionReference notesRef = flatNotesLayout ? getFlatNotesCollection(userId) : getNotesCollection(userId, folderId);
+        DocumentReference docRef = notesRef.document();
+        note.setId(docRef.getId());
         if (note.getFolderId() == null) note.setFolderId(folderId);
         if (note.getUserId() == null) note.setUserId(userId);
+        if (note.getRank() == null) note.setRank(RankKeys.forCreation(createdAt(note.getTimestamp())));
+
+        Map<String, Object> data = toNoteData(note);
+        WriteBatch batch = firestore.batch();
+        int writeCount = 1;
+        // Encrypted content stays out of the history, which is stored in plain text
+        if (note.getEncryptedContent() == null) {
+            data.put("revisionCount", 1);
+            batch.set(getRevisionsCollection(userId, docRef.getId()).document(RevisionHistory.revisionId(1)),
+                    RevisionHistory.create(1, null, note.getTitle(), note.getContent(), new Date()));
+            writeCount++;
+        }
+        batch.set(docRef, data);
+        FirestoreTracking.write("addOrUpdateNote/commit", writeCount, batch.commit()).addOnCompleteListener(task -> {
+            if (callback != null) callback.onComplete(task.isSuccessful(),
+                    task.getException() != null ? task.getException().getMessage() : "Note saved");
+        });
+    }
+
+    /**
+     * Save an edit of an existing note only if nobody else saved it since {@code baseUpdatedAt}.
+     * When someone did, {@code merger} combines the edit with the stored note inside the same
+     * transaction or reports a conflict; without a merger the edit is saved regardless.
+     *
+     * The edit is a field update of what the editor changes (see {@link #toEditData}), and its
+     * history revision is numbered from the revisionCount read in the transaction, so two
+     * devices never write the same revision. Transactions need the server, so when offline the
+     * edit is queued as a field update without a revision, and the note is marked so that its
+     * next revision is a full snapshot rather than a delta against content history never saw.
+     */
+    public void saveNoteIfUnchanged(String userId, String folderId, Note note, Date baseUpdatedAt,
+                                    NoteMerger merger, NoteSaveCallback callback) {
+        if (note.getFolderId() == null) note.setFolderId(folderId);
+        if (note.getUserId() == null) note.setUserId(userId);
+        DocumentReference docRef = getNoteDocument(userId, folderId, note.getId());
+        AtomicInteger attempts = new AtomicInteger();
+        AtomicInteger savedRevision = new AtomicInteger();
+        AtomicReference<Note> conflict = new AtomicReference<>();
+        Task<String> save = firestore.runTransaction((Transaction.Function<String>) transaction -> {
+            // Runs again whenever the note changes before the commit lands
+            attempts.incrementAndGet();
+            conflict.set(null);
+            DocumentSnapshot current = transaction.get(docRef);
+            Note toWrite = note;
+            boolean merged = false;
+            if (merger != null && current.exists() && !sameInstant(current.getDate("updatedAt"), baseUpdatedAt)) {
+                Note remote = current.toObject(Note.class);
+                remote.setId(current.getId());
+                toWrite = merger.merge(remote);
+                if (toWrite == null) {
+                    conflict.set(remote);
+                    return null;
+                }
+                merged = true;
+            }
+            Map<String, Object> data = current.exists() ? toEditData(toWrite) : toNoteData(toWrite);
+            savedRevision.set(0);
+            if (toWrite.getEncryptedContent() == null) {
+                Long count = current.exists() ? current.getLong("revisionCount") : null;
+                int revision = (count != null ? count.intValue() : 0) + 1;
+                // Content saved offline never got a revision, so a delta against it would not replay
+                boolean behind = current.exists() && Boolean.TRUE.equals(current.getBoolean(HISTORY_BEHIND));
+                String previous = current.exists() && !behind ? current.getString("content") : null;
+                data.put("revisionCount", revision);
+                if (behind) data.put(HISTORY_BEHIND, FieldValue.delete());
+                transaction.set(getRevisionsCollection(userId, docRef.getId()).document(RevisionHistory.revisionId(revision)),
+                        RevisionHistory.create(revision, previous, toWrite.getTitle(), toWrite.getContent(), new Date()));
+                savedRevision.set(revision);
+            }
+            if (current.exists()) transaction.update(docRef, data);
+            else transaction.set(docRef, data);
+            return merged ? "Merged with changes from another device" : "Note saved";
+        });
+        FirestoreTracking.transaction("saveNoteIfUnchanged", attempts::get,
+                () -> conflict.get() != null ? 0 : savedRevision.get() > 0 ? 2 : 1, save).addOnSuccessListener(message -> {
+            if (message == null) {
+                callback.onConflict(conflict.get());
+                return;
+            }
+            callback.onSaved(message, attempts.get());
+            int revision = savedRevision.get();
+            if (revision > 0 && revision % RevisionHistory.SNAPSHOT_INTERVAL == 0) {
+                compactNoteHistory(userId, docRef.getId(), null);
+            }
+        }).addOnFailureListener(e -> {
+            if (e instanceof FirebaseFirestoreException
+                    && ((FirebaseFirestoreException) e).getCode() == FirebaseFirestoreException.Code.UNAVAILABLE) {
+                Map<String, Object> offline = toEditData(note);
+                if (note.getEncryptedContent() == null) offline.put(HISTORY_BEHIND, true);
+                writes.update("saveNoteIfUnchanged/offline", docRef.getPath(), offline, "Saved offline", (ok, msg) -> {
+                    if (ok) callback.onSaved(msg, attempts.get());
+                    else callback.onError(msg);
+                });
+            } else {
+                callback.onError(e.getMessage());
+            }
+        });
+    }
+
+    /** {@code createdAt} in millis, or now for an item whose creation time the server will set. */
+    private static long createdAt(Date createdAt) {
+        return createdAt != null ? createdAt.getTime() : System.currentTimeMillis();
+    }
+
+    private static boolean sameInstant(Date a, Date b) {
+        return a == null ? b == null : b != null && a.getTime() == b.getTime();
+    }
 
+    private static Map<String, Object> toNoteData(Note note) {
         Map<String, Object> data = new HashMap<>();
         data.put("title", note.getTitle());
         data.put("content", note.getContent());
@@ -363,117 +988,524 @@ public class FirebaseManager {
         data.put("userId", note.getUserId());
         data.put("timestamp", note.getTimestamp() != null ? note.getTimestamp() : FieldValue.serverTimestamp());
         data.put("updatedAt", note.getUpdatedAt() != null ? note.getUpdatedAt() : FieldValue.serverTimestamp());
+        data.put("changedAt", new Date());
         data.put("isDeleted", note.isDeleted());
         data.put("isHidden", note.isHidden());
+        data.put("isPinned", note.isPinned());
         data.put("isLocked", note.isLocked());
         if (note.getDeletedAt() != null) data.put("deletedAt", note.getDeletedAt());
         if (note.getPasswordHash() != null) data.put("passwordHash", note.getPasswordHash());
+        if (note.getEncryptedContent() != null) data.put("encryptedContent", note.getEncryptedContent());
+        if (note.getKeySalt() != null) data.put("keySalt", note.getKeySalt());
+        if (note.getKeyCheck() != null) data.put("keyCheck", note.getKeyCheck());
+        // Left out when empty, which keeps untagged notes out of listenToTaggedNotes
+        if (!note.getTags().isEmpty()) data.put("tags", note.getTags());
+        if (note.getRank() != null) data.put("rank", note.getRank());
+        return data;
+    }
 
-        docRef.set(data).addOnCompleteListener(task -> {
-            if (callback != null) callback.onComplete(task.isSuccessful(),
-                    task.getException() != null ? task.getException().getMessage() : "Note saved");
-        });
+    /**
+     * The fields the editor changes, for a field update of an existing note. The rest, such as
+     * its rank, pin, recycle and hide state and revision count, is left as stored.
+     */
+    private static Map<String, Object> toEditData(Note note) {
+        Map<String, Object> data = new HashMap<>();
+        data.put("title", note.getTitle());
+        data.put("content", note.getContent());
+        data.put("color", note.getColor() != null ? note.getColor() : "#4ECDC4");
+        data.put("timestamp", note.getTimestamp() != null ? note.getTimestamp() : FieldValue.serverTimestamp());
+        data.put("updatedAt", note.getUpdatedAt() != null ? note.getUpdatedAt() : FieldValue.serverTimestamp());
+        data.put("changedAt", new Date());
+        data.put("isLocked", note.isLocked());
+        data.put("encryptedContent", note.getEncryptedContent() != null ? note.getEncryptedContent() : FieldValue.delete());
+        data.put("keySalt", note.getKeySalt() != null ? note.getKeySalt() : FieldValue.delete());
+        data.put("keyCheck", note.getKeyCheck() != null ? note.getKeyCheck() : FieldValue.delete());
+        data.put("tags", note.getTags().isEmpty() ? FieldValue.delete() : note.getTags());
+        return data;
+    }
+
+    /**
+     * Add new notes, each with the first history revision a note saved from the editor gets, as
+     * one batch. At most half of {@link #MAX_BATCH_WRITES} notes; ids are assigned here.
+     */
+    CompletableFuture<Void> addNotes(String operation, String userId, List<Note> notes) {
+        WriteBatch batch = firestore.batch();
+        int writeCount = 0;
+        Date now = new Date();
+        for (Note note : notes) {
+            DocumentReference docRef = (flatNotesLayout ? getFlatNotesCollection(userId)
+                    : getNotesCollection(userId, note.getFolderId())).document();
+            note.setId(docRef.getId());
+            if (note.getUserId() == null) note.setUserId(userId);
+            Map<String, Object> data = toNoteData(note);
+            // Encrypted content stays out of the history, which is stored in plain text
+            if (note.getEncryptedContent() == null) {
+                data.put("revisionCount", 1);
+                batch.set(getRevisionsCollection(userId, docRef.getId()).document(RevisionHistory.revisionId(1)),
+                        RevisionHistory.create(1, null, note.getTitle(), note.getContent(), now));
+                writeCount++;
+            }
+            batch.set(docRef, data);
+            writeCount++;
+        }
+        return commit(operation, writeCount, batch, Collections.emptyList());
     }
 
     /** Move note to recycle bin (soft delete). */
     public void moveNoteToRecycleBin(String userId, String folderId, String noteId, OperationCallback callback) {
         Date now = new Date();
-        getNotesCollection(userId, folderId).document(noteId)
-                .update("isDeleted", true, "deletedAt", now)
-                .addOnCompleteListener(t -> {
-                    if (callback != null) callback.onComplete(t.isSuccessful(), t.getException() != null ? t.getException().getMessage() : "Moved to Recycle Bin");
-                });
+        writes.update("moveNoteToRecycleBin", getNoteDocument(userId, folderId, noteId).getPath(), fields("isDeleted", true, "deletedAt", now, "changedAt", now), "Moved to Recycle Bin", callback);
+    }
+
+    /**
+     * Move a note to another folder. In the flat layout this is a single field update;
+     * the nested layout has to copy the document into the target folder and delete the original.
+     */
+    public void moveNoteToFolder(String userId, String fromFolderId, String noteId, String toFolderId, OperationCallback callback) {
+        if (flatNotesLayout) {
+            writes.update("moveNoteToFolder", getNoteDocument(userId, fromFolderId, noteId).getPath(), fields("folderId", toFolderId, "changedAt", new Date()), "Moved", callback);
+            return;
+        }
+        DocumentReference source = getNotesCollection(userId, fromFolderId).document(noteId);
+        FirestoreTracking.read("moveNoteToFolder/read", source.get()).addOnSuccessListener(background, doc -> {
+            if (doc == null || !doc.exists() || doc.getData() == null) {
+                report(callback, false, "Note not found");
+                return;
+            }
+            Map<String, Object> data = new HashMap<>(doc.getData());
+            data.put("folderId", toFolderId);
+            data.put("changedAt", new Date());
+            WriteBatch batch = firestore.batch();
+            batch.set(getNotesCollection(userId, toFolderId).document(noteId), data);
+            batch.delete(source);
+            FirestoreTracking.write("moveNoteToFolder/commit", 2, batch.commit()).addOnCompleteListener(t -> {
+                if (callback != null) callback.onComplete(t.isSuccessful(), t.getException() != null ? t.getException().getMessage() : "Moved");
+            });
+        }).addOnFailureListener(e -> {
+            if (callback != null) callback.onComplete(false, e.getMessage());
+        });
     }
 
     public void restoreNote(String userId, String folderId, String noteId, OperationCallback callback) {
         Map<String, Object> updates = new HashMap<>();
         updates.put("isDeleted", false);
         updates.put("deletedAt", FieldValue.delete());
-        getNotesCollection(userId, folderId).document(noteId).update(updates)
-                .addOnCompleteListener(t -> {
-                    if (callback != null) callback.onComplete(t.isSuccessful(), t.getException() != null ? t.getException().getMessage() : "Restored");
-                });
+        updates.put("changedAt", new Date());
+        writes.update("restoreNote", getNoteDocument(userId, folderId, noteId).getPath(), updates, "Restored", callback);
     }
 
     public void permanentDeleteNote(String userId, String folderId, String noteId, OperationCallback callback) {
-        getNotesCollection(userId, folderId).document(noteId).delete()
+        deleteNoteHistory(userId, noteId);
+        deleteNoteCollab(userId, noteId);
+        WriteBatch batch = firestore.batch().delete(getNoteDocument(userId, folderId, noteId));
+        boolean copied = copiedToFlatLayout();
+        if (copied) batch.delete(getFlatNotesCollection(userId).document(noteId));
+        FirestoreTracking.write("permanentDeleteNote", copied ? 2 : 1, batch.commit())
                 .addOnCompleteListener(t -> {
                     if (callback != null) callback.onComplete(t.isSuccessful(), t.getException() != null ? t.getException().getMessage() : "Deleted");
                 });
     }
 
     public void hideNote(String userId, String folderId, String noteId, OperationCallback callback) {
-        getNotesCollection(userId, folderId).document(noteId).update("isHidden", true)
-                .addOnCompleteListener(t -> {
-                    if (callback != null) callback.onComplete(t.isSuccessful(), t.getException() != null ? t.getException().getMessage() : "Hidden");
-                });
+        writes.update("hideNote", getNoteDocument(userId, folderId, noteId).getPath(), fields("isHidden", true, "changedAt", new Date()), "Hidden", callback);
+    }
+
+    public void pinNote(String userId, String folderId, String noteId, boolean pinned, OperationCallback callback) {
+        writes.update("pinNote", getNoteDocument(userId, folderId, noteId).getPath(), fields("isPinned", pinned, "changedAt", new Date()),
+                pinned ? "Pinned" : "Unpinned", callback);
     }
 
     public void unhideNote(String userId, String folderId, String noteId, OperationCallback callback) {
-        getNotesCollection(userId, folderId).document(noteId).update("isHidden", false)
-                .addOnCompleteListener(t -> {
-                    if (callback != null) callback.onComplete(t.isSuccessful(), t.getException() != null ? t.getException().getMessage() : "Unhidden");
-                });
+        writes.update("unhideNote", getNoteDocument(userId, folderId, noteId).getPath(), fields("isHidden", false, "changedAt", new Date()), "Unhidden", callback);
+    }
+
+    /**
+     * Set the manual-order rank of notes in a folder, from {@link com.example.notevault.sort.ManualOrder#move}.
+     * A single rank goes through the write scheduler, so dragging the same note again merges
+     * into the waiting write; a respread of several goes out as one batch. Like every note write
+     * it sets changedAt, so paused lists catching up see the new order, but not updatedAt: a
+     * reorder is not an edit.
+     */
+    public void rankNotes(String userId, String folderId, Map<String, String> ranks, OperationCallback callback) {
+        Date now = new Date();
+        List<DocumentReference> refs = new ArrayList<>();
+        List<Map<String, Object>> updates = new ArrayList<>();
+        for (Map.Entry<String, String> rank : ranks.entrySet()) {
+            refs.add(getNoteDocument(userId, folderId, rank.getKey()));
+            updates.add(fields("rank", rank.getValue(), "changedAt", now));
+        }
+        rank("rankNotes", refs, updates, callback);
     }
 
-    public void lockNote(String userId, String folderId, String noteId, String passwordHash, OperationCallback callback) {
+    /** Same as {@link #rankNotes} for folders. */
+    public void rankFolders(String userId, Map<String, String> ranks, OperationCallback callback) {
+        List<DocumentReference> refs = new ArrayList<>();
+        List<Map<String, Object>> updates = new ArrayList<>();
+        for (Map.Entry<String, String> rank : ranks.entrySet()) {
+            refs.add(getFoldersCollection(userId).document(rank.getKey()));
+            updates.add(fields("rank", rank.getValue()));
+        }
+        rank("rankFolders", refs, updates, callback);
+    }
+
+    private void rank(String operation, List<DocumentReference> refs, List<Map<String, Object>> updates,
+                      OperationCallback callback) {
+        if (refs.size() == 1) {
+            writes.update(operation, refs.get(0).getPath(), updates.get(0), "Moved", callback);
+        } else {
+            commitUpdates(operation, refs, updates, "Moved", callback);
+        }
+    }
+
+    /** Lock a note: its content is replaced by {@code encryptedContent}, encrypted with the key for {@code keySalt}. */
+    public void lockNote(String userId, String folderId, String noteId, byte[] keySalt, byte[] keyCheck,
+                         byte[] encryptedContent, OperationCallback callback) {
         Map<String, Object> updates = new HashMap<>();
         updates.put("isLocked", true);
-        updates.put("passwordHash", passwordHash);
-        getNotesCollection(userId, folderId).document(noteId).update(updates)
-                .addOnCompleteListener(t -> {
-                    if (callback != null) callback.onComplete(t.isSuccessful(), t.getException() != null ? t.getException().getMessage() : "Locked");
-                });
+        updates.put("keySalt", Blob.fromBytes(keySalt));
+        updates.put("keyCheck", Blob.fromBytes(keyCheck));
+        updates.put("encryptedContent", Blob.fromBytes(encryptedContent));
+        updates.put("content", "");
+        updates.put("revisionCount", 0);
+        updates.put("passwordHash", FieldValue.delete());
+        updates.put("changedAt", new Date());
+        deleteNoteHistory(userId, noteId);
+        deleteNoteCollab(userId, noteId);
+        writes.update("lockNote", getNoteDocument(userId, folderId, noteId).getPath(), updates, "Locked", callback);
     }
 
-    public void unlockNote(String userId, String folderId, String noteId, OperationCallback callback) {
+    /** Unlock a note, storing its decrypted {@code content} in plain text again. */
+    public void unlockNote(String userId, String folderId, String noteId, String content, OperationCallback callback) {
         Map<String, Object> updates = new HashMap<>();
         updates.put("isLocked", false);
+        updates.put("content", content);
         updates.put("passwordHash", FieldValue.delete());
-        getNotesCollection(userId, folderId).document(noteId).update(updates)
-                .addOnCompleteListener(t -> {
-                    if (callback != null) callback.onComplete(t.isSuccessful(), t.getException() != null ? t.getException().getMessage() : "Unlocked");
-                });
+        updates.put("encryptedContent", FieldValue.delete());
+        updates.put("keySalt", FieldValue.delete());
+        updates.put("keyCheck", FieldValue.delete());
+        updates.put("changedAt", new Date());
+        writes.update("unlockNote", getNoteDocument(userId, folderId, noteId).getPath(), updates, "Unlocked", callback);
     }
 
-    /** Delete items in recycle bin older than RECYCLE_BIN_DAYS. Call when opening Recycle Bin. */
+    /**
+     * Delete items in recycle bin older than RECYCLE_BIN_DAYS. Call when opening Recycle Bin.
+     * Expired folders and expired notes are looked up at the same time and deleted concurrently.
+     */
     public void cleanupOldRecycleBinItems(String userId, OperationCallback callback) {
-        long cutoff = System.currentTimeMillis() - (RECYCLE_BIN_DAYS * 24L * 60 * 60 * 1000);
+        long cutoff = System.currentTimeMillis() - (NoteStore.RECYCLE_BIN_DAYS * 24L * 60 * 60 * 1000);
         Date cutoffDate = new Date(cutoff);
-        final int[] deleted = {0};
-        getFoldersCollection(userId).whereEqualTo("isDeleted", true).get().addOnSuccessListener(folderSnap -> {
-            for (int i = 0; i < folderSnap.size(); i++) {
-                var doc = folderSnap.getDocuments().get(i);
-                Object deletedAt = doc.get("deletedAt");
-                if (deletedAt instanceof com.google.firebase.Timestamp) {
-                    if (((com.google.firebase.Timestamp) deletedAt).toDate().before(cutoffDate)) {
-                        doc.getReference().delete();
-                        deleted[0]++;
-                        getNotesCollection(userId, doc.getId()).get().addOnSuccessListener(noteSnap -> {
-                            for (int j = 0; j < noteSnap.size(); j++) noteSnap.getDocuments().get(j).getReference().delete();
-                        });
+        CompletableFuture<List<Void>> folders = FirebaseFutures.of(FirestoreTracking.read("cleanupOldRecycleBinItems/folders",
+                getFoldersCollection(userId).whereEqualTo("isDeleted", true).get())).thenComposeAsync(folderSnap -> {
+            List<CompletableFuture<Void>> deletes = new ArrayList<>();
+            for (DocumentSnapshot doc : folderSnap.getDocuments()) {
+                if (!deletedBefore(doc, cutoffDate)) continue;
+                deletes.add(FirebaseFutures.of(FirestoreTracking.read("cleanupOldRecycleBinItems/notes", getNotesQuery(userId, doc.getId()).get()))
+                        .thenComposeAsync(noteSnap -> deleteNotes("cleanupOldRecycleBinItems/note", userId, noteSnap.getDocuments()), background)
+                        .thenCompose(deleted -> FirebaseFutures.of(FirestoreTracking.write("cleanupOldRecycleBinItems/folder", 1,
+                                doc.getReference().delete()))));
+            }
+            return Futures.allOf(deletes);
+        }, background);
+        CompletableFuture<List<Void>> notes = FirebaseFutures.of(FirestoreTracking.read("cleanupOldRecycleBinItems/deletedNotes",
+                getAllNotesQuery(userId).whereEqualTo("isDeleted", true).get())).thenComposeAsync(noteSnap -> {
+            List<DocumentSnapshot> expired = new ArrayList<>();
+            for (DocumentSnapshot doc : noteSnap.getDocuments()) {
+                if (deletedBefore(doc, cutoffDate)) expired.add(doc);
+            }
+            return deleteNotes("cleanupOldRecycleBinItems/note", userId, expired);
+        }, background);
+        report(callback, Futures.allOf(Arrays.asList(folders, notes)), "Cleanup done");
+    }
+
+    private static boolean deletedBefore(DocumentSnapshot doc, Date cutoff) {
+        Object deletedAt = doc.get("deletedAt");
+        return deletedAt instanceof Timestamp && ((Timestamp) deletedAt).toDate().before(cutoff);
+    }
+
+    // ==================== HISTORY ====================
+
+    /** All revisions of a note, oldest first. */
+    public void loadNoteRevisions(String userId, String noteId, RevisionsCallback callback) {
+        FirestoreTracking.read("loadNoteRevisions", getRevisionsCollection(userId, noteId).orderBy("revision").get())
+                .addOnSuccessListener(background, snap -> {
+                    List<NoteRevision> revisions = new ArrayList<>();
+                    for (DocumentSnapshot doc : snap.getDocuments()) {
+                        NoteRevision revision = doc.toObject(NoteRevision.class);
+                        if (revision != null) revisions.add(revision);
+                    }
+                    mainThread.execute(() -> callback.onLoaded(revisions));
+                })
+                .addOnFailureListener(e -> callback.onError(e.getMessage()));
+    }
+
+    /** Apply {@link RetentionPolicy#DEFAULT} to a note's history. Runs after every SNAPSHOT_INTERVAL-th save. */
+    public void compactNoteHistory(String userId, String noteId, OperationCallback callback) {
+        loadNoteRevisions(userId, noteId, new RevisionsCallback() {
+            @Override
+            public void onLoaded(List<NoteRevision> revisions) {
+                RetentionPolicy.Plan plan = RetentionPolicy.DEFAULT.plan(revisions, new Date());
+                if (plan.isEmpty()) {
+                    if (callback != null) callback.onComplete(true, "Nothing to compact");
+                    return;
+                }
+                CollectionReference ref = getRevisionsCollection(userId, noteId);
+                List<Task<Void>> commits = new ArrayList<>();
+                WriteBatch batch = firestore.batch();
+                int writes = 0;
+                // Rewrite the new oldest revision as a snapshot before its predecessors go
+                if (plan.rewrite != null) {
+                    batch.set(ref.document(RevisionHistory.revisionId(plan.rewrite.getRevision())), plan.rewrite);
+                    writes++;
+                }
+                for (int revision : plan.delete) {
+                    if (writes == MAX_BATCH_WRITES) {
+                        commits.add(FirestoreTracking.write("compactNoteHistory/commit", writes, batch.commit()));
+                        batch = firestore.batch();
+                        writes = 0;
                     }
+                    batch.delete(ref.document(RevisionHistory.revisionId(revision)));
+                    writes++;
                 }
+                commits.add(FirestoreTracking.write("compactNoteHistory/commit", writes, batch.commit()));
+                Tasks.whenAll(commits).addOnCompleteListener(t -> {
+                    if (callback != null) callback.onComplete(t.isSuccessful(),
+                            t.getException() != null ? t.getException().getMessage() : "Removed " + plan.delete.size() + " revisions");
+                });
+            }
+
+            @Override
+            public void onError(String message) {
+                if (callback != null) callback.onComplete(false, message);
             }
-            firestore.collectionGroup(COLLECTION_NOTES).whereEqualTo("userId", userId).whereEqualTo("isDeleted", true).get()
-                    .addOnSuccessListener(noteSnap -> {
-                        for (int i = 0; i < noteSnap.size(); i++) {
-                            var doc = noteSnap.getDocuments().get(i);
-                            Object deletedAt = doc.get("deletedAt");
-                            if (deletedAt instanceof com.google.firebase.Timestamp) {
-                                if (((com.google.firebase.Timestamp) deletedAt).toDate().before(cutoffDate)) {
-                                    doc.getReference().delete();
-                                    deleted[0]++;
-                                }
-                            }
-                        }
-                        if (callback != null) callback.onComplete(true, "Cleanup done");
-                    });
         });
     }
 
+    private void deleteNoteHistory(String userId, String noteId) {
+        FirestoreTracking.read("deleteNoteHistory/read", getRevisionsCollection(userId, noteId).get()).addOnSuccessListener(background, snap -> {
+            for (DocumentSnapshot doc : snap.getDocuments()) {
+                FirestoreTracking.write("deleteNoteHistory/delete", 1, doc.getReference().delete());
+            }
+        });
+    }
+
+    // ==================== COLLABORATIVE EDITING ====================
+
+    /**
+     * Load the shared edit state of a note, seeding it from {@code content} on first open.
+     * Seeding runs in a transaction so two devices opening a note at once agree on one seed.
+     */
+    public void openNoteCollab(String userId, String noteId, String content, Date updatedAt, CollabCallback callback) {
+        DocumentReference ref = getCollabDocument(userId, noteId);
+        AtomicInteger seeded = new AtomicInteger();
+        Task<DocumentSnapshot> open = firestore.runTransaction((Transaction.Function<DocumentSnapshot>) transaction -> {
+            DocumentSnapshot doc = transaction.get(ref);
+            seeded.set(0);
+            if (!doc.exists()) {
+                Map<String, Object> data = new HashMap<>();
+                data.put("snapshot", Rga.seedSnapshot(content));
+                data.put("generation", 0L);
+                data.put("syncedAt", updatedAt != null ? updatedAt : new Date());
+                transaction.set(ref, data);
+                seeded.set(1);
+                return null;
+            }
+            return doc;
+        });
+        FirestoreTracking.transaction("openNoteCollab", () -> 1, seeded::get, open).addOnSuccessListener(doc -> {
+            if (doc == null) {
+                callback.onOpened(Rga.seedSnapshot(content), 0, updatedAt);
+                return;
+            }
+            Long generation = doc.getLong("generation");
+            callback.onOpened(doc.getString("snapshot"), generation != null ? generation : 0, doc.getDate("syncedAt"));
+        }).addOnFailureListener(e -> callback.onError(e.getMessage()));
+    }
+
+    /** Snapshot changes of the shared edit state; a new generation means the op log was compacted. */
+    public ListenerRegistration listenToNoteCollab(String userId, String noteId, EventListener<DocumentSnapshot> listener) {
+        return FirestoreTracking.listen("listenToNoteCollab", getCollabDocument(userId, noteId), listener);
+    }
+
+    /** Ops not yet folded into the snapshot, roughly in causal order. */
+    public ListenerRegistration listenToNoteOps(String userId, String noteId, EventListener<QuerySnapshot> listener) {
+        return FirestoreTracking.listen("listenToNoteOps", getOpsCollection(userId, noteId).orderBy("counter"), listener);
+    }
+
+    public void appendNoteOps(String userId, String noteId, List<SequenceOp> ops, OperationCallback callback) {
+        CollectionReference ref = getOpsCollection(userId, noteId);
+        List<Task<Void>> commits = new ArrayList<>();
+        for (int start = 0; start < ops.size(); start += MAX_BATCH_WRITES) {
+            WriteBatch batch = firestore.batch();
+            List<SequenceOp> page = ops.subList(start, Math.min(ops.size(), start + MAX_BATCH_WRITES));
+            for (SequenceOp op : page) {
+                batch.set(ref.document(op.id.toString()), toOpData(op));
+            }
+            commits.add(FirestoreTracking.write("appendNoteOps", page.size(), batch.commit()));
+        }
+        Tasks.whenAll(commits).addOnCompleteListener(t -> {
+            if (callback != null) callback.onComplete(t.isSuccessful(), t.getException() != null ? t.getException().getMessage() : "Synced");
+        });
+    }
+
+    /**
+     * Replace the ops in {@code opIds} with {@code snapshot}, which must already include them.
+     * Fails if another device compacted since {@code generation}, so no two snapshots race.
+     */
+    public void compactNoteOps(String userId, String noteId, long generation, String snapshot,
+                               List<String> opIds, OperationCallback callback) {
+        DocumentReference ref = getCollabDocument(userId, noteId);
+        CollectionReference ops = getOpsCollection(userId, noteId);
+        List<String> folded = opIds.subList(0, Math.min(opIds.size(), MAX_BATCH_WRITES));
+        AtomicInteger written = new AtomicInteger();
+        Task<Boolean> compact = firestore.runTransaction((Transaction.Function<Boolean>) transaction -> {
+            DocumentSnapshot doc = transaction.get(ref);
+            Long current = doc.getLong("generation");
+            written.set(0);
+            if (current == null || current != generation) return false;
+            transaction.update(ref, "snapshot", snapshot, "generation", generation + 1);
+            for (String id : folded) transaction.delete(ops.document(id));
+            written.set(folded.size() + 1);
+            return true;
+        });
+        FirestoreTracking.transaction("compactNoteOps", () -> 1, written::get, compact).addOnCompleteListener(t -> {
+            if (callback == null) return;
+            if (!t.isSuccessful()) callback.onComplete(false, t.getException() != null ? t.getException().getMessage() : "Compaction failed");
+            else if (!Boolean.TRUE.equals(t.getResult())) callback.onComplete(false, "Compacted on another device");
+            else callback.onComplete(true, "Compacted " + folded.size() + " ops");
+        });
+    }
+
+    /** Record that a collaborative editor saved the note's content at {@code at}. */
+    public void markNoteCollabSynced(String userId, String noteId, Date at) {
+        writes.update("markNoteCollabSynced", getCollabDocument(userId, noteId).getPath(), fields("syncedAt", at), "Synced", null);
+    }
+
+    /** Inverse of {@link #toOpData}. */
+    public static SequenceOp toSequenceOp(DocumentSnapshot doc) {
+        OpId id = OpId.parse(doc.getString("id"));
+        String text = doc.getString("text");
+        if (text != null) {
+            String after = doc.getString("after");
+            return SequenceOp.insert(id, after != null ? OpId.parse(after) : null, text);
+        }
+        List<String> runs = new ArrayList<>();
+        Object raw = doc.get("targets");
+        if (raw instanceof List) {
+            for (Object run : (List<?>) raw) runs.add((String) run);
+        }
+        return SequenceOp.delete(id, SequenceOp.parseTargetRuns(runs));
+    }
+
+    private static Map<String, Object> toOpData(SequenceOp op) {
+        Map<String, Object> data = new HashMap<>();
+        data.put("id", op.id.toString());
+        data.put("counter", op.id.counter);
+        if (op.isInsert()) {
+            data.put("text", op.text);
+            if (op.after != null) data.put("after", op.after.toString());
+        } else {
+            data.put("targets", op.targetRuns());
+        }
+        data.put("createdAt", FieldValue.serverTimestamp());
+        return data;
+    }
+
+    private void deleteNoteCollab(String userId, String noteId) {
+        FirestoreTracking.read("deleteNoteCollab/ops", getOpsCollection(userId, noteId).get()).addOnSuccessListener(background, snap -> {
+            for (DocumentSnapshot doc : snap.getDocuments()) {
+                FirestoreTracking.write("deleteNoteCollab/op", 1, doc.getReference().delete());
+            }
+        });
+        FirestoreTracking.write("deleteNoteCollab/doc", 1, getCollabDocument(userId, noteId).delete());
+    }
+
     // ==================== HELPERS ====================
 
+    /** Call back on the main thread from a continuation running on {@link #background}. */
+    private void report(OperationCallback callback, boolean success, String message) {
+        if (callback != null) mainThread.execute(() -> callback.onComplete(success, message));
+    }
+
+    /** Call back on the main thread once {@code operation} completes, with its error message if it failed. */
+    private void report(OperationCallback callback, CompletableFuture<?> operation, String message) {
+        operation.whenComplete((result, error) -> {
+            if (error == null) report(callback, true, message);
+            else report(callback, false, Futures.unwrap(error).getMessage());
+        });
+    }
+
+    /** Field updates from alternating names and values, as {@link DocumentReference#update(String, Object, Object...)} takes them. */
+    private static Map<String, Object> fields(Object... namesAndValues) {
+        Map<String, Object> fields = new HashMap<>();
+        for (int i = 0; i < namesAndValues.length; i += 2) fields.put((String) namesAndValues[i], namesAndValues[i + 1]);
+        return fields;
+    }
+
+    /** Commit document updates in batches below Firestore's 500-write limit. */
+    private void commitUpdates(String operation, List<DocumentReference> refs, List<Map<String, Object>> updates,
+                               String message, OperationCallback callback) {
+        report(callback, commitAll(operation, refs, updates), message);
+    }
+
+    /**
+     * Apply {@code updates} to {@code refs}, where a null update deletes the document, in batches
+     * below Firestore's 500-write limit. The batches are committed concurrently; if some fail,
+     * the result fails with a {@link Futures.PartialFailureException} saying how many.
+     */
+    private CompletableFuture<List<Void>> commitAll(String operation, List<DocumentReference> refs,
+                                                    List<Map<String, Object>> updates) {
+        List<CompletableFuture<Void>> commits = new ArrayList<>();
+        for (int start = 0; start < refs.size(); start += MAX_BATCH_WRITES) {
+            WriteBatch batch = firestore.batch();
+            int end = Math.min(refs.size(), start + MAX_BATCH_WRITES);
+            for (int i = start; i < end; i++) {
+                if (updates.get(i) == null) batch.delete(refs.get(i));
+                else batch.update(refs.get(i), updates.get(i));
+            }
+            commits.add(commit(operation, end - start, batch, paths(refs.subList(start, end))));
+        }
+        return Futures.allOf(commits);
+    }
+
+    /**
+     * Commit {@code batch}, which writes the documents at {@code paths}, once the write scheduler
+     * has a slot for it. Throttled updates of those documents keep their order around it.
+     */
+    private CompletableFuture<Void> commit(String operation, int writeCount, WriteBatch batch, List<String> paths) {
+        return FirebaseFutures.operation(done -> writes.submit(paths, commit ->
+                FirestoreTracking.write(operation, writeCount, batch.commit()).addOnCompleteListener(t ->
+                        commit.onComplete(t.isSuccessful(), t.getException() != null ? t.getException().getMessage() : null)),
+                done)).thenApply(message -> (Void) null);
+    }
+
+    private static List<String> paths(List<DocumentReference> refs) {
+        List<String> paths = new ArrayList<>(refs.size());
+        for (DocumentReference ref : refs) paths.add(ref.getPath());
+        return paths;
+    }
+
+    /** Delete {@code notes} with their history and op logs. Call on {@link #background}. */
+    private CompletableFuture<List<Void>> deleteNotes(String operation, String userId, List<DocumentSnapshot> notes) {
+        List<DocumentReference> refs = new ArrayList<>();
+        List<Map<String, Object>> deletes = new ArrayList<>();
+        for (DocumentSnapshot doc : notes) {
+            deleteNoteHistory(userId, doc.getId());
+            deleteNoteCollab(userId, doc.getId());
+            refs.add(doc.getReference());
+            deletes.add(null);
+            if (copiedToFlatLayout()) {
+                refs.add(getFlatNotesCollection(userId).document(doc.getId()));
+                deletes.add(null);
+            }
+        }
+        return commitAll(operation, refs, deletes);
+    }
+
+    /** Whether notes deleted now may already have a flat copy, made by a migration under way. */
+    private boolean copiedToFlatLayout() {
+        return notesMigrating && !flatNotesLayout;
+    }
+
     private CollectionReference getFoldersCollection(String userId) {
         return firestore.collection(COLLECTION_USERS).document(userId).collection(COLLECTION_FOLDERS);
     }
@@ -481,4 +1513,58 @@ public class FirebaseManager {
     private CollectionReference getNotesCollection(String userId, String folderId) {
         return firestore.collection(COLLECTION_USERS).document(userId).collection(COLLECTION_FOLDERS).document(folderId).collection(COLLECTION_NOTES);
     }
+
+    /** Kept outside the note document so history survives moves between folders and layouts. */
+    private CollectionReference getRevisionsCollection(String userId, String noteId) {
+        return firestore.collection(COLLECTION_USERS).document(userId)
+                .collection(COLLECTION_HISTORY).document(noteId).collection(COLLECTION_REVISIONS);
+    }
+
+    /** Shared edit state of a note: the compacted snapshot, with the ops since in a subcollection. */
+    private DocumentReference getCollabDocument(String userId, String noteId) {
+        return firestore.collection(COLLECTION_USERS).document(userId).collection(COLLECTION_COLLAB).document(noteId);
+    }
+
+    private CollectionReference getOpsCollection(String userId, String noteId) {
+        return getCollabDocument(userId, noteId).collection(COLLECTION_OPS);
+    }
+
+    private CollectionReference getFlatNotesCollection(String userId) {
+        return firestore.collection(COLLECTION_USERS).document(userId).collection(COLLECTION_FLAT_NOTES);
+    }
+
+    /**
+     * {@code query} in {@code sort} order, newest by {@code createdField} first for the modes
+     * sorted on the device. Each order has a composite index in firestore.indexes.json.
+     */
+    private static Query ordered(Query query, SortMode sort, String createdField) {
+        switch (sort) {
+            case LAST_EDITED:
+                return query.orderBy("updatedAt", Query.Direction.DESCENDING);
+            case COLOR:
+                return query.orderBy("color").orderBy(createdField, Query.Direction.DESCENDING);
+            default:
+                return query.orderBy(createdField, Query.Direction.DESCENDING);
+        }
+    }
+
+    /** Notes of one folder in whichever layout this user is on. */
+    private Query getNotesQuery(String userId, String folderId) {
+        return flatNotesLayout
+                ? getFlatNotesCollection(userId).whereEqualTo("folderId", folderId)
+                : getNotesCollection(userId, folderId);
+    }
+
+    private DocumentReference getNoteDocument(String userId, String folderId, String noteId) {
+        return flatNotesLayout
+                ? getFlatNotesCollection(userId).document(noteId)
+                : getNotesCollection(userId, folderId).document(noteId);
+    }
+
+    /** All notes of this user across folders. */
+    private Query getAllNotesQuery(String userId) {
+        return flatNotesLayout
+                ? getFlatNotesCollection(userId)
+                : firestore.collectionGroup(COLLECTION_NOTES).whereEqualTo("userId", userId);
+    }
 }
@@ -0,0 +1,82 @@
+package com.example.notevault.firebase;
+
+import com.example.notevault.backup.ExportSource;
+import com.example.notevault.model.Folder;
+import com.example.notevault.model.Note;
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.firestore.CollectionReference;
+import com.google.firebase.firestore.DocumentReference;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FieldPath;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.Query;
+import com.google.firebase.firestore.QuerySnapshot;
+import com.google.firebase.firestore.Source;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * {@link ExportSource} over the user's Firestore documents, in either notes layout. Blocks on
+ * each task, so it must only be used from the export's background thread. In the flat layout
+ * a folder's notes are read with a folderId filter ordered by id, which the single-field index
+ * on folderId serves.
+ */
+class FirestoreExportSource implements ExportSource {
+
+    private final FirebaseFirestore firestore;
+    private final boolean flatNotesLayout;
+    /** Reads are tracked as "{operation}/folders" and "{operation}/notes". */
+    private final String operation;
+    private final Source source;
+
+    /** With {@link Source#CACHE}, reads only what this device already has, at no cost and offline too. */
+    FirestoreExportSource(FirebaseFirestore firestore, boolean flatNotesLayout, String operation, Source source) {
+        this.firestore = firestore;
+        this.flatNotesLayout = flatNotesLayout;
+        this.operation = operation;
+        this.source = source;
+    }
+
+    @Override
+    public Page<Folder> folders(String userId, String afterId, int pageSize) throws Exception {
+        QuerySnapshot snap = read(operation + "/folders", foldersCollection(userId), afterId, pageSize);
+        List<Folder> folders = new ArrayList<>();
+        for (DocumentSnapshot doc : snap.getDocuments()) {
+            Folder folder = doc.toObject(Folder.class);
+            folder.setId(doc.getId());
+            folders.add(folder);
+        }
+        return new Page<>(folders, folders.size() < pageSize ? null : folders.get(folders.size() - 1).getId());
+    }
+
+    @Override
+    public Page<Note> notes(String userId, String folderId, String afterId, int pageSize) throws Exception {
+        Query notes = flatNotesLayout
+                ? userDocument(userId).collection(FirebaseManager.COLLECTION_FLAT_NOTES).whereEqualTo("folderId", folderId)
+                : foldersCollection(userId).document(folderId).collection(FirebaseManager.COLLECTION_NOTES);
+        QuerySnapshot snap = read(operation + "/notes", notes, afterId, pageSize);
+        List<Note> page = new ArrayList<>();
+        for (DocumentSnapshot doc : snap.getDocuments()) {
+            Note note = doc.toObject(Note.class);
+            note.setId(doc.getId());
+            if (note.getFolderId() == null) note.setFolderId(folderId);
+            page.add(note);
+        }
+        return new Page<>(page, page.size() < pageSize ? null : page.get(page.size() - 1).getId());
+    }
+
+    private QuerySnapshot read(String name, Query query, String afterId, int pageSize) throws Exception {
+        Query page = query.orderBy(FieldPath.documentId()).limit(pageSize);
+        if (afterId != null) page = page.startAfter(afterId);
+        return Tasks.await(FirestoreTracking.read(name, page.get(source)));
+    }
+
+    private DocumentReference userDocument(String userId) {
+        return firestore.collection(FirebaseManager.COLLECTION_USERS).document(userId);
+    }
+
+    private CollectionReference foldersCollection(String userId) {
+        return userDocument(userId).collection(FirebaseManager.COLLECTION_FOLDERS);
+    }
+}
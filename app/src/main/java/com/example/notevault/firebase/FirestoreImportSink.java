@@ -0,0 +1,29 @@
+package com.example.notevault.firebase;
+
+import com.example.notevault.backup.ImportSink;
+import com.example.notevault.model.Folder;
+import com.example.notevault.model.Note;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/** {@link ImportSink} writing through {@link FirebaseManager}, in whichever notes layout the user is on. */
+class FirestoreImportSink implements ImportSink {
+
+    private final FirebaseManager firebase;
+
+    FirestoreImportSink(FirebaseManager firebase) {
+        this.firebase = firebase;
+    }
+
+    @Override
+    public String createFolder(String userId, Folder folder) throws Exception {
+        FirebaseFutures.operation(done -> firebase.addOrUpdateFolder(userId, folder, done)).get();
+        return folder.getId();
+    }
+
+    @Override
+    public CompletableFuture<Void> addNotes(String userId, List<Note> notes) {
+        return firebase.addNotes("importVault/commit", userId, notes);
+    }
+}
@@ -0,0 +1,160 @@
+package com.example.notevault.firebase;
+
+import com.example.notevault.migration.MigrationStore;
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.firestore.CollectionReference;
+import com.google.firebase.firestore.DocumentReference;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FieldPath;
+import com.google.firebase.firestore.FieldValue;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.Query;
+import com.google.firebase.firestore.QuerySnapshot;
+import com.google.firebase.firestore.SetOptions;
+import com.google.firebase.firestore.WriteBatch;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@link MigrationStore} over the user's Firestore documents. Blocks on each task, so it must
+ * only be used from the migration runner's background thread.
+ * Note cursors are "folderId/noteId" in the nested layout and a plain note id in the flat one.
+ */
+class FirestoreMigrationStore implements MigrationStore {
+
+    static final String FIELD_SCHEMA_VERSION = "schemaVersion";
+    private static final String FIELD_CURSOR = "schemaMigrationCursor";
+    private static final int FOLDER_PAGE_SIZE = 50;
+
+    private final FirebaseFirestore firestore;
+    private final boolean flatNotesLayout;
+
+    FirestoreMigrationStore(FirebaseFirestore firestore, boolean flatNotesLayout) {
+        this.firestore = firestore;
+        this.flatNotesLayout = flatNotesLayout;
+    }
+
+    @Override
+    public int readSchemaVersion(String userId) throws Exception {
+        DocumentSnapshot doc = Tasks.await(FirestoreTracking.read("runSchemaMigrations/user", userDocument(userId).get()));
+        Long version = doc != null ? doc.getLong(FIELD_SCHEMA_VERSION) : null;
+        return version != null ? version.intValue() : 0;
+    }
+
+    @Override
+    public String readCursor(String userId) throws Exception {
+        DocumentSnapshot doc = Tasks.await(FirestoreTracking.read("runSchemaMigrations/user", userDocument(userId).get()));
+        return doc != null ? doc.getString(FIELD_CURSOR) : null;
+    }
+
+    @Override
+    public Page scan(String userId, Kind kind, String cursor, int pageSize) throws Exception {
+        if (kind == Kind.FOLDERS) {
+            return scanCollection(kind, null, foldersCollection(userId), cursor, pageSize);
+        }
+        if (flatNotesLayout) {
+            return scanCollection(kind, null, flatNotesCollection(userId), cursor, pageSize);
+        }
+        return scanNestedNotes(userId, cursor, pageSize);
+    }
+
+    private Page scanCollection(Kind kind, String folderId, CollectionReference collection,
+                                String cursor, int pageSize) throws Exception {
+        Query query = collection.orderBy(FieldPath.documentId()).limit(pageSize);
+        if (cursor != null) query = query.startAfter(cursor);
+        QuerySnapshot snap = Tasks.await(FirestoreTracking.read("runSchemaMigrations/scan", query.get()));
+        List<StoredDocument> docs = new ArrayList<>();
+        for (DocumentSnapshot doc : snap.getDocuments()) {
+            docs.add(toStored(kind, folderId != null ? folderId : doc.getString("folderId"), doc));
+        }
+        String next = docs.size() < pageSize ? null : docs.get(docs.size() - 1).id;
+        return new Page(docs, next);
+    }
+
+    /** Walk folders in id order, reading each folder's notes until the page is full. */
+    private Page scanNestedNotes(String userId, String cursor, int pageSize) throws Exception {
+        String startFolder = null;
+        String afterNote = null;
+        if (cursor != null) {
+            int slash = cursor.indexOf('/');
+            startFolder = cursor.substring(0, slash);
+            afterNote = cursor.substring(slash + 1);
+        }
+        List<StoredDocument> docs = new ArrayList<>();
+        String lastFolder = null;
+        while (true) {
+            Query folders = foldersCollection(userId).orderBy(FieldPath.documentId()).limit(FOLDER_PAGE_SIZE);
+            if (lastFolder != null) {
+                folders = folders.startAfter(lastFolder);
+            } else if (startFolder != null) {
+                folders = folders.startAt(startFolder);
+            }
+            QuerySnapshot folderSnap = Tasks.await(FirestoreTracking.read("runSchemaMigrations/folders", folders.get()));
+            for (DocumentSnapshot folder : folderSnap.getDocuments()) {
+                String folderId = folder.getId();
+                lastFolder = folderId;
+                String after = folderId.equals(startFolder) ? afterNote : null;
+                Page page = scanCollection(Kind.NOTES, folderId, nestedNotesCollection(userId, folderId),
+                        after, pageSize - docs.size());
+                docs.addAll(page.docs);
+                if (docs.size() == pageSize) {
+                    StoredDocument last = docs.get(docs.size() - 1);
+                    return new Page(docs, last.folderId + "/" + last.id);
+                }
+            }
+            if (folderSnap.size() < FOLDER_PAGE_SIZE) {
+                return new Page(docs, null);
+            }
+        }
+    }
+
+    @Override
+    public void commit(String userId, List<Update> updates, String cursor) throws Exception {
+        WriteBatch batch = firestore.batch();
+        for (Update update : updates) {
+            batch.update(documentFor(userId, update.doc), update.fields);
+        }
+        Map<String, Object> progress = new HashMap<>();
+        progress.put(FIELD_CURSOR, cursor);
+        batch.set(userDocument(userId), progress, SetOptions.merge());
+        Tasks.await(FirestoreTracking.write("runSchemaMigrations/commit", updates.size() + 1, batch.commit()));
+    }
+
+    @Override
+    public void writeSchemaVersion(String userId, int version) throws Exception {
+        Map<String, Object> data = new HashMap<>();
+        data.put(FIELD_SCHEMA_VERSION, version);
+        data.put(FIELD_CURSOR, FieldValue.delete());
+        Tasks.await(FirestoreTracking.write("runSchemaMigrations/version", 1, userDocument(userId).set(data, SetOptions.merge())));
+    }
+
+    private static StoredDocument toStored(Kind kind, String folderId, DocumentSnapshot doc) {
+        Map<String, Object> data = doc.getData();
+        return new StoredDocument(kind, folderId, doc.getId(), data != null ? data : new HashMap<>());
+    }
+
+    private DocumentReference documentFor(String userId, StoredDocument doc) {
+        if (doc.kind == Kind.FOLDERS) return foldersCollection(userId).document(doc.id);
+        if (flatNotesLayout) return flatNotesCollection(userId).document(doc.id);
+        return nestedNotesCollection(userId, doc.folderId).document(doc.id);
+    }
+
+    private DocumentReference userDocument(String userId) {
+        return firestore.collection(FirebaseManager.COLLECTION_USERS).document(userId);
+    }
+
+    private CollectionReference foldersCollection(String userId) {
+        return userDocument(userId).collection(FirebaseManager.COLLECTION_FOLDERS);
+    }
+
+    private CollectionReference nestedNotesCollection(String userId, String folderId) {
+        return foldersCollection(userId).document(folderId).collection(FirebaseManager.COLLECTION_NOTES);
+    }
+
+    private CollectionReference flatNotesCollection(String userId) {
+        return userDocument(userId).collection(FirebaseManager.COLLECTION_FLAT_NOTES);
+    }
+}
@@ -0,0 +1,180 @@
+package com.example.notevault.firebase;
+
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.firestore.CollectionReference;
+import com.google.firebase.firestore.DocumentReference;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FieldPath;
+import com.google.firebase.firestore.FieldValue;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.Query;
+import com.google.firebase.firestore.QuerySnapshot;
+import com.google.firebase.firestore.SetOptions;
+import com.google.firebase.firestore.Transaction;
+import com.google.firebase.firestore.WriteBatch;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * {@link NotesLayoutStore} over the user's Firestore documents. Blocks on each task, so it must
+ * only be used from the migrator's background thread. The copy cursor is kept on the user
+ * document, where {@link FirebaseManager} also sees that a migration is under way.
+ */
+class FirestoreNotesLayoutStore implements NotesLayoutStore {
+
+    static final String FIELD_CURSOR_FOLDER = "notesMigrationFolder";
+    private static final String FIELD_CURSOR_NOTE = "notesMigrationNote";
+
+    private final FirebaseFirestore firestore;
+
+    FirestoreNotesLayoutStore(FirebaseFirestore firestore) {
+        this.firestore = firestore;
+    }
+
+    @Override
+    public String readLayout(String userId) throws Exception {
+        DocumentSnapshot doc = Tasks.await(FirestoreTracking.read("migrateToFlatNotesLayout/user", userDocument(userId).get()));
+        return doc != null ? doc.getString(FirebaseManager.FIELD_NOTES_LAYOUT) : null;
+    }
+
+    @Override
+    public Cursor readCursor(String userId) throws Exception {
+        DocumentSnapshot doc = Tasks.await(FirestoreTracking.read("migrateToFlatNotesLayout/user", userDocument(userId).get()));
+        String folderId = doc != null ? doc.getString(FIELD_CURSOR_FOLDER) : null;
+        return folderId != null ? new Cursor(folderId, doc.getString(FIELD_CURSOR_NOTE)) : null;
+    }
+
+    @Override
+    public List<String> folderIds(String userId, String afterFolderId, int limit) throws Exception {
+        QuerySnapshot snap = Tasks.await(FirestoreTracking.read("migrateToFlatNotesLayout/folders",
+                page(foldersCollection(userId), afterFolderId, limit).get()));
+        List<String> ids = new ArrayList<>();
+        for (DocumentSnapshot doc : snap.getDocuments()) ids.add(doc.getId());
+        return ids;
+    }
+
+    @Override
+    public List<StoredNote> nestedNotes(String userId, String folderId, String afterNoteId, int limit) throws Exception {
+        QuerySnapshot snap = Tasks.await(FirestoreTracking.read("migrateToFlatNotesLayout/notes",
+                page(nestedNotes(userId, folderId), afterNoteId, limit).get()));
+        List<StoredNote> notes = new ArrayList<>();
+        for (DocumentSnapshot doc : snap.getDocuments()) notes.add(toStored(folderId, doc));
+        return notes;
+    }
+
+    @Override
+    public List<StoredNote> flatNotes(String userId, String afterNoteId, int limit) throws Exception {
+        QuerySnapshot snap = Tasks.await(FirestoreTracking.read("migrateToFlatNotesLayout/flatNotes",
+                page(flatNotes(userId), afterNoteId, limit).get()));
+        List<StoredNote> notes = new ArrayList<>();
+        for (DocumentSnapshot doc : snap.getDocuments()) notes.add(toStored(doc.getString("folderId"), doc));
+        return notes;
+    }
+
+    @Override
+    public void copy(String userId, List<StoredNote> notes, Cursor cursor) throws Exception {
+        WriteBatch batch = firestore.batch();
+        for (StoredNote note : notes) batch.set(flatNotes(userId).document(note.id), note.data);
+        Map<String, Object> progress = new HashMap<>();
+        progress.put(FIELD_CURSOR_FOLDER, cursor.folderId);
+        progress.put(FIELD_CURSOR_NOTE, cursor.noteId);
+        batch.set(userDocument(userId), progress, SetOptions.merge());
+        Tasks.await(FirestoreTracking.write("migrateToFlatNotesLayout/copy", notes.size() + 1, batch.commit()));
+    }
+
+    @Override
+    public int deleteOrphans(String userId, List<StoredNote> notes) throws Exception {
+        AtomicInteger attempts = new AtomicInteger();
+        AtomicInteger deleted = new AtomicInteger();
+        Tasks.await(FirestoreTracking.transaction("migrateToFlatNotesLayout/reconcile",
+                () -> attempts.get() * notes.size() * 2, deleted::get,
+                firestore.runTransaction((Transaction.Function<Void>) transaction -> {
+                    attempts.incrementAndGet();
+                    List<DocumentReference> orphans = new ArrayList<>();
+                    // Every read of a transaction comes before its first write
+                    for (StoredNote note : notes) {
+                        DocumentReference flat = flatNotes(userId).document(note.id);
+                        if (!transaction.get(flat).exists()) continue;
+                        if (note.folderId == null || !transaction.get(nestedNotes(userId, note.folderId).document(note.id)).exists()) {
+                            orphans.add(flat);
+                        }
+                    }
+                    for (DocumentReference orphan : orphans) transaction.delete(orphan);
+                    deleted.set(orphans.size());
+                    return null;
+                })));
+        return deleted.get();
+    }
+
+    @Override
+    public void moveToFlat(String userId, String folderId, List<String> noteIds, Recopy recopy) throws Exception {
+        AtomicInteger attempts = new AtomicInteger();
+        AtomicInteger writes = new AtomicInteger();
+        Tasks.await(FirestoreTracking.transaction("migrateToFlatNotesLayout/cleanup",
+                () -> attempts.get() * noteIds.size() * 2, writes::get,
+                firestore.runTransaction((Transaction.Function<Void>) transaction -> {
+                    attempts.incrementAndGet();
+                    List<DocumentSnapshot> nested = new ArrayList<>();
+                    List<DocumentSnapshot> flat = new ArrayList<>();
+                    // Every read of a transaction comes before its first write
+                    for (String id : noteIds) {
+                        nested.add(transaction.get(nestedNotes(userId, folderId).document(id)));
+                        flat.add(transaction.get(flatNotes(userId).document(id)));
+                    }
+                    int count = 0;
+                    for (int i = 0; i < nested.size(); i++) {
+                        DocumentSnapshot doc = nested.get(i);
+                        if (!doc.exists()) continue;
+                        Map<String, Object> copy = recopy.flatCopy(toStored(folderId, doc), flat.get(i).getData());
+                        if (copy != null) {
+                            transaction.set(flat.get(i).getReference(), copy);
+                            count++;
+                        }
+                        transaction.delete(doc.getReference());
+                        count++;
+                    }
+                    writes.set(count);
+                    return null;
+                })));
+    }
+
+    @Override
+    public void writeLayout(String userId, String layout) throws Exception {
+        Map<String, Object> updates = new HashMap<>();
+        updates.put(FirebaseManager.FIELD_NOTES_LAYOUT, layout);
+        updates.put(FIELD_CURSOR_FOLDER, FieldValue.delete());
+        updates.put(FIELD_CURSOR_NOTE, FieldValue.delete());
+        Tasks.await(FirestoreTracking.write("migrateToFlatNotesLayout/switch", 1,
+                userDocument(userId).set(updates, SetOptions.merge())));
+    }
+
+    private static Query page(CollectionReference collection, String afterId, int limit) {
+        Query query = collection.orderBy(FieldPath.documentId()).limit(limit);
+        return afterId != null ? query.startAfter(afterId) : query;
+    }
+
+    private static StoredNote toStored(String folderId, DocumentSnapshot doc) {
+        Map<String, Object> data = doc.getData();
+        return new StoredNote(folderId, doc.getId(), data != null ? data : new HashMap<>());
+    }
+
+    private DocumentReference userDocument(String userId) {
+        return firestore.collection(FirebaseManager.COLLECTION_USERS).document(userId);
+    }
+
+    private CollectionReference foldersCollection(String userId) {
+        return userDocument(userId).collection(FirebaseManager.COLLECTION_FOLDERS);
+    }
+
+    private CollectionReference nestedNotes(String userId, String folderId) {
+        return foldersCollection(userId).document(folderId).collection(FirebaseManager.COLLECTION_NOTES);
+    }
+
+    private CollectionReference flatNotes(String userId) {
+        return userDocument(userId).collection(FirebaseManager.COLLECTION_FLAT_NOTES);
+    }
+}
@@ -0,0 +1,405 @@
+package com.example.notevault.firebase;
+
+import androidx.annotation.Nullable;
+
+import com.example.notevault.backup.VaultSnapshot;
+import com.example.notevault.model.Folder;
+import com.example.notevault.model.Note;
+import com.example.notevault.sort.SortMode;
+import com.example.notevault.store.DeferredAction;
+import com.example.notevault.store.FolderStore;
+import com.example.notevault.store.NoteStore;
+import com.example.notevault.store.StoreListener;
+import com.example.notevault.store.Subscription;
+import com.google.firebase.auth.FirebaseUser;
+import com.google.firebase.firestore.EventListener;
+import com.google.firebase.firestore.FirebaseFirestoreException;
+import com.google.firebase.firestore.ListenerRegistration;
+import com.google.firebase.firestore.QuerySnapshot;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.function.Predicate;
+
+import javax.crypto.SecretKey;
+
+/**
+ * The app's note and folder store: {@link FirebaseManager} behind the store interfaces.
+ * Snapshots are decoded into models on the listener's executor, only the documents that changed;
+ * see {@link SnapshotDecoder}. After {@link #restoreLocalSnapshot} the folder and note lists
+ * start from a local snapshot of the vault while Firestore's cache is still cold.
+ */
+public class FirestoreStore implements NoteStore, FolderStore {
+
+    private static FirestoreStore instance;
+    private final FirebaseManager firebase;
+    @Nullable
+    private volatile VaultSnapshot.Reader restored;
+
+    private FirestoreStore(FirebaseManager firebase) {
+        this.firebase = firebase;
+    }
+
+    public static FirestoreStore getInstance() {
+        if (instance == null) {
+            instance = new FirestoreStore(FirebaseManager.getInstance());
+        }
+        return instance;
+    }
+
+    @Nullable
+    @Override
+    public String currentUserId() {
+        FirebaseUser user = firebase.getCurrentUser();
+        return user != null ? user.getUid() : null;
+    }
+
+    // ==================== LOCAL SNAPSHOT ====================
+
+    /**
+     * Start new folder and note lists of the snapshot's user from {@code snapshot}, a file written by
+     * {@link FirebaseManager#saveLocalSnapshot}. Each list shows the restored items until Firestore
+     * delivers a snapshot from the server or a non-empty one from its cache, which replaces them.
+     * Opening maps the file and reads its index only. False if there is no usable snapshot.
+     */
+    public boolean restoreLocalSnapshot(File snapshot) {
+        if (!snapshot.exists()) return false;
+        VaultSnapshot.Reader reader;
+        try {
+            reader = VaultSnapshot.open(snapshot);
+        } catch (IOException e) {
+            return false;
+        }
+        clearLocalSnapshot();
+        // Encrypted snapshots are for backups the user unlocks, not for starting lists
+        if (reader.isEncrypted()) {
+            closeQuietly(reader);
+            return false;
+        }
+        restored = reader;
+        return true;
+    }
+
+    /** Stop starting lists from the restored snapshot, as on sign-out. */
+    public void clearLocalSnapshot() {
+        VaultSnapshot.Reader reader = restored;
+        restored = null;
+        if (reader != null) closeQuietly(reader);
+    }
+
+    // ==================== FOLDERS ====================
+
+    @Override
+    public Subscription listenToFolders(String userId, SortMode sort, Executor executor, StoreListener<Folder> listener) {
+        return subscription(firebase.listenToFolders(userId, sort, executor, seeded(userId, executor, folders(listener), listener,
+                reader -> {
+                    List<Folder> folders = reader.folders();
+                    Collections.sort(folders, sort.folderOrder());
+                    return folders;
+                })));
+    }
+
+    @Override
+    public Subscription listenToPinnedFolders(String userId, Executor executor, StoreListener<Folder> listener) {
+        return subscription(firebase.listenToPinnedFolders(userId, executor, seeded(userId, executor, folders(listener), listener,
+                reader -> {
+                    List<Folder> folders = pinned(reader.folders(), Folder::isPinned);
+                    Collections.sort(folders, SortMode.NEWEST.folderOrder());
+                    return folders;
+                })));
+    }
+
+    @Override
+    public Subscription listenToDeletedFolders(String userId, Executor executor, StoreListener<Folder> listener) {
+        return subscription(firebase.listenToDeletedFolders(userId, executor, folders(listener)));
+    }
+
+    @Override
+    public Subscription listenToHiddenFolders(String userId, Executor executor, StoreListener<Folder> listener) {
+        return subscription(firebase.listenToHiddenFolders(userId, executor, folders(listener)));
+    }
+
+    @Override
+    public void addOrUpdateFolder(String userId, Folder folder, FirebaseManager.OperationCallback callback) {
+        firebase.addOrUpdateFolder(userId, folder, callback);
+    }
+
+    @Override
+    public void moveFolderToRecycleBin(String userId, String folderId, FirebaseManager.OperationCallback callback) {
+        firebase.moveFolderToRecycleBin(userId, folderId, callback);
+    }
+
+    @Override
+    public void restoreFolder(String userId, String folderId, FirebaseManager.OperationCallback callback) {
+        firebase.restoreFolder(userId, folderId, callback);
+    }
+
+    @Override
+    public void permanentDeleteFolder(String userId, String folderId, FirebaseManager.OperationCallback callback) {
+        firebase.permanentDeleteFolder(userId, folderId, callback);
+    }
+
+    @Override
+    public void hideFolder(String userId, String folderId, FirebaseManager.OperationCallback callback) {
+        firebase.hideFolder(userId, folderId, callback);
+    }
+
+    @Override
+    public void unhideFolder(String userId, String folderId, FirebaseManager.OperationCallback callback) {
+        firebase.unhideFolder(userId, folderId, callback);
+    }
+
+    @Override
+    public void pinFolder(String userId, String folderId, boolean pinned, FirebaseManager.OperationCallback callback) {
+        firebase.pinFolder(userId, folderId, pinned, callback);
+    }
+
+    @Override
+    public void rankFolders(String userId, Map<String, String> ranks, FirebaseManager.OperationCallback callback) {
+        firebase.rankFolders(userId, ranks, callback);
+    }
+
+    @Override
+    public void lockFolder(String userId, String folderId, SecretKey key, byte[] keySalt, byte[] keyCheck,
+                           FirebaseManager.OperationCallback callback) {
+        firebase.lockFolder(userId, folderId, key, keySalt, keyCheck, callback);
+    }
+
+    @Override
+    public void unlockFolder(String userId, String folderId, @Nullable SecretKey key, @Nullable byte[] keySalt,
+                             FirebaseManager.OperationCallback callback) {
+        firebase.unlockFolder(userId, folderId, key, keySalt, callback);
+    }
+
+    // ==================== NOTES ====================
+
+    @Override
+    public Subscription listenToNotes(String userId, String folderId, SortMode sort, Executor executor,
+                                      StoreListener<Note> listener) {
+        return subscription(firebase.listenToNotes(userId, folderId, sort, executor, seeded(userId, executor, notes(listener), listener,
+                reader -> {
+                    List<Note> notes = reader.notes(folderId);
+                    Collections.sort(notes, sort.noteOrder());
+                    return notes;
+                })));
+    }
+
+    @Override
+    public Subscription listenToPinnedNotes(String userId, String folderId, Executor executor, StoreListener<Note> listener) {
+        return subscription(firebase.listenToPinnedNotes(userId, folderId, executor, seeded(userId, executor, notes(listener), listener,
+                reader -> {
+                    List<Note> notes = pinned(reader.notes(folderId), Note::isPinned);
+                    Collections.sort(notes, NoteStore.NEWEST_FIRST);
+                    return notes;
+                })));
+    }
+
+    @Override
+    public Subscription listenToRecentNotes(String userId, int limit, Executor executor, StoreListener<Note> listener) {
+        return subscription(firebase.listenToRecentNotes(userId, limit, executor, seeded(userId, executor, notes(listener), listener,
+                reader -> {
+                    List<Note> notes = new ArrayList<>();
+                    for (Note note : reader.notes()) {
+                        if (!note.isDeleted() && !note.isHidden()) notes.add(note);
+                    }
+                    Collections.sort(notes, SortMode.LAST_EDITED.noteOrder());
+                    return new ArrayList<>(notes.subList(0, Math.min(limit, notes.size())));
+                })));
+    }
+
+    @Override
+    public Subscription listenToNotesChangedSince(String userId, Date since, Executor executor, StoreListener<Note> listener) {
+        return subscription(firebase.listenToNotesChangedSince(userId, since, executor, notes(listener)));
+    }
+
+    @Override
+    public void prefetchNotes(String userId, String folderId, int limit, FirebaseManager.PrefetchCallback callback) {
+        firebase.prefetchNotes(userId, folderId, limit, callback);
+    }
+
+    @Override
+    public Subscription listenToTaggedNotes(String userId, Executor executor, StoreListener<Note> listener) {
+        return subscription(firebase.listenToTaggedNotes(userId, executor, notes(listener)));
+    }
+
+    @Override
+    public Subscription listenToNotesWithTags(String userId, List<String> tags, Executor executor, StoreListener<Note> listener) {
+        return subscription(firebase.listenToNotesWithTags(userId, tags, executor, notes(listener)));
+    }
+
+    @Override
+    public Subscription listenToDeletedNotes(String userId, Executor executor, StoreListener<Note> listener) {
+        return subscription(firebase.listenToAllDeletedNotes(userId, executor, notes(listener)));
+    }
+
+    @Override
+    public Subscription listenToHiddenNotes(String userId, Executor executor, StoreListener<Note> listener) {
+        return subscription(firebase.listenToAllHiddenNotes(userId, executor, notes(listener)));
+    }
+
+    @Override
+    public void addOrUpdateNote(String userId, String folderId, Note note, FirebaseManager.OperationCallback callback) {
+        firebase.addOrUpdateNote(userId, folderId, note, callback);
+    }
+
+    @Override
+    public void saveNoteIfUnchanged(String userId, String folderId, Note note, Date baseUpdatedAt,
+                                    FirebaseManager.NoteMerger merger, FirebaseManager.NoteSaveCallback callback) {
+        firebase.saveNoteIfUnchanged(userId, folderId, note, baseUpdatedAt, merger, callback);
+    }
+
+    @Override
+    public void moveNoteToRecycleBin(String userId, String folderId, String noteId, FirebaseManager.OperationCallback callback) {
+        firebase.moveNoteToRecycleBin(userId, folderId, noteId, callback);
+    }
+
+    @Override
+    public void moveNoteToFolder(String userId, String fromFolderId, String noteId, String toFolderId,
+                                 FirebaseManager.OperationCallback callback) {
+        firebase.moveNoteToFolder(userId, fromFolderId, noteId, toFolderId, callback);
+    }
+
+    @Override
+    public void restoreNote(String userId, String folderId, String noteId, FirebaseManager.OperationCallback callback) {
+        firebase.restoreNote(userId, folderId, noteId, callback);
+    }
+
+    @Override
+    public void permanentDeleteNote(String userId, String folderId, String noteId, FirebaseManager.OperationCallback callback) {
+        firebase.permanentDeleteNote(userId, folderId, noteId, callback);
+    }
+
+    @Override
+    public void hideNote(String userId, String folderId, String noteId, FirebaseManager.OperationCallback callback) {
+        firebase.hideNote(userId, folderId, noteId, callback);
+    }
+
+    @Override
+    public void unhideNote(String userId, String folderId, String noteId, FirebaseManager.OperationCallback callback) {
+        firebase.unhideNote(userId, folderId, noteId, callback);
+    }
+
+    @Override
+    public void pinNote(String userId, String folderId, String noteId, boolean pinned, FirebaseManager.OperationCallback callback) {
+        firebase.pinNote(userId, folderId, noteId, pinned, callback);
+    }
+
+    @Override
+    public void rankNotes(String userId, String folderId, Map<String, String> ranks, FirebaseManager.OperationCallback callback) {
+        firebase.rankNotes(userId, folderId, ranks, callback);
+    }
+
+    @Override
+    public void lockNote(String userId, String folderId, String noteId, byte[] keySalt, byte[] keyCheck,
+                         byte[] encryptedContent, FirebaseManager.OperationCallback callback) {
+        firebase.lockNote(userId, folderId, noteId, keySalt, keyCheck, encryptedContent, callback);
+    }
+
+    @Override
+    public void unlockNote(String userId, String folderId, String noteId, String content,
+                           FirebaseManager.OperationCallback callback) {
+        firebase.unlockNote(userId, folderId, noteId, content, callback);
+    }
+
+    @Override
+    public void commitActions(String userId, List<DeferredAction> actions, FirebaseManager.OperationCallback callback) {
+        firebase.commitActions(userId, actions, callback);
+    }
+
+    @Override
+    public void cleanupOldRecycleBinItems(String userId, FirebaseManager.OperationCallback callback) {
+        firebase.cleanupOldRecycleBinItems(userId, callback);
+    }
+
+    // ==================== HELPERS ====================
+
+    private interface SeedReader<T> {
+        List<T> read(VaultSnapshot.Reader reader) throws IOException;
+    }
+
+    /**
+     * {@code decoder}, after handing {@code listener} the restored items if there is a snapshot of
+     * {@code userId}. The items are read on {@code executor}, and dropped if Firestore got there first.
+     */
+    private <T> EventListener<QuerySnapshot> seeded(String userId, Executor executor, EventListener<QuerySnapshot> decoder,
+                                                    StoreListener<T> listener, SeedReader<T> read) {
+        VaultSnapshot.Reader reader = restored;
+        if (reader == null || !reader.userId().equals(userId)) return decoder;
+        SeedGate gate = new SeedGate(decoder);
+        executor.execute(() -> {
+            List<T> items;
+            try {
+                items = read.read(reader);
+            } catch (IOException e) {
+                return;
+            }
+            gate.seed(() -> listener.onChanged(items));
+        });
+        return gate;
+    }
+
+    /**
+     * Holds back empty snapshots of a cold cache while restored items are showing, so a fresh
+     * install does not flash an empty list before the server answers.
+     */
+    private static final class SeedGate implements EventListener<QuerySnapshot> {
+        private final EventListener<QuerySnapshot> decoder;
+        private boolean open;
+
+        SeedGate(EventListener<QuerySnapshot> decoder) {
+            this.decoder = decoder;
+        }
+
+        synchronized void seed(Runnable deliver) {
+            if (!open) deliver.run();
+        }
+
+        @Override
+        public synchronized void onEvent(QuerySnapshot value, FirebaseFirestoreException error) {
+            if (!open && error == null && value != null && value.isEmpty() && value.getMetadata().isFromCache()) return;
+            open = true;
+            decoder.onEvent(value, error);
+        }
+    }
+
+    private static <T> List<T> pinned(List<T> items, Predicate<T> isPinned) {
+        List<T> pinned = new ArrayList<>();
+        for (T item : items) {
+            if (isPinned.test(item)) pinned.add(item);
+        }
+        return pinned;
+    }
+
+    private static void closeQuietly(VaultSnapshot.Reader reader) {
+        try {
+            reader.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    private static Subscription subscription(ListenerRegistration registration) {
+        return registration::remove;
+    }
+
+    private static EventListener<QuerySnapshot> folders(StoreListener<Folder> listener) {
+        return new SnapshotDecoder<>(doc -> {
+            Folder folder = doc.toObject(Folder.class);
+            folder.setId(doc.getId());
+            return folder;
+        }, listener);
+    }
+
+    private static EventListener<QuerySnapshot> notes(StoreListener<Note> listener) {
+        return new SnapshotDecoder<>(doc -> {
+            Note note = doc.toObject(Note.class);
+            note.setId(doc.getId());
+            return note;
+        }, listener);
+    }
+}
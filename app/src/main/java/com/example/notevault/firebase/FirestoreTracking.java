@@ -0,0 +1,150 @@
+package com.example.notevault.firebase;
+
+import android.os.Looper;
+
+import androidx.tracing.Trace;
+
+import com.example.notevault.metrics.FirestoreMetrics;
+import com.example.notevault.metrics.MainThreadTimer;
+import com.example.notevault.utils.BackgroundExecutor;
+import com.google.android.gms.tasks.Task;
+import com.google.firebase.firestore.Blob;
+import com.google.firebase.firestore.DocumentChange;
+import com.google.firebase.firestore.DocumentReference;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.EventListener;
+import com.google.firebase.firestore.ListenerRegistration;
+import com.google.firebase.firestore.MetadataChanges;
+import com.google.firebase.firestore.Query;
+import com.google.firebase.firestore.QuerySnapshot;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.IntSupplier;
+
+/**
+ * Wraps Firestore tasks and snapshot listeners so they are recorded in {@link FirestoreMetrics}.
+ * Operation names are the FirebaseManager method, with a "/step" suffix when it makes several calls.
+ * The bookkeeping runs on the {@link BackgroundExecutor}; each snapshot delivery is a trace section,
+ * and its time is counted as main-thread time when it is delivered there.
+ */
+final class FirestoreTracking {
+
+    private FirestoreTracking() {}
+
+    /** A get; documents read and cache origin come from the result. */
+    static <T> Task<T> read(String operation, Task<T> task) {
+        FirestoreMetrics.Span span = FirestoreMetrics.getInstance().start(operation);
+        return task.addOnCompleteListener(BackgroundExecutor.getInstance(), t -> {
+            Object result = t.isSuccessful() ? t.getResult() : null;
+            if (result instanceof QuerySnapshot) {
+                QuerySnapshot snap = (QuerySnapshot) result;
+                // An empty query result is still billed as one read
+                span.end(true, Math.max(1, snap.size()), 0, snap.getMetadata().isFromCache());
+            } else if (result instanceof DocumentSnapshot) {
+                span.end(true, 1, 0, ((DocumentSnapshot) result).getMetadata().isFromCache());
+            } else {
+                span.end(t.isSuccessful(), 0, 0, false);
+            }
+        });
+    }
+
+    /** A set, update, delete or batch commit of {@code documents} documents, timed until the server acknowledges it. */
+    static <T> Task<T> write(String operation, int documents, Task<T> task) {
+        FirestoreMetrics.Span span = FirestoreMetrics.getInstance().start(operation);
+        return task.addOnCompleteListener(BackgroundExecutor.getInstance(),
+                t -> span.end(t.isSuccessful(), 0, t.isSuccessful() ? documents : 0, false));
+    }
+
+    /** A transaction; the document counts are taken once it completes, since retries change them. */
+    static <T> Task<T> transaction(String operation, IntSupplier documentsRead, IntSupplier documentsWritten, Task<T> task) {
+        FirestoreMetrics.Span span = FirestoreMetrics.getInstance().start(operation);
+        return task.addOnCompleteListener(BackgroundExecutor.getInstance(), t -> span.end(t.isSuccessful(), documentsRead.getAsInt(),
+                t.isSuccessful() ? documentsWritten.getAsInt() : 0, false));
+    }
+
+    static ListenerRegistration listen(String name, Query query, EventListener<QuerySnapshot> listener) {
+        return attached(name, query.addSnapshotListener(queryListener(name, listener)));
+    }
+
+    static ListenerRegistration listen(String name, Query query, Executor executor, EventListener<QuerySnapshot> listener) {
+        return listen(name, query, executor, MetadataChanges.EXCLUDE, listener);
+    }
+
+    /**
+     * With {@link MetadataChanges#INCLUDE} the listener also hears snapshots where only metadata
+     * changed, such as the server confirming a local write; those are counted as metadata-only.
+     */
+    static ListenerRegistration listen(String name, Query query, Executor executor, MetadataChanges metadataChanges,
+                                       EventListener<QuerySnapshot> listener) {
+        return attached(name, query.addSnapshotListener(executor, metadataChanges, queryListener(name, listener)));
+    }
+
+    static ListenerRegistration listen(String name, DocumentReference ref, EventListener<DocumentSnapshot> listener) {
+        return attached(name, ref.addSnapshotListener(documentListener(name, listener)));
+    }
+
+    private static EventListener<QuerySnapshot> queryListener(String name, EventListener<QuerySnapshot> listener) {
+        return (snap, e) -> {
+            if (snap != null) {
+                boolean fromCache = snap.getMetadata().isFromCache();
+                long bytes = 0;
+                if (!fromCache) {
+                    for (DocumentChange change : snap.getDocumentChanges()) bytes += approximateSize(change.getDocument());
+                }
+                int changes = snap.getDocumentChanges().size();
+                FirestoreMetrics.getInstance().recordSnapshot(name, snap.size(), changes, bytes, fromCache);
+                if (changes == 0 && !snap.getDocumentChanges(MetadataChanges.INCLUDE).isEmpty()) {
+                    FirestoreMetrics.getInstance().recordMetadataOnly(name);
+                }
+            }
+            deliver(name, () -> listener.onEvent(snap, e));
+        };
+    }
+
+    private static EventListener<DocumentSnapshot> documentListener(String name, EventListener<DocumentSnapshot> listener) {
+        return (snap, e) -> {
+            if (snap != null) {
+                boolean fromCache = snap.getMetadata().isFromCache();
+                FirestoreMetrics.getInstance().recordSnapshot(name, snap.exists() ? 1 : 0, 1,
+                        fromCache || !snap.exists() ? 0 : approximateSize(snap), fromCache);
+            }
+            deliver(name, () -> listener.onEvent(snap, e));
+        };
+    }
+
+    private static void deliver(String name, Runnable delivery) {
+        if (Looper.myLooper() == Looper.getMainLooper()) {
+            MainThreadTimer.time(name, delivery);
+            return;
+        }
+        Trace.beginSection("Firestore snapshot " + name);
+        try {
+            delivery.run();
+        } finally {
+            Trace.endSection();
+        }
+    }
+
+    /** Bytes of a note's text and encrypted content plus a fixed allowance for the other fields. */
+    static long approximateSize(DocumentSnapshot doc) {
+        long size = 200;
+        String title = doc.getString("title");
+        String content = doc.getString("content");
+        Blob encrypted = doc.getBlob("encryptedContent");
+        if (title != null) size += title.length();
+        if (content != null) size += content.length();
+        if (encrypted != null) size += encrypted.toBytes().length;
+        return size;
+    }
+
+    /** Count {@code registration} as an active {@code name} listener until it is removed. */
+    private static ListenerRegistration attached(String name, ListenerRegistration registration) {
+        FirestoreMetrics.getInstance().listenerAttached(name);
+        AtomicBoolean removed = new AtomicBoolean();
+        return () -> {
+            if (removed.compareAndSet(false, true)) FirestoreMetrics.getInstance().listenerDetached(name);
+            registration.remove();
+        };
+    }
+}
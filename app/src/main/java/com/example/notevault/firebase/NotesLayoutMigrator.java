@@ -0,0 +1,200 @@
+package com.example.notevault.firebase;
+
+import com.google.firebase.Timestamp;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+/**
+ * Moves a user's notes from users/{userId}/folders/{folderId}/notes into users/{userId}/vaultNotes.
+ *
+ * Runs in four phases so the app always reads a complete layout:
+ * copy (nested notes are copied page by page, keeping their ids), reconcile (flat copies whose
+ * nested note was permanently deleted since are deleted too), switch (the user document is
+ * flagged as flat) and cleanup (the nested copies are deleted, after copying again any that a
+ * client still on the nested layout saved in the meantime). Every copy batch also stores a
+ * cursor on the user document, so an interrupted run resumes where it stopped; while the cursor
+ * is there, clients on the nested layout delete the flat copy along with a note.
+ */
+public class NotesLayoutMigrator {
+
+    /**
+     * Notes per batch; one extra write per copy batch stores the cursor, and a cleanup page writes
+     * at most two per note, well under the 500-write limit.
+     */
+    static final int PAGE_SIZE = 200;
+
+    public interface ProgressListener {
+        void onProgress(String phase, int processed);
+    }
+
+    private final NotesLayoutStore store;
+    private final String userId;
+    private final Executor executor;
+    private final int pageSize;
+    private int copied;
+    private int reconciled;
+    private int deleted;
+
+    NotesLayoutMigrator(NotesLayoutStore store, String userId, Executor executor) {
+        this(store, userId, executor, PAGE_SIZE);
+    }
+
+    NotesLayoutMigrator(NotesLayoutStore store, String userId, Executor executor, int pageSize) {
+        this.store = store;
+        this.userId = userId;
+        this.executor = executor;
+        this.pageSize = pageSize;
+    }
+
+    /** Run or resume the migration on the executor; {@code callback} is called there too. */
+    void run(ProgressListener progress, FirebaseManager.OperationCallback callback) {
+        executor.execute(() -> {
+            boolean success;
+            String message;
+            try {
+                String layout = store.readLayout(userId);
+                if (FirebaseManager.NOTES_LAYOUT_FLAT.equals(layout)) {
+                    message = "Already on flat layout";
+                } else {
+                    if (!FirebaseManager.NOTES_LAYOUT_CLEANUP.equals(layout)) {
+                        copy(progress);
+                        reconcile(progress);
+                        store.writeLayout(userId, FirebaseManager.NOTES_LAYOUT_CLEANUP);
+                    }
+                    cleanup(progress);
+                    store.writeLayout(userId, FirebaseManager.NOTES_LAYOUT_FLAT);
+                    message = "Moved " + copied + " notes to flat layout";
+                }
+                success = true;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                success = false;
+                message = "Interrupted";
+            } catch (Exception e) {
+                success = false;
+                message = e.getMessage();
+            }
+            if (callback != null) callback.onComplete(success, message);
+        });
+    }
+
+    // ==================== COPY ====================
+
+    /** Copy the notes of every folder in id order, starting where an earlier run stopped. */
+    private void copy(ProgressListener progress) throws Exception {
+        NotesLayoutStore.Cursor cursor = store.readCursor(userId);
+        String afterFolderId = null;
+        if (cursor != null) {
+            copyFolder(cursor.folderId, cursor.noteId, progress);
+            afterFolderId = cursor.folderId;
+        }
+        while (true) {
+            List<String> folders = store.folderIds(userId, afterFolderId, pageSize);
+            for (String folderId : folders) copyFolder(folderId, null, progress);
+            if (folders.size() < pageSize) return;
+            afterFolderId = folders.get(folders.size() - 1);
+        }
+    }
+
+    private void copyFolder(String folderId, String afterNoteId, ProgressListener progress) throws Exception {
+        while (true) {
+            List<NotesLayoutStore.StoredNote> page = store.nestedNotes(userId, folderId, afterNoteId, pageSize);
+            if (page.isEmpty()) return;
+            List<NotesLayoutStore.StoredNote> copies = new ArrayList<>(page.size());
+            for (NotesLayoutStore.StoredNote note : page) {
+                copies.add(new NotesLayoutStore.StoredNote(folderId, note.id, flatCopy(folderId, note.data)));
+            }
+            afterNoteId = page.get(page.size() - 1).id;
+            store.copy(userId, copies, new NotesLayoutStore.Cursor(folderId, afterNoteId));
+            copied += page.size();
+            report(progress, "copy", copied);
+            if (page.size() < pageSize) return;
+        }
+    }
+
+    // ==================== RECONCILE ====================
+
+    /**
+     * Delete flat copies whose nested note is gone: a note permanently deleted after it was
+     * copied, by a client that did not see the migration, would otherwise come back.
+     */
+    private void reconcile(ProgressListener progress) throws Exception {
+        String afterNoteId = null;
+        while (true) {
+            List<NotesLayoutStore.StoredNote> page = store.flatNotes(userId, afterNoteId, pageSize);
+            if (page.isEmpty()) return;
+            reconciled += store.deleteOrphans(userId, page);
+            report(progress, "reconcile", reconciled);
+            if (page.size() < pageSize) return;
+            afterNoteId = page.get(page.size() - 1).id;
+        }
+    }
+
+    // ==================== CLEANUP ====================
+
+    /**
+     * Delete the nested copies folder by folder. Deleted pages disappear from the listing,
+     * so a restarted cleanup simply picks up whatever is left. A client that had not yet switched
+     * may have written a note after it was copied, so each is first copied again when the flat
+     * note is missing or older.
+     */
+    private void cleanup(ProgressListener progress) throws Exception {
+        String afterFolderId = null;
+        while (true) {
+            List<String> folders = store.folderIds(userId, afterFolderId, pageSize);
+            for (String folderId : folders) {
+                while (true) {
+                    List<NotesLayoutStore.StoredNote> page = store.nestedNotes(userId, folderId, null, pageSize);
+                    if (page.isEmpty()) break;
+                    List<String> ids = new ArrayList<>(page.size());
+                    for (NotesLayoutStore.StoredNote note : page) ids.add(note.id);
+                    store.moveToFlat(userId, folderId, ids, (nested, flat) ->
+                            isNewer(nested.data, flat) ? flatCopy(folderId, nested.data) : null);
+                    deleted += page.size();
+                    report(progress, "cleanup", deleted);
+                }
+            }
+            if (folders.size() < pageSize) return;
+            afterFolderId = folders.get(folders.size() - 1);
+        }
+    }
+
+    /**
+     * Whether the nested note was written after its flat copy, or has none. Notes last written
+     * before changedAt existed only have updatedAt.
+     */
+    static boolean isNewer(Map<String, Object> nested, Map<String, Object> flat) {
+        if (flat == null) return true;
+        Date nestedAt = changedAt(nested);
+        Date flatAt = changedAt(flat);
+        return nestedAt != null && (flatAt == null || nestedAt.after(flatAt));
+    }
+
+    // ==================== HELPERS ====================
+
+    private Map<String, Object> flatCopy(String folderId, Map<String, Object> nested) {
+        Map<String, Object> copy = new HashMap<>(nested);
+        copy.put("folderId", folderId);
+        copy.put("userId", userId);
+        return copy;
+    }
+
+    private static Date changedAt(Map<String, Object> note) {
+        Date changedAt = dateOf(note.get("changedAt"));
+        return changedAt != null ? changedAt : dateOf(note.get("updatedAt"));
+    }
+
+    private static Date dateOf(Object value) {
+        if (value instanceof Timestamp) return ((Timestamp) value).toDate();
+        return value instanceof Date ? (Date) value : null;
+    }
+
+    private static void report(ProgressListener progress, String phase, int processed) {
+        if (progress != null) progress.onProgress(phase, processed);
+    }
+}
@@ -0,0 +1,73 @@
+package com.example.notevault.firebase;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Storage operations the {@link NotesLayoutMigrator} needs. Calls are blocking and are only
+ * made from the migrator's executor, so a Firestore implementation can await its tasks and a
+ * test implementation can be a plain map. Listings are in document id order.
+ */
+interface NotesLayoutStore {
+
+    /** A note as the migrator sees it: the folder it is in, its id and its fields. */
+    final class StoredNote {
+        final String folderId;
+        final String id;
+        final Map<String, Object> data;
+
+        StoredNote(String folderId, String id, Map<String, Object> data) {
+            this.folderId = folderId;
+            this.id = id;
+            this.data = data;
+        }
+    }
+
+    /** The last note a copy batch wrote, so an interrupted copy resumes after it. */
+    final class Cursor {
+        final String folderId;
+        final String noteId;
+
+        Cursor(String folderId, String noteId) {
+            this.folderId = folderId;
+            this.noteId = noteId;
+        }
+    }
+
+    /** Decides, inside the transaction of {@link #moveToFlat}, what a nested note leaves behind. */
+    interface Recopy {
+        /** The fields to write to the flat note, or null to keep the flat note as it is. */
+        Map<String, Object> flatCopy(StoredNote nested, Map<String, Object> flat);
+    }
+
+    /** The user document's notes layout, or null for the nested layout. */
+    String readLayout(String userId) throws Exception;
+
+    /** Where the copy stopped, or null when it has not started. */
+    Cursor readCursor(String userId) throws Exception;
+
+    /** Up to {@code limit} folder ids after {@code afterFolderId} (null = from the start). */
+    List<String> folderIds(String userId, String afterFolderId, int limit) throws Exception;
+
+    List<StoredNote> nestedNotes(String userId, String folderId, String afterNoteId, int limit) throws Exception;
+
+    List<StoredNote> flatNotes(String userId, String afterNoteId, int limit) throws Exception;
+
+    /** Write {@code notes} to the flat layout and save {@code cursor} atomically. */
+    void copy(String userId, List<StoredNote> notes, Cursor cursor) throws Exception;
+
+    /**
+     * Delete those of the flat {@code notes} whose nested original no longer exists, reading and
+     * deleting in one transaction. Returns how many were deleted.
+     */
+    int deleteOrphans(String userId, List<StoredNote> notes) throws Exception;
+
+    /**
+     * Delete the nested notes {@code noteIds} of {@code folderId}, first writing to the flat layout
+     * what {@code recopy} returns for each, all in one transaction.
+     */
+    void moveToFlat(String userId, String folderId, List<String> noteIds, Recopy recopy) throws Exception;
+
+    /** Record {@code layout} on the user document and clear the copy cursor. */
+    void writeLayout(String userId, String layout) throws Exception;
+}
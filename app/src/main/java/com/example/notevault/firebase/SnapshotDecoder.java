@@ -0,0 +1,137 @@
+package com.example.notevault.firebase;
+
+import com.example.notevault.store.StoreListener;
+import com.google.firebase.firestore.DocumentChange;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.EventListener;
+import com.google.firebase.firestore.FirebaseFirestoreException;
+import com.google.firebase.firestore.QuerySnapshot;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * Turns the snapshots of one listener into store results, decoding only the documents that
+ * changed since the previous snapshot. A snapshot in which only metadata changed, such as the
+ * server confirming a local write, publishes no new result; the listener only hears which
+ * items still have pending writes.
+ */
+final class SnapshotDecoder<T> implements EventListener<QuerySnapshot> {
+
+    /** What the decoder reads of a document, so that {@link Decoder} can be driven without Firestore. */
+    interface Documents<D> {
+        String path(D doc);
+
+        String id(D doc);
+
+        boolean hasPendingWrites(D doc);
+    }
+
+    private static final Documents<DocumentSnapshot> FIRESTORE = new Documents<DocumentSnapshot>() {
+        @Override
+        public String path(DocumentSnapshot doc) {
+            return doc.getReference().getPath();
+        }
+
+        @Override
+        public String id(DocumentSnapshot doc) {
+            return doc.getId();
+        }
+
+        @Override
+        public boolean hasPendingWrites(DocumentSnapshot doc) {
+            return doc.getMetadata().hasPendingWrites();
+        }
+    };
+
+    private final StoreListener<T> listener;
+    private final Decoder<DocumentSnapshot, T> decoder;
+
+    SnapshotDecoder(Function<DocumentSnapshot, T> decode, StoreListener<T> listener) {
+        this.listener = listener;
+        this.decoder = new Decoder<>(FIRESTORE, decode, listener);
+    }
+
+    @Override
+    public void onEvent(QuerySnapshot value, FirebaseFirestoreException error) {
+        if (error != null) {
+            listener.onError(error.getMessage());
+            return;
+        }
+        if (value == null) return;
+        // Excludes metadata-only changes, so both are empty when only pending-write state moved
+        List<DocumentSnapshot> changed = new ArrayList<>();
+        List<DocumentSnapshot> removed = new ArrayList<>();
+        for (DocumentChange change : value.getDocumentChanges()) {
+            (change.getType() == DocumentChange.Type.REMOVED ? removed : changed).add(change.getDocument());
+        }
+        decoder.apply(changed, removed, value.getDocuments());
+    }
+
+    /** The decoding itself, for any kind of document. */
+    static final class Decoder<D, T> {
+
+        private final Documents<D> documents;
+        private final Function<D, T> decode;
+        private final StoreListener<T> listener;
+        /** Decoded models by document path; a note moved between nested folders briefly has two. */
+        private final Map<String, T> decoded = new HashMap<>();
+        private Set<String> pending = Collections.emptySet();
+        private boolean published;
+
+        Decoder(Documents<D> documents, Function<D, T> decode, StoreListener<T> listener) {
+            this.documents = documents;
+            this.decode = decode;
+            this.listener = listener;
+        }
+
+        /**
+         * Apply one snapshot: {@code changed} are the documents added or modified since the last
+         * one, {@code removed} those that left it, and {@code result} all of it in query order.
+         */
+        void apply(List<D> changed, List<D> removed, List<D> result) {
+            List<String> removedIds = new ArrayList<>(removed.size());
+            for (D doc : removed) {
+                decoded.remove(documents.path(doc));
+                removedIds.add(documents.id(doc));
+            }
+            for (D doc : changed) decoded.put(documents.path(doc), decode.apply(doc));
+            Set<String> nowPending = new HashSet<>();
+            for (D doc : result) {
+                if (documents.hasPendingWrites(doc)) nowPending.add(documents.id(doc));
+            }
+            if (!changed.isEmpty() || !removed.isEmpty() || !published) {
+                // Keyed by id: a note moved between folders in the nested layout leaves one
+                // path and arrives at the other in the same snapshot.
+                Map<String, T> byId = new LinkedHashMap<>();
+                for (D doc : result) {
+                    T item = decoded.get(documents.path(doc));
+                    if (item != null) byId.put(documents.id(doc), item);
+                }
+                if (published) {
+                    List<T> changedItems = new ArrayList<>(changed.size());
+                    for (D doc : changed) changedItems.add(byId.get(documents.id(doc)));
+                    Set<String> gone = new HashSet<>();
+                    // A moved note is removed from one path but still in the result under the other
+                    for (String id : removedIds) {
+                        if (!byId.containsKey(id)) gone.add(id);
+                    }
+                    listener.onItemsChanged(changedItems, Collections.unmodifiableSet(gone));
+                }
+                published = true;
+                listener.onChanged(new ArrayList<>(byId.values()));
+            }
+            if (!nowPending.equals(pending)) {
+                pending = nowPending;
+                listener.onPendingWrites(Collections.unmodifiableSet(nowPending));
+            }
+        }
+    }
+}
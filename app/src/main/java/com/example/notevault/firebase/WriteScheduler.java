@@ -0,0 +1,325 @@
+package com.example.notevault.firebase;
+
+import com.example.notevault.metrics.WriteQueueStats;
+import com.example.notevault.utils.Futures;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Paces writes so hot documents and large cascades do not overload Firestore, which sustains
+ * about one write per second per document. Each document has a token bucket: a short burst
+ * goes out at once, after that one update per second. Updates arriving while a document is
+ * throttled merge into the one waiting, later values replacing earlier ones field by field,
+ * and every merged caller is told the outcome of the write that carried its fields.
+ *
+ * Unkeyed writes, such as batch commits, share a cap on how many may be unacknowledged at once.
+ * Document updates do not wait for it: offline, Firestore acknowledges a write only on reconnect,
+ * and an edit held back until then would not reach the local cache, so listeners would not see
+ * it. A batch not acknowledged within {@link #ACK_GRACE_MS} stops counting for the same reason.
+ *
+ * A batch names the documents it touches so it keeps its place among their updates: updates
+ * still waiting for a token go out ahead of it, and updates made while it waits for a slot are
+ * held until it has started, at most the grace period. Otherwise a rank respread could land after,
+ * and undo, a pin or hide made before it.
+ */
+public class WriteScheduler {
+
+    /** Applies a merged update to the document at {@code path}. */
+    public interface Backend {
+        void update(String operation, String path, Map<String, Object> fields, FirebaseManager.OperationCallback done);
+    }
+
+    /** A write that only counts against the cap, such as a batch commit. */
+    public interface Write {
+        void start(FirebaseManager.OperationCallback done);
+    }
+
+    /** Time and delayed tasks; replaced in tests by a manual clock. */
+    public interface Timer {
+        long nowMs();
+        void schedule(Runnable task, long delayMs);
+    }
+
+    static final double WRITES_PER_SECOND = 1;
+    /** Lets a quick toggle and its undo go out without waiting. */
+    static final int BURST = 3;
+    static final int MAX_IN_FLIGHT = 8;
+    static final long ACK_GRACE_MS = 10_000;
+    /** Documents with a full bucket and nothing queued are forgotten beyond this many. */
+    private static final int MAX_IDLE_DOCUMENTS = 1_000;
+
+    private final Backend backend;
+    private final Timer timer;
+    private final WriteQueueStats stats;
+    private final double tokensPerMs;
+    private final int burst;
+    private final int maxInFlight;
+
+    private final Map<String, Document> documents = new HashMap<>();
+    /** Batches that found every slot taken, run as slots free up. */
+    private final ArrayDeque<Runnable> waitingForSlot = new ArrayDeque<>();
+    /** Backend calls decided under the lock, made after releasing it. */
+    private List<Runnable> starts = new ArrayList<>();
+    private int inFlight;
+    private int queued;
+
+    private static final class Document {
+        final String path;
+        double tokens;
+        long refilledAt;
+        String operation;
+        Map<String, Object> pending;
+        List<Waiter> waiters;
+        /** Waiting for a token; the timer will dispatch it. */
+        boolean waiting;
+        /** Batches touching the document that wait for a slot; updates are held behind them. */
+        int batches;
+
+        Document(String path, double tokens, long now) {
+            this.path = path;
+            this.tokens = tokens;
+            this.refilledAt = now;
+        }
+    }
+
+    private static final class Waiter {
+        final FirebaseManager.OperationCallback callback;
+        final String message;
+
+        Waiter(FirebaseManager.OperationCallback callback, String message) {
+            this.callback = callback;
+            this.message = message;
+        }
+    }
+
+    public WriteScheduler(Backend backend, WriteQueueStats stats) {
+        this(backend, systemTimer(), stats, WRITES_PER_SECOND, BURST, MAX_IN_FLIGHT);
+    }
+
+    WriteScheduler(Backend backend, Timer timer, WriteQueueStats stats, double writesPerSecond, int burst, int maxInFlight) {
+        this.backend = backend;
+        this.timer = timer;
+        this.stats = stats;
+        this.tokensPerMs = writesPerSecond / 1000;
+        this.burst = burst;
+        this.maxInFlight = maxInFlight;
+    }
+
+    /**
+     * Update the document at {@code path}, now or, if it was written too often lately, merged
+     * into its next write. {@code callback} gets {@code message} once the write lands.
+     */
+    public void update(String operation, String path, Map<String, Object> fields, String message,
+                       FirebaseManager.OperationCallback callback) {
+        List<Runnable> toStart;
+        synchronized (this) {
+            stats.onSubmitted();
+            Document doc = document(path, timer.nowMs());
+            if (doc.pending != null) {
+                doc.pending.putAll(fields);
+                doc.waiters.add(new Waiter(callback, message));
+                stats.onMerged();
+                return;
+            }
+            doc.operation = operation;
+            doc.pending = new LinkedHashMap<>(fields);
+            doc.waiters = new ArrayList<>();
+            doc.waiters.add(new Waiter(callback, message));
+            setQueued(queued + 1);
+            dispatch(doc);
+            toStart = takeStarts();
+        }
+        run(toStart);
+    }
+
+    /** Run {@code write}, which touches no document updated here, once fewer than the cap are in flight. */
+    public void submit(Write write, FirebaseManager.OperationCallback callback) {
+        submit(Collections.emptyList(), write, callback);
+    }
+
+    /**
+     * Run {@code write}, which writes the documents at {@code paths}, once fewer than the cap are
+     * in flight. Updates of those documents still waiting go out now, ahead of it, and later ones
+     * wait until it has started, so neither overwrites the other out of order.
+     */
+    public void submit(Collection<String> paths, Write write, FirebaseManager.OperationCallback callback) {
+        List<Runnable> toStart;
+        synchronized (this) {
+            stats.onSubmitted();
+            setQueued(queued + 1);
+            long now = timer.nowMs();
+            List<Document> touched = new ArrayList<>(paths.size());
+            for (String path : paths) {
+                Document doc = document(path, now);
+                flush(doc, now);
+                doc.batches++;
+                touched.add(doc);
+            }
+            if (inFlight >= maxInFlight) stats.onWaitedForSlot();
+            dispatch(write, touched, callback);
+            toStart = takeStarts();
+        }
+        run(toStart);
+    }
+
+    /** Writes waiting for a token or, for batches, a slot. */
+    public synchronized int queued() {
+        return queued;
+    }
+
+    /** Batches sent and not yet acknowledged or past the grace period. */
+    public synchronized int inFlight() {
+        return inFlight;
+    }
+
+    private Document document(String path, long now) {
+        Document doc = documents.get(path);
+        if (doc == null) {
+            if (documents.size() >= MAX_IDLE_DOCUMENTS) forgetIdle(now);
+            doc = new Document(path, burst, now);
+            documents.put(path, doc);
+        }
+        return doc;
+    }
+
+    private void dispatch(Document doc) {
+        if (doc.waiting || doc.pending == null || doc.batches > 0) return;
+        refill(doc, timer.nowMs());
+        if (doc.tokens < 1) {
+            doc.waiting = true;
+            stats.onThrottled();
+            long wait = (long) Math.ceil((1 - doc.tokens) / tokensPerMs);
+            timer.schedule(() -> wake(doc), wait);
+            return;
+        }
+        doc.tokens -= 1;
+        send(doc);
+    }
+
+    /**
+     * Send the document's waiting update ahead of a batch, token or not. The bucket may go below
+     * zero, which spaces out the updates after it as if the batch's write had been one of them.
+     */
+    private void flush(Document doc, long now) {
+        if (doc.pending == null || doc.batches > 0) return;
+        refill(doc, now);
+        doc.tokens -= 1;
+        send(doc);
+    }
+
+    private void send(Document doc) {
+        String operation = doc.operation;
+        Map<String, Object> fields = doc.pending;
+        List<Waiter> waiters = doc.waiters;
+        doc.pending = null;
+        doc.waiters = null;
+        setQueued(queued - 1);
+        stats.onSent();
+        starts.add(() -> backend.update(operation, doc.path, fields, (success, message) -> {
+            for (Waiter waiter : waiters) {
+                if (waiter.callback != null) waiter.callback.onComplete(success, success ? waiter.message : message);
+            }
+        }));
+    }
+
+    private void dispatch(Write write, List<Document> touched, FirebaseManager.OperationCallback callback) {
+        if (inFlight >= maxInFlight) {
+            waitingForSlot.add(() -> dispatch(write, touched, callback));
+            return;
+        }
+        setQueued(queued - 1);
+        AtomicBoolean slot = acquireSlot();
+        starts.add(() -> write.start((success, message) -> {
+            release(slot);
+            if (callback != null) callback.onComplete(success, message);
+        }));
+        // Updates held behind the batch start after it
+        for (Document doc : touched) {
+            doc.batches--;
+            dispatch(doc);
+        }
+    }
+
+    /** Take an in-flight slot, given back on acknowledgement or after the grace period, whichever is first. */
+    private AtomicBoolean acquireSlot() {
+        inFlight++;
+        stats.onSent();
+        AtomicBoolean slot = new AtomicBoolean();
+        timer.schedule(() -> release(slot), ACK_GRACE_MS);
+        return slot;
+    }
+
+    private void release(AtomicBoolean slot) {
+        if (!slot.compareAndSet(false, true)) return;
+        List<Runnable> toStart;
+        synchronized (this) {
+            inFlight--;
+            while (inFlight < maxInFlight && !waitingForSlot.isEmpty()) waitingForSlot.poll().run();
+            toStart = takeStarts();
+        }
+        run(toStart);
+    }
+
+    private void wake(Document doc) {
+        List<Runnable> toStart;
+        synchronized (this) {
+            doc.waiting = false;
+            dispatch(doc);
+            toStart = takeStarts();
+        }
+        run(toStart);
+    }
+
+    private void refill(Document doc, long now) {
+        doc.tokens = Math.min(burst, doc.tokens + (now - doc.refilledAt) * tokensPerMs);
+        doc.refilledAt = now;
+    }
+
+    private void forgetIdle(long now) {
+        for (Iterator<Document> it = documents.values().iterator(); it.hasNext(); ) {
+            Document doc = it.next();
+            if (doc.pending != null || doc.waiting || doc.batches > 0) continue;
+            refill(doc, now);
+            if (doc.tokens >= burst) it.remove();
+        }
+    }
+
+    private void setQueued(int depth) {
+        queued = depth;
+        stats.setQueued(depth);
+    }
+
+    private List<Runnable> takeStarts() {
+        List<Runnable> taken = starts;
+        starts = new ArrayList<>();
+        return taken;
+    }
+
+    private static void run(List<Runnable> toStart) {
+        for (Runnable start : toStart) start.run();
+    }
+
+    private static Timer systemTimer() {
+        return new Timer() {
+            @Override
+            public long nowMs() {
+                return System.nanoTime() / 1_000_000;
+            }
+
+            @Override
+            public void schedule(Runnable task, long delayMs) {
+                Futures.schedule(task, delayMs, TimeUnit.MILLISECONDS);
+            }
+        };
+    }
+}
@@ -0,0 +1,67 @@
+package com.example.notevault.history;
+
+import com.example.notevault.model.NoteRevision;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Decides which old revisions of a note to drop. Revisions older than {@code maxAgeDays} are
+ * pruned, as is anything beyond the newest {@code maxRevisions}, but the newest
+ * {@code minRevisions} are always kept. The oldest surviving revision is rewritten as a
+ * snapshot when it was a delta, so every kept version can still be rebuilt.
+ */
+public class RetentionPolicy {
+
+    public static final RetentionPolicy DEFAULT = new RetentionPolicy(90, 50, 500);
+
+    private final int maxAgeDays;
+    private final int minRevisions;
+    private final int maxRevisions;
+
+    public RetentionPolicy(int maxAgeDays, int minRevisions, int maxRevisions) {
+        this.maxAgeDays = maxAgeDays;
+        this.minRevisions = minRevisions;
+        this.maxRevisions = maxRevisions;
+    }
+
+    public static class Plan {
+        /** Revision numbers to delete */
+        public final List<Integer> delete = new ArrayList<>();
+        /** Oldest kept revision turned into a snapshot, or null when it already is one */
+        public NoteRevision rewrite;
+
+        public boolean isEmpty() {
+            return delete.isEmpty() && rewrite == null;
+        }
+    }
+
+    /** @param revisions all revisions of one note, sorted by revision number */
+    public Plan plan(List<NoteRevision> revisions, Date now) {
+        Plan plan = new Plan();
+        int size = revisions.size();
+        long cutoff = now.getTime() - maxAgeDays * 24L * 60 * 60 * 1000;
+        int keepFrom = Math.max(0, size - maxRevisions);
+        while (keepFrom < size && isOlder(revisions.get(keepFrom), cutoff)) keepFrom++;
+        keepFrom = Math.min(keepFrom, Math.max(0, size - minRevisions));
+        if (keepFrom == 0) return plan;
+
+        for (int i = 0; i < keepFrom; i++) plan.delete.add(revisions.get(i).getRevision());
+        NoteRevision first = revisions.get(keepFrom);
+        if (!first.isSnapshot()) {
+            NoteRevision snapshot = new NoteRevision();
+            snapshot.setRevision(first.getRevision());
+            snapshot.setTitle(first.getTitle());
+            snapshot.setLength(first.getLength());
+            snapshot.setCreatedAt(first.getCreatedAt());
+            snapshot.setSnapshot(RevisionHistory.contentAt(revisions, first.getRevision()));
+            plan.rewrite = snapshot;
+        }
+        return plan;
+    }
+
+    private static boolean isOlder(NoteRevision revision, long cutoff) {
+        return revision.getCreatedAt() != null && revision.getCreatedAt().getTime() < cutoff;
+    }
+}
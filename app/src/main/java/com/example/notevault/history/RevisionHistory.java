@@ -0,0 +1,78 @@
+package com.example.notevault.history;
+
+import com.example.notevault.model.NoteRevision;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Builds and replays note revisions. Most revisions store a {@link TextDelta} against the one
+ * before; every {@link #SNAPSHOT_INTERVAL}-th stores the full content, so rebuilding any version
+ * replays at most SNAPSHOT_INTERVAL - 1 deltas.
+ */
+public final class RevisionHistory {
+
+    public static final int SNAPSHOT_INTERVAL = 20;
+
+    private RevisionHistory() {
+    }
+
+    /** Document id of a revision; zero-padded so ids sort in revision order. */
+    public static String revisionId(int revision) {
+        return String.format(Locale.US, "%08d", revision);
+    }
+
+    /**
+     * The revision recording {@code content} as version number {@code revision}.
+     * {@code previousContent} is null when the previous version is unknown, which forces a snapshot.
+     */
+    public static NoteRevision create(int revision, String previousContent, String title, String content, Date createdAt) {
+        String text = content != null ? content : "";
+        NoteRevision r = new NoteRevision();
+        r.setRevision(revision);
+        r.setTitle(title);
+        r.setLength(text.length());
+        r.setCreatedAt(createdAt);
+        if (previousContent == null || (revision - 1) % SNAPSHOT_INTERVAL == 0) {
+            r.setSnapshot(text);
+        } else {
+            r.setDelta(TextDelta.encode(previousContent, text));
+        }
+        return r;
+    }
+
+    /**
+     * Content as of {@code revision}. {@code revisions} must be sorted by revision number and
+     * contain the nearest snapshot at or before it along with every revision in between.
+     */
+    public static String contentAt(List<NoteRevision> revisions, int revision) {
+        int target = indexOf(revisions, revision);
+        if (target < 0) throw new IllegalArgumentException("No revision " + revision);
+        int start = target;
+        while (start >= 0 && !revisions.get(start).isSnapshot()) start--;
+        if (start < 0) throw new IllegalStateException("No snapshot before revision " + revision);
+        String content = revisions.get(start).getSnapshot();
+        for (int i = start + 1; i <= target; i++) {
+            NoteRevision r = revisions.get(i);
+            if (r.getRevision() != revisions.get(i - 1).getRevision() + 1) {
+                throw new IllegalStateException("Missing revision before " + r.getRevision());
+            }
+            content = r.isSnapshot() ? r.getSnapshot() : TextDelta.apply(content, r.getDelta());
+        }
+        return content;
+    }
+
+    static int indexOf(List<NoteRevision> revisions, int revision) {
+        int lo = 0;
+        int hi = revisions.size() - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int r = revisions.get(mid).getRevision();
+            if (r < revision) lo = mid + 1;
+            else if (r > revision) hi = mid - 1;
+            else return mid;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,91 @@
+package com.example.notevault.history;
+
+import com.example.notevault.diff.LineDiff;
+
+import java.util.List;
+
+/**
+ * Line-based edit script turning one version of a note into the next, stored as a compact string:
+ * <pre>
+ * =N       copy the next N lines of the old version
+ * -N       skip the next N lines of the old version
+ * +L:text  insert L characters of new text
+ * </pre>
+ * An edit in the middle of a long note encodes as something like "=40-1+23:...=12".
+ */
+public final class TextDelta {
+
+    private TextDelta() {
+    }
+
+    public static String encode(String from, String to) {
+        List<String> a = LineDiff.splitLines(from);
+        List<String> b = LineDiff.splitLines(to);
+        StringBuilder out = new StringBuilder();
+        int ai = 0;
+        int bi = 0;
+        int copy = 0;
+        for (int[] match : LineDiff.matches(a, b)) {
+            if (match[0] > ai || match[1] > bi) {
+                copy = flushCopy(out, copy);
+                appendChange(out, a, ai, match[0], b, bi, match[1]);
+            }
+            copy++;
+            ai = match[0] + 1;
+            bi = match[1] + 1;
+        }
+        flushCopy(out, copy);
+        appendChange(out, a, ai, a.size(), b, bi, b.size());
+        return out.toString();
+    }
+
+    public static String apply(String from, String delta) {
+        List<String> lines = LineDiff.splitLines(from);
+        StringBuilder out = new StringBuilder();
+        int line = 0;
+        int pos = 0;
+        while (pos < delta.length()) {
+            char op = delta.charAt(pos++);
+            int start = pos;
+            while (pos < delta.length() && Character.isDigit(delta.charAt(pos))) pos++;
+            if (start == pos) throw new IllegalArgumentException("Malformed delta at " + start);
+            int count = Integer.parseInt(delta.substring(start, pos));
+            switch (op) {
+                case '=':
+                    if (line + count > lines.size()) throw new IllegalArgumentException("Delta copies past end");
+                    for (int i = 0; i < count; i++) out.append(lines.get(line++));
+                    break;
+                case '-':
+                    if (line + count > lines.size()) throw new IllegalArgumentException("Delta skips past end");
+                    line += count;
+                    break;
+                case '+':
+                    if (pos >= delta.length() || delta.charAt(pos) != ':' || pos + 1 + count > delta.length()) {
+                        throw new IllegalArgumentException("Malformed insert at " + start);
+                    }
+                    out.append(delta, pos + 1, pos + 1 + count);
+                    pos += 1 + count;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown delta op '" + op + "'");
+            }
+        }
+        if (line != lines.size()) throw new IllegalArgumentException("Delta does not cover the old version");
+        return out.toString();
+    }
+
+    private static int flushCopy(StringBuilder out, int copy) {
+        if (copy > 0) out.append('=').append(copy);
+        return 0;
+    }
+
+    private static void appendChange(StringBuilder out, List<String> a, int aFrom, int aTo,
+                                     List<String> b, int bFrom, int bTo) {
+        if (aTo > aFrom) out.append('-').append(aTo - aFrom);
+        if (bTo > bFrom) {
+            StringBuilder inserted = new StringBuilder();
+            for (int i = bFrom; i < bTo; i++) inserted.append(b.get(i));
+            out.append('+').append(inserted.length()).append(':').append(inserted);
+        }
+    }
+}
@@ -0,0 +1,197 @@
+package com.example.notevault.metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
+
+/**
+ * Collects latency, document counts and cache origin for every Firestore call the app makes,
+ * and forwards each event to the registered {@link MetricsSink}s. Snapshots delivered while the
+ * app is in the background are counted separately, as wakeups. Thread-safe.
+ */
+public final class FirestoreMetrics {
+
+    private static final FirestoreMetrics INSTANCE = new FirestoreMetrics(System::nanoTime);
+
+    private final LongSupplier clock;
+    private final Map<String, OperationStats> operations = new ConcurrentHashMap<>();
+    private final Map<String, ListenerStats> listeners = new ConcurrentHashMap<>();
+    private final List<MetricsSink> sinks = new CopyOnWriteArrayList<>();
+    private final AtomicInteger nextCookie = new AtomicInteger();
+    private final AtomicBoolean inBackground = new AtomicBoolean();
+    private final WriteQueueStats writeQueue = new WriteQueueStats();
+
+    /** {@code clock} returns nanoseconds, like {@link System#nanoTime()}. */
+    FirestoreMetrics(LongSupplier clock) {
+        this.clock = clock;
+    }
+
+    public static FirestoreMetrics getInstance() {
+        return INSTANCE;
+    }
+
+    public void addSink(MetricsSink sink) {
+        sinks.add(sink);
+    }
+
+    public void removeSink(MetricsSink sink) {
+        sinks.remove(sink);
+    }
+
+    /** Start timing one call of {@code operation}; end the returned span when it completes. */
+    public Span start(String operation) {
+        OperationStats stats = operations.computeIfAbsent(operation, OperationStats::new);
+        stats.inFlight.incrementAndGet();
+        Span span = new Span(stats, nextCookie.incrementAndGet(), clock.getAsLong());
+        for (MetricsSink sink : sinks) sink.onOperationStarted(operation, span.cookie);
+        return span;
+    }
+
+    /** Whether the app has no visible activity; snapshots recorded meanwhile count as background wakeups. */
+    public void setInBackground(boolean background) {
+        inBackground.set(background);
+    }
+
+    public boolean isInBackground() {
+        return inBackground.get();
+    }
+
+    /** {@code bytes} is the approximate size of the changed documents downloaded for this snapshot. */
+    public void recordSnapshot(String listener, int documents, int changes, long bytes, boolean fromCache) {
+        ListenerStats stats = listeners.computeIfAbsent(listener, ListenerStats::new);
+        stats.snapshots.incrementAndGet();
+        stats.changes.addAndGet(changes);
+        stats.bytes.addAndGet(bytes);
+        if (fromCache) {
+            stats.fromCache.incrementAndGet();
+        } else {
+            stats.billedReads.addAndGet(changes);
+        }
+        if (inBackground.get()) {
+            stats.backgroundSnapshots.incrementAndGet();
+            stats.backgroundBytes.addAndGet(bytes);
+        }
+        for (MetricsSink sink : sinks) sink.onSnapshot(listener, documents, changes, fromCache);
+    }
+
+    /** A snapshot of {@code listener}, already recorded, in which no document changed, only metadata. */
+    public void recordMetadataOnly(String listener) {
+        listeners.computeIfAbsent(listener, ListenerStats::new).metadataOnly.incrementAndGet();
+    }
+
+    /** Main-thread time spent on one snapshot of {@code listener}; see {@link MainThreadTimer}. */
+    public void recordMainThread(String listener, long nanos) {
+        listeners.computeIfAbsent(listener, ListenerStats::new).mainThread.record(nanos);
+    }
+
+    public void listenerAttached(String listener) {
+        ListenerStats stats = listeners.computeIfAbsent(listener, ListenerStats::new);
+        stats.attached.incrementAndGet();
+        int active = stats.active.incrementAndGet();
+        for (MetricsSink sink : sinks) sink.onListenersChanged(listener, active);
+    }
+
+    public void listenerDetached(String listener) {
+        ListenerStats stats = listeners.computeIfAbsent(listener, ListenerStats::new);
+        int active = stats.active.decrementAndGet();
+        for (MetricsSink sink : sinks) sink.onListenersChanged(listener, active);
+    }
+
+    /** Operations by name, sorted. */
+    public Map<String, OperationStats> operations() {
+        return new TreeMap<>(operations);
+    }
+
+    /** Listeners by name, sorted. */
+    public Map<String, ListenerStats> listeners() {
+        return new TreeMap<>(listeners);
+    }
+
+    /** Counters of the app's write scheduler. */
+    public WriteQueueStats writeQueue() {
+        return writeQueue;
+    }
+
+    /** Zero the counters; calls in flight and attached listeners are still tracked. */
+    public void reset() {
+        for (OperationStats stats : operations.values()) stats.reset();
+        for (ListenerStats stats : listeners.values()) stats.reset();
+        writeQueue.reset();
+    }
+
+    /** Plain-text table of everything recorded, for the debug screen and logs. */
+    public String report() {
+        long reads = 0;
+        long writes = 0;
+        long wakeups = 0;
+        long backgroundBytes = 0;
+        List<String> lines = new ArrayList<>();
+        lines.add("OPERATIONS  calls/failed  p50 p90 p99 max (ms)  read/written  cache  pending");
+        for (OperationStats op : operations().values()) {
+            if (op.calls() == 0 && op.inFlight() == 0) continue;
+            reads += op.documentsRead();
+            writes += op.documentsWritten();
+            LatencyHistogram h = op.latency;
+            lines.add(String.format(Locale.US, "%s  %d/%d  %.0f %.0f %.0f %.0f  %d/%d  %d  %d", op.name,
+                    op.calls(), op.failures(), h.percentileMillis(0.5), h.percentileMillis(0.9),
+                    h.percentileMillis(0.99), h.maxMillis(), op.documentsRead(), op.documentsWritten(),
+                    op.fromCache(), op.inFlight()));
+        }
+        lines.add("");
+        lines.add("LISTENERS  active/attached  snapshots (cache)  changes  billed reads  KB  background snapshots/KB  main thread mean p90 (ms)  metadata-only");
+        for (ListenerStats listener : listeners().values()) {
+            reads += listener.billedReads();
+            wakeups += listener.backgroundSnapshots();
+            backgroundBytes += listener.backgroundBytes();
+            lines.add(String.format(Locale.US, "%s  %d/%d  %d (%d)  %d  %d  %.1f  %d/%.1f  %.2f %.0f  %d", listener.name,
+                    listener.active(), listener.attached(), listener.snapshots(), listener.fromCache(),
+                    listener.changes(), listener.billedReads(), listener.bytes() / 1024.0,
+                    listener.backgroundSnapshots(), listener.backgroundBytes() / 1024.0,
+                    listener.mainThread.meanMillis(), listener.mainThread.percentileMillis(0.9),
+                    listener.metadataOnly()));
+        }
+        lines.add("");
+        lines.add(String.format(Locale.US, "TOTAL  %d documents read, %d written", reads, writes));
+        lines.add(String.format(Locale.US, "BACKGROUND  %d wakeups, %.1f KB", wakeups, backgroundBytes / 1024.0));
+        lines.add(String.format(Locale.US, "WRITE QUEUE  %d submitted, %d sent, %d merged, %d throttled, %d waited for a slot, %d queued (max %d)",
+                writeQueue.submitted(), writeQueue.sent(), writeQueue.merged(), writeQueue.throttled(),
+                writeQueue.waitedForSlot(), writeQueue.queued(), writeQueue.maxQueued()));
+        return String.join("\n", lines);
+    }
+
+    /** One call of an operation; only the first {@link #end} counts. */
+    public final class Span {
+
+        private final OperationStats stats;
+        private final int cookie;
+        private final long startNanos;
+        private final AtomicBoolean ended = new AtomicBoolean();
+
+        private Span(OperationStats stats, int cookie, long startNanos) {
+            this.stats = stats;
+            this.cookie = cookie;
+            this.startNanos = startNanos;
+        }
+
+        public void end(boolean success, int documentsRead, int documentsWritten, boolean fromCache) {
+            if (!ended.compareAndSet(false, true)) return;
+            long nanos = clock.getAsLong() - startNanos;
+            stats.inFlight.decrementAndGet();
+            stats.latency.record(nanos);
+            if (!success) stats.failures.incrementAndGet();
+            stats.documentsRead.addAndGet(documentsRead);
+            stats.documentsWritten.addAndGet(documentsWritten);
+            if (fromCache) stats.fromCache.incrementAndGet();
+            for (MetricsSink sink : sinks) {
+                sink.onOperationFinished(stats.name, cookie, nanos, success, documentsRead, documentsWritten, fromCache);
+            }
+        }
+    }
+}
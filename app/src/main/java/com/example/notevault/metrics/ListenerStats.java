@@ -0,0 +1,83 @@
+package com.example.notevault.metrics;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/** Running totals for one kind of snapshot listener. */
+public final class ListenerStats {
+
+    public final String name;
+    /** Main-thread time spent on each snapshot: delivery, if it ran there, and publishing it to the UI. */
+    public final LatencyHistogram mainThread = new LatencyHistogram();
+    final AtomicInteger active = new AtomicInteger();
+    final AtomicLong attached = new AtomicLong();
+    final AtomicLong snapshots = new AtomicLong();
+    final AtomicLong fromCache = new AtomicLong();
+    final AtomicLong changes = new AtomicLong();
+    final AtomicLong metadataOnly = new AtomicLong();
+    final AtomicLong billedReads = new AtomicLong();
+    final AtomicLong bytes = new AtomicLong();
+    final AtomicLong backgroundSnapshots = new AtomicLong();
+    final AtomicLong backgroundBytes = new AtomicLong();
+
+    ListenerStats(String name) {
+        this.name = name;
+    }
+
+    public int active() {
+        return active.get();
+    }
+
+    public long attached() {
+        return attached.get();
+    }
+
+    public long snapshots() {
+        return snapshots.get();
+    }
+
+    public long fromCache() {
+        return fromCache.get();
+    }
+
+    public long changes() {
+        return changes.get();
+    }
+
+    /** Snapshots where only metadata changed, typically the server confirming a local write. */
+    public long metadataOnly() {
+        return metadataOnly.get();
+    }
+
+    /** Document changes delivered by the server; cache snapshots cost nothing. */
+    public long billedReads() {
+        return billedReads.get();
+    }
+
+    /** Approximate size of the changed documents downloaded from the server. */
+    public long bytes() {
+        return bytes.get();
+    }
+
+    /** Snapshots delivered while the app was in the background; each one woke the process. */
+    public long backgroundSnapshots() {
+        return backgroundSnapshots.get();
+    }
+
+    public long backgroundBytes() {
+        return backgroundBytes.get();
+    }
+
+    void reset() {
+        mainThread.reset();
+        attached.set(0);
+        snapshots.set(0);
+        fromCache.set(0);
+        changes.set(0);
+        metadataOnly.set(0);
+        billedReads.set(0);
+        bytes.set(0);
+        backgroundSnapshots.set(0);
+        backgroundBytes.set(0);
+    }
+}
@@ -0,0 +1,25 @@
+package com.example.notevault.metrics;
+
+import androidx.tracing.Trace;
+
+/**
+ * Times main-thread work done for a snapshot listener, as a trace section and in
+ * {@link ListenerStats#mainThread}. Snapshots are decoded in the background, so what is left on
+ * the main thread is mostly handing the result to the UI; that is what this should wrap.
+ */
+public final class MainThreadTimer {
+
+    private MainThreadTimer() {}
+
+    /** Run {@code work}, which must be on the main thread, and count its time against {@code listener}. */
+    public static void time(String listener, Runnable work) {
+        Trace.beginSection("Firestore main " + listener);
+        long start = System.nanoTime();
+        try {
+            work.run();
+        } finally {
+            FirestoreMetrics.getInstance().recordMainThread(listener, System.nanoTime() - start);
+            Trace.endSection();
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package com.example.notevault.metrics;
+
+/**
+ * Receives Firestore metrics events as they happen, on whichever thread produced them.
+ * Register with {@link FirestoreMetrics#addSink}; tests use one to assert what was recorded.
+ */
+public interface MetricsSink {
+
+    /** {@code cookie} is unique among operations in flight and is passed again when it finishes. */
+    default void onOperationStarted(String operation, int cookie) {}
+
+    void onOperationFinished(String operation, int cookie, long nanos, boolean success,
+                             int documentsRead, int documentsWritten, boolean fromCache);
+
+    /** {@code changes} is the number of document changes; only those are billed, and only when not from cache. */
+    void onSnapshot(String listener, int documents, int changes, boolean fromCache);
+
+    default void onListenersChanged(String listener, int active) {}
+}
@@ -0,0 +1,54 @@
+package com.example.notevault.metrics;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/** Running totals for one named Firestore query or mutation. */
+public final class OperationStats {
+
+    public final String name;
+    public final LatencyHistogram latency = new LatencyHistogram();
+    final AtomicInteger inFlight = new AtomicInteger();
+    final AtomicLong failures = new AtomicLong();
+    final AtomicLong documentsRead = new AtomicLong();
+    final AtomicLong documentsWritten = new AtomicLong();
+    final AtomicLong fromCache = new AtomicLong();
+
+    OperationStats(String name) {
+        this.name = name;
+    }
+
+    public long calls() {
+        return latency.count();
+    }
+
+    /** Started but not yet acknowledged; writes stay here while offline. */
+    public int inFlight() {
+        return inFlight.get();
+    }
+
+    public long failures() {
+        return failures.get();
+    }
+
+    public long documentsRead() {
+        return documentsRead.get();
+    }
+
+    public long documentsWritten() {
+        return documentsWritten.get();
+    }
+
+    /** Calls answered from the local cache rather than the server. */
+    public long fromCache() {
+        return fromCache.get();
+    }
+
+    void reset() {
+        latency.reset();
+        failures.set(0);
+        documentsRead.set(0);
+        documentsWritten.set(0);
+        fromCache.set(0);
+    }
+}
@@ -0,0 +1,36 @@
+package com.example.notevault.metrics;
+
+import androidx.tracing.Trace;
+
+/**
+ * Shows Firestore calls as async sections and listener activity as counters in system traces
+ * (Perfetto, Android Studio profiler).
+ */
+public class TracingSink implements MetricsSink {
+
+    @Override
+    public void onOperationStarted(String operation, int cookie) {
+        if (Trace.isEnabled()) Trace.beginAsyncSection(sectionName(operation), cookie);
+    }
+
+    @Override
+    public void onOperationFinished(String operation, int cookie, long nanos, boolean success,
+                                    int documentsRead, int documentsWritten, boolean fromCache) {
+        // Ended even when tracing was switched on mid-call; an unmatched end is ignored
+        Trace.endAsyncSection(sectionName(operation), cookie);
+    }
+
+    @Override
+    public void onSnapshot(String listener, int documents, int changes, boolean fromCache) {
+        if (Trace.isEnabled()) Trace.setCounter("Firestore docs " + listener, documents);
+    }
+
+    @Override
+    public void onListenersChanged(String listener, int active) {
+        if (Trace.isEnabled()) Trace.setCounter("Firestore listeners " + listener, active);
+    }
+
+    private static String sectionName(String operation) {
+        return "Firestore " + operation;
+    }
+}
@@ -0,0 +1,87 @@
+package com.example.notevault.metrics;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/** Running totals for the write scheduler, which paces writes to hot documents. */
+public final class WriteQueueStats {
+
+    final AtomicLong submitted = new AtomicLong();
+    final AtomicLong sent = new AtomicLong();
+    final AtomicLong merged = new AtomicLong();
+    final AtomicLong throttled = new AtomicLong();
+    final AtomicLong waitedForSlot = new AtomicLong();
+    final AtomicInteger queued = new AtomicInteger();
+    final AtomicInteger maxQueued = new AtomicInteger();
+
+    public WriteQueueStats() {
+    }
+
+    public void onSubmitted() {
+        submitted.incrementAndGet();
+    }
+
+    public void onSent() {
+        sent.incrementAndGet();
+    }
+
+    public void onMerged() {
+        merged.incrementAndGet();
+    }
+
+    public void onThrottled() {
+        throttled.incrementAndGet();
+    }
+
+    public void onWaitedForSlot() {
+        waitedForSlot.incrementAndGet();
+    }
+
+    public void setQueued(int depth) {
+        queued.set(depth);
+        maxQueued.accumulateAndGet(depth, Math::max);
+    }
+
+    public long submitted() {
+        return submitted.get();
+    }
+
+    /** Writes handed to Firestore; fewer than submitted by the number merged. */
+    public long sent() {
+        return sent.get();
+    }
+
+    /** Writes folded into one already waiting for the same document. */
+    public long merged() {
+        return merged.get();
+    }
+
+    /** Times a document ran out of write budget and had to wait. */
+    public long throttled() {
+        return throttled.get();
+    }
+
+    /** Times a write waited because too many were in flight. */
+    public long waitedForSlot() {
+        return waitedForSlot.get();
+    }
+
+    /** Writes waiting right now. */
+    public int queued() {
+        return queued.get();
+    }
+
+    public int maxQueued() {
+        return maxQueued.get();
+    }
+
+    /** Zero the counters; the queue itself is unaffected. */
+    void reset() {
+        submitted.set(0);
+        sent.set(0);
+        merged.set(0);
+        throttled.set(0);
+        waitedForSlot.set(0);
+        maxQueued.set(queued.get());
+    }
+}
@@ -0,0 +1,137 @@
+package com.example.notevault.migration;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+/**
+ * Runs pending {@link SchemaMigration}s for one user as a paged, batched backfill.
+ *
+ * Each page of documents is migrated and committed together with a cursor, so a run that
+ * is killed part-way resumes after the last committed page. Pages are spaced out by a
+ * throttle delay to keep the backfill from competing with the user's own reads and writes.
+ */
+public class MigrationRunner {
+
+    public static final int DEFAULT_PAGE_SIZE = 200;
+    public static final long DEFAULT_THROTTLE_MS = 250;
+
+    public interface Listener {
+        void onProgress(int version, int scanned, int updated);
+        void onComplete(boolean success, String message);
+    }
+
+    /** Pause between pages; replaced in tests so throttling does not slow them down. */
+    public interface Sleeper {
+        void sleep(long millis) throws InterruptedException;
+    }
+
+    private final MigrationStore store;
+    private final List<SchemaMigration> migrations;
+    private final Executor executor;
+    private final int pageSize;
+    private final long throttleMs;
+    private final Sleeper sleeper;
+
+    public MigrationRunner(MigrationStore store, List<SchemaMigration> migrations, Executor executor) {
+        this(store, migrations, executor, DEFAULT_PAGE_SIZE, DEFAULT_THROTTLE_MS, Thread::sleep);
+    }
+
+    public MigrationRunner(MigrationStore store, List<SchemaMigration> migrations, Executor executor,
+                           int pageSize, long throttleMs, Sleeper sleeper) {
+        this.store = store;
+        this.migrations = new ArrayList<>(migrations);
+        Collections.sort(this.migrations, Comparator.comparingInt(SchemaMigration::version));
+        this.executor = executor;
+        this.pageSize = pageSize;
+        this.throttleMs = throttleMs;
+        this.sleeper = sleeper;
+    }
+
+    /** Run every migration newer than the user's recorded schema version on the executor. */
+    public void runPending(String userId, Listener listener) {
+        executor.execute(() -> {
+            try {
+                int current = store.readSchemaVersion(userId);
+                int applied = 0;
+                for (SchemaMigration migration : migrations) {
+                    if (migration.version() <= current) continue;
+                    run(userId, migration, listener);
+                    store.writeSchemaVersion(userId, migration.version());
+                    current = migration.version();
+                    applied++;
+                }
+                if (listener != null) listener.onComplete(true, applied == 0
+                        ? "Schema up to date" : "Applied " + applied + " migration(s), now at v" + current);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                if (listener != null) listener.onComplete(false, "Interrupted");
+            } catch (Exception e) {
+                if (listener != null) listener.onComplete(false, e.getMessage());
+            }
+        });
+    }
+
+    private void run(String userId, SchemaMigration migration, Listener listener) throws Exception {
+        ResumePoint resume = ResumePoint.parse(store.readCursor(userId), migration.version());
+        int scanned = 0;
+        int updated = 0;
+        for (MigrationStore.Kind kind : MigrationStore.Kind.values()) {
+            if (resume != null && kind.ordinal() < resume.kind.ordinal()) continue;
+            if (!migration.appliesTo(kind)) continue;
+            String cursor = resume != null && resume.kind == kind ? resume.cursor : null;
+            while (true) {
+                MigrationStore.Page page = store.scan(userId, kind, cursor, pageSize);
+                List<MigrationStore.Update> updates = new ArrayList<>();
+                for (MigrationStore.StoredDocument doc : page.docs) {
+                    Map<String, Object> fields = migration.migrate(doc, userId);
+                    if (fields != null && !fields.isEmpty()) updates.add(new MigrationStore.Update(doc, fields));
+                }
+                scanned += page.docs.size();
+                updated += updates.size();
+                if (page.nextCursor == null) {
+                    if (!updates.isEmpty()) store.commit(userId, updates, ResumePoint.format(migration.version(), kind, null));
+                    break;
+                }
+                store.commit(userId, updates, ResumePoint.format(migration.version(), kind, page.nextCursor));
+                cursor = page.nextCursor;
+                if (listener != null) listener.onProgress(migration.version(), scanned, updated);
+                if (throttleMs > 0) sleeper.sleep(throttleMs);
+            }
+        }
+        if (listener != null) listener.onProgress(migration.version(), scanned, updated);
+    }
+
+    /**
+     * Where an interrupted migration stopped, stored as "version|kind|cursor".
+     * A cursor saved by a different migration version is ignored.
+     */
+    static final class ResumePoint {
+        final MigrationStore.Kind kind;
+        final String cursor;
+
+        private ResumePoint(MigrationStore.Kind kind, String cursor) {
+            this.kind = kind;
+            this.cursor = cursor;
+        }
+
+        static String format(int version, MigrationStore.Kind kind, String cursor) {
+            return version + "|" + kind.name() + "|" + (cursor != null ? cursor : "");
+        }
+
+        static ResumePoint parse(String saved, int version) {
+            if (saved == null) return null;
+            String[] parts = saved.split("\\|", 3);
+            if (parts.length != 3 || !parts[0].equals(String.valueOf(version))) return null;
+            try {
+                MigrationStore.Kind kind = MigrationStore.Kind.valueOf(parts[1]);
+                return new ResumePoint(kind, parts[2].isEmpty() ? null : parts[2]);
+            } catch (IllegalArgumentException e) {
+                return null;
+            }
+        }
+    }
+}
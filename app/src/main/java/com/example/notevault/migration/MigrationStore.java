@@ -0,0 +1,65 @@
+package com.example.notevault.migration;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Storage operations the {@link MigrationRunner} needs. Calls are blocking and are only
+ * made from the runner's background executor, so a Firestore implementation can await
+ * its tasks and a test implementation can be a plain map.
+ */
+public interface MigrationStore {
+
+    enum Kind { FOLDERS, NOTES }
+
+    /** A document as seen by a migration: its location plus its current fields. */
+    final class StoredDocument {
+        public final Kind kind;
+        public final String folderId;
+        public final String id;
+        public final Map<String, Object> data;
+
+        public StoredDocument(Kind kind, String folderId, String id, Map<String, Object> data) {
+            this.kind = kind;
+            this.folderId = folderId;
+            this.id = id;
+            this.data = data;
+        }
+    }
+
+    /** Field updates for one document, applied together in {@link #commit}. */
+    final class Update {
+        public final StoredDocument doc;
+        public final Map<String, Object> fields;
+
+        public Update(StoredDocument doc, Map<String, Object> fields) {
+            this.doc = doc;
+            this.fields = fields;
+        }
+    }
+
+    /** One page of a scan, plus the opaque cursor that continues after it (null at the end). */
+    final class Page {
+        public final List<StoredDocument> docs;
+        public final String nextCursor;
+
+        public Page(List<StoredDocument> docs, String nextCursor) {
+            this.docs = docs;
+            this.nextCursor = nextCursor;
+        }
+    }
+
+    int readSchemaVersion(String userId) throws Exception;
+
+    /** Cursor saved by the last {@link #commit}, or null when no migration is in progress. */
+    String readCursor(String userId) throws Exception;
+
+    /** Read up to {@code pageSize} documents of {@code kind} after {@code cursor} (null = from the start). */
+    Page scan(String userId, Kind kind, String cursor, int pageSize) throws Exception;
+
+    /** Apply {@code updates} and save {@code cursor} atomically, so a crash never loses or repeats progress. */
+    void commit(String userId, List<Update> updates, String cursor) throws Exception;
+
+    /** Record that every migration up to {@code version} is done and clear the cursor. */
+    void writeSchemaVersion(String userId, int version) throws Exception;
+}
@@ -0,0 +1,73 @@
+package com.example.notevault.migration;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The schema history of a NoteVault account. Append new migrations at the end with the next
+ * version number and bump {@link #LATEST_VERSION}; never change one that has shipped.
+ */
+public final class Migrations {
+
+    public static final int LATEST_VERSION = 3;
+
+    private Migrations() {
+    }
+
+    public static List<SchemaMigration> all() {
+        return Collections.unmodifiableList(Arrays.asList(
+                new BackfillNoteOwner(),
+                new BackfillVisibilityFlags(),
+                new BackfillRecycleBinFields()));
+    }
+
+    /**
+     * v1: notes written before collection group queries lack userId (and sometimes folderId),
+     * so the Recycle Bin and Hidden screens never see them.
+     */
+    static final class BackfillNoteOwner implements SchemaMigration {
+        @Override public int version() { return 1; }
+        @Override public String description() { return "Backfill note userId/folderId"; }
+        @Override public boolean appliesTo(MigrationStore.Kind kind) { return kind == MigrationStore.Kind.NOTES; }
+
+        @Override
+        public Map<String, Object> migrate(MigrationStore.StoredDocument doc, String userId) {
+            Map<String, Object> updates = new HashMap<>();
+            if (!(doc.data.get("userId") instanceof String)) updates.put("userId", userId);
+            if (!(doc.data.get("folderId") instanceof String) && doc.folderId != null) updates.put("folderId", doc.folderId);
+            return updates;
+        }
+    }
+
+    /** v2: isHidden/isLocked were added later; equality filters skip documents without them. */
+    static final class BackfillVisibilityFlags implements SchemaMigration {
+        @Override public int version() { return 2; }
+        @Override public String description() { return "Backfill isHidden/isLocked"; }
+        @Override public boolean appliesTo(MigrationStore.Kind kind) { return true; }
+
+        @Override
+        public Map<String, Object> migrate(MigrationStore.StoredDocument doc, String userId) {
+            Map<String, Object> updates = new HashMap<>();
+            if (!(doc.data.get("isHidden") instanceof Boolean)) updates.put("isHidden", false);
+            if (!(doc.data.get("isLocked") instanceof Boolean)) updates.put("isLocked", false);
+            return updates;
+        }
+    }
+
+    /** v3: recycle bin fields arrived last; documents without isDeleted never reach the bin queries. */
+    static final class BackfillRecycleBinFields implements SchemaMigration {
+        @Override public int version() { return 3; }
+        @Override public String description() { return "Backfill isDeleted"; }
+        @Override public boolean appliesTo(MigrationStore.Kind kind) { return true; }
+
+        @Override
+        public Map<String, Object> migrate(MigrationStore.StoredDocument doc, String userId) {
+            Map<String, Object> updates = new HashMap<>();
+            if (!(doc.data.get("isDeleted") instanceof Boolean)) updates.put("isDeleted", false);
+            return updates;
+        }
+    }
+}
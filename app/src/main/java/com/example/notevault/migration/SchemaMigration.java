@@ -0,0 +1,27 @@
+package com.example.notevault.migration;
+
+import java.util.Map;
+
+/**
+ * One step of the Firestore schema history. Migrations run in ascending {@link #version()}
+ * order; once every document has been visited the user document records that version.
+ * Implementations must be idempotent: a resumed run may show them a document twice.
+ */
+public interface SchemaMigration {
+
+    int version();
+
+    String description();
+
+    /** Whether this migration needs to visit documents of the given kind. */
+    boolean appliesTo(MigrationStore.Kind kind);
+
+    /**
+     * Compute the fields to update on one document.
+     *
+     * @param doc the stored document, including the folder it belongs to
+     * @param userId owner of the vault being migrated
+     * @return fields to merge into the document, or an empty map when it is already up to date
+     */
+    Map<String, Object> migrate(MigrationStore.StoredDocument doc, String userId);
+}
@@ -1,5 +1,6 @@
 package com.example.notevault.model;
 
+import com.google.firebase.firestore.Blob;
 import com.google.firebase.firestore.Exclude;
 import com.google.firebase.firestore.ServerTimestamp;
 
@@ -24,10 +25,18 @@ public class Folder {
     private Date deletedAt;
     /** When true, folder appears in Hidden section only */
     private boolean isHidden;
+    /** When true, folder is shown above the others, from its own query */
+    private boolean isPinned;
     /** When true, user must enter password to open folder */
     private boolean isLocked;
-    /** SHA-256 hash of lock password (never store plain password) */
+    /** SHA-256 hash of lock password (folders locked before content encryption only) */
     private String passwordHash;
+    /** scrypt salt of the key that encrypts this folder's notes */
+    private Blob keySalt;
+    /** Known value encrypted with that key, to check a password without decrypting notes */
+    private Blob keyCheck;
+    /** Place in manual order (see {@link com.example.notevault.sort.RankKeys}); null until first reordered */
+    private String rank;
 
     public Folder() {
     }
@@ -111,4 +120,36 @@ public class Folder {
     public void setPasswordHash(String passwordHash) {
         this.passwordHash = passwordHash;
     }
+
+    public Blob getKeySalt() {
+        return keySalt;
+    }
+
+    public void setKeySalt(Blob keySalt) {
+        this.keySalt = keySalt;
+    }
+
+    public Blob getKeyCheck() {
+        return keyCheck;
+    }
+
+    public void setKeyCheck(Blob keyCheck) {
+        this.keyCheck = keyCheck;
+    }
+
+    public String getRank() {
+        return rank;
+    }
+
+    public void setRank(String rank) {
+        this.rank = rank;
+    }
+
+    public boolean isPinned() {
+        return isPinned;
+    }
+
+    public void setPinned(boolean pinned) {
+        isPinned = pinned;
+    }
 }
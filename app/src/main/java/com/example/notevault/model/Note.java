@@ -1,9 +1,12 @@
 package com.example.notevault.model;
 
+import com.google.firebase.firestore.Blob;
 import com.google.firebase.firestore.Exclude;
 import com.google.firebase.firestore.ServerTimestamp;
 
+import java.util.Collections;
 import java.util.Date;
+import java.util.List;
 
 /**
  * Model class for a Note document in Firestore.
@@ -20,18 +23,35 @@ public class Note {
 
     @ServerTimestamp
     private Date timestamp;
+    /** When the note was last saved from the editor; what "last edited" means */
     @ServerTimestamp
     private Date updatedAt;
+    /** When any field last changed, pin, rank, recycle and hide included; what catch-up queries by */
+    private Date changedAt;
 
     /** Soft delete: when true, note appears in Recycle Bin only */
     private boolean isDeleted;
     private Date deletedAt;
     /** When true, note appears in Hidden section only */
     private boolean isHidden;
+    /** When true, note is shown above the others, from its own query */
+    private boolean isPinned;
     /** When true, user must enter password to open note */
     private boolean isLocked;
-    /** SHA-256 hash of lock password */
+    /** SHA-256 hash of lock password (notes locked before content encryption only) */
     private String passwordHash;
+    /** AES-GCM ciphertext of the content while locked; content itself is then empty */
+    private Blob encryptedContent;
+    /** scrypt salt of the key encryptedContent uses (the folder's salt when the folder is locked) */
+    private Blob keySalt;
+    /** Known value encrypted with that key, to check a password without decrypting content */
+    private Blob keyCheck;
+    /** Number of revisions saved to the note's history */
+    private int revisionCount;
+    /** Normalized labels (see {@link com.example.notevault.tags.Tags}); the field is left out when there are none */
+    private List<String> tags;
+    /** Place in manual order (see {@link com.example.notevault.sort.RankKeys}); null until first reordered */
+    private String rank;
 
     public Note() {
     }
@@ -109,6 +129,14 @@ public class Note {
         this.updatedAt = updatedAt;
     }
 
+    public Date getChangedAt() {
+        return changedAt;
+    }
+
+    public void setChangedAt(Date changedAt) {
+        this.changedAt = changedAt;
+    }
+
     public boolean isDeleted() {
         return isDeleted;
     }
@@ -148,4 +176,60 @@ public class Note {
     public void setPasswordHash(String passwordHash) {
         this.passwordHash = passwordHash;
     }
+
+    public Blob getEncryptedContent() {
+        return encryptedContent;
+    }
+
+    public void setEncryptedContent(Blob encryptedContent) {
+        this.encryptedContent = encryptedContent;
+    }
+
+    public Blob getKeySalt() {
+        return keySalt;
+    }
+
+    public void setKeySalt(Blob keySalt) {
+        this.keySalt = keySalt;
+    }
+
+    public Blob getKeyCheck() {
+        return keyCheck;
+    }
+
+    public void setKeyCheck(Blob keyCheck) {
+        this.keyCheck = keyCheck;
+    }
+
+    public int getRevisionCount() {
+        return revisionCount;
+    }
+
+    public void setRevisionCount(int revisionCount) {
+        this.revisionCount = revisionCount;
+    }
+
+    public List<String> getTags() {
+        return tags != null ? tags : Collections.emptyList();
+    }
+
+    public void setTags(List<String> tags) {
+        this.tags = tags;
+    }
+
+    public String getRank() {
+        return rank;
+    }
+
+    public void setRank(String rank) {
+        this.rank = rank;
+    }
+
+    public boolean isPinned() {
+        return isPinned;
+    }
+
+    public void setPinned(boolean pinned) {
+        isPinned = pinned;
+    }
 }
@@ -0,0 +1,78 @@
+package com.example.notevault.model;
+
+import com.google.firebase.firestore.Exclude;
+
+import java.util.Date;
+
+/**
+ * One saved version of a note, stored in users/{userId}/history/{noteId}/revisions.
+ * Holds either a full {@code snapshot} of the content or a {@code delta} against the previous revision.
+ */
+public class NoteRevision {
+
+    private int revision;
+    private String title;
+    /** Full content; set on every SNAPSHOT_INTERVAL-th revision and after compaction */
+    private String snapshot;
+    /** TextDelta from the previous revision's content */
+    private String delta;
+    /** Length of the content at this revision, for display without rebuilding it */
+    private int length;
+    private Date createdAt;
+
+    public NoteRevision() {
+    }
+
+    @Exclude
+    public boolean isSnapshot() {
+        return snapshot != null;
+    }
+
+    public int getRevision() {
+        return revision;
+    }
+
+    public void setRevision(int revision) {
+        this.revision = revision;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public void setTitle(String title) {
+        this.title = title;
+    }
+
+    public String getSnapshot() {
+        return snapshot;
+    }
+
+    public void setSnapshot(String snapshot) {
+        this.snapshot = snapshot;
+    }
+
+    public String getDelta() {
+        return delta;
+    }
+
+    public void setDelta(String delta) {
+        this.delta = delta;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    public void setLength(int length) {
+        this.length = length;
+    }
+
+    public Date getCreatedAt() {
+        return createdAt;
+    }
+
+    public void setCreatedAt(Date createdAt) {
+        this.createdAt = createdAt;
+    }
+}
@@ -0,0 +1,170 @@
+package com.example.notevault.prefetch;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import com.example.notevault.firebase.FirestoreStore;
+import com.example.notevault.metrics.LatencyHistogram;
+import com.example.notevault.store.NoteStore;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+
+/**
+ * Warms the first page of notes of the folders the user is most likely to open next, so the
+ * notes screen can show them from the local cache instead of waiting for the server.
+ *
+ * Folders are ranked by {@link FrecencyRanker}; only the top {@link #TOP_K} are fetched, each at
+ * most once per {@link #WARM_FOR_MS}, and the downloads share a byte budget that refills over
+ * an hour. The folders screen calls {@link #prefetch} when its main thread goes idle.
+ */
+public class FolderPrefetcher {
+
+    public static final int TOP_K = 3;
+    /** Notes per folder; about what the notes screen shows before scrolling, with some margin. */
+    public static final int PAGE_SIZE = 30;
+    static final long WARM_FOR_MS = 10 * 60 * 1000;
+    static final long HALF_LIFE_MS = 7L * 24 * 60 * 60 * 1000;
+    static final long BUDGET_BYTES_PER_HOUR = 1024 * 1024;
+    /** Expected size of a folder's first page until it has been fetched once. */
+    static final long DEFAULT_PAGE_BYTES = 32 * 1024;
+
+    private static final String PREFS = "folder_prefetch";
+    private static final String KEY_RANKING = "ranking";
+    private static final long HOUR_MS = 60 * 60 * 1000;
+
+    private static FolderPrefetcher instance;
+
+    private final NoteStore store;
+    private final FrecencyRanker ranker;
+    private final LongSupplier clock;
+    private final long budgetBytesPerHour;
+    private final Consumer<String> persist;
+
+    private final Map<String, Long> warmedAt = new HashMap<>();
+    private final Map<String, Long> pageBytes = new HashMap<>();
+    private final Set<String> inFlight = new HashSet<>();
+    private double budgetBytes;
+    private long budgetUpdatedAt;
+    private boolean enabled = true;
+
+    private long opens;
+    private long hits;
+    private long prefetches;
+    private long prefetchedBytes;
+    private final LatencyHistogram warmOpens = new LatencyHistogram();
+    private final LatencyHistogram coldOpens = new LatencyHistogram();
+
+    FolderPrefetcher(NoteStore store, FrecencyRanker ranker, LongSupplier clock, long budgetBytesPerHour,
+                     Consumer<String> persist) {
+        this.store = store;
+        this.ranker = ranker;
+        this.clock = clock;
+        this.budgetBytesPerHour = budgetBytesPerHour;
+        this.persist = persist;
+        budgetBytes = budgetBytesPerHour;
+        budgetUpdatedAt = clock.getAsLong();
+    }
+
+    public static synchronized FolderPrefetcher getInstance(Context context) {
+        if (instance == null) {
+            SharedPreferences prefs = context.getApplicationContext().getSharedPreferences(PREFS, Context.MODE_PRIVATE);
+            instance = new FolderPrefetcher(FirestoreStore.getInstance(),
+                    FrecencyRanker.decode(prefs.getString(KEY_RANKING, null), HALF_LIFE_MS),
+                    System::currentTimeMillis, BUDGET_BYTES_PER_HOUR,
+                    ranking -> prefs.edit().putString(KEY_RANKING, ranking).apply());
+        }
+        return instance;
+    }
+
+    /** Turn prefetching off to measure folder opens without it; opens are still ranked. */
+    public synchronized void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public synchronized boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Count an open of {@code folderId} towards its rank. Returns whether its first page was
+     * warmed recently, which is a prefetch hit.
+     */
+    public boolean onFolderOpened(String folderId) {
+        long now = clock.getAsLong();
+        ranker.recordOpen(folderId, now);
+        persist.accept(ranker.encode());
+        synchronized (this) {
+            opens++;
+            Long warmed = warmedAt.get(folderId);
+            boolean hit = warmed != null && now - warmed < WARM_FOR_MS;
+            if (hit) hits++;
+            return hit;
+        }
+    }
+
+    /** Time from tapping a folder to its notes showing, split by whether it was a prefetch hit. */
+    public void recordOpenLatency(boolean prefetched, long nanos) {
+        (prefetched ? warmOpens : coldOpens).record(nanos);
+    }
+
+    /**
+     * Warm the best ranked of {@code folderIds} (the folders currently on screen) that are not
+     * warm already, as far as the budget allows.
+     */
+    public void prefetch(String userId, Collection<String> folderIds) {
+        long now = clock.getAsLong();
+        for (String folderId : ranker.top(TOP_K, folderIds, now)) {
+            long expected;
+            synchronized (this) {
+                if (!enabled) return;
+                Long warmed = warmedAt.get(folderId);
+                if (inFlight.contains(folderId) || (warmed != null && now - warmed < WARM_FOR_MS)) continue;
+                refill(now);
+                Long known = pageBytes.get(folderId);
+                expected = known != null ? known : DEFAULT_PAGE_BYTES;
+                if (budgetBytes < expected) return;
+                budgetBytes -= expected;
+                inFlight.add(folderId);
+            }
+            store.prefetchNotes(userId, folderId, PAGE_SIZE, (success, documents, bytes) -> {
+                synchronized (this) {
+                    inFlight.remove(folderId);
+                    // Settle the reservation against what was actually downloaded
+                    budgetBytes += expected - bytes;
+                    if (!success) return;
+                    warmedAt.put(folderId, clock.getAsLong());
+                    pageBytes.put(folderId, bytes);
+                    prefetches++;
+                    prefetchedBytes += bytes;
+                }
+            });
+        }
+    }
+
+    public synchronized double hitRate() {
+        return opens == 0 ? 0 : (double) hits / opens;
+    }
+
+    public synchronized String report() {
+        return String.format(Locale.US,
+                "Folder prefetch (%s)%n  opens %d, hits %d (%.0f%%), prefetches %d, %.1f KB%n"
+                        + "  open with prefetch: %d, p50 %.0f ms, p90 %.0f ms%n"
+                        + "  open without:       %d, p50 %.0f ms, p90 %.0f ms%n",
+                enabled ? "on" : "off", opens, hits, hitRate() * 100, prefetches, prefetchedBytes / 1024.0,
+                warmOpens.count(), warmOpens.percentileMillis(0.5), warmOpens.percentileMillis(0.9),
+                coldOpens.count(), coldOpens.percentileMillis(0.5), coldOpens.percentileMillis(0.9));
+    }
+
+    private void refill(long now) {
+        budgetBytes = Math.min(budgetBytesPerHour,
+                budgetBytes + (double) (now - budgetUpdatedAt) * budgetBytesPerHour / HOUR_MS);
+        budgetUpdatedAt = now;
+    }
+}
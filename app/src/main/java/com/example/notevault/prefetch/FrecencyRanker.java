@@ -0,0 +1,101 @@
+package com.example.notevault.prefetch;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Ranks items by how often and how recently they were opened. Every open adds one point that
+ * halves in value every {@code halfLifeMillis}, so a folder opened daily outranks one opened
+ * ten times last month. Scores are kept decayed to the time of their last update.
+ */
+public final class FrecencyRanker {
+
+    /** Items beyond this many are dropped, lowest score first. */
+    static final int MAX_ITEMS = 200;
+
+    private final long halfLifeMillis;
+    private final Map<String, Entry> entries = new HashMap<>();
+
+    public FrecencyRanker(long halfLifeMillis) {
+        this.halfLifeMillis = halfLifeMillis;
+    }
+
+    public synchronized void recordOpen(String id, long now) {
+        Entry entry = entries.get(id);
+        double score = entry != null ? decayed(entry, now) : 0;
+        entries.put(id, new Entry(score + 1, now));
+        if (entries.size() > MAX_ITEMS) {
+            String lowest = null;
+            double lowestScore = Double.MAX_VALUE;
+            for (Map.Entry<String, Entry> e : entries.entrySet()) {
+                double s = decayed(e.getValue(), now);
+                if (s < lowestScore) {
+                    lowestScore = s;
+                    lowest = e.getKey();
+                }
+            }
+            entries.remove(lowest);
+        }
+    }
+
+    public synchronized double score(String id, long now) {
+        Entry entry = entries.get(id);
+        return entry != null ? decayed(entry, now) : 0;
+    }
+
+    /** Up to {@code k} of {@code candidates} that have been opened, best first. */
+    public synchronized List<String> top(int k, Collection<String> candidates, long now) {
+        List<String> ranked = new ArrayList<>();
+        for (String id : candidates) {
+            if (entries.containsKey(id)) ranked.add(id);
+        }
+        ranked.sort((a, b) -> Double.compare(decayed(entries.get(b), now), decayed(entries.get(a), now)));
+        return ranked.size() > k ? new ArrayList<>(ranked.subList(0, k)) : ranked;
+    }
+
+    /** One line per item: id, score and the time it was last updated. */
+    public synchronized String encode() {
+        StringBuilder out = new StringBuilder();
+        for (Map.Entry<String, Entry> e : entries.entrySet()) {
+            out.append(e.getKey()).append('\t')
+                    .append(String.format(Locale.US, "%.6f", e.getValue().score)).append('\t')
+                    .append(e.getValue().updatedAt).append('\n');
+        }
+        return out.toString();
+    }
+
+    /** Read what {@link #encode()} wrote; lines that do not parse are skipped. */
+    public static FrecencyRanker decode(String encoded, long halfLifeMillis) {
+        FrecencyRanker ranker = new FrecencyRanker(halfLifeMillis);
+        if (encoded == null) return ranker;
+        for (String line : encoded.split("\n")) {
+            String[] parts = line.split("\t");
+            if (parts.length != 3) continue;
+            try {
+                ranker.entries.put(parts[0], new Entry(Double.parseDouble(parts[1]), Long.parseLong(parts[2])));
+            } catch (NumberFormatException ignored) {
+                // Written by a different version; that item starts over
+            }
+        }
+        return ranker;
+    }
+
+    private double decayed(Entry entry, long now) {
+        long age = Math.max(0, now - entry.updatedAt);
+        return entry.score * Math.pow(0.5, (double) age / halfLifeMillis);
+    }
+
+    private static final class Entry {
+        final double score;
+        final long updatedAt;
+
+        Entry(double score, long updatedAt) {
+            this.score = score;
+            this.updatedAt = updatedAt;
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package com.example.notevault.presentation;
+
+import com.example.notevault.model.Folder;
+
+/**
+ * A folder as the folder grid shows it, with its colors already parsed.
+ */
+public final class FolderRow {
+
+    public final Folder folder;
+    public final String name;
+    public final int color;
+    /** Translucent {@link #color} for the card background. */
+    public final int lightColor;
+
+    FolderRow(Folder folder, String name, int color, int lightColor) {
+        this.folder = folder;
+        this.name = name;
+        this.color = color;
+        this.lightColor = lightColor;
+    }
+}
@@ -0,0 +1,27 @@
+package com.example.notevault.presentation;
+
+import com.example.notevault.model.Note;
+
+/**
+ * A note as the notes list shows it, with colors resolved and text formatted ahead of binding.
+ */
+public final class NoteRow {
+
+    public final Note note;
+    public final String title;
+    /** Truncated content; a PrecomputedTextCompat when the list's text metrics were known. */
+    public final CharSequence preview;
+    public final String timestamp;
+    public final int color;
+    /** "#work #ideas", or empty for an untagged note. */
+    public final String tags;
+
+    NoteRow(Note note, String title, CharSequence preview, String timestamp, int color, String tags) {
+        this.note = note;
+        this.title = title;
+        this.preview = preview;
+        this.timestamp = timestamp;
+        this.color = color;
+        this.tags = tags;
+    }
+}
@@ -0,0 +1,75 @@
+package com.example.notevault.presentation;
+
+import android.text.format.DateUtils;
+
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+import androidx.core.text.PrecomputedTextCompat;
+
+import com.example.notevault.model.Folder;
+import com.example.notevault.model.Note;
+import com.example.notevault.tags.Tags;
+import com.example.notevault.utils.ColorUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Builds list rows from decoded notes and folders. Meant to run on the thread that decodes
+ * snapshots, so binding a row on the main thread only assigns fields.
+ */
+public class RowFactory {
+
+    /** Enough for the two preview lines of a note card on any phone. */
+    static final int PREVIEW_CHARS = 160;
+
+    @Nullable
+    private final PrecomputedTextCompat.Params previewParams;
+    private final String encryptedPreview;
+
+    /**
+     * @param previewParams text metrics of the note card's preview TextView, or null to skip
+     *                      precomputing the preview layout
+     * @param encryptedPreview shown instead of the content of encrypted notes
+     */
+    public RowFactory(@Nullable PrecomputedTextCompat.Params previewParams, String encryptedPreview) {
+        this.previewParams = previewParams;
+        this.encryptedPreview = encryptedPreview;
+    }
+
+    @WorkerThread
+    public List<NoteRow> noteRows(List<Note> notes, long now) {
+        List<NoteRow> rows = new ArrayList<>(notes.size());
+        for (Note note : notes) {
+            // Encrypted content is only decrypted when the note is opened
+            CharSequence preview = note.getEncryptedContent() != null ? encryptedPreview : preview(note.getContent());
+            if (previewParams != null) preview = PrecomputedTextCompat.create(preview, previewParams);
+            String timestamp = note.getTimestamp() != null
+                    ? DateUtils.getRelativeTimeSpanString(note.getTimestamp().getTime(), now,
+                    DateUtils.MINUTE_IN_MILLIS, DateUtils.FORMAT_ABBREV_RELATIVE).toString()
+                    : "";
+            rows.add(new NoteRow(note, note.getTitle(), preview, timestamp, ColorUtils.parseColor(note.getColor()),
+                    Tags.format(note.getTags())));
+        }
+        return rows;
+    }
+
+    @WorkerThread
+    public static List<FolderRow> folderRows(List<Folder> folders) {
+        List<FolderRow> rows = new ArrayList<>(folders.size());
+        for (Folder folder : folders) {
+            rows.add(new FolderRow(folder, folder.getName(), ColorUtils.parseColor(folder.getColor()),
+                    ColorUtils.getLighterColor(folder.getColor())));
+        }
+        return rows;
+    }
+
+    /** The start of {@code content}, cut at {@link #PREVIEW_CHARS} without splitting a surrogate pair. */
+    static String preview(@Nullable String content) {
+        if (content == null) return "";
+        if (content.length() <= PREVIEW_CHARS) return content;
+        int end = PREVIEW_CHARS;
+        if (Character.isHighSurrogate(content.charAt(end - 1))) end--;
+        return content.substring(0, end) + "\u2026";
+    }
+}
@@ -0,0 +1,150 @@
+package com.example.notevault.sort;
+
+import androidx.annotation.Nullable;
+
+import java.text.CollationKey;
+import java.text.Collator;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * A list kept sorted by a text field as the device's collator orders it, from the complete
+ * results of a store listener. Each item's {@link CollationKey} is computed once and kept until
+ * its text changes, so items compare by bytes instead of by locale rules. A result with a few
+ * changed items moves just those into place; a result where many changed is sorted again, still
+ * on the kept keys. Blank texts go last.
+ *
+ * Not thread-safe; use it on the listener's executor.
+ */
+public final class CollatedList<T> {
+
+    private static final class Entry<T> {
+        final String id;
+        T item;
+        String text;
+        CollationKey key;
+        int seenIn;
+        boolean moving;
+
+        Entry(String id) {
+            this.id = id;
+        }
+    }
+
+    /** Above this share of changed items a result is sorted again rather than merged in. */
+    private static final int RESORT_DIVISOR = 16;
+
+    private final Collator collator;
+    private final Function<T, String> idOf;
+    private final Function<T, String> textOf;
+    private final Comparator<Entry<T>> order;
+    private final Map<String, Entry<T>> entries = new HashMap<>();
+    private final ArrayList<Entry<T>> sorted = new ArrayList<>();
+    private int generation;
+    private long keysComputed;
+
+    /** Ordered by the collator of {@code locale}, ignoring case but not accents. */
+    public CollatedList(Locale locale, Function<T, String> idOf, Function<T, String> textOf) {
+        this(collator(locale), idOf, textOf);
+    }
+
+    CollatedList(Collator collator, Function<T, String> idOf, Function<T, String> textOf) {
+        this.collator = collator;
+        this.idOf = idOf;
+        this.textOf = textOf;
+        // Equal keys fall back to the id, so the order does not depend on arrival
+        this.order = (a, b) -> {
+            boolean aBlank = a.key == null;
+            boolean bBlank = b.key == null;
+            if (aBlank != bBlank) return aBlank ? 1 : -1;
+            int byKey = aBlank ? 0 : a.key.compareTo(b.key);
+            return byKey != 0 ? byKey : a.id.compareTo(b.id);
+        };
+    }
+
+    private static Collator collator(Locale locale) {
+        Collator collator = Collator.getInstance(locale);
+        collator.setStrength(Collator.SECONDARY);
+        return collator;
+    }
+
+    /** Take a complete listener result and return it sorted; items missing from it are dropped. */
+    public List<T> update(List<T> result) {
+        int current = ++generation;
+        List<Entry<T>> moved = new ArrayList<>();
+        boolean retitled = false;
+        int seen = 0;
+        for (T item : result) {
+            String id = idOf.apply(item);
+            Entry<T> entry = entries.get(id);
+            if (entry == null) {
+                entry = new Entry<>(id);
+                entry.text = textOf.apply(item);
+                entry.key = key(entry.text);
+                entries.put(id, entry);
+                moved.add(entry);
+            } else if (entry.seenIn == current) {
+                // The same item twice in one result
+                continue;
+            } else if (entry.item != item) {
+                String text = textOf.apply(item);
+                if (!same(text, entry.text)) {
+                    entry.text = text;
+                    entry.key = key(text);
+                    entry.moving = true;
+                    retitled = true;
+                    moved.add(entry);
+                }
+            }
+            entry.item = item;
+            entry.seenIn = current;
+            seen++;
+        }
+        boolean gone = seen < entries.size() && entries.values().removeIf(entry -> entry.seenIn != current);
+        // One pass takes out both the retitled items, to go back in at their new place, and the gone ones
+        if (retitled || gone) sorted.removeIf(entry -> entry.moving || entry.seenIn != current);
+        if (moved.size() > sorted.size() / RESORT_DIVISOR) {
+            for (Entry<T> entry : moved) {
+                entry.moving = false;
+                sorted.add(entry);
+            }
+            sorted.sort(order);
+        } else {
+            for (Entry<T> entry : moved) {
+                entry.moving = false;
+                int at = Collections.binarySearch(sorted, entry, order);
+                sorted.add(at < 0 ? -at - 1 : at, entry);
+            }
+        }
+        List<T> items = new ArrayList<>(sorted.size());
+        for (Entry<T> entry : sorted) items.add(entry.item);
+        return items;
+    }
+
+    public void clear() {
+        entries.clear();
+        sorted.clear();
+    }
+
+    /** Collation keys computed so far; an update where no text changed computes none. */
+    public long keysComputed() {
+        return keysComputed;
+    }
+
+    @Nullable
+    private CollationKey key(@Nullable String text) {
+        if (text == null || text.trim().isEmpty()) return null;
+        keysComputed++;
+        return collator.getCollationKey(text.trim());
+    }
+
+    private static boolean same(@Nullable String a, @Nullable String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+}
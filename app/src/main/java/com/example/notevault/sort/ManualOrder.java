@@ -0,0 +1,130 @@
+package com.example.notevault.sort;
+
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Manual ordering by {@link RankKeys}. An item is given a rank when it is created, from
+ * {@link RankKeys#forCreation its creation time}; an item saved before that without one sorts
+ * as if it had that rank, so both list newest first until dragged. Items with neither come
+ * first, in the order the query returned them.
+ *
+ * A move gives the moved item a key between its new neighbours, which is one write, whether
+ * the neighbours' ranks are stored or implied by their creation time. Only when that key would
+ * grow past {@link RankKeys#MAX_LENGTH}, or the neighbours' keys are not in order because two
+ * devices moved items at once, are the surrounding items given fresh keys too, in a window that
+ * doubles until their keys fit.
+ */
+public final class ManualOrder<T> {
+
+    private final Function<T, String> idOf;
+    private final Function<T, String> rankOf;
+    private final Function<T, Date> createdOf;
+
+    public ManualOrder(Function<T, String> idOf, Function<T, String> rankOf, Function<T, Date> createdOf) {
+        this.idOf = idOf;
+        this.rankOf = rankOf;
+        this.createdOf = createdOf;
+    }
+
+    /** {@code items}, which are in query order, in manual order. */
+    public List<T> sorted(List<T> items) {
+        int n = items.size();
+        // Each rank once, rather than once per comparison
+        String[] ranks = new String[n];
+        Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            ranks[i] = rank(items.get(i));
+            order[i] = i;
+        }
+        // Stable, so items without any rank keep the query's order
+        Arrays.sort(order, (a, b) -> {
+            String rankA = ranks[a];
+            String rankB = ranks[b];
+            if (rankA == null || rankB == null) return rankA == null ? (rankB == null ? 0 : -1) : 1;
+            int byRank = rankA.compareTo(rankB);
+            return byRank != 0 ? byRank : idOf.apply(items.get(a)).compareTo(idOf.apply(items.get(b)));
+        });
+        List<T> sorted = new ArrayList<>(n);
+        for (Integer i : order) sorted.add(items.get(i));
+        return sorted;
+    }
+
+    /**
+     * The rank writes that move the item at {@code from} of the manually ordered {@code items}
+     * to {@code to}, by item id. Usually one.
+     */
+    public Map<String, String> move(List<T> items, int from, int to) {
+        List<T> order = new ArrayList<>(items);
+        T moved = order.remove(from);
+        order.add(to, moved);
+        int n = order.size();
+        String[] ranks = new String[n];
+        for (int i = 0; i < n; i++) ranks[i] = i == to ? null : rank(order.get(i));
+
+        Map<String, String> writes = new LinkedHashMap<>();
+        int i = 0;
+        while (i < n) {
+            if (ranks[i] != null) {
+                i++;
+                continue;
+            }
+            // A run of items needing keys: the moved one, or ones with neither rank nor creation time
+            int end = i;
+            while (end + 1 < n && ranks[end + 1] == null) end++;
+            assign(order, ranks, i, end, writes);
+            i = end + 1;
+        }
+        return writes;
+    }
+
+    /** Give items {@code start} to {@code end} keys between their neighbours, widening the window when they do not fit. */
+    private void assign(List<T> order, String[] ranks, int start, int end, Map<String, String> writes) {
+        int n = ranks.length;
+        int from = start;
+        int to = end;
+        while (true) {
+            String lo = from > 0 ? ranks[from - 1] : null;
+            String hi = to < n - 1 ? ranks[to + 1] : null;
+            List<String> keys = null;
+            if (lo == null || hi == null || lo.compareTo(hi) < 0) {
+                if (from == to) {
+                    String key = RankKeys.between(lo, hi);
+                    if (key.length() <= RankKeys.MAX_LENGTH) keys = Collections.singletonList(key);
+                } else {
+                    keys = RankKeys.spread(lo, hi, to - from + 1, RankKeys.MAX_LENGTH);
+                }
+            }
+            if (keys != null) {
+                for (int k = 0; k < keys.size(); k++) {
+                    ranks[from + k] = keys.get(k);
+                    writes.put(idOf.apply(order.get(from + k)), keys.get(k));
+                }
+                return;
+            }
+            int width = to - from + 1;
+            from = Math.max(0, from - width);
+            to = Math.min(n - 1, to + width);
+            // A bound still waiting for its key is no bound; take its run in too
+            while (from > 0 && ranks[from - 1] == null) from--;
+            while (to < n - 1 && ranks[to + 1] == null) to++;
+        }
+    }
+
+    /** The item's stored rank, or the one its creation time implies, or null. */
+    @Nullable
+    private String rank(T item) {
+        String rank = rankOf.apply(item);
+        if (RankKeys.isValid(rank)) return rank;
+        Date created = createdOf.apply(item);
+        return created != null ? RankKeys.forCreation(created.getTime()) : null;
+    }
+}
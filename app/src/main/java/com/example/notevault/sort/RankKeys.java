@@ -0,0 +1,116 @@
+package com.example.notevault.sort;
+
+import androidx.annotation.Nullable;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Rank keys for manual ordering: base-62 fractions written as strings, so that comparing the
+ * strings, on the device or in Firestore, compares the fractions. A key can always be made
+ * between two others, which is how an item moves with a single write. Keys never end in '0',
+ * which keeps the strings and the fractions in the same order.
+ */
+public final class RankKeys {
+
+    static final String DIGITS = "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz";
+    private static final BigInteger BASE = BigInteger.valueOf(DIGITS.length());
+
+    /** Keys longer than this are spread out again together with their neighbours. */
+    public static final int MAX_LENGTH = 16;
+    /** Digits of a {@link #forCreation} key, half of {@link #MAX_LENGTH} so moves between two of them fit. */
+    static final int CREATION_LENGTH = 8;
+    /** Creation keys count down from here, in millis since the epoch: 2^43 ms is in the year 2248. */
+    private static final long CREATION_END = 1L << 43;
+
+    private RankKeys() {
+    }
+
+    /** The shortest key strictly between {@code lo} and {@code hi}; null stands for the start or the end. */
+    public static String between(@Nullable String lo, @Nullable String hi) {
+        List<String> keys = spread(lo, hi, 1, 1, Integer.MAX_VALUE);
+        return keys.get(0);
+    }
+
+    /**
+     * {@code count} evenly spaced keys strictly between {@code lo} and {@code hi}, with room for
+     * about a digit's worth of moves between each two, or null if that needs keys longer than
+     * {@code maxLength}.
+     */
+    @Nullable
+    public static List<String> spread(@Nullable String lo, @Nullable String hi, int count, int maxLength) {
+        return spread(lo, hi, count, DIGITS.length(), maxLength);
+    }
+
+    /**
+     * The key of an item created at {@code millis}. Later items get smaller keys, so items that
+     * were never dragged list newest first, and all of them fall in the first few hundredths of
+     * the key space, ahead of where most dragged items end up.
+     */
+    public static String forCreation(long millis) {
+        long value = Math.max(1, CREATION_END - Math.max(0, millis));
+        char[] chars = new char[CREATION_LENGTH];
+        for (int i = CREATION_LENGTH - 1; i >= 0; i--) {
+            chars[i] = DIGITS.charAt((int) (value % DIGITS.length()));
+            value /= DIGITS.length();
+        }
+        int end = CREATION_LENGTH;
+        while (chars[end - 1] == '0') end--;
+        return new String(chars, 0, end);
+    }
+
+    /** Whether {@code key} is a usable rank. */
+    public static boolean isValid(@Nullable String key) {
+        if (key == null || key.isEmpty() || key.charAt(key.length() - 1) == '0') return false;
+        for (int i = 0; i < key.length(); i++) {
+            if (DIGITS.indexOf(key.charAt(i)) < 0) return false;
+        }
+        return true;
+    }
+
+    @Nullable
+    private static List<String> spread(@Nullable String lo, @Nullable String hi, int count, int room, int maxLength) {
+        if (lo != null && hi != null && lo.compareTo(hi) >= 0) {
+            throw new IllegalArgumentException("No key between " + lo + " and " + hi);
+        }
+        BigInteger needed = BigInteger.valueOf(count + 1L).multiply(BigInteger.valueOf(room));
+        int start = Math.max(1, Math.max(lo != null ? lo.length() : 0, hi != null ? hi.length() : 0));
+        for (int digits = start; digits <= maxLength; digits++) {
+            BigInteger low = lo != null ? value(lo, digits) : BigInteger.ZERO;
+            BigInteger high = hi != null ? value(hi, digits) : BASE.pow(digits);
+            BigInteger gap = high.subtract(low);
+            if (gap.compareTo(needed) < 0) continue;
+            List<String> keys = new ArrayList<>(count);
+            BigInteger parts = BigInteger.valueOf(count + 1L);
+            for (int i = 1; i <= count; i++) {
+                keys.add(format(low.add(gap.multiply(BigInteger.valueOf(i)).divide(parts)), digits));
+            }
+            return keys;
+        }
+        return null;
+    }
+
+    /** {@code key} as an integer of {@code digits} base-62 digits, padded with zeros on the right. */
+    private static BigInteger value(String key, int digits) {
+        BigInteger value = BigInteger.ZERO;
+        for (int i = 0; i < digits; i++) {
+            int digit = i < key.length() ? DIGITS.indexOf(key.charAt(i)) : 0;
+            if (digit < 0) throw new IllegalArgumentException("Not a rank key: " + key);
+            value = value.multiply(BASE).add(BigInteger.valueOf(digit));
+        }
+        return value;
+    }
+
+    private static String format(BigInteger value, int digits) {
+        char[] chars = new char[digits];
+        for (int i = digits - 1; i >= 0; i--) {
+            BigInteger[] qr = value.divideAndRemainder(BASE);
+            chars[i] = DIGITS.charAt(qr[1].intValue());
+            value = qr[0];
+        }
+        int end = digits;
+        while (end > 1 && chars[end - 1] == '0') end--;
+        return new String(chars, 0, end);
+    }
+}
@@ -0,0 +1,89 @@
+package com.example.notevault.sort;
+
+import androidx.annotation.Nullable;
+
+import com.example.notevault.model.Folder;
+import com.example.notevault.model.Note;
+import com.example.notevault.store.NoteStore;
+
+import java.util.Comparator;
+
+/**
+ * How a note or folder list is ordered. Date and color orders are queried from Firestore, each
+ * backed by a composite index; titles are compared with the device's collator, which Firestore's
+ * byte order is not, so {@link #TITLE} lists are queried newest first and sorted on the device
+ * by a {@link CollatedList}. {@link #MANUAL} lists are sorted on the device too, by
+ * {@link ManualOrder}: ordering the query by rank would leave out every document without one.
+ */
+public enum SortMode {
+    NEWEST,
+    /** Notes only; folders have no updatedAt. */
+    LAST_EDITED,
+    /** By note title or folder name. */
+    TITLE,
+    /** By color, then newest first, so notes of one color stay together. */
+    COLOR,
+    /** Dragged into place; see {@link ManualOrder}. */
+    MANUAL;
+
+    /** Modes offered for folders. */
+    public static final SortMode[] FOLDER_MODES = {NEWEST, TITLE, COLOR, MANUAL};
+
+    /** Shared preferences the chosen modes are kept in. */
+    public static final String PREFS = "sort";
+    public static final String KEY_NOTES = "notes";
+    public static final String KEY_FOLDERS = "folders";
+
+    static final Comparator<Folder> NEWEST_FOLDERS =
+            Comparator.comparing(Folder::getCreatedAt, Comparator.nullsLast(Comparator.reverseOrder()));
+    static final Comparator<Note> LAST_EDITED_FIRST =
+            Comparator.comparing(Note::getUpdatedAt, Comparator.nullsLast(Comparator.reverseOrder()));
+    static final Comparator<Note> NOTES_BY_COLOR =
+            Comparator.comparing(Note::getColor, Comparator.nullsLast(Comparator.naturalOrder()))
+                    .thenComparing(NoteStore.NEWEST_FIRST);
+    static final Comparator<Folder> FOLDERS_BY_COLOR =
+            Comparator.comparing(Folder::getColor, Comparator.nullsLast(Comparator.naturalOrder()))
+                    .thenComparing(NEWEST_FOLDERS);
+
+    /** This mode as folders are listed: {@link #LAST_EDITED} falls back to {@link #NEWEST}. */
+    public SortMode forFolders() {
+        return this == LAST_EDITED ? NEWEST : this;
+    }
+
+    /** The mode the store is queried with: the device sorts {@link #TITLE} and {@link #MANUAL} lists of a {@link #NEWEST} query. */
+    public SortMode queryMode() {
+        return isServerSorted() ? this : NEWEST;
+    }
+
+    /** Whether the store query returns the list in this order; otherwise it is sorted on the device. */
+    public boolean isServerSorted() {
+        return this != TITLE && this != MANUAL;
+    }
+
+    /** The order a note query for this mode returns. */
+    public Comparator<Note> noteOrder() {
+        switch (this) {
+            case LAST_EDITED:
+                return LAST_EDITED_FIRST;
+            case COLOR:
+                return NOTES_BY_COLOR;
+            default:
+                return NoteStore.NEWEST_FIRST;
+        }
+    }
+
+    /** The order a folder query for this mode returns. */
+    public Comparator<Folder> folderOrder() {
+        return this == COLOR ? FOLDERS_BY_COLOR : NEWEST_FOLDERS;
+    }
+
+    /** The mode stored as {@code name}, or {@link #NEWEST} for none or an unknown one. */
+    public static SortMode fromName(@Nullable String name) {
+        if (name != null) {
+            for (SortMode mode : values()) {
+                if (mode.name().equals(name)) return mode;
+            }
+        }
+        return NEWEST;
+    }
+}
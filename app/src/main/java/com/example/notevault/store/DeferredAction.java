@@ -0,0 +1,49 @@
+package com.example.notevault.store;
+
+/** A recycle or hide held back by an {@link UndoWindow}, to be committed with others that fall due. */
+public final class DeferredAction {
+
+    public enum Kind {
+        RECYCLE_NOTE("Moved to Recycle Bin"),
+        HIDE_NOTE("Hidden"),
+        /** Also moves every note of the folder to the recycle bin. */
+        RECYCLE_FOLDER("Moved to Recycle Bin");
+
+        /** What the action's callback is told when it lands. */
+        public final String message;
+
+        Kind(String message) {
+            this.message = message;
+        }
+    }
+
+    public final Kind kind;
+    public final String userId;
+    public final String folderId;
+    /** The note, or for {@link Kind#RECYCLE_FOLDER} the folder itself. */
+    public final String itemId;
+
+    private DeferredAction(Kind kind, String userId, String folderId, String itemId) {
+        this.kind = kind;
+        this.userId = userId;
+        this.folderId = folderId;
+        this.itemId = itemId;
+    }
+
+    public static DeferredAction recycleNote(String userId, String folderId, String noteId) {
+        return new DeferredAction(Kind.RECYCLE_NOTE, userId, folderId, noteId);
+    }
+
+    public static DeferredAction hideNote(String userId, String folderId, String noteId) {
+        return new DeferredAction(Kind.HIDE_NOTE, userId, folderId, noteId);
+    }
+
+    public static DeferredAction recycleFolder(String userId, String folderId) {
+        return new DeferredAction(Kind.RECYCLE_FOLDER, userId, folderId, folderId);
+    }
+
+    @Override
+    public String toString() {
+        return kind + " " + itemId;
+    }
+}
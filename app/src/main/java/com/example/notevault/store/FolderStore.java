@@ -0,0 +1,72 @@
+package com.example.notevault.store;
+
+import androidx.annotation.Nullable;
+
+import com.example.notevault.firebase.FirebaseManager;
+import com.example.notevault.model.Folder;
+import com.example.notevault.sort.SortMode;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+import javax.crypto.SecretKey;
+
+/**
+ * Folder operations the ViewModels need, independent of where folders are kept.
+ * Operation callbacks are called on the main thread by the Firestore store.
+ */
+public interface FolderStore {
+
+    /** The signed-in user, or null when nobody is. */
+    @Nullable
+    String currentUserId();
+
+    /**
+     * All folders of the user in {@link SortMode#folderOrder} of {@code sort}; the caller filters
+     * out deleted and hidden ones, and sorts by name itself.
+     */
+    Subscription listenToFolders(String userId, SortMode sort, Executor executor, StoreListener<Folder> listener);
+
+    /** Pinned folders, newest first; the caller filters out deleted and hidden ones. */
+    Subscription listenToPinnedFolders(String userId, Executor executor, StoreListener<Folder> listener);
+
+    /** Folders in the recycle bin, most recently deleted first. */
+    Subscription listenToDeletedFolders(String userId, Executor executor, StoreListener<Folder> listener);
+
+    /** Hidden folders, newest first. */
+    Subscription listenToHiddenFolders(String userId, Executor executor, StoreListener<Folder> listener);
+
+    /** Create the folder when it has no id yet, which is then assigned to it; otherwise replace it. */
+    void addOrUpdateFolder(String userId, Folder folder, FirebaseManager.OperationCallback callback);
+
+    /** Soft delete the folder and every note in it. */
+    void moveFolderToRecycleBin(String userId, String folderId, FirebaseManager.OperationCallback callback);
+
+    /** Same as {@link NoteStore#commitActions}; folder and note actions may be mixed. */
+    void commitActions(String userId, List<DeferredAction> actions, FirebaseManager.OperationCallback callback);
+
+    void restoreFolder(String userId, String folderId, FirebaseManager.OperationCallback callback);
+
+    void permanentDeleteFolder(String userId, String folderId, FirebaseManager.OperationCallback callback);
+
+    void hideFolder(String userId, String folderId, FirebaseManager.OperationCallback callback);
+
+    void unhideFolder(String userId, String folderId, FirebaseManager.OperationCallback callback);
+
+    void pinFolder(String userId, String folderId, boolean pinned, FirebaseManager.OperationCallback callback);
+
+    /** Set the manual-order rank of each folder in {@code ranks}, by folder id. */
+    void rankFolders(String userId, Map<String, String> ranks, FirebaseManager.OperationCallback callback);
+
+    /** Lock the folder and encrypt with {@code key} every note in it that has no lock of its own. */
+    void lockFolder(String userId, String folderId, SecretKey key, byte[] keySalt, byte[] keyCheck,
+                    FirebaseManager.OperationCallback callback);
+
+    /**
+     * Unlock the folder and decrypt the notes encrypted with its key. {@code key} and {@code keySalt}
+     * are null for folders locked before encryption.
+     */
+    void unlockFolder(String userId, String folderId, @Nullable SecretKey key, @Nullable byte[] keySalt,
+                      FirebaseManager.OperationCallback callback);
+}
@@ -0,0 +1,945 @@
+package com.example.notevault.store;
+
+import androidx.annotation.Nullable;
+
+import com.example.notevault.firebase.FirebaseManager;
+import com.example.notevault.model.Folder;
+import com.example.notevault.model.Note;
+import com.example.notevault.sort.RankKeys;
+import com.example.notevault.sort.SortMode;
+import com.example.notevault.utils.NoteCipher;
+import com.google.firebase.firestore.Blob;
+
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+import javax.crypto.SecretKey;
+
+/**
+ * Thread-safe store kept in memory, for tests and load tests that run without Google services.
+ *
+ * Behaves like Firestore with offline persistence: a write is applied and delivered to matching
+ * listeners at once, and its callback runs after the configured latency, as if the server had
+ * acknowledged it. Until then the written items are reported as pending writes, and the
+ * acknowledgement itself delivers only the new pending set, not a new result. Listeners receive
+ * the complete, sorted result on their executor each time it changes; every delivery holds fresh
+ * copies, so callers may modify what they get.
+ */
+public class InMemoryStore implements NoteStore, FolderStore {
+
+    private static final long DAY_MS = 24L * 60 * 60 * 1000;
+
+    private static final Comparator<Folder> NEWEST_FOLDERS =
+            Comparator.comparing(Folder::getCreatedAt, Comparator.nullsLast(Comparator.reverseOrder()));
+    private static final Comparator<Folder> DELETED_FOLDERS =
+            Comparator.comparing(Folder::getDeletedAt, Comparator.nullsLast(Comparator.reverseOrder()));
+    private static final Comparator<Note> NEWEST_NOTES = NEWEST_FIRST;
+    private static final Comparator<Note> DELETED_NOTES =
+            Comparator.comparing(Note::getDeletedAt, Comparator.nullsLast(Comparator.reverseOrder()));
+
+    @Nullable
+    private volatile String userId;
+    private final Executor callbackExecutor;
+    private final long latencyMillis;
+    @Nullable
+    private final ScheduledExecutorService acknowledger;
+
+    /** Guards {@link #users} and {@link #watches}. */
+    private final Object lock = new Object();
+    private final Map<String, UserData> users = new HashMap<>();
+    private final List<Watch<?>> watches = new ArrayList<>();
+
+    /**
+     * @param userId the signed-in user, or null for nobody
+     * @param callbackExecutor where operation callbacks run; the main thread in the app, often
+     *                         {@code Runnable::run} in tests
+     * @param latencyMillis delay before each operation callback
+     */
+    public InMemoryStore(@Nullable String userId, Executor callbackExecutor, long latencyMillis) {
+        this.userId = userId;
+        this.callbackExecutor = callbackExecutor;
+        this.latencyMillis = latencyMillis;
+        acknowledger = latencyMillis > 0 ? Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "InMemoryStore-ack");
+            thread.setDaemon(true);
+            return thread;
+        }) : null;
+    }
+
+    @Nullable
+    @Override
+    public String currentUserId() {
+        return userId;
+    }
+
+    public void setCurrentUserId(@Nullable String userId) {
+        this.userId = userId;
+    }
+
+    /** Add folders and notes as they are, ids included, notifying listeners once. */
+    public void seed(String userId, Collection<Folder> folders, Collection<Note> notes) {
+        synchronized (lock) {
+            UserData data = user(userId);
+            Changes changes = new Changes(userId);
+            for (Folder folder : folders) {
+                data.folders.put(folder.getId(), copy(folder));
+                changes.folders.add(folder);
+            }
+            for (Note note : notes) {
+                data.putNote(copy(note));
+                changes.notes.add(note);
+            }
+            deliver(changes);
+        }
+    }
+
+    // ==================== FOLDERS ====================
+
+    @Override
+    public Subscription listenToFolders(String userId, SortMode sort, Executor executor, StoreListener<Folder> listener) {
+        return watch(new Watch<>(Folder.class, userId, folder -> true, data -> data.folders.values(),
+                sort.folderOrder(), InMemoryStore::copy, executor, listener));
+    }
+
+    @Override
+    public Subscription listenToPinnedFolders(String userId, Executor executor, StoreListener<Folder> listener) {
+        return watch(new Watch<>(Folder.class, userId, Folder::isPinned, data -> data.folders.values(),
+                NEWEST_FOLDERS, InMemoryStore::copy, executor, listener));
+    }
+
+    @Override
+    public Subscription listenToDeletedFolders(String userId, Executor executor, StoreListener<Folder> listener) {
+        return watch(new Watch<>(Folder.class, userId, Folder::isDeleted, data -> data.folders.values(),
+                DELETED_FOLDERS, InMemoryStore::copy, executor, listener));
+    }
+
+    @Override
+    public Subscription listenToHiddenFolders(String userId, Executor executor, StoreListener<Folder> listener) {
+        return watch(new Watch<>(Folder.class, userId, Folder::isHidden, data -> data.folders.values(),
+                NEWEST_FOLDERS, InMemoryStore::copy, executor, listener));
+    }
+
+    @Override
+    public void addOrUpdateFolder(String userId, Folder folder, FirebaseManager.OperationCallback callback) {
+        if (folder.getId() == null || folder.getId().isEmpty()) {
+            folder.setId(newId());
+            if (folder.getRank() == null) folder.setRank(RankKeys.forCreation(createdAt(folder.getCreatedAt())));
+        }
+        Folder stored = copy(folder);
+        if (stored.getColor() == null) stored.setColor("#4ECDC4");
+        if (stored.getCreatedAt() == null) stored.setCreatedAt(new Date());
+        synchronized (lock) {
+            Changes changes = new Changes(userId);
+            Folder previous = user(userId).folders.put(stored.getId(), stored);
+            changes.folder(previous, stored);
+            publish(changes);
+        }
+        acknowledge(callback, true, "Folder saved");
+    }
+
+    @Override
+    public void moveFolderToRecycleBin(String userId, String folderId, FirebaseManager.OperationCallback callback) {
+        Date now = new Date();
+        updateFolderAndNotes(userId, folderId, "Moved to Recycle Bin", callback, folder -> {
+            folder.setDeleted(true);
+            folder.setDeletedAt(now);
+        }, note -> {
+            note.setDeleted(true);
+            note.setDeletedAt(now);
+        });
+    }
+
+    @Override
+    public void restoreFolder(String userId, String folderId, FirebaseManager.OperationCallback callback) {
+        updateFolderAndNotes(userId, folderId, "Restored", callback, folder -> {
+            folder.setDeleted(false);
+            folder.setDeletedAt(null);
+        }, note -> {
+            note.setDeleted(false);
+            note.setDeletedAt(null);
+        });
+    }
+
+    @Override
+    public void permanentDeleteFolder(String userId, String folderId, FirebaseManager.OperationCallback callback) {
+        synchronized (lock) {
+            UserData data = user(userId);
+            Changes changes = new Changes(userId);
+            for (Note note : new ArrayList<>(data.notesIn(folderId))) {
+                changes.notes.add(data.removeNote(note.getId()));
+            }
+            Folder removed = data.folders.remove(folderId);
+            if (removed != null) changes.folders.add(removed);
+            publish(changes);
+        }
+        acknowledge(callback, true, "Deleted permanently");
+    }
+
+    @Override
+    public void hideFolder(String userId, String folderId, FirebaseManager.OperationCallback callback) {
+        updateFolderAndNotes(userId, folderId, "Hidden", callback,
+                folder -> folder.setHidden(true), note -> note.setHidden(true));
+    }
+
+    @Override
+    public void unhideFolder(String userId, String folderId, FirebaseManager.OperationCallback callback) {
+        updateFolderAndNotes(userId, folderId, "Unhidden", callback,
+                folder -> folder.setHidden(false), note -> note.setHidden(false));
+    }
+
+    @Override
+    public void pinFolder(String userId, String folderId, boolean pinned, FirebaseManager.OperationCallback callback) {
+        synchronized (lock) {
+            UserData data = user(userId);
+            Folder folder = data.folders.get(folderId);
+            if (folder == null) {
+                acknowledge(callback, false, "Folder not found");
+                return;
+            }
+            Folder updated = copy(folder);
+            updated.setPinned(pinned);
+            Changes changes = new Changes(userId);
+            changes.folder(data.folders.put(folderId, updated), updated);
+            publish(changes);
+        }
+        acknowledge(callback, true, pinned ? "Pinned" : "Unpinned");
+    }
+
+    @Override
+    public void rankFolders(String userId, Map<String, String> ranks, FirebaseManager.OperationCallback callback) {
+        synchronized (lock) {
+            UserData data = user(userId);
+            Changes changes = new Changes(userId);
+            for (Map.Entry<String, String> rank : ranks.entrySet()) {
+                Folder folder = data.folders.get(rank.getKey());
+                if (folder == null) continue;
+                Folder updated = copy(folder);
+                updated.setRank(rank.getValue());
+                changes.folder(data.folders.put(updated.getId(), updated), updated);
+            }
+            publish(changes);
+        }
+        acknowledge(callback, true, "Moved");
+    }
+
+    @Override
+    public void lockFolder(String userId, String folderId, SecretKey key, byte[] keySalt, byte[] keyCheck,
+                           FirebaseManager.OperationCallback callback) {
+        try {
+            updateFolderAndNotes(userId, folderId, "Locked", callback, folder -> {
+                folder.setLocked(true);
+                folder.setKeySalt(Blob.fromBytes(keySalt));
+                folder.setKeyCheck(Blob.fromBytes(keyCheck));
+                folder.setPasswordHash(null);
+            }, note -> {
+                if (note.getEncryptedContent() != null) return;
+                note.setEncryptedContent(Blob.fromBytes(encrypt(key, note.getContent())));
+                note.setKeySalt(Blob.fromBytes(keySalt));
+                note.setKeyCheck(Blob.fromBytes(keyCheck));
+                note.setContent("");
+                note.setRevisionCount(0);
+            });
+        } catch (IllegalStateException e) {
+            acknowledge(callback, false, e.getMessage());
+        }
+    }
+
+    @Override
+    public void unlockFolder(String userId, String folderId, @Nullable SecretKey key, @Nullable byte[] keySalt,
+                             FirebaseManager.OperationCallback callback) {
+        try {
+            updateFolderAndNotes(userId, folderId, "Unlocked", callback, folder -> {
+                folder.setLocked(false);
+                folder.setPasswordHash(null);
+                folder.setKeySalt(null);
+                folder.setKeyCheck(null);
+            }, note -> {
+                Blob encrypted = note.getEncryptedContent();
+                Blob salt = note.getKeySalt();
+                // Only notes sharing the folder key; notes with their own lock stay encrypted
+                if (key == null || encrypted == null || salt == null || !Arrays.equals(salt.toBytes(), keySalt)) return;
+                note.setContent(decrypt(key, encrypted.toBytes()));
+                note.setEncryptedContent(null);
+                note.setKeySalt(null);
+                note.setKeyCheck(null);
+            });
+        } catch (IllegalStateException e) {
+            acknowledge(callback, false, e.getMessage());
+        }
+    }
+
+    // ==================== NOTES ====================
+
+    @Override
+    public Subscription listenToNotes(String userId, String folderId, SortMode sort, Executor executor,
+                                      StoreListener<Note> listener) {
+        return watch(new Watch<>(Note.class, userId, note -> folderId.equals(note.getFolderId()),
+                data -> data.notesIn(folderId), sort.noteOrder(), InMemoryStore::copy, executor, listener));
+    }
+
+    @Override
+    public Subscription listenToPinnedNotes(String userId, String folderId, Executor executor, StoreListener<Note> listener) {
+        return watch(new Watch<>(Note.class, userId, note -> note.isPinned() && folderId.equals(note.getFolderId()),
+                data -> data.notesIn(folderId), NEWEST_NOTES, InMemoryStore::copy, executor, listener));
+    }
+
+    @Override
+    public Subscription listenToRecentNotes(String userId, int limit, Executor executor, StoreListener<Note> listener) {
+        Watch<Note> watch = new Watch<>(Note.class, userId, note -> !note.isDeleted() && !note.isHidden(),
+                data -> data.notes.values(), SortMode.LAST_EDITED.noteOrder(), InMemoryStore::copy, executor, listener);
+        watch.limit = limit;
+        return watch(watch);
+    }
+
+    @Override
+    public Subscription listenToNotesChangedSince(String userId, Date since, Executor executor, StoreListener<Note> listener) {
+        return watch(new Watch<>(Note.class, userId, note -> note.getChangedAt() != null && note.getChangedAt().after(since),
+                data -> data.notes.values(), NEWEST_NOTES, InMemoryStore::copy, executor, listener));
+    }
+
+    /** Nothing to warm in memory; reports the page as Firestore would, for prefetch tests. */
+    @Override
+    public void prefetchNotes(String userId, String folderId, int limit, FirebaseManager.PrefetchCallback callback) {
+        int documents = 0;
+        long bytes = 0;
+        synchronized (lock) {
+            List<Note> page = new ArrayList<>(user(userId).notesIn(folderId));
+            page.sort(NEWEST_NOTES);
+            for (Note note : page.subList(0, Math.min(limit, page.size()))) {
+                documents++;
+                bytes += 200 + length(note.getTitle()) + length(note.getContent());
+            }
+        }
+        int fetched = documents;
+        long size = bytes;
+        after(() -> callback.onComplete(true, fetched, size));
+    }
+
+    @Override
+    public Subscription listenToTaggedNotes(String userId, Executor executor, StoreListener<Note> listener) {
+        return watch(new Watch<>(Note.class, userId, note -> !note.getTags().isEmpty(), data -> data.notes.values(),
+                NEWEST_NOTES, InMemoryStore::copy, executor, listener));
+    }
+
+    @Override
+    public Subscription listenToNotesWithTags(String userId, List<String> tags, Executor executor, StoreListener<Note> listener) {
+        return watch(new Watch<>(Note.class, userId, note -> !Collections.disjoint(note.getTags(), tags),
+                data -> data.notes.values(), NEWEST_NOTES, InMemoryStore::copy, executor, listener));
+    }
+
+    @Override
+    public Subscription listenToDeletedNotes(String userId, Executor executor, StoreListener<Note> listener) {
+        return watch(new Watch<>(Note.class, userId, Note::isDeleted, data -> data.notes.values(),
+                DELETED_NOTES, InMemoryStore::copy, executor, listener));
+    }
+
+    @Override
+    public Subscription listenToHiddenNotes(String userId, Executor executor, StoreListener<Note> listener) {
+        return watch(new Watch<>(Note.class, userId, Note::isHidden, data -> data.notes.values(),
+                NEWEST_NOTES, InMemoryStore::copy, executor, listener));
+    }
+
+    @Override
+    public void addOrUpdateNote(String userId, String folderId, Note note, FirebaseManager.OperationCallback callback) {
+        if (note.getId() == null || note.getId().isEmpty()) {
+            note.setId(newId());
+            if (note.getRank() == null) note.setRank(RankKeys.forCreation(createdAt(note.getTimestamp())));
+        }
+        if (note.getFolderId() == null) note.setFolderId(folderId);
+        if (note.getUserId() == null) note.setUserId(userId);
+        synchronized (lock) {
+            write(userId, edited(user(userId).notes.get(note.getId()), note));
+        }
+        acknowledge(callback, true, "Note saved");
+    }
+
+    @Override
+    public void saveNoteIfUnchanged(String userId, String folderId, Note note, Date baseUpdatedAt,
+                                    FirebaseManager.NoteMerger merger, FirebaseManager.NoteSaveCallback callback) {
+        if (note.getFolderId() == null) note.setFolderId(folderId);
+        if (note.getUserId() == null) note.setUserId(userId);
+        String message;
+        Note conflict = null;
+        try {
+            synchronized (lock) {
+                // The whole check-and-write holds the lock, so it never needs a second attempt
+                Note current = user(userId).notes.get(note.getId());
+                Note toWrite = note;
+                message = "Note saved";
+                if (merger != null && current != null && !sameInstant(current.getUpdatedAt(), baseUpdatedAt)) {
+                    toWrite = merger.merge(copy(current));
+                    message = "Merged with changes from another device";
+                    if (toWrite == null) conflict = copy(current);
+                }
+                if (conflict == null) write(userId, edited(current, toWrite));
+            }
+        } catch (RuntimeException e) {
+            String error = e.getMessage();
+            after(() -> callback.onError(error));
+            return;
+        }
+        Note remote = conflict;
+        String saved = message;
+        after(() -> {
+            if (remote != null) callback.onConflict(remote);
+            else callback.onSaved(saved, 1);
+        });
+    }
+
+    @Override
+    public void moveNoteToRecycleBin(String userId, String folderId, String noteId, FirebaseManager.OperationCallback callback) {
+        Date now = new Date();
+        updateNote(userId, noteId, "Moved to Recycle Bin", callback, note -> {
+            note.setDeleted(true);
+            note.setDeletedAt(now);
+        });
+    }
+
+    @Override
+    public void moveNoteToFolder(String userId, String fromFolderId, String noteId, String toFolderId,
+                                 FirebaseManager.OperationCallback callback) {
+        updateNote(userId, noteId, "Moved", callback, note -> note.setFolderId(toFolderId));
+    }
+
+    @Override
+    public void restoreNote(String userId, String folderId, String noteId, FirebaseManager.OperationCallback callback) {
+        updateNote(userId, noteId, "Restored", callback, note -> {
+            note.setDeleted(false);
+            note.setDeletedAt(null);
+        });
+    }
+
+    @Override
+    public void permanentDeleteNote(String userId, String folderId, String noteId, FirebaseManager.OperationCallback callback) {
+        synchronized (lock) {
+            Changes changes = new Changes(userId);
+            Note removed = user(userId).removeNote(noteId);
+            if (removed != null) changes.notes.add(removed);
+            publish(changes);
+        }
+        acknowledge(callback, true, "Deleted");
+    }
+
+    @Override
+    public void hideNote(String userId, String folderId, String noteId, FirebaseManager.OperationCallback callback) {
+        updateNote(userId, noteId, "Hidden", callback, note -> note.setHidden(true));
+    }
+
+    @Override
+    public void unhideNote(String userId, String folderId, String noteId, FirebaseManager.OperationCallback callback) {
+        updateNote(userId, noteId, "Unhidden", callback, note -> note.setHidden(false));
+    }
+
+    @Override
+    public void pinNote(String userId, String folderId, String noteId, boolean pinned, FirebaseManager.OperationCallback callback) {
+        updateNote(userId, noteId, pinned ? "Pinned" : "Unpinned", callback, note -> note.setPinned(pinned));
+    }
+
+    /** Ids no longer stored are skipped. */
+    @Override
+    public void rankNotes(String userId, String folderId, Map<String, String> ranks, FirebaseManager.OperationCallback callback) {
+        Date now = new Date();
+        synchronized (lock) {
+            UserData data = user(userId);
+            Changes changes = new Changes(userId);
+            for (Map.Entry<String, String> rank : ranks.entrySet()) {
+                Note note = data.notes.get(rank.getKey());
+                if (note == null) continue;
+                Note updated = copy(note);
+                updated.setRank(rank.getValue());
+                updated.setChangedAt(now);
+                changes.note(data.putNote(updated), updated);
+            }
+            publish(changes);
+        }
+        acknowledge(callback, true, "Moved");
+    }
+
+    @Override
+    public void lockNote(String userId, String folderId, String noteId, byte[] keySalt, byte[] keyCheck,
+                         byte[] encryptedContent, FirebaseManager.OperationCallback callback) {
+        updateNote(userId, noteId, "Locked", callback, note -> {
+            note.setLocked(true);
+            note.setKeySalt(Blob.fromBytes(keySalt));
+            note.setKeyCheck(Blob.fromBytes(keyCheck));
+            note.setEncryptedContent(Blob.fromBytes(encryptedContent));
+            note.setContent("");
+            note.setRevisionCount(0);
+            note.setPasswordHash(null);
+        });
+    }
+
+    @Override
+    public void unlockNote(String userId, String folderId, String noteId, String content,
+                           FirebaseManager.OperationCallback callback) {
+        updateNote(userId, noteId, "Unlocked", callback, note -> {
+            note.setLocked(false);
+            note.setContent(content);
+            note.setPasswordHash(null);
+            note.setEncryptedContent(null);
+            note.setKeySalt(null);
+            note.setKeyCheck(null);
+        });
+    }
+
+    /** All or nothing, like a batch: nothing is written when an item is missing. */
+    @Override
+    public void commitActions(String userId, List<DeferredAction> actions, FirebaseManager.OperationCallback callback) {
+        Date now = new Date();
+        synchronized (lock) {
+            UserData data = user(userId);
+            Map<String, Folder> folders = new LinkedHashMap<>();
+            Map<String, Note> notes = new LinkedHashMap<>();
+            for (DeferredAction action : actions) {
+                if (action.kind == DeferredAction.Kind.RECYCLE_FOLDER) {
+                    Folder folder = data.folders.get(action.itemId);
+                    if (folder == null) {
+                        acknowledge(callback, false, "Folder not found");
+                        return;
+                    }
+                    Folder updated = folders.computeIfAbsent(folder.getId(), id -> copy(folder));
+                    updated.setDeleted(true);
+                    updated.setDeletedAt(now);
+                    for (Note note : data.notesIn(folder.getId())) {
+                        Note recycled = notes.computeIfAbsent(note.getId(), id -> copy(note));
+                        recycled.setDeleted(true);
+                        recycled.setDeletedAt(now);
+                    }
+                    continue;
+                }
+                Note note = data.notes.get(action.itemId);
+                if (note == null) {
+                    acknowledge(callback, false, "Note not found");
+                    return;
+                }
+                Note updated = notes.computeIfAbsent(note.getId(), id -> copy(note));
+                if (action.kind == DeferredAction.Kind.HIDE_NOTE) {
+                    updated.setHidden(true);
+                } else {
+                    updated.setDeleted(true);
+                    updated.setDeletedAt(now);
+                }
+            }
+            Changes changes = new Changes(userId);
+            for (Note note : notes.values()) {
+                note.setChangedAt(now);
+                changes.note(data.putNote(note), note);
+            }
+            for (Folder folder : folders.values()) changes.folder(data.folders.put(folder.getId(), folder), folder);
+            publish(changes);
+        }
+        acknowledge(callback, true, "Done");
+    }
+
+    @Override
+    public void cleanupOldRecycleBinItems(String userId, FirebaseManager.OperationCallback callback) {
+        Date cutoff = new Date(System.currentTimeMillis() - RECYCLE_BIN_DAYS * DAY_MS);
+        synchronized (lock) {
+            UserData data = user(userId);
+            Changes changes = new Changes(userId);
+            for (Folder folder : new ArrayList<>(data.folders.values())) {
+                if (folder.isDeleted() && folder.getDeletedAt() != null && folder.getDeletedAt().before(cutoff)) {
+                    data.folders.remove(folder.getId());
+                    changes.folders.add(folder);
+                    for (Note note : new ArrayList<>(data.notesIn(folder.getId()))) {
+                        changes.notes.add(data.removeNote(note.getId()));
+                    }
+                }
+            }
+            for (Note note : new ArrayList<>(data.notes.values())) {
+                if (note.isDeleted() && note.getDeletedAt() != null && note.getDeletedAt().before(cutoff)) {
+                    changes.notes.add(data.removeNote(note.getId()));
+                }
+            }
+            publish(changes);
+        }
+        acknowledge(callback, true, "Cleanup done");
+    }
+
+    // ==================== HELPERS ====================
+
+    private void updateFolderAndNotes(String userId, String folderId, String message,
+                                      FirebaseManager.OperationCallback callback,
+                                      Consumer<Folder> folderUpdate, Consumer<Note> noteUpdate) {
+        synchronized (lock) {
+            UserData data = user(userId);
+            Folder folder = data.folders.get(folderId);
+            if (folder == null) {
+                acknowledge(callback, false, "Folder not found");
+                return;
+            }
+            // Updates go to copies first, so a failure part way leaves the store unchanged
+            Folder updatedFolder = copy(folder);
+            folderUpdate.accept(updatedFolder);
+            List<Note> updatedNotes = new ArrayList<>();
+            for (Note note : data.notesIn(folderId)) {
+                Note updated = copy(note);
+                noteUpdate.accept(updated);
+                updated.setChangedAt(new Date());
+                updatedNotes.add(updated);
+            }
+            Changes changes = new Changes(userId);
+            changes.folder(data.folders.put(folderId, updatedFolder), updatedFolder);
+            for (Note note : updatedNotes) changes.note(data.putNote(note), note);
+            publish(changes);
+        }
+        acknowledge(callback, true, message);
+    }
+
+    private void updateNote(String userId, String noteId, String message,
+                            FirebaseManager.OperationCallback callback, Consumer<Note> update) {
+        synchronized (lock) {
+            UserData data = user(userId);
+            Note note = data.notes.get(noteId);
+            if (note == null) {
+                acknowledge(callback, false, "Note not found");
+                return;
+            }
+            Note updated = copy(note);
+            update.accept(updated);
+            updated.setChangedAt(new Date());
+            Changes changes = new Changes(userId);
+            changes.note(data.putNote(updated), updated);
+            publish(changes);
+        }
+        acknowledge(callback, true, message);
+    }
+
+    /** Store a copy of {@code note}, filling in what Firestore would set as server timestamps. Call with the lock held. */
+    /**
+     * What an edit of {@code current} stores: like Firestore's field update of the edited fields,
+     * it leaves the note's rank, pin, recycle and hide state alone.
+     */
+    private static Note edited(Note current, Note edit) {
+        if (current == null) return edit;
+        Note stored = copy(current);
+        stored.setTitle(edit.getTitle());
+        stored.setContent(edit.getContent());
+        stored.setColor(edit.getColor());
+        stored.setTimestamp(edit.getTimestamp());
+        stored.setUpdatedAt(edit.getUpdatedAt());
+        stored.setLocked(edit.isLocked());
+        stored.setEncryptedContent(edit.getEncryptedContent());
+        stored.setKeySalt(edit.getKeySalt());
+        stored.setKeyCheck(edit.getKeyCheck());
+        stored.setTags(new ArrayList<>(edit.getTags()));
+        return stored;
+    }
+
+    private void write(String userId, Note note) {
+        Note stored = copy(note);
+        if (stored.getColor() == null) stored.setColor("#4ECDC4");
+        if (stored.getTimestamp() == null) stored.setTimestamp(new Date());
+        if (stored.getUpdatedAt() == null) stored.setUpdatedAt(new Date());
+        stored.setChangedAt(new Date());
+        Changes changes = new Changes(userId);
+        changes.note(user(userId).putNote(stored), stored);
+        publish(changes);
+    }
+
+    private <T> Subscription watch(Watch<T> watch) {
+        synchronized (lock) {
+            watches.add(watch);
+            watch.deliver(user(watch.userId), null);
+            watch.deliverPending(user(watch.userId));
+        }
+        return () -> {
+            watch.removed = true;
+            synchronized (lock) {
+                watches.remove(watch);
+            }
+        };
+    }
+
+    /**
+     * Deliver a local write: its items are pending until the write is acknowledged, after the
+     * configured latency. Call with the lock held.
+     */
+    private void publish(Changes changes) {
+        UserData data = user(changes.userId);
+        changes.forEachId(data, (pending, id) -> pending.merge(id, 1, Integer::sum));
+        deliver(changes);
+        after(() -> {
+            synchronized (lock) {
+                changes.forEachId(data, (pending, id) -> pending.computeIfPresent(id, (key, count) -> count > 1 ? count - 1 : null));
+                for (Watch<?> watch : watches) {
+                    if (watch.userId.equals(changes.userId) && watch.affectedBy(changes)) watch.deliverPending(data);
+                }
+            }
+        });
+    }
+
+    /** Deliver a new result to every listener one of the changed items matched before or after. Call with the lock held. */
+    private void deliver(Changes changes) {
+        UserData data = user(changes.userId);
+        for (Watch<?> watch : watches) {
+            if (watch.userId.equals(changes.userId) && watch.affectedBy(changes)) {
+                watch.deliver(data, changes);
+                watch.deliverPending(data);
+            }
+        }
+    }
+
+    private void acknowledge(@Nullable FirebaseManager.OperationCallback callback, boolean success, String message) {
+        if (callback != null) after(() -> callback.onComplete(success, message));
+    }
+
+    private void after(Runnable runnable) {
+        if (acknowledger != null) {
+            acknowledger.schedule(() -> callbackExecutor.execute(runnable), latencyMillis, TimeUnit.MILLISECONDS);
+        } else {
+            callbackExecutor.execute(runnable);
+        }
+    }
+
+    private UserData user(String userId) {
+        UserData data = users.get(userId);
+        if (data == null) {
+            data = new UserData();
+            users.put(userId, data);
+        }
+        return data;
+    }
+
+    private static String newId() {
+        return UUID.randomUUID().toString().replace("-", "").substring(0, 20);
+    }
+
+    private static int length(@Nullable String text) {
+        return text != null ? text.length() : 0;
+    }
+
+    private static long createdAt(Date createdAt) {
+        return createdAt != null ? createdAt.getTime() : System.currentTimeMillis();
+    }
+
+    private static boolean sameInstant(Date a, Date b) {
+        return a == null ? b == null : b != null && a.getTime() == b.getTime();
+    }
+
+    private static byte[] encrypt(SecretKey key, String content) {
+        try {
+            return NoteCipher.encryptString(key, content);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        }
+    }
+
+    private static String decrypt(SecretKey key, byte[] encrypted) {
+        try {
+            return NoteCipher.decryptString(key, encrypted);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        }
+    }
+
+    static Folder copy(Folder folder) {
+        Folder copy = new Folder(folder.getId(), folder.getName(), folder.getColor(), folder.getCreatedAt());
+        copy.setDeleted(folder.isDeleted());
+        copy.setDeletedAt(folder.getDeletedAt());
+        copy.setHidden(folder.isHidden());
+        copy.setLocked(folder.isLocked());
+        copy.setPasswordHash(folder.getPasswordHash());
+        copy.setKeySalt(folder.getKeySalt());
+        copy.setKeyCheck(folder.getKeyCheck());
+        copy.setRank(folder.getRank());
+        copy.setPinned(folder.isPinned());
+        return copy;
+    }
+
+    static Note copy(Note note) {
+        Note copy = new Note(note.getId(), note.getTitle(), note.getContent(), note.getColor(), note.getTimestamp());
+        copy.setUserId(note.getUserId());
+        copy.setFolderId(note.getFolderId());
+        copy.setUpdatedAt(note.getUpdatedAt());
+        copy.setChangedAt(note.getChangedAt());
+        copy.setDeleted(note.isDeleted());
+        copy.setDeletedAt(note.getDeletedAt());
+        copy.setHidden(note.isHidden());
+        copy.setLocked(note.isLocked());
+        copy.setPasswordHash(note.getPasswordHash());
+        copy.setEncryptedContent(note.getEncryptedContent());
+        copy.setKeySalt(note.getKeySalt());
+        copy.setKeyCheck(note.getKeyCheck());
+        copy.setRevisionCount(note.getRevisionCount());
+        copy.setTags(new ArrayList<>(note.getTags()));
+        copy.setRank(note.getRank());
+        copy.setPinned(note.isPinned());
+        return copy;
+    }
+
+    /** One user's documents, with notes also indexed by folder. */
+    private static final class UserData {
+        final Map<String, Folder> folders = new HashMap<>();
+        final Map<String, Note> notes = new HashMap<>();
+        final Map<String, Map<String, Note>> notesByFolder = new HashMap<>();
+        /** Unacknowledged writes by folder and note id. */
+        final Map<String, Integer> pendingFolders = new HashMap<>();
+        final Map<String, Integer> pendingNotes = new HashMap<>();
+
+        Collection<Note> notesIn(String folderId) {
+            Map<String, Note> inFolder = notesByFolder.get(folderId);
+            return inFolder != null ? inFolder.values() : new ArrayList<>();
+        }
+
+        /** Returns the note it replaced, if any. */
+        Note putNote(Note note) {
+            Note previous = removeNote(note.getId());
+            notes.put(note.getId(), note);
+            Map<String, Note> inFolder = notesByFolder.get(note.getFolderId());
+            if (inFolder == null) {
+                inFolder = new LinkedHashMap<>();
+                notesByFolder.put(note.getFolderId(), inFolder);
+            }
+            inFolder.put(note.getId(), note);
+            return previous;
+        }
+
+        Note removeNote(String noteId) {
+            Note removed = notes.remove(noteId);
+            if (removed != null) {
+                Map<String, Note> inFolder = notesByFolder.get(removed.getFolderId());
+                if (inFolder != null) inFolder.remove(noteId);
+            }
+            return removed;
+        }
+    }
+
+    /** The documents one write touched, as they were before and after it. */
+    private static final class Changes {
+        final String userId;
+        final List<Folder> folders = new ArrayList<>();
+        final List<Note> notes = new ArrayList<>();
+
+        Changes(String userId) {
+            this.userId = userId;
+        }
+
+        void folder(@Nullable Folder before, Folder after) {
+            if (before != null) folders.add(before);
+            folders.add(after);
+        }
+
+        void note(@Nullable Note before, Note after) {
+            if (before != null) notes.add(before);
+            notes.add(after);
+        }
+
+        /** Each written id once, with the pending counts of its kind. */
+        void forEachId(UserData data, BiConsumer<Map<String, Integer>, String> action) {
+            Set<String> ids = new HashSet<>();
+            for (Folder folder : folders) {
+                if (ids.add("f/" + folder.getId())) action.accept(data.pendingFolders, folder.getId());
+            }
+            for (Note note : notes) {
+                if (ids.add("n/" + note.getId())) action.accept(data.pendingNotes, note.getId());
+            }
+        }
+    }
+
+    /** An attached listener: which documents it matches, where they come from and how they are sorted. */
+    private static final class Watch<T> {
+        final Class<T> type;
+        final String userId;
+        final Predicate<T> filter;
+        final Function<UserData, Collection<T>> source;
+        final Comparator<T> order;
+        final Function<T, T> copier;
+        final Executor executor;
+        final StoreListener<T> listener;
+        /** At most this many of the sorted matches are delivered, as with a query limit. */
+        int limit = Integer.MAX_VALUE;
+        volatile boolean removed;
+        /** The pending set last delivered; guarded by the store lock. */
+        Set<String> pending = Collections.emptySet();
+
+        Watch(Class<T> type, String userId, Predicate<T> filter, Function<UserData, Collection<T>> source,
+              Comparator<T> order, Function<T, T> copier, Executor executor, StoreListener<T> listener) {
+            this.type = type;
+            this.userId = userId;
+            this.filter = filter;
+            this.source = source;
+            this.order = order;
+            this.copier = copier;
+            this.executor = executor;
+            this.listener = listener;
+        }
+
+        boolean affectedBy(Changes changes) {
+            List<?> changed = type == Folder.class ? changes.folders : changes.notes;
+            for (Object item : changed) {
+                if (filter.test(type.cast(item))) return true;
+            }
+            return false;
+        }
+
+        /**
+         * Build the result now, under the store lock, and hand it to the listener on its executor,
+         * with what {@code changes}, if any, did to it. Limited results are only delivered whole.
+         */
+        void deliver(UserData data, @Nullable Changes changes) {
+            List<T> matches = new ArrayList<>();
+            for (T item : source.apply(data)) {
+                if (filter.test(item)) matches.add(item);
+            }
+            matches.sort(order);
+            List<T> result = new ArrayList<>(Math.min(limit, matches.size()));
+            for (T item : matches.subList(0, Math.min(limit, matches.size()))) result.add(copier.apply(item));
+            List<T> changed = new ArrayList<>();
+            Set<String> removedIds = new HashSet<>();
+            boolean incremental = changes != null && limit == Integer.MAX_VALUE;
+            if (incremental) {
+                Set<String> seen = new HashSet<>();
+                for (Object item : type == Folder.class ? changes.folders : changes.notes) {
+                    String id = type == Folder.class ? ((Folder) item).getId() : ((Note) item).getId();
+                    if (!seen.add(id)) continue;
+                    Object stored = type == Folder.class ? data.folders.get(id) : data.notes.get(id);
+                    if (stored != null && filter.test(type.cast(stored))) changed.add(copier.apply(type.cast(stored)));
+                    else removedIds.add(id);
+                }
+            }
+            executor.execute(() -> {
+                if (removed) return;
+                if (incremental) listener.onItemsChanged(changed, Collections.unmodifiableSet(removedIds));
+                listener.onChanged(result);
+            });
+        }
+
+        /** Tell the listener which items in its result have unacknowledged writes, if that changed. Call with the store lock held. */
+        void deliverPending(UserData data) {
+            Map<String, Integer> counts = type == Folder.class ? data.pendingFolders : data.pendingNotes;
+            Set<String> now = new HashSet<>();
+            for (T item : source.apply(data)) {
+                if (!filter.test(item)) continue;
+                String id = type == Folder.class ? ((Folder) item).getId() : ((Note) item).getId();
+                if (counts.containsKey(id)) now.add(id);
+            }
+            if (now.equals(pending)) return;
+            pending = now;
+            Set<String> ids = Collections.unmodifiableSet(now);
+            executor.execute(() -> {
+                if (!removed) listener.onPendingWrites(ids);
+            });
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.example.notevault.store;
+
+import com.example.notevault.model.Folder;
+import com.example.notevault.model.Note;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The small lists a screen last showed, such as its pinned items or the recent notes, kept for
+ * the life of the process so the screen opened again shows them on the first frame instead of
+ * after its query answers. After a cold start those queries are seeded from the local vault
+ * snapshot instead. Each cache holds its {@link #MAX_LISTS} most recently used lists.
+ */
+public final class ListCache<T> {
+
+    static final int MAX_LISTS = 32;
+
+    private static final ListCache<Folder> PINNED_FOLDERS = new ListCache<>();
+    private static final ListCache<Note> PINNED_NOTES = new ListCache<>();
+    private static final ListCache<Note> RECENT_NOTES = new ListCache<>();
+
+    private final Map<String, List<T>> lists = new LinkedHashMap<String, List<T>>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, List<T>> eldest) {
+            return size() > MAX_LISTS;
+        }
+    };
+
+    ListCache() {
+    }
+
+    /** Pinned folders, by user id. */
+    public static ListCache<Folder> pinnedFolders() {
+        return PINNED_FOLDERS;
+    }
+
+    /** Pinned notes, by {@link #folderKey}. */
+    public static ListCache<Note> pinnedNotes() {
+        return PINNED_NOTES;
+    }
+
+    /** The most recently edited notes across folders, by user id. */
+    public static ListCache<Note> recentNotes() {
+        return RECENT_NOTES;
+    }
+
+    /** Empty every cache, as on sign-out. */
+    public static void clearAll() {
+        PINNED_FOLDERS.clear();
+        PINNED_NOTES.clear();
+        RECENT_NOTES.clear();
+    }
+
+    public static String folderKey(String userId, String folderId) {
+        return userId + "/" + folderId;
+    }
+
+    /** The last items put for {@code key}, or none; the list cannot be modified. */
+    public synchronized List<T> get(String key) {
+        List<T> items = lists.get(key);
+        return items != null ? items : Collections.emptyList();
+    }
+
+    public synchronized void put(String key, List<T> items) {
+        lists.put(key, Collections.unmodifiableList(new ArrayList<>(items)));
+    }
+
+    public synchronized void clear() {
+        lists.clear();
+    }
+}
@@ -0,0 +1,108 @@
+package com.example.notevault.store;
+
+import androidx.annotation.NonNull;
+import androidx.lifecycle.DefaultLifecycleObserver;
+import androidx.lifecycle.LifecycleOwner;
+import androidx.lifecycle.ProcessLifecycleOwner;
+
+import com.example.notevault.metrics.FirestoreMetrics;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Pauses the ViewModels' store queries while no activity of the app is visible and resumes them
+ * when one is again, so remote changes are neither downloaded nor decoded in the background.
+ * Android only stops the process's activities, not their ViewModels, so without this every
+ * list listener stays attached until the process dies.
+ */
+public final class ListenerPauser {
+
+    private static ListenerPauser instance;
+
+    private final Set<PausableQuery<?>> queries = new LinkedHashSet<>();
+    private boolean foreground = true;
+    private boolean enabled = true;
+
+    /** A pauser nothing drives; it stays in the foreground until told otherwise. */
+    public ListenerPauser() {
+    }
+
+    /** The pauser following the app process's lifecycle. Call on the main thread. */
+    public static synchronized ListenerPauser getInstance() {
+        if (instance == null) {
+            ListenerPauser pauser = new ListenerPauser();
+            ProcessLifecycleOwner.get().getLifecycle().addObserver(new DefaultLifecycleObserver() {
+                @Override
+                public void onStart(@NonNull LifecycleOwner owner) {
+                    FirestoreMetrics.getInstance().setInBackground(false);
+                    pauser.setForeground(true);
+                }
+
+                @Override
+                public void onStop(@NonNull LifecycleOwner owner) {
+                    FirestoreMetrics.getInstance().setInBackground(true);
+                    pauser.setForeground(false);
+                }
+            });
+            instance = pauser;
+        }
+        return instance;
+    }
+
+    /** Start {@code query} now, or on return to the foreground; removing the result stops it for good. */
+    public Subscription attach(PausableQuery<?> query) {
+        boolean start;
+        synchronized (this) {
+            queries.add(query);
+            start = foreground || !enabled;
+        }
+        if (start) query.resume();
+        return () -> {
+            synchronized (this) {
+                queries.remove(query);
+            }
+            query.remove();
+        };
+    }
+
+    public void setForeground(boolean foreground) {
+        synchronized (this) {
+            if (this.foreground == foreground) return;
+            this.foreground = foreground;
+            if (!enabled) return;
+        }
+        for (PausableQuery<?> query : snapshot()) {
+            if (foreground) query.resume();
+            else query.pause();
+        }
+    }
+
+    /** {@link PausableQuery#restart Restart} every query, as after the user's notes moved to another collection. */
+    public void restartAll() {
+        for (PausableQuery<?> query : snapshot()) query.restart();
+    }
+
+    /** Turn pausing off to measure background traffic without it; paused queries resume at once. */
+    public void setEnabled(boolean enabled) {
+        synchronized (this) {
+            if (this.enabled == enabled) return;
+            this.enabled = enabled;
+            if (foreground) return;
+        }
+        for (PausableQuery<?> query : snapshot()) {
+            if (enabled) query.pause();
+            else query.resume();
+        }
+    }
+
+    public synchronized boolean isEnabled() {
+        return enabled;
+    }
+
+    private synchronized List<PausableQuery<?>> snapshot() {
+        return new ArrayList<>(queries);
+    }
+}
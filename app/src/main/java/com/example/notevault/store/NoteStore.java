@@ -0,0 +1,123 @@
+package com.example.notevault.store;
+
+import androidx.annotation.Nullable;
+
+import com.example.notevault.firebase.FirebaseManager;
+import com.example.notevault.model.Note;
+import com.example.notevault.sort.SortMode;
+
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+/**
+ * Note operations the ViewModels need, independent of where notes are kept.
+ * Operation callbacks are called on the main thread by the Firestore store.
+ */
+public interface NoteStore {
+
+    /** Days a deleted item stays in the recycle bin before {@link #cleanupOldRecycleBinItems} removes it. */
+    int RECYCLE_BIN_DAYS = 30;
+
+    /** The order of {@link #listenToNotes} for {@link SortMode#NEWEST}. */
+    Comparator<Note> NEWEST_FIRST = Comparator.comparing(Note::getTimestamp, Comparator.nullsLast(Comparator.reverseOrder()));
+
+    /** The signed-in user, or null when nobody is. */
+    @Nullable
+    String currentUserId();
+
+    /**
+     * All notes of one folder in {@link SortMode#noteOrder} of {@code sort}; the caller filters out
+     * deleted and hidden ones, and sorts by title itself.
+     */
+    Subscription listenToNotes(String userId, String folderId, SortMode sort, Executor executor, StoreListener<Note> listener);
+
+    /**
+     * The user's notes in any folder whose changedAt is after {@code since}, in no particular
+     * order. Every note write sets changedAt, so this catches a paused {@link #listenToNotes}
+     * up, except for permanent deletes. updatedAt is left to edits, so it cannot be used here.
+     */
+    Subscription listenToNotesChangedSince(String userId, Date since, Executor executor, StoreListener<Note> listener);
+
+    /**
+     * Load the first {@code limit} notes of a folder, newest first, into the
+     * local cache ahead of the folder being opened. The callback may run on any thread.
+     */
+    void prefetchNotes(String userId, String folderId, int limit, FirebaseManager.PrefetchCallback callback);
+
+    /**
+     * Every note with at least one tag, in any folder, in no particular order; what a
+     * {@link com.example.notevault.tags.TagIndex} is kept from. The caller filters out deleted
+     * and hidden ones.
+     */
+    Subscription listenToTaggedNotes(String userId, Executor executor, StoreListener<Note> listener);
+
+    /**
+     * Notes in any folder carrying at least one of {@code tags}, newest first; at most
+     * {@link com.example.notevault.tags.Tags#MAX_QUERY_TAGS} tags. The caller filters out
+     * deleted and hidden ones.
+     */
+    Subscription listenToNotesWithTags(String userId, List<String> tags, Executor executor, StoreListener<Note> listener);
+
+    /** The {@code limit} most recently edited notes in any folder, not deleted or hidden, last edited first. */
+    Subscription listenToRecentNotes(String userId, int limit, Executor executor, StoreListener<Note> listener);
+
+    /** Pinned notes of the folder, newest first; the caller filters out deleted and hidden ones. */
+    Subscription listenToPinnedNotes(String userId, String folderId, Executor executor, StoreListener<Note> listener);
+
+    /** Notes in the recycle bin across folders, most recently deleted first. */
+    Subscription listenToDeletedNotes(String userId, Executor executor, StoreListener<Note> listener);
+
+    /** Hidden notes across folders, newest first. */
+    Subscription listenToHiddenNotes(String userId, Executor executor, StoreListener<Note> listener);
+
+    /**
+     * Create the note when it has no id yet, which is then assigned to it; otherwise save its
+     * edited fields, leaving its rank, pin, recycle and hide state as stored.
+     */
+    void addOrUpdateNote(String userId, String folderId, Note note, FirebaseManager.OperationCallback callback);
+
+    /**
+     * Save an edit only if nobody else saved the note since {@code baseUpdatedAt}; otherwise
+     * {@code merger} combines it with the stored note or reports a conflict. Without a merger
+     * the edit is saved regardless. Saves only the edited fields, as {@link #addOrUpdateNote}.
+     */
+    void saveNoteIfUnchanged(String userId, String folderId, Note note, Date baseUpdatedAt,
+                             FirebaseManager.NoteMerger merger, FirebaseManager.NoteSaveCallback callback);
+
+    void moveNoteToRecycleBin(String userId, String folderId, String noteId, FirebaseManager.OperationCallback callback);
+
+    void moveNoteToFolder(String userId, String fromFolderId, String noteId, String toFolderId,
+                          FirebaseManager.OperationCallback callback);
+
+    void restoreNote(String userId, String folderId, String noteId, FirebaseManager.OperationCallback callback);
+
+    void permanentDeleteNote(String userId, String folderId, String noteId, FirebaseManager.OperationCallback callback);
+
+    void hideNote(String userId, String folderId, String noteId, FirebaseManager.OperationCallback callback);
+
+    void unhideNote(String userId, String folderId, String noteId, FirebaseManager.OperationCallback callback);
+
+    void pinNote(String userId, String folderId, String noteId, boolean pinned, FirebaseManager.OperationCallback callback);
+
+    /** Set the manual-order rank of each note in {@code ranks}, by note id. */
+    void rankNotes(String userId, String folderId, Map<String, String> ranks, FirebaseManager.OperationCallback callback);
+
+    /**
+     * Commit actions an {@link UndoWindow} held back, in as few batches as possible. Fails as a
+     * whole when an item no longer exists.
+     */
+    void commitActions(String userId, List<DeferredAction> actions, FirebaseManager.OperationCallback callback);
+
+    /** Replace the note's content with {@code encryptedContent}, encrypted with the key for {@code keySalt}. */
+    void lockNote(String userId, String folderId, String noteId, byte[] keySalt, byte[] keyCheck,
+                  byte[] encryptedContent, FirebaseManager.OperationCallback callback);
+
+    /** Store the note's decrypted {@code content} in plain text again. */
+    void unlockNote(String userId, String folderId, String noteId, String content, FirebaseManager.OperationCallback callback);
+
+    /** Permanently delete folders and notes that have been in the recycle bin for {@link #RECYCLE_BIN_DAYS}. */
+    void cleanupOldRecycleBinItems(String userId, FirebaseManager.OperationCallback callback);
+}
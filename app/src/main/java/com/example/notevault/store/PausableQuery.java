@@ -0,0 +1,205 @@
+package com.example.notevault.store;
+
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * A store query that can be detached while its screen is in the background and attached again
+ * later. By default {@link #resume} simply listens again. With {@link #catchUpWith} it instead
+ * listens only for items updated since it was paused, merging them into the result it kept, so
+ * returning to the app does not download and decode the whole collection again.
+ *
+ * The listener always receives the complete result, like any store listener.
+ */
+public final class PausableQuery<T> implements Subscription {
+
+    /** Attaches the full query. */
+    public interface Source<T> {
+        Subscription listen(StoreListener<T> listener);
+    }
+
+    /** Attaches a query for items updated after {@code since}, wherever they now belong. */
+    public interface ChangedSince<T> {
+        Subscription listen(Date since, StoreListener<T> listener);
+    }
+
+    /** The catch-up query starts this far before the pause, in case another device's clock is behind this one's. */
+    static final long CATCH_UP_MARGIN_MS = 5 * 60 * 1000;
+
+    private final Source<T> source;
+    private final StoreListener<T> listener;
+
+    private ChangedSince<T> changedSince;
+    private Function<T, String> idOf;
+    private Predicate<T> belongs;
+    private Comparator<T> order;
+
+    /** The last result by id, kept only when catching up. */
+    private final Map<String, T> items = new HashMap<>();
+    /** When the listener last detached after delivering {@link #items}; changes since need catching up. */
+    @Nullable
+    private Date pausedAt;
+    /** Whether the current subscription has delivered a result. */
+    private boolean delivered;
+    @Nullable
+    private Subscription subscription;
+    /** Bumped on every attach and detach, so a late delivery from an old subscription is dropped. */
+    private int generation;
+    private boolean removed;
+    private int catchUps;
+
+    public PausableQuery(Source<T> source, StoreListener<T> listener) {
+        this.source = source;
+        this.listener = listener;
+    }
+
+    /**
+     * Resume with {@code changedSince} instead of the full query. Items it returns replace the
+     * kept ones by {@code idOf}, or remove them when they no longer {@code belong} to this
+     * query; the merged result is sorted by {@code order}, which must match the full query.
+     * It is asked for changes since the pause rather than since the newest kept item, which
+     * for a list nobody edited in months would fetch months of changes to other lists.
+     */
+    public PausableQuery<T> catchUpWith(ChangedSince<T> changedSince, Function<T, String> idOf,
+                                        Predicate<T> belongs, Comparator<T> order) {
+        this.changedSince = changedSince;
+        this.idOf = idOf;
+        this.belongs = belongs;
+        this.order = order;
+        return this;
+    }
+
+    /** Attach, catching up when a result was kept; does nothing while attached. */
+    public void resume() {
+        synchronized (this) {
+            if (removed || subscription != null) return;
+        }
+        boolean catchUp;
+        Date since = null;
+        int attachGeneration;
+        synchronized (this) {
+            catchUp = changedSince != null && pausedAt != null;
+            if (catchUp) {
+                since = new Date(pausedAt.getTime() - CATCH_UP_MARGIN_MS);
+                catchUps++;
+            }
+            delivered = false;
+            attachGeneration = ++generation;
+        }
+        StoreListener<T> delivery = new StoreListener<T>() {
+            @Override
+            public void onChanged(List<T> result) {
+                deliver(attachGeneration, catchUp, result);
+            }
+
+            @Override
+            public void onError(String message) {
+                if (isCurrent(attachGeneration)) listener.onError(message);
+            }
+
+            @Override
+            public void onPendingWrites(Set<String> ids) {
+                if (isCurrent(attachGeneration)) listener.onPendingWrites(ids);
+            }
+
+            @Override
+            public void onItemsChanged(List<T> changed, Set<String> removedIds) {
+                // A catch-up result is merged into the kept one, so only the full result is passed on
+                if (changedSince == null && isCurrent(attachGeneration)) listener.onItemsChanged(changed, removedIds);
+            }
+        };
+        Subscription attached = catchUp ? changedSince.listen(since, delivery) : source.listen(delivery);
+        synchronized (this) {
+            if (attachGeneration == generation && !removed) {
+                subscription = attached;
+                return;
+            }
+        }
+        // Paused or removed while attaching
+        attached.remove();
+    }
+
+    /** Detach, keeping the last result for the next {@link #resume}. */
+    public void pause() {
+        Subscription detached;
+        synchronized (this) {
+            detached = subscription;
+            subscription = null;
+            generation++;
+            // Otherwise the kept result is only as recent as the previous pause
+            if (detached != null && delivered && changedSince != null) pausedAt = new Date();
+        }
+        if (detached != null) detached.remove();
+    }
+
+    /**
+     * Listen again to the full query, dropping the kept result, as when the query now reads
+     * other documents; a paused query stays paused and listens in full when resumed.
+     */
+    public void restart() {
+        boolean attached;
+        synchronized (this) {
+            attached = subscription != null;
+        }
+        if (attached) pause();
+        synchronized (this) {
+            items.clear();
+            pausedAt = null;
+        }
+        if (attached) resume();
+    }
+
+    public synchronized boolean isPaused() {
+        return subscription == null;
+    }
+
+    /** How many times {@link #resume} caught up rather than listening again. */
+    public synchronized int catchUps() {
+        return catchUps;
+    }
+
+    @Override
+    public void remove() {
+        synchronized (this) {
+            removed = true;
+        }
+        pause();
+    }
+
+    private synchronized boolean isCurrent(int attachGeneration) {
+        return attachGeneration == generation && !removed;
+    }
+
+    private void deliver(int attachGeneration, boolean catchUp, List<T> result) {
+        List<T> merged;
+        synchronized (this) {
+            if (attachGeneration != generation || removed) return;
+            delivered = true;
+            if (changedSince == null) {
+                merged = result;
+            } else if (!catchUp) {
+                items.clear();
+                for (T item : result) items.put(idOf.apply(item), item);
+                merged = result;
+            } else {
+                for (T item : result) {
+                    if (belongs.test(item)) items.put(idOf.apply(item), item);
+                    else items.remove(idOf.apply(item));
+                }
+                merged = new ArrayList<>(items.values());
+                merged.sort(order);
+            }
+        }
+        // Outside the lock, so pausing never waits for the listener
+        listener.onChanged(merged);
+    }
+}
@@ -0,0 +1,27 @@
+package com.example.notevault.store;
+
+import java.util.List;
+import java.util.Set;
+
+/** Receives the result of a store query, on the executor it was attached with. */
+public interface StoreListener<T> {
+    /** The complete result, in query order, first when attached and again after every change. */
+    void onChanged(List<T> items);
+
+    void onError(String message);
+
+    /**
+     * What changed since the previous result: the items added or modified, and the ids of those
+     * that left it. Called just before {@link #onChanged} for every result of a subscription but
+     * the first, so a listener keeping its own index of the result need not walk all of it.
+     */
+    default void onItemsChanged(List<T> changed, Set<String> removedIds) {
+    }
+
+    /**
+     * Ids of the items in the result with local writes the server has not confirmed yet, each
+     * time that set changes. Confirming a write calls only this, not {@link #onChanged}.
+     */
+    default void onPendingWrites(Set<String> ids) {
+    }
+}
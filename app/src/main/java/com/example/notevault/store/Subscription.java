@@ -0,0 +1,7 @@
+package com.example.notevault.store;
+
+/** An attached store listener. */
+public interface Subscription {
+    /** Stop delivering changes. Safe to call more than once. */
+    void remove();
+}
@@ -0,0 +1,156 @@
+package com.example.notevault.store;
+
+import androidx.annotation.Nullable;
+
+import com.example.notevault.firebase.FirebaseManager;
+import com.example.notevault.utils.Futures;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Holds recycle and hide actions back for {@link #WINDOW_MS} before committing them, so an
+ * accidental one can be undone without any write: the screen hides the item at once, and undo
+ * just drops the held action. Actions falling due within {@link #COALESCE_MS} of each other are
+ * committed together, which the store turns into as few batches as it can. An action is never
+ * committed before its window ends, only up to {@link #MAX_EXTRA_HOLD_MS} after.
+ */
+public final class UndoWindow {
+
+    /** Commits actions of one user; the callback gets the outcome of the whole lot. */
+    public interface Committer {
+        void commit(String userId, List<DeferredAction> actions, FirebaseManager.OperationCallback callback);
+    }
+
+    /** Time and delayed tasks; replaced in tests by a manual clock. */
+    public interface Timer {
+        long nowMs();
+        void schedule(Runnable task, long delayMs);
+    }
+
+    /** A held action. */
+    public interface Handle {
+        /** Drop the action if it has not been committed yet; returns whether it was. Its callback is not called. */
+        boolean undo();
+    }
+
+    /** As long as the undo snackbar shows. */
+    public static final long WINDOW_MS = 4_000;
+    static final long COALESCE_MS = 1_500;
+    static final long MAX_EXTRA_HOLD_MS = 3_000;
+
+    private final Committer committer;
+    private final Timer timer;
+    private final long windowMs;
+    private final List<Held> held = new ArrayList<>();
+
+    private static final class Held {
+        final DeferredAction action;
+        @Nullable
+        final FirebaseManager.OperationCallback callback;
+        final long dueAt;
+
+        Held(DeferredAction action, @Nullable FirebaseManager.OperationCallback callback, long dueAt) {
+            this.action = action;
+            this.callback = callback;
+            this.dueAt = dueAt;
+        }
+    }
+
+    public UndoWindow(Committer committer) {
+        this(committer, systemTimer(), WINDOW_MS);
+    }
+
+    UndoWindow(Committer committer, Timer timer, long windowMs) {
+        this.committer = committer;
+        this.timer = timer;
+        this.windowMs = windowMs;
+    }
+
+    /** Commit {@code action} once the window has passed unless it is undone first; {@code callback} gets the outcome. */
+    public Handle hold(DeferredAction action, @Nullable FirebaseManager.OperationCallback callback) {
+        Held entry = new Held(action, callback, timer.nowMs() + windowMs);
+        synchronized (this) {
+            held.add(entry);
+        }
+        timer.schedule(this::commitDue, windowMs);
+        return () -> {
+            synchronized (this) {
+                return held.remove(entry);
+            }
+        };
+    }
+
+    /** Commit everything held now, as when the screen holding it goes away. */
+    public void flush() {
+        commit(takeDue(Long.MAX_VALUE));
+    }
+
+    /** Actions waiting for their window to pass. */
+    public synchronized int held() {
+        return held.size();
+    }
+
+    private void commitDue() {
+        long now = timer.nowMs();
+        List<Held> due;
+        synchronized (this) {
+            long oldestDue = Long.MAX_VALUE;
+            long nextDue = Long.MAX_VALUE;
+            for (Held entry : held) {
+                if (entry.dueAt <= now) oldestDue = Math.min(oldestDue, entry.dueAt);
+                else nextDue = Math.min(nextDue, entry.dueAt);
+            }
+            if (oldestDue == Long.MAX_VALUE) return;
+            // Another action falls due shortly; its timer commits this one along with it
+            if (nextDue - now <= COALESCE_MS && nextDue - oldestDue <= MAX_EXTRA_HOLD_MS) return;
+            due = takeDue(now);
+        }
+        commit(due);
+    }
+
+    private synchronized List<Held> takeDue(long dueBy) {
+        List<Held> due = new ArrayList<>();
+        for (Iterator<Held> it = held.iterator(); it.hasNext(); ) {
+            Held entry = it.next();
+            if (entry.dueAt <= dueBy) {
+                due.add(entry);
+                it.remove();
+            }
+        }
+        return due;
+    }
+
+    private void commit(List<Held> due) {
+        Map<String, List<Held>> byUser = new LinkedHashMap<>();
+        for (Held entry : due) byUser.computeIfAbsent(entry.action.userId, user -> new ArrayList<>()).add(entry);
+        for (Map.Entry<String, List<Held>> user : byUser.entrySet()) {
+            List<Held> entries = user.getValue();
+            List<DeferredAction> actions = new ArrayList<>();
+            for (Held entry : entries) actions.add(entry.action);
+            committer.commit(user.getKey(), actions, (success, message) -> {
+                for (Held entry : entries) {
+                    if (entry.callback != null) entry.callback.onComplete(success, success ? entry.action.kind.message : message);
+                }
+            });
+        }
+    }
+
+    private static Timer systemTimer() {
+        return new Timer() {
+            @Override
+            public long nowMs() {
+                return System.nanoTime() / 1_000_000;
+            }
+
+            @Override
+            public void schedule(Runnable task, long delayMs) {
+                Futures.schedule(task, delayMs, TimeUnit.MILLISECONDS);
+            }
+        };
+    }
+}
@@ -0,0 +1,318 @@
+package com.example.notevault.tags;
+
+import com.example.notevault.model.Note;
+import com.example.notevault.store.NoteStore;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Which notes carry which tag, kept up to date from the results of a tagged-notes listener.
+ * Each tag has a posting list of note slots and each note the positions it holds in its tags'
+ * lists, so adding or removing a note's tag is constant time and a snapshot re-indexes only the
+ * notes that changed. A tag filter reads one posting list; an intersection walks the shortest
+ * one and checks each note's own handful of tags, never the other lists or the vault.
+ *
+ * Thread-safe; updates are meant to run on the listener's executor.
+ */
+public final class TagIndex {
+
+    /** A tag and how many notes carry it. */
+    public static final class TagCount {
+        public final String tag;
+        public final int count;
+
+        TagCount(String tag, int count) {
+            this.tag = tag;
+            this.count = count;
+        }
+
+        @Override
+        public String toString() {
+            return tag + " " + count;
+        }
+    }
+
+    private static final int[] NO_TAGS = new int[0];
+    /** The order the cloud is built in: the least used tag, and of equally used ones the last by name, first. */
+    private static final Comparator<TagCount> LEAST_USED_FIRST = (a, b) ->
+            a.count != b.count ? Integer.compare(a.count, b.count) : b.tag.compareTo(a.tag);
+
+    /** Note slots by note id; freed slots are reused. */
+    private final Map<String, Integer> slotsById = new HashMap<>();
+    private Note[] notes = new Note[256];
+    /** The tag ids of the note in each slot, and the note's position in each of those tags' postings. */
+    private int[][] noteTags = new int[256][];
+    private int[][] notePositions = new int[256][];
+    /** The last {@link #update} that saw each slot, to find notes that left the result. */
+    private int[] seenIn = new int[256];
+    private int[] freeSlots = new int[16];
+    private int freeCount;
+    private int slotCount;
+
+    /** Tag ids by tag; a tag nobody carries any more gives its id back. */
+    private final Map<String, Integer> tagIds = new HashMap<>();
+    private String[] tagNames = new String[64];
+    private int[][] postings = new int[64][];
+    private int[] postingSizes = new int[64];
+    private int[] freeTags = new int[16];
+    private int freeTagCount;
+    private int tagCount;
+
+    /** Stamps for {@link #notesWithAny}, so a note in several of the lists is taken once. */
+    private int[] takenIn = new int[256];
+    private int stamp;
+    private int generation;
+    private boolean loaded;
+
+    /**
+     * Index a complete listener result. Notes still the same object as last time are skipped,
+     * as are notes whose tags did not change; notes missing from the result are dropped.
+     */
+    public synchronized void update(List<Note> result) {
+        int current = ++generation;
+        int seen = 0;
+        for (Note note : result) {
+            Integer slot = slotsById.get(note.getId());
+            if (slot == null) {
+                slot = insert(note);
+            } else if (seenIn[slot] == current) {
+                // The same note twice, as a collection group query may show while notes are copied
+                put(slot, note);
+                continue;
+            } else {
+                put(slot, note);
+            }
+            seenIn[slot] = current;
+            seen++;
+        }
+        if (seen < slotsById.size()) {
+            for (int slot = 0; slot < slotCount; slot++) {
+                if (notes[slot] != null && seenIn[slot] != current) free(slot);
+            }
+        }
+        loaded = true;
+    }
+
+    /** Index one added or changed note. */
+    public synchronized void put(Note note) {
+        Integer slot = slotsById.get(note.getId());
+        if (slot == null) insert(note);
+        else put(slot, note);
+    }
+
+    public synchronized void remove(String noteId) {
+        Integer slot = slotsById.get(noteId);
+        if (slot != null) free(slot);
+    }
+
+    public synchronized void clear() {
+        slotsById.clear();
+        tagIds.clear();
+        Arrays.fill(notes, null);
+        Arrays.fill(tagNames, null);
+        Arrays.fill(postingSizes, 0);
+        slotCount = 0;
+        freeCount = 0;
+        tagCount = 0;
+        freeTagCount = 0;
+        loaded = false;
+    }
+
+    /** Whether a listener result has been indexed since the index was created or cleared. */
+    public synchronized boolean isLoaded() {
+        return loaded;
+    }
+
+    /** Notes indexed, tagged or not. */
+    public synchronized int size() {
+        return slotsById.size();
+    }
+
+    public synchronized int count(String tag) {
+        Integer id = tagIds.get(tag);
+        return id != null ? postingSizes[id] : 0;
+    }
+
+    /** Notes carrying every one of {@code tags}, in {@link NoteStore#NEWEST_FIRST} order; none for no tags. */
+    public synchronized List<Note> notesWithAll(Collection<String> tags) {
+        List<Note> found = new ArrayList<>();
+        if (tags.isEmpty()) return found;
+        int[] wanted = new int[tags.size()];
+        int n = 0;
+        int shortest = -1;
+        for (String tag : tags) {
+            Integer id = tagIds.get(tag);
+            if (id == null) return found;
+            wanted[n++] = id;
+            if (shortest < 0 || postingSizes[id] < postingSizes[shortest]) shortest = id;
+        }
+        int[] posting = postings[shortest];
+        for (int i = 0; i < postingSizes[shortest]; i++) {
+            int slot = posting[i];
+            if (hasAll(noteTags[slot], wanted, n)) found.add(notes[slot]);
+        }
+        found.sort(NoteStore.NEWEST_FIRST);
+        return found;
+    }
+
+    /** Notes carrying at least one of {@code tags}, newest first. */
+    public synchronized List<Note> notesWithAny(Collection<String> tags) {
+        List<Note> found = new ArrayList<>();
+        int current = ++stamp;
+        for (String tag : tags) {
+            Integer id = tagIds.get(tag);
+            if (id == null) continue;
+            int[] posting = postings[id];
+            for (int i = 0; i < postingSizes[id]; i++) {
+                int slot = posting[i];
+                if (takenIn[slot] == current) continue;
+                takenIn[slot] = current;
+                found.add(notes[slot]);
+            }
+        }
+        found.sort(NoteStore.NEWEST_FIRST);
+        return found;
+    }
+
+    /** The {@code limit} most used tags, most used first, ties by name. */
+    public synchronized List<TagCount> cloud(int limit) {
+        PriorityQueue<TagCount> top = new PriorityQueue<>(Math.max(1, limit), LEAST_USED_FIRST);
+        for (int id = 0; id < tagCount; id++) {
+            if (tagNames[id] == null || postingSizes[id] == 0) continue;
+            TagCount candidate = new TagCount(tagNames[id], postingSizes[id]);
+            if (top.size() < limit) {
+                top.add(candidate);
+            } else if (limit > 0 && LEAST_USED_FIRST.compare(candidate, top.peek()) > 0) {
+                top.poll();
+                top.add(candidate);
+            }
+        }
+        List<TagCount> cloud = new ArrayList<>(top);
+        cloud.sort(LEAST_USED_FIRST.reversed());
+        return cloud;
+    }
+
+    private int insert(Note note) {
+        int slot = freeCount > 0 ? freeSlots[--freeCount] : slotCount++;
+        if (slot == notes.length) growNotes();
+        slotsById.put(note.getId(), slot);
+        notes[slot] = note;
+        noteTags[slot] = NO_TAGS;
+        notePositions[slot] = NO_TAGS;
+        retag(slot, note.getTags());
+        return slot;
+    }
+
+    private void put(int slot, Note note) {
+        Note previous = notes[slot];
+        notes[slot] = note;
+        if (previous == note || sameTags(noteTags[slot], note.getTags())) return;
+        retag(slot, note.getTags());
+    }
+
+    private void free(int slot) {
+        retag(slot, null);
+        slotsById.remove(notes[slot].getId());
+        notes[slot] = null;
+        if (freeCount == freeSlots.length) freeSlots = Arrays.copyOf(freeSlots, freeCount * 2);
+        freeSlots[freeCount++] = slot;
+    }
+
+    /** Replace the slot's tags with {@code tags}, moving it between posting lists. */
+    private void retag(int slot, List<String> tags) {
+        int[] oldTags = noteTags[slot];
+        int[] oldPositions = notePositions[slot];
+        for (int i = 0; i < oldTags.length; i++) unpost(oldTags[i], oldPositions[i]);
+        List<String> normalized = tags != null ? Tags.normalizeAll(tags) : new ArrayList<>();
+        int[] newTags = normalized.isEmpty() ? NO_TAGS : new int[normalized.size()];
+        int[] newPositions = normalized.isEmpty() ? NO_TAGS : new int[normalized.size()];
+        for (int i = 0; i < newTags.length; i++) {
+            newTags[i] = tagId(normalized.get(i));
+            newPositions[i] = post(newTags[i], slot);
+        }
+        noteTags[slot] = newTags;
+        notePositions[slot] = newPositions;
+    }
+
+    /** Append {@code slot} to the tag's posting list; returns its position there. */
+    private int post(int tag, int slot) {
+        int size = postingSizes[tag];
+        if (size == postings[tag].length) postings[tag] = Arrays.copyOf(postings[tag], size * 2);
+        postings[tag][size] = slot;
+        postingSizes[tag] = size + 1;
+        return size;
+    }
+
+    /** Remove the entry at {@code position}, moving the last entry into its place. */
+    private void unpost(int tag, int position) {
+        int last = --postingSizes[tag];
+        if (position != last) {
+            int moved = postings[tag][last];
+            postings[tag][position] = moved;
+            int[] movedTags = noteTags[moved];
+            for (int i = 0; i < movedTags.length; i++) {
+                if (movedTags[i] == tag) notePositions[moved][i] = position;
+            }
+        }
+        if (last == 0) {
+            tagIds.remove(tagNames[tag]);
+            tagNames[tag] = null;
+            if (freeTagCount == freeTags.length) freeTags = Arrays.copyOf(freeTags, freeTagCount * 2);
+            freeTags[freeTagCount++] = tag;
+        }
+    }
+
+    private int tagId(String tag) {
+        Integer id = tagIds.get(tag);
+        if (id != null) return id;
+        int created = freeTagCount > 0 ? freeTags[--freeTagCount] : tagCount++;
+        if (created == tagNames.length) {
+            tagNames = Arrays.copyOf(tagNames, created * 2);
+            postings = Arrays.copyOf(postings, created * 2);
+            postingSizes = Arrays.copyOf(postingSizes, created * 2);
+        }
+        tagNames[created] = tag;
+        if (postings[created] == null) postings[created] = new int[4];
+        postingSizes[created] = 0;
+        tagIds.put(tag, created);
+        return created;
+    }
+
+    private boolean sameTags(int[] ids, List<String> tags) {
+        if (ids.length != tags.size()) return false;
+        for (int i = 0; i < ids.length; i++) {
+            if (!tagNames[ids[i]].equals(tags.get(i))) return false;
+        }
+        return true;
+    }
+
+    private static boolean hasAll(int[] noteTags, int[] wanted, int n) {
+        for (int i = 0; i < n; i++) {
+            boolean found = false;
+            for (int tag : noteTags) {
+                if (tag == wanted[i]) {
+                    found = true;
+                    break;
+                }
+            }
+            if (!found) return false;
+        }
+        return true;
+    }
+
+    private void growNotes() {
+        int size = notes.length * 2;
+        notes = Arrays.copyOf(notes, size);
+        noteTags = Arrays.copyOf(noteTags, size);
+        notePositions = Arrays.copyOf(notePositions, size);
+        seenIn = Arrays.copyOf(seenIn, size);
+        takenIn = Arrays.copyOf(takenIn, size);
+    }
+}
@@ -0,0 +1,69 @@
+package com.example.notevault.tags;
+
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * How tags are written. A tag is stored lower case, without a leading '#', with runs of
+ * whitespace turned into '-', so "#Work  Trips" and "work-trips" are the same tag and an
+ * equality query on the stored array finds both.
+ */
+public final class Tags {
+
+    /** Tags on one note; the rest are dropped. */
+    public static final int MAX_PER_NOTE = 10;
+    /** Values one array-contains-any query may take. */
+    public static final int MAX_QUERY_TAGS = 30;
+    static final int MAX_LENGTH = 40;
+
+    private Tags() {
+    }
+
+    /** {@code raw} as a tag, or null when nothing is left of it. */
+    @Nullable
+    public static String normalize(@Nullable String raw) {
+        if (raw == null) return null;
+        String tag = raw.trim();
+        while (tag.startsWith("#")) tag = tag.substring(1);
+        tag = tag.trim().toLowerCase(Locale.ROOT).replaceAll("[\\s,]+", "-");
+        if (tag.length() > MAX_LENGTH) tag = tag.substring(0, MAX_LENGTH);
+        return tag.isEmpty() ? null : tag;
+    }
+
+    /** Each of {@code raw} normalized, without duplicates, in order, at most {@link #MAX_PER_NOTE}. */
+    public static List<String> normalizeAll(@Nullable Collection<String> raw) {
+        Set<String> tags = new LinkedHashSet<>();
+        if (raw != null) {
+            for (String value : raw) {
+                String tag = normalize(value);
+                if (tag != null && tags.size() < MAX_PER_NOTE) tags.add(tag);
+            }
+        }
+        return new ArrayList<>(tags);
+    }
+
+    /** The tags typed into a text field, separated by commas, spaces or '#'. */
+    public static List<String> parse(@Nullable String text) {
+        List<String> raw = new ArrayList<>();
+        if (text != null) {
+            for (String part : text.split("[,#\\s]+")) raw.add(part);
+        }
+        return normalizeAll(raw);
+    }
+
+    /** {@code tags} as {@link #parse} reads them back, "#work #trips". */
+    public static String format(Collection<String> tags) {
+        StringBuilder sb = new StringBuilder();
+        for (String tag : tags) {
+            if (sb.length() > 0) sb.append(' ');
+            sb.append('#').append(tag);
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,88 @@
+package com.example.notevault.utils;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The app's shared pool for Firestore snapshot delivery and task continuations, so that decoding
+ * snapshots and building rows never competes with rendering on the main thread. The pool has a
+ * fixed number of threads; bursts queue rather than start more. Work that must run in order,
+ * such as one ViewModel's snapshots, goes through a {@link #serial()} lane of the pool.
+ */
+public final class BackgroundExecutor implements Executor {
+
+    /** Leave a core for the main and render threads, but keep two so one slow decode does not stall the rest. */
+    static final int THREADS = Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors() - 1));
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    private static final BackgroundExecutor INSTANCE = new BackgroundExecutor(THREADS);
+
+    private final ThreadPoolExecutor pool;
+
+    BackgroundExecutor(int threads) {
+        AtomicInteger count = new AtomicInteger();
+        pool = new ThreadPoolExecutor(threads, threads, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), r -> {
+                    Thread thread = new Thread(r, "NoteVault-bg-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    // Java priority 4 is THREAD_PRIORITY_BACKGROUND (nice 10) on Android
+                    thread.setPriority(Thread.NORM_PRIORITY - 1);
+                    return thread;
+                });
+        pool.allowCoreThreadTimeOut(true);
+    }
+
+    public static BackgroundExecutor getInstance() {
+        return INSTANCE;
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        pool.execute(command);
+    }
+
+    /** A new lane that runs its tasks one at a time, in submission order, on this pool. */
+    public Executor serial() {
+        return new Serial();
+    }
+
+    /** Tasks submitted but not started yet, across all lanes. */
+    public int queued() {
+        return pool.getQueue().size();
+    }
+
+    private final class Serial implements Executor {
+
+        private final ArrayDeque<Runnable> tasks = new ArrayDeque<>();
+        private boolean running;
+
+        @Override
+        public synchronized void execute(Runnable command) {
+            tasks.add(command);
+            if (!running) {
+                running = true;
+                pool.execute(this::drain);
+            }
+        }
+
+        /** Runs one task, then hands the lane back to the pool so other lanes get a turn. */
+        private void drain() {
+            Runnable next;
+            synchronized (this) {
+                next = tasks.poll();
+            }
+            try {
+                next.run();
+            } finally {
+                synchronized (this) {
+                    if (tasks.isEmpty()) running = false;
+                    else pool.execute(this::drain);
+                }
+            }
+        }
+    }
+}
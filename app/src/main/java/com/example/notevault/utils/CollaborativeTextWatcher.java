@@ -0,0 +1,65 @@
+package com.example.notevault.utils;
+
+import android.text.Editable;
+import android.text.TextWatcher;
+
+/**
+ * Bridges an EditText and a shared note: reports what the user changes, and shows changes
+ * from other devices without reporting them back.
+ */
+public class CollaborativeTextWatcher implements TextWatcher {
+
+    public interface Listener {
+        /** {@code removed} at {@code start} was replaced by {@code inserted}. */
+        void onLocalEdit(int start, String removed, String inserted);
+    }
+
+    private final Listener listener;
+    private boolean applyingRemote;
+    private String removed = "";
+
+    public CollaborativeTextWatcher(Listener listener) {
+        this.listener = listener;
+    }
+
+    /** Show {@code text}, replacing only the range that differs so the cursor stays where it was. */
+    public void applyRemote(Editable editable, String text) {
+        applyingRemote = true;
+        try {
+            replace(editable, text);
+        } finally {
+            applyingRemote = false;
+        }
+    }
+
+    /** Like {@link #applyRemote} but reported as a local edit. */
+    public void applyLocal(Editable editable, String text) {
+        replace(editable, text);
+    }
+
+    private static void replace(Editable editable, String text) {
+        int length = editable.length();
+        int max = Math.min(length, text.length());
+        int prefix = 0;
+        while (prefix < max && editable.charAt(prefix) == text.charAt(prefix)) prefix++;
+        int suffix = 0;
+        while (suffix < max - prefix
+                && editable.charAt(length - 1 - suffix) == text.charAt(text.length() - 1 - suffix)) suffix++;
+        if (prefix == length && prefix == text.length()) return;
+        editable.replace(prefix, length - suffix, text, prefix, text.length() - suffix);
+    }
+
+    @Override
+    public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+        if (!applyingRemote) removed = s.subSequence(start, start + count).toString();
+    }
+
+    @Override
+    public void onTextChanged(CharSequence s, int start, int before, int count) {
+        if (!applyingRemote) listener.onLocalEdit(start, removed, s.subSequence(start, start + count).toString());
+    }
+
+    @Override
+    public void afterTextChanged(Editable s) {
+    }
+}
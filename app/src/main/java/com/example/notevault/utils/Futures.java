@@ -0,0 +1,255 @@
+package com.example.notevault.utils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * Combinators for {@link CompletableFuture}: fan-out that reports every failure, timeouts,
+ * and retries with jittered backoff. Cancelling a future returned here cancels the work it
+ * waits for. Android's CompletableFuture predates Java 9, so there is no orTimeout or
+ * delayedExecutor; timeouts and retry delays run on a single daemon timer thread instead.
+ */
+public final class Futures {
+
+    private static final ScheduledExecutorService TIMER = newTimer();
+
+    private Futures() {
+    }
+
+    /** Some of the futures passed to {@link #allOf} failed; the rest completed normally. */
+    public static final class PartialFailureException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        private final int total;
+        private final List<Throwable> failures;
+
+        PartialFailureException(int total, List<Throwable> failures) {
+            super(failures.size() + " of " + total + " failed: " + failures.get(0).getMessage(), failures.get(0));
+            this.total = total;
+            this.failures = Collections.unmodifiableList(failures);
+            for (int i = 1; i < failures.size(); i++) addSuppressed(failures.get(i));
+        }
+
+        public int getTotal() {
+            return total;
+        }
+
+        public List<Throwable> getFailures() {
+            return failures;
+        }
+    }
+
+    /**
+     * How often and how long to wait before trying again. The n-th retry waits a random time
+     * up to {@code min(maxDelayMs, baseDelayMs * 2^(n-1))} ("full jitter"), so clients that
+     * failed together do not retry in lockstep.
+     */
+    public static final class RetryPolicy {
+
+        public static final RetryPolicy DEFAULT = new RetryPolicy(4, 250, 5_000);
+        public static final RetryPolicy NONE = new RetryPolicy(1, 0, 0);
+
+        final int maxAttempts;
+        final long baseDelayMs;
+        final long maxDelayMs;
+
+        public RetryPolicy(int maxAttempts, long baseDelayMs, long maxDelayMs) {
+            if (maxAttempts < 1) throw new IllegalArgumentException("maxAttempts must be at least 1");
+            this.maxAttempts = maxAttempts;
+            this.baseDelayMs = baseDelayMs;
+            this.maxDelayMs = maxDelayMs;
+        }
+
+        /** Delay before retry number {@code retry} (1 for the second attempt). */
+        long delayMs(int retry, Random random) {
+            long cap = Math.min(maxDelayMs, baseDelayMs << Math.min(retry - 1, 30));
+            return cap <= 0 ? 0 : (long) (random.nextDouble() * cap);
+        }
+    }
+
+    /** An already failed future, for argument errors found before any work starts. */
+    public static <T> CompletableFuture<T> failed(Throwable error) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        future.completeExceptionally(error);
+        return future;
+    }
+
+    /** The cause of a failure as seen by a dependent stage, without the Completion/ExecutionException wrapper. */
+    public static Throwable unwrap(Throwable error) {
+        while ((error instanceof CompletionException || error instanceof ExecutionException) && error.getCause() != null) {
+            error = error.getCause();
+        }
+        return error;
+    }
+
+    /**
+     * Wait for all {@code futures}, which run concurrently, and collect their results in order.
+     * Unlike {@link CompletableFuture#allOf} it fails with a {@link PartialFailureException}
+     * naming every failure, not just the first. Cancelling the result cancels them all.
+     */
+    public static <T> CompletableFuture<List<T>> allOf(List<? extends CompletableFuture<? extends T>> futures) {
+        CompletableFuture<List<T>> all = new CompletableFuture<>();
+        int total = futures.size();
+        if (total == 0) {
+            all.complete(new ArrayList<>());
+            return all;
+        }
+        AtomicInteger pending = new AtomicInteger(total);
+        for (CompletableFuture<? extends T> future : futures) {
+            future.whenComplete((result, error) -> {
+                if (pending.decrementAndGet() > 0) return;
+                List<T> results = new ArrayList<>(total);
+                List<Throwable> failures = new ArrayList<>();
+                for (CompletableFuture<? extends T> f : futures) {
+                    try {
+                        results.add(f.join());
+                    } catch (CancellationException | CompletionException e) {
+                        failures.add(unwrap(e));
+                    }
+                }
+                if (failures.isEmpty()) all.complete(results);
+                else all.completeExceptionally(new PartialFailureException(total, failures));
+            });
+        }
+        all.whenComplete((result, error) -> {
+            if (all.isCancelled()) {
+                for (CompletableFuture<? extends T> future : futures) future.cancel(true);
+            }
+        });
+        return all;
+    }
+
+    /**
+     * {@code future}, failing with a {@link TimeoutException} when it has not completed within
+     * {@code timeout}. The timed out work is cancelled, which for Firebase calls only means
+     * nobody waits for it any more; writes already sent may still land.
+     */
+    public static <T> CompletableFuture<T> withTimeout(CompletableFuture<T> future, long timeout, TimeUnit unit) {
+        CompletableFuture<T> timed = new CompletableFuture<>();
+        AtomicBoolean timedOut = new AtomicBoolean();
+        ScheduledFuture<?> timer = TIMER.schedule(() -> {
+            // Cancel first, so whoever sees the timeout also sees the work cancelled
+            timedOut.set(true);
+            future.cancel(true);
+            timed.completeExceptionally(new TimeoutException("Timed out after " + unit.toMillis(timeout) + " ms"));
+        }, timeout, unit);
+        future.whenComplete((result, error) -> {
+            timer.cancel(false);
+            if (timedOut.get()) return;
+            if (error != null) timed.completeExceptionally(unwrap(error));
+            else timed.complete(result);
+        });
+        timed.whenComplete((result, error) -> {
+            if (timed.isCancelled()) {
+                timer.cancel(false);
+                future.cancel(true);
+            }
+        });
+        return timed;
+    }
+
+    /** {@link #retry(Supplier, RetryPolicy, Predicate, Random)} retrying every failure but timeouts and cancellation. */
+    public static <T> CompletableFuture<T> retry(Supplier<CompletableFuture<T>> attempt, RetryPolicy policy) {
+        return retry(attempt, policy, Futures::isTransient, new Random());
+    }
+
+    /**
+     * Start {@code attempt} and start it again, after a jittered delay, each time it fails with an
+     * error {@code retryable} accepts, up to {@code policy.maxAttempts} in all. Fails with the last
+     * error. Cancelling the result cancels the running attempt and stops further ones.
+     */
+    public static <T> CompletableFuture<T> retry(Supplier<CompletableFuture<T>> attempt, RetryPolicy policy,
+                                                 Predicate<Throwable> retryable, Random random) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        AtomicReference<CompletableFuture<T>> running = new AtomicReference<>();
+        result.whenComplete((value, error) -> {
+            if (!result.isCancelled()) return;
+            CompletableFuture<T> current = running.get();
+            if (current != null) current.cancel(true);
+        });
+        startAttempt(attempt, policy, retryable, random, 1, running, result);
+        return result;
+    }
+
+    private static <T> void startAttempt(Supplier<CompletableFuture<T>> attempt, RetryPolicy policy,
+                                         Predicate<Throwable> retryable, Random random, int number,
+                                         AtomicReference<CompletableFuture<T>> running, CompletableFuture<T> result) {
+        if (result.isDone()) return;
+        CompletableFuture<T> current;
+        try {
+            current = attempt.get();
+        } catch (RuntimeException e) {
+            current = failed(e);
+        }
+        running.set(current);
+        // Cancelled between the check above and publishing the attempt
+        if (result.isCancelled()) current.cancel(true);
+        current.whenComplete((value, error) -> {
+            if (error == null) {
+                result.complete(value);
+                return;
+            }
+            Throwable cause = unwrap(error);
+            if (number >= policy.maxAttempts || result.isDone() || !retryable.test(cause)) {
+                result.completeExceptionally(cause);
+                return;
+            }
+            long delay = policy.delayMs(number, random);
+            Runnable next = () -> startAttempt(attempt, policy, retryable, random, number + 1, running, result);
+            if (delay == 0) next.run();
+            else TIMER.schedule(next, delay, TimeUnit.MILLISECONDS);
+        });
+    }
+
+    /** Run {@code task} on the shared timer thread after {@code delay}; keep it short or hand it to another executor. */
+    public static void schedule(Runnable task, long delay, TimeUnit unit) {
+        TIMER.schedule(task, delay, unit);
+    }
+
+    /** Worth trying again: anything but a timeout or cancellation, which mean the caller gave up. */
+    public static boolean isTransient(Throwable error) {
+        Throwable cause = unwrap(error);
+        return !(cause instanceof TimeoutException) && !(cause instanceof CancellationException);
+    }
+
+    /** Continue on {@code executor}, typically the main thread, once {@code future} completes either way. */
+    public static <T> CompletableFuture<T> on(CompletableFuture<T> future, Executor executor) {
+        CompletableFuture<T> moved = new CompletableFuture<>();
+        future.whenComplete((result, error) -> executor.execute(() -> {
+            if (error != null) moved.completeExceptionally(unwrap(error));
+            else moved.complete(result);
+        }));
+        moved.whenComplete((result, error) -> {
+            if (moved.isCancelled()) future.cancel(true);
+        });
+        return moved;
+    }
+
+    private static ScheduledExecutorService newTimer() {
+        ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread thread = new Thread(r, "NoteVault-timer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // Cancelled timeouts are the common case; do not keep them queued until they would have fired
+        timer.setRemoveOnCancelPolicy(true);
+        return timer;
+    }
+}
@@ -0,0 +1,225 @@
+package com.example.notevault.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Client-side encryption for locked notes and folders.
+ *
+ * Keys come from the lock password via {@link Scrypt}. Content is encrypted with AES-GCM in
+ * fixed-size chunks so large notes stream through two reusable buffers instead of being
+ * copied whole:
+ * <pre>
+ * header:  "NVC1" | chunk size (int) | 8-byte random nonce prefix
+ * chunk i: AES-GCM(plaintext[i]) with nonce = prefix | i, AAD = final flag
+ * </pre>
+ * Every chunk but the last holds exactly one chunk of plaintext and the last is always
+ * shorter (possibly empty), so dropping, reordering or truncating chunks fails authentication.
+ */
+public final class NoteCipher {
+
+    public static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+    public static final int SALT_LENGTH = 16;
+
+    /** scrypt cost: 16 MiB of memory per derivation (128 * r * N bytes). */
+    static final int SCRYPT_N = 1 << 14;
+    static final int SCRYPT_R = 8;
+    static final int SCRYPT_P = 1;
+
+    private static final byte[] MAGIC = {'N', 'V', 'C', '1'};
+    private static final int HEADER_LENGTH = 16;
+    private static final int NONCE_PREFIX_LENGTH = 8;
+    private static final int TAG_LENGTH = 16;
+    private static final byte[] KEY_CHECK = "notevault-key-check".getBytes(StandardCharsets.UTF_8);
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private NoteCipher() {
+    }
+
+    // ==================== KEYS ====================
+
+    public static byte[] newSalt() {
+        byte[] salt = new byte[SALT_LENGTH];
+        RANDOM.nextBytes(salt);
+        return salt;
+    }
+
+    /** Derive the AES-256 key for a lock password. Slow on purpose; call off the main thread. */
+    public static SecretKey deriveKey(String password, byte[] salt) throws GeneralSecurityException {
+        byte[] passwordBytes = password.getBytes(StandardCharsets.UTF_8);
+        byte[] keyBytes = Scrypt.derive(passwordBytes, salt, SCRYPT_N, SCRYPT_R, SCRYPT_P, 32);
+        Arrays.fill(passwordBytes, (byte) 0);
+        return new SecretKeySpec(keyBytes, "AES");
+    }
+
+    /** A small ciphertext stored next to the salt so a password can be checked without decrypting content. */
+    public static byte[] createKeyCheck(SecretKey key) throws GeneralSecurityException {
+        return encrypt(key, KEY_CHECK);
+    }
+
+    public static boolean verifyKeyCheck(SecretKey key, byte[] keyCheck) {
+        try {
+            return Arrays.equals(KEY_CHECK, decrypt(key, keyCheck));
+        } catch (GeneralSecurityException e) {
+            return false;
+        }
+    }
+
+    // ==================== BYTE ARRAYS ====================
+
+    public static byte[] encryptString(SecretKey key, String plaintext) throws GeneralSecurityException {
+        return encrypt(key, plaintext != null ? plaintext.getBytes(StandardCharsets.UTF_8) : new byte[0]);
+    }
+
+    public static String decryptString(SecretKey key, byte[] ciphertext) throws GeneralSecurityException {
+        return new String(decrypt(key, ciphertext), StandardCharsets.UTF_8);
+    }
+
+    /** Encrypt into an exactly sized array; each chunk is written straight into its final position. */
+    public static byte[] encrypt(SecretKey key, byte[] plaintext) throws GeneralSecurityException {
+        byte[] out = new byte[ciphertextLength(plaintext.length, DEFAULT_CHUNK_SIZE)];
+        byte[] prefix = writeHeader(out, DEFAULT_CHUNK_SIZE);
+        Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+        int inOffset = 0;
+        int outOffset = HEADER_LENGTH;
+        int index = 0;
+        while (true) {
+            int length = Math.min(DEFAULT_CHUNK_SIZE, plaintext.length - inOffset);
+            boolean last = length < DEFAULT_CHUNK_SIZE;
+            init(cipher, Cipher.ENCRYPT_MODE, key, prefix, index++, last);
+            outOffset += cipher.doFinal(plaintext, inOffset, length, out, outOffset);
+            inOffset += length;
+            if (last) return out;
+        }
+    }
+
+    public static byte[] decrypt(SecretKey key, byte[] ciphertext) throws GeneralSecurityException {
+        if (ciphertext == null || ciphertext.length < HEADER_LENGTH + TAG_LENGTH) {
+            throw new GeneralSecurityException("Ciphertext too short");
+        }
+        int chunkSize = readHeader(ciphertext);
+        byte[] prefix = Arrays.copyOfRange(ciphertext, 8, HEADER_LENGTH);
+        int body = ciphertext.length - HEADER_LENGTH;
+        int fullChunks = body / (chunkSize + TAG_LENGTH);
+        int lastLength = body % (chunkSize + TAG_LENGTH);
+        if (lastLength < TAG_LENGTH) throw new GeneralSecurityException("Truncated ciphertext");
+        byte[] out = new byte[fullChunks * chunkSize + lastLength - TAG_LENGTH];
+        Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+        int inOffset = HEADER_LENGTH;
+        int outOffset = 0;
+        for (int index = 0; index <= fullChunks; index++) {
+            boolean last = index == fullChunks;
+            int length = last ? lastLength : chunkSize + TAG_LENGTH;
+            init(cipher, Cipher.DECRYPT_MODE, key, prefix, index, last);
+            outOffset += cipher.doFinal(ciphertext, inOffset, length, out, outOffset);
+            inOffset += length;
+        }
+        return out;
+    }
+
+    // ==================== STREAMS ====================
+
+    public static void encrypt(SecretKey key, InputStream in, OutputStream out) throws IOException, GeneralSecurityException {
+        encrypt(key, in, out, DEFAULT_CHUNK_SIZE);
+    }
+
+    public static void encrypt(SecretKey key, InputStream in, OutputStream out, int chunkSize)
+            throws IOException, GeneralSecurityException {
+        byte[] header = new byte[HEADER_LENGTH];
+        byte[] prefix = writeHeader(header, chunkSize);
+        out.write(header);
+        Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+        byte[] plain = new byte[chunkSize];
+        byte[] sealed = new byte[chunkSize + TAG_LENGTH];
+        int index = 0;
+        while (true) {
+            int length = readFully(in, plain, chunkSize);
+            boolean last = length < chunkSize;
+            init(cipher, Cipher.ENCRYPT_MODE, key, prefix, index++, last);
+            int written = cipher.doFinal(plain, 0, length, sealed, 0);
+            out.write(sealed, 0, written);
+            if (last) break;
+        }
+        Arrays.fill(plain, (byte) 0);
+    }
+
+    public static void decrypt(SecretKey key, InputStream in, OutputStream out) throws IOException, GeneralSecurityException {
+        byte[] header = new byte[HEADER_LENGTH];
+        if (readFully(in, header, HEADER_LENGTH) < HEADER_LENGTH) throw new GeneralSecurityException("Missing header");
+        int chunkSize = readHeader(header);
+        byte[] prefix = Arrays.copyOfRange(header, 8, HEADER_LENGTH);
+        Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+        byte[] sealed = new byte[chunkSize + TAG_LENGTH];
+        byte[] plain = new byte[chunkSize];
+        int index = 0;
+        while (true) {
+            int length = readFully(in, sealed, sealed.length);
+            boolean last = length < sealed.length;
+            if (last && length < TAG_LENGTH) throw new GeneralSecurityException("Truncated ciphertext");
+            init(cipher, Cipher.DECRYPT_MODE, key, prefix, index++, last);
+            int written = cipher.doFinal(sealed, 0, length, plain, 0);
+            out.write(plain, 0, written);
+            if (last) break;
+        }
+        Arrays.fill(plain, (byte) 0);
+    }
+
+    // ==================== HELPERS ====================
+
+    static int ciphertextLength(int plaintextLength, int chunkSize) {
+        return HEADER_LENGTH + (plaintextLength / chunkSize + 1) * TAG_LENGTH + plaintextLength;
+    }
+
+    private static byte[] writeHeader(byte[] out, int chunkSize) {
+        System.arraycopy(MAGIC, 0, out, 0, MAGIC.length);
+        out[4] = (byte) (chunkSize >>> 24);
+        out[5] = (byte) (chunkSize >>> 16);
+        out[6] = (byte) (chunkSize >>> 8);
+        out[7] = (byte) chunkSize;
+        byte[] prefix = new byte[NONCE_PREFIX_LENGTH];
+        RANDOM.nextBytes(prefix);
+        System.arraycopy(prefix, 0, out, 8, NONCE_PREFIX_LENGTH);
+        return prefix;
+    }
+
+    private static int readHeader(byte[] in) throws GeneralSecurityException {
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (in[i] != MAGIC[i]) throw new GeneralSecurityException("Not a NoteVault ciphertext");
+        }
+        int chunkSize = (in[4] & 0xff) << 24 | (in[5] & 0xff) << 16 | (in[6] & 0xff) << 8 | (in[7] & 0xff);
+        if (chunkSize <= 0 || chunkSize > 16 * 1024 * 1024) throw new GeneralSecurityException("Bad chunk size");
+        return chunkSize;
+    }
+
+    private static void init(Cipher cipher, int mode, SecretKey key, byte[] prefix, int index, boolean last)
+            throws GeneralSecurityException {
+        byte[] nonce = new byte[12];
+        System.arraycopy(prefix, 0, nonce, 0, NONCE_PREFIX_LENGTH);
+        nonce[8] = (byte) (index >>> 24);
+        nonce[9] = (byte) (index >>> 16);
+        nonce[10] = (byte) (index >>> 8);
+        nonce[11] = (byte) index;
+        cipher.init(mode, key, new GCMParameterSpec(TAG_LENGTH * 8, nonce));
+        cipher.updateAAD(new byte[]{(byte) (last ? 1 : 0)});
+    }
+
+    private static int readFully(InputStream in, byte[] buffer, int length) throws IOException {
+        int total = 0;
+        while (total < length) {
+            int n = in.read(buffer, total, length - total);
+            if (n < 0) break;
+            total += n;
+        }
+        return total;
+    }
+}
@@ -0,0 +1,131 @@
+package com.example.notevault.utils;
+
+import java.security.GeneralSecurityException;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * scrypt key derivation (RFC 7914). Memory-hard: each derivation needs 128 * r * N bytes,
+ * which makes guessing lock passwords on GPUs far more expensive than a plain hash.
+ * Android has no built-in scrypt, so this is a straight port of the RFC's reference algorithm.
+ */
+public final class Scrypt {
+
+    private Scrypt() {
+    }
+
+    /**
+     * @param n CPU/memory cost, a power of two greater than 1
+     * @param r block size
+     * @param p parallelization
+     * @param dkLen derived key length in bytes
+     */
+    public static byte[] derive(byte[] password, byte[] salt, int n, int r, int p, int dkLen)
+            throws GeneralSecurityException {
+        if (n < 2 || (n & (n - 1)) != 0) throw new IllegalArgumentException("N must be a power of 2 greater than 1");
+        if (r < 1 || p < 1) throw new IllegalArgumentException("r and p must be positive");
+        if (n > Integer.MAX_VALUE / 128 / r) throw new IllegalArgumentException("N too large");
+
+        Mac mac = Mac.getInstance("HmacSHA256");
+        // SecretKeySpec rejects empty keys; HMAC zero-pads its key, so one zero byte is equivalent
+        mac.init(new SecretKeySpec(password.length > 0 ? password : new byte[1], "HmacSHA256"));
+
+        int blockSize = 128 * r;
+        byte[] b = pbkdf2(mac, salt, 1, p * blockSize);
+        int[] xy = new int[64 * r];
+        int[] v = new int[32 * r * n];
+        for (int i = 0; i < p; i++) {
+            roMix(b, i * blockSize, r, n, v, xy);
+        }
+        return pbkdf2(mac, b, 1, dkLen);
+    }
+
+    private static byte[] pbkdf2(Mac mac, byte[] salt, int iterations, int dkLen) {
+        int hLen = mac.getMacLength();
+        byte[] dk = new byte[dkLen];
+        byte[] block = new byte[salt.length + 4];
+        System.arraycopy(salt, 0, block, 0, salt.length);
+        byte[] u;
+        byte[] t = new byte[hLen];
+        int blocks = (dkLen + hLen - 1) / hLen;
+        for (int i = 1; i <= blocks; i++) {
+            block[salt.length] = (byte) (i >>> 24);
+            block[salt.length + 1] = (byte) (i >>> 16);
+            block[salt.length + 2] = (byte) (i >>> 8);
+            block[salt.length + 3] = (byte) i;
+            u = mac.doFinal(block);
+            System.arraycopy(u, 0, t, 0, hLen);
+            for (int j = 1; j < iterations; j++) {
+                u = mac.doFinal(u);
+                for (int k = 0; k < hLen; k++) t[k] ^= u[k];
+            }
+            System.arraycopy(t, 0, dk, (i - 1) * hLen, Math.min(hLen, dkLen - (i - 1) * hLen));
+        }
+        return dk;
+    }
+
+    /** ROMix over one 128*r byte block of {@code b}, in place. {@code v} and {@code xy} are scratch. */
+    private static void roMix(byte[] b, int offset, int r, int n, int[] v, int[] xy) {
+        int words = 32 * r;
+        int[] x = new int[words];
+        for (int i = 0; i < words; i++) {
+            int j = offset + i * 4;
+            x[i] = (b[j] & 0xff) | (b[j + 1] & 0xff) << 8 | (b[j + 2] & 0xff) << 16 | (b[j + 3] & 0xff) << 24;
+        }
+        for (int i = 0; i < n; i++) {
+            System.arraycopy(x, 0, v, i * words, words);
+            blockMix(x, r, xy);
+        }
+        for (int i = 0; i < n; i++) {
+            int j = x[(2 * r - 1) * 16] & (n - 1);
+            for (int k = 0; k < words; k++) x[k] ^= v[j * words + k];
+            blockMix(x, r, xy);
+        }
+        for (int i = 0; i < words; i++) {
+            int j = offset + i * 4;
+            b[j] = (byte) x[i];
+            b[j + 1] = (byte) (x[i] >>> 8);
+            b[j + 2] = (byte) (x[i] >>> 16);
+            b[j + 3] = (byte) (x[i] >>> 24);
+        }
+    }
+
+    private static void blockMix(int[] b, int r, int[] y) {
+        int[] x = new int[16];
+        System.arraycopy(b, (2 * r - 1) * 16, x, 0, 16);
+        for (int i = 0; i < 2 * r; i++) {
+            for (int k = 0; k < 16; k++) x[k] ^= b[i * 16 + k];
+            salsa208(x);
+            // Even blocks go to the first half of the output, odd blocks to the second half
+            int dest = (i % 2 == 0 ? i / 2 : r + i / 2) * 16;
+            System.arraycopy(x, 0, y, dest, 16);
+        }
+        System.arraycopy(y, 0, b, 0, 32 * r);
+    }
+
+    private static void salsa208(int[] b) {
+        int x0 = b[0], x1 = b[1], x2 = b[2], x3 = b[3], x4 = b[4], x5 = b[5], x6 = b[6], x7 = b[7];
+        int x8 = b[8], x9 = b[9], x10 = b[10], x11 = b[11], x12 = b[12], x13 = b[13], x14 = b[14], x15 = b[15];
+        for (int i = 0; i < 8; i += 2) {
+            x4 ^= Integer.rotateLeft(x0 + x12, 7);   x8 ^= Integer.rotateLeft(x4 + x0, 9);
+            x12 ^= Integer.rotateLeft(x8 + x4, 13);  x0 ^= Integer.rotateLeft(x12 + x8, 18);
+            x9 ^= Integer.rotateLeft(x5 + x1, 7);    x13 ^= Integer.rotateLeft(x9 + x5, 9);
+            x1 ^= Integer.rotateLeft(x13 + x9, 13);  x5 ^= Integer.rotateLeft(x1 + x13, 18);
+            x14 ^= Integer.rotateLeft(x10 + x6, 7);  x2 ^= Integer.rotateLeft(x14 + x10, 9);
+            x6 ^= Integer.rotateLeft(x2 + x14, 13);  x10 ^= Integer.rotateLeft(x6 + x2, 18);
+            x3 ^= Integer.rotateLeft(x15 + x11, 7);  x7 ^= Integer.rotateLeft(x3 + x15, 9);
+            x11 ^= Integer.rotateLeft(x7 + x3, 13);  x15 ^= Integer.rotateLeft(x11 + x7, 18);
+            x1 ^= Integer.rotateLeft(x0 + x3, 7);    x2 ^= Integer.rotateLeft(x1 + x0, 9);
+            x3 ^= Integer.rotateLeft(x2 + x1, 13);   x0 ^= Integer.rotateLeft(x3 + x2, 18);
+            x6 ^= Integer.rotateLeft(x5 + x4, 7);    x7 ^= Integer.rotateLeft(x6 + x5, 9);
+            x4 ^= Integer.rotateLeft(x7 + x6, 13);   x5 ^= Integer.rotateLeft(x4 + x7, 18);
+            x11 ^= Integer.rotateLeft(x10 + x9, 7);  x8 ^= Integer.rotateLeft(x11 + x10, 9);
+            x9 ^= Integer.rotateLeft(x8 + x11, 13);  x10 ^= Integer.rotateLeft(x9 + x8, 18);
+            x12 ^= Integer.rotateLeft(x15 + x14, 7); x13 ^= Integer.rotateLeft(x12 + x15, 9);
+            x14 ^= Integer.rotateLeft(x13 + x12, 13); x15 ^= Integer.rotateLeft(x14 + x13, 18);
+        }
+        b[0] += x0; b[1] += x1; b[2] += x2; b[3] += x3; b[4] += x4; b[5] += x5; b[6] += x6; b[7] += x7;
+        b[8] += x8; b[9] += x9; b[10] += x10; b[11] += x11; b[12] += x12; b[13] += x13; b[14] += x14; b[15] += x15;
+    }
+}
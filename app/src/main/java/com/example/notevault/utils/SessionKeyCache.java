@@ -0,0 +1,101 @@
+package com.example.notevault.utils;
+
+import java.security.GeneralSecurityException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.crypto.SecretKey;
+
+/**
+ * Keys of locked folders and notes unlocked during this session, keyed by salt.
+ *
+ * Deriving a key is deliberately slow, so once a folder is unlocked its key is kept here and
+ * every note inside it decrypts without another derivation. Cleared on sign-out.
+ */
+public final class SessionKeyCache {
+
+    private static final int MAX_KEYS = 32;
+    private static final SessionKeyCache INSTANCE = new SessionKeyCache();
+
+    public interface KeyCallback {
+        /** @param key the unlocked key, or null when the password was wrong */
+        void onResult(SecretKey key);
+    }
+
+    public interface LockCallback {
+        void onCreated(byte[] salt, byte[] keyCheck, SecretKey key);
+        void onError(String message);
+    }
+
+    private final Map<String, SecretKey> keys = new LinkedHashMap<String, SecretKey>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, SecretKey> eldest) {
+            return size() > MAX_KEYS;
+        }
+    };
+    private final ExecutorService derivationExecutor = Executors.newSingleThreadExecutor();
+
+    private SessionKeyCache() {
+    }
+
+    public static SessionKeyCache getInstance() {
+        return INSTANCE;
+    }
+
+    /** Key for this salt if it was unlocked this session, else null. */
+    public synchronized SecretKey get(byte[] salt) {
+        return salt != null ? keys.get(toHex(salt)) : null;
+    }
+
+    public synchronized void put(byte[] salt, SecretKey key) {
+        keys.put(toHex(salt), key);
+    }
+
+    public synchronized void clear() {
+        keys.clear();
+    }
+
+    /** Derive the key for {@code password} in the background and cache it if it matches {@code keyCheck}. */
+    public void unlock(String password, byte[] salt, byte[] keyCheck, Executor callbackExecutor, KeyCallback callback) {
+        derivationExecutor.execute(() -> {
+            SecretKey key = null;
+            try {
+                SecretKey candidate = NoteCipher.deriveKey(password, salt);
+                if (NoteCipher.verifyKeyCheck(candidate, keyCheck)) {
+                    put(salt, candidate);
+                    key = candidate;
+                }
+            } catch (GeneralSecurityException ignored) {
+                // Treated like a wrong password
+            }
+            SecretKey result = key;
+            callbackExecutor.execute(() -> callback.onResult(result));
+        });
+    }
+
+    /** Create a fresh salt and key for a new lock in the background; the key is cached right away. */
+    public void createLock(String password, Executor callbackExecutor, LockCallback callback) {
+        derivationExecutor.execute(() -> {
+            try {
+                byte[] salt = NoteCipher.newSalt();
+                SecretKey key = NoteCipher.deriveKey(password, salt);
+                byte[] keyCheck = NoteCipher.createKeyCheck(key);
+                put(salt, key);
+                callbackExecutor.execute(() -> callback.onCreated(salt, keyCheck, key));
+            } catch (GeneralSecurityException e) {
+                callbackExecutor.execute(() -> callback.onError(e.getMessage()));
+            }
+        });
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return sb.toString();
+    }
+}
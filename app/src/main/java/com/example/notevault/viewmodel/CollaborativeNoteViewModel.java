@@ -0,0 +1,214 @@
+package com.example.notevault.viewmodel;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import androidx.lifecycle.LiveData;
+import androidx.lifecycle.MutableLiveData;
+import androidx.lifecycle.ViewModel;
+
+import com.example.notevault.crdt.Rga;
+import com.example.notevault.crdt.SequenceOp;
+import com.example.notevault.firebase.FirebaseManager;
+import com.google.firebase.auth.FirebaseUser;
+import com.google.firebase.firestore.DocumentChange;
+import com.google.firebase.firestore.ListenerRegistration;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Keeps a local {@link Rga} replica of a note's content in sync with the shared op log, so
+ * several devices can type into the same note at once. Local edits apply immediately and are
+ * sent in small batches; edits from other devices arrive through {@link #getText()}.
+ */
+public class CollaborativeNoteViewModel extends ViewModel {
+
+    /** Ops left in the shared log before a device folds them into the snapshot. */
+    static final int COMPACT_AFTER_OPS = 200;
+    private static final long FLUSH_DELAY_MS = 400;
+
+    private final FirebaseManager firebaseManager = FirebaseManager.getInstance();
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Runnable flushRunnable = this::flush;
+    private final MutableLiveData<String> text = new MutableLiveData<>();
+    private final MutableLiveData<String> errorMessage = new MutableLiveData<>();
+    /** Ops made here since opening; replayed after loading a snapshot that may predate them */
+    private final List<SequenceOp> localOps = new ArrayList<>();
+    private final List<SequenceOp> unsent = new ArrayList<>();
+    /** Ops currently in the shared log, by document id */
+    private final Map<String, SequenceOp> logOps = new LinkedHashMap<>();
+
+    private Rga replica;
+    private String userId;
+    private String noteId;
+    private long generation;
+    private boolean flushScheduled;
+    private boolean compacting;
+    private ListenerRegistration opsRegistration;
+    private ListenerRegistration collabRegistration;
+
+    /** The replica's text whenever it is loaded or changed by another device. */
+    public LiveData<String> getText() {
+        return text;
+    }
+
+    public LiveData<String> getErrorMessage() {
+        return errorMessage;
+    }
+
+    public boolean isOpen() {
+        return replica != null;
+    }
+
+    /**
+     * Join the shared edit state of a note. {@code content} and {@code updatedAt} are the note
+     * as loaded; they seed the state on first use, and are folded in as an edit if the note was
+     * saved without a collaborative editor since. Fails quietly when offline.
+     */
+    public void open(String noteId, String content, Date updatedAt) {
+        if (this.noteId != null) return;
+        FirebaseUser user = firebaseManager.getCurrentUser();
+        if (user == null) return;
+        this.userId = user.getUid();
+        this.noteId = noteId;
+        firebaseManager.openNoteCollab(userId, noteId, content, updatedAt, new FirebaseManager.CollabCallback() {
+            @Override
+            public void onOpened(String snapshot, long loadedGeneration, Date syncedAt) {
+                try {
+                    replica = Rga.fromSnapshot(UUID.randomUUID().toString().substring(0, 8), snapshot);
+                } catch (IllegalArgumentException e) {
+                    errorMessage.setValue(e.getMessage());
+                    return;
+                }
+                generation = loadedGeneration;
+                if (updatedAt != null && (syncedAt == null || updatedAt.after(syncedAt))) {
+                    replaceText(content);
+                }
+                text.setValue(replica.text());
+                listen();
+            }
+
+            @Override
+            public void onError(String message) {
+                errorMessage.setValue(message);
+            }
+        });
+    }
+
+    /** Record an edit made in the editor: {@code removed} at {@code start} was replaced by {@code inserted}. */
+    public void onLocalEdit(int start, String removed, String inserted) {
+        if (replica == null) return;
+        // Autocorrect and setText replace more than they change
+        int prefix = 0;
+        int max = Math.min(removed.length(), inserted.length());
+        while (prefix < max && removed.charAt(prefix) == inserted.charAt(prefix)) prefix++;
+        int suffix = 0;
+        while (suffix < max - prefix
+                && removed.charAt(removed.length() - 1 - suffix) == inserted.charAt(inserted.length() - 1 - suffix)) suffix++;
+        int at = start + prefix;
+        int count = removed.length() - prefix - suffix;
+        if (at + count > replica.length()) {
+            errorMessage.setValue("Editor out of sync with shared note");
+            return;
+        }
+        for (SequenceOp delete : replica.delete(at, count)) queue(delete);
+        if (inserted.length() - prefix - suffix > 0) {
+            queue(replica.insert(at, inserted.substring(prefix, inserted.length() - suffix)));
+        }
+    }
+
+    /** Send pending edits now, e.g. before saving the note. */
+    public void flush() {
+        handler.removeCallbacks(flushRunnable);
+        flushScheduled = false;
+        if (unsent.isEmpty() || noteId == null) return;
+        List<SequenceOp> batch = new ArrayList<>(unsent);
+        unsent.clear();
+        firebaseManager.appendNoteOps(userId, noteId, batch, (success, message) -> {
+            if (!success) errorMessage.setValue(message);
+        });
+    }
+
+    /** The note's content was just saved from this editor. */
+    public void markSynced() {
+        if (replica != null) firebaseManager.markNoteCollabSynced(userId, noteId, new Date());
+    }
+
+    private void replaceText(String target) {
+        String current = replica.text();
+        onLocalEdit(0, current, target);
+    }
+
+    private void queue(SequenceOp op) {
+        localOps.add(op);
+        SequenceOp merged = unsent.isEmpty() ? null : unsent.get(unsent.size() - 1).coalesce(op);
+        if (merged != null) unsent.set(unsent.size() - 1, merged);
+        else unsent.add(op);
+        // Sent at most FLUSH_DELAY_MS after the first unsent edit, even while typing continues
+        if (!flushScheduled) {
+            flushScheduled = true;
+            handler.postDelayed(flushRunnable, FLUSH_DELAY_MS);
+        }
+    }
+
+    private void listen() {
+        opsRegistration = firebaseManager.listenToNoteOps(userId, noteId, (snap, e) -> {
+            if (e != null || snap == null) return;
+            boolean changed = false;
+            for (DocumentChange change : snap.getDocumentChanges()) {
+                String id = change.getDocument().getId();
+                if (change.getType() == DocumentChange.Type.REMOVED) {
+                    logOps.remove(id);
+                    continue;
+                }
+                if (logOps.containsKey(id)) continue;
+                SequenceOp op;
+                try {
+                    op = FirebaseManager.toSequenceOp(change.getDocument());
+                } catch (RuntimeException ex) {
+                    continue;
+                }
+                logOps.put(id, op);
+                changed |= replica.apply(op);
+            }
+            if (changed) text.setValue(replica.text());
+            compactIfNeeded();
+        });
+        collabRegistration = firebaseManager.listenToNoteCollab(userId, noteId, (doc, e) -> {
+            if (e != null || doc == null || !doc.exists()) return;
+            Long latest = doc.getLong("generation");
+            String snapshot = doc.getString("snapshot");
+            if (latest == null || latest <= generation || snapshot == null) return;
+            // Another device compacted the log; its snapshot may lack ops only this device has
+            generation = latest;
+            replica.load(snapshot);
+            for (SequenceOp op : logOps.values()) replica.apply(op);
+            for (SequenceOp op : localOps) replica.apply(op);
+            text.setValue(replica.text());
+        });
+    }
+
+    private void compactIfNeeded() {
+        if (compacting || logOps.size() < COMPACT_AFTER_OPS || !unsent.isEmpty() || replica.pendingCount() > 0) return;
+        compacting = true;
+        long compactedFrom = generation;
+        firebaseManager.compactNoteOps(userId, noteId, compactedFrom, replica.snapshot(), new ArrayList<>(logOps.keySet()),
+                (success, message) -> {
+                    compacting = false;
+                    if (success && generation == compactedFrom) generation = compactedFrom + 1;
+                });
+    }
+
+    @Override
+    protected void onCleared() {
+        super.onCleared();
+        flush();
+        if (opsRegistration != null) opsRegistration.remove();
+        if (collabRegistration != null) collabRegistration.remove();
+    }
+}
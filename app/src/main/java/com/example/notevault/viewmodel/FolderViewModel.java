@@ -6,69 +6,232 @@ import androidx.lifecycle.MutableLiveData;
 import androidx.lifecycle.ViewModel;
 
 import com.example.notevault.firebase.FirebaseManager;
+import com.example.notevault.firebase.FirestoreStore;
 import com.example.notevault.model.Folder;
-import com.google.firebase.auth.FirebaseUser;
-import com.google.firebase.firestore.EventListener;
-import com.google.firebase.firestore.FirebaseFirestoreException;
-import com.google.firebase.firestore.QueryDocumentSnapshot;
-import com.google.firebase.firestore.QuerySnapshot;
+import com.example.notevault.presentation.FolderRow;
+import com.example.notevault.presentation.RowFactory;
+import com.example.notevault.sort.CollatedList;
+import com.example.notevault.sort.ManualOrder;
+import com.example.notevault.sort.SortMode;
+import com.example.notevault.store.DeferredAction;
+import com.example.notevault.store.FolderStore;
+import com.example.notevault.store.ListCache;
+import com.example.notevault.store.ListenerPauser;
+import com.example.notevault.store.PausableQuery;
+import com.example.notevault.store.StoreListener;
+import com.example.notevault.store.Subscription;
+import com.example.notevault.store.UndoWindow;
+import com.example.notevault.utils.BackgroundExecutor;
+import com.example.notevault.utils.MainThreadExecutor;
+import com.example.notevault.utils.SessionKeyCache;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+
+import javax.crypto.SecretKey;
 
 /**
  * ViewModel that manages folders for the current user.
  */
 public class FolderViewModel extends ViewModel {
 
-    private final FirebaseManager firebaseManager;
+    private final FolderStore store;
+    private final ListenerPauser pauser;
+    private final UndoWindow undoWindow;
     private final MutableLiveData<List<Folder>> foldersLiveData = new MutableLiveData<>();
+    private final MutableLiveData<List<FolderRow>> folderRows = new MutableLiveData<>();
+    private final MutableLiveData<List<FolderRow>> pinnedRows = new MutableLiveData<>();
     private final MutableLiveData<Boolean> loading = new MutableLiveData<>(false);
     private final MutableLiveData<String> errorMessage = new MutableLiveData<>();
+    private final MutableLiveData<Set<String>> pendingFolderIds = new MutableLiveData<>(Collections.emptySet());
 
+    /** Decodes snapshots and builds rows off the main thread; only touched there. */
+    private final Executor rowExecutor = BackgroundExecutor.getInstance().serial();
     private final List<Folder> internalFolders = new ArrayList<>();
+    private List<Folder> lastFolders = Collections.emptyList();
+    private boolean foldersLoaded;
+    /** The last pinned result, or the cached one until it arrives; replaced, never modified. */
+    private volatile List<Folder> lastPinned = Collections.emptyList();
+    /** Folders with a recycle held for undo; left out of the grid until it lands or is undone. */
+    private final Set<String> heldIds = ConcurrentHashMap.newKeySet();
+    /** Folders by name, for {@link SortMode#TITLE}; only touched on {@link #rowExecutor}. */
+    private final CollatedList<Folder> byName = new CollatedList<>(Locale.getDefault(), Folder::getId, Folder::getName);
+    private final ManualOrder<Folder> manualOrder = new ManualOrder<>(Folder::getId, Folder::getRank, Folder::getCreatedAt);
+    private volatile SortMode sortMode = SortMode.NEWEST;
+    private Subscription foldersSubscription;
+    private Subscription pinnedSubscription;
 
     public FolderViewModel() {
-        firebaseManager = FirebaseManager.getInstance();
+        this(FirestoreStore.getInstance(), ListenerPauser.getInstance());
+    }
+
+    public FolderViewModel(FolderStore store, ListenerPauser pauser) {
+        this.store = store;
+        this.pauser = pauser;
+        this.undoWindow = new UndoWindow(store::commitActions);
+        subscribeToPinned();
         subscribeToFolders();
     }
 
+    /**
+     * List folders in {@code mode}. A mode queried in another order listens again; sorting by
+     * name re-sorts the folders already here.
+     */
+    public void setSortMode(SortMode mode) {
+        SortMode next = mode.forFolders();
+        SortMode previous = sortMode;
+        if (next == previous) return;
+        sortMode = next;
+        if (next.queryMode() != previous.queryMode()) {
+            if (foldersSubscription != null) foldersSubscription.remove();
+            subscribeToFolders();
+        } else {
+            rowExecutor.execute(this::publishFolders);
+        }
+    }
+
+    public SortMode getSortMode() {
+        return sortMode;
+    }
+
+    /** Folders have no updatedAt to catch up by, so they are listened to again after the background. */
     private void subscribeToFolders() {
-        FirebaseUser user = firebaseManager.getCurrentUser();
-        if (user == null) {
+        String userId = store.currentUserId();
+        if (userId == null) {
             return;
         }
 
         loading.setValue(true);
 
-        firebaseManager.listenToFolders(user.getUid(), new EventListener<QuerySnapshot>() {
+        SortMode query = sortMode.queryMode();
+        foldersSubscription = pauser.attach(new PausableQuery<>(
+                listener -> store.listenToFolders(userId, query, rowExecutor, listener), new StoreListener<Folder>() {
             @Override
-            public void onEvent(@Nullable QuerySnapshot value, @Nullable FirebaseFirestoreException error) {
-                loading.setValue(false);
-                if (error != null) {
-                    errorMessage.setValue(error.getMessage());
-                    return;
-                }
-                internalFolders.clear();
-                if (value != null) {
-                    for (QueryDocumentSnapshot doc : value) {
-                        Folder folder = doc.toObject(Folder.class);
-                        folder.setId(doc.getId());
-                        if (folder.isDeleted() || folder.isHidden()) {
-                            continue;
-                        }
-                        internalFolders.add(folder);
-                    }
-                }
-                foldersLiveData.setValue(new ArrayList<>(internalFolders));
+            public void onChanged(List<Folder> folders) {
+                loading.postValue(false);
+                lastFolders = folders;
+                foldersLoaded = true;
+                publishFolders();
+            }
+
+            @Override
+            public void onError(String message) {
+                loading.postValue(false);
+                errorMessage.postValue(message);
+            }
+
+            @Override
+            public void onPendingWrites(Set<String> ids) {
+                pendingFolderIds.postValue(ids);
+            }
+        }));
+    }
+
+    /**
+     * Listen to the pinned folders apart from the rest: a small query that usually answers before
+     * the full list. What this process last saw of them is shown at once.
+     */
+    private void subscribeToPinned() {
+        String userId = store.currentUserId();
+        if (userId == null) {
+            return;
+        }
+        List<Folder> cached = ListCache.pinnedFolders().get(userId);
+        if (!cached.isEmpty()) {
+            lastPinned = cached;
+            pinnedRows.setValue(RowFactory.folderRows(visible(cached)));
+        }
+        pinnedSubscription = pauser.attach(new PausableQuery<>(
+                listener -> store.listenToPinnedFolders(userId, rowExecutor, listener), new StoreListener<Folder>() {
+            @Override
+            public void onChanged(List<Folder> folders) {
+                ListCache.pinnedFolders().put(userId, folders);
+                lastPinned = ListCache.pinnedFolders().get(userId);
+                publishFolders();
+            }
+
+            @Override
+            public void onError(String message) {
+                errorMessage.postValue(message);
+            }
+        }));
+    }
+
+    /** Filter the last results into the pinned rows and {@link #internalFolders}, and publish them. Call on {@link #rowExecutor}. */
+    private void publishFolders() {
+        List<Folder> pinned = lastPinned;
+        List<Folder> visiblePinned = visible(pinned);
+        pinnedRows.postValue(RowFactory.folderRows(visiblePinned));
+        if (!foldersLoaded) return;
+        // Only folders the pinned section has leave the grid, so a pinned query that fails hides nothing
+        Set<String> pinnedIds = new HashSet<>();
+        for (Folder folder : pinned) pinnedIds.add(folder.getId());
+        internalFolders.clear();
+        List<Folder> ordered = sortMode == SortMode.TITLE ? byName.update(lastFolders)
+                : sortMode == SortMode.MANUAL ? manualOrder.sorted(lastFolders) : lastFolders;
+        for (Folder folder : ordered) {
+            if (folder.isDeleted() || folder.isHidden() || heldIds.contains(folder.getId()) || pinnedIds.contains(folder.getId())) {
+                continue;
+            }
+            internalFolders.add(folder);
+        }
+        List<Folder> all = new ArrayList<>(visiblePinned);
+        all.addAll(internalFolders);
+        foldersLiveData.postValue(all);
+        folderRows.postValue(RowFactory.folderRows(internalFolders));
+    }
+
+    /** Same as {@link NoteViewModel#moveNote} for the folder grid. */
+    public void moveFolder(int from, int to, FirebaseManager.OperationCallback callback) {
+        String userId = store.currentUserId();
+        if (userId == null) {
+            if (callback != null) callback.onComplete(false, "User not logged in");
+            return;
+        }
+        rowExecutor.execute(() -> {
+            if (sortMode != SortMode.MANUAL || from == to || Math.max(from, to) >= internalFolders.size()) {
+                publishFolders();
+                return;
             }
+            Map<String, String> ranks = manualOrder.move(internalFolders, from, to);
+            store.rankFolders(userId, ranks, callback);
         });
     }
 
+    private List<Folder> visible(List<Folder> folders) {
+        List<Folder> visible = new ArrayList<>();
+        for (Folder folder : folders) {
+            if (!folder.isDeleted() && !folder.isHidden() && !heldIds.contains(folder.getId())) visible.add(folder);
+        }
+        return visible;
+    }
+
     public LiveData<List<Folder>> getFoldersLiveData() {
         return foldersLiveData;
     }
 
+    /** The folders as ready-to-bind rows for the folder grid. */
+    public LiveData<List<FolderRow>> getFolderRows() {
+        return folderRows;
+    }
+
+    /** Pinned folders as rows for the section above the grid; the grid itself leaves them out. */
+    public LiveData<List<FolderRow>> getPinnedRows() {
+        return pinnedRows;
+    }
+
+    /** Ids of folders with local changes not yet saved to the server; confirming them does not rebuild the rows. */
+    public LiveData<Set<String>> getPendingFolderIds() {
+        return pendingFolderIds;
+    }
+
     public LiveData<Boolean> getLoading() {
         return loading;
     }
@@ -78,13 +241,13 @@ public class FolderViewModel extends ViewModel {
     }
 
     public void saveFolder(Folder folder) {
-        FirebaseUser user = firebaseManager.getCurrentUser();
-        if (user == null) {
+        String userId = store.currentUserId();
+        if (userId == null) {
             errorMessage.setValue("User not logged in");
             return;
         }
 
-        firebaseManager.addOrUpdateFolder(user.getUid(), folder, (success, message) -> {
+        store.addOrUpdateFolder(userId, folder, (success, message) -> {
             if (!success) {
                 errorMessage.setValue(message);
             }
@@ -92,39 +255,94 @@ public class FolderViewModel extends ViewModel {
     }
 
     /** Move folder to recycle bin (soft delete). */
-    public void deleteFolder(String folderId, FirebaseManager.OperationCallback callback) {
-        FirebaseUser user = firebaseManager.getCurrentUser();
-        if (user == null) {
+    /**
+     * Move a folder and its notes to the recycle bin. The folder leaves the grid at once; the
+     * writes wait for the undo window, and {@code callback} only hears of them if not undone.
+     */
+    @Nullable
+    public UndoWindow.Handle deleteFolder(String folderId, FirebaseManager.OperationCallback callback) {
+        String userId = store.currentUserId();
+        if (userId == null) {
+            if (callback != null) callback.onComplete(false, "User not logged in");
+            return null;
+        }
+        heldIds.add(folderId);
+        rowExecutor.execute(this::publishFolders);
+        UndoWindow.Handle held = undoWindow.hold(DeferredAction.recycleFolder(userId, folderId), (success, message) -> {
+            heldIds.remove(folderId);
+            rowExecutor.execute(this::publishFolders);
+            if (callback != null) callback.onComplete(success, message);
+        });
+        return () -> {
+            if (!held.undo()) return false;
+            heldIds.remove(folderId);
+            rowExecutor.execute(this::publishFolders);
+            return true;
+        };
+    }
+
+    public void pinFolder(String folderId, boolean pinned, FirebaseManager.OperationCallback callback) {
+        String userId = store.currentUserId();
+        if (userId == null) {
             if (callback != null) callback.onComplete(false, "User not logged in");
             return;
         }
-        firebaseManager.moveFolderToRecycleBin(user.getUid(), folderId, callback);
+        store.pinFolder(userId, folderId, pinned, callback);
     }
 
     public void hideFolder(String folderId, FirebaseManager.OperationCallback callback) {
-        FirebaseUser user = firebaseManager.getCurrentUser();
-        if (user == null) {
+        String userId = store.currentUserId();
+        if (userId == null) {
             if (callback != null) callback.onComplete(false, "User not logged in");
             return;
         }
-        firebaseManager.hideFolder(user.getUid(), folderId, callback);
+        store.hideFolder(userId, folderId, callback);
     }
 
-    public void lockFolder(String folderId, String passwordHash, FirebaseManager.OperationCallback callback) {
-        FirebaseUser user = firebaseManager.getCurrentUser();
-        if (user == null) {
+    /** Lock a folder with a password and encrypt the notes inside it with the derived key. */
+    public void lockFolder(String folderId, String password, FirebaseManager.OperationCallback callback) {
+        String userId = store.currentUserId();
+        if (userId == null) {
             if (callback != null) callback.onComplete(false, "User not logged in");
             return;
         }
-        firebaseManager.lockFolder(user.getUid(), folderId, passwordHash, callback);
+        SessionKeyCache.getInstance().createLock(password, Runnable::run, new SessionKeyCache.LockCallback() {
+            @Override
+            public void onCreated(byte[] salt, byte[] keyCheck, SecretKey key) {
+                store.lockFolder(userId, folderId, key, salt, keyCheck, callback);
+            }
+
+            @Override
+            public void onError(String message) {
+                if (callback != null) MainThreadExecutor.getInstance().execute(() -> callback.onComplete(false, message));
+            }
+        });
     }
 
-    public void unlockFolder(String folderId, FirebaseManager.OperationCallback callback) {
-        FirebaseUser user = firebaseManager.getCurrentUser();
-        if (user == null) {
+    /** Unlock a folder whose key was unlocked this session, decrypting its notes. */
+    public void unlockFolder(Folder folder, FirebaseManager.OperationCallback callback) {
+        String userId = store.currentUserId();
+        if (userId == null) {
             if (callback != null) callback.onComplete(false, "User not logged in");
             return;
         }
-        firebaseManager.unlockFolder(user.getUid(), folderId, callback);
+        SecretKey key = null;
+        byte[] salt = folder.getKeySalt() != null ? folder.getKeySalt().toBytes() : null;
+        if (salt != null) {
+            key = SessionKeyCache.getInstance().get(salt);
+            if (key == null) {
+                if (callback != null) callback.onComplete(false, "Wrong password");
+                return;
+            }
+        }
+        store.unlockFolder(userId, folder.getId(), key, salt, callback);
+    }
+
+    @Override
+    protected void onCleared() {
+        super.onCleared();
+        undoWindow.flush();
+        if (foldersSubscription != null) foldersSubscription.remove();
+        if (pinnedSubscription != null) pinnedSubscription.remove();
     }
 }
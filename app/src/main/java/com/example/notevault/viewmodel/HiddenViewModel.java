@@ -1,63 +1,69 @@
 package com.example.notevault.viewmodel;
 
-import androidx.annotation.Nullable;
 import androidx.lifecycle.LiveData;
 import androidx.lifecycle.MutableLiveData;
 import androidx.lifecycle.ViewModel;
 
 import com.example.notevault.firebase.FirebaseManager;
+import com.example.notevault.firebase.FirestoreStore;
 import com.example.notevault.model.Folder;
 import com.example.notevault.model.Note;
-import com.google.firebase.auth.FirebaseUser;
-import com.google.firebase.firestore.EventListener;
-import com.google.firebase.firestore.FirebaseFirestoreException;
-import com.google.firebase.firestore.QueryDocumentSnapshot;
-import com.google.firebase.firestore.QuerySnapshot;
+import com.example.notevault.store.FolderStore;
+import com.example.notevault.store.ListenerPauser;
+import com.example.notevault.store.NoteStore;
+import com.example.notevault.store.PausableQuery;
+import com.example.notevault.store.StoreListener;
+import com.example.notevault.store.Subscription;
+import com.example.notevault.utils.BackgroundExecutor;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Executor;
 
 public class HiddenViewModel extends ViewModel {
 
-    private final FirebaseManager firebaseManager = FirebaseManager.getInstance();
+    private final FolderStore folderStore;
+    private final NoteStore noteStore;
     private final MutableLiveData<List<Folder>> hiddenFolders = new MutableLiveData<>(new ArrayList<>());
     private final MutableLiveData<List<Note>> hiddenNotes = new MutableLiveData<>(new ArrayList<>());
     private final MutableLiveData<Boolean> loading = new MutableLiveData<>(false);
+    private final Executor listenerExecutor = BackgroundExecutor.getInstance().serial();
+    private final List<Subscription> subscriptions = new ArrayList<>();
 
     public HiddenViewModel() {
-        FirebaseUser user = firebaseManager.getCurrentUser();
-        if (user == null) return;
-        String uid = user.getUid();
+        this(FirestoreStore.getInstance(), FirestoreStore.getInstance(), ListenerPauser.getInstance());
+    }
+
+    public HiddenViewModel(FolderStore folderStore, NoteStore noteStore, ListenerPauser pauser) {
+        this.folderStore = folderStore;
+        this.noteStore = noteStore;
+        String uid = folderStore.currentUserId();
+        if (uid == null) return;
         loading.setValue(true);
-        firebaseManager.listenToHiddenFolders(uid, new EventListener<QuerySnapshot>() {
+        subscriptions.add(pauser.attach(new PausableQuery<>(
+                listener -> folderStore.listenToHiddenFolders(uid, listenerExecutor, listener), new StoreListener<Folder>() {
+            @Override
+            public void onChanged(List<Folder> folders) {
+                loading.postValue(false);
+                hiddenFolders.postValue(folders);
+            }
+
             @Override
-            public void onEvent(@Nullable QuerySnapshot value, @Nullable FirebaseFirestoreException error) {
-                loading.setValue(false);
-                List<Folder> list = new ArrayList<>();
-                if (value != null) {
-                    for (QueryDocumentSnapshot doc : value) {
-                        Folder f = doc.toObject(Folder.class);
-                        f.setId(doc.getId());
-                        list.add(f);
-                    }
-                }
-                hiddenFolders.setValue(list);
+            public void onError(String message) {
+                loading.postValue(false);
             }
-        });
-        firebaseManager.listenToAllHiddenNotes(uid, new EventListener<QuerySnapshot>() {
+        })));
+        subscriptions.add(pauser.attach(new PausableQuery<>(
+                listener -> noteStore.listenToHiddenNotes(uid, listenerExecutor, listener), new StoreListener<Note>() {
             @Override
-            public void onEvent(@Nullable QuerySnapshot value, @Nullable FirebaseFirestoreException error) {
-                List<Note> list = new ArrayList<>();
-                if (value != null) {
-                    for (QueryDocumentSnapshot doc : value) {
-                        Note n = doc.toObject(Note.class);
-                        n.setId(doc.getId());
-                        list.add(n);
-                    }
-                }
-                hiddenNotes.setValue(list);
+            public void onChanged(List<Note> notes) {
+                hiddenNotes.postValue(notes);
             }
-        });
+
+            @Override
+            public void onError(String message) {
+            }
+        })));
     }
 
     public LiveData<List<Folder>> getHiddenFolders() {
@@ -73,14 +79,20 @@ public class HiddenViewModel extends ViewModel {
     }
 
     public void unhideFolder(String folderId, FirebaseManager.OperationCallback callback) {
-        FirebaseUser user = firebaseManager.getCurrentUser();
-        if (user == null) { if (callback != null) callback.onComplete(false, "Not logged in"); return; }
-        firebaseManager.unhideFolder(user.getUid(), folderId, callback);
+        String uid = folderStore.currentUserId();
+        if (uid == null) { if (callback != null) callback.onComplete(false, "Not logged in"); return; }
+        folderStore.unhideFolder(uid, folderId, callback);
     }
 
     public void unhideNote(String folderId, String noteId, FirebaseManager.OperationCallback callback) {
-        FirebaseUser user = firebaseManager.getCurrentUser();
-        if (user == null) { if (callback != null) callback.onComplete(false, "Not logged in"); return; }
-        firebaseManager.unhideNote(user.getUid(), folderId, noteId, callback);
+        String uid = noteStore.currentUserId();
+        if (uid == null) { if (callback != null) callback.onComplete(false, "Not logged in"); return; }
+        noteStore.unhideNote(uid, folderId, noteId, callback);
+    }
+
+    @Override
+    protected void onCleared() {
+        super.onCleared();
+        for (Subscription subscription : subscriptions) subscription.remove();
     }
 }
@@ -0,0 +1,71 @@
+package com.example.notevault.viewmodel;
+
+import androidx.lifecycle.LiveData;
+import androidx.lifecycle.MutableLiveData;
+import androidx.lifecycle.ViewModel;
+
+import com.example.notevault.firebase.FirebaseManager;
+import com.example.notevault.history.RevisionHistory;
+import com.example.notevault.model.NoteRevision;
+import com.google.firebase.auth.FirebaseUser;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Loads the saved revisions of one note and rebuilds their content on demand.
+ */
+public class NoteHistoryViewModel extends ViewModel {
+
+    private final FirebaseManager firebaseManager = FirebaseManager.getInstance();
+    /** Oldest first, as stored; needed for rebuilding content */
+    private final List<NoteRevision> revisions = new ArrayList<>();
+    /** Newest first, for display */
+    private final MutableLiveData<List<NoteRevision>> revisionsLiveData = new MutableLiveData<>();
+    private final MutableLiveData<Boolean> loading = new MutableLiveData<>(false);
+    private final MutableLiveData<String> errorMessage = new MutableLiveData<>();
+
+    public LiveData<List<NoteRevision>> getRevisions() {
+        return revisionsLiveData;
+    }
+
+    public LiveData<Boolean> getLoading() {
+        return loading;
+    }
+
+    public LiveData<String> getErrorMessage() {
+        return errorMessage;
+    }
+
+    public void load(String noteId) {
+        FirebaseUser user = firebaseManager.getCurrentUser();
+        if (user == null) {
+            errorMessage.setValue("User not logged in");
+            return;
+        }
+        loading.setValue(true);
+        firebaseManager.loadNoteRevisions(user.getUid(), noteId, new FirebaseManager.RevisionsCallback() {
+            @Override
+            public void onLoaded(List<NoteRevision> loaded) {
+                loading.setValue(false);
+                revisions.clear();
+                revisions.addAll(loaded);
+                List<NoteRevision> newestFirst = new ArrayList<>(loaded);
+                Collections.reverse(newestFirst);
+                revisionsLiveData.setValue(newestFirst);
+            }
+
+            @Override
+            public void onError(String message) {
+                loading.setValue(false);
+                errorMessage.setValue(message);
+            }
+        });
+    }
+
+    /** Content of the note as of {@code revision}. */
+    public String contentAt(NoteRevision revision) {
+        return RevisionHistory.contentAt(revisions, revision.getRevision());
+    }
+}
@@ -5,17 +5,45 @@ import androidx.lifecycle.LiveData;
 import androidx.lifecycle.MutableLiveData;
 import androidx.lifecycle.ViewModel;
 
+import com.example.notevault.diff.ThreeWayMerge;
 import com.example.notevault.firebase.FirebaseManager;
+import com.example.notevault.firebase.FirestoreStore;
 import com.example.notevault.model.Note;
-import com.google.firebase.auth.FirebaseUser;
-import com.google.firebase.firestore.EventListener;
-import com.google.firebase.firestore.FirebaseFirestoreException;
-import com.google.firebase.firestore.QueryDocumentSnapshot;
-import com.google.firebase.firestore.QuerySnapshot;
+import com.example.notevault.presentation.NoteRow;
+import com.example.notevault.presentation.RowFactory;
+import com.example.notevault.sort.CollatedList;
+import com.example.notevault.sort.ManualOrder;
+import com.example.notevault.sort.SortMode;
+import com.example.notevault.store.DeferredAction;
+import com.example.notevault.store.ListCache;
+import com.example.notevault.store.ListenerPauser;
+import com.example.notevault.store.NoteStore;
+import com.example.notevault.store.PausableQuery;
+import com.example.notevault.store.StoreListener;
+import com.example.notevault.store.Subscription;
+import com.example.notevault.store.UndoWindow;
+import com.example.notevault.tags.Tags;
+import com.example.notevault.utils.BackgroundExecutor;
+import com.example.notevault.utils.MainThreadExecutor;
+import com.example.notevault.utils.NoteCipher;
+import com.example.notevault.utils.SessionKeyCache;
+import com.google.firebase.firestore.Blob;
 
+import java.security.GeneralSecurityException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.crypto.SecretKey;
 
 /**
  * ViewModel that holds the list of notes for a specific folder.
@@ -23,52 +51,209 @@ import java.util.List;
  */
 public class NoteViewModel extends ViewModel {
 
-    private final FirebaseManager firebaseManager;
+    private final NoteStore store;
+    private final ListenerPauser pauser;
+    private final UndoWindow undoWindow;
     private final MutableLiveData<List<Note>> notesLiveData = new MutableLiveData<>();
+    private final MutableLiveData<List<NoteRow>> noteRows = new MutableLiveData<>();
+    private final MutableLiveData<List<NoteRow>> pinnedRows = new MutableLiveData<>();
     private final MutableLiveData<Boolean> loading = new MutableLiveData<>(false);
     private final MutableLiveData<String> errorMessage = new MutableLiveData<>();
+    private final MutableLiveData<Set<String>> pendingNoteIds = new MutableLiveData<>(Collections.emptySet());
 
+    /** Decodes snapshots and builds rows off the main thread; {@link #internalNotes} is only touched there. */
+    private final Executor rowExecutor = BackgroundExecutor.getInstance().serial();
     private final List<Note> internalNotes = new ArrayList<>();
+    private List<Note> lastNotes = Collections.emptyList();
+    /** The folder's last pinned result, or the cached one until it arrives; replaced, never modified. */
+    private volatile List<Note> lastPinned = Collections.emptyList();
+    /** Notes with a recycle or hide held for undo; left out of the list until it lands or is undone. */
+    private final Set<String> heldIds = ConcurrentHashMap.newKeySet();
+    private boolean snapshotLoaded;
+    /** Notes by title, for {@link SortMode#TITLE}; only touched on {@link #rowExecutor}. */
+    private final CollatedList<Note> byTitle = new CollatedList<>(Locale.getDefault(), Note::getId, Note::getTitle);
+    private final ManualOrder<Note> manualOrder = new ManualOrder<>(Note::getId, Note::getRank, Note::getTimestamp);
+    private volatile SortMode sortMode = SortMode.NEWEST;
+    private volatile RowFactory rowFactory;
+    private Subscription notesSubscription;
+    private Subscription pinnedSubscription;
     private String currentFolderId;
 
     public NoteViewModel() {
-        firebaseManager = FirebaseManager.getInstance();
+        this(FirestoreStore.getInstance(), ListenerPauser.getInstance());
+    }
+
+    public NoteViewModel(NoteStore store, ListenerPauser pauser) {
+        this.store = store;
+        this.pauser = pauser;
+        this.undoWindow = new UndoWindow(store::commitActions);
     }
 
     public void setFolderId(String folderId) {
         this.currentFolderId = folderId;
+        subscribeToPinned();
         subscribeToNotes();
     }
 
+    /**
+     * List notes in {@code mode}. A mode queried in another order listens again; sorting by
+     * title re-sorts the notes already here, moving only those whose title changed afterwards.
+     */
+    public void setSortMode(SortMode mode) {
+        SortMode previous = sortMode;
+        if (mode == previous) return;
+        sortMode = mode;
+        if (mode.queryMode() != previous.queryMode()) {
+            if (currentFolderId != null) subscribeToNotes();
+        } else {
+            rowExecutor.execute(this::publishNotes);
+        }
+    }
+
+    public SortMode getSortMode() {
+        return sortMode;
+    }
+
+    /**
+     * Listen to the folder's notes while the app is visible. Returning from the background only
+     * fetches the notes updated meanwhile, and merges them into the list kept from before.
+     */
     private void subscribeToNotes() {
-        FirebaseUser user = firebaseManager.getCurrentUser();
-        if (user == null || currentFolderId == null) {
+        String userId = store.currentUserId();
+        String folderId = currentFolderId;
+        if (userId == null || folderId == null) {
             return;
         }
 
         loading.setValue(true);
 
-        firebaseManager.listenToNotes(user.getUid(), currentFolderId, new EventListener<QuerySnapshot>() {
+        SortMode query = sortMode.queryMode();
+        if (notesSubscription != null) notesSubscription.remove();
+        notesSubscription = pauser.attach(new PausableQuery<>(
+                listener -> store.listenToNotes(userId, folderId, query, rowExecutor, listener), new StoreListener<Note>() {
             @Override
-            public void onEvent(@Nullable QuerySnapshot value, @Nullable FirebaseFirestoreException error) {
-                loading.setValue(false);
-                if (error != null) {
-                    errorMessage.setValue(error.getMessage());
-                    return;
-                }
-                internalNotes.clear();
-                if (value != null) {
-                    for (QueryDocumentSnapshot doc : value) {
-                        Note note = doc.toObject(Note.class);
-                        note.setId(doc.getId());
-                        if (note.isDeleted() || note.isHidden()) {
-                            continue;
-                        }
-                        internalNotes.add(note);
-                    }
-                }
-                notesLiveData.setValue(new ArrayList<>(internalNotes));
+            public void onChanged(List<Note> notes) {
+                loading.postValue(false);
+                lastNotes = notes;
+                snapshotLoaded = true;
+                publishNotes();
             }
+
+            @Override
+            public void onError(String message) {
+                loading.postValue(false);
+                errorMessage.postValue(message);
+            }
+
+            @Override
+            public void onPendingWrites(Set<String> ids) {
+                pendingNoteIds.postValue(ids);
+            }
+        }).catchUpWith((since, listener) -> store.listenToNotesChangedSince(userId, since, rowExecutor, listener),
+                Note::getId, note -> folderId.equals(note.getFolderId()), query.noteOrder()));
+    }
+
+    /**
+     * Listen to the folder's pinned notes apart from the rest, as {@link FolderViewModel} does for
+     * pinned folders. What this process last saw of them is shown as soon as there is a row factory.
+     */
+    private void subscribeToPinned() {
+        String userId = store.currentUserId();
+        String folderId = currentFolderId;
+        if (userId == null || folderId == null) {
+            return;
+        }
+        String key = ListCache.folderKey(userId, folderId);
+        lastPinned = ListCache.pinnedNotes().get(key);
+        if (pinnedSubscription != null) pinnedSubscription.remove();
+        pinnedSubscription = pauser.attach(new PausableQuery<>(
+                listener -> store.listenToPinnedNotes(userId, folderId, rowExecutor, listener), new StoreListener<Note>() {
+            @Override
+            public void onChanged(List<Note> notes) {
+                ListCache.pinnedNotes().put(key, notes);
+                lastPinned = ListCache.pinnedNotes().get(key);
+                publishNotes();
+            }
+
+            @Override
+            public void onError(String message) {
+                errorMessage.postValue(message);
+            }
+        }));
+    }
+
+    /**
+     * Set how rows are built; the activity supplies the text metrics of its list. Rows are
+     * rebuilt off the main thread with every snapshot, which also refreshes relative timestamps.
+     */
+    public void setRowFactory(RowFactory factory) {
+        rowFactory = factory;
+        // The few cached pinned rows are built right here, so they make the first frame
+        List<Note> pinned = visiblePinned();
+        if (!pinned.isEmpty()) pinnedRows.setValue(factory.noteRows(pinned, System.currentTimeMillis()));
+        rowExecutor.execute(this::publishRows);
+    }
+
+    /** Filter the last result into {@link #internalNotes} and publish it. Call on {@link #rowExecutor}. */
+    private void publishNotes() {
+        if (!snapshotLoaded) {
+            // Pinned notes can arrive first; they have their own rows
+            publishRows();
+            return;
+        }
+        // Only notes the pinned section has leave the list, so a pinned query that fails hides nothing
+        Set<String> pinnedIds = new HashSet<>();
+        for (Note note : lastPinned) pinnedIds.add(note.getId());
+        internalNotes.clear();
+        List<Note> ordered = sortMode == SortMode.TITLE ? byTitle.update(lastNotes)
+                : sortMode == SortMode.MANUAL ? manualOrder.sorted(lastNotes) : lastNotes;
+        for (Note note : ordered) {
+            if (note.isDeleted() || note.isHidden() || heldIds.contains(note.getId()) || pinnedIds.contains(note.getId())) {
+                continue;
+            }
+            internalNotes.add(note);
+        }
+        List<Note> all = visiblePinned();
+        all.addAll(internalNotes);
+        notesLiveData.postValue(all);
+        publishRows();
+    }
+
+    private void publishRows() {
+        RowFactory factory = rowFactory;
+        if (factory == null) return;
+        long now = System.currentTimeMillis();
+        pinnedRows.postValue(factory.noteRows(visiblePinned(), now));
+        if (snapshotLoaded) noteRows.postValue(factory.noteRows(internalNotes, now));
+    }
+
+    private List<Note> visiblePinned() {
+        List<Note> visible = new ArrayList<>();
+        for (Note note : lastPinned) {
+            if (!note.isDeleted() && !note.isHidden() && !heldIds.contains(note.getId())) visible.add(note);
+        }
+        return visible;
+    }
+
+    /**
+     * Move the note at {@code from} of the listed notes to {@code to}, in {@link SortMode#MANUAL}.
+     * Saves the new ranks, usually just the moved note's; the list follows once the store reports them.
+     */
+    public void moveNote(int from, int to, FirebaseManager.OperationCallback callback) {
+        String userId = store.currentUserId();
+        String folderId = currentFolderId;
+        if (userId == null || folderId == null) {
+            if (callback != null) callback.onComplete(false, "User not logged in");
+            return;
+        }
+        rowExecutor.execute(() -> {
+            if (sortMode != SortMode.MANUAL || from == to || Math.max(from, to) >= internalNotes.size()) {
+                // Put back a row dragged on a list that has changed under it
+                publishNotes();
+                return;
+            }
+            Map<String, String> ranks = manualOrder.move(internalNotes, from, to);
+            store.rankNotes(userId, folderId, ranks, callback);
         });
     }
 
@@ -76,6 +261,21 @@ public class NoteViewModel extends ViewModel {
         return notesLiveData;
     }
 
+    /** The notes as ready-to-bind rows for the notes list, once a row factory is set. */
+    public LiveData<List<NoteRow>> getNoteRows() {
+        return noteRows;
+    }
+
+    /** The folder's pinned notes as rows for the section above the list; the list itself leaves them out. */
+    public LiveData<List<NoteRow>> getPinnedRows() {
+        return pinnedRows;
+    }
+
+    /** Ids of notes with local changes not yet saved to the server; confirming them does not rebuild the rows. */
+    public LiveData<Set<String>> getPendingNoteIds() {
+        return pendingNoteIds;
+    }
+
     public LiveData<Boolean> getLoading() {
         return loading;
     }
@@ -90,8 +290,8 @@ public class NoteViewModel extends ViewModel {
                          String content,
                          String color,
                          FirebaseManager.OperationCallback callback) {
-        FirebaseUser user = firebaseManager.getCurrentUser();
-        if (user == null) {
+        String userId = store.currentUserId();
+        if (userId == null) {
             if (callback != null) callback.onComplete(false, "User not logged in");
             return;
         }
@@ -99,50 +299,258 @@ public class NoteViewModel extends ViewModel {
         Note note = new Note();
         note.setId(id);
         note.setFolderId(folderId);
-        note.setUserId(user.getUid());
+        note.setUserId(userId);
         note.setTitle(title);
         note.setContent(content);
         note.setColor(color);
         note.setTimestamp(new Date());
         note.setUpdatedAt(new Date());
 
-        firebaseManager.addOrUpdateNote(user.getUid(), folderId, note, callback);
+        store.addOrUpdateNote(userId, folderId, note, callback);
+    }
+
+    public interface SaveCallback {
+        void onSaved(String message);
+        /** The note changed elsewhere in the same places; {@code merged} marks the conflicting lines. */
+        void onConflict(String merged, Note remote);
+        void onError(String message);
     }
 
-    /** Move note to recycle bin (soft delete). */
-    public void deleteNote(String noteId, FirebaseManager.OperationCallback callback) {
-        FirebaseUser user = firebaseManager.getCurrentUser();
-        if (user == null || currentFolderId == null) {
+    /**
+     * Save an edit. {@code base} is the note as the editor loaded it, or null for a new note.
+     * If the stored note has changed since, the edit is merged line by line with the stored
+     * version. When {@code keySalt} is set the content is encrypted with the session key for that salt.
+     */
+    public void saveNote(String folderId,
+                         String id,
+                         String title,
+                         String content,
+                         String color,
+                         List<String> tags,
+                         boolean locked,
+                         @Nullable byte[] keySalt,
+                         @Nullable byte[] keyCheck,
+                         @Nullable Note base,
+                         SaveCallback callback) {
+        String userId = store.currentUserId();
+        if (userId == null) {
+            callback.onError("User not logged in");
+            return;
+        }
+        Note note;
+        try {
+            note = buildNote(userId, folderId, id, title, content, color, tags, locked, keySalt, keyCheck);
+        } catch (GeneralSecurityException e) {
+            callback.onError(e.getMessage());
+            return;
+        }
+        if (id == null || base == null) {
+            store.addOrUpdateNote(userId, folderId, note, (ok, msg) -> {
+                if (ok) callback.onSaved(msg);
+                else callback.onError(msg);
+            });
+            return;
+        }
+
+        AtomicReference<String> conflict = new AtomicReference<>();
+        // Called inside the save transaction, off the main thread
+        FirebaseManager.NoteMerger merger = remote -> {
+            try {
+                String remoteContent = readContent(remote);
+                remote.setContent(remoteContent);
+                ThreeWayMerge.Result result = ThreeWayMerge.merge(base.getContent(), content, remoteContent);
+                if (result.hasConflicts()) {
+                    conflict.set(result.text);
+                    return null;
+                }
+                Note merged = buildNote(userId, folderId, id, pick(base.getTitle(), title, remote.getTitle()), result.text,
+                        pick(base.getColor(), color, remote.getColor()), pick(base.getTags(), tags, remote.getTags()),
+                        locked, keySalt, keyCheck);
+                return merged;
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(e.getMessage(), e);
+            }
+        };
+        store.saveNoteIfUnchanged(userId, folderId, note, base.getUpdatedAt(), merger,
+                new FirebaseManager.NoteSaveCallback() {
+                    @Override
+                    public void onSaved(String message, int attempts) {
+                        callback.onSaved(message);
+                    }
+
+                    @Override
+                    public void onConflict(Note remote) {
+                        callback.onConflict(conflict.get(), remote);
+                    }
+
+                    @Override
+                    public void onError(String message) {
+                        callback.onError(message);
+                    }
+                });
+    }
+
+    private static Note buildNote(String userId, String folderId, String id, String title, String content,
+                                  String color, List<String> tags, boolean locked, @Nullable byte[] keySalt,
+                                  @Nullable byte[] keyCheck) throws GeneralSecurityException {
+        Note note = new Note();
+        note.setId(id);
+        note.setFolderId(folderId);
+        note.setUserId(userId);
+        note.setTitle(title);
+        note.setColor(color);
+        note.setTags(Tags.normalizeAll(tags));
+        note.setLocked(locked);
+        note.setTimestamp(new Date());
+        note.setUpdatedAt(new Date());
+        if (keySalt != null) {
+            SecretKey key = SessionKeyCache.getInstance().get(keySalt);
+            if (key == null) throw new GeneralSecurityException("Note is locked");
+            note.setEncryptedContent(Blob.fromBytes(NoteCipher.encryptString(key, content)));
+            note.setContent("");
+            note.setKeySalt(Blob.fromBytes(keySalt));
+            note.setKeyCheck(Blob.fromBytes(keyCheck));
+        } else {
+            note.setContent(content);
+        }
+        return note;
+    }
+
+    /** Field-level merge: keep the local value if it was edited, otherwise take the stored one. */
+    private static <T> T pick(T base, T local, T remote) {
+        return Objects.equals(base, local) ? remote : local;
+    }
+
+    /**
+     * Move note to recycle bin (soft delete). The note leaves the list at once; the write waits
+     * for the undo window, and {@code callback} only hears of it if it is not undone.
+     */
+    @Nullable
+    public UndoWindow.Handle deleteNote(String noteId, FirebaseManager.OperationCallback callback) {
+        String userId = store.currentUserId();
+        if (userId == null || currentFolderId == null) {
             if (callback != null) callback.onComplete(false, "User not logged in");
+            return null;
+        }
+        return hold(DeferredAction.recycleNote(userId, currentFolderId, noteId), callback);
+    }
+
+    /** Move a note out of the current folder into {@code toFolderId}. */
+    public void moveNote(String noteId, String toFolderId, FirebaseManager.OperationCallback callback) {
+        String userId = store.currentUserId();
+        if (userId == null || currentFolderId == null) {
+            if (callback != null) callback.onComplete(false, "User not logged in");
+            return;
+        }
+        if (currentFolderId.equals(toFolderId)) {
+            if (callback != null) callback.onComplete(true, "Already in this folder");
             return;
         }
-        firebaseManager.moveNoteToRecycleBin(user.getUid(), currentFolderId, noteId, callback);
+        store.moveNoteToFolder(userId, currentFolderId, noteId, toFolderId, callback);
     }
 
-    public void hideNote(String noteId, FirebaseManager.OperationCallback callback) {
-        FirebaseUser user = firebaseManager.getCurrentUser();
-        if (user == null || currentFolderId == null) {
+    /** Hide a note, held for undo like {@link #deleteNote}. */
+    @Nullable
+    public UndoWindow.Handle hideNote(String noteId, FirebaseManager.OperationCallback callback) {
+        String userId = store.currentUserId();
+        if (userId == null || currentFolderId == null) {
+            if (callback != null) callback.onComplete(false, "User not logged in");
+            return null;
+        }
+        return hold(DeferredAction.hideNote(userId, currentFolderId, noteId), callback);
+    }
+
+    public void pinNote(String noteId, boolean pinned, FirebaseManager.OperationCallback callback) {
+        String userId = store.currentUserId();
+        if (userId == null || currentFolderId == null) {
             if (callback != null) callback.onComplete(false, "User not logged in");
             return;
         }
-        firebaseManager.hideNote(user.getUid(), currentFolderId, noteId, callback);
+        store.pinNote(userId, currentFolderId, noteId, pinned, callback);
+    }
+
+    private UndoWindow.Handle hold(DeferredAction action, FirebaseManager.OperationCallback callback) {
+        heldIds.add(action.itemId);
+        rowExecutor.execute(this::publishNotes);
+        UndoWindow.Handle held = undoWindow.hold(action, (success, message) -> {
+            // By now the snapshot with the write has been delivered, or on failure the note comes back
+            heldIds.remove(action.itemId);
+            rowExecutor.execute(this::publishNotes);
+            if (callback != null) callback.onComplete(success, message);
+        });
+        return () -> {
+            if (!held.undo()) return false;
+            heldIds.remove(action.itemId);
+            rowExecutor.execute(this::publishNotes);
+            return true;
+        };
     }
 
-    public void lockNote(String noteId, String passwordHash, FirebaseManager.OperationCallback callback) {
-        FirebaseUser user = firebaseManager.getCurrentUser();
-        if (user == null || currentFolderId == null) {
+    /** Lock a note with its own password. The content is encrypted before it is written. */
+    public void lockNote(Note note, String password, FirebaseManager.OperationCallback callback) {
+        String userId = store.currentUserId();
+        if (userId == null || currentFolderId == null) {
             if (callback != null) callback.onComplete(false, "User not logged in");
             return;
         }
-        firebaseManager.lockNote(user.getUid(), currentFolderId, noteId, passwordHash, callback);
+        String plain;
+        try {
+            plain = readContent(note);
+        } catch (GeneralSecurityException e) {
+            if (callback != null) callback.onComplete(false, "Unlock the folder first");
+            return;
+        }
+        String folderId = currentFolderId;
+        // Encrypt on the derivation thread; the Firestore write reports back on the main thread
+        SessionKeyCache.getInstance().createLock(password, Runnable::run, new SessionKeyCache.LockCallback() {
+            @Override
+            public void onCreated(byte[] salt, byte[] keyCheck, SecretKey key) {
+                try {
+                    byte[] encrypted = NoteCipher.encryptString(key, plain);
+                    store.lockNote(userId, folderId, note.getId(), salt, keyCheck, encrypted, callback);
+                } catch (GeneralSecurityException e) {
+                    onError(e.getMessage());
+                }
+            }
+
+            @Override
+            public void onError(String message) {
+                if (callback != null) MainThreadExecutor.getInstance().execute(() -> callback.onComplete(false, message));
+            }
+        });
     }
 
-    public void unlockNote(String noteId, FirebaseManager.OperationCallback callback) {
-        FirebaseUser user = firebaseManager.getCurrentUser();
-        if (user == null || currentFolderId == null) {
+    /** Remove a note's lock, storing its content in plain text. The note's key must be unlocked this session. */
+    public void unlockNote(Note note, FirebaseManager.OperationCallback callback) {
+        String userId = store.currentUserId();
+        if (userId == null || currentFolderId == null) {
             if (callback != null) callback.onComplete(false, "User not logged in");
             return;
         }
-        firebaseManager.unlockNote(user.getUid(), currentFolderId, noteId, callback);
+        try {
+            store.unlockNote(userId, currentFolderId, note.getId(), readContent(note), callback);
+        } catch (GeneralSecurityException e) {
+            if (callback != null) callback.onComplete(false, "Wrong password");
+        }
+    }
+
+    /**
+     * Plain content of a note. Encrypted notes are decrypted with the key cached for their salt;
+     * throws if that key has not been unlocked this session.
+     */
+    public static String readContent(Note note) throws GeneralSecurityException {
+        if (note.getEncryptedContent() == null) return note.getContent();
+        byte[] salt = note.getKeySalt() != null ? note.getKeySalt().toBytes() : null;
+        SecretKey key = SessionKeyCache.getInstance().get(salt);
+        if (key == null) throw new GeneralSecurityException("Key not unlocked");
+        return NoteCipher.decryptString(key, note.getEncryptedContent().toBytes());
+    }
+
+    @Override
+    protected void onCleared() {
+        super.onCleared();
+        undoWindow.flush();
+        if (notesSubscription != null) notesSubscription.remove();
+        if (pinnedSubscription != null) pinnedSubscription.remove();
     }
 }
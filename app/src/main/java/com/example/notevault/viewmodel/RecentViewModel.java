@@ -0,0 +1,116 @@
+package com.example.notevault.viewmodel;
+
+import androidx.lifecycle.LiveData;
+import androidx.lifecycle.MutableLiveData;
+import androidx.lifecycle.ViewModel;
+
+import com.example.notevault.firebase.FirestoreStore;
+import com.example.notevault.model.Note;
+import com.example.notevault.presentation.NoteRow;
+import com.example.notevault.presentation.RowFactory;
+import com.example.notevault.store.ListCache;
+import com.example.notevault.store.ListenerPauser;
+import com.example.notevault.store.NoteStore;
+import com.example.notevault.store.PausableQuery;
+import com.example.notevault.store.StoreListener;
+import com.example.notevault.store.Subscription;
+import com.example.notevault.utils.BackgroundExecutor;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * The last edited notes across folders, from a listener limited to {@link #LIMIT} notes, so it
+ * costs the same whatever the size of the vault. What this process last saw of it is shown
+ * until the listener answers.
+ */
+public class RecentViewModel extends ViewModel {
+
+    /** Notes in the feed. */
+    public static final int LIMIT = 30;
+
+    private final MutableLiveData<List<Note>> notes = new MutableLiveData<>(new ArrayList<>());
+    private final MutableLiveData<List<NoteRow>> noteRows = new MutableLiveData<>();
+    private final MutableLiveData<Boolean> loading = new MutableLiveData<>(false);
+    private final MutableLiveData<String> errorMessage = new MutableLiveData<>();
+    private final Executor executor = BackgroundExecutor.getInstance().serial();
+    private final Subscription subscription;
+    /** The last result, or the cached one until it arrives; replaced, never modified. */
+    private volatile List<Note> lastNotes = Collections.emptyList();
+    private volatile RowFactory rowFactory;
+
+    public RecentViewModel() {
+        this(FirestoreStore.getInstance(), ListenerPauser.getInstance());
+    }
+
+    public RecentViewModel(NoteStore store, ListenerPauser pauser) {
+        String uid = store.currentUserId();
+        if (uid == null) {
+            subscription = () -> { };
+            return;
+        }
+        lastNotes = ListCache.recentNotes().get(uid);
+        notes.setValue(lastNotes);
+        loading.setValue(lastNotes.isEmpty());
+        subscription = pauser.attach(new PausableQuery<>(
+                listener -> store.listenToRecentNotes(uid, LIMIT, executor, listener), new StoreListener<Note>() {
+            @Override
+            public void onChanged(List<Note> recent) {
+                ListCache.recentNotes().put(uid, recent);
+                lastNotes = ListCache.recentNotes().get(uid);
+                loading.postValue(false);
+                notes.postValue(lastNotes);
+                publishRows();
+            }
+
+            @Override
+            public void onError(String message) {
+                loading.postValue(false);
+                errorMessage.postValue(message);
+            }
+        }));
+    }
+
+    /** Visible notes, last edited first. */
+    public LiveData<List<Note>> getNotes() {
+        return notes;
+    }
+
+    /** {@link #getNotes} as rows for the notes list, once a row factory is set. */
+    public LiveData<List<NoteRow>> getNoteRows() {
+        return noteRows;
+    }
+
+    public LiveData<Boolean> getLoading() {
+        return loading;
+    }
+
+    public LiveData<String> getErrorMessage() {
+        return errorMessage;
+    }
+
+    /**
+     * Set how rows are built. The cached notes are few, so their rows are built right here and
+     * make the first frame; later results are built off the main thread.
+     */
+    public void setRowFactory(RowFactory factory) {
+        rowFactory = factory;
+        List<Note> cached = lastNotes;
+        if (!cached.isEmpty()) noteRows.setValue(factory.noteRows(cached, System.currentTimeMillis()));
+        else executor.execute(this::publishRows);
+    }
+
+    /** Call on {@link #executor}. */
+    private void publishRows() {
+        RowFactory factory = rowFactory;
+        if (factory != null) noteRows.postValue(factory.noteRows(lastNotes, System.currentTimeMillis()));
+    }
+
+    @Override
+    protected void onCleared() {
+        super.onCleared();
+        subscription.remove();
+    }
+}
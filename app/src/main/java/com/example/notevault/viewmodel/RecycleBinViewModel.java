@@ -1,63 +1,69 @@
 package com.example.notevault.viewmodel;
 
-import androidx.annotation.Nullable;
 import androidx.lifecycle.LiveData;
 import androidx.lifecycle.MutableLiveData;
 import androidx.lifecycle.ViewModel;
 
 import com.example.notevault.firebase.FirebaseManager;
+import com.example.notevault.firebase.FirestoreStore;
 import com.example.notevault.model.Folder;
 import com.example.notevault.model.Note;
-import com.google.firebase.auth.FirebaseUser;
-import com.google.firebase.firestore.EventListener;
-import com.google.firebase.firestore.FirebaseFirestoreException;
-import com.google.firebase.firestore.QueryDocumentSnapshot;
-import com.google.firebase.firestore.QuerySnapshot;
+import com.example.notevault.store.FolderStore;
+import com.example.notevault.store.ListenerPauser;
+import com.example.notevault.store.NoteStore;
+import com.example.notevault.store.PausableQuery;
+import com.example.notevault.store.StoreListener;
+import com.example.notevault.store.Subscription;
+import com.example.notevault.utils.BackgroundExecutor;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Executor;
 
 public class RecycleBinViewModel extends ViewModel {
 
-    private final FirebaseManager firebaseManager = FirebaseManager.getInstance();
+    private final FolderStore folderStore;
+    private final NoteStore noteStore;
     private final MutableLiveData<List<Folder>> deletedFolders = new MutableLiveData<>(new ArrayList<>());
     private final MutableLiveData<List<Note>> deletedNotes = new MutableLiveData<>(new ArrayList<>());
     private final MutableLiveData<Boolean> loading = new MutableLiveData<>(false);
+    private final Executor listenerExecutor = BackgroundExecutor.getInstance().serial();
+    private final List<Subscription> subscriptions = new ArrayList<>();
 
     public RecycleBinViewModel() {
-        FirebaseUser user = firebaseManager.getCurrentUser();
-        if (user == null) return;
-        String uid = user.getUid();
+        this(FirestoreStore.getInstance(), FirestoreStore.getInstance(), ListenerPauser.getInstance());
+    }
+
+    public RecycleBinViewModel(FolderStore folderStore, NoteStore noteStore, ListenerPauser pauser) {
+        this.folderStore = folderStore;
+        this.noteStore = noteStore;
+        String uid = folderStore.currentUserId();
+        if (uid == null) return;
         loading.setValue(true);
-        firebaseManager.listenToDeletedFolders(uid, new EventListener<QuerySnapshot>() {
+        subscriptions.add(pauser.attach(new PausableQuery<>(
+                listener -> folderStore.listenToDeletedFolders(uid, listenerExecutor, listener), new StoreListener<Folder>() {
+            @Override
+            public void onChanged(List<Folder> folders) {
+                loading.postValue(false);
+                deletedFolders.postValue(folders);
+            }
+
+            @Override
+            public void onError(String message) {
+                loading.postValue(false);
+            }
+        })));
+        subscriptions.add(pauser.attach(new PausableQuery<>(
+                listener -> noteStore.listenToDeletedNotes(uid, listenerExecutor, listener), new StoreListener<Note>() {
             @Override
-            public void onEvent(@Nullable QuerySnapshot value, @Nullable FirebaseFirestoreException error) {
-                loading.setValue(false);
-                List<Folder> list = new ArrayList<>();
-                if (value != null) {
-                    for (QueryDocumentSnapshot doc : value) {
-                        Folder f = doc.toObject(Folder.class);
-                        f.setId(doc.getId());
-                        list.add(f);
-                    }
-                }
-                deletedFolders.setValue(list);
+            public void onChanged(List<Note> notes) {
+                deletedNotes.postValue(notes);
             }
-        });
-        firebaseManager.listenToAllDeletedNotes(uid, new EventListener<QuerySnapshot>() {
+
             @Override
-            public void onEvent(@Nullable QuerySnapshot value, @Nullable FirebaseFirestoreException error) {
-                List<Note> list = new ArrayList<>();
-                if (value != null) {
-                    for (QueryDocumentSnapshot doc : value) {
-                        Note n = doc.toObject(Note.class);
-                        n.setId(doc.getId());
-                        list.add(n);
-                    }
-                }
-                deletedNotes.setValue(list);
+            public void onError(String message) {
             }
-        });
+        })));
     }
 
     public LiveData<List<Folder>> getDeletedFolders() {
@@ -72,27 +78,40 @@ public class RecycleBinViewModel extends ViewModel {
         return loading;
     }
 
+    /** Permanently delete what has been in the recycle bin for {@link NoteStore#RECYCLE_BIN_DAYS}. */
+    public void cleanupOldItems(FirebaseManager.OperationCallback callback) {
+        String uid = noteStore.currentUserId();
+        if (uid == null) { if (callback != null) callback.onComplete(false, "Not logged in"); return; }
+        noteStore.cleanupOldRecycleBinItems(uid, callback);
+    }
+
     public void restoreFolder(String folderId, FirebaseManager.OperationCallback callback) {
-        FirebaseUser user = firebaseManager.getCurrentUser();
-        if (user == null) { if (callback != null) callback.onComplete(false, "Not logged in"); return; }
-        firebaseManager.restoreFolder(user.getUid(), folderId, callback);
+        String uid = folderStore.currentUserId();
+        if (uid == null) { if (callback != null) callback.onComplete(false, "Not logged in"); return; }
+        folderStore.restoreFolder(uid, folderId, callback);
     }
 
     public void permanentDeleteFolder(String folderId, FirebaseManager.OperationCallback callback) {
-        FirebaseUser user = firebaseManager.getCurrentUser();
-        if (user == null) { if (callback != null) callback.onComplete(false, "Not logged in"); return; }
-        firebaseManager.permanentDeleteFolder(user.getUid(), folderId, callback);
+        String uid = folderStore.currentUserId();
+        if (uid == null) { if (callback != null) callback.onComplete(false, "Not logged in"); return; }
+        folderStore.permanentDeleteFolder(uid, folderId, callback);
     }
 
     public void restoreNote(String folderId, String noteId, FirebaseManager.OperationCallback callback) {
-        FirebaseUser user = firebaseManager.getCurrentUser();
-        if (user == null) { if (callback != null) callback.onComplete(false, "Not logged in"); return; }
-        firebaseManager.restoreNote(user.getUid(), folderId, noteId, callback);
+        String uid = noteStore.currentUserId();
+        if (uid == null) { if (callback != null) callback.onComplete(false, "Not logged in"); return; }
+        noteStore.restoreNote(uid, folderId, noteId, callback);
     }
 
     public void permanentDeleteNote(String folderId, String noteId, FirebaseManager.OperationCallback callback) {
-        FirebaseUser user = firebaseManager.getCurrentUser();
-        if (user == null) { if (callback != null) callback.onComplete(false, "Not logged in"); return; }
-        firebaseManager.permanentDeleteNote(user.getUid(), folderId, noteId, callback);
+        String uid = noteStore.currentUserId();
+        if (uid == null) { if (callback != null) callback.onComplete(false, "Not logged in"); return; }
+        noteStore.permanentDeleteNote(uid, folderId, noteId, callback);
+    }
+
+    @Override
+    protected void onCleared() {
+        super.onCleared();
+        for (Subscription subscription : subscriptions) subscription.remove();
     }
 }
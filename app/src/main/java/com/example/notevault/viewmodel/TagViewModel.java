@@ -0,0 +1,208 @@
+package com.example.notevault.viewmodel;
+
+import androidx.lifecycle.LiveData;
+import androidx.lifecycle.MutableLiveData;
+import androidx.lifecycle.ViewModel;
+
+import com.example.notevault.firebase.FirestoreStore;
+import com.example.notevault.model.Note;
+import com.example.notevault.presentation.NoteRow;
+import com.example.notevault.presentation.RowFactory;
+import com.example.notevault.store.ListenerPauser;
+import com.example.notevault.store.NoteStore;
+import com.example.notevault.store.PausableQuery;
+import com.example.notevault.store.StoreListener;
+import com.example.notevault.store.Subscription;
+import com.example.notevault.tags.TagIndex;
+import com.example.notevault.tags.Tags;
+import com.example.notevault.utils.BackgroundExecutor;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+/**
+ * The tag cloud and the notes carrying every selected tag, across folders. Both are answered
+ * from a {@link TagIndex} of the visible tagged notes, kept from the tagged-notes listener.
+ * Until that listener's first result arrives, a selection is served by an array-contains query
+ * on one of its tags instead.
+ */
+public class TagViewModel extends ViewModel {
+
+    /** Tags shown in the cloud. */
+    static final int CLOUD_SIZE = 100;
+
+    private final NoteStore store;
+    private final TagIndex index = new TagIndex();
+    private final MutableLiveData<List<TagIndex.TagCount>> cloud = new MutableLiveData<>(new ArrayList<>());
+    private final MutableLiveData<List<Note>> notes = new MutableLiveData<>(new ArrayList<>());
+    private final MutableLiveData<List<NoteRow>> noteRows = new MutableLiveData<>(new ArrayList<>());
+    private final MutableLiveData<Set<String>> selected = new MutableLiveData<>(Collections.emptySet());
+    private final MutableLiveData<Boolean> loading = new MutableLiveData<>(false);
+    /** Index updates and queries run here, in order; {@link #selection}, {@link #lastNotes} and {@link #remote} are only touched here. */
+    private final Executor executor = BackgroundExecutor.getInstance().serial();
+    private final Subscription subscription;
+    private Set<String> selection = Collections.emptySet();
+    private List<Note> lastNotes = new ArrayList<>();
+    private Subscription remote;
+    private volatile RowFactory rowFactory;
+
+    public TagViewModel() {
+        this(FirestoreStore.getInstance(), ListenerPauser.getInstance());
+    }
+
+    public TagViewModel(NoteStore store, ListenerPauser pauser) {
+        this.store = store;
+        String uid = store.currentUserId();
+        if (uid == null) {
+            subscription = () -> { };
+            return;
+        }
+        loading.setValue(true);
+        subscription = pauser.attach(new PausableQuery<>(
+                listener -> store.listenToTaggedNotes(uid, executor, listener), new StoreListener<Note>() {
+            /** Whether the result about to arrive was already indexed from its changes. */
+            private boolean indexed;
+
+            @Override
+            public void onItemsChanged(List<Note> changed, Set<String> removedIds) {
+                for (Note note : changed) {
+                    // Recycled and hidden notes count for nothing in the cloud
+                    if (isVisible(note)) index.put(note);
+                    else index.remove(note.getId());
+                }
+                for (String id : removedIds) index.remove(id);
+                indexed = true;
+            }
+
+            @Override
+            public void onChanged(List<Note> tagged) {
+                // Only the first result of each subscription is indexed whole
+                if (!indexed) index.update(visible(tagged));
+                indexed = false;
+                loading.postValue(false);
+                if (remote != null) {
+                    remote.remove();
+                    remote = null;
+                }
+                publish();
+            }
+
+            @Override
+            public void onError(String message) {
+                loading.postValue(false);
+            }
+        }));
+    }
+
+    public LiveData<List<TagIndex.TagCount>> getCloud() {
+        return cloud;
+    }
+
+    /** Visible notes carrying every selected tag, newest first; empty while nothing is selected. */
+    public LiveData<List<Note>> getNotes() {
+        return notes;
+    }
+
+    /** {@link #getNotes} as rows for the notes list, once a row factory is set. */
+    public LiveData<List<NoteRow>> getNoteRows() {
+        return noteRows;
+    }
+
+    /** Set how rows are built; rows are built off the main thread. */
+    public void setRowFactory(RowFactory factory) {
+        rowFactory = factory;
+        executor.execute(() -> publishNotes(lastNotes));
+    }
+
+    public LiveData<Set<String>> getSelectedTags() {
+        return selected;
+    }
+
+    public LiveData<Boolean> getLoading() {
+        return loading;
+    }
+
+    /** Add {@code tag} to the selection, or take it out if it is selected. */
+    public void toggleTag(String tag) {
+        String normalized = Tags.normalize(tag);
+        if (normalized == null) return;
+        executor.execute(() -> {
+            Set<String> next = new LinkedHashSet<>(selection);
+            if (!next.remove(normalized)) next.add(normalized);
+            select(next);
+        });
+    }
+
+    public void clearSelection() {
+        executor.execute(() -> select(Collections.emptySet()));
+    }
+
+    private void select(Set<String> tags) {
+        selection = Collections.unmodifiableSet(tags);
+        selected.postValue(selection);
+        if (remote != null) {
+            remote.remove();
+            remote = null;
+        }
+        String uid = store.currentUserId();
+        if (!index.isLoaded() && !tags.isEmpty() && uid != null) {
+            Set<String> wanted = selection;
+            remote = store.listenToNotesWithTags(uid, Collections.singletonList(tags.iterator().next()), executor,
+                    new StoreListener<Note>() {
+                        @Override
+                        public void onChanged(List<Note> found) {
+                            if (index.isLoaded() || wanted != selection) return;
+                            List<Note> matching = new ArrayList<>();
+                            for (Note note : found) {
+                                if (note.getTags().containsAll(wanted)) matching.add(note);
+                            }
+                            publishNotes(visible(matching));
+                        }
+
+                        @Override
+                        public void onError(String message) {
+                        }
+                    });
+            return;
+        }
+        publish();
+    }
+
+    /** Post the cloud and the current selection's notes from the index. Call on {@link #executor}. */
+    private void publish() {
+        cloud.postValue(index.cloud(CLOUD_SIZE));
+        publishNotes(selection.isEmpty() ? new ArrayList<>() : index.notesWithAll(selection));
+    }
+
+    private void publishNotes(List<Note> found) {
+        lastNotes = found;
+        notes.postValue(found);
+        RowFactory factory = rowFactory;
+        if (factory != null) noteRows.postValue(factory.noteRows(found, System.currentTimeMillis()));
+    }
+
+    private static List<Note> visible(List<Note> found) {
+        List<Note> visible = new ArrayList<>(found.size());
+        for (Note note : found) {
+            if (isVisible(note)) visible.add(note);
+        }
+        return visible;
+    }
+
+    private static boolean isVisible(Note note) {
+        return !note.isDeleted() && !note.isHidden();
+    }
+
+    @Override
+    protected void onCleared() {
+        super.onCleared();
+        subscription.remove();
+        executor.execute(() -> {
+            if (remote != null) remote.remove();
+        });
+    }
+}
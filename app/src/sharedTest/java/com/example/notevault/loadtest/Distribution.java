@@ -0,0 +1,27 @@
+package com.example.notevault.loadtest;
+
+import java.util.Random;
+
+/** A distribution of non-negative whole numbers, such as folder sizes or note lengths. */
+public interface Distribution {
+
+    int sample(Random random);
+
+    static Distribution constant(int value) {
+        return random -> value;
+    }
+
+    /** Uniform between {@code min} and {@code max}, both included. */
+    static Distribution uniform(int min, int max) {
+        return random -> min + random.nextInt(max - min + 1);
+    }
+
+    /**
+     * Log-normal with the given median, capped at {@code max}. Most samples sit near the median
+     * with a long tail of large ones; {@code sigma} of 1 to 2 matches how people fill folders.
+     */
+    static Distribution logNormal(double median, double sigma, int max) {
+        double mu = Math.log(median);
+        return random -> (int) Math.min(max, Math.round(Math.exp(mu + sigma * random.nextGaussian())));
+    }
+}
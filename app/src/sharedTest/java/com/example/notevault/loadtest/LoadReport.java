@@ -0,0 +1,107 @@
+package com.example.notevault.loadtest;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Latencies of every operation a scenario ran, kept as raw samples so percentiles are exact.
+ * Safe to record into from several journeys at once.
+ */
+public class LoadReport {
+
+    private final Map<String, Samples> operations = new TreeMap<>();
+    private long wallNanos;
+
+    void record(String operation, long nanos, boolean success) {
+        Samples samples;
+        synchronized (operations) {
+            samples = operations.get(operation);
+            if (samples == null) {
+                samples = new Samples();
+                operations.put(operation, samples);
+            }
+        }
+        samples.add(nanos, success);
+    }
+
+    void setWallNanos(long nanos) {
+        wallNanos = nanos;
+    }
+
+    public long count(String operation) {
+        Samples samples = samples(operation);
+        return samples != null ? samples.count() : 0;
+    }
+
+    public long failures(String operation) {
+        Samples samples = samples(operation);
+        return samples != null ? samples.failures() : 0;
+    }
+
+    /** Nearest-rank percentile in milliseconds, {@code fraction} between 0 and 1. */
+    public double percentileMillis(String operation, double fraction) {
+        Samples samples = samples(operation);
+        return samples != null ? samples.percentile(fraction) / 1e6 : 0;
+    }
+
+    /** Completed operations per second of the whole run. */
+    public double throughput(String operation) {
+        return wallNanos > 0 ? count(operation) * 1e9 / wallNanos : 0;
+    }
+
+    public String[] operations() {
+        synchronized (operations) {
+            return operations.keySet().toArray(new String[0]);
+        }
+    }
+
+    /** One line per operation: count, throughput, p50, p99, max and failures. */
+    public String format() {
+        StringBuilder out = new StringBuilder(String.format(Locale.US, "%-28s %7s %9s %9s %9s %9s %5s%n",
+                "operation", "count", "ops/s", "p50 ms", "p99 ms", "max ms", "fail"));
+        for (String operation : operations()) {
+            Samples samples = samples(operation);
+            out.append(String.format(Locale.US, "%-28s %7d %9.1f %9.2f %9.2f %9.2f %5d%n",
+                    operation, samples.count(), throughput(operation), samples.percentile(0.5) / 1e6,
+                    samples.percentile(0.99) / 1e6, samples.percentile(1) / 1e6, samples.failures()));
+        }
+        out.append(String.format(Locale.US, "wall time %.1f s%n", wallNanos / 1e9));
+        return out.toString();
+    }
+
+    private Samples samples(String operation) {
+        synchronized (operations) {
+            return operations.get(operation);
+        }
+    }
+
+    private static final class Samples {
+        private long[] nanos = new long[64];
+        private int count;
+        private int failures;
+
+        synchronized void add(long value, boolean success) {
+            if (count == nanos.length) nanos = Arrays.copyOf(nanos, count * 2);
+            nanos[count++] = value;
+            if (!success) failures++;
+        }
+
+        synchronized long count() {
+            return count;
+        }
+
+        synchronized long failures() {
+            return failures;
+        }
+
+        synchronized long percentile(double fraction) {
+            if (count == 0) return 0;
+            long[] sorted = Arrays.copyOf(nanos, count);
+            Arrays.sort(sorted);
+            int rank = (int) Math.ceil(fraction * count);
+            return sorted[Math.max(0, Math.min(count, rank) - 1)];
+        }
+    }
+}
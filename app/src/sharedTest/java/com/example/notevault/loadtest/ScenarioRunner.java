@@ -0,0 +1,217 @@
+package com.example.notevault.loadtest;
+
+import com.example.notevault.firebase.FirebaseManager;
+import com.example.notevault.model.Folder;
+import com.example.notevault.model.Note;
+import com.example.notevault.sort.SortMode;
+import com.example.notevault.store.FolderStore;
+import com.example.notevault.store.NoteStore;
+import com.example.notevault.store.StoreListener;
+import com.example.notevault.store.Subscription;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+
+/**
+ * Replays user journeys against a store seeded with a {@link Workload} and times every call,
+ * from the call to its callback or, for listeners, to the first result.
+ *
+ * A journey opens the app, opens a folder, edits two notes (one with a conditional save),
+ * recycles a batch of notes, opens the recycle bin (which runs cleanup, as the app does),
+ * restores the batch, and hides and unhides a note. Operations are named after the store
+ * methods, which are the {@link FirebaseManager} methods of the same name in the app.
+ */
+public class ScenarioRunner {
+
+    private static final Executor DIRECT = Runnable::run;
+
+    private final FolderStore folderStore;
+    private final NoteStore noteStore;
+    private final Workload workload;
+    private long timeoutMillis = 30_000;
+    private int bulkSize = 20;
+    private long seed = 1;
+
+    public ScenarioRunner(FolderStore folderStore, NoteStore noteStore, Workload workload) {
+        this.folderStore = folderStore;
+        this.noteStore = noteStore;
+        this.workload = workload;
+    }
+
+    /** How long to wait for a callback before counting the operation as failed. */
+    public ScenarioRunner timeout(long millis) {
+        timeoutMillis = millis;
+        return this;
+    }
+
+    /** How many notes each journey recycles at once. */
+    public ScenarioRunner bulkSize(int notes) {
+        bulkSize = notes;
+        return this;
+    }
+
+    public ScenarioRunner seed(long seed) {
+        this.seed = seed;
+        return this;
+    }
+
+    /** Run {@code journeys} journeys, {@code threads} at a time, and report on every operation. */
+    public LoadReport run(int journeys, int threads) throws InterruptedException {
+        LoadReport report = new LoadReport();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        long start = System.nanoTime();
+        for (int i = 0; i < journeys; i++) {
+            Random random = new Random(seed * 31 + i);
+            pool.execute(() -> journey(random, report));
+        }
+        pool.shutdown();
+        pool.awaitTermination(Math.max(1, journeys) * timeoutMillis * 8, TimeUnit.MILLISECONDS);
+        report.setWallNanos(System.nanoTime() - start);
+        return report;
+    }
+
+    private void journey(Random random, LoadReport report) {
+        String userId = workload.getUserId();
+        List<Folder> folders = firstResult("listenToFolders", report,
+                (executor, listener) -> folderStore.listenToFolders(userId, SortMode.NEWEST, executor, listener));
+        List<Folder> visibleFolders = new ArrayList<>();
+        for (Folder folder : folders) {
+            if (!folder.isDeleted() && !folder.isHidden()) visibleFolders.add(folder);
+        }
+        if (visibleFolders.isEmpty()) return;
+        String folderId = visibleFolders.get(random.nextInt(visibleFolders.size())).getId();
+
+        List<Note> notes = new ArrayList<>();
+        for (Note note : this.<Note>firstResult("listenToNotes", report,
+                (executor, listener) -> noteStore.listenToNotes(userId, folderId, SortMode.NEWEST, executor, listener))) {
+            if (!note.isDeleted() && !note.isHidden()) notes.add(note);
+        }
+        if (notes.isEmpty()) return;
+        Collections.shuffle(notes, random);
+
+        Note edited = notes.get(0);
+        edited.setContent(edited.getContent() + "\nedited");
+        edited.setUpdatedAt(new Date());
+        timed("addOrUpdateNote", report, callback -> noteStore.addOrUpdateNote(userId, folderId, edited, callback));
+
+        Note saved = notes.get(notes.size() - 1);
+        Date base = saved.getUpdatedAt();
+        saved.setContent(saved.getContent() + "\nsaved");
+        saved.setUpdatedAt(new Date());
+        timed("saveNoteIfUnchanged", report, callback -> noteStore.saveNoteIfUnchanged(userId, folderId, saved, base,
+                remote -> saved, new FirebaseManager.NoteSaveCallback() {
+                    @Override
+                    public void onSaved(String message, int attempts) {
+                        callback.onComplete(true, message);
+                    }
+
+                    @Override
+                    public void onConflict(Note remote) {
+                        callback.onComplete(true, "Conflict");
+                    }
+
+                    @Override
+                    public void onError(String message) {
+                        callback.onComplete(false, message);
+                    }
+                }));
+
+        List<Note> batch = notes.subList(0, Math.min(bulkSize, notes.size()));
+        long bulkStart = System.nanoTime();
+        boolean recycled = timedAll("moveNoteToRecycleBin", report, batch,
+                (note, callback) -> noteStore.moveNoteToRecycleBin(userId, folderId, note.getId(), callback));
+        report.record("bulkRecycle", System.nanoTime() - bulkStart, recycled);
+
+        this.<Note>firstResult("listenToDeletedNotes", report,
+                (executor, listener) -> noteStore.listenToDeletedNotes(userId, executor, listener));
+        timed("cleanupOldRecycleBinItems", report, callback -> noteStore.cleanupOldRecycleBinItems(userId, callback));
+        timedAll("restoreNote", report, batch,
+                (note, callback) -> noteStore.restoreNote(userId, folderId, note.getId(), callback));
+
+        String hiddenId = notes.get(random.nextInt(notes.size())).getId();
+        timed("hideNote", report, callback -> noteStore.hideNote(userId, folderId, hiddenId, callback));
+        timed("unhideNote", report, callback -> noteStore.unhideNote(userId, folderId, hiddenId, callback));
+    }
+
+    /** Attach a listener, wait for its first result and detach. An empty list if none came in time. */
+    private <T> List<T> firstResult(String operation, LoadReport report,
+                                    BiFunction<Executor, StoreListener<T>, Subscription> listen) {
+        CountDownLatch delivered = new CountDownLatch(1);
+        AtomicReference<List<T>> result = new AtomicReference<>(Collections.emptyList());
+        long start = System.nanoTime();
+        Subscription subscription = listen.apply(DIRECT, new StoreListener<T>() {
+            @Override
+            public void onChanged(List<T> items) {
+                if (delivered.getCount() == 0) return;
+                result.set(items);
+                report.record(operation, System.nanoTime() - start, true);
+                delivered.countDown();
+            }
+
+            @Override
+            public void onError(String message) {
+                if (delivered.getCount() == 0) return;
+                report.record(operation, System.nanoTime() - start, false);
+                delivered.countDown();
+            }
+        });
+        if (!await(delivered)) {
+            delivered.countDown();
+            report.record(operation, System.nanoTime() - start, false);
+        }
+        subscription.remove();
+        return result.get();
+    }
+
+    private void timed(String operation, LoadReport report, Consumer<FirebaseManager.OperationCallback> call) {
+        timedAll(operation, report, Collections.singletonList(operation), (ignored, callback) -> call.accept(callback));
+    }
+
+    /** Start the operation for every item at once and wait for all of them; true if all succeeded. */
+    private <T> boolean timedAll(String operation, LoadReport report, List<T> items,
+                                 BiConsumer<T, FirebaseManager.OperationCallback> call) {
+        CountDownLatch done = new CountDownLatch(items.size());
+        AtomicBoolean allOk = new AtomicBoolean(true);
+        List<AtomicBoolean> finishedFlags = new ArrayList<>();
+        long start = System.nanoTime();
+        for (T item : items) {
+            long itemStart = System.nanoTime();
+            AtomicBoolean finished = new AtomicBoolean();
+            finishedFlags.add(finished);
+            call.accept(item, (success, message) -> {
+                if (!finished.compareAndSet(false, true)) return;
+                report.record(operation, System.nanoTime() - itemStart, success);
+                if (!success) allOk.set(false);
+                done.countDown();
+            });
+        }
+        if (await(done)) return allOk.get();
+        // Whatever has not called back by now counts as failed, and its late callback is ignored
+        for (AtomicBoolean finished : finishedFlags) {
+            if (finished.compareAndSet(false, true)) report.record(operation, System.nanoTime() - start, false);
+        }
+        return false;
+    }
+
+    private boolean await(CountDownLatch latch) {
+        try {
+            return latch.await(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+}
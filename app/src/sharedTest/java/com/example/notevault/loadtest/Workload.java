@@ -0,0 +1,170 @@
+package com.example.notevault.loadtest;
+
+import com.example.notevault.model.Folder;
+import com.example.notevault.model.Note;
+import com.example.notevault.store.FolderStore;
+import com.example.notevault.store.InMemoryStore;
+import com.example.notevault.store.NoteStore;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** A generated account: folders and notes for one user, ready to seed a store with. */
+public class Workload {
+
+    private static final long DAY_MS = 24L * 60 * 60 * 1000;
+    private static final String[] WORDS = {
+            "meeting", "notes", "project", "idea", "list", "call", "review", "draft", "plan", "todo",
+            "the", "and", "with", "for", "about", "next", "week", "budget", "design", "follow", "up",
+            "groceries", "book", "travel", "remember", "question", "answer", "team", "update", "done"
+    };
+    private static final String[] COLORS = {"#FF6B6B", "#4ECDC4", "#45B7D1", "#96CEB4", "#FFEAA7", "#DDA0DD"};
+
+    private final String userId;
+    private final List<Folder> folders = new ArrayList<>();
+    private final List<Note> notes = new ArrayList<>();
+
+    private Workload(String userId) {
+        this.userId = userId;
+    }
+
+    /** Generate an account for {@code userId}; timestamps are relative to now. */
+    public static Workload generate(String userId, WorkloadSpec spec) {
+        Workload workload = new Workload(userId);
+        Random random = new Random(spec.seed);
+        long now = System.currentTimeMillis();
+        int noteCount = 0;
+        for (int f = 0; f < spec.folders + spec.hugeFolders; f++) {
+            Distribution size = f < spec.hugeFolders ? spec.hugeFolderSize : spec.folderSize;
+            Folder folder = new Folder(String.format(Locale.US, "folder-%05d", f), "Folder " + f,
+                    COLORS[random.nextInt(COLORS.length)], new Date(now - (long) (random.nextDouble() * 365 * DAY_MS)));
+            double roll = random.nextDouble();
+            if (roll < spec.deletedFolderRatio) {
+                folder.setDeleted(true);
+                folder.setDeletedAt(deletedAt(random, spec, now));
+            } else if (roll < spec.deletedFolderRatio + spec.hiddenFolderRatio) {
+                folder.setHidden(true);
+            }
+            workload.folders.add(folder);
+
+            int notesInFolder = size.sample(random);
+            for (int n = 0; n < notesInFolder; n++, noteCount++) {
+                Note note = new Note(String.format(Locale.US, "note-%07d", noteCount), "Note " + noteCount,
+                        text(random, spec.noteLength.sample(random)), folder.getColor(),
+                        new Date(folder.getCreatedAt().getTime() + (long) (random.nextDouble() * (now - folder.getCreatedAt().getTime()))));
+                note.setUserId(userId);
+                note.setFolderId(folder.getId());
+                note.setUpdatedAt(note.getTimestamp());
+                // Notes follow their folder into the recycle bin or the hidden section, as the app does
+                if (folder.isDeleted()) {
+                    note.setDeleted(true);
+                    note.setDeletedAt(folder.getDeletedAt());
+                } else if (folder.isHidden()) {
+                    note.setHidden(true);
+                } else {
+                    double noteRoll = random.nextDouble();
+                    if (noteRoll < spec.deletedNoteRatio) {
+                        note.setDeleted(true);
+                        note.setDeletedAt(deletedAt(random, spec, now));
+                    } else if (noteRoll < spec.deletedNoteRatio + spec.hiddenNoteRatio) {
+                        note.setHidden(true);
+                    }
+                }
+                workload.notes.add(note);
+            }
+        }
+        return workload;
+    }
+
+    public String getUserId() {
+        return userId;
+    }
+
+    public List<Folder> getFolders() {
+        return Collections.unmodifiableList(folders);
+    }
+
+    public List<Note> getNotes() {
+        return Collections.unmodifiableList(notes);
+    }
+
+    /** Folders that show on the main screen: neither deleted nor hidden. */
+    public List<Folder> visibleFolders() {
+        List<Folder> visible = new ArrayList<>();
+        for (Folder folder : folders) {
+            if (!folder.isDeleted() && !folder.isHidden()) visible.add(folder);
+        }
+        return visible;
+    }
+
+    /** Put the whole account into {@code store} at once. */
+    public void seed(InMemoryStore store) {
+        store.seed(userId, folders, notes);
+    }
+
+    /**
+     * Write the account through the store interfaces, e.g. into the Firestore emulator, with at
+     * most {@code maxInFlight} writes outstanding. Returns how many writes failed or timed out.
+     */
+    public int write(FolderStore folderStore, NoteStore noteStore, int maxInFlight) throws InterruptedException {
+        Semaphore inFlight = new Semaphore(maxInFlight);
+        AtomicInteger failures = new AtomicInteger();
+        for (Folder folder : folders) {
+            inFlight.acquire();
+            folderStore.addOrUpdateFolder(userId, folder, (ok, msg) -> {
+                if (!ok) failures.incrementAndGet();
+                inFlight.release();
+            });
+        }
+        for (Note note : notes) {
+            inFlight.acquire();
+            noteStore.addOrUpdateNote(userId, note.getFolderId(), note, (ok, msg) -> {
+                if (!ok) failures.incrementAndGet();
+                inFlight.release();
+            });
+        }
+        if (!inFlight.tryAcquire(maxInFlight, 5, TimeUnit.MINUTES)) {
+            failures.addAndGet(maxInFlight - inFlight.availablePermits());
+        }
+        return failures.get();
+    }
+
+    /** One line on what was generated, for load test output. */
+    public String describe() {
+        int deletedNotes = 0;
+        int hiddenNotes = 0;
+        int largest = 0;
+        Map<String, Integer> perFolder = new HashMap<>();
+        for (Note note : notes) {
+            if (note.isDeleted()) deletedNotes++;
+            if (note.isHidden()) hiddenNotes++;
+            int count = perFolder.merge(note.getFolderId(), 1, Integer::sum);
+            largest = Math.max(largest, count);
+        }
+        return String.format(Locale.US, "%d folders (%d visible), %d notes (%d deleted, %d hidden), largest folder %d notes",
+                folders.size(), visibleFolders().size(), notes.size(), deletedNotes, hiddenNotes, largest);
+    }
+
+    private static Date deletedAt(Random random, WorkloadSpec spec, long now) {
+        return new Date(now - (long) (random.nextDouble() * spec.maxDeletedAgeDays * DAY_MS));
+    }
+
+    private static String text(Random random, int length) {
+        StringBuilder text = new StringBuilder(length + 16);
+        while (text.length() < length) {
+            if (text.length() > 0) text.append(random.nextInt(12) == 0 ? '\n' : ' ');
+            text.append(WORDS[random.nextInt(WORDS.length)]);
+        }
+        text.setLength(length);
+        return text.toString();
+    }
+}
@@ -0,0 +1,66 @@
+package com.example.notevault.loadtest;
+
+/**
+ * What a generated account looks like. The defaults model a heavy account: a thousand folders,
+ * two of them with tens of thousands of notes, and a recycle bin with items due for cleanup.
+ */
+public class WorkloadSpec {
+
+    int folders = 1_000;
+    Distribution folderSize = Distribution.logNormal(20, 1.5, 5_000);
+    int hugeFolders = 2;
+    Distribution hugeFolderSize = Distribution.uniform(10_000, 30_000);
+    Distribution noteLength = Distribution.logNormal(400, 1.2, 20_000);
+    double deletedFolderRatio = 0.02;
+    double hiddenFolderRatio = 0.02;
+    double deletedNoteRatio = 0.05;
+    double hiddenNoteRatio = 0.03;
+    int maxDeletedAgeDays = 45;
+    long seed = 1;
+
+    public WorkloadSpec folders(int count, Distribution size) {
+        folders = count;
+        folderSize = size;
+        return this;
+    }
+
+    /** Folders added on top of {@link #folders(int, Distribution)}, sized from their own distribution. */
+    public WorkloadSpec hugeFolders(int count, Distribution size) {
+        hugeFolders = count;
+        hugeFolderSize = size;
+        return this;
+    }
+
+    /** Note content length in characters. */
+    public WorkloadSpec noteLength(Distribution length) {
+        noteLength = length;
+        return this;
+    }
+
+    public WorkloadSpec deletedAndHiddenFolders(double deletedRatio, double hiddenRatio) {
+        deletedFolderRatio = deletedRatio;
+        hiddenFolderRatio = hiddenRatio;
+        return this;
+    }
+
+    public WorkloadSpec deletedAndHiddenNotes(double deletedRatio, double hiddenRatio) {
+        deletedNoteRatio = deletedRatio;
+        hiddenNoteRatio = hiddenRatio;
+        return this;
+    }
+
+    /**
+     * Deleted items get a deletion date up to this many days back, so anything older than
+     * {@link com.example.notevault.store.NoteStore#RECYCLE_BIN_DAYS} is due for cleanup.
+     */
+    public WorkloadSpec maxDeletedAgeDays(int days) {
+        maxDeletedAgeDays = days;
+        return this;
+    }
+
+    /** The same spec and seed always generate the same account. */
+    public WorkloadSpec seed(long seed) {
+        this.seed = seed;
+        return this;
+    }
+}
@@ -0,0 +1,9 @@
+package com.example.notevault;
+
+/**
+ * JUnit category for timing runs at full scale. They are left out of the unit tests and run
+ * on their own with {@code ./gradlew testDebugUnitTest -Pbenchmarks}, which prints what they
+ * measure. The behaviour they check also runs, at a smaller scale, with the unit tests.
+ */
+public interface Benchmark {
+}
@@ -0,0 +1,54 @@
+package com.example.notevault.backup;
+
+import com.example.notevault.model.Folder;
+import com.example.notevault.model.Note;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/** A vault generated on the fly, so the test itself holds no more than a page of it. */
+class SyntheticSource implements ExportSource {
+    final int folderCount;
+    final int notesPerFolder;
+
+    SyntheticSource(int folderCount, int notesPerFolder) {
+        this.folderCount = folderCount;
+        this.notesPerFolder = notesPerFolder;
+    }
+
+    @Override
+    public Page<Folder> folders(String userId, String afterId, int pageSize) throws Exception {
+        List<Folder> folders = new ArrayList<>();
+        int from = afterId == null ? 0 : index(afterId) + 1;
+        for (int i = from; i < folderCount && folders.size() < pageSize; i++) {
+            folders.add(new Folder(id("f", i), "Folder " + i, "#FFFFFF", new Date(i)));
+        }
+        return page(folders, pageSize, folders.isEmpty() ? null : folders.get(folders.size() - 1).getId());
+    }
+
+    @Override
+    public Page<Note> notes(String userId, String folderId, String afterId, int pageSize) throws Exception {
+        List<Note> notes = new ArrayList<>();
+        int from = afterId == null ? 0 : index(afterId) + 1;
+        for (int i = from; i < notesPerFolder && notes.size() < pageSize; i++) {
+            Note note = new Note(id("n", i), "Note " + i, "Line one of " + folderId + "/" + i
+                    + "\n---\nSome more text so the note is a realistic size. " + i, "#FFFFFF", new Date(i));
+            note.setFolderId(folderId);
+            notes.add(note);
+        }
+        return page(notes, pageSize, notes.isEmpty() ? null : notes.get(notes.size() - 1).getId());
+    }
+
+    private static <T> Page<T> page(List<T> items, int pageSize, String last) {
+        return new Page<>(items, items.size() < pageSize ? null : last);
+    }
+
+    private static String id(String prefix, int i) {
+        return prefix + String.format("%06d", i);
+    }
+
+    private static int index(String id) {
+        return Integer.parseInt(id.substring(1));
+    }
+}
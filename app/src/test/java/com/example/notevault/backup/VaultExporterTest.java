@@ -0,0 +1,207 @@
+package com.example.notevault.backup;
+
+import com.example.notevault.model.Folder;
+import com.example.notevault.model.Note;
+import com.google.firebase.firestore.Blob;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class VaultExporterTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    /** Fails once after serving a number of note pages, like a dropped connection. */
+    private static final class FailingSource extends SyntheticSource {
+        int pagesLeft;
+
+        FailingSource(int folderCount, int notesPerFolder, int pagesBeforeFailure) {
+            super(folderCount, notesPerFolder);
+            this.pagesLeft = pagesBeforeFailure;
+        }
+
+        @Override
+        public Page<Note> notes(String userId, String folderId, String afterId, int pageSize) throws Exception {
+            if (pagesLeft-- == 0) throw new IllegalStateException("unavailable");
+            return super.notes(userId, folderId, afterId, pageSize);
+        }
+    }
+
+    @Test
+    public void exportsAHundredThousandNotesInBoundedMemory() throws Exception {
+        File target = new File(tmp.getRoot(), "vault.zip");
+        Runtime runtime = Runtime.getRuntime();
+        long baseline = usedHeap(runtime);
+        long[] peak = {0};
+        int[] calls = {0};
+        VaultExporter.Result result = new VaultExporter(new SyntheticSource(10, 10_000))
+                .export("u1", target, (folders, notes, bytes) -> {
+                    if (calls[0]++ % 50 == 0) peak[0] = Math.max(peak[0], usedHeap(runtime) - baseline);
+                });
+
+        assertEquals(10, result.folders);
+        assertEquals(100_000, result.notes);
+        assertFalse(result.resumed);
+        assertEquals(target.length(), result.bytes);
+        assertTrue("heap grew by " + peak[0] / 1024 + " KB", peak[0] < 16 * 1024 * 1024);
+        assertFalse(new File(target.getPath() + ".part").exists());
+
+        Archive archive = read(target);
+        assertEquals(100_000, archive.noteIds.size());
+        assertEquals(10, archive.folders);
+        assertTrue(archive.complete);
+    }
+
+    @Test
+    public void resumesAfterAFailureWithoutRepeatingNotes() throws Exception {
+        File target = new File(tmp.getRoot(), "vault.zip");
+        try {
+            new VaultExporter(new FailingSource(3, 1_000, 7), 100, 250).export("u1", target, null);
+            fail("the first export should fail");
+        } catch (IOException expected) {
+            assertEquals("unavailable", expected.getCause().getMessage());
+        }
+        assertFalse(target.exists());
+        Archive partial = read(new File(target.getPath() + ".part"));
+        assertEquals(700, partial.noteIds.size());
+        assertFalse(partial.complete);
+
+        VaultExporter.Result result = new VaultExporter(new SyntheticSource(3, 1_000), 100, 250).export("u1", target, null);
+        assertTrue(result.resumed);
+        assertEquals(3_000, result.notes);
+        assertEquals(3, result.folders);
+        Archive archive = read(target);
+        assertEquals(3_000, archive.noteIds.size());
+        assertEquals(3_000, archive.notes);
+        assertTrue(archive.complete);
+    }
+
+    @Test
+    public void resumesFromAPartFileCutShort() throws Exception {
+        File target = new File(tmp.getRoot(), "vault.zip");
+        File part = new File(target.getPath() + ".part");
+        new VaultExporter(new SyntheticSource(4, 2_000), 100, 300).export("u1", target, null);
+        assertTrue(target.renameTo(part));
+        // A process killed mid-write leaves a zip without its central directory, cut anywhere
+        try (RandomAccessFile file = new RandomAccessFile(part, "rw")) {
+            file.setLength(file.length() / 2 + 123);
+        }
+        Archive cut = read(part);
+        assertTrue(cut.noteIds.size() > 0);
+
+        VaultExporter.Result result = new VaultExporter(new SyntheticSource(4, 2_000), 100, 300).export("u1", target, null);
+        assertTrue(result.resumed);
+        Archive archive = read(target);
+        assertEquals(8_000, archive.notes);
+        assertEquals(8_000, archive.noteIds.size());
+        assertEquals(4, archive.folders);
+        assertTrue(archive.complete);
+    }
+
+    @Test
+    public void notesRoundTripWhateverTheirContent() throws Exception {
+        Note note = new Note("n1", "Title\nwith a break", "---\n{\"not\": \"a header\"}\n---\n\u00e9\u4e2d\ud83d\ude00 \\ \"quoted\"\n",
+                "#FF0000", new Date(1_700_000_000_000L));
+        note.setFolderId("f1");
+        note.setLocked(true);
+        note.setPasswordHash("hash");
+        note.setKeySalt(Blob.fromBytes(new byte[]{0, 1, -1, 127, -128}));
+        note.setRevisionCount(4);
+        Note empty = new Note("n2", null, null, null, null);
+        StringWriter out = new StringWriter();
+        VaultFormat.writeNote(out, note);
+        VaultFormat.writeNote(out, empty);
+
+        BufferedReader in = new BufferedReader(new StringReader(out.toString()));
+        Note back = VaultFormat.readNote(in);
+        assertEquals(note.getContent(), back.getContent());
+        assertEquals(note.getTitle(), back.getTitle());
+        assertEquals("f1", back.getFolderId());
+        assertEquals(note.getTimestamp(), back.getTimestamp());
+        assertTrue(back.isLocked());
+        assertEquals("hash", back.getPasswordHash());
+        assertArrayEquals(note.getKeySalt().toBytes(), back.getKeySalt().toBytes());
+        assertNull(back.getKeyCheck());
+        assertEquals(4, back.getRevisionCount());
+        Note second = VaultFormat.readNote(in);
+        assertEquals("n2", second.getId());
+        assertEquals("", second.getContent());
+        assertNull(VaultFormat.readNote(in));
+
+        Map<String, Object> json = VaultJson.read(" { \"a\" : 1 , \"b\" : \"x\\ty\" , \"c\" : null , \"d\" : 2.5 } ");
+        assertEquals(1L, json.get("a"));
+        assertEquals("x\ty", json.get("b"));
+        assertNull(json.get("c"));
+        assertEquals(2.5, json.get("d"));
+    }
+
+    private static final class Archive {
+        final Set<String> noteIds = new HashSet<>();
+        int notes;
+        int folders;
+        boolean complete;
+    }
+
+    /** Read back whatever is intact, as the exporter's salvage would. */
+    private static Archive read(File file) throws IOException {
+        Archive archive = new Archive();
+        try (ZipInputStream in = new ZipInputStream(new FileInputStream(file))) {
+            ZipEntry entry;
+            while ((entry = in.getNextEntry()) != null) {
+                BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+                if (entry.getName().equals(VaultFormat.MANIFEST)) {
+                    Map<String, Object> manifest = VaultJson.read(reader.readLine());
+                    archive.notes = ((Number) manifest.get("notes")).intValue();
+                    archive.complete = true;
+                    continue;
+                }
+                VaultFormat.EntryName name = VaultFormat.parse(entry.getName());
+                if (name.isFolder()) {
+                    archive.folders++;
+                    continue;
+                }
+                Note note;
+                while ((note = VaultFormat.readNote(reader)) != null) {
+                    assertEquals(name.folderId, note.getFolderId());
+                    assertTrue("duplicate " + note.getFolderId() + "/" + note.getId(),
+                            archive.noteIds.add(note.getFolderId() + "/" + note.getId()));
+                }
+            }
+        } catch (IOException cutShort) {
+            if (!file.getName().endsWith(".part")) throw cutShort;
+        }
+        return archive;
+    }
+
+    private static long usedHeap(Runtime runtime) {
+        System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
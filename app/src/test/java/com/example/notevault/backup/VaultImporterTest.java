@@ -0,0 +1,287 @@
+package com.example.notevault.backup;
+
+import com.example.notevault.Benchmark;
+import com.example.notevault.model.Folder;
+import com.example.notevault.model.Note;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class VaultImporterTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    /** A vault in memory, both the importer's view of what exists and where it writes. */
+    private static final class FakeVault implements ExportSource, ImportSink {
+        final TreeMap<String, Folder> folders = new TreeMap<>();
+        final Map<String, TreeMap<String, Note>> notes = new LinkedHashMap<>();
+        final ExecutorService committer = Executors.newFixedThreadPool(8);
+        final AtomicInteger inFlight = new AtomicInteger();
+        final AtomicInteger maxInFlight = new AtomicInteger();
+        long commitDelayMs;
+        int failAfterBatches = -1;
+        int nextId;
+        /** Only counts notes, keeping none, for archives too large to hold. */
+        boolean countOnly;
+        final AtomicInteger counted = new AtomicInteger();
+        /** Heap growth sampled on the importer's thread as it hands over batches, when a baseline is set. */
+        long heapBaseline = -1;
+        long peakHeap;
+        int batches;
+
+        @Override
+        public Page<Folder> folders(String userId, String afterId, int pageSize) {
+            List<Folder> page = new ArrayList<>((afterId == null ? folders : folders.tailMap(afterId, false)).values());
+            page = page.subList(0, Math.min(pageSize, page.size()));
+            return new Page<>(page, page.size() < pageSize ? null : page.get(page.size() - 1).getId());
+        }
+
+        @Override
+        public Page<Note> notes(String userId, String folderId, String afterId, int pageSize) {
+            TreeMap<String, Note> inFolder = notes.computeIfAbsent(folderId, id -> new TreeMap<>());
+            List<Note> page = new ArrayList<>((afterId == null ? inFolder : inFolder.tailMap(afterId, false)).values());
+            page = page.subList(0, Math.min(pageSize, page.size()));
+            return new Page<>(page, page.size() < pageSize ? null : page.get(page.size() - 1).getId());
+        }
+
+        @Override
+        public synchronized String createFolder(String userId, Folder folder) {
+            folder.setId(String.format("f%05d", nextId++));
+            folders.put(folder.getId(), folder);
+            return folder.getId();
+        }
+
+        @Override
+        public CompletableFuture<Void> addNotes(String userId, List<Note> batch) {
+            if (heapBaseline >= 0 && batches++ % 25 == 0) peakHeap = Math.max(peakHeap, usedHeap() - heapBaseline);
+            int now = inFlight.incrementAndGet();
+            maxInFlight.accumulateAndGet(now, Math::max);
+            boolean fail;
+            synchronized (this) {
+                fail = failAfterBatches-- == 0;
+            }
+            return CompletableFuture.runAsync(() -> {
+                try {
+                    Thread.sleep(commitDelayMs);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                inFlight.decrementAndGet();
+                if (fail) throw new IllegalStateException("unavailable");
+                counted.addAndGet(batch.size());
+                if (countOnly) return;
+                synchronized (this) {
+                    for (Note note : batch) {
+                        note.setId(String.format("n%07d", nextId++));
+                        notes.computeIfAbsent(note.getFolderId(), id -> new TreeMap<>()).put(note.getId(), note);
+                    }
+                }
+            }, committer);
+        }
+
+        Folder folderNamed(String name) {
+            for (Folder folder : folders.values()) if (name.equals(folder.getName())) return folder;
+            throw new AssertionError("no folder " + name);
+        }
+
+        int noteCount() {
+            int count = 0;
+            for (TreeMap<String, Note> inFolder : notes.values()) count += inFolder.size();
+            return count;
+        }
+    }
+
+    @Test
+    public void mapsDirectoriesToFoldersAndSkipsDuplicates() throws Exception {
+        FakeVault vault = new FakeVault();
+        String work = vault.createFolder("u1", new Folder(null, "Work", "#FF6B6B", new Date()));
+        Note existing = new Note("n-old", "Plan", "Ship it", null, new Date());
+        existing.setFolderId(work);
+        vault.notes("u1", work, null, 1);
+        vault.notes.get(work).put(existing.getId(), existing);
+
+        byte[] archive = zip(
+                "Work/plan.md", "# Plan\n\nShip it",
+                "Work/ideas.md", "# Ideas\n\n- one\n- two\n",
+                "Travel/Lisbon/packing.md", "Passport\nCharger\n",
+                "todo.txt", "milk",
+                "Work/copy of plan.md", "# Plan\n\nShip it",
+                "Work/keep.json", "{\"title\": \"From JSON\", \"textContent\": \"body\", \"color\": \"#45B7D1\"}",
+                "Work/photo.jpg", "not a note",
+                "Work/broken.json", "[1, 2]",
+                "__MACOSX/Work/._plan.md", "resource fork");
+        VaultImporter.Result result = new VaultImporter(vault, vault, 2, 2)
+                .importArchive("u1", new ByteArrayInputStream(archive), null);
+
+        assertEquals(4, result.notes);
+        assertEquals(2, result.duplicates);
+        assertEquals(2, result.skipped);
+        assertEquals(2, result.foldersCreated);
+        assertEquals(3, vault.notes.get(work).size());
+        Note ideas = find(vault, work, "Ideas");
+        assertEquals("- one\n- two\n", ideas.getContent());
+        assertEquals("u1", ideas.getUserId());
+        assertEquals("#45B7D1", find(vault, work, "From JSON").getColor());
+        assertEquals("Passport\nCharger\n", find(vault, vault.folderNamed("Travel/Lisbon").getId(), "packing").getContent());
+        assertEquals("milk", find(vault, vault.folderNamed(VaultImporter.DEFAULT_FOLDER).getId(), "todo").getContent());
+
+        VaultImporter.Result again = new VaultImporter(vault, vault, 2, 2)
+                .importArchive("u1", new ByteArrayInputStream(archive), null);
+        assertEquals(0, again.notes);
+        assertEquals(6, again.duplicates);
+        assertEquals(0, again.foldersCreated);
+    }
+
+    @Test
+    public void importsAVaultExportWithItsFolders() throws Exception {
+        FakeVault source = new FakeVault();
+        String plain = source.createFolder("u1", new Folder(null, "Notes", "#4ECDC4", new Date(5)));
+        Folder locked = new Folder(null, "Diary", "#FFFFFF", new Date(6));
+        locked.setLocked(true);
+        locked.setPasswordHash("hash");
+        String diary = source.createFolder("u1", locked);
+        for (int i = 0; i < 25; i++) {
+            Note note = new Note(String.format("n%03d", i), "Note " + i, "Content " + i, "#FFFFFF", new Date(i));
+            note.setFolderId(i % 5 == 0 ? diary : plain);
+            note.setHidden(i == 3);
+            source.notes("u1", note.getFolderId(), null, 1);
+            source.notes.get(note.getFolderId()).put(note.getId(), note);
+        }
+        File archive = new File(tmp.getRoot(), "vault.zip");
+        new VaultExporter(source, 10, 7).export("u1", archive, null);
+
+        FakeVault target = new FakeVault();
+        String existingNotes = target.createFolder("u1", new Folder(null, "Notes", "#000000", new Date()));
+        VaultImporter.Result result;
+        try (FileInputStream in = new FileInputStream(archive)) {
+            result = new VaultImporter(target, target, 4, 2).importArchive("u1", in, null);
+        }
+        assertEquals(25, result.notes);
+        assertEquals(1, result.foldersCreated);
+        assertEquals("plain folders merge by name", 20, target.notes.get(existingNotes).size());
+        Folder diaryCopy = target.folderNamed("Diary");
+        assertTrue(diaryCopy.isLocked());
+        assertEquals("hash", diaryCopy.getPasswordHash());
+        assertEquals(5, target.notes.get(diaryCopy.getId()).size());
+        assertTrue(find(target, existingNotes, "Note 3").isHidden());
+        assertEquals(new Date(7), find(target, existingNotes, "Note 7").getTimestamp());
+    }
+
+    @Test
+    public void stopsAtTheFirstFailedBatch() throws Exception {
+        FakeVault vault = new FakeVault();
+        vault.failAfterBatches = 3;
+        List<String> files = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            files.add("Inbox/" + i + ".md");
+            files.add("note " + i);
+        }
+        try {
+            new VaultImporter(vault, vault, 5, 2).importArchive("u1", new ByteArrayInputStream(zip(files.toArray(new String[0]))), null);
+            fail("the import should fail");
+        } catch (IOException expected) {
+            assertTrue(expected.getMessage(), expected.getMessage().contains("unavailable"));
+        }
+        assertTrue(vault.noteCount() < 100);
+        assertEquals(0, vault.inFlight.get());
+    }
+
+    @Test
+    public void importsALargeArchiveWithBoundedCommits() throws Exception {
+        importNotes(5_000);
+    }
+
+    /** Throughput and memory for a 50k-note archive. */
+    @Test
+    @Category(Benchmark.class)
+    public void importsFiftyThousandNotesWithBoundedCommits() throws Exception {
+        long[] result = importNotes(50_000);
+        double seconds = result[0] / 1e9;
+        System.out.printf("VaultImporter: %d notes in %.1f s, %.0f notes/s, peak heap +%.1f MB%n",
+                50_000, seconds, 50_000 / seconds, result[1] / 1048576.0);
+    }
+
+    /**
+     * Import {@code count} notes in 50 folders, with each commit taking as long as a batch round
+     * trip to a nearby server. Returns the nanoseconds it took and how much the heap grew.
+     */
+    private long[] importNotes(int count) throws Exception {
+        File archive = new File(tmp.getRoot(), "large.zip");
+        try (ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(archive))) {
+            for (int i = 0; i < count; i++) {
+                zip.putNextEntry(new ZipEntry("Folder " + i % 50 + "/note " + i + ".md"));
+                zip.write(("# Note " + i + "\n\nSome text for note " + i + ", long enough to be a realistic note.\n")
+                        .getBytes(StandardCharsets.UTF_8));
+                zip.closeEntry();
+            }
+        }
+        FakeVault vault = new FakeVault();
+        vault.countOnly = true;
+        vault.commitDelayMs = 5;
+        vault.heapBaseline = usedHeap();
+        long start = System.nanoTime();
+        VaultImporter.Result result;
+        try (FileInputStream in = new FileInputStream(archive)) {
+            result = new VaultImporter(vault, vault).importArchive("u1", in, null);
+        }
+        long elapsed = System.nanoTime() - start;
+
+        assertEquals(count, result.notes);
+        assertEquals(count, vault.counted.get());
+        assertEquals(50, result.foldersCreated);
+        assertTrue(vault.maxInFlight.get() <= VaultImporter.MAX_IN_FLIGHT);
+        assertTrue("heap grew by " + vault.peakHeap / 1024 + " KB", vault.peakHeap < 8 * 1024 * 1024);
+        vault.committer.shutdown();
+        return new long[]{elapsed, vault.peakHeap};
+    }
+
+    private static Note find(FakeVault vault, String folderId, String title) {
+        for (Note note : vault.notes.get(folderId).values()) if (title.equals(note.getTitle())) return note;
+        throw new AssertionError("no note " + title);
+    }
+
+    private static byte[] zip(String... namesAndContents) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ZipOutputStream zip = new ZipOutputStream(out)) {
+            for (int i = 0; i < namesAndContents.length; i += 2) {
+                zip.putNextEntry(new ZipEntry(namesAndContents[i]));
+                zip.write(namesAndContents[i + 1].getBytes(StandardCharsets.UTF_8));
+                zip.closeEntry();
+            }
+        }
+        return out.toByteArray();
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,286 @@
+package com.example.notevault.backup;
+
+import com.example.notevault.Benchmark;
+import com.example.notevault.model.Folder;
+import com.example.notevault.model.Note;
+import com.example.notevault.utils.NoteCipher;
+import com.google.firebase.firestore.Blob;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import javax.crypto.SecretKey;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class VaultSnapshotTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    /** A small vault held in lists, with the fields the synthetic one leaves empty. */
+    private static final class ListSource implements ExportSource {
+        final List<Folder> folders = new ArrayList<>();
+        final List<Note> notes = new ArrayList<>();
+
+        @Override
+        public Page<Folder> folders(String userId, String afterId, int pageSize) {
+            return new Page<>(afterId == null ? folders : new ArrayList<>(), null);
+        }
+
+        @Override
+        public Page<Note> notes(String userId, String folderId, String afterId, int pageSize) {
+            List<Note> page = new ArrayList<>();
+            if (afterId == null) {
+                for (Note note : notes) if (note.getFolderId().equals(folderId)) page.add(note);
+            }
+            return new Page<>(page, null);
+        }
+    }
+
+    @Test
+    public void roundTripKeepsEveryField() throws Exception {
+        ListSource source = sampleVault();
+        File file = new File(tmp.getRoot(), "snapshots/u1.nvs");
+        VaultSnapshot.Info info = VaultSnapshot.write(source, "u1", file, null, null);
+        assertEquals(2, info.folders);
+        assertEquals(3, info.notes);
+        assertEquals(file.length(), info.bytes);
+        assertFalse(new File(file.getPath() + ".tmp").exists());
+
+        try (VaultSnapshot.Reader reader = VaultSnapshot.open(file)) {
+            assertEquals("u1", reader.userId());
+            assertFalse(reader.isEncrypted());
+            assertFalse(reader.unlock(NoteCipher.deriveKey("secret", NoteCipher.newSalt())));
+            assertEquals(2, reader.folderCount());
+            assertEquals(3, reader.noteCount());
+            assertTrue(System.currentTimeMillis() - reader.savedAt().getTime() < 60_000);
+            assertVault(source, reader);
+        }
+    }
+
+    @Test
+    public void encryptedSnapshotNeedsTheKey() throws Exception {
+        ListSource source = sampleVault();
+        byte[] salt = NoteCipher.newSalt();
+        SecretKey key = NoteCipher.deriveKey("correct horse", salt);
+        File file = new File(tmp.getRoot(), "backup.nvs");
+        VaultSnapshot.write(source, "u1", file, key, salt);
+
+        String raw = new String(Files.readAllBytes(file.toPath()), StandardCharsets.ISO_8859_1);
+        assertFalse("note text is not stored in the clear", raw.contains("Groceries"));
+        try (VaultSnapshot.Reader reader = VaultSnapshot.open(file)) {
+            assertTrue(reader.isEncrypted());
+            assertArrayEquals(salt, reader.keySalt());
+            assertEquals(3, reader.noteCount());
+            try {
+                reader.folders();
+                fail("read before unlocking");
+            } catch (IOException expected) {
+            }
+            assertFalse(reader.unlock(NoteCipher.deriveKey("wrong", salt)));
+            assertTrue(reader.unlock(NoteCipher.deriveKey("correct horse", reader.keySalt())));
+            assertVault(source, reader);
+        }
+    }
+
+    @Test
+    public void truncatedOrForeignFilesAreRejected() throws Exception {
+        File file = new File(tmp.getRoot(), "u1.nvs");
+        VaultSnapshot.write(sampleVault(), "u1", file, null, null);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(raf.length() - 7);
+        }
+        assertOpenFails(file);
+
+        File foreign = tmp.newFile("notes.zip");
+        Files.write(foreign.toPath(), "PK\u0003\u0004 not a snapshot at all, just some bytes".getBytes(StandardCharsets.UTF_8));
+        assertOpenFails(foreign);
+        assertOpenFails(tmp.newFile("empty.nvs"));
+    }
+
+    @Test
+    public void failedWriteKeepsThePreviousSnapshot() throws Exception {
+        File file = new File(tmp.getRoot(), "u1.nvs");
+        VaultSnapshot.write(sampleVault(), "u1", file, null, null);
+        long before = file.length();
+        ExportSource failing = new SyntheticSource(3, 10) {
+            @Override
+            public Page<Note> notes(String userId, String folderId, String afterId, int pageSize) {
+                throw new IllegalStateException("unavailable");
+            }
+        };
+        try {
+            VaultSnapshot.write(failing, "u1", file, null, null);
+            fail("the source failed");
+        } catch (IllegalStateException expected) {
+        }
+        assertEquals(before, file.length());
+        assertFalse(new File(file.getPath() + ".tmp").exists());
+        try (VaultSnapshot.Reader reader = VaultSnapshot.open(file)) {
+            assertEquals(3, reader.noteCount());
+        }
+    }
+
+    @Test
+    public void largeSnapshotRestoresEveryFolderAndNote() throws Exception {
+        writeAndRestore(5, 400);
+    }
+
+    @Test
+    @Category(Benchmark.class)
+    public void restoreLatencyBenchmark() throws Exception {
+        long[] result = writeAndRestore(25, 2_000);
+        System.out.printf("VaultSnapshot: %d notes, %.1f MB, write %d ms, open %.2f ms, folders + first folder %d ms, all notes %d ms%n",
+                25 * 2_000, result[0] / 1e6, result[1] / 1_000_000, result[2] / 1e6,
+                result[3] / 1_000_000, result[4] / 1_000_000);
+    }
+
+    /**
+     * Write a snapshot of {@code folderCount} folders of {@code notesPerFolder} notes and read
+     * it back. Returns its size and the nanoseconds to write it, open it, read the folders and
+     * the first folder's notes, and read every note, the last three counted from the write.
+     */
+    private long[] writeAndRestore(int folderCount, int notesPerFolder) throws Exception {
+        SyntheticSource source = new SyntheticSource(folderCount, notesPerFolder);
+        File file = new File(tmp.getRoot(), "bench.nvs");
+        long start = System.nanoTime();
+        VaultSnapshot.Info info = VaultSnapshot.write(source, "u1", file, null, null);
+        long written = System.nanoTime();
+        int folders;
+        int firstFolder;
+        int notes;
+        long opened;
+        long firstShown;
+        long decoded;
+        try (VaultSnapshot.Reader reader = VaultSnapshot.open(file)) {
+            opened = System.nanoTime();
+            List<Folder> list = reader.folders();
+            folders = list.size();
+            firstFolder = reader.notes(list.get(0).getId()).size();
+            firstShown = System.nanoTime();
+            notes = reader.notes().size();
+            decoded = System.nanoTime();
+        }
+        assertEquals(folderCount, folders);
+        assertEquals(notesPerFolder, firstFolder);
+        assertEquals(folderCount * notesPerFolder, notes);
+        assertEquals(folderCount * notesPerFolder, info.notes);
+        return new long[]{info.bytes, written - start, opened - written, firstShown - written, decoded - written};
+    }
+
+    private static ListSource sampleVault() {
+        ListSource source = new ListSource();
+        Folder plain = new Folder("f1", "Home", "#FFEB3B", new Date(1_000));
+        Folder locked = new Folder("f2", "Private", "#FFFFFF", new Date(2_000));
+        locked.setLocked(true);
+        locked.setPasswordHash("hash");
+        locked.setPinned(true);
+        locked.setKeySalt(Blob.fromBytes(new byte[]{1, 2, 3}));
+        locked.setKeyCheck(Blob.fromBytes(new byte[]{4, 5}));
+        source.folders.add(plain);
+        source.folders.add(locked);
+
+        Note groceries = new Note("n1", "Groceries", "Milk\nEggs \u00e9\u00e8 \u2713", "#FFFFFF", new Date(10_000));
+        groceries.setFolderId("f1");
+        groceries.setUserId("u1");
+        groceries.setUpdatedAt(new Date(11_000));
+        groceries.setRevisionCount(4);
+        groceries.setTags(Arrays.asList("shopping", "home"));
+        groceries.setRank("V");
+        groceries.setPinned(true);
+        Note untitled = new Note("n2", null, "", "#FFFFFF", new Date(12_000));
+        untitled.setFolderId("f1");
+        untitled.setHidden(true);
+        untitled.setDeleted(true);
+        untitled.setDeletedAt(new Date(13_000));
+        Note secret = new Note("n3", "Diary", null, "#FFFFFF", new Date(14_000));
+        secret.setFolderId("f2");
+        secret.setLocked(true);
+        secret.setEncryptedContent(Blob.fromBytes(new byte[]{9, 8, 7, 6}));
+        source.notes.add(groceries);
+        source.notes.add(untitled);
+        source.notes.add(secret);
+        return source;
+    }
+
+    private static void assertVault(ListSource expected, VaultSnapshot.Reader reader) throws IOException {
+        List<Folder> folders = reader.folders();
+        assertEquals(expected.folders.size(), folders.size());
+        for (int i = 0; i < folders.size(); i++) {
+            Folder want = expected.folders.get(i);
+            Folder got = folders.get(i);
+            assertEquals(want.getId(), got.getId());
+            assertEquals(want.getName(), got.getName());
+            assertEquals(want.getColor(), got.getColor());
+            assertEquals(want.getCreatedAt(), got.getCreatedAt());
+            assertEquals(want.isLocked(), got.isLocked());
+            assertEquals(want.isPinned(), got.isPinned());
+            assertEquals(want.getPasswordHash(), got.getPasswordHash());
+            assertBlob(want.getKeySalt(), got.getKeySalt());
+            assertBlob(want.getKeyCheck(), got.getKeyCheck());
+        }
+        assertEquals(Arrays.asList("n1", "n2"), ids(reader.notes("f1")));
+        assertEquals(Arrays.asList("n3"), ids(reader.notes("f2")));
+        assertTrue(reader.notes("missing").isEmpty());
+
+        List<Note> notes = reader.notes();
+        assertEquals(expected.notes.size(), notes.size());
+        for (int i = 0; i < notes.size(); i++) {
+            Note want = expected.notes.get(i);
+            Note got = notes.get(i);
+            assertEquals(want.getId(), got.getId());
+            assertEquals(want.getFolderId(), got.getFolderId());
+            assertEquals(want.getUserId(), got.getUserId());
+            assertEquals(want.getTitle(), got.getTitle());
+            assertEquals(want.getContent(), got.getContent());
+            assertEquals(want.getTimestamp(), got.getTimestamp());
+            assertEquals(want.getUpdatedAt(), got.getUpdatedAt());
+            assertEquals(want.isDeleted(), got.isDeleted());
+            assertEquals(want.getDeletedAt(), got.getDeletedAt());
+            assertEquals(want.isHidden(), got.isHidden());
+            assertEquals(want.isLocked(), got.isLocked());
+            assertEquals(want.getRevisionCount(), got.getRevisionCount());
+            assertEquals(want.getTags(), got.getTags());
+            assertEquals(want.getRank(), got.getRank());
+            assertEquals(want.isPinned(), got.isPinned());
+            assertBlob(want.getEncryptedContent(), got.getEncryptedContent());
+        }
+    }
+
+    private static void assertBlob(Blob want, Blob got) {
+        if (want == null) assertNull(got);
+        else assertArrayEquals(want.toBytes(), got.toBytes());
+    }
+
+    private static List<String> ids(List<Note> notes) {
+        List<String> ids = new ArrayList<>();
+        for (Note note : notes) ids.add(note.getId());
+        return ids;
+    }
+
+    private static void assertOpenFails(File file) {
+        try {
+            VaultSnapshot.open(file).close();
+            fail("opened " + file.getName());
+        } catch (IOException expected) {
+        }
+    }
+}
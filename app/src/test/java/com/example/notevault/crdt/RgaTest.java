@@ -0,0 +1,255 @@
+package com.example.notevault.crdt;
+
+import com.example.notevault.Benchmark;
+
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class RgaTest {
+
+    @Test
+    public void localEditsBehaveLikeAString() {
+        Random random = new Random(11);
+        Rga rga = new Rga("a");
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 2000; i++) {
+            randomEdit(random, rga, expected);
+            assertEquals(expected.toString(), rga.text());
+        }
+        assertEquals(expected.length(), rga.length());
+    }
+
+    @Test
+    public void concurrentInsertsAtSamePlaceKeepRunsTogether() {
+        Rga a = Rga.fromSnapshot("a", Rga.seedSnapshot("ac"));
+        Rga b = Rga.fromSnapshot("b", Rga.seedSnapshot("ac"));
+        SequenceOp fromA = a.insert(1, "xx");
+        SequenceOp fromB = b.insert(1, "yy");
+        a.apply(fromB);
+        b.apply(fromA);
+        assertEquals(a.text(), b.text());
+        assertTrue(a.text().equals("axxyyc") || a.text().equals("ayyxxc"));
+    }
+
+    @Test
+    public void deleteOfConcurrentlyEditedRangeKeepsNewText() {
+        Rga a = Rga.fromSnapshot("a", Rga.seedSnapshot("hello world"));
+        Rga b = Rga.fromSnapshot("b", Rga.seedSnapshot("hello world"));
+        SequenceOp delete = a.delete(5, 6).get(0);
+        SequenceOp insert = b.insert(8, "!!");
+        a.apply(insert);
+        b.apply(delete);
+        assertEquals("hello!!", a.text());
+        assertEquals("hello!!", b.text());
+    }
+
+    @Test
+    public void opsArrivingBeforeTheirDependenciesAreHeldBack() {
+        Rga a = new Rga("a");
+        SequenceOp first = a.insert(0, "abc");
+        SequenceOp second = a.insert(3, "def");
+        SequenceOp delete = a.delete(2, 2).get(0);
+        Rga b = new Rga("b");
+        assertFalse(b.apply(delete));
+        assertFalse(b.apply(second));
+        assertEquals(2, b.pendingCount());
+        assertTrue(b.apply(first));
+        assertEquals(0, b.pendingCount());
+        assertEquals("abef", b.text());
+        assertFalse(b.apply(first));
+        assertTrue(b.delete(1, 0).isEmpty());
+    }
+
+    @Test
+    public void deletesAreStoredAsRunsAndSplitWhenThereAreMany() {
+        Rga a = Rga.fromSnapshot("a", Rga.seedSnapshot("x".repeat(10_000)));
+        List<SequenceOp> whole = a.delete(0, 10_000);
+        assertEquals(1, whole.size());
+        assertEquals(Collections.singletonList("1@seed 10000"), whole.get(0).targetRuns());
+
+        // Every other character typed separately: each is a run of its own
+        Rga b = new Rga("b");
+        Rga remote = new Rga("r");
+        for (int i = 0; i < 2_500; i++) {
+            remote.apply(b.insert(b.length(), "ab"));
+            remote.apply(b.insert(b.length() - 1, "-"));
+        }
+        List<SequenceOp> ops = b.delete(0, b.length() - 1);
+        assertTrue(ops.size() > 1);
+        for (SequenceOp op : ops) {
+            List<String> runs = op.targetRuns();
+            assertTrue(runs.size() <= SequenceOp.MAX_DELETE_RUNS);
+            remote.apply(SequenceOp.delete(op.id, SequenceOp.parseTargetRuns(runs)));
+        }
+        assertEquals("b", b.text());
+        assertEquals(b.text(), remote.text());
+        assertEquals(Collections.singletonList(new OpId(7, "s")),
+                SequenceOp.parseTargetRuns(Collections.singletonList("7@s")));
+    }
+
+    @Test
+    public void coalescedTypingAppliesLikeSeparateOps() {
+        Rga a = Rga.fromSnapshot("a", Rga.seedSnapshot("ac"));
+        Rga b = Rga.fromSnapshot("b", Rga.seedSnapshot("ac"));
+        SequenceOp typed = a.insert(1, "h");
+        for (char c : "ello".toCharArray()) {
+            SequenceOp next = a.insert(a.text().indexOf('c'), String.valueOf(c));
+            typed = typed.coalesce(next);
+        }
+        assertNull(typed.coalesce(a.insert(0, "x")));
+        SequenceOp concurrent = b.insert(1, "B");
+        b.apply(typed);
+        a.apply(concurrent);
+        assertEquals("xaBhelloc", a.text());
+        assertEquals(a.text().substring(1), b.text());
+    }
+
+    @Test
+    public void snapshotRoundTripsTombstonesAndIds() {
+        Random random = new Random(5);
+        Rga a = new Rga("a");
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 300; i++) randomEdit(random, a, expected);
+        String snapshot = a.snapshot();
+        Rga copy = Rga.fromSnapshot("b", snapshot);
+        assertEquals(a.text(), copy.text());
+        assertEquals(snapshot, copy.snapshot());
+
+        // Later ops land the same way on the original and on the copy
+        SequenceOp op = new Rga("c").insert(0, "x");
+        SequenceOp more = a.insert(a.length() / 2, "line\nwith: colons @ and spaces");
+        a.apply(op);
+        copy.apply(more);
+        copy.apply(op);
+        assertEquals(a.text(), copy.text());
+        assertEquals(Rga.seedSnapshot("same"), Rga.seedSnapshot("same"));
+    }
+
+    /**
+     * Property: replicas that make random concurrent edits converge once every op has reached
+     * every replica, whatever the delivery order, duplication, or snapshot reloads along the way.
+     */
+    @Test
+    public void randomConcurrentEditsConverge() {
+        for (int seed = 0; seed < 200; seed++) {
+            Random random = new Random(seed);
+            int sites = 2 + random.nextInt(3);
+            String seedText = random.nextBoolean() ? "" : "shared start\nof the note\n";
+            List<Rga> replicas = new ArrayList<>();
+            List<List<SequenceOp>> inboxes = new ArrayList<>();
+            List<List<SequenceOp>> seen = new ArrayList<>();
+            for (int s = 0; s < sites; s++) {
+                replicas.add(Rga.fromSnapshot("s" + s, Rga.seedSnapshot(seedText)));
+                inboxes.add(new ArrayList<>());
+                seen.add(new ArrayList<>());
+            }
+            int steps = 50 + random.nextInt(150);
+            for (int step = 0; step < steps; step++) {
+                int s = random.nextInt(sites);
+                Rga replica = replicas.get(s);
+                List<SequenceOp> inbox = inboxes.get(s);
+                int action = random.nextInt(10);
+                if (action < 5) {
+                    SequenceOp op = randomEdit(random, replica, new StringBuilder(replica.text()));
+                    if (op == null) continue;
+                    seen.get(s).add(op);
+                    for (int t = 0; t < sites; t++) if (t != s) inboxes.get(t).add(op);
+                } else if (action < 9 && !inbox.isEmpty()) {
+                    // Deliver a random op, sometimes twice
+                    SequenceOp op = inbox.remove(random.nextInt(inbox.size()));
+                    replica.apply(op);
+                    seen.get(s).add(op);
+                    if (random.nextInt(5) == 0) replica.apply(op);
+                } else if (action == 9) {
+                    // Reload from another replica's snapshot, then replay what this one has seen
+                    Rga other = replicas.get(random.nextInt(sites));
+                    replica.load(other.snapshot());
+                    for (SequenceOp op : seen.get(s)) replica.apply(op);
+                }
+            }
+            for (int s = 0; s < sites; s++) {
+                List<SequenceOp> inbox = inboxes.get(s);
+                Collections.shuffle(inbox, random);
+                for (SequenceOp op : inbox) replicas.get(s).apply(op);
+                assertEquals("seed " + seed, 0, replicas.get(s).pendingCount());
+            }
+            for (int s = 1; s < sites; s++) {
+                assertEquals("seed " + seed, replicas.get(0).text(), replicas.get(s).text());
+                assertEquals("seed " + seed, replicas.get(0).snapshot(), replicas.get(s).snapshot());
+            }
+        }
+    }
+
+    @Test
+    public void typedOpsReplayToTheSameText() {
+        typeAndReplay(10_000, 5_000);
+    }
+
+    /** Prints local and remote ops per second while typing into notes of growing size. */
+    @Test
+    @Category(Benchmark.class)
+    public void opsPerSecondBenchmark() {
+        int ops = 20_000;
+        for (int size : new int[]{1_000, 10_000, 50_000}) {
+            long[] nanos = typeAndReplay(size, ops);
+            System.out.printf("Rga: %d chars, %.0f local ops/s, %.0f remote ops/s, snapshot %d chars%n",
+                    size, ops / (nanos[0] / 1e9), ops / (nanos[1] / 1e9), nanos[2]);
+        }
+    }
+
+    /**
+     * Type {@code ops} edits into a note of about {@code size} characters and replay them on
+     * another replica. Returns the nanoseconds typing and replaying took and the snapshot length.
+     */
+    private static long[] typeAndReplay(int size, int ops) {
+        Random random = new Random(size);
+        StringBuilder seedText = new StringBuilder();
+        while (seedText.length() < size) seedText.append("Some ordinary note text, line ").append(seedText.length()).append('\n');
+        String seed = Rga.seedSnapshot(seedText.toString());
+        Rga local = Rga.fromSnapshot("local", seed);
+        Rga remote = Rga.fromSnapshot("remote", seed);
+
+        // Typing: mostly single characters near a moving cursor, some backspaces
+        List<SequenceOp> log = new ArrayList<>(ops);
+        int cursor = local.length() / 2;
+        long start = System.nanoTime();
+        for (int i = 0; i < ops; i++) {
+            if (random.nextInt(50) == 0) cursor = random.nextInt(local.length() + 1);
+            if (cursor > 0 && random.nextInt(6) == 0) {
+                log.addAll(local.delete(--cursor, 1));
+            } else {
+                log.add(local.insert(cursor++, String.valueOf((char) ('a' + random.nextInt(26)))));
+            }
+        }
+        long typed = System.nanoTime() - start;
+        start = System.nanoTime();
+        for (SequenceOp op : log) remote.apply(op);
+        long replayed = System.nanoTime() - start;
+        assertEquals(local.text(), remote.text());
+        return new long[]{typed, replayed, local.snapshot().length()};
+    }
+
+    /** Apply one random insert or delete to both {@code rga} and {@code model}; null if nothing changed. */
+    private static SequenceOp randomEdit(Random random, Rga rga, StringBuilder model) {
+        if (model.length() > 0 && random.nextInt(3) == 0) {
+            int index = random.nextInt(model.length());
+            int count = 1 + random.nextInt(Math.min(5, model.length() - index));
+            model.delete(index, index + count);
+            return rga.delete(index, count).get(0);
+        }
+        int index = random.nextInt(model.length() + 1);
+        String value = random.nextInt(4) == 0 ? "\n" : "xyz".substring(0, 1 + random.nextInt(3));
+        model.insert(index, value);
+        return rga.insert(index, value);
+    }
+}
@@ -0,0 +1,76 @@
+package com.example.notevault.diff;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ThreeWayMergeTest {
+
+    private static final String BASE = "Shopping\nmilk\neggs\nbread\n\nTodo\ncall mom\npay rent\n";
+
+    @Test
+    public void oneSidedChangesWin() {
+        String local = BASE.replace("eggs", "eggs x12");
+        assertClean(local, ThreeWayMerge.merge(BASE, local, BASE));
+        assertClean(local, ThreeWayMerge.merge(BASE, BASE, local));
+        assertClean(local, ThreeWayMerge.merge(BASE, local, local));
+    }
+
+    @Test
+    public void nonOverlappingEditsMerge() {
+        String local = BASE.replace("milk\n", "oat milk\n");
+        String remote = BASE.replace("pay rent\n", "pay rent\nbook dentist\n");
+        assertClean("Shopping\noat milk\neggs\nbread\n\nTodo\ncall mom\npay rent\nbook dentist\n",
+                ThreeWayMerge.merge(BASE, local, remote));
+    }
+
+    @Test
+    public void deletionAndEditElsewhereMerge() {
+        String local = BASE.replace("bread\n", "");
+        String remote = BASE.replace("Todo\n", "Todo today\n");
+        assertClean("Shopping\nmilk\neggs\n\nTodo today\ncall mom\npay rent\n", ThreeWayMerge.merge(BASE, local, remote));
+    }
+
+    @Test
+    public void appendsWithoutTrailingNewlineMerge() {
+        String base = "first\nsecond";
+        ThreeWayMerge.Result result = ThreeWayMerge.merge(base, "zeroth\nfirst\nsecond", "first\nsecond\nthird");
+        assertClean("zeroth\nfirst\nsecond\nthird", result);
+    }
+
+    @Test
+    public void overlappingEditsConflict() {
+        String local = BASE.replace("eggs", "brown eggs");
+        String remote = BASE.replace("eggs", "no eggs");
+        ThreeWayMerge.Result result = ThreeWayMerge.merge(BASE, local, remote);
+        assertEquals(1, result.conflicts);
+        assertEquals("Shopping\nmilk\n"
+                        + ThreeWayMerge.MARKER_LOCAL + "\nbrown eggs\n"
+                        + ThreeWayMerge.MARKER_SEPARATOR + "\nno eggs\n"
+                        + ThreeWayMerge.MARKER_REMOTE + "\n"
+                        + "bread\n\nTodo\ncall mom\npay rent\n",
+                result.text);
+        assertTrue(ThreeWayMerge.hasConflictMarkers(result.text));
+    }
+
+    @Test
+    public void conflictsAreCountedPerRegion() {
+        String local = BASE.replace("milk", "skim milk").replace("call mom", "call dad");
+        String remote = BASE.replace("milk", "whole milk").replace("call mom", "text mom");
+        ThreeWayMerge.Result result = ThreeWayMerge.merge(BASE, local, remote);
+        assertEquals(2, result.conflicts);
+    }
+
+    @Test
+    public void plainTextHasNoConflictMarkers() {
+        assertFalse(ThreeWayMerge.hasConflictMarkers(BASE));
+        assertFalse(ThreeWayMerge.hasConflictMarkers("a line mentioning <<<<<<< inline"));
+    }
+
+    private static void assertClean(String expected, ThreeWayMerge.Result result) {
+        assertFalse(result.hasConflicts());
+        assertEquals(expected, result.text);
+    }
+}
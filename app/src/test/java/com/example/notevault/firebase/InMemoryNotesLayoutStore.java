@@ -0,0 +1,112 @@
+package com.example.notevault.firebase;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/** Map-backed {@link NotesLayoutStore} for tests; documents are kept in id order like Firestore listings. */
+class InMemoryNotesLayoutStore implements NotesLayoutStore {
+
+    /** Nested notes by folder id, then note id. */
+    final TreeMap<String, TreeMap<String, Map<String, Object>>> nested = new TreeMap<>();
+    final TreeMap<String, Map<String, Object>> flat = new TreeMap<>();
+    String layout;
+    Cursor cursor;
+    int copies;
+    /** Copy batch number (1-based) that throws, to simulate the process dying mid-run; 0 = never. */
+    int failOnCopy;
+    /** Layout whose write throws; null = never. */
+    String failOnLayout;
+    /** How often each note was written by a copy batch. */
+    final Map<String, Integer> copiedTimes = new HashMap<>();
+
+    void putNested(String folderId, String id, Map<String, Object> data) {
+        nested.computeIfAbsent(folderId, f -> new TreeMap<>()).put(id, new HashMap<>(data));
+    }
+
+    @Override
+    public String readLayout(String userId) {
+        return layout;
+    }
+
+    @Override
+    public Cursor readCursor(String userId) {
+        return cursor;
+    }
+
+    @Override
+    public List<String> folderIds(String userId, String afterFolderId, int limit) {
+        NavigableMap<String, ?> tail = afterFolderId == null ? nested : nested.tailMap(afterFolderId, false);
+        List<String> ids = new ArrayList<>();
+        for (String id : tail.keySet()) {
+            if (ids.size() == limit) break;
+            ids.add(id);
+        }
+        return ids;
+    }
+
+    @Override
+    public List<StoredNote> nestedNotes(String userId, String folderId, String afterNoteId, int limit) {
+        TreeMap<String, Map<String, Object>> notes = nested.getOrDefault(folderId, new TreeMap<>());
+        return page(folderId, afterNoteId == null ? notes : notes.tailMap(afterNoteId, false), limit);
+    }
+
+    @Override
+    public List<StoredNote> flatNotes(String userId, String afterNoteId, int limit) {
+        return page(null, afterNoteId == null ? flat : flat.tailMap(afterNoteId, false), limit);
+    }
+
+    @Override
+    public void copy(String userId, List<StoredNote> notes, Cursor cursor) {
+        copies++;
+        if (copies == failOnCopy) throw new IllegalStateException("connection lost");
+        for (StoredNote note : notes) {
+            flat.put(note.id, new HashMap<>(note.data));
+            copiedTimes.merge(note.id, 1, Integer::sum);
+        }
+        this.cursor = cursor;
+    }
+
+    @Override
+    public int deleteOrphans(String userId, List<StoredNote> notes) {
+        int deleted = 0;
+        for (StoredNote note : notes) {
+            TreeMap<String, Map<String, Object>> folder = nested.get(note.folderId);
+            if (folder == null || !folder.containsKey(note.id)) {
+                if (flat.remove(note.id) != null) deleted++;
+            }
+        }
+        return deleted;
+    }
+
+    @Override
+    public void moveToFlat(String userId, String folderId, List<String> noteIds, Recopy recopy) {
+        TreeMap<String, Map<String, Object>> folder = nested.get(folderId);
+        for (String id : noteIds) {
+            Map<String, Object> data = folder.remove(id);
+            if (data == null) continue;
+            Map<String, Object> copy = recopy.flatCopy(new StoredNote(folderId, id, data), flat.get(id));
+            if (copy != null) flat.put(id, new HashMap<>(copy));
+        }
+    }
+
+    @Override
+    public void writeLayout(String userId, String layout) {
+        if (layout.equals(failOnLayout)) throw new IllegalStateException("connection lost");
+        this.layout = layout;
+        cursor = null;
+    }
+
+    private static List<StoredNote> page(String folderId, Map<String, Map<String, Object>> notes, int limit) {
+        List<StoredNote> page = new ArrayList<>();
+        for (Map.Entry<String, Map<String, Object>> note : notes.entrySet()) {
+            if (page.size() == limit) break;
+            Map<String, Object> data = new HashMap<>(note.getValue());
+            page.add(new StoredNote(folderId != null ? folderId : (String) data.get("folderId"), note.getKey(), data));
+        }
+        return page;
+    }
+}
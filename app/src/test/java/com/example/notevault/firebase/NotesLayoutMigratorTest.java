@@ -0,0 +1,122 @@
+package com.example.notevault.firebase;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class NotesLayoutMigratorTest {
+
+    private static final String USER = "user-1";
+
+    private InMemoryNotesLayoutStore store;
+    private final List<String> results = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        store = new InMemoryNotesLayoutStore();
+        for (int i = 0; i < 11; i++) {
+            store.putNested("folder-" + (i % 3), String.format("n%02d", i), note("Note " + i, 1_000));
+        }
+    }
+
+    private void migrate() {
+        new NotesLayoutMigrator(store, USER, Runnable::run, 2)
+                .run(null, (success, message) -> results.add(success ? "ok" : "failed: " + message));
+    }
+
+    @Test
+    public void copiesEveryNoteSwitchesAndDeletesTheNestedOnes() {
+        migrate();
+
+        assertEquals("ok", results.get(0));
+        assertEquals(FirebaseManager.NOTES_LAYOUT_FLAT, store.layout);
+        assertNull(store.cursor);
+        assertEquals(11, store.flat.size());
+        Map<String, Object> note = store.flat.get("n07");
+        assertEquals("Note 7", note.get("title"));
+        assertEquals("folder-1", note.get("folderId"));
+        assertEquals(USER, note.get("userId"));
+        for (Map<String, Map<String, Object>> folder : store.nested.values()) assertTrue(folder.isEmpty());
+    }
+
+    @Test
+    public void resumesFromTheStoredCursor() {
+        store.failOnCopy = 3;
+        migrate();
+        assertTrue(results.get(0).startsWith("failed"));
+        assertNull(store.layout);
+        // Two batches of two landed; the cursor points after the last note of the second
+        assertEquals(4, store.flat.size());
+        assertEquals("folder-0", store.cursor.folderId);
+        assertEquals("n09", store.cursor.noteId);
+
+        migrate();
+        assertEquals("ok", results.get(1));
+        assertEquals(11, store.flat.size());
+        for (Integer times : store.copiedTimes.values()) assertEquals("no note is copied twice", 1, (int) times);
+    }
+
+    @Test
+    public void notesDeletedAfterTheCopyDoNotComeBack() {
+        store.failOnLayout = FirebaseManager.NOTES_LAYOUT_CLEANUP;
+        migrate();
+        assertEquals(11, store.flat.size());
+
+        // Permanently deleted by a client that did not see the migration
+        store.nested.get("folder-1").remove("n04");
+        store.failOnLayout = null;
+        migrate();
+
+        assertEquals("ok", results.get(1));
+        assertEquals(10, store.flat.size());
+        assertFalse(store.flat.containsKey("n04"));
+    }
+
+    @Test
+    public void cleanupCopiesAgainNotesSavedOrAddedAfterTheCopy() {
+        store.failOnLayout = FirebaseManager.NOTES_LAYOUT_FLAT;
+        migrate();
+        assertEquals(FirebaseManager.NOTES_LAYOUT_CLEANUP, store.layout);
+        // The cleanup did run; put back nested notes as a client still on the nested layout wrote them
+        store.putNested("folder-2", "n02", note("Edited late", 5_000));
+        store.putNested("folder-2", "n50", note("Added late", 5_000));
+        store.putNested("folder-0", "n03", note("Stale", 500));
+        store.flat.get("n03").put("title", "Current");
+
+        store.failOnLayout = null;
+        migrate();
+
+        assertEquals("ok", results.get(1));
+        assertEquals(FirebaseManager.NOTES_LAYOUT_FLAT, store.layout);
+        assertEquals("Edited late", store.flat.get("n02").get("title"));
+        assertEquals("Added late", store.flat.get("n50").get("title"));
+        assertEquals("folder-2", store.flat.get("n50").get("folderId"));
+        assertEquals("an older nested note does not overwrite its copy", "Current", store.flat.get("n03").get("title"));
+        for (Map<String, Map<String, Object>> folder : store.nested.values()) assertTrue(folder.isEmpty());
+    }
+
+    @Test
+    public void doesNothingOnceFlat() {
+        store.layout = FirebaseManager.NOTES_LAYOUT_FLAT;
+        new NotesLayoutMigrator(store, USER, Runnable::run, 2).run(null, (success, message) -> results.add(message));
+        assertEquals("Already on flat layout", results.get(0));
+        assertTrue(store.flat.isEmpty());
+    }
+
+    private static Map<String, Object> note(String title, long updatedAt) {
+        Map<String, Object> data = new HashMap<>();
+        data.put("title", title);
+        data.put("updatedAt", new Date(updatedAt));
+        return data;
+    }
+}
@@ -0,0 +1,150 @@
+package com.example.notevault.firebase;
+
+import com.example.notevault.store.StoreListener;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SnapshotDecoderTest {
+
+    /** A stored document: where it is, its id, its title and whether it has an unconfirmed write. */
+    private static final class Doc {
+        final String path;
+        final String id;
+        final String title;
+        final boolean pending;
+
+        Doc(String folder, String id, String title, boolean pending) {
+            this.path = "users/u1/folders/" + folder + "/notes/" + id;
+            this.id = id;
+            this.title = title;
+            this.pending = pending;
+        }
+    }
+
+    private static final SnapshotDecoder.Documents<Doc> DOCS = new SnapshotDecoder.Documents<Doc>() {
+        @Override
+        public String path(Doc doc) {
+            return doc.path;
+        }
+
+        @Override
+        public String id(Doc doc) {
+            return doc.id;
+        }
+
+        @Override
+        public boolean hasPendingWrites(Doc doc) {
+            return doc.pending;
+        }
+    };
+
+    private final List<String> decodedIds = new ArrayList<>();
+    private final List<List<String>> results = new ArrayList<>();
+    private final List<String> changes = new ArrayList<>();
+    private final List<Set<String>> pendingWrites = new ArrayList<>();
+    private SnapshotDecoder.Decoder<Doc, String> decoder;
+
+    @Before
+    public void setUp() {
+        decoder = new SnapshotDecoder.Decoder<>(DOCS, doc -> {
+            decodedIds.add(doc.id);
+            return doc.id + ":" + doc.title;
+        }, new StoreListener<String>() {
+            @Override
+            public void onChanged(List<String> items) {
+                results.add(items);
+            }
+
+            @Override
+            public void onError(String message) {
+                throw new AssertionError(message);
+            }
+
+            @Override
+            public void onItemsChanged(List<String> changed, Set<String> removedIds) {
+                changes.add(changed + " -" + new TreeSet<>(removedIds));
+            }
+
+            @Override
+            public void onPendingWrites(Set<String> ids) {
+                pendingWrites.add(ids);
+            }
+        });
+    }
+
+    @Test
+    public void onlyChangedDocumentsAreDecodedAgain() {
+        Doc a = new Doc("f1", "a", "A", false);
+        Doc b = new Doc("f1", "b", "B", false);
+        Doc c = new Doc("f1", "c", "C", false);
+        decoder.apply(Arrays.asList(a, b, c), Collections.emptyList(), Arrays.asList(a, b, c));
+        assertEquals(Arrays.asList("a", "b", "c"), decodedIds);
+
+        Doc b2 = new Doc("f1", "b", "B edited", false);
+        decoder.apply(Collections.singletonList(b2), Collections.emptyList(), Arrays.asList(a, b2, c));
+        assertEquals(Arrays.asList("a", "b", "c", "b"), decodedIds);
+        assertEquals(Arrays.asList("a:A", "b:B edited", "c:C"), results.get(1));
+        assertEquals(Collections.singletonList("[b:B edited] -[]"), changes);
+    }
+
+    @Test
+    public void removalsAreReported() {
+        Doc a = new Doc("f1", "a", "A", false);
+        Doc b = new Doc("f1", "b", "B", false);
+        decoder.apply(Arrays.asList(a, b), Collections.emptyList(), Arrays.asList(a, b));
+        decoder.apply(Collections.emptyList(), Collections.singletonList(a), Collections.singletonList(b));
+
+        assertEquals(Collections.singletonList("b:B"), results.get(1));
+        assertEquals(Collections.singletonList("[] -[a]"), changes);
+    }
+
+    @Test
+    public void aNoteMovedBetweenFoldersIsChangedNotRemoved() {
+        Doc a = new Doc("f1", "a", "A", false);
+        decoder.apply(Collections.singletonList(a), Collections.emptyList(), Collections.singletonList(a));
+        Doc moved = new Doc("f2", "a", "A", false);
+        decoder.apply(Collections.singletonList(moved), Collections.singletonList(a), Collections.singletonList(moved));
+
+        assertEquals(Collections.singletonList("a:A"), results.get(1));
+        assertEquals(Collections.singletonList("[a:A] -[]"), changes);
+    }
+
+    @Test
+    public void resultsFollowTheSnapshotOrder() {
+        Doc a = new Doc("f1", "a", "A", false);
+        Doc b = new Doc("f1", "b", "B", false);
+        Doc c = new Doc("f1", "c", "C", false);
+        decoder.apply(Arrays.asList(a, b, c), Collections.emptyList(), Arrays.asList(c, a, b));
+        assertEquals(Arrays.asList("c:C", "a:A", "b:B"), results.get(0));
+
+        // Reordered by an edit: b moves to the front though only it was decoded again
+        Doc b2 = new Doc("f1", "b", "B edited", false);
+        decoder.apply(Collections.singletonList(b2), Collections.emptyList(), Arrays.asList(b2, c, a));
+        assertEquals(Arrays.asList("b:B edited", "c:C", "a:A"), results.get(1));
+    }
+
+    @Test
+    public void metadataOnlySnapshotsReportPendingWritesWithoutANewResult() {
+        Doc a = new Doc("f1", "a", "A", true);
+        decoder.apply(Collections.singletonList(a), Collections.emptyList(), Collections.singletonList(a));
+        assertEquals(Collections.singleton("a"), pendingWrites.get(0));
+
+        Doc confirmed = new Doc("f1", "a", "A", false);
+        decoder.apply(Collections.emptyList(), Collections.emptyList(), Collections.singletonList(confirmed));
+        assertEquals(1, results.size());
+        assertTrue(changes.isEmpty());
+        assertEquals(Collections.emptySet(), pendingWrites.get(1));
+        assertEquals(Collections.singletonList("a"), decodedIds);
+    }
+}
@@ -0,0 +1,262 @@
+package com.example.notevault.firebase;
+
+import com.example.notevault.metrics.WriteQueueStats;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class WriteSchedulerTest {
+
+    /** A backend that records writes and acknowledges them only when told to. */
+    private static final class FakeBackend implements WriteScheduler.Backend {
+        final List<String> paths = new ArrayList<>();
+        final List<Map<String, Object>> writes = new ArrayList<>();
+        final List<FirebaseManager.OperationCallback> acks = new ArrayList<>();
+
+        @Override
+        public void update(String operation, String path, Map<String, Object> fields, FirebaseManager.OperationCallback done) {
+            paths.add(path);
+            writes.add(fields);
+            acks.add(done);
+        }
+
+        void ackAll(boolean success) {
+            List<FirebaseManager.OperationCallback> pending = new ArrayList<>(acks);
+            acks.clear();
+            for (FirebaseManager.OperationCallback ack : pending) ack.onComplete(success, success ? null : "unavailable");
+        }
+    }
+
+    private static final class ManualTimer implements WriteScheduler.Timer {
+        private static final class Task {
+            final long at;
+            final long order;
+            final Runnable runnable;
+
+            Task(long at, long order, Runnable runnable) {
+                this.at = at;
+                this.order = order;
+                this.runnable = runnable;
+            }
+        }
+
+        long now;
+        private long scheduled;
+        private final PriorityQueue<Task> tasks = new PriorityQueue<>((a, b) ->
+                a.at != b.at ? Long.compare(a.at, b.at) : Long.compare(a.order, b.order));
+
+        @Override
+        public long nowMs() {
+            return now;
+        }
+
+        @Override
+        public void schedule(Runnable task, long delayMs) {
+            tasks.add(new Task(now + delayMs, scheduled++, task));
+        }
+
+        void advance(long ms) {
+            long until = now + ms;
+            while (!tasks.isEmpty() && tasks.peek().at <= until) {
+                Task task = tasks.poll();
+                now = task.at;
+                task.runnable.run();
+            }
+            now = until;
+        }
+    }
+
+    private FakeBackend backend;
+    private ManualTimer timer;
+    private WriteQueueStats stats;
+    private final List<String> results = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        backend = new FakeBackend();
+        timer = new ManualTimer();
+        stats = new WriteQueueStats();
+    }
+
+    @Test
+    public void burstThenOneWritePerSecondWithMerging() {
+        WriteScheduler scheduler = new WriteScheduler(backend, timer, stats, 1, 3, 8);
+        for (int i = 0; i < 10; i++) {
+            scheduler.update("hideNote", "notes/n1", fields("isHidden", i % 2 == 0, "edit" + i, i), "Saved " + i, this::record);
+        }
+        assertEquals("the burst goes out at once", 3, backend.writes.size());
+        assertEquals(1, scheduler.queued());
+        assertEquals(6, stats.merged());
+        assertEquals(1, stats.throttled());
+
+        timer.advance(999);
+        assertEquals(3, backend.writes.size());
+        timer.advance(1);
+        assertEquals(4, backend.writes.size());
+        Map<String, Object> merged = backend.writes.get(3);
+        assertEquals("the last value wins", false, merged.get("isHidden"));
+        for (int i = 3; i < 10; i++) assertEquals(i, merged.get("edit" + i));
+        assertEquals(0, scheduler.queued());
+
+        backend.ackAll(true);
+        assertEquals(10, results.size());
+        assertEquals("Saved 9", results.get(9));
+        assertEquals(10, stats.submitted());
+        assertEquals(4, stats.sent());
+    }
+
+    @Test
+    public void sustainedRateIsOnePerSecondPerDocument() {
+        WriteScheduler scheduler = new WriteScheduler(backend, timer, stats, 1, 3, 8);
+        for (int second = 0; second < 60; second++) {
+            for (int i = 0; i < 5; i++) {
+                scheduler.update("markNoteCollabSynced", "collab/n1", fields("syncedAt", second * 10 + i), "Synced", null);
+                timer.advance(200);
+            }
+            backend.ackAll(true);
+        }
+        timer.advance(5_000);
+        // 300 updates in a minute: three for the burst, then one a second, the last one carrying the newest value
+        assertTrue(backend.writes.size() <= 3 + 61);
+        assertTrue(backend.writes.size() >= 60);
+        assertEquals(594, backend.writes.get(backend.writes.size() - 1).get("syncedAt"));
+        assertEquals(300, stats.submitted());
+        assertEquals(300 - backend.writes.size(), stats.merged());
+    }
+
+    @Test
+    public void documentsHaveTheirOwnBudget() {
+        WriteScheduler scheduler = new WriteScheduler(backend, timer, stats, 1, 1, 8);
+        scheduler.update("hideNote", "notes/a", fields("isHidden", true), "Hidden", null);
+        scheduler.update("hideNote", "notes/a", fields("isHidden", false), "Unhidden", null);
+        scheduler.update("hideNote", "notes/b", fields("isHidden", true), "Hidden", null);
+        assertEquals(Arrays.asList("notes/a", "notes/b"), backend.paths);
+        assertEquals(1, scheduler.queued());
+    }
+
+    @Test
+    public void capHoldsBackBatchesButNotDocumentUpdates() {
+        WriteScheduler scheduler = new WriteScheduler(backend, timer, stats, 1, 3, 2);
+        List<String> batches = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            int batch = i;
+            scheduler.submit(done -> {
+                batches.add("batch " + batch);
+                backend.acks.add(done);
+            }, this::record);
+        }
+        scheduler.update("hideNote", "notes/n1", fields("isHidden", true), "Hidden", this::record);
+        assertEquals(Arrays.asList("batch 0", "batch 1"), batches);
+        assertEquals("an update goes out whatever the batches do", Collections.singletonList("notes/n1"), backend.paths);
+        assertEquals(3, scheduler.queued());
+        assertEquals(4, stats.maxQueued());
+        assertEquals(3, stats.waitedForSlot());
+
+        backend.ackAll(true);
+        assertEquals(Arrays.asList("batch 0", "batch 1", "batch 2", "batch 3"), batches);
+        backend.ackAll(true);
+        assertEquals("queued batches go out in order", 5, batches.size());
+        backend.ackAll(true);
+        assertEquals(6, results.size());
+        assertEquals(0, scheduler.queued());
+        assertEquals(0, scheduler.inFlight());
+    }
+
+    @Test
+    public void unacknowledgedBatchesStopCountingAfterTheGracePeriod() {
+        WriteScheduler scheduler = new WriteScheduler(backend, timer, stats, 1, 3, 1);
+        List<String> batches = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            int batch = i;
+            scheduler.submit(done -> {
+                batches.add("batch " + batch);
+                backend.acks.add(done);
+            }, null);
+        }
+        assertEquals(1, batches.size());
+
+        // Offline: the first batch is queued by Firestore and not acknowledged
+        timer.advance(WriteScheduler.ACK_GRACE_MS);
+        assertEquals(2, batches.size());
+        backend.ackAll(true);
+        assertEquals(0, scheduler.inFlight());
+    }
+
+    @Test
+    public void offlineUpdatesDoNotWaitForAcknowledgement() {
+        WriteScheduler scheduler = new WriteScheduler(backend, timer, stats, 1, 3, 1);
+        for (int i = 0; i < 5; i++) {
+            scheduler.update("hideNote", "notes/n" + i, fields("isHidden", true), "Hidden", null);
+        }
+        assertEquals(5, backend.writes.size());
+        assertEquals(0, scheduler.queued());
+    }
+
+    @Test
+    public void batchesKeepTheirPlaceAmongUpdatesOfTheirDocuments() {
+        List<String> order = new ArrayList<>();
+        WriteScheduler.Backend recording = (operation, path, fields, done) -> {
+            order.add(path + " " + fields);
+            backend.acks.add(done);
+        };
+        WriteScheduler scheduler = new WriteScheduler(recording, timer, stats, 1, 1, 1);
+        scheduler.update("pinNote", "notes/a", fields("isPinned", true), "Pinned", this::record);
+        scheduler.update("pinNote", "notes/a", fields("isPinned", false), "Unpinned", this::record);
+        assertEquals("the second pin waits for a token", 1, order.size());
+
+        scheduler.submit(done -> {
+            order.add("filler");
+            backend.acks.add(done);
+        }, null);
+        scheduler.submit(Arrays.asList("notes/a", "notes/b"), done -> {
+            order.add("batch");
+            backend.acks.add(done);
+        }, null);
+        assertEquals("the waiting pin went out ahead of the batch",
+                Arrays.asList("notes/a {isPinned=true}", "filler", "notes/a {isPinned=false}"), order);
+
+        // The batch waits for the filler's slot; an update made meanwhile waits for the batch
+        timer.advance(5_000);
+        scheduler.update("hideNote", "notes/b", fields("isHidden", true), "Hidden", this::record);
+        assertEquals(3, order.size());
+        backend.ackAll(true);
+        assertEquals(Arrays.asList("notes/a {isPinned=true}", "filler", "notes/a {isPinned=false}", "batch",
+                "notes/b {isHidden=true}"), order);
+        backend.ackAll(true);
+        assertEquals(Arrays.asList("Pinned", "Unpinned", "Hidden"), results);
+        assertEquals(0, scheduler.queued());
+    }
+
+    @Test
+    public void failureReachesEveryMergedCaller() {
+        WriteScheduler scheduler = new WriteScheduler(backend, timer, stats, 1, 1, 8);
+        scheduler.update("lockNote", "notes/n1", fields("isLocked", true), "Locked", this::record);
+        scheduler.update("unlockNote", "notes/n1", fields("isLocked", false), "Unlocked", this::record);
+        scheduler.update("lockNote", "notes/n1", fields("isLocked", true), "Locked", this::record);
+        backend.ackAll(true);
+        timer.advance(1_000);
+        backend.ackAll(false);
+        assertEquals(Arrays.asList("Locked", "failed unavailable", "failed unavailable"), results);
+    }
+
+    private void record(boolean success, String message) {
+        results.add(success ? message : "failed " + message);
+    }
+
+    private static Map<String, Object> fields(Object... namesAndValues) {
+        Map<String, Object> fields = new HashMap<>();
+        for (int i = 0; i < namesAndValues.length; i += 2) fields.put((String) namesAndValues[i], namesAndValues[i + 1]);
+        return fields;
+    }
+}
@@ -0,0 +1,161 @@
+package com.example.notevault.history;
+
+import com.example.notevault.Benchmark;
+import com.example.notevault.model.NoteRevision;
+
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class RevisionHistoryTest {
+
+    private static final long DAY = 24L * 60 * 60 * 1000;
+
+    @Test
+    public void deltaRoundTripsEdits() {
+        String[][] cases = {
+                {"", ""},
+                {"", "new note"},
+                {"one\ntwo\nthree", ""},
+                {"one\ntwo\nthree", "one\n2\nthree"},
+                {"one\ntwo\nthree\n", "zero\none\ntwo\nthree\nfour\n"},
+                {"a\nb\nc\nd\ne", "a\nc\nX\ne\nY"},
+                {"no newline", "no newline\n"},
+        };
+        for (String[] c : cases) {
+            String delta = TextDelta.encode(c[0], c[1]);
+            assertEquals(delta, c[1], TextDelta.apply(c[0], delta));
+        }
+        assertEquals("=2-1+2:2\n=1", TextDelta.encode("a\nb\nc\nd", "a\nb\n2\nd"));
+    }
+
+    @Test
+    public void randomEditsRebuildEveryVersion() {
+        Random random = new Random(7);
+        List<String> versions = new ArrayList<>();
+        List<NoteRevision> revisions = simulate(random, 300, versions, new Date(0));
+        for (int i = 0; i < revisions.size(); i++) {
+            assertEquals(versions.get(i), RevisionHistory.contentAt(revisions, i + 1));
+        }
+        assertTrue(revisions.get(0).isSnapshot());
+        assertTrue(revisions.get(RevisionHistory.SNAPSHOT_INTERVAL).isSnapshot());
+        assertNull(revisions.get(1).getSnapshot());
+    }
+
+    @Test
+    public void retentionDropsOldRevisionsAndKeepsThemRebuildable() {
+        List<String> versions = new ArrayList<>();
+        Date start = new Date(0);
+        List<NoteRevision> revisions = simulate(new Random(3), 130, versions, start);
+        Date now = new Date(130 * DAY);
+        RetentionPolicy policy = new RetentionPolicy(60, 20, 100);
+
+        RetentionPolicy.Plan plan = policy.plan(revisions, now);
+        // Revision i is i - 1 days old; everything older than 60 days goes
+        assertEquals(70, plan.delete.size());
+        assertNotNull(plan.rewrite);
+        assertEquals(71, plan.rewrite.getRevision());
+
+        List<NoteRevision> kept = new ArrayList<>();
+        kept.add(plan.rewrite);
+        kept.addAll(revisions.subList(71, revisions.size()));
+        for (NoteRevision r : kept) {
+            assertEquals(versions.get(r.getRevision() - 1), RevisionHistory.contentAt(kept, r.getRevision()));
+        }
+
+        // The newest minRevisions survive however old they are
+        RetentionPolicy.Plan stale = policy.plan(revisions, new Date(1000 * DAY));
+        assertEquals(110, stale.delete.size());
+        assertTrue(new RetentionPolicy(60, 20, 500).plan(revisions.subList(0, 20), now).isEmpty());
+    }
+
+    @Test
+    public void deltasStoreLessThanFullCopies() {
+        for (int count : new int[]{200, 500, 1000}) {
+            List<String> versions = new ArrayList<>();
+            List<NoteRevision> revisions = simulate(new Random(count), count, versions, new Date(0));
+            long[] bytes = storedAndFull(revisions, versions);
+            assertTrue(bytes[0] < bytes[1]);
+        }
+    }
+
+    /** Prints storage per revision and rebuild latency for notes with hundreds of revisions. */
+    @Test
+    @Category(Benchmark.class)
+    public void storageAndRebuildBenchmark() {
+        for (int count : new int[]{200, 500, 1000}) {
+            List<String> versions = new ArrayList<>();
+            List<NoteRevision> revisions = simulate(new Random(count), count, versions, new Date(0));
+            long[] bytes = storedAndFull(revisions, versions);
+            Random pick = new Random(1);
+            for (int i = 0; i < 200; i++) RevisionHistory.contentAt(revisions, 1 + pick.nextInt(count)); // warm up
+            int lookups = 2000;
+            long startNanos = System.nanoTime();
+            for (int i = 0; i < lookups; i++) RevisionHistory.contentAt(revisions, 1 + pick.nextInt(count));
+            double micros = (System.nanoTime() - startNanos) / 1000.0 / lookups;
+            System.out.printf("RevisionHistory: %d revisions, %.0f B/revision stored vs %.0f B full copy (%.1f%%), "
+                            + "rebuild %.1f us avg%n",
+                    count, bytes[0] / (double) count, bytes[1] / (double) count, 100.0 * bytes[0] / bytes[1], micros);
+        }
+    }
+
+    /** UTF-8 bytes the revisions store and what storing every version in full would take. */
+    private static long[] storedAndFull(List<NoteRevision> revisions, List<String> versions) {
+        long stored = 0;
+        long full = 0;
+        for (int i = 0; i < revisions.size(); i++) {
+            NoteRevision r = revisions.get(i);
+            stored += utf8(r.isSnapshot() ? r.getSnapshot() : r.getDelta());
+            full += utf8(versions.get(i));
+        }
+        return new long[]{stored, full};
+    }
+
+    /**
+     * Save {@code count} versions of a note of roughly 200 lines, each an edit of a few lines,
+     * one day apart. Fills {@code versions} with the expected content of each revision.
+     */
+    private static List<NoteRevision> simulate(Random random, int count, List<String> versions, Date start) {
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < 200; i++) lines.add("Line " + i + " of the note, with some ordinary text in it\n");
+        List<NoteRevision> revisions = new ArrayList<>();
+        String previous = null;
+        for (int revision = 1; revision <= count; revision++) {
+            if (revision > 1) {
+                for (int edits = 1 + random.nextInt(3); edits > 0; edits--) {
+                    int at = random.nextInt(lines.size());
+                    switch (random.nextInt(3)) {
+                        case 0:
+                            lines.set(at, "Edited " + random.nextInt(1000) + " at revision " + revision + "\n");
+                            break;
+                        case 1:
+                            lines.add(at, "Inserted at revision " + revision + "\n");
+                            break;
+                        default:
+                            if (lines.size() > 50) lines.remove(at);
+                    }
+                }
+            }
+            String content = String.join("", lines);
+            revisions.add(RevisionHistory.create(revision, previous, "Title", content,
+                    new Date(start.getTime() + (revision - 1) * DAY)));
+            versions.add(content);
+            previous = content;
+        }
+        return revisions;
+    }
+
+    private static int utf8(String s) {
+        return s.getBytes(StandardCharsets.UTF_8).length;
+    }
+}
@@ -0,0 +1,97 @@
+package com.example.notevault.loadtest;
+
+import com.example.notevault.model.Folder;
+import com.example.notevault.model.Note;
+import com.example.notevault.store.InMemoryStore;
+import com.example.notevault.store.NoteStore;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ScenarioRunnerTest {
+
+    private static final String USER = "load-user";
+
+    @Test
+    public void sameSeedGeneratesSameAccount() {
+        WorkloadSpec spec = new WorkloadSpec().folders(50, Distribution.uniform(0, 40)).hugeFolders(1, Distribution.constant(500));
+        Workload first = Workload.generate(USER, spec);
+        Workload second = Workload.generate(USER, spec);
+        assertEquals(first.getNotes().size(), second.getNotes().size());
+        for (int i = 0; i < first.getNotes().size(); i++) {
+            assertEquals(first.getNotes().get(i).getContent(), second.getNotes().get(i).getContent());
+        }
+    }
+
+    @Test
+    public void generatedAccountFollowsTheSpec() {
+        WorkloadSpec spec = new WorkloadSpec()
+                .folders(400, Distribution.constant(25))
+                .hugeFolders(2, Distribution.constant(3_000))
+                .noteLength(Distribution.uniform(10, 200))
+                .deletedAndHiddenFolders(0.05, 0.05)
+                .deletedAndHiddenNotes(0.1, 0.1)
+                .maxDeletedAgeDays(60);
+        Workload workload = Workload.generate(USER, spec);
+
+        assertEquals(402, workload.getFolders().size());
+        assertEquals(400 * 25 + 2 * 3_000, workload.getNotes().size());
+        Map<String, Folder> folders = new HashMap<>();
+        for (Folder folder : workload.getFolders()) folders.put(folder.getId(), folder);
+        int deleted = 0;
+        int hidden = 0;
+        int dueForCleanup = 0;
+        long cutoff = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(NoteStore.RECYCLE_BIN_DAYS);
+        for (Note note : workload.getNotes()) {
+            Folder folder = folders.get(note.getFolderId());
+            assertTrue(note.getContent().length() >= 10 && note.getContent().length() <= 200);
+            if (folder.isDeleted()) assertTrue(note.isDeleted());
+            if (folder.isHidden()) assertTrue(note.isHidden());
+            if (note.isDeleted()) deleted++;
+            if (note.isHidden()) hidden++;
+            if (note.isDeleted() && note.getDeletedAt().getTime() < cutoff) dueForCleanup++;
+        }
+        double total = workload.getNotes().size();
+        // Folder-level picks add to the per-note ratios; both are random, so allow some slack
+        assertTrue(deleted / total > 0.07 && deleted / total < 0.3);
+        assertTrue(hidden / total > 0.07 && hidden / total < 0.3);
+        assertTrue(dueForCleanup > 0 && dueForCleanup < deleted);
+    }
+
+    @Test
+    public void journeysRunEveryOperationAgainstInMemoryStore() throws Exception {
+        Workload workload = Workload.generate(USER, new WorkloadSpec()
+                .folders(200, Distribution.logNormal(20, 1.2, 2_000))
+                .hugeFolders(1, Distribution.constant(10_000)));
+        InMemoryStore store = new InMemoryStore(USER, Runnable::run, 2);
+        workload.seed(store);
+
+        LoadReport report = new ScenarioRunner(store, store, workload).bulkSize(10).timeout(10_000).run(40, 4);
+
+        for (String operation : new String[]{"listenToFolders", "listenToNotes", "addOrUpdateNote",
+                "saveNoteIfUnchanged", "moveNoteToRecycleBin", "bulkRecycle", "listenToDeletedNotes",
+                "cleanupOldRecycleBinItems", "restoreNote", "hideNote", "unhideNote"}) {
+            assertTrue(operation, report.count(operation) > 0);
+            assertEquals(operation, 0, report.failures(operation));
+        }
+        assertEquals(40, report.count("listenToFolders"));
+        assertTrue(report.percentileMillis("addOrUpdateNote", 0.5) >= 2);
+        assertTrue(report.percentileMillis("addOrUpdateNote", 0.99) >= report.percentileMillis("addOrUpdateNote", 0.5));
+    }
+
+    @Test
+    public void percentilesUseNearestRank() {
+        LoadReport report = new LoadReport();
+        for (int i = 1; i <= 100; i++) report.record("op", i * 1_000_000L, i != 100);
+        assertEquals(50, report.percentileMillis("op", 0.5), 0);
+        assertEquals(99, report.percentileMillis("op", 0.99), 0);
+        assertEquals(100, report.percentileMillis("op", 1), 0);
+        assertEquals(1, report.failures("op"));
+    }
+}
@@ -0,0 +1,176 @@
+package com.example.notevault.metrics;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class FirestoreMetricsTest {
+
+    private static final long MS = 1_000_000;
+
+    @Test
+    public void spansRecordLatencyAndDocumentCounts() {
+        AtomicLong now = new AtomicLong();
+        FirestoreMetrics metrics = new FirestoreMetrics(now::get);
+        RecordingSink sink = new RecordingSink();
+        metrics.addSink(sink);
+
+        FirestoreMetrics.Span first = metrics.start("addOrUpdateNote/commit");
+        FirestoreMetrics.Span second = metrics.start("addOrUpdateNote/commit");
+        assertEquals(2, metrics.operations().get("addOrUpdateNote/commit").inFlight());
+        now.addAndGet(30 * MS);
+        first.end(true, 0, 2, false);
+        first.end(true, 0, 2, false);
+        now.addAndGet(300 * MS);
+        second.end(false, 0, 0, false);
+        FirestoreMetrics.Span read = metrics.start("loadNoteRevisions");
+        read.end(true, 12, 0, true);
+
+        OperationStats commit = metrics.operations().get("addOrUpdateNote/commit");
+        assertEquals(2, commit.calls());
+        assertEquals(0, commit.inFlight());
+        assertEquals(1, commit.failures());
+        assertEquals(2, commit.documentsWritten());
+        assertEquals(330, commit.latency.maxMillis(), 0.001);
+        OperationStats revisions = metrics.operations().get("loadNoteRevisions");
+        assertEquals(12, revisions.documentsRead());
+        assertEquals(1, revisions.fromCache());
+
+        assertEquals(List.of("start addOrUpdateNote/commit", "start addOrUpdateNote/commit",
+                "end addOrUpdateNote/commit 30ms", "end addOrUpdateNote/commit 330ms",
+                "start loadNoteRevisions", "end loadNoteRevisions 0ms"), sink.events);
+        assertEquals(sink.cookies.get(0), sink.cookies.get(2));
+        assertEquals(sink.cookies.get(1), sink.cookies.get(3));
+        assertTrue(!sink.cookies.get(0).equals(sink.cookies.get(1)));
+    }
+
+    @Test
+    public void onlyServerSnapshotsAreBilled() {
+        FirestoreMetrics metrics = new FirestoreMetrics(() -> 0);
+        RecordingSink sink = new RecordingSink();
+        metrics.addSink(sink);
+        metrics.listenerAttached("listenToNotes");
+        metrics.recordSnapshot("listenToNotes", 40, 40, 0, true);
+        metrics.recordSnapshot("listenToNotes", 40, 40, 8_000, false);
+        metrics.recordSnapshot("listenToNotes", 41, 1, 200, false);
+        metrics.listenerAttached("listenToNotes");
+        metrics.listenerDetached("listenToNotes");
+
+        ListenerStats notes = metrics.listeners().get("listenToNotes");
+        assertEquals(1, notes.active());
+        assertEquals(2, notes.attached());
+        assertEquals(3, notes.snapshots());
+        assertEquals(1, notes.fromCache());
+        assertEquals(81, notes.changes());
+        assertEquals(41, notes.billedReads());
+        assertEquals(List.of("listeners listenToNotes 1", "snapshot listenToNotes 40 cache",
+                "snapshot listenToNotes 40 server", "snapshot listenToNotes 41 server",
+                "listeners listenToNotes 2", "listeners listenToNotes 1"), sink.events);
+        assertTrue(metrics.report().contains("TOTAL  41 documents read, 0 written"));
+
+        metrics.reset();
+        assertEquals(0, metrics.listeners().get("listenToNotes").snapshots());
+        assertEquals(1, metrics.listeners().get("listenToNotes").active());
+        metrics.removeSink(sink);
+        metrics.recordSnapshot("listenToNotes", 1, 1, 200, false);
+        assertEquals(6, sink.events.size());
+    }
+
+    @Test
+    public void snapshotsInBackgroundCountAsWakeups() {
+        FirestoreMetrics metrics = new FirestoreMetrics(() -> 0);
+        metrics.recordSnapshot("listenToNotes", 40, 40, 8_192, false);
+        metrics.setInBackground(true);
+        metrics.recordSnapshot("listenToNotes", 41, 1, 1_024, false);
+        metrics.recordSnapshot("listenToFolders", 5, 1, 0, true);
+        metrics.setInBackground(false);
+        metrics.recordSnapshot("listenToNotes", 42, 1, 1_024, false);
+
+        ListenerStats notes = metrics.listeners().get("listenToNotes");
+        assertEquals(10_240, notes.bytes());
+        assertEquals(1, notes.backgroundSnapshots());
+        assertEquals(1_024, notes.backgroundBytes());
+        assertEquals(1, metrics.listeners().get("listenToFolders").backgroundSnapshots());
+        assertTrue(metrics.report().contains("BACKGROUND  2 wakeups, 1.0 KB"));
+    }
+
+    @Test
+    public void mainThreadTimeIsReportedPerListener() {
+        FirestoreMetrics metrics = new FirestoreMetrics(() -> 0);
+        metrics.recordSnapshot("listenToNotes", 40, 40, 0, false);
+        metrics.recordMainThread("listenToNotes", 3 * MS);
+        metrics.recordMainThread("listenToNotes", 1 * MS);
+        metrics.recordMetadataOnly("listenToNotes");
+
+        ListenerStats notes = metrics.listeners().get("listenToNotes");
+        assertEquals(2, notes.mainThread.count());
+        assertEquals(2.0, notes.mainThread.meanMillis(), 1e-9);
+        assertTrue(metrics.report().contains("listenToNotes  0/0  1 (0)  40  40  0.0  0/0.0  2.00 3  1"));
+    }
+
+    @Test
+    public void writeQueueKeepsItsDepthAcrossReset() {
+        FirestoreMetrics metrics = new FirestoreMetrics(() -> 0);
+        WriteQueueStats queue = metrics.writeQueue();
+        for (int i = 0; i < 4; i++) queue.onSubmitted();
+        queue.setQueued(3);
+        queue.onMerged();
+        queue.onThrottled();
+        queue.setQueued(2);
+        assertTrue(metrics.report().contains("WRITE QUEUE  4 submitted, 0 sent, 1 merged, 1 throttled, 0 waited for a slot, 2 queued (max 3)"));
+
+        metrics.reset();
+        assertEquals(0, queue.submitted());
+        assertEquals(2, queue.queued());
+        assertEquals(2, queue.maxQueued());
+    }
+
+    @Test
+    public void histogramReportsBucketUpperBounds() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.percentileMillis(0.5), 0);
+        for (int i = 0; i < 90; i++) histogram.record(15 * MS);
+        for (int i = 0; i < 9; i++) histogram.record(150 * MS);
+        histogram.record(12_345 * MS);
+
+        assertEquals(100, histogram.count());
+        assertEquals(20, histogram.percentileMillis(0.5), 0);
+        assertEquals(20, histogram.percentileMillis(0.9), 0);
+        assertEquals(200, histogram.percentileMillis(0.99), 0);
+        assertEquals(12_345, histogram.percentileMillis(1), 0);
+        assertEquals((90 * 15 + 9 * 150 + 12_345) / 100.0, histogram.meanMillis(), 0.001);
+    }
+
+    private static class RecordingSink implements MetricsSink {
+        final List<String> events = new ArrayList<>();
+        final List<Integer> cookies = new ArrayList<>();
+
+        @Override
+        public void onOperationStarted(String operation, int cookie) {
+            events.add("start " + operation);
+            cookies.add(cookie);
+        }
+
+        @Override
+        public void onOperationFinished(String operation, int cookie, long nanos, boolean success,
+                                        int documentsRead, int documentsWritten, boolean fromCache) {
+            events.add("end " + operation + " " + nanos / MS + "ms");
+            cookies.add(cookie);
+        }
+
+        @Override
+        public void onSnapshot(String listener, int documents, int changes, boolean fromCache) {
+            events.add("snapshot " + listener + " " + documents + (fromCache ? " cache" : " server"));
+        }
+
+        @Override
+        public void onListenersChanged(String listener, int active) {
+            events.add("listeners " + listener + " " + active);
+        }
+    }
+}
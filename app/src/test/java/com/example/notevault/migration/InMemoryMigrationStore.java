@@ -0,0 +1,68 @@
+package com.example.notevault.migration;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/** Map-backed {@link MigrationStore} for tests; documents are kept in id order like Firestore scans. */
+class InMemoryMigrationStore implements MigrationStore {
+
+    final Map<Kind, TreeMap<String, StoredDocument>> docs = new HashMap<>();
+    int schemaVersion;
+    String cursor;
+    int commits;
+    /** Commit number (1-based) that throws, to simulate the process dying mid-run; 0 = never. */
+    int failOnCommit;
+
+    InMemoryMigrationStore() {
+        for (Kind kind : Kind.values()) docs.put(kind, new TreeMap<>());
+    }
+
+    void put(Kind kind, String folderId, String id, Map<String, Object> data) {
+        docs.get(kind).put(id, new StoredDocument(kind, folderId, id, new HashMap<>(data)));
+    }
+
+    Map<String, Object> get(Kind kind, String id) {
+        return docs.get(kind).get(id).data;
+    }
+
+    @Override
+    public int readSchemaVersion(String userId) {
+        return schemaVersion;
+    }
+
+    @Override
+    public String readCursor(String userId) {
+        return cursor;
+    }
+
+    @Override
+    public Page scan(String userId, Kind kind, String after, int pageSize) {
+        List<StoredDocument> page = new ArrayList<>();
+        Map<String, StoredDocument> tail = after == null ? docs.get(kind) : docs.get(kind).tailMap(after, false);
+        for (StoredDocument doc : tail.values()) {
+            if (page.size() == pageSize) break;
+            page.add(new StoredDocument(kind, doc.folderId, doc.id, new HashMap<>(doc.data)));
+        }
+        String next = page.size() < pageSize ? null : page.get(page.size() - 1).id;
+        return new Page(page, next);
+    }
+
+    @Override
+    public void commit(String userId, List<Update> updates, String cursor) {
+        commits++;
+        if (commits == failOnCommit) throw new IllegalStateException("connection lost");
+        for (Update update : updates) {
+            docs.get(update.doc.kind).get(update.doc.id).data.putAll(update.fields);
+        }
+        this.cursor = cursor;
+    }
+
+    @Override
+    public void writeSchemaVersion(String userId, int version) {
+        schemaVersion = version;
+        cursor = null;
+    }
+}
@@ -0,0 +1,116 @@
+package com.example.notevault.migration;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MigrationRunnerTest {
+
+    private static final String USER = "user-1";
+
+    private InMemoryMigrationStore store;
+    private final List<String> results = new ArrayList<>();
+    private int sleeps;
+
+    @Before
+    public void setUp() {
+        store = new InMemoryMigrationStore();
+        for (int i = 0; i < 25; i++) {
+            Map<String, Object> legacy = new HashMap<>();
+            legacy.put("title", "Note " + i);
+            store.put(MigrationStore.Kind.NOTES, "folder-" + (i % 3), String.format("n%03d", i), legacy);
+        }
+        Map<String, Object> folder = new HashMap<>();
+        folder.put("name", "Old folder");
+        store.put(MigrationStore.Kind.FOLDERS, null, "folder-0", folder);
+    }
+
+    private MigrationRunner runner() {
+        return new MigrationRunner(store, Migrations.all(), Runnable::run, 10, 5, millis -> sleeps++);
+    }
+
+    private final MigrationRunner.Listener listener = new MigrationRunner.Listener() {
+        @Override
+        public void onProgress(int version, int scanned, int updated) {
+        }
+
+        @Override
+        public void onComplete(boolean success, String message) {
+            results.add(success ? "ok" : "failed: " + message);
+        }
+    };
+
+    @Test
+    public void backfillsLegacyDocumentsAndRecordsVersion() {
+        runner().runPending(USER, listener);
+
+        assertEquals("ok", results.get(0));
+        assertEquals(Migrations.LATEST_VERSION, store.schemaVersion);
+        Map<String, Object> note = store.get(MigrationStore.Kind.NOTES, "n007");
+        assertEquals(USER, note.get("userId"));
+        assertEquals("folder-1", note.get("folderId"));
+        assertEquals(false, note.get("isHidden"));
+        assertEquals(false, note.get("isLocked"));
+        assertEquals(false, note.get("isDeleted"));
+        Map<String, Object> folder = store.get(MigrationStore.Kind.FOLDERS, "folder-0");
+        assertEquals(false, folder.get("isDeleted"));
+        assertFalse(folder.containsKey("userId"));
+    }
+
+    @Test
+    public void keepsExistingValues() {
+        Map<String, Object> hidden = new HashMap<>();
+        hidden.put("isHidden", true);
+        hidden.put("userId", "someone");
+        store.put(MigrationStore.Kind.NOTES, "folder-0", "n999", hidden);
+
+        runner().runPending(USER, listener);
+
+        assertEquals(true, store.get(MigrationStore.Kind.NOTES, "n999").get("isHidden"));
+        assertEquals("someone", store.get(MigrationStore.Kind.NOTES, "n999").get("userId"));
+    }
+
+    @Test
+    public void resumesFromCursorAfterFailure() {
+        store.failOnCommit = 2;
+        runner().runPending(USER, listener);
+        assertTrue(results.get(0).startsWith("failed"));
+        assertEquals(0, store.schemaVersion);
+        String cursorAfterFailure = store.cursor;
+        assertEquals("1|NOTES|n009", cursorAfterFailure);
+
+        int commitsBefore = store.commits;
+        store.failOnCommit = 0;
+        runner().runPending(USER, listener);
+
+        assertEquals("ok", results.get(1));
+        assertEquals(Migrations.LATEST_VERSION, store.schemaVersion);
+        assertEquals(USER, store.get(MigrationStore.Kind.NOTES, "n024").get("userId"));
+        // v1 resumed at page 2 of 3; v2 and v3 each visit 1 folder page and 3 note pages
+        assertEquals(2 + 4 + 4, store.commits - commitsBefore);
+    }
+
+    @Test
+    public void throttlesBetweenPages() {
+        runner().runPending(USER, listener);
+        // 25 notes in pages of 10 leave two full pages per pass, three passes over notes
+        assertEquals(6, sleeps);
+    }
+
+    @Test
+    public void doesNothingWhenUpToDate() {
+        store.schemaVersion = Migrations.LATEST_VERSION;
+        runner().runPending(USER, listener);
+        assertEquals("ok", results.get(0));
+        assertEquals(0, store.commits);
+        assertFalse(store.get(MigrationStore.Kind.NOTES, "n000").containsKey("userId"));
+    }
+}
@@ -0,0 +1,142 @@
+package com.example.notevault.prefetch;
+
+import com.example.notevault.firebase.FirebaseManager;
+import com.example.notevault.model.Folder;
+import com.example.notevault.model.Note;
+import com.example.notevault.store.InMemoryStore;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FolderPrefetcherTest {
+
+    private static final String USER = "user-1";
+    private static final long HOUR = 60 * 60 * 1000;
+    private static final List<String> FOLDERS = Arrays.asList("a", "b", "c", "d", "e");
+
+    private final AtomicLong now = new AtomicLong(1_000_000_000L);
+    private final List<String> prefetched = new ArrayList<>();
+    private InMemoryStore store;
+
+    @Before
+    public void setUp() {
+        List<Folder> folders = new ArrayList<>();
+        List<Note> notes = new ArrayList<>();
+        for (String id : FOLDERS) {
+            folders.add(new Folder(id, id, "#4ECDC4", new Date()));
+            for (int i = 0; i < 50; i++) {
+                Note note = new Note(id + i, "Note", "content", "#4ECDC4", new Date(i));
+                note.setFolderId(id);
+                notes.add(note);
+            }
+        }
+        store = new InMemoryStore(USER, Runnable::run, 0) {
+            @Override
+            public void prefetchNotes(String userId, String folderId, int limit, FirebaseManager.PrefetchCallback callback) {
+                prefetched.add(folderId);
+                super.prefetchNotes(userId, folderId, limit, callback);
+            }
+        };
+        store.seed(USER, folders, notes);
+    }
+
+    @Test
+    public void rankerPrefersRecentOverOldFrequentOpens() {
+        FrecencyRanker ranker = new FrecencyRanker(24 * HOUR);
+        long t = now.get();
+        for (int i = 0; i < 8; i++) ranker.recordOpen("old", t - 10 * 24 * HOUR);
+        ranker.recordOpen("recent", t - HOUR);
+        ranker.recordOpen("often", t - 2 * HOUR);
+        ranker.recordOpen("often", t - HOUR);
+        assertEquals(Arrays.asList("often", "recent"), ranker.top(2, Arrays.asList("old", "recent", "often", "never"), t));
+    }
+
+    @Test
+    public void rankerSurvivesEncoding() {
+        FrecencyRanker ranker = new FrecencyRanker(24 * HOUR);
+        ranker.recordOpen("a", now.get());
+        ranker.recordOpen("a", now.get());
+        ranker.recordOpen("b", now.get());
+        FrecencyRanker decoded = FrecencyRanker.decode(ranker.encode() + "garbage\n", 24 * HOUR);
+        assertEquals(2, decoded.score("a", now.get()), 1e-6);
+        assertEquals(1, decoded.score("b", now.get()), 1e-6);
+    }
+
+    @Test
+    public void prefetchesTopFoldersOnceAndCountsHits() {
+        FolderPrefetcher prefetcher = prefetcher(FolderPrefetcher.BUDGET_BYTES_PER_HOUR);
+        open(prefetcher, "a", "a", "a", "b", "b", "c", "d");
+
+        prefetcher.prefetch(USER, FOLDERS);
+        // c and d were opened once each; d more recently
+        assertEquals(Arrays.asList("a", "b", "d"), prefetched);
+        prefetcher.prefetch(USER, FOLDERS);
+        assertEquals("warm folders are not fetched again", 3, prefetched.size());
+
+        assertTrue(prefetcher.onFolderOpened("a"));
+        assertFalse(prefetcher.onFolderOpened("c"));
+        now.addAndGet(FolderPrefetcher.WARM_FOR_MS);
+        assertFalse("warmth expires", prefetcher.onFolderOpened("b"));
+        assertEquals(1.0 / 10, prefetcher.hitRate(), 1e-9);
+    }
+
+    @Test
+    public void onlyFoldersStillOnScreenArePrefetched() {
+        FolderPrefetcher prefetcher = prefetcher(FolderPrefetcher.BUDGET_BYTES_PER_HOUR);
+        open(prefetcher, "a", "b");
+        prefetcher.prefetch(USER, Collections.singletonList("b"));
+        assertEquals(Collections.singletonList("b"), prefetched);
+    }
+
+    @Test
+    public void budgetLimitsPrefetchesAndRefills() {
+        FolderPrefetcher prefetcher = prefetcher(FolderPrefetcher.DEFAULT_PAGE_BYTES);
+        open(prefetcher, "a", "a", "b");
+        prefetcher.prefetch(USER, FOLDERS);
+        assertEquals(Collections.singletonList("a"), prefetched);
+
+        // The page was smaller than reserved, but not by enough for another default-sized page
+        prefetcher.prefetch(USER, FOLDERS);
+        assertEquals(1, prefetched.size());
+
+        // An hour refills the budget; a is no longer warm by then and goes first again
+        now.addAndGet(HOUR);
+        prefetcher.prefetch(USER, FOLDERS);
+        assertEquals(Arrays.asList("a", "a"), prefetched);
+    }
+
+    @Test
+    public void disabledPrefetcherStillRanks() {
+        FolderPrefetcher prefetcher = prefetcher(FolderPrefetcher.BUDGET_BYTES_PER_HOUR);
+        prefetcher.setEnabled(false);
+        open(prefetcher, "a");
+        prefetcher.prefetch(USER, FOLDERS);
+        assertTrue(prefetched.isEmpty());
+        prefetcher.setEnabled(true);
+        prefetcher.prefetch(USER, FOLDERS);
+        assertEquals(Collections.singletonList("a"), prefetched);
+    }
+
+    private FolderPrefetcher prefetcher(long budgetBytesPerHour) {
+        return new FolderPrefetcher(store, new FrecencyRanker(FolderPrefetcher.HALF_LIFE_MS), now::get,
+                budgetBytesPerHour, ranking -> { });
+    }
+
+    private void open(FolderPrefetcher prefetcher, String... folderIds) {
+        for (String id : folderIds) {
+            prefetcher.onFolderOpened(id);
+            now.addAndGet(1000);
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package com.example.notevault.sort;
+
+import com.example.notevault.Benchmark;
+import com.example.notevault.model.Folder;
+import com.example.notevault.model.Note;
+import com.example.notevault.store.InMemoryStore;
+import com.example.notevault.store.StoreListener;
+
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import java.text.Collator;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.assertEquals;
+
+public class CollatedListTest {
+
+    private static final Executor DIRECT = Runnable::run;
+
+    @Test
+    public void sortsByCollatorIgnoringCaseWithBlanksLast() {
+        CollatedList<Note> list = titles();
+        List<Note> sorted = list.update(Arrays.asList(
+                note("n1", "zebra", 1), note("n2", "\u00c9clair", 2), note("n3", "apple", 3),
+                note("n4", "", 4), note("n5", "Banana", 5), note("n6", null, 6), note("n7", "eclair", 7)));
+        // Accents only break ties between otherwise equal words
+        assertEquals(Arrays.asList("n3", "n5", "n7", "n2", "n1", "n4", "n6"), ids(sorted));
+    }
+
+    @Test
+    public void onlyChangedTitlesGetNewKeys() {
+        CollatedList<Note> list = titles();
+        List<Note> notes = new ArrayList<>(Arrays.asList(note("n1", "alpha", 1), note("n2", "beta", 2), note("n3", "gamma", 3)));
+        list.update(notes);
+        assertEquals(3, list.keysComputed());
+
+        // A new instance with the same title, as after an edit of the content
+        notes.set(0, note("n1", "alpha", 10));
+        List<Note> sorted = list.update(notes);
+        assertEquals(3, list.keysComputed());
+        assertEquals(10, sorted.get(0).getTimestamp().getTime());
+
+        notes.set(0, note("n1", "omega", 1));
+        assertEquals(Arrays.asList("n2", "n3", "n1"), ids(list.update(notes)));
+        assertEquals(4, list.keysComputed());
+    }
+
+    @Test
+    public void addedAndRemovedItemsKeepTheOrder() {
+        CollatedList<Note> list = titles();
+        Note b = note("b", "b", 1);
+        Note d = note("d", "d", 2);
+        list.update(Arrays.asList(b, d));
+        assertEquals(Arrays.asList("a", "b", "c", "d"), ids(list.update(Arrays.asList(note("c", "c", 3), d, b, note("a", "a", 4)))));
+        assertEquals(Arrays.asList("b", "d"), ids(list.update(Arrays.asList(d, b, b))));
+        assertEquals(Collections.emptyList(), ids(list.update(Collections.emptyList())));
+    }
+
+    @Test
+    public void storeListsNotesAndFoldersInTheQueriedOrder() {
+        InMemoryStore store = new InMemoryStore("u1", DIRECT, 0);
+        Folder red = new Folder("f1", "Red", "#FF0000", new Date(1));
+        Folder blue = new Folder("f2", "Blue", "#0000FF", new Date(2));
+        Note first = note("n1", "one", 1);
+        first.setColor("#FFFFFF");
+        first.setUpdatedAt(new Date(30));
+        Note second = note("n2", "two", 2);
+        second.setColor("#000000");
+        second.setUpdatedAt(new Date(20));
+        Note third = note("n3", "three", 3);
+        third.setColor("#FFFFFF");
+        third.setUpdatedAt(new Date(10));
+        store.seed("u1", Arrays.asList(red, blue), Arrays.asList(first, second, third));
+
+        assertEquals(Arrays.asList("n3", "n2", "n1"), ids(notes(store, SortMode.NEWEST)));
+        assertEquals(Arrays.asList("n1", "n2", "n3"), ids(notes(store, SortMode.LAST_EDITED)));
+        assertEquals(Arrays.asList("n2", "n3", "n1"), ids(notes(store, SortMode.COLOR)));
+        assertEquals("title lists are queried newest first", Arrays.asList("n3", "n2", "n1"), ids(notes(store, SortMode.TITLE)));
+
+        List<List<Folder>> folders = new ArrayList<>();
+        store.listenToFolders("u1", SortMode.COLOR, DIRECT, recorder(folders));
+        assertEquals("f2", folders.get(0).get(0).getId());
+        assertEquals(SortMode.NEWEST, SortMode.LAST_EDITED.forFolders());
+        assertEquals(SortMode.COLOR, SortMode.fromName("COLOR"));
+        assertEquals(SortMode.NEWEST, SortMode.fromName("gone"));
+    }
+
+    @Test
+    public void renamesInALargeListOnlyComputeTheirKeys() {
+        resortAfterRenames(2_000, 50);
+    }
+
+    @Test
+    @Category(Benchmark.class)
+    public void resortLatencyBenchmark() {
+        int count = 20_000;
+        int rounds = 200;
+        long[] nanos = resortAfterRenames(count, rounds);
+        System.out.printf("CollatedList: %d notes, full collator sort %.1f ms, first update %.1f ms, one renamed %.2f ms%n",
+                count, nanos[0] / 1e6, nanos[1] / 1e6, nanos[2] / 1e6 / rounds);
+    }
+
+    /**
+     * Sort {@code count} random titles, then rename one at a time for {@code rounds} rounds.
+     * Returns the nanoseconds a plain collator sort, the first update and all renames took.
+     */
+    private static long[] resortAfterRenames(int count, int rounds) {
+        Random random = new Random(7);
+        List<Note> notes = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) notes.add(note("n" + i, randomTitle(random), i));
+        Collator collator = Collator.getInstance(Locale.US);
+        collator.setStrength(Collator.SECONDARY);
+
+        // What sorting on every snapshot without kept keys costs
+        int sorts = 5;
+        long plainStart = System.nanoTime();
+        for (int i = 0; i < sorts; i++) {
+            List<Note> copy = new ArrayList<>(notes);
+            copy.sort((a, b) -> collator.compare(a.getTitle(), b.getTitle()));
+        }
+        long plain = (System.nanoTime() - plainStart) / sorts;
+
+        CollatedList<Note> list = new CollatedList<>(collator, Note::getId, Note::getTitle);
+        long firstStart = System.nanoTime();
+        list.update(notes);
+        long first = System.nanoTime() - firstStart;
+
+        long renameTotal = 0;
+        List<Note> sorted = null;
+        for (int i = 0; i < rounds; i++) {
+            int at = random.nextInt(count);
+            notes.set(at, note("n" + at, randomTitle(random), at));
+            long start = System.nanoTime();
+            sorted = list.update(notes);
+            renameTotal += System.nanoTime() - start;
+        }
+        assertEquals(count, sorted.size());
+        for (int i = 1; i < sorted.size(); i++) {
+            if (collator.compare(sorted.get(i - 1).getTitle(), sorted.get(i).getTitle()) > 0) {
+                throw new AssertionError("out of order at " + i);
+            }
+        }
+        assertEquals(count + rounds, list.keysComputed());
+        return new long[]{plain, first, renameTotal};
+    }
+
+    private static CollatedList<Note> titles() {
+        return new CollatedList<>(Locale.US, Note::getId, Note::getTitle);
+    }
+
+    private static List<Note> notes(InMemoryStore store, SortMode sort) {
+        List<List<Note>> deliveries = new ArrayList<>();
+        store.listenToNotes("u1", "f1", sort, DIRECT, recorder(deliveries)).remove();
+        return deliveries.get(0);
+    }
+
+    private static String randomTitle(Random random) {
+        StringBuilder sb = new StringBuilder();
+        int words = 1 + random.nextInt(4);
+        for (int w = 0; w < words; w++) {
+            if (w > 0) sb.append(' ');
+            int length = 3 + random.nextInt(8);
+            for (int i = 0; i < length; i++) {
+                char c = (char) ('a' + random.nextInt(26));
+                sb.append(i == 0 && random.nextBoolean() ? Character.toUpperCase(c) : c);
+            }
+        }
+        return sb.toString();
+    }
+
+    private static Note note(String id, String title, long time) {
+        Note note = new Note(id, title, "", "#FFFFFF", new Date(time));
+        note.setFolderId("f1");
+        note.setUserId("u1");
+        return note;
+    }
+
+    private static <T> StoreListener<T> recorder(List<List<T>> deliveries) {
+        return new StoreListener<T>() {
+            @Override
+            public void onChanged(List<T> items) {
+                deliveries.add(items);
+            }
+
+            @Override
+            public void onError(String message) {
+                throw new AssertionError(message);
+            }
+        };
+    }
+
+    private static List<String> ids(List<Note> notes) {
+        List<String> ids = new ArrayList<>();
+        for (Note note : notes) ids.add(note.getId());
+        return ids;
+    }
+}
@@ -0,0 +1,233 @@
+package com.example.notevault.sort;
+
+import com.example.notevault.Benchmark;
+import com.example.notevault.model.Note;
+import com.example.notevault.store.InMemoryStore;
+import com.example.notevault.store.StoreListener;
+
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ManualOrderTest {
+
+    private static final Executor DIRECT = Runnable::run;
+    private static final ManualOrder<Note> ORDER = new ManualOrder<>(Note::getId, Note::getRank, Note::getTimestamp);
+
+    @Test
+    public void keysFallStrictlyBetweenTheirBounds() {
+        assertEquals("V", RankKeys.between(null, null));
+        assertEquals("h", RankKeys.between("a", "o"));
+        String key = RankKeys.between("a", "b");
+        assertTrue("a".compareTo(key) < 0 && key.compareTo("b") < 0);
+        key = RankKeys.between("a", "a1");
+        assertTrue("a".compareTo(key) < 0 && key.compareTo("a1") < 0);
+        assertTrue(RankKeys.between(null, "1").compareTo("1") < 0);
+        assertTrue(RankKeys.between("z", null).compareTo("z") > 0);
+        assertTrue(RankKeys.isValid(RankKeys.between("0001", "0002")));
+
+        List<String> spread = RankKeys.spread("a", "b", 100, RankKeys.MAX_LENGTH);
+        for (int i = 0; i < spread.size(); i++) {
+            String lo = i > 0 ? spread.get(i - 1) : "a";
+            assertTrue(lo.compareTo(spread.get(i)) < 0 && RankKeys.isValid(spread.get(i)));
+        }
+        assertTrue(spread.get(99).compareTo("b") < 0);
+        assertNull(RankKeys.spread("a", "a0001", 1_000_000, 5));
+        assertTrue(!RankKeys.isValid("a0") && !RankKeys.isValid("") && !RankKeys.isValid("a-") && !RankKeys.isValid(null));
+    }
+
+    @Test
+    public void creationKeysPutNewerItemsFirst() {
+        String older = RankKeys.forCreation(1_000);
+        String newer = RankKeys.forCreation(1_001);
+        assertTrue(RankKeys.isValid(older) && RankKeys.isValid(newer));
+        assertTrue(newer.compareTo(older) < 0);
+        assertTrue(older.length() <= RankKeys.CREATION_LENGTH);
+        assertTrue(RankKeys.forCreation(System.currentTimeMillis()).compareTo("2") < 0);
+    }
+
+    @Test
+    public void unrankedItemsSortByCreationTimeAndMoveWithOneWrite() {
+        List<Note> notes = ORDER.sorted(Arrays.asList(note("u1", null, 1000), note("u2", "bad0", 2000), note("r1", "k", 500)));
+        assertEquals(Arrays.asList("u2", "u1", "r1"), ids(notes));
+
+        // The neighbours' ranks are implied by their creation times, so nothing else is written
+        Map<String, String> writes = ORDER.move(notes, 2, 1);
+        assertEquals(Collections.singletonList("r1"), new ArrayList<>(writes.keySet()));
+        List<Note> moved = apply(notes, writes);
+        assertEquals(Arrays.asList("u2", "r1", "u1"), ids(ORDER.sorted(moved)));
+
+        // An item with neither rank nor creation time comes first, and gets a key once something lands above it
+        List<Note> withUndated = new ArrayList<>(moved);
+        withUndated.add(note("none", null, null));
+        withUndated = ORDER.sorted(withUndated);
+        assertEquals(Arrays.asList("none", "u2", "r1", "u1"), ids(withUndated));
+        writes = ORDER.move(withUndated, 3, 0);
+        assertEquals(Arrays.asList("u1", "none"), new ArrayList<>(writes.keySet()));
+        assertEquals(Arrays.asList("u1", "none", "u2", "r1"), ids(ORDER.sorted(apply(withUndated, writes))));
+    }
+
+    @Test
+    public void keysOutOfOrderAreSpreadAgain() {
+        // Two devices put a and b at the same place, so b's rank sorts before c's but equals a's
+        List<Note> notes = ORDER.sorted(Arrays.asList(note("a", "k"), note("b", "k"), note("c", "m"), note("d", "n")));
+        assertEquals(Arrays.asList("a", "b", "c", "d"), ids(notes));
+        Map<String, String> writes = ORDER.move(notes, 3, 1);
+        List<Note> moved = ORDER.sorted(apply(notes, writes));
+        assertEquals(Arrays.asList("a", "d", "b", "c"), ids(moved));
+    }
+
+    @Test
+    public void repeatedMovesIntoOneGapStayShort() {
+        List<Note> notes = ranked(100);
+        int writes = 0;
+        int moves = 2_000;
+        for (int i = 0; i < moves; i++) {
+            // Always the last note in between the first two: the worst case for key length
+            Map<String, String> ranks = ORDER.move(notes, notes.size() - 1, 1);
+            writes += ranks.size();
+            notes = ORDER.sorted(apply(notes, ranks));
+            for (String key : ranks.values()) assertTrue(key.length() <= RankKeys.MAX_LENGTH);
+        }
+        assertOrdered(notes);
+        assertTrue("writes per move " + (double) writes / moves, writes < moves * 2);
+    }
+
+    @Test
+    public void randomMovesInALargeListCostAboutOneWriteEach() {
+        randomMoves(1_000, 1_000);
+    }
+
+    @Test
+    @Category(Benchmark.class)
+    public void reorderWritesBenchmark() {
+        int count = 10_000;
+        int moves = 5_000;
+        long[] result = randomMoves(count, moves);
+        System.out.printf("ManualOrder: %d notes, %d random moves, %.3f writes per move, longest key %d, %.2f ms per move with re-sort%n",
+                count, moves, (double) result[0] / moves, result[1], result[2] / 1e6 / moves);
+    }
+
+    /**
+     * Move one item of {@code count} unranked ones to the top, then make {@code moves} random
+     * moves. Returns the writes, the longest key and the nanoseconds the random moves took.
+     */
+    private static long[] randomMoves(int count, int moves) {
+        List<Note> notes = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) notes.add(note("n" + i, null, 1_000_000L - i));
+        // First reorder of a list nobody ranked yet: the creation times imply every other key
+        Map<String, String> first = ORDER.move(ORDER.sorted(notes), count - 1, 0);
+        assertEquals(1, first.size());
+        notes = ORDER.sorted(apply(notes, first));
+
+        Random random = new Random(11);
+        int writes = 0;
+        int maxLength = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < moves; i++) {
+            int from = random.nextInt(count);
+            int to = random.nextInt(count);
+            if (from == to) continue;
+            Map<String, String> ranks = ORDER.move(notes, from, to);
+            writes += ranks.size();
+            for (String key : ranks.values()) maxLength = Math.max(maxLength, key.length());
+            List<Note> expected = new ArrayList<>(notes);
+            expected.add(to, expected.remove(from));
+            notes = ORDER.sorted(apply(notes, ranks));
+            if (i % 500 == 0) assertEquals(ids(expected), ids(notes));
+        }
+        long elapsed = System.nanoTime() - start;
+        assertTrue(maxLength <= RankKeys.MAX_LENGTH);
+        assertTrue("writes per move " + (double) writes / moves, writes <= moves * 1.01);
+        return new long[]{writes, maxLength, elapsed};
+    }
+
+    @Test
+    public void storeSavesRanksAsNoteWrites() {
+        InMemoryStore store = new InMemoryStore("u1", DIRECT, 0);
+        Note first = note("n1", null);
+        first.setUpdatedAt(new Date(5));
+        store.seed("u1", Collections.emptyList(), Arrays.asList(first, note("n2", null)));
+        List<List<Note>> deliveries = new ArrayList<>();
+        store.listenToNotes("u1", "f1", SortMode.MANUAL, DIRECT, new StoreListener<Note>() {
+            @Override
+            public void onChanged(List<Note> items) {
+                deliveries.add(items);
+            }
+
+            @Override
+            public void onError(String message) {
+                throw new AssertionError(message);
+            }
+        });
+        Map<String, String> ranks = new HashMap<>();
+        ranks.put("n1", "g");
+        ranks.put("gone", "h");
+        store.rankNotes("u1", "f1", ranks, (ok, msg) -> assertTrue(ok));
+
+        List<Note> latest = deliveries.get(deliveries.size() - 1);
+        Note ranked = latest.get(0).getId().equals("n1") ? latest.get(0) : latest.get(1);
+        assertEquals("g", ranked.getRank());
+        assertTrue("a reorder is a write that catch-up sees", ranked.getChangedAt().getTime() > 5);
+        assertEquals("but not an edit", 5, ranked.getUpdatedAt().getTime());
+        assertEquals(Arrays.asList("n2", "n1"), ids(ORDER.sorted(latest)));
+    }
+
+    private static List<Note> ranked(int count) {
+        List<Note> notes = new ArrayList<>(count);
+        List<String> keys = RankKeys.spread(null, null, count, RankKeys.MAX_LENGTH);
+        for (int i = 0; i < count; i++) notes.add(note("n" + i, keys.get(i)));
+        return notes;
+    }
+
+    /** Copies of {@code notes} with the written ranks, as the store would deliver them. */
+    private static List<Note> apply(List<Note> notes, Map<String, String> ranks) {
+        List<Note> result = new ArrayList<>(notes.size());
+        for (Note note : notes) {
+            String rank = ranks.get(note.getId());
+            result.add(rank != null ? note(note.getId(), rank, note.getTimestamp()) : note);
+        }
+        return result;
+    }
+
+    private static void assertOrdered(List<Note> notes) {
+        for (int i = 1; i < notes.size(); i++) {
+            assertTrue("ranks out of order at " + i, notes.get(i - 1).getRank().compareTo(notes.get(i).getRank()) < 0);
+        }
+    }
+
+    private static Note note(String id, String rank) {
+        return note(id, rank, new Date(1));
+    }
+
+    private static Note note(String id, String rank, long createdAt) {
+        return note(id, rank, new Date(createdAt));
+    }
+
+    private static Note note(String id, String rank, Date createdAt) {
+        Note note = new Note(id, id, "", "#FFFFFF", createdAt);
+        note.setFolderId("f1");
+        note.setUserId("u1");
+        note.setRank(rank);
+        return note;
+    }
+
+    private static List<String> ids(List<Note> notes) {
+        List<String> ids = new ArrayList<>();
+        for (Note note : notes) ids.add(note.getId());
+        return ids;
+    }
+}
@@ -0,0 +1,362 @@
+package com.example.notevault.store;
+
+import com.example.notevault.firebase.FirebaseManager;
+import com.example.notevault.model.Folder;
+import com.example.notevault.model.Note;
+import com.example.notevault.sort.SortMode;
+import com.example.notevault.utils.NoteCipher;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+import javax.crypto.SecretKey;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class InMemoryStoreTest {
+
+    private static final String USER = "user-1";
+    private static final Executor DIRECT = Runnable::run;
+
+    private InMemoryStore store;
+    private final List<String> results = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        store = new InMemoryStore(USER, DIRECT, 0);
+        store.seed(USER, Collections.singletonList(new Folder("f1", "Work", "#FF6B6B", new Date(1000))),
+                Arrays.asList(note("n1", "f1", "first", 1000), note("n2", "f1", "second", 2000)));
+    }
+
+    @Test
+    public void listenerGetsCurrentResultNewestFirstAndEveryChange() {
+        List<List<Note>> deliveries = new ArrayList<>();
+        store.listenToNotes(USER, "f1", SortMode.NEWEST, DIRECT, recorder(deliveries));
+        assertEquals(1, deliveries.size());
+        assertEquals(Arrays.asList("n2", "n1"), ids(deliveries.get(0)));
+
+        store.addOrUpdateNote(USER, "f1", note("n3", "f1", "third", 3000), this::record);
+        assertEquals(2, deliveries.size());
+        assertEquals(Arrays.asList("n3", "n2", "n1"), ids(deliveries.get(1)));
+        assertEquals(Collections.singletonList("true Note saved"), results);
+    }
+
+    @Test
+    public void listenersOnlyHearAboutWritesTheyMatch() {
+        List<List<Note>> deliveries = new ArrayList<>();
+        store.listenToNotes(USER, "f1", SortMode.NEWEST, DIRECT, recorder(deliveries));
+        store.addOrUpdateNote(USER, "f2", note("n9", "f2", "elsewhere", 5000), null);
+        assertEquals(1, deliveries.size());
+    }
+
+    @Test
+    public void removedSubscriptionGetsNothingMore() {
+        List<List<Note>> deliveries = new ArrayList<>();
+        Subscription subscription = store.listenToNotes(USER, "f1", SortMode.NEWEST, DIRECT, recorder(deliveries));
+        subscription.remove();
+        store.hideNote(USER, "f1", "n1", null);
+        assertEquals(1, deliveries.size());
+    }
+
+    @Test
+    public void deliveredNotesAreCopies() {
+        List<List<Note>> deliveries = new ArrayList<>();
+        store.listenToNotes(USER, "f1", SortMode.NEWEST, DIRECT, recorder(deliveries));
+        deliveries.get(0).get(0).setTitle("changed by a caller");
+
+        List<List<Note>> again = new ArrayList<>();
+        store.listenToNotes(USER, "f1", SortMode.NEWEST, DIRECT, recorder(again));
+        assertEquals("second", again.get(0).get(0).getTitle());
+    }
+
+    @Test
+    public void recycleAndRestoreMovesNoteBetweenListeners() {
+        List<List<Note>> deleted = new ArrayList<>();
+        store.listenToDeletedNotes(USER, DIRECT, recorder(deleted));
+        assertTrue(deleted.get(0).isEmpty());
+
+        store.moveNoteToRecycleBin(USER, "f1", "n1", this::record);
+        Note recycled = deleted.get(1).get(0);
+        assertEquals("n1", recycled.getId());
+        assertNotNull(recycled.getDeletedAt());
+
+        store.restoreNote(USER, "f1", "n1", this::record);
+        assertTrue(deleted.get(2).isEmpty());
+        assertEquals(Arrays.asList("true Moved to Recycle Bin", "true Restored"), results);
+    }
+
+    @Test
+    public void updatingMissingNoteFails() {
+        store.hideNote(USER, "f1", "missing", this::record);
+        assertEquals(Collections.singletonList("false Note not found"), results);
+    }
+
+    @Test
+    public void moveNoteReindexesByFolder() {
+        List<List<Note>> target = new ArrayList<>();
+        store.listenToNotes(USER, "f2", SortMode.NEWEST, DIRECT, recorder(target));
+        store.moveNoteToFolder(USER, "f1", "n1", "f2", null);
+        assertEquals(Collections.singletonList("n1"), ids(target.get(1)));
+    }
+
+    @Test
+    public void lockAndUnlockFolderRoundTripsNoteContent() throws Exception {
+        byte[] salt = NoteCipher.newSalt();
+        SecretKey key = NoteCipher.deriveKey("secret", salt);
+        byte[] check = NoteCipher.createKeyCheck(key);
+
+        store.lockFolder(USER, "f1", key, salt, check, this::record);
+        List<List<Note>> locked = new ArrayList<>();
+        store.listenToNotes(USER, "f1", SortMode.NEWEST, DIRECT, recorder(locked)).remove();
+        for (Note note : locked.get(0)) {
+            assertEquals("", note.getContent());
+            assertNotNull(note.getEncryptedContent());
+        }
+
+        store.unlockFolder(USER, "f1", key, salt, this::record);
+        List<List<Note>> unlocked = new ArrayList<>();
+        store.listenToNotes(USER, "f1", SortMode.NEWEST, DIRECT, recorder(unlocked));
+        assertEquals("second", unlocked.get(0).get(0).getContent());
+        assertNull(unlocked.get(0).get(0).getEncryptedContent());
+        assertEquals(Arrays.asList("true Locked", "true Unlocked"), results);
+    }
+
+    @Test
+    public void conditionalSaveMergesWhenNoteChangedSinceBase() {
+        Date base = currentNote("n1").getUpdatedAt();
+        Note other = currentNote("n1");
+        other.setContent("from another device");
+        other.setUpdatedAt(new Date(base.getTime() + 1));
+        store.addOrUpdateNote(USER, "f1", other, null);
+
+        Note mine = currentNote("n1");
+        mine.setContent("mine");
+        mine.setUpdatedAt(base);
+        List<String> outcome = new ArrayList<>();
+        store.saveNoteIfUnchanged(USER, "f1", mine, base, remote -> {
+            remote.setContent(remote.getContent() + " + mine");
+            return remote;
+        }, new FirebaseManager.NoteSaveCallback() {
+            @Override
+            public void onSaved(String message, int attempts) {
+                outcome.add(message);
+            }
+
+            @Override
+            public void onConflict(Note remote) {
+                outcome.add("conflict");
+            }
+
+            @Override
+            public void onError(String message) {
+                outcome.add("error " + message);
+            }
+        });
+        assertEquals(Collections.singletonList("Merged with changes from another device"), outcome);
+        assertEquals("from another device + mine", currentNote("n1").getContent());
+    }
+
+    @Test
+    public void editKeepsRankAndPinSetElsewhere() {
+        Note edit = currentNote("n1");
+        store.pinNote(USER, "f1", "n1", true, null);
+        store.rankNotes(USER, "f1", Collections.singletonMap("n1", "k"), null);
+
+        edit.setContent("edited");
+        store.addOrUpdateNote(USER, "f1", edit, null);
+        Note saved = currentNote("n1");
+        assertEquals("edited", saved.getContent());
+        assertEquals("k", saved.getRank());
+        assertTrue(saved.isPinned());
+    }
+
+    @Test
+    public void permanentDeleteFolderRemovesItsNotes() {
+        List<List<Folder>> folders = new ArrayList<>();
+        store.listenToFolders(USER, SortMode.NEWEST, DIRECT, new StoreListener<Folder>() {
+            @Override
+            public void onChanged(List<Folder> items) {
+                folders.add(items);
+            }
+
+            @Override
+            public void onError(String message) {
+            }
+        });
+        store.permanentDeleteFolder(USER, "f1", this::record);
+        assertTrue(folders.get(folders.size() - 1).isEmpty());
+        assertEquals(Collections.singletonList("true Deleted permanently"), results);
+
+        List<List<Note>> notes = new ArrayList<>();
+        store.listenToNotes(USER, "f1", SortMode.NEWEST, DIRECT, recorder(notes));
+        assertTrue(notes.get(0).isEmpty());
+    }
+
+    @Test
+    public void acknowledgementOnlyClearsPendingWrites() {
+        List<Runnable> acks = new ArrayList<>();
+        store = new InMemoryStore(USER, acks::add, 0);
+        store.seed(USER, Collections.emptyList(), Arrays.asList(note("n1", "f1", "first", 1000), note("n2", "f1", "second", 2000)));
+        List<List<Note>> deliveries = new ArrayList<>();
+        List<Set<String>> pending = new ArrayList<>();
+        store.listenToNotes(USER, "f1", SortMode.NEWEST, DIRECT, new StoreListener<Note>() {
+            @Override
+            public void onChanged(List<Note> items) {
+                deliveries.add(items);
+            }
+
+            @Override
+            public void onError(String message) {
+                throw new AssertionError(message);
+            }
+
+            @Override
+            public void onPendingWrites(Set<String> ids) {
+                pending.add(ids);
+            }
+        });
+        assertTrue("seeded notes are not pending", pending.isEmpty());
+
+        store.hideNote(USER, "f1", "n1", this::record);
+        store.addOrUpdateNote(USER, "f1", note("n2", "f1", "edited", 3000), this::record);
+        assertEquals(3, deliveries.size());
+        assertEquals(Arrays.asList(Collections.singleton("n1"), new HashSet<>(Arrays.asList("n1", "n2"))), pending);
+
+        for (Runnable ack : acks) ack.run();
+        assertEquals("acknowledging sends no new result", 3, deliveries.size());
+        assertEquals(Collections.emptySet(), pending.get(pending.size() - 1));
+        assertEquals(Arrays.asList("true Hidden", "true Note saved"), results);
+    }
+
+    @Test
+    public void laterResultsComeWithWhatChanged() {
+        List<String> changes = new ArrayList<>();
+        store.listenToNotes(USER, "f1", SortMode.NEWEST, DIRECT, new StoreListener<Note>() {
+            @Override
+            public void onChanged(List<Note> items) {
+                changes.add("result " + items.size());
+            }
+
+            @Override
+            public void onError(String message) {
+                throw new AssertionError(message);
+            }
+
+            @Override
+            public void onItemsChanged(List<Note> changed, Set<String> removedIds) {
+                changes.add("changed " + ids(changed) + " removed " + new ArrayList<>(removedIds));
+            }
+        });
+        store.addOrUpdateNote(USER, "f1", note("n2", "f1", "edited", 3000), null);
+        store.moveNoteToFolder(USER, "f1", "n1", "f2", null);
+        assertEquals(Arrays.asList("result 2", "changed [n2] removed []", "result 2",
+                "changed [] removed [n1]", "result 1"), changes);
+    }
+
+    @Test
+    public void tagListenersMatchTaggedNotesAcrossFolders() {
+        Note tagged = note("n3", "f2", "trip", 3000);
+        tagged.setTags(Arrays.asList("travel", "work"));
+        store.addOrUpdateNote(USER, "f2", tagged, null);
+        List<List<Note>> anyTag = new ArrayList<>();
+        List<List<Note>> work = new ArrayList<>();
+        store.listenToTaggedNotes(USER, DIRECT, recorder(anyTag));
+        store.listenToNotesWithTags(USER, Collections.singletonList("work"), DIRECT, recorder(work));
+        assertEquals(Collections.singletonList("n3"), ids(anyTag.get(0)));
+        assertEquals(Arrays.asList("travel", "work"), anyTag.get(0).get(0).getTags());
+
+        Note retagged = note("n1", "f1", "first", 1000);
+        retagged.setTags(Collections.singletonList("work"));
+        store.addOrUpdateNote(USER, "f1", retagged, null);
+        assertEquals(Arrays.asList("n3", "n1"), ids(work.get(1)));
+        assertEquals(Arrays.asList("n3", "n1"), ids(anyTag.get(1)));
+    }
+
+    @Test
+    public void recentNotesAreTheLastEditedAcrossFoldersUpToTheLimit() {
+        List<List<Note>> recent = new ArrayList<>();
+        store.listenToRecentNotes(USER, 2, DIRECT, recorder(recent));
+        assertEquals(Arrays.asList("n2", "n1"), ids(recent.get(0)));
+
+        store.addOrUpdateNote(USER, "f2", note("n3", "f2", "elsewhere", 3000), null);
+        assertEquals(Arrays.asList("n3", "n2"), ids(recent.get(1)));
+
+        // Hidden notes leave the feed and the next most recent one takes their place
+        store.hideNote(USER, "f2", "n3", null);
+        assertEquals(Arrays.asList("n2", "n1"), ids(recent.get(2)));
+
+        Note edited = note("n1", "f1", "edited", 1000);
+        edited.setUpdatedAt(new Date(4000));
+        store.addOrUpdateNote(USER, "f1", edited, null);
+        assertEquals(Arrays.asList("n1", "n2"), ids(recent.get(3)));
+    }
+
+    @Test
+    public void pinningAndHidingAreCaughtUpButAreNotEdits() {
+        List<List<Note>> recent = new ArrayList<>();
+        store.listenToRecentNotes(USER, 2, DIRECT, recorder(recent));
+        Date since = new Date(System.currentTimeMillis() - 1000);
+        store.pinNote(USER, "f1", "n1", true, null);
+        store.hideNote(USER, "f1", "n2", null);
+        store.unhideNote(USER, "f1", "n2", null);
+
+        assertEquals("n1 did not move ahead of n2", Arrays.asList("n2", "n1"), ids(recent.get(recent.size() - 1)));
+        assertEquals(1000, currentNote("n1").getUpdatedAt().getTime());
+        List<List<Note>> changed = new ArrayList<>();
+        store.listenToNotesChangedSince(USER, since, DIRECT, recorder(changed));
+        assertEquals(new HashSet<>(Arrays.asList("n1", "n2")), new HashSet<>(ids(changed.get(0))));
+    }
+
+    private Note currentNote(String id) {
+        List<List<Note>> deliveries = new ArrayList<>();
+        store.listenToNotes(USER, "f1", SortMode.NEWEST, DIRECT, recorder(deliveries)).remove();
+        for (Note note : deliveries.get(0)) {
+            if (note.getId().equals(id)) return note;
+        }
+        throw new AssertionError("no note " + id);
+    }
+
+    private void record(boolean success, String message) {
+        results.add(success + " " + message);
+    }
+
+    private static StoreListener<Note> recorder(List<List<Note>> deliveries) {
+        return new StoreListener<Note>() {
+            @Override
+            public void onChanged(List<Note> items) {
+                deliveries.add(items);
+            }
+
+            @Override
+            public void onError(String message) {
+                throw new AssertionError(message);
+            }
+        };
+    }
+
+    private static List<String> ids(List<Note> notes) {
+        List<String> ids = new ArrayList<>();
+        for (Note note : notes) ids.add(note.getId());
+        return ids;
+    }
+
+    private static Note note(String id, String folderId, String content, long time) {
+        Note note = new Note(id, content, content, "#4ECDC4", new Date(time));
+        note.setUserId(USER);
+        note.setFolderId(folderId);
+        note.setUpdatedAt(new Date(time));
+        return note;
+    }
+}
@@ -0,0 +1,206 @@
+package com.example.notevault.store;
+
+import com.example.notevault.model.Folder;
+import com.example.notevault.model.Note;
+import com.example.notevault.sort.SortMode;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PausableQueryTest {
+
+    private static final String USER = "user-1";
+    private static final Executor DIRECT = Runnable::run;
+    private static final long HOUR = 60 * 60 * 1000;
+    /** The newest seeded note was updated an hour ago, the others an hour apart before it. */
+    private static final long SEEDED_AT = System.currentTimeMillis() - HOUR;
+
+    private InMemoryStore store;
+    private final List<List<Note>> deliveries = new ArrayList<>();
+    private final List<Integer> catchUpSizes = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        store = new InMemoryStore(USER, DIRECT, 0);
+        List<Note> notes = new ArrayList<>();
+        for (int i = 0; i < 100; i++) notes.add(note("n" + i, "f1", SEEDED_AT - (99 - i) * HOUR));
+        notes.add(note("other", "f2", SEEDED_AT - 200 * HOUR));
+        store.seed(USER, Arrays.asList(new Folder("f1", "Work", "#FF6B6B", new Date(1)),
+                new Folder("f2", "Home", "#FF6B6B", new Date(2))), notes);
+    }
+
+    @Test
+    public void resumeOnlyFetchesNotesUpdatedWhilePaused() {
+        PausableQuery<Note> query = notesOf("f1");
+        query.resume();
+        assertEquals(100, last().size());
+
+        query.pause();
+        assertTrue(query.isPaused());
+        store.addOrUpdateNote(USER, "f1", note("new", "f1", System.currentTimeMillis()), null);
+        store.hideNote(USER, "f1", "n5", null);
+        store.moveNoteToFolder(USER, "f1", "n6", "f2", null);
+        store.moveNoteToFolder(USER, "f2", "other", "f1", null);
+        assertEquals("nothing is delivered while paused", 1, deliveries.size());
+
+        query.resume();
+        assertEquals(1, query.catchUps());
+        // Only the four changes made since the pause; the newest kept note is an hour older
+        assertEquals(Collections.singletonList(4), catchUpSizes);
+        List<Note> caughtUp = last();
+        assertEquals(101, caughtUp.size());
+        assertEquals("new", caughtUp.get(0).getId());
+        assertFalse(ids(caughtUp).contains("n6"));
+        assertTrue(ids(caughtUp).contains("other"));
+        assertTrue(byId(caughtUp, "n5").isHidden());
+
+        // The catch-up listener keeps delivering the merged list until the next pause
+        store.moveNoteToRecycleBin(USER, "f1", "n7", null);
+        assertTrue(byId(last(), "n7").isDeleted());
+        assertEquals(101, last().size());
+    }
+
+    @Test
+    public void resultMatchesFullQueryAfterCatchingUp() {
+        PausableQuery<Note> query = notesOf("f1");
+        query.resume();
+        query.pause();
+        for (int i = 0; i < 10; i++) store.hideNote(USER, "f1", "n" + i * 3, null);
+        store.moveNoteToFolder(USER, "f1", "n1", "f2", null);
+        query.resume();
+
+        List<List<Note>> full = new ArrayList<>();
+        Subscription check = store.listenToNotes(USER, "f1", SortMode.NEWEST, DIRECT, recorder(full));
+        assertEquals(ids(full.get(0)), ids(last()));
+        check.remove();
+    }
+
+    @Test
+    public void withoutCatchUpResumeListensAgain() {
+        PausableQuery<Note> query = new PausableQuery<>(
+                listener -> store.listenToNotes(USER, "f1", SortMode.NEWEST, DIRECT, listener), recorder(deliveries));
+        query.resume();
+        query.pause();
+        store.hideNote(USER, "f1", "n1", null);
+        query.resume();
+        assertEquals(2, deliveries.size());
+        assertEquals(0, query.catchUps());
+        assertTrue(byId(last(), "n1").isHidden());
+    }
+
+    @Test
+    public void restartListensInFullAndPausedQueriesStayPaused() {
+        ListenerPauser pauser = new ListenerPauser();
+        PausableQuery<Note> query = notesOf("f1");
+        pauser.attach(query);
+        pauser.restartAll();
+        assertEquals(2, deliveries.size());
+        assertEquals(100, last().size());
+
+        pauser.setForeground(false);
+        pauser.restartAll();
+        assertTrue(query.isPaused());
+        pauser.setForeground(true);
+        assertEquals("the kept result was dropped, so it listens in full", 0, query.catchUps());
+        assertEquals(100, last().size());
+    }
+
+    @Test
+    public void removedQueryStaysDetached() {
+        PausableQuery<Note> query = notesOf("f1");
+        query.resume();
+        query.remove();
+        query.resume();
+        store.hideNote(USER, "f1", "n1", null);
+        assertEquals(1, deliveries.size());
+    }
+
+    @Test
+    public void pauserFollowsForegroundUnlessDisabled() {
+        ListenerPauser pauser = new ListenerPauser();
+        pauser.setForeground(false);
+        PausableQuery<Note> query = notesOf("f1");
+        Subscription subscription = pauser.attach(query);
+        assertTrue("attached in the background, it waits for the foreground", deliveries.isEmpty());
+
+        pauser.setForeground(true);
+        assertEquals(1, deliveries.size());
+        pauser.setForeground(false);
+        assertTrue(query.isPaused());
+
+        pauser.setEnabled(false);
+        assertFalse(query.isPaused());
+        pauser.setEnabled(true);
+        assertTrue(query.isPaused());
+
+        subscription.remove();
+        pauser.setForeground(true);
+        assertTrue(query.isPaused());
+    }
+
+    private PausableQuery<Note> notesOf(String folderId) {
+        return new PausableQuery<>(listener -> store.listenToNotes(USER, folderId, SortMode.NEWEST, DIRECT, listener), recorder(deliveries))
+                .catchUpWith((since, listener) -> store.listenToNotesChangedSince(USER, since, DIRECT, new StoreListener<Note>() {
+                    @Override
+                    public void onChanged(List<Note> items) {
+                        catchUpSizes.add(items.size());
+                        listener.onChanged(items);
+                    }
+
+                    @Override
+                    public void onError(String message) {
+                        listener.onError(message);
+                    }
+                }), Note::getId, note -> folderId.equals(note.getFolderId()), NoteStore.NEWEST_FIRST);
+    }
+
+    private List<Note> last() {
+        return deliveries.get(deliveries.size() - 1);
+    }
+
+    private static StoreListener<Note> recorder(List<List<Note>> deliveries) {
+        return new StoreListener<Note>() {
+            @Override
+            public void onChanged(List<Note> items) {
+                deliveries.add(items);
+            }
+
+            @Override
+            public void onError(String message) {
+                throw new AssertionError(message);
+            }
+        };
+    }
+
+    private static Note byId(List<Note> notes, String id) {
+        for (Note note : notes) {
+            if (note.getId().equals(id)) return note;
+        }
+        throw new AssertionError("No note " + id);
+    }
+
+    private static List<String> ids(List<Note> notes) {
+        List<String> ids = new ArrayList<>();
+        for (Note note : notes) ids.add(note.getId());
+        return ids;
+    }
+
+    private static Note note(String id, String folderId, long time) {
+        Note note = new Note(id, id, id, "#4ECDC4", new Date(time));
+        note.setUserId(USER);
+        note.setFolderId(folderId);
+        note.setUpdatedAt(new Date(time));
+        return note;
+    }
+}
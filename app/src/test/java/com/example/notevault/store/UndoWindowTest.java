@@ -0,0 +1,197 @@
+package com.example.notevault.store;
+
+import com.example.notevault.model.Folder;
+import com.example.notevault.model.Note;
+import com.example.notevault.sort.SortMode;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class UndoWindowTest {
+
+    private static final String USER = "user-1";
+    private static final long WINDOW = 4_000;
+
+    private static final class ManualTimer implements UndoWindow.Timer {
+        private static final class Task {
+            final long at;
+            final long order;
+            final Runnable runnable;
+
+            Task(long at, long order, Runnable runnable) {
+                this.at = at;
+                this.order = order;
+                this.runnable = runnable;
+            }
+        }
+
+        long now;
+        private long scheduled;
+        private final PriorityQueue<Task> tasks = new PriorityQueue<>((a, b) ->
+                a.at != b.at ? Long.compare(a.at, b.at) : Long.compare(a.order, b.order));
+
+        @Override
+        public long nowMs() {
+            return now;
+        }
+
+        @Override
+        public void schedule(Runnable task, long delayMs) {
+            tasks.add(new Task(now + delayMs, scheduled++, task));
+        }
+
+        void advance(long ms) {
+            long until = now + ms;
+            while (!tasks.isEmpty() && tasks.peek().at <= until) {
+                Task task = tasks.poll();
+                now = task.at;
+                task.runnable.run();
+            }
+            now = until;
+        }
+    }
+
+    private ManualTimer timer;
+    /** Each commit as the actions it carried, with the time it was made. */
+    private final List<String> commits = new ArrayList<>();
+    private final List<String> results = new ArrayList<>();
+    private UndoWindow window;
+
+    @Before
+    public void setUp() {
+        timer = new ManualTimer();
+        window = new UndoWindow((userId, actions, callback) -> {
+            commits.add(timer.now + " " + actions);
+            callback.onComplete(true, "Done");
+        }, timer, WINDOW);
+    }
+
+    @Test
+    public void undoWithinTheWindowWritesNothing() {
+        UndoWindow.Handle held = window.hold(DeferredAction.recycleNote(USER, "f1", "n1"), this::record);
+        timer.advance(WINDOW - 1);
+        assertTrue(held.undo());
+        timer.advance(10_000);
+        assertTrue(commits.isEmpty());
+        assertTrue("an undone action's callback is never called", results.isEmpty());
+        assertFalse(held.undo());
+    }
+
+    @Test
+    public void actionsFallingDueTogetherAreOneCommit() {
+        window.hold(DeferredAction.recycleNote(USER, "f1", "n1"), this::record);
+        timer.advance(700);
+        window.hold(DeferredAction.hideNote(USER, "f1", "n2"), this::record);
+        timer.advance(700);
+        window.hold(DeferredAction.recycleFolder(USER, "f2"), this::record);
+        timer.advance(WINDOW - 1);
+        assertEquals("nothing is committed before its window ends", 0, commits.size());
+
+        timer.advance(1);
+        assertEquals(Collections.singletonList("5400 [RECYCLE_NOTE n1, HIDE_NOTE n2, RECYCLE_FOLDER f2]"), commits);
+        assertEquals(Arrays.asList("Moved to Recycle Bin", "Hidden", "Moved to Recycle Bin"), results);
+        assertEquals(0, window.held());
+    }
+
+    @Test
+    public void actionsFarApartAreCommittedOnTime() {
+        UndoWindow.Handle first = window.hold(DeferredAction.recycleNote(USER, "f1", "n1"), this::record);
+        timer.advance(3_000);
+        window.hold(DeferredAction.recycleNote(USER, "f1", "n2"), this::record);
+        timer.advance(10_000);
+        assertEquals(Arrays.asList("4000 [RECYCLE_NOTE n1]", "7000 [RECYCLE_NOTE n2]"), commits);
+        assertFalse("too late to undo", first.undo());
+    }
+
+    @Test
+    public void steadyStreamIsNotHeldForever() {
+        for (int i = 0; i < 20; i++) {
+            window.hold(DeferredAction.recycleNote(USER, "f1", "n" + i), null);
+            timer.advance(1_000);
+        }
+        timer.advance(10_000);
+        assertTrue(commits.size() > 1);
+        assertTrue(commits.get(0).startsWith("7000 "));
+    }
+
+    @Test
+    public void flushCommitsEverythingHeldAtOnce() {
+        window.hold(DeferredAction.recycleNote(USER, "f1", "n1"), this::record);
+        window.hold(DeferredAction.hideNote(USER, "f1", "n2"), this::record);
+        window.flush();
+        assertEquals(Collections.singletonList("0 [RECYCLE_NOTE n1, HIDE_NOTE n2]"), commits);
+        timer.advance(10_000);
+        assertEquals(1, commits.size());
+    }
+
+    @Test
+    public void inMemoryStoreAppliesHeldActionsAsOneWrite() {
+        InMemoryStore store = new InMemoryStore(USER, Runnable::run, 0);
+        store.seed(USER, Arrays.asList(new Folder("f1", "Work", "#FF6B6B", new Date(1)), new Folder("f2", "Home", "#FF6B6B", new Date(2))),
+                Arrays.asList(note("n1", "f1"), note("n2", "f1"), note("n3", "f2")));
+        List<List<Note>> deliveries = new ArrayList<>();
+        store.listenToNotes(USER, "f1", SortMode.NEWEST, Runnable::run, new StoreListener<Note>() {
+            @Override
+            public void onChanged(List<Note> items) {
+                deliveries.add(items);
+            }
+
+            @Override
+            public void onError(String message) {
+                throw new AssertionError(message);
+            }
+        });
+        UndoWindow inMemory = new UndoWindow(store::commitActions, timer, WINDOW);
+        inMemory.hold(DeferredAction.recycleNote(USER, "f1", "n1"), this::record);
+        inMemory.hold(DeferredAction.hideNote(USER, "f1", "n2"), this::record);
+        inMemory.hold(DeferredAction.recycleFolder(USER, "f2"), this::record);
+        assertEquals(1, deliveries.size());
+
+        timer.advance(WINDOW);
+        assertEquals(2, deliveries.size());
+        for (Note note : deliveries.get(1)) {
+            if (note.getId().equals("n1")) assertTrue(note.isDeleted());
+            else assertTrue(note.isHidden());
+        }
+        List<List<Note>> recycled = new ArrayList<>();
+        store.listenToDeletedNotes(USER, Runnable::run, new StoreListener<Note>() {
+            @Override
+            public void onChanged(List<Note> items) {
+                recycled.add(items);
+            }
+
+            @Override
+            public void onError(String message) {
+                throw new AssertionError(message);
+            }
+        });
+        assertEquals(2, recycled.get(0).size());
+
+        inMemory.hold(DeferredAction.hideNote(USER, "f1", "gone"), this::record);
+        timer.advance(WINDOW);
+        assertEquals("failed Note not found", results.get(results.size() - 1));
+    }
+
+    private void record(boolean success, String message) {
+        results.add(success ? message : "failed " + message);
+    }
+
+    private static Note note(String id, String folderId) {
+        Note note = new Note(id, id, id, "#4ECDC4", new Date(1000));
+        note.setUserId(USER);
+        note.setFolderId(folderId);
+        note.setUpdatedAt(new Date(1000));
+        return note;
+    }
+}
@@ -0,0 +1,199 @@
+package com.example.notevault.tags;
+
+import com.example.notevault.Benchmark;
+import com.example.notevault.model.Note;
+
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TagIndexTest {
+
+    private static final int QUERY_ROUNDS = 200;
+
+    @Test
+    public void tagsAreNormalizedWhenParsed() {
+        assertEquals("work-trips", Tags.normalize("  #Work  Trips "));
+        assertNull(Tags.normalize("##  "));
+        assertEquals(Arrays.asList("work", "home", "to-do"), Tags.parse("#Work, home  #WORK to-do"));
+        assertEquals(Tags.parse("#a #b"), Tags.parse(Tags.format(Arrays.asList("a", "b"))));
+        assertEquals(Tags.MAX_PER_NOTE, Tags.parse("a b c d e f g h i j k l m").size());
+    }
+
+    @Test
+    public void updateIndexesAddsRetagsAndDrops() {
+        TagIndex index = new TagIndex();
+        assertFalse(index.isLoaded());
+        Note trip = note("n1", 1000, "work", "travel");
+        Note report = note("n2", 2000, "work");
+        index.update(Arrays.asList(trip, report));
+        assertTrue(index.isLoaded());
+        assertEquals(2, index.count("work"));
+        assertEquals(1, index.count("travel"));
+
+        // A copy with different tags moves the note between lists
+        index.update(Arrays.asList(note("n1", 1000, "home"), report));
+        assertEquals(1, index.count("work"));
+        assertEquals(0, index.count("travel"));
+        assertEquals(1, index.count("home"));
+
+        // Notes missing from the result are gone, and so are tags nobody carries
+        index.update(Collections.singletonList(report));
+        assertEquals(1, index.size());
+        assertEquals(0, index.count("home"));
+        assertEquals(Collections.singletonList("work 1"), strings(index.cloud(10)));
+    }
+
+    @Test
+    public void unchangedNotesKeepTheirPlaceButTheLatestInstance() {
+        TagIndex index = new TagIndex();
+        index.update(Arrays.asList(note("n1", 1000, "a", "b"), note("n2", 2000, "b")));
+        Note renamed = note("n1", 1000, "a", "b");
+        renamed.setTitle("renamed");
+        index.update(Arrays.asList(renamed, note("n2", 2000, "b")));
+        assertEquals(2, index.count("b"));
+        assertEquals("renamed", index.notesWithAll(Collections.singletonList("a")).get(0).getTitle());
+    }
+
+    @Test
+    public void intersectionsAndUnionsAreNewestFirst() {
+        TagIndex index = new TagIndex();
+        index.update(Arrays.asList(
+                note("n1", 1000, "a", "b", "c"),
+                note("n2", 3000, "a", "b"),
+                note("n3", 2000, "b", "c"),
+                note("n4", 4000, "d")));
+        assertEquals(Arrays.asList("n2", "n1"), ids(index.notesWithAll(Arrays.asList("a", "b"))));
+        assertEquals(Collections.singletonList("n1"), ids(index.notesWithAll(Arrays.asList("c", "a", "b"))));
+        assertTrue(index.notesWithAll(Arrays.asList("a", "missing")).isEmpty());
+        assertTrue(index.notesWithAll(Collections.emptyList()).isEmpty());
+        assertEquals(Arrays.asList("n4", "n2", "n3", "n1"), ids(index.notesWithAny(Arrays.asList("a", "c", "d"))));
+
+        index.remove("n2");
+        assertEquals(Collections.singletonList("n1"), ids(index.notesWithAll(Arrays.asList("a", "b"))));
+        index.put(note("n5", 5000, "a", "b"));
+        assertEquals(Arrays.asList("n5", "n1"), ids(index.notesWithAll(Arrays.asList("a", "b"))));
+    }
+
+    @Test
+    public void cloudIsMostUsedFirstThenByName() {
+        TagIndex index = new TagIndex();
+        index.update(Arrays.asList(
+                note("n1", 1000, "b", "c"),
+                note("n2", 2000, "c", "a"),
+                note("n3", 3000, "c", "b", "d")));
+        assertEquals(Arrays.asList("c 3", "b 2", "a 1", "d 1"), strings(index.cloud(10)));
+        assertEquals(Arrays.asList("c 3", "b 2"), strings(index.cloud(2)));
+        assertTrue(index.cloud(0).isEmpty());
+        index.clear();
+        assertTrue(index.cloud(10).isEmpty());
+        assertFalse(index.isLoaded());
+    }
+
+    @Test
+    public void largeVaultIndexesEveryNote() {
+        indexZipfTaggedNotes(5_000, 200);
+    }
+
+    @Test
+    @Category(Benchmark.class)
+    public void indexLatencyBenchmark() {
+        int noteCount = 100_000;
+        int tagCount = 1_000;
+        long[] nanos = indexZipfTaggedNotes(noteCount, tagCount);
+        int rounds = QUERY_ROUNDS;
+        System.out.printf("TagIndex: %d notes, %d tags, build %d ms, one-note update %.2f ms, "
+                        + "3-tag intersection %.3f ms, 2-tag union %.3f ms, top-100 cloud %.3f ms%n",
+                noteCount, tagCount, nanos[0] / 1_000_000, nanos[1] / 1e6,
+                nanos[2] / 1e6 / rounds, nanos[3] / 1e6 / rounds, nanos[4] / 1e6 / rounds);
+    }
+
+    /**
+     * Index notes tagged Zipf-like, a few tags on many notes and most tags on few, then retag
+     * one and query. Returns the nanoseconds taken to build, update, intersect, unite and
+     * build the cloud, the last three for {@link #QUERY_ROUNDS} rounds each.
+     */
+    private static long[] indexZipfTaggedNotes(int noteCount, int tagCount) {
+        Random random = new Random(42);
+        double[] cumulative = new double[tagCount];
+        double total = 0;
+        for (int t = 0; t < tagCount; t++) {
+            total += 1.0 / (t + 1);
+            cumulative[t] = total;
+        }
+        List<Note> notes = new ArrayList<>(noteCount);
+        for (int i = 0; i < noteCount; i++) {
+            int count = 1 + random.nextInt(Tags.MAX_PER_NOTE);
+            Set<String> tags = new LinkedHashSet<>();
+            while (tags.size() < count) tags.add("tag" + pick(cumulative, random.nextDouble() * total));
+            notes.add(note("n" + i, i, tags.toArray(new String[0])));
+        }
+
+        TagIndex index = new TagIndex();
+        long start = System.nanoTime();
+        index.update(notes);
+        long built = System.nanoTime();
+
+        // One note retagged, the rest the same instances, as a snapshot with one change delivers them
+        List<Note> changed = new ArrayList<>(notes);
+        changed.set(noteCount / 2, note("n" + noteCount / 2, noteCount / 2, "tag0", "tag" + (tagCount - 1)));
+        long updateStart = System.nanoTime();
+        index.update(changed);
+        long updated = System.nanoTime();
+
+        int rounds = QUERY_ROUNDS;
+        int found = 0;
+        long intersectStart = System.nanoTime();
+        for (int i = 0; i < rounds; i++) found += index.notesWithAll(Arrays.asList("tag0", "tag1", "tag" + (2 + i % 50))).size();
+        long intersected = System.nanoTime();
+        for (int i = 0; i < rounds; i++) found += index.notesWithAny(Arrays.asList("tag" + (100 + i), "tag" + (500 + i))).size();
+        long united = System.nanoTime();
+        List<TagIndex.TagCount> cloud = null;
+        for (int i = 0; i < rounds; i++) cloud = index.cloud(100);
+        long clouded = System.nanoTime();
+
+        assertEquals(noteCount, index.size());
+        assertEquals(100, cloud.size());
+        assertEquals("tag0", cloud.get(0).tag);
+        assertTrue(found > 0);
+        assertTrue(index.notesWithAll(Arrays.asList("tag0", "tag" + (tagCount - 1))).contains(changed.get(noteCount / 2)));
+        return new long[]{built - start, updated - updateStart, intersected - intersectStart,
+                united - intersected, clouded - united};
+    }
+
+    private static int pick(double[] cumulative, double value) {
+        int i = Arrays.binarySearch(cumulative, value);
+        return Math.min(cumulative.length - 1, i >= 0 ? i : -i - 1);
+    }
+
+    private static Note note(String id, long time, String... tags) {
+        Note note = new Note(id, id, "", "#FFFFFF", new Date(time));
+        note.setTags(Arrays.asList(tags));
+        return note;
+    }
+
+    private static List<String> ids(List<Note> notes) {
+        List<String> ids = new ArrayList<>();
+        for (Note note : notes) ids.add(note.getId());
+        return ids;
+    }
+
+    private static List<String> strings(List<TagIndex.TagCount> cloud) {
+        List<String> strings = new ArrayList<>();
+        for (TagIndex.TagCount count : cloud) strings.add(count.toString());
+        return strings;
+    }
+}
@@ -0,0 +1,77 @@
+package com.example.notevault.utils;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BackgroundExecutorTest {
+
+    @Test
+    public void serialLanesKeepOrderAndNeverOverlap() throws Exception {
+        BackgroundExecutor executor = new BackgroundExecutor(3);
+        int lanes = 8;
+        int tasks = 2_000;
+        List<List<Integer>> seen = new ArrayList<>();
+        AtomicInteger overlaps = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(lanes * tasks);
+        for (int l = 0; l < lanes; l++) {
+            Executor lane = executor.serial();
+            List<Integer> order = Collections.synchronizedList(new ArrayList<>());
+            seen.add(order);
+            AtomicInteger running = new AtomicInteger();
+            for (int i = 0; i < tasks; i++) {
+                int task = i;
+                lane.execute(() -> {
+                    if (running.incrementAndGet() > 1) overlaps.incrementAndGet();
+                    order.add(task);
+                    running.decrementAndGet();
+                    done.countDown();
+                });
+            }
+        }
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertEquals(0, overlaps.get());
+        for (List<Integer> order : seen) {
+            for (int i = 0; i < tasks; i++) assertEquals(i, (int) order.get(i));
+        }
+    }
+
+    @Test
+    public void poolStaysBoundedUnderBurst() throws Exception {
+        BackgroundExecutor executor = new BackgroundExecutor(2);
+        Set<String> threads = ConcurrentHashMap.newKeySet();
+        CountDownLatch done = new CountDownLatch(500);
+        for (int i = 0; i < 500; i++) {
+            executor.execute(() -> {
+                threads.add(Thread.currentThread().getName());
+                done.countDown();
+            });
+        }
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertTrue(threads.size() <= 2);
+        assertEquals(0, executor.queued());
+    }
+
+    @Test
+    public void failingTaskDoesNotStallItsLane() throws Exception {
+        BackgroundExecutor executor = new BackgroundExecutor(1);
+        Executor lane = executor.serial();
+        CountDownLatch after = new CountDownLatch(1);
+        lane.execute(() -> {
+            throw new IllegalStateException("listener bug");
+        });
+        lane.execute(after::countDown);
+        assertTrue(after.await(5, TimeUnit.SECONDS));
+    }
+}
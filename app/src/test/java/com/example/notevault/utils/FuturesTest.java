@@ -0,0 +1,132 @@
+package com.example.notevault.utils;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class FuturesTest {
+
+    private static final Futures.RetryPolicy FAST = new Futures.RetryPolicy(4, 1, 5);
+
+    @Test
+    public void allOfKeepsOrderAndReportsEveryFailure() {
+        CompletableFuture<String> a = new CompletableFuture<>();
+        CompletableFuture<String> b = new CompletableFuture<>();
+        CompletableFuture<String> c = new CompletableFuture<>();
+        CompletableFuture<List<String>> all = Futures.allOf(Arrays.asList(a, b, c));
+        c.complete("c");
+        a.complete("a");
+        assertEquals(false, all.isDone());
+        b.complete("b");
+        assertEquals(Arrays.asList("a", "b", "c"), all.join());
+
+        CompletableFuture<String> ok = CompletableFuture.completedFuture("ok");
+        CompletableFuture<List<String>> partial = Futures.allOf(Arrays.asList(
+                Futures.failed(new IllegalStateException("first")), ok, Futures.failed(new IllegalStateException("second"))));
+        Futures.PartialFailureException error = (Futures.PartialFailureException) failure(partial);
+        assertEquals(3, error.getTotal());
+        assertEquals(2, error.getFailures().size());
+        assertEquals("2 of 3 failed: first", error.getMessage());
+        assertEquals("second", error.getSuppressed()[0].getMessage());
+    }
+
+    @Test
+    public void cancellingAllOfCancelsTheFanOut() {
+        CompletableFuture<String> a = new CompletableFuture<>();
+        CompletableFuture<String> b = new CompletableFuture<>();
+        Futures.allOf(Arrays.asList(a, b)).cancel(true);
+        assertTrue(a.isCancelled());
+        assertTrue(b.isCancelled());
+    }
+
+    @Test
+    public void timeoutFailsAndCancelsTheWork() {
+        CompletableFuture<String> slow = new CompletableFuture<>();
+        CompletableFuture<String> timed = Futures.withTimeout(slow, 20, TimeUnit.MILLISECONDS);
+        assertTrue(failure(timed) instanceof TimeoutException);
+        assertTrue(slow.isCancelled());
+
+        CompletableFuture<String> fast = Futures.withTimeout(CompletableFuture.completedFuture("done"), 1, TimeUnit.SECONDS);
+        assertEquals("done", fast.join());
+    }
+
+    @Test
+    public void retryUntilSuccess() {
+        AtomicInteger attempts = new AtomicInteger();
+        CompletableFuture<String> result = Futures.retry(() -> attempts.incrementAndGet() < 3
+                ? Futures.failed(new IllegalStateException("unavailable"))
+                : CompletableFuture.completedFuture("saved"), FAST);
+        assertEquals("saved", result.join());
+        assertEquals(3, attempts.get());
+    }
+
+    @Test
+    public void retryGivesUpWithTheLastError() {
+        AtomicInteger attempts = new AtomicInteger();
+        CompletableFuture<String> result = Futures.retry(
+                () -> Futures.failed(new IllegalStateException("attempt " + attempts.incrementAndGet())), FAST);
+        assertEquals("attempt 4", failure(result).getMessage());
+        assertEquals(4, attempts.get());
+
+        AtomicInteger permanent = new AtomicInteger();
+        CompletableFuture<String> notRetried = Futures.retry(() -> {
+            permanent.incrementAndGet();
+            return Futures.failed(new IllegalArgumentException("bad input"));
+        }, FAST, error -> !(error instanceof IllegalArgumentException), new Random(1));
+        assertTrue(failure(notRetried) instanceof IllegalArgumentException);
+        assertEquals(1, permanent.get());
+    }
+
+    @Test
+    public void cancellingRetryStopsFurtherAttempts() throws Exception {
+        AtomicInteger attempts = new AtomicInteger();
+        CompletableFuture<String> running = new CompletableFuture<>();
+        CompletableFuture<String> result = Futures.retry(() -> {
+            attempts.incrementAndGet();
+            return running;
+        }, FAST);
+        result.cancel(true);
+        assertTrue(running.isCancelled());
+        Thread.sleep(50);
+        assertEquals(1, attempts.get());
+    }
+
+    @Test
+    public void backoffIsJitteredBelowAGrowingCap() {
+        Futures.RetryPolicy policy = new Futures.RetryPolicy(10, 100, 1_000);
+        Random random = new Random(7);
+        long[] caps = {100, 200, 400, 800, 1_000, 1_000};
+        for (int retry = 1; retry <= caps.length; retry++) {
+            long min = Long.MAX_VALUE;
+            long max = 0;
+            for (int i = 0; i < 1_000; i++) {
+                long delay = policy.delayMs(retry, random);
+                min = Math.min(min, delay);
+                max = Math.max(max, delay);
+            }
+            assertTrue(max < caps[retry - 1]);
+            assertTrue("delays spread over the whole window", max > caps[retry - 1] * 9 / 10 && min < caps[retry - 1] / 10);
+        }
+    }
+
+    private static Throwable failure(CompletableFuture<?> future) {
+        try {
+            future.join();
+        } catch (CompletionException e) {
+            return e.getCause();
+        }
+        fail("Expected a failure");
+        return null;
+    }
+}
@@ -0,0 +1,165 @@
+package com.example.notevault.utils;
+
+import com.example.notevault.Benchmark;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.Random;
+
+import javax.crypto.SecretKey;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class NoteCipherTest {
+
+    private static SecretKey key;
+
+    @BeforeClass
+    public static void deriveKey() throws Exception {
+        key = NoteCipher.deriveKey("correct horse", NoteCipher.newSalt());
+    }
+
+    @Test
+    public void scryptMatchesRfc7914Vectors() throws Exception {
+        assertEquals("77d6576238657b203b19ca42c18a0497f16b4844e3074ae8dfdffa3fede21442"
+                        + "fcd0069ded0948f8326a753a0fc81f17e8d3e0fb2e0d3628cf35e20c38d18906",
+                hex(Scrypt.derive(new byte[0], new byte[0], 16, 1, 1, 64)));
+        assertEquals("fdbabe1c9d3472007856e7190d01e9fe7c6ad7cbc8237830e77376634b373162"
+                        + "2eaf30d92e22a3886ff109279d9830dac727afb94a83ee6d8360cbdfa2cc0640",
+                hex(Scrypt.derive(bytes("password"), bytes("NaCl"), 1024, 8, 16, 64)));
+    }
+
+    @Test
+    public void roundTripsAroundChunkBoundaries() throws Exception {
+        int chunk = NoteCipher.DEFAULT_CHUNK_SIZE;
+        for (int length : new int[]{0, 1, chunk - 1, chunk, chunk + 1, 3 * chunk}) {
+            byte[] plain = random(length);
+            byte[] sealed = NoteCipher.encrypt(key, plain);
+            assertEquals(NoteCipher.ciphertextLength(length, chunk), sealed.length);
+            assertArrayEquals(plain, NoteCipher.decrypt(key, sealed));
+            assertArrayEquals(plain, streamDecrypt(sealed));
+        }
+    }
+
+    @Test
+    public void streamAndArrayFormatsAreInterchangeable() throws Exception {
+        byte[] plain = random(200_000);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        NoteCipher.encrypt(key, new ByteArrayInputStream(plain), out, 4096);
+        assertArrayEquals(plain, NoteCipher.decrypt(key, out.toByteArray()));
+        String text = "Grocery list \u2713";
+        assertEquals(text, NoteCipher.decryptString(key, NoteCipher.encryptString(key, text)));
+    }
+
+    @Test
+    public void rejectsTamperingTruncationAndWrongKey() throws Exception {
+        byte[] sealed = NoteCipher.encrypt(key, random(2 * NoteCipher.DEFAULT_CHUNK_SIZE + 10));
+
+        byte[] flipped = sealed.clone();
+        flipped[flipped.length / 2] ^= 1;
+        assertRejected(flipped);
+
+        // Dropping the final chunk leaves a valid-looking full chunk that is not marked final
+        int fullChunk = NoteCipher.DEFAULT_CHUNK_SIZE + 16;
+        assertRejected(Arrays.copyOf(sealed, 16 + 2 * fullChunk));
+        assertRejected(Arrays.copyOf(sealed, sealed.length - 1));
+
+        SecretKey other = NoteCipher.deriveKey("wrong horse", NoteCipher.newSalt());
+        try {
+            NoteCipher.decrypt(other, sealed);
+            fail("decrypted with the wrong key");
+        } catch (GeneralSecurityException expected) {
+            // ok
+        }
+    }
+
+    @Test
+    public void keyCheckOnlyAcceptsMatchingKey() throws Exception {
+        byte[] salt = NoteCipher.newSalt();
+        SecretKey lockKey = NoteCipher.deriveKey("1234", salt);
+        byte[] check = NoteCipher.createKeyCheck(lockKey);
+        assertTrue(NoteCipher.verifyKeyCheck(NoteCipher.deriveKey("1234", salt), check));
+        assertFalse(NoteCipher.verifyKeyCheck(NoteCipher.deriveKey("12345", salt), check));
+    }
+
+    /** Prints encrypt/decrypt throughput; a smoke benchmark rather than an assertion. */
+    @Test
+    @Category(Benchmark.class)
+    public void throughputBenchmark() throws Exception {
+        byte[] plain = random(8 * 1024 * 1024);
+        byte[] sealed = NoteCipher.encrypt(key, plain);
+        NoteCipher.decrypt(key, sealed); // warm up
+
+        int rounds = 5;
+        long start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) sealed = NoteCipher.encrypt(key, plain);
+        double encryptMbps = megabytesPerSecond(plain.length * (long) rounds, System.nanoTime() - start);
+
+        start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) NoteCipher.decrypt(key, sealed);
+        double decryptMbps = megabytesPerSecond(plain.length * (long) rounds, System.nanoTime() - start);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(sealed.length);
+        start = System.nanoTime();
+        NoteCipher.encrypt(key, new ByteArrayInputStream(plain), out);
+        double streamMbps = megabytesPerSecond(plain.length, System.nanoTime() - start);
+
+        System.out.printf("NoteCipher: encrypt %.1f MB/s, decrypt %.1f MB/s, stream encrypt %.1f MB/s%n",
+                encryptMbps, decryptMbps, streamMbps);
+        assertTrue(encryptMbps > 0 && decryptMbps > 0);
+    }
+
+    private static void assertRejected(byte[] sealed) {
+        try {
+            NoteCipher.decrypt(key, sealed);
+            fail("accepted modified ciphertext");
+        } catch (GeneralSecurityException expected) {
+            // ok
+        }
+        try {
+            streamDecrypt(sealed);
+            fail("stream accepted modified ciphertext");
+        } catch (GeneralSecurityException expected) {
+            // ok
+        } catch (Exception e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static byte[] streamDecrypt(byte[] sealed) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        NoteCipher.decrypt(key, new ByteArrayInputStream(sealed), out);
+        return out.toByteArray();
+    }
+
+    private static double megabytesPerSecond(long bytes, long nanos) {
+        return bytes / (1024.0 * 1024.0) / (nanos / 1e9);
+    }
+
+    private static byte[] random(int length) {
+        byte[] data = new byte[length];
+        new Random(length).nextBytes(data);
+        return data;
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder();
+        for (byte b : bytes) sb.append(String.format("%02x", b));
+        return sb.toString();
+    }
+}
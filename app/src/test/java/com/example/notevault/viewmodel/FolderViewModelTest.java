@@ -0,0 +1,135 @@
+package com.example.notevault.viewmodel;
+
+import androidx.arch.core.executor.testing.InstantTaskExecutorRule;
+
+import com.example.notevault.model.Folder;
+import com.example.notevault.presentation.FolderRow;
+import com.example.notevault.store.InMemoryStore;
+import com.example.notevault.store.ListCache;
+import com.example.notevault.store.ListenerPauser;
+import com.example.notevault.store.StoreListener;
+import com.example.notevault.store.Subscription;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static com.example.notevault.viewmodel.LiveDataTesting.await;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/** The pinned section of {@link FolderViewModel} against an {@link InMemoryStore}. */
+public class FolderViewModelTest {
+
+    private static final String USER = "user-1";
+
+    @Rule
+    public final InstantTaskExecutorRule instantTasks = new InstantTaskExecutorRule();
+
+    /** Answers every query but the pinned one, which fails with {@link #pinnedError} or, if null, stays silent. */
+    private static final class PinnedQueryStore extends InMemoryStore {
+        String pinnedError;
+
+        PinnedQueryStore() {
+            super(USER, Runnable::run, 0);
+        }
+
+        @Override
+        public Subscription listenToPinnedFolders(String userId, Executor executor, StoreListener<Folder> listener) {
+            if (pinnedError != null) executor.execute(() -> listener.onError(pinnedError));
+            return () -> { };
+        }
+    }
+
+    private FolderViewModel viewModel;
+
+    @Before
+    public void setUp() {
+        ListCache.pinnedFolders().clear();
+    }
+
+    @After
+    public void tearDown() {
+        if (viewModel != null) viewModel.onCleared();
+        ListCache.pinnedFolders().clear();
+    }
+
+    @Test
+    public void cachedPinnedFoldersShowBeforeAnyQueryAnswers() throws Exception {
+        PinnedQueryStore store = new PinnedQueryStore();
+        store.seed(USER, folders("f2"), Collections.emptyList());
+        Folder cached = folder("f2", 2);
+        cached.setPinned(true);
+        ListCache.pinnedFolders().put(USER, Collections.singletonList(cached));
+        viewModel = new FolderViewModel(store, new ListenerPauser());
+
+        // Set in the constructor, before the queries answer on their background thread
+        assertEquals(Collections.singletonList("f2"), rowIds(viewModel.getPinnedRows().getValue()));
+        List<Folder> visible = await(viewModel.getFoldersLiveData(), list -> list.size() == 3);
+        assertEquals(Arrays.asList("f2", "f0", "f1"), ids(visible));
+        assertEquals(Arrays.asList("f0", "f1"), rowIds(await(viewModel.getFolderRows(), rows -> true)));
+    }
+
+    @Test
+    public void pinnedFoldersStayInTheGridWhenThePinnedQueryFails() throws Exception {
+        PinnedQueryStore store = new PinnedQueryStore();
+        store.pinnedError = "permission denied";
+        store.seed(USER, folders("f1"), Collections.emptyList());
+        viewModel = new FolderViewModel(store, new ListenerPauser());
+
+        assertEquals("permission denied", await(viewModel.getErrorMessage(), message -> true));
+        List<FolderRow> grid = await(viewModel.getFolderRows(), rows -> rows.size() == 3);
+        assertEquals("in its place, not lost", Arrays.asList("f0", "f1", "f2"), rowIds(grid));
+    }
+
+    @Test
+    public void unpinnedFoldersMoveBackIntoTheGrid() throws Exception {
+        InMemoryStore store = new InMemoryStore(USER, Runnable::run, 0);
+        store.seed(USER, folders("f2"), Collections.emptyList());
+        viewModel = new FolderViewModel(store, new ListenerPauser());
+        List<FolderRow> grid = await(viewModel.getFolderRows(), rows -> rows.size() == 2);
+        assertEquals(Arrays.asList("f0", "f1"), rowIds(grid));
+        assertEquals(Collections.singletonList("f2"), ids(ListCache.pinnedFolders().get(USER)));
+
+        viewModel.pinFolder("f2", false, (ok, msg) -> assertTrue(msg, ok));
+        grid = await(viewModel.getFolderRows(), rows -> rows.size() == 3);
+        assertEquals(Arrays.asList("f0", "f1", "f2"), rowIds(grid));
+        assertTrue(await(viewModel.getPinnedRows(), List::isEmpty).isEmpty());
+        assertTrue(ListCache.pinnedFolders().get(USER).isEmpty());
+    }
+
+    /** f0, f1 and f2, newest first, with {@code pinned} pinned. */
+    private static List<Folder> folders(String... pinned) {
+        List<Folder> folders = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            Folder folder = folder("f" + i, i);
+            folder.setPinned(Arrays.asList(pinned).contains(folder.getId()));
+            folders.add(folder);
+        }
+        return folders;
+    }
+
+    private static Folder folder(String id, int age) {
+        return new Folder(id, "Folder " + id, "#FF6B6B", new Date(1_000_000 - age * 1000L));
+    }
+
+    private static List<String> ids(List<Folder> folders) {
+        List<String> ids = new ArrayList<>();
+        for (Folder folder : folders) ids.add(folder.getId());
+        return ids;
+    }
+
+    private static List<String> rowIds(List<FolderRow> rows) {
+        List<String> ids = new ArrayList<>();
+        for (FolderRow row : rows) ids.add(row.folder.getId());
+        return ids;
+    }
+}
@@ -0,0 +1,44 @@
+package com.example.notevault.viewmodel;
+
+import androidx.lifecycle.LiveData;
+import androidx.lifecycle.Observer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+import static org.junit.Assert.assertTrue;
+
+/** Waits on the LiveData of ViewModels whose results arrive on background threads. */
+final class LiveDataTesting {
+
+    private LiveDataTesting() {
+    }
+
+    /** Wait for the first value, current or coming, that matches. */
+    static <T> T await(LiveData<T> liveData, Predicate<T> matches) throws InterruptedException {
+        CountDownLatch latch = new CountDownLatch(1);
+        List<T> seen = new ArrayList<>();
+        Observer<T> observer = value -> {
+            if (value != null && matches.test(value) && latch.getCount() > 0) {
+                synchronized (seen) {
+                    seen.add(value);
+                }
+                latch.countDown();
+            }
+        };
+        liveData.observeForever(observer);
+        T current = liveData.getValue();
+        if (current != null) observer.onChanged(current);
+        try {
+            assertTrue("timed out waiting for LiveData", latch.await(30, TimeUnit.SECONDS));
+        } finally {
+            liveData.removeObserver(observer);
+        }
+        synchronized (seen) {
+            return seen.get(0);
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package com.example.notevault.viewmodel;
+
+import androidx.arch.core.executor.testing.InstantTaskExecutorRule;
+
+import com.example.notevault.Benchmark;
+import com.example.notevault.model.Folder;
+import com.example.notevault.model.Note;
+import com.example.notevault.store.InMemoryStore;
+import com.example.notevault.store.ListCache;
+import com.example.notevault.store.ListenerPauser;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static com.example.notevault.viewmodel.LiveDataTesting.await;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Drives {@link NoteViewModel} against a large folder in an {@link InMemoryStore}. The benchmark
+ * prints how long the first result and single edits take to reach its LiveData with
+ * {@value #BENCHMARK_NOTES} notes.
+ */
+public class NoteViewModelLoadTest {
+
+    private static final String USER = "load-user";
+    private static final String FOLDER = "big";
+    private static final int NOTES = 5_000;
+    private static final int BENCHMARK_NOTES = 100_000;
+    private static final int EDITS = 20;
+
+    @Rule
+    public final InstantTaskExecutorRule instantTasks = new InstantTaskExecutorRule();
+
+    @Test
+    public void largeFolderLoadsAndEditsArriveInTime() throws Exception {
+        loadAndEdit(NOTES);
+    }
+
+    @Test
+    @Category(Benchmark.class)
+    public void loadAndEditLatencyBenchmark() throws Exception {
+        long[] nanos = loadAndEdit(BENCHMARK_NOTES);
+        long[] edits = Arrays.copyOfRange(nanos, 1, nanos.length);
+        Arrays.sort(edits);
+        System.out.printf("NoteViewModel with %d notes: first result %.1f ms, edit p50 %.1f ms, max %.1f ms%n",
+                BENCHMARK_NOTES, nanos[0] / 1e6, edits[EDITS / 2] / 1e6, edits[EDITS - 1] / 1e6);
+    }
+
+    /**
+     * Open a folder of {@code count} notes and edit {@value #EDITS} of them, each waiting for the
+     * edit to reach the list. Returns the nanoseconds the first result took, then each edit.
+     */
+    private static long[] loadAndEdit(int count) throws Exception {
+        InMemoryStore store = new InMemoryStore(USER, Runnable::run, 5);
+        store.seed(USER, Collections.singletonList(new Folder(FOLDER, "Big", "#FF6B6B", new Date())), notes(count));
+
+        long[] nanos = new long[1 + EDITS];
+        NoteViewModel viewModel = new NoteViewModel(store, new ListenerPauser());
+        long start = System.nanoTime();
+        viewModel.setFolderId(FOLDER);
+        List<Note> loaded = await(viewModel.getNotesLiveData(), notes -> notes.size() == count);
+        nanos[0] = System.nanoTime() - start;
+        assertEquals(count, loaded.size());
+
+        for (int i = 0; i < EDITS; i++) {
+            String title = "edited " + i;
+            CountDownLatch acknowledged = new CountDownLatch(1);
+            long editStart = System.nanoTime();
+            viewModel.saveNote(FOLDER, "note-" + i, title, "changed", "#4ECDC4", (ok, msg) -> acknowledged.countDown());
+            await(viewModel.getNotesLiveData(), notes -> !notes.isEmpty() && title.equals(notes.get(0).getTitle()));
+            nanos[1 + i] = System.nanoTime() - editStart;
+            assertTrue(acknowledged.await(5, TimeUnit.SECONDS));
+        }
+        viewModel.onCleared();
+        return nanos;
+    }
+
+    @Test
+    public void hiddenAndDeletedNotesAreFilteredOut() throws Exception {
+        InMemoryStore store = new InMemoryStore(USER, Runnable::run, 0);
+        List<Note> notes = notes(NOTES);
+        for (int i = 0; i < NOTES; i += 10) notes.get(i).setHidden(true);
+        for (int i = 5; i < NOTES; i += 10) notes.get(i).setDeleted(true);
+        store.seed(USER, Collections.emptyList(), notes);
+
+        NoteViewModel viewModel = new NoteViewModel(store, new ListenerPauser());
+        viewModel.setFolderId(FOLDER);
+        List<Note> visible = await(viewModel.getNotesLiveData(), list -> true);
+        viewModel.onCleared();
+        assertEquals(NOTES - NOTES / 5, visible.size());
+    }
+
+    @Test
+    public void pinnedNotesComeFirstAndAreCachedForTheNextOpen() throws Exception {
+        InMemoryStore store = new InMemoryStore(USER, Runnable::run, 0);
+        List<Note> notes = notes(NOTES);
+        notes.get(500).setPinned(true);
+        notes.get(7).setPinned(true);
+        store.seed(USER, Collections.emptyList(), notes);
+        String key = ListCache.folderKey(USER, FOLDER);
+        ListCache.pinnedNotes().clear();
+
+        NoteViewModel viewModel = new NoteViewModel(store, new ListenerPauser());
+        viewModel.setFolderId(FOLDER);
+        List<Note> visible = await(viewModel.getNotesLiveData(),
+                list -> list.size() == NOTES && "note-7".equals(list.get(0).getId()));
+        // Pinned first, newest first, and nowhere else in the list
+        assertEquals("note-500", visible.get(1).getId());
+        assertEquals("note-0", visible.get(2).getId());
+        assertEquals(Arrays.asList("note-7", "note-500"), ids(ListCache.pinnedNotes().get(key)));
+
+        viewModel.pinNote("note-7", false, (ok, msg) -> assertTrue(msg, ok));
+        visible = await(viewModel.getNotesLiveData(), list -> "note-500".equals(list.get(0).getId()));
+        assertEquals(NOTES, visible.size());
+        assertEquals("note-7", visible.get(8).getId());
+        viewModel.onCleared();
+        assertEquals(Collections.singletonList("note-500"), ids(ListCache.pinnedNotes().get(key)));
+        ListCache.pinnedNotes().clear();
+    }
+
+    private static List<String> ids(List<Note> notes) {
+        List<String> ids = new ArrayList<>();
+        for (Note note : notes) ids.add(note.getId());
+        return ids;
+    }
+
+    private static List<Note> notes(int count) {
+        List<Note> notes = new ArrayList<>(count);
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < count; i++) {
+            Note note = new Note("note-" + i, "Note " + i, "Content of note " + i, "#4ECDC4", new Date(now - i * 1000L));
+            note.setUserId(USER);
+            note.setFolderId(FOLDER);
+            note.setUpdatedAt(note.getTimestamp());
+            notes.add(note);
+        }
+        return notes;
+    }
+}
@@ -0,0 +1,147 @@
+package com.example.notevault.viewmodel;
+
+import androidx.arch.core.executor.testing.InstantTaskExecutorRule;
+
+import com.example.notevault.model.Note;
+import com.example.notevault.store.InMemoryStore;
+import com.example.notevault.store.ListCache;
+import com.example.notevault.store.ListenerPauser;
+import com.example.notevault.store.StoreListener;
+import com.example.notevault.store.Subscription;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static com.example.notevault.viewmodel.LiveDataTesting.await;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/** The pinned section of {@link NoteViewModel} against an {@link InMemoryStore}. */
+public class NoteViewModelTest {
+
+    private static final String USER = "user-1";
+    private static final String FOLDER = "f1";
+
+    @Rule
+    public final InstantTaskExecutorRule instantTasks = new InstantTaskExecutorRule();
+
+    /** Answers every query but the pinned one, which fails with {@link #pinnedError} or, if null, stays silent. */
+    private static final class PinnedQueryStore extends InMemoryStore {
+        String pinnedError;
+
+        PinnedQueryStore() {
+            super(USER, Runnable::run, 0);
+        }
+
+        @Override
+        public Subscription listenToPinnedNotes(String userId, String folderId, Executor executor, StoreListener<Note> listener) {
+            if (pinnedError != null) executor.execute(() -> listener.onError(pinnedError));
+            return () -> { };
+        }
+    }
+
+    private final String key = ListCache.folderKey(USER, FOLDER);
+    private NoteViewModel viewModel;
+
+    @Before
+    public void setUp() {
+        ListCache.pinnedNotes().clear();
+    }
+
+    @After
+    public void tearDown() {
+        if (viewModel != null) viewModel.onCleared();
+        ListCache.pinnedNotes().clear();
+    }
+
+    @Test
+    public void pinnedNotesComeFirstAndAreLeftOutOfTheRest() throws Exception {
+        InMemoryStore store = new InMemoryStore(USER, Runnable::run, 0);
+        store.seed(USER, Collections.emptyList(), notes("n2"));
+        viewModel = open(store);
+
+        List<Note> visible = await(viewModel.getNotesLiveData(), list -> list.size() == 3 && "n2".equals(list.get(0).getId()));
+        assertEquals(Arrays.asList("n2", "n0", "n1"), ids(visible));
+        assertEquals(Collections.singletonList("n2"), ids(ListCache.pinnedNotes().get(key)));
+    }
+
+    @Test
+    public void pinnedNotesStayInTheListWhenThePinnedQueryFails() throws Exception {
+        PinnedQueryStore store = new PinnedQueryStore();
+        store.pinnedError = "permission denied";
+        store.seed(USER, Collections.emptyList(), notes("n1"));
+        viewModel = open(store);
+
+        assertEquals("permission denied", await(viewModel.getErrorMessage(), message -> true));
+        List<Note> visible = await(viewModel.getNotesLiveData(), list -> list.size() == 3);
+        assertEquals("in its place, not lost", Arrays.asList("n0", "n1", "n2"), ids(visible));
+    }
+
+    @Test
+    public void cachedPinnedNotesShowBeforeThePinnedQueryAnswers() throws Exception {
+        PinnedQueryStore store = new PinnedQueryStore();
+        store.seed(USER, Collections.emptyList(), notes("n2"));
+        Note cached = note("n2", 2);
+        cached.setPinned(true);
+        cached.setTitle("As last seen");
+        ListCache.pinnedNotes().put(key, Collections.singletonList(cached));
+        viewModel = open(store);
+
+        List<Note> visible = await(viewModel.getNotesLiveData(), list -> list.size() == 3);
+        assertEquals(Arrays.asList("n2", "n0", "n1"), ids(visible));
+        assertEquals("As last seen", visible.get(0).getTitle());
+    }
+
+    @Test
+    public void unpinnedNotesMoveBackIntoTheList() throws Exception {
+        InMemoryStore store = new InMemoryStore(USER, Runnable::run, 0);
+        store.seed(USER, Collections.emptyList(), notes("n1", "n2"));
+        viewModel = open(store);
+        await(viewModel.getNotesLiveData(), list -> list.size() == 3 && "n1".equals(list.get(0).getId()));
+
+        viewModel.pinNote("n1", false, (ok, msg) -> assertTrue(msg, ok));
+        List<Note> visible = await(viewModel.getNotesLiveData(), list -> "n2".equals(list.get(0).getId()));
+        assertEquals(Arrays.asList("n2", "n0", "n1"), ids(visible));
+        assertEquals(Collections.singletonList("n2"), ids(ListCache.pinnedNotes().get(key)));
+    }
+
+    private static NoteViewModel open(InMemoryStore store) {
+        NoteViewModel viewModel = new NoteViewModel(store, new ListenerPauser());
+        viewModel.setFolderId(FOLDER);
+        return viewModel;
+    }
+
+    /** n0, n1 and n2, newest first, with {@code pinned} pinned. */
+    private static List<Note> notes(String... pinned) {
+        List<Note> notes = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            Note note = note("n" + i, i);
+            note.setPinned(Arrays.asList(pinned).contains(note.getId()));
+            notes.add(note);
+        }
+        return notes;
+    }
+
+    private static Note note(String id, int age) {
+        Note note = new Note(id, "Note " + id, "Content of " + id, "#4ECDC4", new Date(1_000_000 - age * 1000L));
+        note.setUserId(USER);
+        note.setFolderId(FOLDER);
+        note.setUpdatedAt(note.getTimestamp());
+        return note;
+    }
+
+    private static List<String> ids(List<Note> notes) {
+        List<String> ids = new ArrayList<>();
+        for (Note note : notes) ids.add(note.getId());
+        return ids;
+    }
+}
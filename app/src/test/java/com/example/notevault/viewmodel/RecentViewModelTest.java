@@ -0,0 +1,124 @@
+package com.example.notevault.viewmodel;
+
+import androidx.arch.core.executor.testing.InstantTaskExecutorRule;
+
+import com.example.notevault.model.Note;
+import com.example.notevault.store.InMemoryStore;
+import com.example.notevault.store.ListCache;
+import com.example.notevault.store.ListenerPauser;
+import com.example.notevault.store.StoreListener;
+import com.example.notevault.store.Subscription;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static com.example.notevault.viewmodel.LiveDataTesting.await;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/** {@link RecentViewModel} against an {@link InMemoryStore}. */
+public class RecentViewModelTest {
+
+    private static final String USER = "user-1";
+
+    @Rule
+    public final InstantTaskExecutorRule instantTasks = new InstantTaskExecutorRule();
+
+    /** Answers every query but the recent one, which fails with {@link #recentError} or, if null, stays silent. */
+    private static final class RecentQueryStore extends InMemoryStore {
+        String recentError;
+
+        RecentQueryStore() {
+            super(USER, Runnable::run, 0);
+        }
+
+        @Override
+        public Subscription listenToRecentNotes(String userId, int limit, Executor executor, StoreListener<Note> listener) {
+            if (recentError != null) executor.execute(() -> listener.onError(recentError));
+            return () -> { };
+        }
+    }
+
+    private RecentViewModel viewModel;
+
+    @Before
+    public void setUp() {
+        ListCache.recentNotes().clear();
+    }
+
+    @After
+    public void tearDown() {
+        if (viewModel != null) viewModel.onCleared();
+        ListCache.recentNotes().clear();
+    }
+
+    @Test
+    public void cachedNotesShowBeforeTheQueryAnswers() {
+        ListCache.recentNotes().put(USER, Collections.singletonList(note("n1", "f1", 1)));
+        viewModel = new RecentViewModel(new RecentQueryStore(), new ListenerPauser());
+
+        assertEquals(Collections.singletonList("n1"), ids(viewModel.getNotes().getValue()));
+        assertFalse("the cache is showing, so no spinner", viewModel.getLoading().getValue());
+    }
+
+    @Test
+    public void lastEditedNotesAcrossFoldersUpToTheLimit() throws Exception {
+        InMemoryStore store = new InMemoryStore(USER, Runnable::run, 0);
+        List<Note> notes = new ArrayList<>();
+        for (int i = 0; i < RecentViewModel.LIMIT + 10; i++) notes.add(note("n" + i, "f" + (i % 3), i));
+        store.seed(USER, Collections.emptyList(), notes);
+        viewModel = new RecentViewModel(store, new ListenerPauser());
+
+        List<Note> recent = await(viewModel.getNotes(), list -> !list.isEmpty());
+        assertEquals(RecentViewModel.LIMIT, recent.size());
+        assertEquals("n0", recent.get(0).getId());
+        assertEquals("n" + (RecentViewModel.LIMIT - 1), recent.get(RecentViewModel.LIMIT - 1).getId());
+        assertEquals("kept for the next open", ids(recent), ids(ListCache.recentNotes().get(USER)));
+    }
+
+    @Test
+    public void recycledAndHiddenNotesAreLeftOut() throws Exception {
+        InMemoryStore store = new InMemoryStore(USER, Runnable::run, 0);
+        Note deleted = note("n0", "f1", 0);
+        deleted.setDeleted(true);
+        store.seed(USER, Collections.emptyList(), Arrays.asList(deleted, note("n1", "f1", 1), note("n2", "f2", 2)));
+        viewModel = new RecentViewModel(store, new ListenerPauser());
+        assertEquals(Arrays.asList("n1", "n2"), ids(await(viewModel.getNotes(), list -> !list.isEmpty())));
+
+        store.hideNote(USER, "f1", "n1", null);
+        assertEquals(Collections.singletonList("n2"), ids(await(viewModel.getNotes(), list -> list.size() == 1)));
+    }
+
+    @Test
+    public void queryErrorsAreReported() throws Exception {
+        RecentQueryStore store = new RecentQueryStore();
+        store.recentError = "permission denied";
+        viewModel = new RecentViewModel(store, new ListenerPauser());
+
+        assertEquals("permission denied", await(viewModel.getErrorMessage(), message -> true));
+        assertFalse(await(viewModel.getLoading(), loading -> !loading));
+    }
+
+    private static Note note(String id, String folderId, int age) {
+        Note note = new Note(id, "Note " + id, "Content of " + id, "#4ECDC4", new Date(1_000_000 - age * 1000L));
+        note.setUserId(USER);
+        note.setFolderId(folderId);
+        note.setUpdatedAt(note.getTimestamp());
+        return note;
+    }
+
+    private static List<String> ids(List<Note> notes) {
+        List<String> ids = new ArrayList<>();
+        for (Note note : notes) ids.add(note.getId());
+        return ids;
+    }
+}